@@ -33,6 +33,7 @@ import org.hortonmachine.dbs.geopackage.TileEntry;
 import org.hortonmachine.dbs.geopackage.hm.GeopackageDb;
 import org.hortonmachine.dbs.utils.MercatorUtils;
 import org.hortonmachine.dbs.utils.SqlName;
+import org.hortonmachine.dbs.utils.TileCache;
 import org.hortonmachine.gears.utils.images.TileUtilities;
 import org.hortonmachine.nww.layers.defaults.NwwLayer;
 import org.hortonmachine.nww.utils.cache.CacheUtils;
@@ -64,6 +65,11 @@ public class GeopackageTilesNwwLayer extends BasicMercatorTiledImageLayer implem
     protected static final boolean DEBUG = true;
     protected static final boolean DEBUG_ALSO_WITHOUT_IMAGE = true;
 
+    /**
+     * Tiles cache shared by all the geopackage layers, the other zoom levels are read often when patching tiles.
+     */
+    private static final TileCache TILE_CACHE = new TileCache(64 * 1024 * 1024, true);
+
     private Coordinate centerCoordinate;
 
     public GeopackageTilesNwwLayer( File gpkgFile, String tableName ) throws Exception {
@@ -87,6 +93,7 @@ public class GeopackageTilesNwwLayer extends BasicMercatorTiledImageLayer implem
         GeopackageCommonDb gpkgDb = new GeopackageDb();
         try {
             gpkgDb.open(gpkgFile.getAbsolutePath());
+            gpkgDb.setTileCache(TILE_CACHE);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -0,0 +1,93 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.referencing.crs.DefaultEngineeringCRS;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Synthetic data for the benchmarks.
+ * 
+ * <p>Everything is generated on the fly from a fixed seed, so that the
+ * benchmarks need no external data and are repeatable.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class BenchmarkFixtures {
+
+    public static final long SEED = 42;
+
+    public static final double WEST = 1640000.0;
+    public static final double SOUTH = 5110000.0;
+    public static final double RES = 10.0;
+
+    public static final CoordinateReferenceSystem CRS = DefaultEngineeringCRS.GENERIC_2D;
+
+    /**
+     * Create a dem of a valley draining to the south with some noise and random pits.
+     * 
+     * @param cols the number of columns.
+     * @param rows the number of rows.
+     * @return the dem as a row/col matrix.
+     */
+    public static double[][] dem( int cols, int rows ) {
+        Random random = new Random(SEED);
+        double[][] elev = new double[rows][cols];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double valley = 200.0 * Math.abs(c - cols / 2.0) / cols;
+                double slope = 0.5 * (rows - r);
+                double waves = 5.0 * Math.sin(c / 17.0) * Math.cos(r / 23.0);
+                elev[r][c] = 1000.0 + valley + slope + waves + random.nextDouble() * 0.1;
+            }
+        }
+        int pits = cols * rows / 1000;
+        for( int i = 0; i < pits; i++ ) {
+            int c = 1 + random.nextInt(cols - 2);
+            int r = 1 + random.nextInt(rows - 2);
+            elev[r][c] -= 3.0 + random.nextDouble() * 5.0;
+        }
+        return elev;
+    }
+
+    public static RegionMap region( int cols, int rows ) {
+        return RegionMap.fromBoundsAndResolution(WEST, WEST + cols * RES, SOUTH, SOUTH + rows * RES, RES, RES);
+    }
+
+    public static GridCoverage2D demCoverage( int cols, int rows ) {
+        return CoverageUtilities.buildCoverage("dem", dem(cols, rows), region(cols, rows), CRS, true);
+    }
+
+    /**
+     * Create a temporary file that is removed when the jvm exits.
+     */
+    public static File tempFile( String prefix, String suffix ) throws IOException {
+        File file = File.createTempFile(prefix, suffix);
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks.dbs;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hortonmachine.benchmarks.BenchmarkFixtures;
+import org.hortonmachine.dbs.compat.IHMPreparedStatement;
+import org.hortonmachine.dbs.compat.IHMResultSet;
+import org.hortonmachine.dbs.geopackage.geom.GeoPkgGeomReader;
+import org.hortonmachine.dbs.geopackage.geom.GeoPkgGeomWriter;
+import org.hortonmachine.dbs.spatialite.SpatialiteWKBReader;
+import org.hortonmachine.dbs.spatialite.SpatialiteWKBWriter;
+import org.hortonmachine.dbs.spatialite.hm.SqliteDb;
+import org.hortonmachine.dbs.utils.GeometryBlobDecoder;
+import org.hortonmachine.dbs.utils.HMResultSetConsumer;
+import org.hortonmachine.dbs.utils.SqlName;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of the geometry blobs of a table with the {@link GeoPkgGeomReader} and
+ * {@link SpatialiteWKBReader} against the {@link GeometryBlobDecoder}.
+ *
+ * <p>The blobs are stored in a plain sqlite table, so that no spatial extension is needed.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeometryBlobDecoderBenchmark {
+
+    private static final SqlName TABLE = SqlName.m("benchmark_blobs");
+    private static final String SELECT = "SELECT the_geom FROM " + TABLE.fixedName;
+
+    @Param({"GEOPACKAGE", "SPATIALITE"})
+    public String blobType;
+
+    @Param({"1000000"})
+    public int rows;
+
+    @Param({"20"})
+    public int vertices;
+
+    private SqliteDb db;
+    private File dbFile;
+
+    @Setup
+    public void setup() throws Exception {
+        dbFile = BenchmarkFixtures.tempFile("hm-benchmark", ".sqlite");
+        db = new SqliteDb();
+        db.open(dbFile.getAbsolutePath());
+        db.createTable(TABLE, "id INTEGER PRIMARY KEY", "the_geom BLOB");
+
+        boolean isGeopackage = blobType.equals("GEOPACKAGE");
+        GeometryFactory gf = new GeometryFactory();
+        GeoPkgGeomWriter gpkgWriter = new GeoPkgGeomWriter();
+        SpatialiteWKBWriter spatialiteWriter = new SpatialiteWKBWriter();
+        Random random = new Random(BenchmarkFixtures.SEED);
+        String sql = "INSERT INTO " + TABLE.fixedName + " (id, the_geom) VALUES(?, ?)";
+        db.execOnConnection(connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.enableAutocommit(false);
+            try (IHMPreparedStatement pstmt = connection.prepareStatement(sql)) {
+                for( int i = 0; i < rows; i++ ) {
+                    double x = 10 + random.nextDouble() * 2;
+                    double y = 45 + random.nextDouble() * 2;
+                    Coordinate[] coordinates = new Coordinate[vertices + 1];
+                    for( int j = 0; j < vertices; j++ ) {
+                        double angle = 2 * Math.PI * j / vertices;
+                        double radius = 0.001 * (0.5 + random.nextDouble());
+                        coordinates[j] = new Coordinate(x + radius * Math.cos(angle), y + radius * Math.sin(angle));
+                    }
+                    coordinates[vertices] = coordinates[0];
+                    Polygon polygon = gf.createPolygon(coordinates);
+                    polygon.setSRID(4326);
+
+                    pstmt.setInt(1, i);
+                    pstmt.setBytes(2, isGeopackage ? gpkgWriter.write(polygon) : spatialiteWriter.write(polygon));
+                    pstmt.addBatch();
+                    if (i % 10000 == 0) {
+                        pstmt.executeBatch();
+                    }
+                }
+                pstmt.executeBatch();
+                connection.commit();
+            } finally {
+                connection.enableAutocommit(autoCommit);
+            }
+            return null;
+        });
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        db.close();
+        dbFile.delete();
+    }
+
+    private long scan( HMResultSetConsumer<IHMResultSet, Exception, Long> consumer ) throws Exception {
+        return db.execOnResultSet(SELECT, consumer);
+    }
+
+    @Benchmark
+    public long readersDecode() throws Exception {
+        boolean isGeopackage = blobType.equals("GEOPACKAGE");
+        SpatialiteWKBReader spatialiteReader = new SpatialiteWKBReader();
+        return scan(rs -> {
+            long points = 0;
+            while( rs.next() ) {
+                byte[] blob = rs.getBytes(1);
+                if (isGeopackage) {
+                    points += new GeoPkgGeomReader(blob).get().getNumPoints();
+                } else {
+                    points += spatialiteReader.read(blob).getNumPoints();
+                }
+            }
+            return points;
+        });
+    }
+
+    @Benchmark
+    public long decoderDecode() throws Exception {
+        boolean isGeopackage = blobType.equals("GEOPACKAGE");
+        GeometryBlobDecoder decoder = GeometryBlobDecoder.get();
+        return scan(rs -> {
+            long points = 0;
+            while( rs.next() ) {
+                byte[] blob = rs.getBytes(1);
+                if (isGeopackage) {
+                    points += decoder.decodeGeopackage(blob).getNumPoints();
+                } else {
+                    points += decoder.decodeSpatialite(blob).getNumPoints();
+                }
+            }
+            return points;
+        });
+    }
+
+    @Benchmark
+    public long decoderDecodePacked() throws Exception {
+        boolean isGeopackage = blobType.equals("GEOPACKAGE");
+        GeometryBlobDecoder decoder = GeometryBlobDecoder.getPacked();
+        return scan(rs -> {
+            long points = 0;
+            while( rs.next() ) {
+                byte[] blob = rs.getBytes(1);
+                if (isGeopackage) {
+                    points += decoder.decodeGeopackage(blob).getNumPoints();
+                } else {
+                    points += decoder.decodeSpatialite(blob).getNumPoints();
+                }
+            }
+            return points;
+        });
+    }
+
+    @Benchmark
+    public long readersEnvelope() throws Exception {
+        boolean isGeopackage = blobType.equals("GEOPACKAGE");
+        SpatialiteWKBReader spatialiteReader = new SpatialiteWKBReader();
+        Envelope query = new Envelope(10.5, 11, 45.5, 46);
+        return scan(rs -> {
+            long hits = 0;
+            while( rs.next() ) {
+                byte[] blob = rs.getBytes(1);
+                Envelope envelope;
+                if (isGeopackage) {
+                    envelope = new GeoPkgGeomReader(blob).getEnvelope();
+                } else {
+                    envelope = spatialiteReader.read(blob).getEnvelopeInternal();
+                }
+                if (query.intersects(envelope)) {
+                    hits++;
+                }
+            }
+            return hits;
+        });
+    }
+
+    @Benchmark
+    public long decoderEnvelope() throws Exception {
+        boolean isGeopackage = blobType.equals("GEOPACKAGE");
+        GeometryBlobDecoder decoder = GeometryBlobDecoder.get();
+        double[] envelope = new double[4];
+        Envelope query = new Envelope(10.5, 11, 45.5, 46);
+        return scan(rs -> {
+            long hits = 0;
+            while( rs.next() ) {
+                byte[] blob = rs.getBytes(1);
+                if (isGeopackage) {
+                    decoder.readGeopackageEnvelope(blob, envelope);
+                } else {
+                    decoder.readSpatialiteEnvelope(blob, envelope);
+                }
+                if (envelope[0] <= query.getMaxX() && envelope[2] >= query.getMinX() && envelope[1] <= query.getMaxY()
+                        && envelope[3] >= query.getMinY()) {
+                    hits++;
+                }
+            }
+            return hits;
+        });
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks.dbs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hortonmachine.benchmarks.BenchmarkFixtures;
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.dbs.compat.IHMResultSet;
+import org.hortonmachine.dbs.compat.IHMStatement;
+import org.hortonmachine.dbs.geopackage.GeopackageCommonDb;
+import org.hortonmachine.dbs.utils.ITilesProducer;
+import org.hortonmachine.dbs.utils.SqlName;
+import org.locationtech.jts.geom.Envelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tile reads from a geopackage tiles table through {@link GeopackageCommonDb#getTile(SqlName, int, int, int)}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeopackageTilesBenchmark {
+
+    private static final SqlName TILES_TABLE = SqlName.m("benchmark_tiles");
+    private static final int TILE_BYTES = 20 * 1024;
+    private static final int READS = 1000;
+    private static final int HOT_TILES = 16;
+
+    private GeopackageCommonDb db;
+    private File dbFile;
+    private int[][] randomTiles;
+
+    @Setup
+    public void setup() throws Exception {
+        dbFile = BenchmarkFixtures.tempFile("hm-benchmark", ".gpkg");
+        db = (GeopackageCommonDb) EDb.GEOPACKAGE.getSpatialDb();
+        db.open(dbFile.getAbsolutePath());
+
+        Random random = new Random(BenchmarkFixtures.SEED);
+        byte[] tileData = new byte[TILE_BYTES];
+        random.nextBytes(tileData);
+        Envelope bounds3857 = new Envelope(1250000, 1270000, 5860000, 5880000);
+        db.addTilestable(TILES_TABLE, "benchmark tiles", bounds3857, new ITilesProducer(){
+            public int getMinZoom() {
+                return 12;
+            }
+            public int getMaxZoom() {
+                return 16;
+            }
+            public boolean cancelled() {
+                return false;
+            }
+            public int getTileSize() {
+                return 256;
+            }
+            public Envelope areaConstraint() {
+                return null;
+            }
+            public byte[] getTileData( Envelope tileBounds3857 ) {
+                return tileData;
+            }
+            public void startWorkingOnZoomLevel( int zoomLevel, int workCount ) {
+            }
+            public void worked() {
+            }
+            public void done() {
+            }
+        });
+
+        List<int[]> tiles = db.execOnConnection(connection -> {
+            List<int[]> list = new ArrayList<>();
+            String sql = "SELECT " + GeopackageCommonDb.COL_TILES_ZOOM_LEVEL + "," + GeopackageCommonDb.COL_TILES_TILE_COLUMN
+                    + "," + GeopackageCommonDb.COL_TILES_TILE_ROW + " FROM " + TILES_TABLE.fixedDoubleName;
+            try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(sql)) {
+                while( rs.next() ) {
+                    list.add(new int[]{rs.getInt(1), rs.getInt(2), rs.getInt(3)});
+                }
+            }
+            return list;
+        });
+        randomTiles = new int[READS][];
+        for( int i = 0; i < READS; i++ ) {
+            randomTiles[i] = tiles.get(random.nextInt(tiles.size()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        db.close();
+        dbFile.delete();
+    }
+
+    @Benchmark
+    public long randomTiles() throws Exception {
+        long bytes = 0;
+        for( int[] tile : randomTiles ) {
+            bytes += db.getTile(TILES_TABLE, tile[1], tile[2], tile[0]).length;
+        }
+        return bytes;
+    }
+
+    /**
+     * The typical map panning pattern, the same few tiles requested over and over.
+     */
+    @Benchmark
+    public long hotTiles() throws Exception {
+        long bytes = 0;
+        for( int i = 0; i < READS; i++ ) {
+            int[] tile = randomTiles[i % HOT_TILES];
+            bytes += db.getTile(TILES_TABLE, tile[1], tile[2], tile[0]).length;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks.dbs;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hortonmachine.benchmarks.BenchmarkFixtures;
+import org.hortonmachine.dbs.compat.ASpatialDb;
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.dbs.compat.IHMPreparedStatement;
+import org.hortonmachine.dbs.utils.SqlName;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Spatial window queries through {@link ASpatialDb#getGeometriesIn(SqlName, Envelope, String...)}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SpatialQueryBenchmark {
+
+    private static final SqlName TABLE = SqlName.m("benchmark_polygons");
+    private static final int QUERIES = 100;
+    private static final double QUERY_SIZE = 0.05;
+
+    @Param({"SPATIALITE", "H2GIS"})
+    public String dbType;
+
+    @Param({"100000"})
+    public int features;
+
+    private ASpatialDb db;
+    private File dbFile;
+    private Envelope[] queries;
+
+    @Setup
+    public void setup() throws Exception {
+        EDb edb = EDb.valueOf(dbType);
+        dbFile = BenchmarkFixtures.tempFile("hm-benchmark", edb.getExtensionOnCreation());
+        db = edb.getSpatialDb();
+        db.open(dbFile.getAbsolutePath());
+        db.initSpatialMetadata("'WGS84'");
+        db.createSpatialTable(TABLE, 4326, "the_geom POLYGON", new String[]{"id INT PRIMARY KEY", "name VARCHAR(255)"});
+
+        Random random = new Random(BenchmarkFixtures.SEED);
+        String sql = "INSERT INTO " + TABLE.fixedDoubleName + " (id, name, the_geom) VALUES(?, ?, ST_GeomFromText(?, 4326))";
+        db.execOnConnection(connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.enableAutocommit(false);
+            try (IHMPreparedStatement pstmt = connection.prepareStatement(sql)) {
+                for( int i = 0; i < features; i++ ) {
+                    double x = 10 + random.nextDouble() * 2;
+                    double y = 45 + random.nextDouble() * 2;
+                    double d = 0.001 + random.nextDouble() * 0.005;
+                    String wkt = "POLYGON ((" + x + " " + y + ", " + (x + d) + " " + y + ", " + (x + d) + " " + (y + d) + ", " + x
+                            + " " + (y + d) + ", " + x + " " + y + "))";
+                    pstmt.setInt(1, i);
+                    pstmt.setString(2, "feature " + i);
+                    pstmt.setString(3, wkt);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                connection.commit();
+            } finally {
+                connection.enableAutocommit(autoCommit);
+            }
+            return null;
+        });
+
+        queries = new Envelope[QUERIES];
+        for( int i = 0; i < QUERIES; i++ ) {
+            double x = 10 + random.nextDouble() * (2 - QUERY_SIZE);
+            double y = 45 + random.nextDouble() * (2 - QUERY_SIZE);
+            queries[i] = new Envelope(x, x + QUERY_SIZE, y, y + QUERY_SIZE);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        String path = db.getDatabasePath();
+        db.close();
+        dbFile.delete();
+        new File(path + "." + EDb.valueOf(dbType).getExtension()).delete();
+    }
+
+    @Benchmark
+    public long windowQueries() throws Exception {
+        long count = 0;
+        for( Envelope envelope : queries ) {
+            List<Geometry> geometries = db.getGeometriesIn(TABLE, envelope);
+            count += geometries.size();
+        }
+        return count;
+    }
+}
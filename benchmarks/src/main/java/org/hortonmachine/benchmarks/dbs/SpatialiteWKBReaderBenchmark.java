@@ -0,0 +1,112 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks.dbs;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hortonmachine.benchmarks.BenchmarkFixtures;
+import org.hortonmachine.dbs.spatialite.SpatialiteWKBReader;
+import org.hortonmachine.dbs.spatialite.SpatialiteWKBWriter;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of spatialite geometry blobs with the {@link SpatialiteWKBReader}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SpatialiteWKBReaderBenchmark {
+
+    private static final int GEOMETRIES = 10000;
+
+    @Param({"point", "linestring", "polygon"})
+    public String geometryType;
+
+    @Param({"50"})
+    public int vertices;
+
+    private byte[][] blobs;
+
+    @Setup
+    public void setup() {
+        GeometryFactory gf = new GeometryFactory();
+        SpatialiteWKBWriter writer = new SpatialiteWKBWriter();
+        Random random = new Random(BenchmarkFixtures.SEED);
+        blobs = new byte[GEOMETRIES][];
+        for( int i = 0; i < GEOMETRIES; i++ ) {
+            double x = 10 + random.nextDouble();
+            double y = 45 + random.nextDouble();
+            Geometry geometry;
+            switch( geometryType ) {
+            case "linestring": {
+                Coordinate[] coordinates = new Coordinate[vertices];
+                for( int j = 0; j < vertices; j++ ) {
+                    coordinates[j] = new Coordinate(x + j * 0.001, y + random.nextDouble() * 0.001);
+                }
+                geometry = gf.createLineString(coordinates);
+                break;
+            }
+            case "polygon": {
+                Coordinate[] coordinates = new Coordinate[vertices + 1];
+                for( int j = 0; j < vertices; j++ ) {
+                    double angle = 2 * Math.PI * j / vertices;
+                    double radius = 0.01 * (0.5 + random.nextDouble());
+                    coordinates[j] = new Coordinate(x + radius * Math.cos(angle), y + radius * Math.sin(angle));
+                }
+                coordinates[vertices] = coordinates[0];
+                geometry = gf.createPolygon(coordinates);
+                break;
+            }
+            default:
+                geometry = gf.createPoint(new Coordinate(x, y));
+                break;
+            }
+            geometry.setSRID(4326);
+            blobs[i] = writer.write(geometry);
+        }
+    }
+
+    @Benchmark
+    public long read() throws Exception {
+        SpatialiteWKBReader reader = new SpatialiteWKBReader();
+        long points = 0;
+        for( byte[] blob : blobs ) {
+            points += reader.read(blob).getNumPoints();
+        }
+        return points;
+    }
+}
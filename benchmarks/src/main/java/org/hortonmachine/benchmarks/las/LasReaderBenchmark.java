@@ -0,0 +1,132 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks.las;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hortonmachine.benchmarks.BenchmarkFixtures;
+import org.hortonmachine.gears.io.las.core.ALasReader;
+import org.hortonmachine.gears.io.las.core.ALasWriter;
+import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.LasRecordBatch;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderBuffered;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderMapped;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of a full pass over a synthetic las file with the different readers.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LasReaderBenchmark {
+
+    @Param({"1000000", "5000000"})
+    public int points;
+
+    private File lasFile;
+
+    @Setup
+    public void setup() throws Exception {
+        lasFile = BenchmarkFixtures.tempFile("hm-benchmark", ".las");
+        double side = Math.sqrt(points);
+        double west = BenchmarkFixtures.WEST;
+        double south = BenchmarkFixtures.SOUTH;
+        Random random = new Random(BenchmarkFixtures.SEED);
+        try (ALasWriter writer = ALasWriter.getWriter(lasFile, null)) {
+            writer.setOffset(west, south, 0);
+            writer.setBounds(west, west + side, south, south + side, 1000, 1100);
+            writer.open();
+            LasRecord dot = new LasRecord();
+            for( int i = 0; i < points; i++ ) {
+                dot.x = west + random.nextDouble() * side;
+                dot.y = south + random.nextDouble() * side;
+                dot.z = 1000 + random.nextDouble() * 100;
+                dot.intensity = (short) random.nextInt(1000);
+                dot.classification = (byte) (1 + random.nextInt(5));
+                dot.returnNumber = 1;
+                dot.numberOfReturns = 1;
+                dot.gpsTime = i * 0.0001;
+                writer.addPoint(dot);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        lasFile.delete();
+    }
+
+    @Benchmark
+    public double bufferedPointByPoint() throws Exception {
+        double sum = 0;
+        try (ALasReader reader = new LasReaderBuffered(lasFile, null)) {
+            reader.open();
+            while( reader.hasNextPoint() ) {
+                LasRecord dot = reader.getNextPoint();
+                sum += dot.z;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double bufferedBatches() throws Exception {
+        try (ALasReader reader = new LasReaderBuffered(lasFile, null)) {
+            return sumBatches(reader);
+        }
+    }
+
+    @Benchmark
+    public double mappedBatches() throws Exception {
+        try (ALasReader reader = new LasReaderMapped(lasFile, null)) {
+            return sumBatches(reader);
+        }
+    }
+
+    private static double sumBatches( ALasReader reader ) throws Exception {
+        reader.open();
+        LasRecordBatch batch = new LasRecordBatch(65536);
+        double sum = 0;
+        int read;
+        while( (read = reader.readNextBatch(batch)) > 0 ) {
+            for( int i = 0; i < read; i++ ) {
+                sum += batch.z[i];
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks.multiprocessing;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.FixedChunkSizePlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
+import org.hortonmachine.gears.libs.modules.multiprocessing.InThreadExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.TiledExecutionPlanner;
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link ExecutionPlanner}s on a 3x3 slope kernel over a synthetic grid.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PlannerBenchmark {
+
+    @Param({"1000", "4000"})
+    public int size;
+
+    @Param({"inthread", "fixedchunk", "tiled"})
+    public String planner;
+
+    private double[] elev;
+    private double[] out;
+    private KernelProcessing processing;
+
+    @Setup
+    public void setup() {
+        elev = new double[size * size];
+        out = new double[size * size];
+        for( int r = 0; r < size; r++ ) {
+            for( int c = 0; c < size; c++ ) {
+                elev[r * size + c] = 1000.0 + 50.0 * Math.sin(c / 37.0) * Math.cos(r / 53.0) + 0.01 * c;
+            }
+        }
+        processing = new KernelProcessing();
+    }
+
+    @Benchmark
+    public double[] slopeKernel() throws Exception {
+        processing.run();
+        return out;
+    }
+
+    private class KernelProcessing extends GridMultiProcessing {
+        KernelProcessing() {
+            pm = new DummyProgressMonitor();
+        }
+
+        @Override
+        protected ExecutionPlanner createDefaultPlanner() {
+            switch( planner ) {
+            case "fixedchunk":
+                return new FixedChunkSizePlanner();
+            case "tiled":
+                return new TiledExecutionPlanner();
+            default:
+                return new InThreadExecutionPlanner();
+            }
+        }
+
+        void run() throws Exception {
+            processGrid(size, size, true, ( c, r ) -> {
+                int i = r * size + c;
+                double dx = (elev[i + 1] - elev[i - 1]) / 2.0;
+                double dy = (elev[i + size] - elev[i - size]) / 2.0;
+                out[i] = Math.atan(Math.sqrt(dx * dx + dy * dy));
+            });
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks.raster;
+
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.benchmarks.BenchmarkFixtures;
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsDePitter;
+import org.hortonmachine.hmachine.modules.geomorphology.flow.OmsFlowDirections;
+import org.hortonmachine.hmachine.modules.geomorphology.tca.OmsTca;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The basic geomorphology chain on a synthetic dem: depitting, flow directions and contributing areas.
+ * 
+ * <p>The inputs of each step are prepared once in the setup, so every benchmark measures a single module.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeomorphologyBenchmark {
+
+    @Param({"500", "2000"})
+    public int size;
+
+    private GridCoverage2D dem;
+    private GridCoverage2D pit;
+    private GridCoverage2D flow;
+
+    @Setup
+    public void setup() throws Exception {
+        dem = BenchmarkFixtures.demCoverage(size, size);
+        pit = dePitter();
+        flow = flowDirections();
+    }
+
+    @Benchmark
+    public GridCoverage2D dePitter() throws Exception {
+        OmsDePitter dePitter = new OmsDePitter();
+        dePitter.pm = new DummyProgressMonitor();
+        dePitter.inElev = dem;
+        dePitter.process();
+        return dePitter.outPit;
+    }
+
+    @Benchmark
+    public GridCoverage2D flowDirections() throws Exception {
+        OmsFlowDirections flowDirections = new OmsFlowDirections();
+        flowDirections.pm = new DummyProgressMonitor();
+        flowDirections.inPit = pit;
+        flowDirections.process();
+        return flowDirections.outFlow;
+    }
+
+    @Benchmark
+    public GridCoverage2D tca() throws Exception {
+        OmsTca tca = new OmsTca();
+        tca.pm = new DummyProgressMonitor();
+        tca.inFlow = flow;
+        tca.process();
+        return tca.outTca;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks.raster;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.jai.iterator.RandomIter;
+
+import org.hortonmachine.benchmarks.BenchmarkFixtures;
+import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Neighbourhood traversal through {@link GridNode}s, as done by most of the geomorphology modules.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GridNodeBenchmark {
+
+    @Param({"500", "2000"})
+    public int size;
+
+    private RandomIter elevIter;
+
+    @Setup
+    public void setup() {
+        elevIter = CoverageUtilities.getRandomIterator(BenchmarkFixtures.demCoverage(size, size));
+    }
+
+    @TearDown
+    public void tearDown() {
+        elevIter.done();
+    }
+
+    @Benchmark
+    public double validSurroundingNodes() {
+        double sum = 0;
+        for( int r = 0; r < size; r++ ) {
+            for( int c = 0; c < size; c++ ) {
+                GridNode node = new GridNode(elevIter, size, size, BenchmarkFixtures.RES, BenchmarkFixtures.RES, c, r,
+                        HMConstants.doubleNovalue);
+                List<GridNode> nodes = node.getValidSurroundingNodes();
+                for( GridNode gridNode : nodes ) {
+                    sum += gridNode.elevation;
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long flowDirections() {
+        long sum = 0;
+        for( int r = 0; r < size; r++ ) {
+            for( int c = 0; c < size; c++ ) {
+                GridNode node = new GridNode(elevIter, size, size, BenchmarkFixtures.RES, BenchmarkFixtures.RES, c, r,
+                        HMConstants.doubleNovalue);
+                sum += node.getFlow();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double downstreamPaths() {
+        // follow the steepest path from the first row of a column every 10
+        double length = 0;
+        for( int c = 0; c < size; c += 10 ) {
+            GridNode node = new GridNode(elevIter, size, size, BenchmarkFixtures.RES, BenchmarkFixtures.RES, c, 0,
+                    HMConstants.doubleNovalue);
+            int steps = 0;
+            while( node != null && steps < size * 2 ) {
+                node = node.goDownstreamSP();
+                steps++;
+            }
+            length += steps;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks.raster;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.jai.iterator.RandomIter;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.benchmarks.BenchmarkFixtures;
+import org.hortonmachine.gears.libs.modules.HMRaster;
+import org.hortonmachine.gears.libs.modules.HMRaster.HMRasterWritableBuilder;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares cell access through {@link HMRaster}, on heap and mapped, with a plain {@link RandomIter}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RasterAccessBenchmark {
+
+    private static final int RANDOM_READS = 1000000;
+
+    @Param({"1000", "4000"})
+    public int size;
+
+    @Param({"randomiter", "hmraster", "hmraster-mapped"})
+    public String access;
+
+    private RandomIter iter;
+    private HMRaster raster;
+    private int[] randomCols;
+    private int[] randomRows;
+
+    @Setup
+    public void setup() throws Exception {
+        GridCoverage2D dem = BenchmarkFixtures.demCoverage(size, size);
+        switch( access ) {
+        case "hmraster":
+            raster = HMRaster.fromGridCoverage(dem);
+            break;
+        case "hmraster-mapped":
+            raster = new HMRasterWritableBuilder().setName("dem").setTemplate(dem).setCopyValues(true).setDoMapped(true)
+                    .build();
+            break;
+        default:
+            iter = CoverageUtilities.getRandomIterator(dem);
+            break;
+        }
+
+        Random random = new Random(BenchmarkFixtures.SEED);
+        randomCols = new int[RANDOM_READS];
+        randomRows = new int[RANDOM_READS];
+        for( int i = 0; i < RANDOM_READS; i++ ) {
+            randomCols[i] = random.nextInt(size);
+            randomRows[i] = random.nextInt(size);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (raster != null) {
+            raster.close();
+        }
+        if (iter != null) {
+            iter.done();
+        }
+    }
+
+    private double value( int col, int row ) {
+        if (raster != null) {
+            return raster.getValue(col, row);
+        }
+        return iter.getSampleDouble(col, row, 0);
+    }
+
+    @Benchmark
+    public double sequentialRead() {
+        double sum = 0;
+        for( int r = 0; r < size; r++ ) {
+            for( int c = 0; c < size; c++ ) {
+                sum += value(c, r);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double randomRead() {
+        double sum = 0;
+        for( int i = 0; i < RANDOM_READS; i++ ) {
+            sum += value(randomCols[i], randomRows[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double windowRead() {
+        double sum = 0;
+        for( int r = 1; r < size - 1; r++ ) {
+            for( int c = 1; c < size - 1; c++ ) {
+                double max = Double.NEGATIVE_INFINITY;
+                for( int dr = -1; dr <= 1; dr++ ) {
+                    for( int dc = -1; dc <= 1; dc++ ) {
+                        max = Math.max(max, value(c + dc, r + dr));
+                    }
+                }
+                sum += max;
+            }
+        }
+        return sum;
+    }
+}
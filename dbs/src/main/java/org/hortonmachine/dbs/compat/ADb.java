@@ -57,6 +57,16 @@ public abstract class ADb implements AutoCloseable, IVisitableDb {
     protected int minSize = 5;
     protected int maxSize = 10;
 
+    /**
+     * The fetch size used by the streaming exports.
+     */
+    protected static final int CURSOR_FETCH_SIZE = 1000;
+
+    /**
+     * Defines if reads should run on a pool of dedicated read connections. False by default.
+     */
+    protected boolean concurrentReaders = false;
+
     /**
      * Get the database type.
      * 
@@ -86,6 +96,27 @@ public abstract class ADb implements AutoCloseable, IVisitableDb {
         }
     }
 
+    /**
+     * Set the concurrent readers behavior.
+     * 
+     * <p>
+     * Supported by the sqlite based databases, which otherwise work on a single connection.
+     * If enabled, the database is switched to WAL journal mode, reads passed to
+     * {@link #execOnReadConnection(HMConnectionConsumer)} run on a pool of read only connections
+     * of at most the max pool size, and writes passed to {@link #execOnConnection(HMConnectionConsumer)}
+     * are queued to the single writer connection. Ignored by in-memory databases.
+     * </p>
+     * 
+     * <p>
+     * To be called before the {@link #open(String)} method.
+     * </p>
+     * 
+     * @param concurrentReaders if true, reads run on dedicated connections.
+     */
+    public void setConcurrentReaders(boolean concurrentReaders) {
+        this.concurrentReaders = concurrentReaders;
+    }
+
     /**
      * Open the connection to a database.
      * 
@@ -168,6 +199,19 @@ public abstract class ADb implements AutoCloseable, IVisitableDb {
      */
     public abstract IHMConnection getConnectionInternal() throws Exception;
 
+    /**
+     * Get a connection for read only operations. It has to be released after use.
+     * 
+     * <p>By default the same as {@link #getConnectionInternal()}, databases with concurrent
+     * readers (see {@link #setConcurrentReaders(boolean)}) return one of the read connections.</p>
+     * 
+     * @return the connection to the database.
+     * @throws Exception
+     */
+    public IHMConnection getReadConnectionInternal() throws Exception {
+        return getConnectionInternal();
+    }
+
     /**
      * Get database infos.
      * 
@@ -195,27 +239,47 @@ public abstract class ADb implements AutoCloseable, IVisitableDb {
     }
 
     /**
-     * Execute an operation to get a resultset. This handles proper releasing of the
-     * resultset.
+     * Execute a read only operation on a database connection. This handles proper releasing
+     * of the connection.
+     * 
+     * <p>
+     * The operation runs on the connection given by {@link #getReadConnectionInternal()}, which
+     * for databases with concurrent readers (see {@link #setConcurrentReaders(boolean)}) is a
+     * dedicated read connection, so the consumer must not write.
+     * </p>
      * 
      * @param consumer the operation to perform.
      * @throws Exception
      */
-    public <T> T execOnResultSet(String sql, HMResultSetConsumer<IHMResultSet, Exception, T> consumer)
-            throws Exception {
-        IHMConnection connection = getConnectionInternal();
+    public <T> T execOnReadConnection(HMConnectionConsumer<IHMConnection, Exception, T> consumer) throws Exception {
+        IHMConnection connection = getReadConnectionInternal();
         if (connection == null) {
             return null;
         }
-
-        try (IHMStatement statement = connection.createStatement()) {
-            IHMResultSet resultSet = statement.executeQuery(sql);
-            return consumer.execOnResultSet(resultSet);
+        try {
+            return consumer.execOnConnection(connection);
         } finally {
             connection.release();
         }
     }
 
+    /**
+     * Execute an operation to get a resultset. This handles proper releasing of the
+     * resultset.
+     * 
+     * @param consumer the operation to perform.
+     * @throws Exception
+     */
+    public <T> T execOnResultSet(String sql, HMResultSetConsumer<IHMResultSet, Exception, T> consumer)
+            throws Exception {
+        return execOnReadConnection(connection -> {
+            try (IHMStatement statement = connection.createStatement()) {
+                IHMResultSet resultSet = statement.executeQuery(sql);
+                return consumer.execOnResultSet(resultSet);
+            }
+        });
+    }
+
     /**
      * Create a new table.
      * 
@@ -502,9 +566,46 @@ public abstract class ADb implements AutoCloseable, IVisitableDb {
         return queryResult;
     }
 
+    /**
+     * Get a forward only cursor over the result of a raw sql query.
+     * 
+     * <p>Contrary to {@link #getTableRecordsMapFromRawSql(String, int)}, the records are
+     * not kept in memory. The cursor needs to be closed after use.</p>
+     * 
+     * @param sql
+     *                  the sql to run.
+     * @param fetchSize
+     *                  the number of rows to fetch at once from the database, if > 0.
+     * @return the cursor.
+     * @throws Exception
+     */
+    public HMCursor getCursorFromRawSql(String sql, int fetchSize) throws Exception {
+        return getCursor(sql, fetchSize, -1, -1);
+    }
+
+    /**
+     * Create a cursor on a read connection.
+     * 
+     * @param sql the sql to run.
+     * @param fetchSize the number of rows to fetch at once from the database, if > 0.
+     * @param geometryIndex the index of the geometry column, -1 if none.
+     * @param pkIndex the index of the primary key, -1 if unknown.
+     * @return the cursor.
+     * @throws Exception
+     */
+    protected HMCursor getCursor(String sql, int fetchSize, int geometryIndex, int pkIndex) throws Exception {
+        IHMConnection connection = getReadConnectionInternal();
+        EDb type = getType();
+        boolean inTransaction = fetchSize > 0 && (type == EDb.POSTGRES || type == EDb.POSTGIS);
+        IGeometryParser geometryParser = geometryIndex != -1 ? type.getGeometryParser() : null;
+        return new HMCursor(connection, sql, fetchSize, inTransaction, geometryIndex, pkIndex, geometryParser);
+    }
+
     /**
      * Execute a query from raw sql and put the result in a csv file.
      * 
+     * <p>The records are streamed to the file, so this works also for very large results.</p>
+     * 
      * @param sql
      *                  the sql to run.
      * @param csvFile
@@ -516,36 +617,34 @@ public abstract class ADb implements AutoCloseable, IVisitableDb {
      * @throws Exception
      */
     public void runRawSqlToCsv(String sql, File csvFile, boolean doHeader, String separator) throws Exception {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(csvFile))) {
-            execOnConnection(connection -> {
-                try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(sql)) {
-                    IHMResultSetMetaData rsmd = rs.getMetaData();
-                    int columnCount = rsmd.getColumnCount();
-                    for (int i = 1; i <= columnCount; i++) {
-                        if (i > 1) {
-                            bw.write(separator);
-                        }
-                        String columnName = rsmd.getColumnName(i);
-                        bw.write(columnName);
+        if (separator == null) {
+            separator = ";";
+        }
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(csvFile));
+                HMCursor cursor = getCursorFromRawSql(sql, CURSOR_FETCH_SIZE)) {
+            List<String> names = cursor.getNames();
+            int columnCount = names.size();
+            if (doHeader) {
+                for (int i = 0; i < columnCount; i++) {
+                    if (i > 0) {
+                        bw.write(separator);
                     }
-                    bw.write("\n");
-                    while (rs.next()) {
-                        for (int j = 1; j <= columnCount; j++) {
-                            if (j > 1) {
-                                bw.write(separator);
-                            }
-                            Object object = rs.getObject(j);
-                            if (object != null) {
-                                bw.write(object.toString());
-                            } else {
-                                bw.write("");
-                            }
-                        }
-                        bw.write("\n");
+                    bw.write(names.get(i));
+                }
+                bw.write("\n");
+            }
+            while (cursor.next()) {
+                for (int j = 0; j < columnCount; j++) {
+                    if (j > 0) {
+                        bw.write(separator);
+                    }
+                    Object object = cursor.getObject(j);
+                    if (object != null) {
+                        bw.write(object.toString());
                     }
                 }
-                return null;
-            });
+                bw.write("\n");
+            }
         }
     }
 
@@ -17,13 +17,16 @@
  */
 package org.hortonmachine.dbs.compat;
 
+import java.io.Writer;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
 import org.hortonmachine.dbs.compat.objects.QueryResult;
 import org.hortonmachine.dbs.utils.DbsUtilities;
+import org.hortonmachine.dbs.utils.GeojsonWriter;
 import org.hortonmachine.dbs.utils.SqlName;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
@@ -250,6 +253,74 @@ public abstract class ASpatialDb extends ADb {
     public abstract QueryResult getTableRecordsMapIn( SqlName tableName, Envelope envelope, int limit, int reprojectSrid,
             String whereStr ) throws Exception;
 
+    /**
+     * Get a forward only cursor over the records of a table.
+     * 
+     * <p>Contrary to {@link #getTableRecordsMapIn(SqlName, Envelope, int, int, String)}, the
+     * records are not kept in memory and the geometries are parsed only when accessed through
+     * {@link HMCursor#getGeometry()}. The cursor needs to be closed after use.</p>
+     * 
+     * @param tableName
+     *            the table name.
+     * @param envelope
+     *            an optional envelope to check, in the table SRS.
+     * @param reprojectSrid an optional srid to require reprojection (-1 is disabled).
+     * @param whereStr an optional where condition string to apply.
+     * @param fetchSize the number of rows to fetch at once from the database, if > 0.
+     * @return the cursor.
+     * @throws Exception
+     */
+    public HMCursor getTableCursorIn( SqlName tableName, Envelope envelope, int reprojectSrid, String whereStr, int fetchSize )
+            throws Exception {
+        GeometryColumn gCol = null;
+        try {
+            gCol = getGeometryColumnsForTable(tableName);
+        } catch (Exception e) {
+            // ignore
+        }
+
+        List<String[]> tableColumnsInfo = getTableColumns(tableName);
+        List<String> items = new ArrayList<>();
+        int geometryIndex = -1;
+        int pkIndex = -1;
+        for( int i = 0; i < tableColumnsInfo.size(); i++ ) {
+            String[] columnInfo = tableColumnsInfo.get(i);
+            String columnName = columnInfo[0];
+            if (DbsUtilities.isReservedName(columnName)) {
+                columnName = DbsUtilities.fixReservedNameForQuery(columnName);
+            }
+            if ("1".equals(columnInfo[2])) {
+                pkIndex = i;
+            }
+            if (gCol != null && columnName.equalsIgnoreCase(gCol.geometryColumnName)) {
+                geometryIndex = i;
+                if (reprojectSrid == -1 || reprojectSrid == gCol.srid) {
+                    items.add(columnName);
+                } else {
+                    items.add("ST_Transform(" + columnName + "," + reprojectSrid + ") AS " + columnName);
+                }
+            } else {
+                items.add(columnName);
+            }
+        }
+
+        String sql = "SELECT " + DbsUtilities.joinByComma(items) + " FROM " + tableName.fixedDoubleName;
+        List<String> wheres = new ArrayList<>();
+        if (envelope != null && gCol != null) {
+            String spatialindexBBoxWherePiece = getSpatialindexBBoxWherePiece(tableName, null, envelope.getMinX(),
+                    envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY());
+            if (spatialindexBBoxWherePiece != null)
+                wheres.add(spatialindexBBoxWherePiece);
+        }
+        if (whereStr != null) {
+            wheres.add(whereStr);
+        }
+        if (wheres.size() > 0) {
+            sql += " WHERE " + DbsUtilities.joinBySeparator(wheres, " AND ");
+        }
+        return getCursor(sql, fetchSize, geometryIndex, pkIndex);
+    }
+
     /**
      * Get the geometries of a table inside a given envelope.
      * 
@@ -394,6 +465,54 @@ public abstract class ASpatialDb extends ADb {
     public abstract String getGeojsonIn( SqlName tableName, String[] fields, String wherePiece, Integer precision )
             throws Exception;
 
+    /**
+     * Write the geojson of a table to a writer, feature by feature.
+     * 
+     * <p>Contrary to {@link #getGeojsonIn(SqlName, String[], String, Integer)}, the geojson
+     * is not assembled in memory, so this works also for large tables. Geometries are
+     * reprojected to EPSG:4326.</p>
+     * 
+     * @param tableName
+     *            the table name.
+     * @param fields the fields to add as properties, if <code>null</code> all fields are added.
+     * @param wherePiece an optional where string.
+     * @param precision the number of decimals of the coordinates, if <code>null</code> or 0, 6 is used.
+     * @param writer the writer to write to. It is not closed.
+     * @throws Exception
+     */
+    public void writeGeojsonIn( SqlName tableName, String[] fields, String wherePiece, Integer precision, Writer writer )
+            throws Exception {
+        if (precision == null || precision == 0) {
+            precision = 6;
+        }
+        GeojsonWriter geojsonWriter = new GeojsonWriter(writer, precision);
+        geojsonWriter.start();
+        try (HMCursor cursor = getTableCursorIn(tableName, null, 4326, wherePiece, CURSOR_FETCH_SIZE)) {
+            List<String> names = cursor.getNames();
+            int geometryIndex = cursor.getGeometryIndex();
+            List<Integer> fieldIndexes = new ArrayList<>();
+            List<String> fieldNames = new ArrayList<>();
+            for( int i = 0; i < names.size(); i++ ) {
+                String name = names.get(i);
+                if (i == geometryIndex) {
+                    continue;
+                }
+                if (fields == null || Arrays.stream(fields).anyMatch(f -> f.equalsIgnoreCase(name))) {
+                    fieldIndexes.add(i);
+                    fieldNames.add(name);
+                }
+            }
+            Object[] values = new Object[fieldIndexes.size()];
+            while( cursor.next() ) {
+                for( int i = 0; i < values.length; i++ ) {
+                    values[i] = cursor.getObject(fieldIndexes.get(i));
+                }
+                geojsonWriter.writeFeature(cursor.getGeometry(), fieldNames, values);
+            }
+        }
+        geojsonWriter.end();
+    }
+
     /**
      * Get the bounds of a table.
      * 
@@ -0,0 +1,228 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.dbs.compat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.hortonmachine.dbs.compat.objects.QueryResult;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * A forward only cursor over the records of a query.
+ *
+ * <p>Contrary to {@link QueryResult}, only the current record is kept in memory. The
+ * geometry, if any, is kept as the raw database object and parsed only when
+ * {@link #getGeometry()} is called.</p>
+ *
+ * <p>The cursor holds a database connection until it is closed, so it should
+ * always be used in a try-with-resources block:</p>
+ *
+ * <pre>
+ * try (HMCursor cursor = db.getCursorFromRawSql(sql, 1000)) {
+ *     while( cursor.next() ) {
+ *         Object value = cursor.getObject(0);
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class HMCursor implements AutoCloseable {
+
+    private final IHMConnection connection;
+    private final IHMStatement statement;
+    private final IHMResultSet resultSet;
+    private final boolean restoreAutoCommit;
+    private final IGeometryParser geometryParser;
+    private final int geometryIndex;
+    private final int pkIndex;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<String> types = new ArrayList<>();
+    private final int columnCount;
+
+    private Object[] record;
+    private Geometry geometry;
+    private boolean geometryParsed;
+    private boolean closed = false;
+
+    /**
+     * Create a cursor. The connection is released when the cursor is closed.
+     *
+     * @param connection the connection to use.
+     * @param sql the query to run.
+     * @param fetchSize the number of rows to fetch at once, if > 0.
+     * @param inTransaction if <code>true</code>, the query runs with autocommit disabled, as
+     *          needed by drivers that, as the postgres one, fetch in chunks only inside a transaction.
+     * @param geometryIndex the index of the geometry column, -1 if none.
+     * @param pkIndex the index of the primary key column, -1 if unknown.
+     * @param geometryParser the parser for the geometry column, can be null if there is none.
+     * @throws Exception
+     */
+    public HMCursor( IHMConnection connection, String sql, int fetchSize, boolean inTransaction, int geometryIndex,
+            int pkIndex, IGeometryParser geometryParser ) throws Exception {
+        this.connection = connection;
+        this.geometryIndex = geometryIndex;
+        this.pkIndex = pkIndex;
+        this.geometryParser = geometryParser;
+
+        IHMStatement stmt = null;
+        boolean changedAutoCommit = false;
+        try {
+            if (inTransaction && connection.getAutoCommit()) {
+                connection.setAutoCommit(false);
+                changedAutoCommit = true;
+            }
+            stmt = connection.createStatement();
+            if (fetchSize > 0) {
+                stmt.setFetchSize(fetchSize);
+            }
+            resultSet = stmt.executeQuery(sql);
+            IHMResultSetMetaData rsmd = resultSet.getMetaData();
+            columnCount = rsmd.getColumnCount();
+            for( int i = 1; i <= columnCount; i++ ) {
+                names.add(rsmd.getColumnName(i));
+                types.add(rsmd.getColumnTypeName(i));
+            }
+        } catch (Exception e) {
+            if (stmt != null) {
+                stmt.close();
+            }
+            if (changedAutoCommit) {
+                connection.setAutoCommit(true);
+            }
+            connection.release();
+            throw e;
+        }
+        statement = stmt;
+        restoreAutoCommit = changedAutoCommit;
+    }
+
+    /**
+     * @return the names of the columns.
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @return the types of the columns.
+     */
+    public List<String> getTypes() {
+        return Collections.unmodifiableList(types);
+    }
+
+    /**
+     * @return the index of the geometry column or -1.
+     */
+    public int getGeometryIndex() {
+        return geometryIndex;
+    }
+
+    /**
+     * @return the index of the primary key column or -1.
+     */
+    public int getPkIndex() {
+        return pkIndex;
+    }
+
+    /**
+     * Move to the next record.
+     *
+     * <p>The cursor is closed when the records are finished.</p>
+     *
+     * @return <code>true</code> if a new record is available.
+     * @throws Exception
+     */
+    public boolean next() throws Exception {
+        if (closed) {
+            return false;
+        }
+        if (!resultSet.next()) {
+            close();
+            return false;
+        }
+        record = new Object[columnCount];
+        for( int i = 0; i < columnCount; i++ ) {
+            record[i] = resultSet.getObject(i + 1);
+        }
+        geometry = null;
+        geometryParsed = false;
+        return true;
+    }
+
+    /**
+     * Get a value of the current record.
+     *
+     * @param index the 0 based column index.
+     * @return the value. For the geometry column this is the raw database object.
+     */
+    public Object getObject( int index ) {
+        return record[index];
+    }
+
+    /**
+     * Get the current record.
+     *
+     * <p>A new array is created for every record, so it is safe to keep it.</p>
+     *
+     * @return the values of the current record, with the geometry column set to the raw database object.
+     */
+    public Object[] getRecord() {
+        return record;
+    }
+
+    /**
+     * Get the geometry of the current record, parsing it on first access.
+     *
+     * @return the geometry or <code>null</code>.
+     * @throws Exception
+     */
+    public Geometry getGeometry() throws Exception {
+        if (geometryIndex == -1) {
+            return null;
+        }
+        if (!geometryParsed) {
+            Object geometryObject = record[geometryIndex];
+            geometry = geometryObject != null ? geometryParser.fromSqlObject(geometryObject) : null;
+            geometryParsed = true;
+        }
+        return geometry;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            resultSet.close();
+            statement.close();
+            if (restoreAutoCommit) {
+                connection.commit();
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            connection.release();
+        }
+    }
+
+}
@@ -37,4 +37,12 @@ public interface IHMStatement extends AutoCloseable {
 
     int[] executeBatch() throws Exception;
 
+    /**
+     * Hint to the driver about the number of rows to fetch at once from the database.
+     * 
+     * @param rows the number of rows, 0 for the driver default.
+     * @throws Exception
+     */
+    void setFetchSize( int rows ) throws Exception;
+
 }
@@ -51,11 +51,13 @@ import org.hortonmachine.dbs.spatialite.SpatialiteCommonMethods;
 import org.hortonmachine.dbs.spatialite.SpatialiteGeometryColumns;
 import org.hortonmachine.dbs.utils.BasicStyle;
 import org.hortonmachine.dbs.utils.DbsUtilities;
+import org.hortonmachine.dbs.utils.HMConnectionConsumer;
 import org.hortonmachine.dbs.utils.ITilesProducer;
 import org.hortonmachine.dbs.utils.MercatorUtils;
 import org.hortonmachine.dbs.utils.ResultSetToObjectFunction;
 import org.hortonmachine.dbs.utils.SqlName;
 import org.hortonmachine.dbs.utils.TableName;
+import org.hortonmachine.dbs.utils.TileCache;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
@@ -78,6 +80,9 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
     public static final String COL_TILES_TILE_DATA = "tile_data";
     public static final String SELECTQUERY = "SELECT " + COL_TILES_TILE_DATA + " from %s where " + COL_TILES_ZOOM_LEVEL
             + "=? AND " + COL_TILES_TILE_COLUMN + "=? AND " + COL_TILES_TILE_ROW + "=?";
+    public static final String SELECTRANGEQUERY = "SELECT " + COL_TILES_TILE_COLUMN + ", " + COL_TILES_TILE_ROW + ", "
+            + COL_TILES_TILE_DATA + " from %s where " + COL_TILES_ZOOM_LEVEL + "=? AND " + COL_TILES_TILE_COLUMN
+            + " BETWEEN ? AND ? AND " + COL_TILES_TILE_ROW + " BETWEEN ? AND ?";
     public static final String INSERTQUERY = "insert or replace into %s (" + COL_TILES_ZOOM_LEVEL + ", " + COL_TILES_TILE_COLUMN
             + ", " + COL_TILES_TILE_ROW + ", " + COL_TILES_TILE_DATA + ") VALUES (?,?,?,?)";
     public static final int MERCATOR_SRID = 3857;
@@ -98,6 +103,8 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
      */
     protected boolean forceMobileCompatibility = false;
 
+    private TileCache tileCache;
+
     public abstract void createFunctions() throws Exception;
 
     @Override
@@ -123,6 +130,8 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
 
     public boolean open( String dbPath ) throws Exception {
         sqliteDb.setCredentials(user, password);
+        sqliteDb.setConcurrentReaders(concurrentReaders);
+        sqliteDb.setMinMaxPoolSize(minSize, maxSize);
         boolean dbExists = sqliteDb.open(dbPath);
 
         sqliteDb.getConnectionData().dbType = getType().getCode();
@@ -371,12 +380,15 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
      * @throws Exception
      */
     public byte[] getTile( SqlName tableName, int tx, int ty, int zoom ) throws Exception {
+        if (tileCache != null) {
+            return tileCache.getTile(getTileCacheLayer(tableName), zoom, tx, ty, getTilesFetcher(tableName));
+        }
         // if (tileRowType.equals("tms")) { // if it is not OSM way
         // int[] tmsTileXY = MercatorUtils.osmTile2TmsTile(tx, ty, zoom);
         // ty = tmsTileXY[1];
         // }
         String sql = format(SELECTQUERY, tableName.fixedDoubleName);
-        return sqliteDb.execOnConnection(connection -> {
+        return sqliteDb.execOnReadConnection(connection -> {
             byte[] imageBytes = null;
             try (IHMPreparedStatement statement = connection.prepareStatement(sql)) {
                 statement.setInt(1, zoom);
@@ -392,6 +404,75 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
         });
     }
 
+    /**
+     * Get the tiles of a range of tile indexes with a single query.
+     * 
+     * @param tableName the table name to get the images from.
+     * @param zoom the zoom level.
+     * @param minTx the min x tile index.
+     * @param maxTx the max x tile index.
+     * @param minTy the min y tile index, the osm way.
+     * @param maxTy the max y tile index, the osm way.
+     * @return the tile image bytes, row by row, at index <code>(ty - minTy) * (maxTx - minTx + 1) + (tx - minTx)</code>.
+     *          Missing tiles are <code>null</code>.
+     * @throws Exception
+     */
+    public byte[][] getTiles( SqlName tableName, int zoom, int minTx, int maxTx, int minTy, int maxTy ) throws Exception {
+        TileCache.ITilesFetcher fetcher = getTilesFetcher(tableName);
+        if (tileCache != null) {
+            return tileCache.getTiles(getTileCacheLayer(tableName), zoom, minTx, maxTx, minTy, maxTy, fetcher);
+        }
+        int cols = maxTx - minTx + 1;
+        byte[][] tiles = new byte[cols * (maxTy - minTy + 1)][];
+        fetcher.fetch(zoom, minTx, maxTx, minTy, maxTy, ( x, y, tileData ) -> {
+            tiles[(y - minTy) * cols + (x - minTx)] = tileData;
+        });
+        return tiles;
+    }
+
+    private TileCache.ITilesFetcher getTilesFetcher( SqlName tableName ) {
+        String sql = format(SELECTRANGEQUERY, tableName.fixedDoubleName);
+        return ( zoom, minX, maxX, minY, maxY, consumer ) -> {
+            sqliteDb.execOnReadConnection(connection -> {
+                try (IHMPreparedStatement statement = connection.prepareStatement(sql)) {
+                    statement.setInt(1, zoom);
+                    statement.setInt(2, minX);
+                    statement.setInt(3, maxX);
+                    statement.setInt(4, minY);
+                    statement.setInt(5, maxY);
+                    IHMResultSet resultSet = statement.executeQuery();
+                    while( resultSet.next() ) {
+                        consumer.accept(resultSet.getInt(1), resultSet.getInt(2), resultSet.getBytes(3));
+                    }
+                }
+                return null;
+            });
+        };
+    }
+
+    private String getTileCacheLayer( SqlName tableName ) {
+        return sqliteDb.getDatabasePath() + "#" + tableName.name;
+    }
+
+    /**
+     * Set a cache for the tiles read through {@link #getTile(SqlName, int, int, int)} and
+     * {@link #getTiles(SqlName, int, int, int, int, int)}.
+     * 
+     * <p>The cache can be shared among databases. It is not closed with the database.</p>
+     * 
+     * @param tileCache the cache or <code>null</code> to disable caching.
+     */
+    public void setTileCache( TileCache tileCache ) {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * @return the tile cache in use or <code>null</code>.
+     */
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
     /**
      * Get a Tile's image bytes from the database for a given table.
      * 
@@ -660,6 +741,16 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
         return sqliteDb.getConnectionInternal();
     }
 
+    @Override
+    public <T> T execOnConnection( HMConnectionConsumer<IHMConnection, Exception, T> consumer ) throws Exception {
+        return sqliteDb.execOnConnection(consumer);
+    }
+
+    @Override
+    public IHMConnection getReadConnectionInternal() throws Exception {
+        return sqliteDb.getReadConnectionInternal();
+    }
+
     public void close() throws Exception {
         sqliteDb.close();
     }
@@ -1661,6 +1752,9 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
                 return null;
             }
         });
+        if (tileCache != null) {
+            tileCache.invalidate(getTileCacheLayer(tableName));
+        }
     }
 
     public void putTiles( SqlName tableName, List<Tile> tilesList ) throws Exception {
@@ -1686,6 +1780,9 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
                 connection.enableAutocommit(autoCommit);
             }
         });
+        if (tileCache != null) {
+            tileCache.invalidate(getTileCacheLayer(tableName));
+        }
     }
 
     public GeopackageCommonDb() {
@@ -19,8 +19,8 @@ package org.hortonmachine.dbs.geopackage;
 
 import org.hortonmachine.dbs.compat.IGeometryParser;
 import org.hortonmachine.dbs.compat.IHMResultSet;
-import org.hortonmachine.dbs.geopackage.geom.GeoPkgGeomReader;
 import org.hortonmachine.dbs.geopackage.geom.GeoPkgGeomWriter;
+import org.hortonmachine.dbs.utils.GeometryBlobDecoder;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
 
@@ -30,7 +30,7 @@ public class GeopackageGeometryParser implements IGeometryParser {
     public Geometry fromResultSet( IHMResultSet rs, int index ) throws Exception {
         byte[] geomBytes = rs.getBytes(index);
         if (geomBytes != null) {
-            Geometry geometry = new GeoPkgGeomReader(geomBytes).get();
+            Geometry geometry = GeometryBlobDecoder.get().decodeGeopackage(geomBytes);
             return geometry;
         }
         return null;
@@ -40,7 +40,7 @@ public class GeopackageGeometryParser implements IGeometryParser {
     public Geometry fromSqlObject( Object geomObject ) throws Exception {
         if (geomObject instanceof byte[]) {
             byte[] geomBytes = (byte[]) geomObject;
-            Geometry geometry = new GeoPkgGeomReader(geomBytes).get();
+            Geometry geometry = GeometryBlobDecoder.get().decodeGeopackage(geomBytes);
             return geometry;
         }
         throw new IllegalArgumentException("Geom object needs to be a byte array.");
@@ -0,0 +1,71 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.dbs.geopackage.hm;
+
+import java.sql.SQLException;
+
+import org.hortonmachine.dbs.utils.GeometryBlobDecoder;
+import org.sqlite.Function;
+
+/**
+ * An sqlite function returning a bound of the envelope of a Geopackage Geometry BLOB.
+ *
+ * <p>The envelope is read from the blob header when available, so that the
+ * rtree triggers don't need to decode the geometry.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class EnvelopeFunction extends Function {
+
+    public static final int MINX = 0;
+    public static final int MINY = 1;
+    public static final int MAXX = 2;
+    public static final int MAXY = 3;
+
+    private final int bound;
+    // a connection is used by one thread at the time
+    private final double[] envelope = new double[4];
+
+    /**
+     * @param bound one of {@link #MINX}, {@link #MINY}, {@link #MAXX}, {@link #MAXY}.
+     */
+    public EnvelopeFunction( int bound ) {
+        this.bound = bound;
+    }
+
+    @Override
+    protected void xFunc() throws SQLException {
+        if (args() != 1) {
+            throw new SQLException("Envelope Function expects one argument.");
+        }
+        byte[] blob = value_blob(0);
+        if (blob == null) {
+            result();
+            return;
+        }
+        try {
+            if (GeometryBlobDecoder.get().readGeopackageEnvelope(blob, envelope)) {
+                result(envelope[bound]);
+            } else {
+                result();
+            }
+        } catch (Exception e) {
+            throw new SQLException(e);
+        }
+    }
+}
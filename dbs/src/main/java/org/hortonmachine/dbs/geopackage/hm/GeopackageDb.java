@@ -32,42 +32,22 @@ import org.sqlite.Function;
  */
 public class GeopackageDb extends GeopackageCommonDb {
     public GeopackageDb() {
-        sqliteDb = new SqliteDb();
+        SqliteDb db = new SqliteDb();
+        // the read connections need the functions as well
+        db.setConnectionInitializer(GeopackageDb::createFunctions);
+        sqliteDb = db;
     }
 
     public void createFunctions() throws Exception {
-        Connection cx = sqliteDb.getJdbcConnection();
-        // minx
-        Function.create(cx, "ST_MinX", new GeometryFunction(){
-            @Override
-            public Object execute( GeoPkgGeomReader reader ) throws Exception {
-                return reader.getEnvelope().getMinX();
-            }
-        });
-
-        // maxx
-        Function.create(cx, "ST_MaxX", new GeometryFunction(){
-            @Override
-            public Object execute( GeoPkgGeomReader reader ) throws Exception {
-                return reader.getEnvelope().getMaxX();
-            }
-        });
-
-        // miny
-        Function.create(cx, "ST_MinY", new GeometryFunction(){
-            @Override
-            public Object execute( GeoPkgGeomReader reader ) throws Exception {
-                return reader.getEnvelope().getMinY();
-            }
-        });
+        createFunctions(sqliteDb.getJdbcConnection());
+    }
 
-        // maxy
-        Function.create(cx, "ST_MaxY", new GeometryFunction(){
-            @Override
-            public Object execute( GeoPkgGeomReader reader ) throws Exception {
-                return reader.getEnvelope().getMaxY();
-            }
-        });
+    private static void createFunctions( Connection cx ) throws Exception {
+        // the envelope is read from the header, without decoding the geometry
+        Function.create(cx, "ST_MinX", new EnvelopeFunction(EnvelopeFunction.MINX));
+        Function.create(cx, "ST_MaxX", new EnvelopeFunction(EnvelopeFunction.MAXX));
+        Function.create(cx, "ST_MinY", new EnvelopeFunction(EnvelopeFunction.MINY));
+        Function.create(cx, "ST_MaxY", new EnvelopeFunction(EnvelopeFunction.MAXY));
 
         // empty
         Function.create(cx, "ST_IsEmpty", new GeometryFunction(){
@@ -27,6 +27,7 @@ import org.hortonmachine.dbs.compat.IHMPreparedStatement;
 import org.hortonmachine.dbs.compat.IHMResultSet;
 import org.hortonmachine.dbs.compat.IHMStatement;
 import org.hortonmachine.dbs.utils.MercatorUtils;
+import org.hortonmachine.dbs.utils.TileCache;
 import org.locationtech.jts.geom.Envelope;
 
 /**
@@ -51,6 +52,10 @@ public class MBTilesDb {
     public final static String SELECTQUERY = "SELECT " + COL_TILES_TILE_DATA + " from " + TABLE_TILES + " where "
             + COL_TILES_ZOOM_LEVEL + "=? AND " + COL_TILES_TILE_COLUMN + "=? AND " + COL_TILES_TILE_ROW + "=?";
 
+    public final static String SELECTRANGEQUERY = "SELECT " + COL_TILES_TILE_COLUMN + ", " + COL_TILES_TILE_ROW + ", "
+            + COL_TILES_TILE_DATA + " from " + TABLE_TILES + " where " + COL_TILES_ZOOM_LEVEL + "=? AND " + COL_TILES_TILE_COLUMN
+            + " BETWEEN ? AND ? AND " + COL_TILES_TILE_ROW + " BETWEEN ? AND ?";
+
     public final static String COUNT_TILES_QUERY = "SELECT count(*) from " + TABLE_TILES;
 
     private String CREATE_TILES;
@@ -78,6 +83,8 @@ public class MBTilesDb {
 
     private String tileRowType = "osm"; // could be tms in some cases
 
+    private TileCache tileCache;
+
     /**
      * Constructor based on an existing ADb object.
      * 
@@ -232,6 +239,7 @@ public class MBTilesDb {
                 return "";
             }
         });
+        invalidateTileCache();
     }
 
     /**
@@ -266,6 +274,7 @@ public class MBTilesDb {
             int tmpDel = database.executeInsertUpdateDeleteSql(sql);
             deletedTiles += tmpDel;
         }
+        invalidateTileCache();
         return deletedTiles;
     }
 
@@ -293,6 +302,7 @@ public class MBTilesDb {
                 connection.setAutoCommit(autoCommit);
             }
         });
+        invalidateTileCache();
     }
 
     /**
@@ -305,6 +315,9 @@ public class MBTilesDb {
      * @throws Exception
      */
     public byte[] getTile( int tx, int tyOsm, int zoom ) throws Exception {
+        if (tileCache != null) {
+            return tileCache.getTile(getDatabasePath(), zoom, tx, tyOsm, this::fetchTiles);
+        }
         int ty = tyOsm;
         if (tileRowType.equals("tms")) {
             int[] tmsTileXY = MercatorUtils.osmTile2TmsTile(tx, tyOsm, zoom);
@@ -326,6 +339,81 @@ public class MBTilesDb {
         });
     }
 
+    /**
+     * Get the tiles of a range of tile indexes with a single query.
+     * 
+     * @param zoom the zoom level.
+     * @param minTx the min x tile index.
+     * @param maxTx the max x tile index.
+     * @param minTyOsm the min y tile index, the osm way.
+     * @param maxTyOsm the max y tile index, the osm way.
+     * @return the tile image bytes, row by row, at index <code>(ty - minTyOsm) * (maxTx - minTx + 1) + (tx - minTx)</code>.
+     *          Missing tiles are <code>null</code>.
+     * @throws Exception
+     */
+    public byte[][] getTiles( int zoom, int minTx, int maxTx, int minTyOsm, int maxTyOsm ) throws Exception {
+        if (tileCache != null) {
+            return tileCache.getTiles(getDatabasePath(), zoom, minTx, maxTx, minTyOsm, maxTyOsm, this::fetchTiles);
+        }
+        int cols = maxTx - minTx + 1;
+        byte[][] tiles = new byte[cols * (maxTyOsm - minTyOsm + 1)][];
+        fetchTiles(zoom, minTx, maxTx, minTyOsm, maxTyOsm, ( x, y, tileData ) -> {
+            tiles[(y - minTyOsm) * cols + (x - minTx)] = tileData;
+        });
+        return tiles;
+    }
+
+    /**
+     * Reads a range of tiles, in osm tile indexes.
+     */
+    private void fetchTiles( int zoom, int minX, int maxX, int minY, int maxY, TileCache.ITileConsumer consumer )
+            throws Exception {
+        boolean isTms = tileRowType.equals("tms");
+        int flip = (1 << zoom) - 1;
+        int minRow = isTms ? flip - maxY : minY;
+        int maxRow = isTms ? flip - minY : maxY;
+        database.execOnConnection(connection -> {
+            try (IHMPreparedStatement statement = connection.prepareStatement(SELECTRANGEQUERY)) {
+                statement.setInt(1, zoom);
+                statement.setInt(2, minX);
+                statement.setInt(3, maxX);
+                statement.setInt(4, minRow);
+                statement.setInt(5, maxRow);
+                IHMResultSet resultSet = statement.executeQuery();
+                while( resultSet.next() ) {
+                    int row = resultSet.getInt(2);
+                    consumer.accept(resultSet.getInt(1), isTms ? flip - row : row, resultSet.getBytes(3));
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Set a cache for the tiles read through {@link #getTile(int, int, int)} and
+     * {@link #getTiles(int, int, int, int, int)}.
+     * 
+     * <p>The cache can be shared among databases. It is not closed with the database.</p>
+     * 
+     * @param tileCache the cache or <code>null</code> to disable caching.
+     */
+    public void setTileCache( TileCache tileCache ) {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * @return the tile cache in use or <code>null</code>.
+     */
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
+    private void invalidateTileCache() {
+        if (tileCache != null) {
+            tileCache.invalidate(getDatabasePath());
+        }
+    }
+
     /**
      * Get the number of tiles in the database.
      * 
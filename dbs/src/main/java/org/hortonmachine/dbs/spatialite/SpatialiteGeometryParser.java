@@ -19,11 +19,11 @@ package org.hortonmachine.dbs.spatialite;
 
 import org.hortonmachine.dbs.compat.IGeometryParser;
 import org.hortonmachine.dbs.compat.IHMResultSet;
+import org.hortonmachine.dbs.utils.GeometryBlobDecoder;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.io.WKBReader;
 
 public class SpatialiteGeometryParser implements IGeometryParser {
-    SpatialiteWKBReader wkbReader = new SpatialiteWKBReader();
     SpatialiteWKBWriter wkbWriter = new SpatialiteWKBWriter();
     WKBReader jtsWkbReader = new WKBReader();
 
@@ -37,7 +37,7 @@ public class SpatialiteGeometryParser implements IGeometryParser {
                 geometry = jtsWkbReader.read(geomBytes);
             } catch (Exception e) {
                 // in case it doesn't work, try the latest spatialite WKB parser
-                geometry = wkbReader.read(geomBytes);
+                geometry = GeometryBlobDecoder.get().decodeSpatialite(geomBytes);
             }
             return geometry;
         }
@@ -48,7 +48,7 @@ public class SpatialiteGeometryParser implements IGeometryParser {
     public Geometry fromSqlObject( Object geomObject ) throws Exception {
         if (geomObject instanceof byte[]) {
             byte[] geomBytes = (byte[]) geomObject;
-            Geometry geometry = wkbReader.read(geomBytes);
+            Geometry geometry = GeometryBlobDecoder.get().decodeSpatialite(geomBytes);
             return geometry;
         }
         throw new IllegalArgumentException("Geom object needs to be a byte array.");
@@ -86,4 +86,9 @@ public class GPStatement implements IHMStatement {
         throw new RuntimeException("Function not supported: executeBatch()");
     }
 
+    @Override
+    public void setFetchSize( int rows ) throws Exception {
+        // rows are stepped one by one anyways
+    }
+
 }
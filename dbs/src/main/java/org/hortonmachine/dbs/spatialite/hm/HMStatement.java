@@ -75,4 +75,9 @@ public class HMStatement implements IHMStatement {
         return statement.executeBatch();
     }
 
+    @Override
+    public void setFetchSize( int rows ) throws Exception {
+        statement.setFetchSize(rows);
+    }
+
 }
@@ -47,6 +47,7 @@ import org.hortonmachine.dbs.spatialite.SpatialiteCommonMethods;
 import org.hortonmachine.dbs.spatialite.SpatialiteGeometryColumns;
 import org.hortonmachine.dbs.spatialite.SpatialiteTableNames;
 import org.hortonmachine.dbs.utils.DbsUtilities;
+import org.hortonmachine.dbs.utils.HMConnectionConsumer;
 import org.hortonmachine.dbs.utils.OsCheck;
 import org.hortonmachine.dbs.utils.OsCheck.OSType;
 import org.hortonmachine.dbs.utils.SqlName;
@@ -89,13 +90,25 @@ public class SpatialiteDb extends ASpatialDb {
 
     public boolean open( String dbPath ) throws Exception {
         sqliteDb.setCredentials(user, password);
+        sqliteDb.setConcurrentReaders(concurrentReaders);
+        sqliteDb.setMinMaxPoolSize(minSize, maxSize);
+        sqliteDb.setConnectionInitializer(cx -> loadExtensions(new HMConnection(cx, false)));
         boolean dbExists = sqliteDb.open(dbPath);
 
         sqliteDb.getConnectionData().dbType = getType().getCode();
 
         this.mDbPath = sqliteDb.getDatabasePath();
-        IHMConnection mConn = sqliteDb.getConnectionInternal();
-        try (IHMStatement stmt = mConn.createStatement()) {
+        loadExtensions(sqliteDb.getConnectionInternal());
+        if (mPrintInfos) {
+            String[] dbInfo = getDbInfo();
+            Logger.INSTANCE.insertInfo(null, "Spatialite Version: " + dbInfo[0]);
+            Logger.INSTANCE.insertInfo(null, "Spatialite Target CPU: " + dbInfo[1]);
+        }
+        return dbExists;
+    }
+
+    private void loadExtensions( IHMConnection connection ) throws Exception {
+        try (IHMStatement stmt = connection.createStatement()) {
             // set timeout to 30 sec.
             stmt.setQueryTimeout(30);
             // load SpatiaLite
@@ -176,12 +189,6 @@ public class SpatialiteDb extends ASpatialDb {
                 // }
             }
         }
-        if (mPrintInfos) {
-            String[] dbInfo = getDbInfo();
-            Logger.INSTANCE.insertInfo(null, "Spatialite Version: " + dbInfo[0]);
-            Logger.INSTANCE.insertInfo(null, "Spatialite Target CPU: " + dbInfo[1]);
-        }
-        return dbExists;
     }
 
     @Override
@@ -198,6 +205,16 @@ public class SpatialiteDb extends ASpatialDb {
         return sqliteDb.getConnectionInternal();
     }
 
+    @Override
+    public <T> T execOnConnection( HMConnectionConsumer<IHMConnection, Exception, T> consumer ) throws Exception {
+        return sqliteDb.execOnConnection(consumer);
+    }
+
+    @Override
+    public IHMConnection getReadConnectionInternal() throws Exception {
+        return sqliteDb.getReadConnectionInternal();
+    }
+
     public void close() throws Exception {
         sqliteDb.close();
     }
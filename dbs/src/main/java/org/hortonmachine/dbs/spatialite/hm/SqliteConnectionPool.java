@@ -0,0 +1,173 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.dbs.spatialite.hm;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of read only connections to a sqlite database.
+ *
+ * <p>Connections are created lazily, up to the maximum size. When all are in use,
+ * callers wait for one to be released. The database is expected to be in WAL
+ * journal mode, so that the readers don't block and are not blocked by the writer.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class SqliteConnectionPool implements AutoCloseable {
+
+    /**
+     * The interval in milliseconds at which waiting callers check if the pool was closed.
+     */
+    private static final long CLOSED_CHECK_INTERVAL = 100;
+
+    /**
+     * An initializer that is run on every new connection of the pool, as for example
+     * to load extensions or register functions.
+     */
+    public static interface IConnectionInitializer {
+        void init( Connection connection ) throws Exception;
+    }
+
+    private final String url;
+    private final Properties properties;
+    private final int maxSize;
+    private final IConnectionInitializer initializer;
+
+    private final BlockingQueue<PooledConnection> idle;
+    private final List<PooledConnection> all = new ArrayList<>();
+    private volatile boolean closed = false;
+
+    /**
+     * @param url the jdbc url of the database.
+     * @param properties the connection properties, expected to open the database read only.
+     * @param maxSize the maximum number of connections.
+     * @param initializer an optional initializer for new connections.
+     */
+    public SqliteConnectionPool( String url, Properties properties, int maxSize, IConnectionInitializer initializer ) {
+        this.url = url;
+        this.properties = properties;
+        this.maxSize = Math.max(1, maxSize);
+        this.initializer = initializer;
+        idle = new ArrayBlockingQueue<>(this.maxSize);
+    }
+
+    /**
+     * Get a connection, waiting for one to be released if the pool is exhausted.
+     *
+     * <p>The connection has to be given back through its release method.</p>
+     *
+     * @return the connection.
+     * @throws SQLException if the pool is closed, also while waiting.
+     * @throws Exception
+     */
+    public HMConnection acquire() throws Exception {
+        checkOpen();
+        PooledConnection connection = idle.poll();
+        if (connection != null) {
+            return connection;
+        }
+        synchronized (all) {
+            if (all.size() < maxSize) {
+                connection = create();
+                all.add(connection);
+                return connection;
+            }
+        }
+        while( connection == null ) {
+            checkOpen();
+            connection = idle.poll(CLOSED_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        return connection;
+    }
+
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool is closed.");
+        }
+    }
+
+    private PooledConnection create() throws Exception {
+        Connection jdbcConnection = DriverManager.getConnection(url, properties);
+        try {
+            if (initializer != null) {
+                initializer.init(jdbcConnection);
+            }
+        } catch (Exception e) {
+            jdbcConnection.close();
+            throw e;
+        }
+        return new PooledConnection(jdbcConnection);
+    }
+
+    /**
+     * @return the number of connections created so far.
+     */
+    public int getSize() {
+        synchronized (all) {
+            return all.size();
+        }
+    }
+
+    /**
+     * Close all connections of the pool.
+     *
+     * <p>Connections in use are closed as soon as they are released, callers waiting
+     * for a connection get a {@link SQLException}.</p>
+     */
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        PooledConnection connection;
+        while( (connection = idle.poll()) != null ) {
+            connection.close();
+        }
+    }
+
+    private class PooledConnection extends HMConnection {
+
+        PooledConnection( Connection connection ) {
+            super(connection, false);
+        }
+
+        @Override
+        public void release() throws Exception {
+            if (!getAutoCommit()) {
+                rollback();
+                setAutoCommit(true);
+            }
+            if (closed) {
+                close();
+            } else {
+                idle.offer(this);
+                // the pool might have been closed meanwhile
+                if (closed && idle.remove(this)) {
+                    close();
+                }
+            }
+        }
+    }
+
+}
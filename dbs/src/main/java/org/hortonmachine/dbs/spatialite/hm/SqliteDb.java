@@ -25,6 +25,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.hortonmachine.dbs.compat.ADb;
 import org.hortonmachine.dbs.compat.ConnectionData;
@@ -42,7 +47,9 @@ import org.hortonmachine.dbs.geopackage.GeopackageTableNames;
 import org.hortonmachine.dbs.log.Logger;
 import org.hortonmachine.dbs.spatialite.SpatialiteCommonMethods;
 import org.hortonmachine.dbs.spatialite.SpatialiteTableNames;
+import org.hortonmachine.dbs.spatialite.hm.SqliteConnectionPool.IConnectionInitializer;
 import org.hortonmachine.dbs.utils.DbsUtilities;
+import org.hortonmachine.dbs.utils.HMConnectionConsumer;
 import org.hortonmachine.dbs.utils.SqlName;
 import org.hortonmachine.dbs.utils.TableName;
 import org.sqlite.SQLiteConfig;
@@ -58,6 +65,11 @@ public class SqliteDb extends ADb {
     private HMConnection mConn;
     private ConnectionData connectionData;
 
+    private IConnectionInitializer connectionInitializer;
+    private SqliteConnectionPool readPool;
+    private ExecutorService writeQueue;
+    private volatile Thread writerThread;
+
     static {
         try {
             Class.forName(DRIVER_CLASS);
@@ -81,6 +93,16 @@ public class SqliteDb extends ADb {
         return connectionData;
     }
 
+    /**
+     * Set an initializer that is run on the read connections of the pool when concurrent
+     * readers are enabled, as for example to load extensions or register functions.
+     * 
+     * @param connectionInitializer the initializer.
+     */
+    public void setConnectionInitializer( IConnectionInitializer connectionInitializer ) {
+        this.connectionInitializer = connectionInitializer;
+    }
+
     @Override
     public boolean open( String dbPath, String user, String password ) throws Exception {
         setCredentials(user, password);
@@ -120,6 +142,9 @@ public class SqliteDb extends ADb {
         }
         jdbcConn = DriverManager.getConnection(EDb.SQLITE.getJdbcPrefix() + dbPath, properties);
         mConn = new HMConnection(jdbcConn, false);
+        if (concurrentReaders && mDbPath != null) {
+            openConcurrentReaders(dbPath, properties);
+        }
         if (mPrintInfos) {
             String[] dbInfo = getDbInfo();
             Logger.INSTANCE.insertInfo(null, "SQLite Version: " + dbInfo[0]);
@@ -127,6 +152,62 @@ public class SqliteDb extends ADb {
         return dbExists;
     }
 
+    private void openConcurrentReaders( String dbPath, Properties writerProperties ) throws Exception {
+        // in WAL mode readers see the last commit while the writer goes on
+        try (IHMStatement stmt = mConn.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL");
+        }
+
+        SQLiteConfig readConfig = new SQLiteConfig();
+        readConfig.enableLoadExtension(true);
+        readConfig.setReadOnly(true);
+        readConfig.setBusyTimeout(30000);
+        Properties readProperties = readConfig.toProperties();
+        if (writerProperties.containsKey("user")) {
+            readProperties.setProperty("user", writerProperties.getProperty("user"));
+            readProperties.setProperty("password", writerProperties.getProperty("password"));
+        }
+        readPool = new SqliteConnectionPool(EDb.SQLITE.getJdbcPrefix() + dbPath, readProperties, maxSize, connectionInitializer);
+
+        writeQueue = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sqlite-writer-" + new File(dbPath).getName());
+            thread.setDaemon(true);
+            writerThread = thread;
+            return thread;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>With concurrent readers enabled, the operation is queued to the writer connection
+     * and this call waits for its result.</p>
+     */
+    @Override
+    public <T> T execOnConnection( HMConnectionConsumer<IHMConnection, Exception, T> consumer ) throws Exception {
+        if (writeQueue == null || Thread.currentThread() == writerThread) {
+            return super.execOnConnection(consumer);
+        }
+        Future<T> future = writeQueue.submit(() -> super.execOnConnection(consumer));
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public IHMConnection getReadConnectionInternal() throws Exception {
+        if (readPool == null) {
+            return mConn;
+        }
+        return readPool.acquire();
+    }
+
     @Override
     public String getJdbcUrlPre() {
         return EDb.SQLITE.getJdbcPrefix();
@@ -141,6 +222,15 @@ public class SqliteDb extends ADb {
     }
 
     public void close() throws Exception {
+        if (writeQueue != null) {
+            writeQueue.shutdown();
+            writeQueue.awaitTermination(1, TimeUnit.MINUTES);
+            writeQueue = null;
+        }
+        if (readPool != null) {
+            readPool.close();
+            readPool = null;
+        }
         if (mConn != null) {
             mConn.setAutoCommit(false);
             mConn.commit();
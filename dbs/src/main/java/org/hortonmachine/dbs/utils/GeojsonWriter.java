@@ -0,0 +1,197 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.dbs.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * A writer of geojson feature collections that writes feature by feature.
+ *
+ * <p>Usage is: {@link #start()}, {@link #writeFeature(Geometry, List, Object[])} for every
+ * feature and {@link #end()}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GeojsonWriter {
+
+    private final Writer writer;
+    private final int precision;
+    private boolean isFirst = true;
+
+    /**
+     * @param writer the writer to write to. It is not closed by this class.
+     * @param precision the number of decimals of the coordinates.
+     */
+    public GeojsonWriter( Writer writer, int precision ) {
+        this.writer = writer;
+        this.precision = precision;
+    }
+
+    /**
+     * Start the feature collection.
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        writer.write("{\"type\":\"FeatureCollection\",\"features\":[");
+    }
+
+    /**
+     * Write a feature.
+     *
+     * @param geometry the geometry, can be <code>null</code>.
+     * @param names the names of the properties.
+     * @param values the values of the properties.
+     * @throws IOException
+     */
+    public void writeFeature( Geometry geometry, List<String> names, Object[] values ) throws IOException {
+        if (!isFirst) {
+            writer.write(",");
+        }
+        isFirst = false;
+        writer.write("{\"type\":\"Feature\",\"geometry\":");
+        writeGeometry(geometry);
+        writer.write(",\"properties\":{");
+        for( int i = 0; i < names.size(); i++ ) {
+            if (i > 0) {
+                writer.write(",");
+            }
+            writer.write(JSONObject.quote(names.get(i)));
+            writer.write(":");
+            Object value = values[i];
+            if (value == null) {
+                writer.write("null");
+            } else if (value instanceof Number || value instanceof Boolean) {
+                writer.write(JSONObject.valueToString(value));
+            } else {
+                writer.write(JSONObject.quote(value.toString()));
+            }
+        }
+        writer.write("}}");
+    }
+
+    /**
+     * End the feature collection.
+     *
+     * @throws IOException
+     */
+    public void end() throws IOException {
+        writer.write("]}");
+        writer.flush();
+    }
+
+    private void writeGeometry( Geometry geometry ) throws IOException {
+        if (geometry == null || geometry.isEmpty()) {
+            writer.write("null");
+        } else if (geometry instanceof Point) {
+            writeType("Point");
+            writeCoordinate(geometry.getCoordinate());
+            writer.write("}");
+        } else if (geometry instanceof LineString) {
+            writeType("LineString");
+            writeCoordinates(geometry.getCoordinates());
+            writer.write("}");
+        } else if (geometry instanceof Polygon) {
+            writeType("Polygon");
+            writePolygonRings((Polygon) geometry);
+            writer.write("}");
+        } else if (geometry instanceof MultiPoint || geometry instanceof MultiLineString
+                || geometry instanceof MultiPolygon) {
+            writeType(geometry.getGeometryType());
+            writer.write("[");
+            for( int i = 0; i < geometry.getNumGeometries(); i++ ) {
+                if (i > 0) {
+                    writer.write(",");
+                }
+                Geometry part = geometry.getGeometryN(i);
+                if (part instanceof Point) {
+                    writeCoordinate(part.getCoordinate());
+                } else if (part instanceof LineString) {
+                    writeCoordinates(part.getCoordinates());
+                } else {
+                    writePolygonRings((Polygon) part);
+                }
+            }
+            writer.write("]}");
+        } else if (geometry instanceof GeometryCollection) {
+            writer.write("{\"type\":\"GeometryCollection\",\"geometries\":[");
+            for( int i = 0; i < geometry.getNumGeometries(); i++ ) {
+                if (i > 0) {
+                    writer.write(",");
+                }
+                writeGeometry(geometry.getGeometryN(i));
+            }
+            writer.write("]}");
+        }
+    }
+
+    private void writeType( String type ) throws IOException {
+        writer.write("{\"type\":\"");
+        writer.write(type);
+        writer.write("\",\"coordinates\":");
+    }
+
+    private void writePolygonRings( Polygon polygon ) throws IOException {
+        writer.write("[");
+        writeCoordinates(polygon.getExteriorRing().getCoordinates());
+        for( int i = 0; i < polygon.getNumInteriorRing(); i++ ) {
+            writer.write(",");
+            writeCoordinates(polygon.getInteriorRingN(i).getCoordinates());
+        }
+        writer.write("]");
+    }
+
+    private void writeCoordinates( Coordinate[] coordinates ) throws IOException {
+        writer.write("[");
+        for( int i = 0; i < coordinates.length; i++ ) {
+            if (i > 0) {
+                writer.write(",");
+            }
+            writeCoordinate(coordinates[i]);
+        }
+        writer.write("]");
+    }
+
+    private void writeCoordinate( Coordinate coordinate ) throws IOException {
+        writer.write("[");
+        writer.write(format(coordinate.x));
+        writer.write(",");
+        writer.write(format(coordinate.y));
+        writer.write("]");
+    }
+
+    private String format( double value ) {
+        return BigDecimal.valueOf(value).setScale(precision, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+    }
+
+}
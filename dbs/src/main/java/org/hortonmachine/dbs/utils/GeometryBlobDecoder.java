@@ -0,0 +1,506 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.dbs.utils;
+
+import org.hortonmachine.dbs.geopackage.geom.GeoPkgGeomReader;
+import org.hortonmachine.dbs.spatialite.SpatialiteWKBReader;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFactory;
+import org.locationtech.jts.geom.CoordinateSequences;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBConstants;
+
+/**
+ * A decoder of GeoPackage and SpatiaLite geometry blobs that works directly on the byte array.
+ *
+ * <p>It produces the same geometries as {@link GeoPkgGeomReader} and {@link SpatialiteWKBReader},
+ * but without creating streams, headers and intermediate buffers for every geometry. The
+ * envelope can also be read alone, from the blob header if available, without creating
+ * any geometry.</p>
+ *
+ * <p>An instance keeps the reading state, so it is not thread safe. Use {@link #get()} or
+ * {@link #getPacked()} to get the instance bound to the current thread.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GeometryBlobDecoder {
+
+    private static final int SPATIALITE_MBR_END = 0x7C;
+    private static final int SPATIALITE_ENTITY = 0x69;
+
+    private static final ThreadLocal<GeometryBlobDecoder> DEFAULT_DECODER = ThreadLocal
+            .withInitial(() -> new GeometryBlobDecoder(new GeometryFactory()));
+    private static final ThreadLocal<GeometryBlobDecoder> PACKED_DECODER = ThreadLocal
+            .withInitial(() -> new GeometryBlobDecoder(new GeometryFactory(PackedCoordinateSequenceFactory.DOUBLE_FACTORY)));
+
+    private final GeometryFactory factory;
+    private final CoordinateSequenceFactory csFactory;
+    private final PrecisionModel precisionModel;
+    private final boolean makePrecise;
+    private final boolean packed;
+
+    private byte[] buffer;
+    private int position;
+    private boolean littleEndian;
+    private int dimension;
+    private int measures;
+
+    /**
+     * @return the decoder of the current thread, creating geometries with the default {@link GeometryFactory}.
+     */
+    public static GeometryBlobDecoder get() {
+        return DEFAULT_DECODER.get();
+    }
+
+    /**
+     * @return the decoder of the current thread, creating geometries backed by {@link PackedCoordinateSequence}s.
+     */
+    public static GeometryBlobDecoder getPacked() {
+        return PACKED_DECODER.get();
+    }
+
+    /**
+     * @param factory the factory to create geometries with. If its coordinate sequence factory is
+     *          {@link PackedCoordinateSequenceFactory#DOUBLE_FACTORY}, the ordinates are read straight into
+     *          the packed arrays.
+     */
+    public GeometryBlobDecoder( GeometryFactory factory ) {
+        this.factory = factory;
+        csFactory = factory.getCoordinateSequenceFactory();
+        precisionModel = factory.getPrecisionModel();
+        makePrecise = precisionModel.getType() != PrecisionModel.FLOATING;
+        packed = csFactory instanceof PackedCoordinateSequenceFactory
+                && ((PackedCoordinateSequenceFactory) csFactory).getType() == PackedCoordinateSequenceFactory.DOUBLE;
+    }
+
+    /**
+     * Check the empty flag of a GeoPackage geometry blob.
+     *
+     * @param blob the GeoPackage geometry blob.
+     * @return <code>true</code> if the geometry is empty.
+     */
+    public static boolean isGeopackageEmpty( byte[] blob ) {
+        return (blob[3] & 0x10) != 0;
+    }
+
+    /**
+     * Decode a GeoPackage geometry blob.
+     *
+     * @param blob the GeoPackage geometry blob.
+     * @return the geometry, with the srid of the blob.
+     * @throws ParseException if the blob is not a valid geometry.
+     */
+    public Geometry decodeGeopackage( byte[] blob ) throws ParseException {
+        try {
+            int flags = startGeopackage(blob);
+            int srid = readInt();
+            position += envelopeLength(flags);
+            Geometry geometry = readWkbGeometry();
+            geometry.setSRID(srid);
+            return geometry;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ParseException("Truncated geopackage geometry blob.");
+        } finally {
+            buffer = null;
+        }
+    }
+
+    /**
+     * Read the envelope of a GeoPackage geometry blob.
+     *
+     * <p>If the blob header contains the envelope, no coordinate is read, else the coordinates
+     * are scanned without creating the geometry.</p>
+     *
+     * @param blob the GeoPackage geometry blob.
+     * @param envelope the array to fill with [minx, miny, maxx, maxy].
+     * @return <code>false</code> if the geometry is empty, in which case the array is left untouched.
+     * @throws ParseException if the blob is not a valid geometry.
+     */
+    public boolean readGeopackageEnvelope( byte[] blob, double[] envelope ) throws ParseException {
+        try {
+            int flags = startGeopackage(blob);
+            if ((flags & 0x10) != 0) {
+                return false;
+            }
+            position += 4; // srid
+            if (envelopeLength(flags) > 0) {
+                double minX = readDouble();
+                double maxX = readDouble();
+                double minY = readDouble();
+                double maxY = readDouble();
+                envelope[0] = minX;
+                envelope[1] = minY;
+                envelope[2] = maxX;
+                envelope[3] = maxY;
+                return true;
+            }
+            envelope[0] = Double.POSITIVE_INFINITY;
+            envelope[1] = Double.POSITIVE_INFINITY;
+            envelope[2] = Double.NEGATIVE_INFINITY;
+            envelope[3] = Double.NEGATIVE_INFINITY;
+            scanWkbGeometry(envelope);
+            return envelope[0] <= envelope[2];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ParseException("Truncated geopackage geometry blob.");
+        } finally {
+            buffer = null;
+        }
+    }
+
+    /**
+     * Decode a SpatiaLite geometry blob.
+     *
+     * @param blob the SpatiaLite geometry blob.
+     * @return the geometry, with the srid of the blob if it is not 0.
+     * @throws ParseException if the blob is not a valid geometry.
+     */
+    public Geometry decodeSpatialite( byte[] blob ) throws ParseException {
+        try {
+            int srid = startSpatialite(blob);
+            position += 32; // mbr
+            if (readByte() != SPATIALITE_MBR_END) {
+                throw new ParseException("Not a geometry, MBR_END != 0x7C");
+            }
+            Geometry geometry = readGeometryBody(readType(readInt()), true);
+            if (srid != 0) {
+                geometry.setSRID(srid);
+            }
+            return geometry;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ParseException("Truncated spatialite geometry blob.");
+        } finally {
+            buffer = null;
+        }
+    }
+
+    /**
+     * Read the envelope of a SpatiaLite geometry blob from its MBR, without reading any coordinate.
+     *
+     * @param blob the SpatiaLite geometry blob.
+     * @param envelope the array to fill with [minx, miny, maxx, maxy].
+     * @throws ParseException if the blob is not a valid geometry.
+     */
+    public void readSpatialiteEnvelope( byte[] blob, double[] envelope ) throws ParseException {
+        try {
+            startSpatialite(blob);
+            envelope[0] = readDouble();
+            envelope[1] = readDouble();
+            envelope[2] = readDouble();
+            envelope[3] = readDouble();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ParseException("Truncated spatialite geometry blob.");
+        } finally {
+            buffer = null;
+        }
+    }
+
+    private int startGeopackage( byte[] blob ) throws ParseException {
+        if (blob.length < 8 || blob[0] != 'G' || blob[1] != 'P') {
+            throw new ParseException("Not a geopackage geometry blob.");
+        }
+        buffer = blob;
+        int flags = blob[3];
+        littleEndian = (flags & 0x01) == 1;
+        position = 4;
+        return flags;
+    }
+
+    private static int envelopeLength( int flags ) throws ParseException {
+        switch( (flags & 0x0e) >> 1 ) {
+        case 0:
+            return 0;
+        case 1:
+            return 32;
+        case 2:
+        case 3:
+            return 48;
+        case 4:
+            return 64;
+        default:
+            throw new ParseException("Invalid geopackage envelope indicator.");
+        }
+    }
+
+    private int startSpatialite( byte[] blob ) throws ParseException {
+        if (blob.length < 43 || blob[0] != 0x00) {
+            throw new ParseException("Not a spatialite geometry blob.");
+        }
+        buffer = blob;
+        littleEndian = blob[1] == WKBConstants.wkbNDR;
+        position = 2;
+        return readInt();
+    }
+
+    /**
+     * Reads the byte order and type of a WKB geometry, setting the coordinate dimension.
+     */
+    private int readWkbType() throws ParseException {
+        littleEndian = readByte() == WKBConstants.wkbNDR;
+        int typeInt = readInt();
+        if ((typeInt & 0x20000000) != 0) {
+            // ewkb srid, the one of the blob header wins
+            position += 4;
+        }
+        return readType(typeInt);
+    }
+
+    /**
+     * Reads the type of a nested spatialite entity, setting the coordinate dimension.
+     */
+    private int readSpatialiteEntityType() throws ParseException {
+        if (readByte() != SPATIALITE_ENTITY) {
+            throw new ParseException("Not a geometry, entity != 0x69");
+        }
+        return readType(readInt());
+    }
+
+    /**
+     * Decodes both the iso (1000, 2000, 3000 offsets) and the ewkb (high bit flags) dimension flavours.
+     */
+    private int readType( int typeInt ) throws ParseException {
+        boolean hasZ = (typeInt & 0x80000000) != 0;
+        boolean hasM = (typeInt & 0x40000000) != 0;
+        int type = typeInt & 0xffff;
+        int isoFlag = type / 1000;
+        type = type % 1000;
+        if (isoFlag == 1 || isoFlag == 3) {
+            hasZ = true;
+        }
+        if (isoFlag == 2 || isoFlag == 3) {
+            hasM = true;
+        }
+        if (isoFlag > 3 || type < WKBConstants.wkbPoint || type > WKBConstants.wkbGeometryCollection) {
+            throw new ParseException("Unsupported geometry type " + typeInt);
+        }
+        measures = hasM ? 1 : 0;
+        dimension = 2 + (hasZ ? 1 : 0) + measures;
+        return type;
+    }
+
+    private Geometry readWkbGeometry() throws ParseException {
+        return readGeometryBody(readWkbType(), false);
+    }
+
+    private Geometry readGeometryBody( int type, boolean spatialite ) throws ParseException {
+        switch( type ) {
+        case WKBConstants.wkbPoint:
+            return readPoint(spatialite);
+        case WKBConstants.wkbLineString:
+            return factory.createLineString(readLineSequence());
+        case WKBConstants.wkbPolygon:
+            return readPolygon();
+        case WKBConstants.wkbMultiPoint: {
+            Point[] points = new Point[readInt()];
+            for( int i = 0; i < points.length; i++ ) {
+                points[i] = (Point) readPart(WKBConstants.wkbPoint, spatialite);
+            }
+            return factory.createMultiPoint(points);
+        }
+        case WKBConstants.wkbMultiLineString: {
+            LineString[] lines = new LineString[readInt()];
+            for( int i = 0; i < lines.length; i++ ) {
+                lines[i] = (LineString) readPart(WKBConstants.wkbLineString, spatialite);
+            }
+            return factory.createMultiLineString(lines);
+        }
+        case WKBConstants.wkbMultiPolygon: {
+            Polygon[] polygons = new Polygon[readInt()];
+            for( int i = 0; i < polygons.length; i++ ) {
+                polygons[i] = (Polygon) readPart(WKBConstants.wkbPolygon, spatialite);
+            }
+            return factory.createMultiPolygon(polygons);
+        }
+        default: {
+            Geometry[] geometries = new Geometry[readInt()];
+            for( int i = 0; i < geometries.length; i++ ) {
+                geometries[i] = readPart(-1, spatialite);
+            }
+            return factory.createGeometryCollection(geometries);
+        }
+        }
+    }
+
+    private Geometry readPart( int expectedType, boolean spatialite ) throws ParseException {
+        int type = spatialite ? readSpatialiteEntityType() : readWkbType();
+        if (expectedType != -1 && type != expectedType) {
+            throw new ParseException("Invalid geometry type " + type + " in collection of type " + expectedType);
+        }
+        return readGeometryBody(type, spatialite);
+    }
+
+    private Point readPoint( boolean spatialite ) throws ParseException {
+        CoordinateSequence sequence = readSequence(1);
+        if (!spatialite && Double.isNaN(sequence.getX(0)) && Double.isNaN(sequence.getY(0))) {
+            // the geopackage way to encode an empty point
+            return factory.createPoint();
+        }
+        return factory.createPoint(sequence);
+    }
+
+    private CoordinateSequence readLineSequence() throws ParseException {
+        CoordinateSequence sequence = readSequence(readInt());
+        if (sequence.size() == 1) {
+            return CoordinateSequences.extend(csFactory, sequence, 2);
+        }
+        return sequence;
+    }
+
+    private Polygon readPolygon() throws ParseException {
+        int numRings = readInt();
+        if (numRings == 0) {
+            return factory.createPolygon();
+        }
+        LinearRing shell = readRing();
+        LinearRing[] holes = new LinearRing[numRings - 1];
+        for( int i = 0; i < holes.length; i++ ) {
+            holes[i] = readRing();
+        }
+        return factory.createPolygon(shell, holes);
+    }
+
+    private LinearRing readRing() throws ParseException {
+        CoordinateSequence sequence = readSequence(readInt());
+        if (!CoordinateSequences.isRing(sequence)) {
+            sequence = CoordinateSequences.ensureValidRing(csFactory, sequence);
+        }
+        return factory.createLinearRing(sequence);
+    }
+
+    private CoordinateSequence readSequence( int size ) throws ParseException {
+        if (size < 0 || size > (buffer.length - position) / (8 * dimension)) {
+            throw new ParseException("Invalid number of coordinates: " + size);
+        }
+        if (packed) {
+            double[] ordinates = new double[size * dimension];
+            for( int i = 0; i < ordinates.length; i++ ) {
+                ordinates[i] = readDouble();
+            }
+            if (makePrecise) {
+                for( int i = 0; i < ordinates.length; i += dimension ) {
+                    ordinates[i] = precisionModel.makePrecise(ordinates[i]);
+                    ordinates[i + 1] = precisionModel.makePrecise(ordinates[i + 1]);
+                }
+            }
+            return new PackedCoordinateSequence.Double(ordinates, dimension, measures);
+        }
+
+        CoordinateSequence sequence = csFactory.create(size, dimension, measures);
+        int targetDimension = Math.min(sequence.getDimension(), dimension);
+        for( int i = 0; i < size; i++ ) {
+            for( int j = 0; j < dimension; j++ ) {
+                double value = readDouble();
+                if (j < targetDimension) {
+                    if (makePrecise && j < 2) {
+                        value = precisionModel.makePrecise(value);
+                    }
+                    sequence.setOrdinate(i, j, value);
+                }
+            }
+        }
+        return sequence;
+    }
+
+    private void scanWkbGeometry( double[] envelope ) throws ParseException {
+        int type = readWkbType();
+        switch( type ) {
+        case WKBConstants.wkbPoint:
+            scanCoordinates(1, envelope);
+            break;
+        case WKBConstants.wkbLineString:
+            scanCoordinates(readInt(), envelope);
+            break;
+        case WKBConstants.wkbPolygon: {
+            int numRings = readInt();
+            for( int i = 0; i < numRings; i++ ) {
+                scanCoordinates(readInt(), envelope);
+            }
+            break;
+        }
+        default: {
+            int numGeometries = readInt();
+            for( int i = 0; i < numGeometries; i++ ) {
+                scanWkbGeometry(envelope);
+            }
+            break;
+        }
+        }
+    }
+
+    private void scanCoordinates( int size, double[] envelope ) throws ParseException {
+        if (size < 0 || size > (buffer.length - position) / (8 * dimension)) {
+            throw new ParseException("Invalid number of coordinates: " + size);
+        }
+        int skip = 8 * (dimension - 2);
+        for( int i = 0; i < size; i++ ) {
+            double x = readDouble();
+            double y = readDouble();
+            position += skip;
+            if (Double.isNaN(x) || Double.isNaN(y)) {
+                continue;
+            }
+            if (x < envelope[0])
+                envelope[0] = x;
+            if (y < envelope[1])
+                envelope[1] = y;
+            if (x > envelope[2])
+                envelope[2] = x;
+            if (y > envelope[3])
+                envelope[3] = y;
+        }
+    }
+
+    private int readByte() {
+        return buffer[position++];
+    }
+
+    private int readInt() {
+        byte[] b = buffer;
+        int p = position;
+        position += 4;
+        if (littleEndian) {
+            return (b[p] & 0xff) | (b[p + 1] & 0xff) << 8 | (b[p + 2] & 0xff) << 16 | (b[p + 3] & 0xff) << 24;
+        }
+        return (b[p] & 0xff) << 24 | (b[p + 1] & 0xff) << 16 | (b[p + 2] & 0xff) << 8 | (b[p + 3] & 0xff);
+    }
+
+    private double readDouble() {
+        byte[] b = buffer;
+        int p = position;
+        position += 8;
+        long bits;
+        if (littleEndian) {
+            bits = (b[p] & 0xffL) | (b[p + 1] & 0xffL) << 8 | (b[p + 2] & 0xffL) << 16 | (b[p + 3] & 0xffL) << 24
+                    | (b[p + 4] & 0xffL) << 32 | (b[p + 5] & 0xffL) << 40 | (b[p + 6] & 0xffL) << 48
+                    | (b[p + 7] & 0xffL) << 56;
+        } else {
+            bits = (b[p] & 0xffL) << 56 | (b[p + 1] & 0xffL) << 48 | (b[p + 2] & 0xffL) << 40 | (b[p + 3] & 0xffL) << 32
+                    | (b[p + 4] & 0xffL) << 24 | (b[p + 5] & 0xffL) << 16 | (b[p + 6] & 0xffL) << 8 | (b[p + 7] & 0xffL);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+}
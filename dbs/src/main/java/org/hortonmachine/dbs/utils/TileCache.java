@@ -0,0 +1,417 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.dbs.utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of tile images with a memory budget in bytes and least recently used eviction.
+ *
+ * <p>Tiles are identified by a layer name, that has to be unique among the sources sharing
+ * the cache (ex. the database path and the table name), and the zoom, x, y of the tile. Tiles
+ * that are not in the source are cached as well, so that they are not queried again.</p>
+ *
+ * <p>Tiles are read through a {@link ITilesFetcher}, one range query for all the missing tiles
+ * of a request. If prefetching is enabled, after a miss the neighbour tiles and the parent
+ * tile are read in a background thread.</p>
+ *
+ * <p>Every layer has a generation, that changes when it is invalidated. Reads capture it
+ * when they are issued and their tiles are not cached if it changed meanwhile, so that a
+ * read still running or queued can't put back stale tiles.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TileCache implements AutoCloseable {
+
+    /**
+     * The reader of the tiles of a range from the source.
+     */
+    @FunctionalInterface
+    public interface ITilesFetcher {
+        /**
+         * Read the available tiles of a zoom level inside a range of tile indexes (inclusive).
+         *
+         * @param zoom the zoom level.
+         * @param minX the min x tile index.
+         * @param maxX the max x tile index.
+         * @param minY the min y tile index.
+         * @param maxY the max y tile index.
+         * @param consumer the consumer of the tiles found.
+         * @throws Exception
+         */
+        void fetch( int zoom, int minX, int maxX, int minY, int maxY, ITileConsumer consumer ) throws Exception;
+    }
+
+    /**
+     * The consumer of the tiles read by a {@link ITilesFetcher}.
+     */
+    @FunctionalInterface
+    public interface ITileConsumer {
+        void accept( int x, int y, byte[] tileData );
+    }
+
+    private static final byte[] NO_TILE = new byte[0];
+    // rough memory cost of an entry besides the image
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int PREFETCH_RADIUS = 1;
+
+    private final long maxBytes;
+    private final LinkedHashMap<TileKey, byte[]> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private long currentBytes = 0;
+    private final Map<String, Long> layerGenerations = new HashMap<>();
+    private long clearGeneration = 0;
+
+    private final ExecutorService prefetchExecutor;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+
+    /**
+     * @param maxBytes the memory budget of the cached images.
+     * @param prefetch if <code>true</code>, neighbour and parent tiles are read in background after a miss.
+     */
+    public TileCache( long maxBytes, boolean prefetch ) {
+        this.maxBytes = maxBytes;
+        if (prefetch) {
+            prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "tilecache-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            prefetchExecutor = null;
+        }
+    }
+
+    /**
+     * Get a tile, reading it from the source if it is not cached.
+     *
+     * @param layer the layer name.
+     * @param zoom the zoom level.
+     * @param x the x tile index.
+     * @param y the y tile index.
+     * @param fetcher the reader of the layer.
+     * @return the tile image bytes or <code>null</code> if the tile is not available.
+     * @throws Exception
+     */
+    public byte[] getTile( String layer, int zoom, int x, int y, ITilesFetcher fetcher ) throws Exception {
+        byte[] tile = get(new TileKey(layer, zoom, x, y));
+        if (tile != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            long generation = generation(layer);
+            tile = fetchRange(layer, zoom, x, x, y, y, fetcher, generation)[0];
+            prefetch(layer, zoom, x - PREFETCH_RADIUS, x + PREFETCH_RADIUS, y - PREFETCH_RADIUS, y + PREFETCH_RADIUS, fetcher,
+                    generation);
+        }
+        return tile == NO_TILE ? null : tile;
+    }
+
+    /**
+     * Get the tiles of a range of a zoom level, reading all the missing ones with a single fetch.
+     *
+     * @param layer the layer name.
+     * @param zoom the zoom level.
+     * @param minX the min x tile index.
+     * @param maxX the max x tile index.
+     * @param minY the min y tile index.
+     * @param maxY the max y tile index.
+     * @param fetcher the reader of the layer.
+     * @return the tile images, row by row, at index <code>(y - minY) * (maxX - minX + 1) + (x - minX)</code>.
+     *          Tiles that are not available are <code>null</code>.
+     * @throws Exception
+     */
+    public byte[][] getTiles( String layer, int zoom, int minX, int maxX, int minY, int maxY, ITilesFetcher fetcher )
+            throws Exception {
+        int cols = maxX - minX + 1;
+        byte[][] result = new byte[cols * (maxY - minY + 1)][];
+        int missing = fill(layer, zoom, minX, maxX, minY, maxY, result);
+        hits.addAndGet(result.length - missing);
+        if (missing > 0) {
+            misses.addAndGet(missing);
+            long generation = generation(layer);
+            byte[][] found = fetchRange(layer, zoom, minX, maxX, minY, maxY, fetcher, generation);
+            for( int i = 0; i < result.length; i++ ) {
+                if (result[i] == null) {
+                    result[i] = found[i];
+                }
+            }
+            prefetch(layer, zoom, minX - PREFETCH_RADIUS, maxX + PREFETCH_RADIUS, minY - PREFETCH_RADIUS,
+                    maxY + PREFETCH_RADIUS, fetcher, generation);
+        }
+        for( int i = 0; i < result.length; i++ ) {
+            if (result[i] == NO_TILE) {
+                result[i] = null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove all the tiles of a layer, to be called when its tiles change.
+     *
+     * <p>Tiles of the layer that are being read are not cached.</p>
+     *
+     * @param layer the layer name.
+     */
+    public synchronized void invalidate( String layer ) {
+        layerGenerations.merge(layer, 1L, Long::sum);
+        Iterator<Map.Entry<TileKey, byte[]>> iterator = tiles.entrySet().iterator();
+        while( iterator.hasNext() ) {
+            Map.Entry<TileKey, byte[]> entry = iterator.next();
+            if (entry.getKey().layer.equals(layer)) {
+                currentBytes -= cost(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all the tiles.
+     */
+    public synchronized void clear() {
+        clearGeneration++;
+        tiles.clear();
+        currentBytes = 0;
+    }
+
+    /**
+     * @return the number of tiles served from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of tiles that had to be read from the source.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of tiles removed to stay in the memory budget.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of tiles read by the background prefetch.
+     */
+    public long getPrefetchCount() {
+        return prefetched.get();
+    }
+
+    /**
+     * @return the ratio of tiles served from the cache, 0 if no tile was requested.
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * @return the number of cached tiles.
+     */
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * @return the estimated memory used by the cached tiles.
+     */
+    public synchronized long getSizeInBytes() {
+        return currentBytes;
+    }
+
+    @Override
+    public void close() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
+        clear();
+    }
+
+    @Override
+    public String toString() {
+        return "TileCache[tiles=" + getTileCount() + ", bytes=" + getSizeInBytes() + "/" + maxBytes + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + ", prefetched=" + getPrefetchCount()
+                + "]";
+    }
+
+    private synchronized byte[] get( TileKey key ) {
+        return tiles.get(key);
+    }
+
+    private synchronized boolean contains( TileKey key ) {
+        return tiles.containsKey(key);
+    }
+
+    private synchronized int fill( String layer, int zoom, int minX, int maxX, int minY, int maxY, byte[][] result ) {
+        int cols = maxX - minX + 1;
+        int missing = 0;
+        for( int y = minY; y <= maxY; y++ ) {
+            for( int x = minX; x <= maxX; x++ ) {
+                int index = (y - minY) * cols + (x - minX);
+                if (result[index] == null) {
+                    result[index] = tiles.get(new TileKey(layer, zoom, x, y));
+                    if (result[index] == null) {
+                        missing++;
+                    }
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return the generation of a layer, changed by both {@link #invalidate(String)} and {@link #clear()}.
+     */
+    private synchronized long generation( String layer ) {
+        return clearGeneration + layerGenerations.getOrDefault(layer, 0L);
+    }
+
+    private synchronized void put( TileKey key, byte[] tile, long generation ) {
+        if (generation(key.layer) != generation) {
+            // the layer was invalidated after the read was issued
+            return;
+        }
+        byte[] old = tiles.put(key, tile);
+        if (old != null) {
+            currentBytes -= cost(old);
+        }
+        currentBytes += cost(tile);
+        Iterator<byte[]> iterator = tiles.values().iterator();
+        while( currentBytes > maxBytes && iterator.hasNext() ) {
+            currentBytes -= cost(iterator.next());
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long cost( byte[] tile ) {
+        return tile.length + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Reads a range from the source and caches all its tiles, also the missing ones.
+     *
+     * @param generation the generation of the layer when the read was issued.
+     * @return the tiles of the range, with the same layout as {@link #getTiles(String, int, int, int, int, int, ITilesFetcher)}.
+     */
+    private byte[][] fetchRange( String layer, int zoom, int minX, int maxX, int minY, int maxY, ITilesFetcher fetcher,
+            long generation ) throws Exception {
+        int cols = maxX - minX + 1;
+        byte[][] found = new byte[cols * (maxY - minY + 1)][];
+        fetcher.fetch(zoom, minX, maxX, minY, maxY, ( x, y, tileData ) -> {
+            if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                found[(y - minY) * cols + (x - minX)] = tileData;
+            }
+        });
+        for( int i = 0; i < found.length; i++ ) {
+            if (found[i] == null) {
+                found[i] = NO_TILE;
+            }
+            put(new TileKey(layer, zoom, minX + i % cols, minY + i / cols), found[i], generation);
+        }
+        return found;
+    }
+
+    private void prefetch( String layer, int zoom, int minX, int maxX, int minY, int maxY, ITilesFetcher fetcher,
+            long generation ) {
+        if (prefetchExecutor == null) {
+            return;
+        }
+        try {
+            prefetchExecutor.execute(() -> {
+                try {
+                    prefetchRange(layer, zoom, minX, maxX, minY, maxY, fetcher, generation);
+                    if (zoom > 0) {
+                        prefetchRange(layer, zoom - 1, Math.floorDiv(minX, 2), Math.floorDiv(maxX, 2), Math.floorDiv(minY, 2),
+                                Math.floorDiv(maxY, 2), fetcher, generation);
+                    }
+                } catch (Exception e) {
+                    // prefetching is best effort, the tiles will be read when needed
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the cache has been closed
+        }
+    }
+
+    private void prefetchRange( String layer, int zoom, int minX, int maxX, int minY, int maxY, ITilesFetcher fetcher,
+            long generation ) throws Exception {
+        if (generation(layer) != generation) {
+            return;
+        }
+        int maxIndex = (1 << zoom) - 1;
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, maxIndex);
+        maxY = Math.min(maxY, maxIndex);
+        boolean allCached = true;
+        for( int y = minY; y <= maxY && allCached; y++ ) {
+            for( int x = minX; x <= maxX && allCached; x++ ) {
+                allCached = contains(new TileKey(layer, zoom, x, y));
+            }
+        }
+        if (!allCached) {
+            prefetched.addAndGet(fetchRange(layer, zoom, minX, maxX, minY, maxY, fetcher, generation).length);
+        }
+    }
+
+    private static class TileKey {
+        final String layer;
+        final int zoom;
+        final int x;
+        final int y;
+
+        TileKey( String layer, int zoom, int x, int y ) {
+            this.layer = layer;
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * layer.hashCode() + zoom) + x) + y;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (!(obj instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) obj;
+            return zoom == other.zoom && x == other.x && y == other.y && layer.equals(other.layer);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.hortonmachine.dbs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.dbs.compat.IHMPreparedStatement;
+import org.hortonmachine.dbs.spatialite.hm.HMConnection;
+import org.hortonmachine.dbs.spatialite.hm.SqliteConnectionPool;
+import org.hortonmachine.dbs.spatialite.hm.SqliteDb;
+import org.hortonmachine.dbs.utils.SqlName;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Tests sqlite reads on the concurrent readers pool while writing.
+ */
+public class TestConcurrentReaders {
+
+    private static final SqlName TABLE = SqlName.m("values_table");
+    private static SqliteDb db;
+    private static File dbFile;
+
+    @BeforeClass
+    public static void createDb() throws Exception {
+        dbFile = File.createTempFile("jgt-dbs-testconcurrentreaders", ".sqlite");
+        dbFile.delete();
+
+        db = new SqliteDb();
+        db.setConcurrentReaders(true);
+        db.setMinMaxPoolSize(null, 4);
+        db.open(dbFile.getAbsolutePath());
+        db.createTable(TABLE, "id INTEGER PRIMARY KEY", "value INTEGER");
+        insert(0, 100);
+    }
+
+    @AfterClass
+    public static void closeDb() throws Exception {
+        if (db != null) {
+            db.close();
+            dbFile.delete();
+            new File(dbFile.getAbsolutePath() + "-wal").delete();
+            new File(dbFile.getAbsolutePath() + "-shm").delete();
+        }
+    }
+
+    private static void insert( int from, int to ) throws Exception {
+        db.execOnConnection(connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (IHMPreparedStatement pStmt = connection
+                    .prepareStatement("INSERT INTO " + TABLE.fixedName + " (id, value) VALUES (?, ?)")) {
+                for( int i = from; i < to; i++ ) {
+                    pStmt.setInt(1, i);
+                    pStmt.setInt(2, i);
+                    pStmt.addBatch();
+                }
+                pStmt.executeBatch();
+                connection.commit();
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+    }
+
+    private static int count() throws Exception {
+        return db.execOnResultSet("SELECT count(*) FROM " + TABLE.fixedName, rs -> {
+            rs.next();
+            return rs.getInt(1);
+        });
+    }
+
+    @Test
+    public void testReadsWhileWriting() throws Exception {
+        ExecutorService readers = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> counts = new ArrayList<>();
+        for( int i = 0; i < 200; i++ ) {
+            counts.add(readers.submit(() -> count()));
+        }
+        // writes go through the writer connection meanwhile
+        for( int i = 1; i <= 10; i++ ) {
+            insert(i * 100, i * 100 + 100);
+        }
+        for( Future<Integer> count : counts ) {
+            int c = count.get();
+            // readers always see complete transactions
+            assertTrue(c >= 100 && c <= 1100 && c % 100 == 0);
+        }
+        readers.shutdown();
+
+        assertEquals(1100, count());
+    }
+
+    @Test
+    public void testCloseWakesWaitingReaders() throws Exception {
+        SQLiteConfig readConfig = new SQLiteConfig();
+        readConfig.setReadOnly(true);
+        SqliteConnectionPool pool = new SqliteConnectionPool(EDb.SQLITE.getJdbcPrefix() + dbFile.getAbsolutePath(),
+                readConfig.toProperties(), 1, null);
+        HMConnection connection = pool.acquire();
+
+        // the pool is exhausted, so this waits
+        Exception[] error = new Exception[1];
+        Thread waiting = new Thread(() -> {
+            try {
+                pool.acquire().release();
+            } catch (Exception e) {
+                error[0] = e;
+            }
+        });
+        waiting.start();
+        waiting.join(500);
+        assertTrue(waiting.isAlive());
+
+        pool.close();
+        waiting.join(10000);
+        assertFalse(waiting.isAlive());
+        assertTrue(error[0] instanceof SQLException);
+
+        connection.release();
+        assertTrue(connection.getOriginalConnection().isClosed());
+    }
+
+}
@@ -0,0 +1,109 @@
+package org.hortonmachine.dbs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hortonmachine.dbs.compat.HMCursor;
+import org.hortonmachine.dbs.spatialite.hm.SqliteDb;
+import org.hortonmachine.dbs.utils.GeojsonWriter;
+import org.hortonmachine.dbs.utils.SqlName;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.locationtech.jts.io.WKTReader;
+
+/**
+ * Tests for the forward only cursor and the streaming exports.
+ */
+public class TestCursor {
+
+    private static final SqlName TABLE = SqlName.m("records");
+    private static SqliteDb db;
+    private static File dbFile;
+
+    @BeforeClass
+    public static void createDb() throws Exception {
+        dbFile = File.createTempFile("jgt-dbs-testcursor", ".sqlite");
+        dbFile.delete();
+
+        db = new SqliteDb();
+        db.open(dbFile.getAbsolutePath());
+        db.createTable(TABLE, "id INTEGER PRIMARY KEY", "name TEXT");
+        for( int i = 0; i < 50; i++ ) {
+            db.executeInsertUpdateDeleteSql("INSERT INTO " + TABLE.fixedName + " VALUES (" + i + ", 'name " + i + "')");
+        }
+    }
+
+    @AfterClass
+    public static void closeDb() throws Exception {
+        if (db != null) {
+            db.close();
+            dbFile.delete();
+        }
+    }
+
+    @Test
+    public void testCursor() throws Exception {
+        int count = 0;
+        try (HMCursor cursor = db.getCursorFromRawSql("SELECT id, name FROM " + TABLE.fixedName + " ORDER BY id", 10)) {
+            assertEquals(Arrays.asList("id", "name"), cursor.getNames());
+            while( cursor.next() ) {
+                assertEquals(count, ((Number) cursor.getObject(0)).intValue());
+                assertEquals("name " + count, cursor.getObject(1));
+                count++;
+            }
+            assertFalse(cursor.next());
+        }
+        assertEquals(50, count);
+
+        // the connection is still usable after the cursor is done
+        assertEquals(50, db.getCount(TABLE));
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        File csvFile = File.createTempFile("jgt-dbs-testcursor", ".csv");
+        db.runRawSqlToCsv("SELECT id, name FROM " + TABLE.fixedName + " ORDER BY id", csvFile, true, null);
+        List<String> lines = Files.readAllLines(csvFile.toPath());
+        csvFile.delete();
+
+        assertEquals(51, lines.size());
+        assertEquals("id;name", lines.get(0));
+        assertEquals("49;name 49", lines.get(50));
+    }
+
+    @Test
+    public void testGeojsonWriter() throws Exception {
+        StringWriter sw = new StringWriter();
+        GeojsonWriter writer = new GeojsonWriter(sw, 2);
+        writer.start();
+        writer.writeFeature(new WKTReader().read("POINT (11.123456 46.1)"), Arrays.asList("id", "name"),
+                new Object[]{1, "a \"quoted\" name"});
+        writer.writeFeature(new WKTReader().read("POLYGON ((0 0, 1 0, 1 1, 0 0), (0.1 0.1, 0.2 0.1, 0.2 0.2, 0.1 0.1))"),
+                Arrays.asList("id", "name"), new Object[]{2, null});
+        writer.end();
+
+        JSONObject json = new JSONObject(sw.toString());
+        JSONArray features = json.getJSONArray("features");
+        assertEquals(2, features.length());
+
+        JSONObject point = features.getJSONObject(0);
+        JSONArray coordinates = point.getJSONObject("geometry").getJSONArray("coordinates");
+        assertEquals(11.12, coordinates.getDouble(0), 0.0);
+        assertEquals("a \"quoted\" name", point.getJSONObject("properties").getString("name"));
+
+        JSONObject polygon = features.getJSONObject(1);
+        assertEquals(2, polygon.getJSONObject("geometry").getJSONArray("coordinates").length());
+        assertTrue(polygon.getJSONObject("properties").isNull("name"));
+    }
+
+}
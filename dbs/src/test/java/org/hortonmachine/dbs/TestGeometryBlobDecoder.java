@@ -0,0 +1,104 @@
+package org.hortonmachine.dbs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.hortonmachine.dbs.geopackage.geom.GeoPkgGeomReader;
+import org.hortonmachine.dbs.geopackage.geom.GeoPkgGeomWriter;
+import org.hortonmachine.dbs.spatialite.SpatialiteWKBReader;
+import org.hortonmachine.dbs.spatialite.SpatialiteWKBWriter;
+import org.hortonmachine.dbs.utils.GeometryBlobDecoder;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.io.WKTReader;
+
+/**
+ * Tests the geometry blob decoder against the geopackage and spatialite readers.
+ */
+public class TestGeometryBlobDecoder {
+
+    private static final String[] WKTS = {//
+            "POINT (11.1 46.1)", //
+            "LINESTRING (0 0, 1 1, 2 0.5)", //
+            "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (2 2, 4 2, 4 4, 2 2))", //
+            "MULTIPOINT ((1 2), (3 4))", //
+            "MULTILINESTRING ((0 0, 1 1), (2 2, 3 5))", //
+            "MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))", //
+            "GEOMETRYCOLLECTION (POINT (1 1), LINESTRING (0 0, -3 7))", //
+            "POINT Z (1 2 3)", //
+            "POLYGON Z ((0 0 1, 10 0 2, 10 10 3, 0 0 1))"//
+    };
+
+    private static int dim( Geometry geometry ) {
+        return Double.isNaN(geometry.getCoordinate().getZ()) ? 2 : 3;
+    }
+
+    @Test
+    public void testGeopackage() throws Exception {
+        WKTReader wktReader = new WKTReader();
+        GeoPkgGeomWriter.Configuration noEnvelope = new GeoPkgGeomWriter.Configuration();
+        noEnvelope.setWriteEnvelope(false);
+        double[] envelope = new double[4];
+        for( String wkt : WKTS ) {
+            Geometry geometry = wktReader.read(wkt);
+            geometry.setSRID(4326);
+            for( byte[] blob : new byte[][]{new GeoPkgGeomWriter(dim(geometry)).write(geometry),
+                    new GeoPkgGeomWriter(dim(geometry), noEnvelope).write(geometry)} ) {
+                Geometry expected = new GeoPkgGeomReader(blob).get();
+                Geometry decoded = GeometryBlobDecoder.get().decodeGeopackage(blob);
+                assertTrue(wkt, expected.equalsExact(decoded));
+                assertEquals(expected.getSRID(), decoded.getSRID());
+                assertEquals(wkt, expected.getCoordinate().getZ(), decoded.getCoordinate().getZ(), 0.0);
+
+                Geometry packed = GeometryBlobDecoder.getPacked().decodeGeopackage(blob);
+                assertTrue(wkt, expected.equalsExact(packed));
+
+                Envelope env = expected.getEnvelopeInternal();
+                assertTrue(GeometryBlobDecoder.get().readGeopackageEnvelope(blob, envelope));
+                assertArrayEquals(wkt, new double[]{env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY()}, envelope,
+                        0.0);
+            }
+        }
+
+        byte[] emptyBlob = new GeoPkgGeomWriter().write(wktReader.read("POINT EMPTY"));
+        assertTrue(GeometryBlobDecoder.isGeopackageEmpty(emptyBlob));
+        assertTrue(GeometryBlobDecoder.get().decodeGeopackage(emptyBlob).isEmpty());
+        assertFalse(GeometryBlobDecoder.get().readGeopackageEnvelope(emptyBlob, envelope));
+    }
+
+    @Test
+    public void testSpatialite() throws Exception {
+        WKTReader wktReader = new WKTReader();
+        double[] envelope = new double[4];
+        for( int i = 0; i < 7; i++ ) {
+            Geometry geometry = wktReader.read(WKTS[i]);
+            geometry.setSRID(32632);
+            byte[] blob = new SpatialiteWKBWriter().write(geometry);
+
+            Geometry expected = new SpatialiteWKBReader().read(blob);
+            Geometry decoded = GeometryBlobDecoder.get().decodeSpatialite(blob);
+            assertTrue(WKTS[i], expected.equalsExact(decoded));
+            assertEquals(32632, decoded.getSRID());
+
+            Envelope env = expected.getEnvelopeInternal();
+            GeometryBlobDecoder.get().readSpatialiteEnvelope(blob, envelope);
+            assertArrayEquals(WKTS[i], new double[]{env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY()}, envelope,
+                    0.0);
+        }
+    }
+
+    @Test
+    public void testPackedSequence() throws Exception {
+        Geometry line = new WKTReader().read("LINESTRING (0 0, 1 1, 2 0.5)");
+        byte[] blob = new GeoPkgGeomWriter().write(line);
+        LineString decoded = (LineString) GeometryBlobDecoder.getPacked().decodeGeopackage(blob);
+        assertTrue(decoded.getCoordinateSequence() instanceof PackedCoordinateSequence.Double);
+        assertEquals(0.5, decoded.getCoordinateSequence().getY(2), 0.0);
+    }
+
+}
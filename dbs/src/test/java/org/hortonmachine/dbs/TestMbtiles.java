@@ -1,5 +1,6 @@
 package org.hortonmachine.dbs;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -11,6 +12,7 @@ import java.util.List;
 import org.hortonmachine.dbs.compat.ADb;
 import org.hortonmachine.dbs.compat.EDb;
 import org.hortonmachine.dbs.mbtiles.MBTilesDb;
+import org.hortonmachine.dbs.utils.TileCache;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -47,6 +49,24 @@ public class TestMbtiles {
         testTestDb(testDb);
     }
 
+    @Test
+    public void testRangeReadAndCache() throws Exception {
+        MBTilesDb mdb = new MBTilesDb(testDb);
+        // the range read returns the same tiles, also through the cache
+        byte[][] tiles = mdb.getTiles(5, 16, 17, 19, 20);
+        try (TileCache tileCache = new TileCache(1024 * 1024, false)) {
+            mdb.setTileCache(tileCache);
+            byte[][] cachedTiles = mdb.getTiles(5, 16, 17, 19, 20);
+            for( int i = 0; i < tiles.length; i++ ) {
+                assertNotNull(tiles[i]);
+                assertArrayEquals(tiles[i], cachedTiles[i]);
+            }
+            assertArrayEquals(tiles[3], mdb.getTile(17, 20, 5));
+            assertEquals(1, tileCache.getHitCount());
+            mdb.setTileCache(null);
+        }
+    }
+
     private void testTestDb( ADb db) throws Exception {
         MBTilesDb mdb = new MBTilesDb(db);
         // 6.6027284,35.489243,18.517426,47.085217
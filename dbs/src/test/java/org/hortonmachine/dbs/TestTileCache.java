@@ -0,0 +1,171 @@
+package org.hortonmachine.dbs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hortonmachine.dbs.utils.TileCache;
+import org.hortonmachine.dbs.utils.TileCache.ITilesFetcher;
+import org.junit.Test;
+
+/**
+ * Tests the tile cache.
+ */
+public class TestTileCache {
+
+    private static final int TILE_BYTES = 1000;
+
+    /**
+     * A fetcher of tiles filled with x + y, the tiles with x == 5 are missing.
+     */
+    private static ITilesFetcher countingFetcher( AtomicInteger queries ) {
+        return ( zoom, minX, maxX, minY, maxY, consumer ) -> {
+            queries.incrementAndGet();
+            for( int y = minY; y <= maxY; y++ ) {
+                for( int x = minX; x <= maxX; x++ ) {
+                    if (x != 5) {
+                        byte[] tile = new byte[TILE_BYTES];
+                        tile[0] = (byte) (x + y);
+                        consumer.accept(x, y, tile);
+                    }
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        ITilesFetcher fetcher = countingFetcher(queries);
+        try (TileCache cache = new TileCache(1024 * 1024, false)) {
+            assertEquals(3, cache.getTile("layer", 10, 1, 2, fetcher)[0]);
+            assertEquals(3, cache.getTile("layer", 10, 1, 2, fetcher)[0]);
+            assertEquals(1, queries.get());
+
+            // missing tiles are cached as well
+            assertNull(cache.getTile("layer", 10, 5, 2, fetcher));
+            assertNull(cache.getTile("layer", 10, 5, 2, fetcher));
+            assertEquals(2, queries.get());
+
+            // layers are separated
+            cache.getTile("other", 10, 1, 2, fetcher);
+            assertEquals(3, queries.get());
+
+            assertEquals(2, cache.getHitCount());
+            assertEquals(3, cache.getMissCount());
+
+            cache.invalidate("layer");
+            cache.getTile("layer", 10, 1, 2, fetcher);
+            assertEquals(4, queries.get());
+        }
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        ITilesFetcher fetcher = countingFetcher(queries);
+        try (TileCache cache = new TileCache(1024 * 1024, false)) {
+            byte[][] tiles = cache.getTiles("layer", 10, 3, 6, 0, 1, fetcher);
+            assertEquals(8, tiles.length);
+            assertEquals(1, queries.get());
+            // x = 4, y = 1
+            assertEquals(5, tiles[1 * 4 + 1][0]);
+            assertNull(tiles[2]);
+
+            // all the tiles are cached now
+            byte[][] again = cache.getTiles("layer", 10, 4, 6, 1, 1, fetcher);
+            assertEquals(1, queries.get());
+            assertArrayEquals(tiles[5], again[0]);
+            assertEquals(8, cache.getTileCount());
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        ITilesFetcher fetcher = countingFetcher(queries);
+        // room for about 3 tiles
+        try (TileCache cache = new TileCache(3500, false)) {
+            cache.getTile("layer", 10, 0, 0, fetcher);
+            cache.getTile("layer", 10, 1, 0, fetcher);
+            cache.getTile("layer", 10, 2, 0, fetcher);
+            // touch the first, so that the second is the least recently used
+            cache.getTile("layer", 10, 0, 0, fetcher);
+            cache.getTile("layer", 10, 3, 0, fetcher);
+
+            assertEquals(1, cache.getEvictionCount());
+            assertTrue(cache.getSizeInBytes() <= 3500);
+            int before = queries.get();
+            cache.getTile("layer", 10, 0, 0, fetcher);
+            assertEquals(before, queries.get());
+            cache.getTile("layer", 10, 1, 0, fetcher);
+            assertEquals(before + 1, queries.get());
+        }
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        ITilesFetcher fetcher = countingFetcher(queries);
+        try (TileCache cache = new TileCache(1024 * 1024, true)) {
+            cache.getTile("layer", 10, 10, 10, fetcher);
+            long timeout = System.currentTimeMillis() + 5000;
+            while( cache.getPrefetchCount() < 13 && System.currentTimeMillis() < timeout ) {
+                Thread.sleep(10);
+            }
+            // the 9 tiles of the neighbourhood and the 4 parents of the neighbourhood
+            assertEquals(13, cache.getPrefetchCount());
+            int before = queries.get();
+            assertEquals(22, cache.getTile("layer", 10, 11, 11, fetcher)[0]);
+            assertEquals(9, cache.getTile("layer", 9, 4, 5, fetcher)[0]);
+            assertEquals(before, queries.get());
+        }
+    }
+
+    @Test
+    public void testInvalidateDuringPrefetch() throws Exception {
+        AtomicInteger version = new AtomicInteger(1);
+        CountDownLatch prefetchStarted = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+        AtomicBoolean blockPrefetch = new AtomicBoolean(true);
+        // tiles filled with the version of the source, the first prefetch waits for the invalidation
+        ITilesFetcher fetcher = ( zoom, minX, maxX, minY, maxY, consumer ) -> {
+            byte tileVersion = (byte) version.get();
+            if (Thread.currentThread().getName().equals("tilecache-prefetch") && blockPrefetch.getAndSet(false)) {
+                prefetchStarted.countDown();
+                invalidated.await(5, TimeUnit.SECONDS);
+            }
+            for( int y = minY; y <= maxY; y++ ) {
+                for( int x = minX; x <= maxX; x++ ) {
+                    byte[] tile = new byte[TILE_BYTES];
+                    tile[0] = tileVersion;
+                    consumer.accept(x, y, tile);
+                }
+            }
+        };
+        try (TileCache cache = new TileCache(1024 * 1024, true)) {
+            assertEquals(1, cache.getTile("layer", 10, 10, 10, fetcher)[0]);
+            assertTrue(prefetchStarted.await(5, TimeUnit.SECONDS));
+
+            // the tiles change while the prefetch holds the old ones
+            version.set(2);
+            cache.invalidate("layer");
+            invalidated.countDown();
+
+            long timeout = System.currentTimeMillis() + 5000;
+            while( cache.getPrefetchCount() < 9 && System.currentTimeMillis() < timeout ) {
+                Thread.sleep(10);
+            }
+            assertEquals(9, cache.getPrefetchCount());
+            assertEquals(2, cache.getTile("layer", 10, 11, 11, fetcher)[0]);
+            assertEquals(2, cache.getTile("layer", 10, 10, 10, fetcher)[0]);
+        }
+    }
+
+}
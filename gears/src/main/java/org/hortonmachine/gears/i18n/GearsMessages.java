@@ -753,6 +753,7 @@ public class GearsMessages {
     public static final String OMSVECTORCLIPPER_IN_MAP_DESCRIPTION = "The vector map to be clipped.";
     public static final String OMSVECTORCLIPPER_IN_CLIPPER_DESCRIPTION = "The clipping vector map.";
     public static final String OMSVECTORCLIPPER_P_MAX_THREADS_DESCRIPTION = "Max threads to use (default 1)";
+    public static final String OMSVECTORCLIPPER_DO_STREAM_DESCRIPTION = "Clip the features lazily, while the output is read.";
     public static final String OMSVECTORCLIPPER_OUT_MAP_DESCRIPTION = "The resulting vector map.";
 
     public static final String IDVALUESARRAY2IDVALUESCONVERTER_DESCRIPTION = "Utility class for converting from 'id1 value1[]' to 'id1 value1' by averaging.";
@@ -1202,6 +1203,7 @@ public class GearsMessages {
     public static final String OMSVECTORRESHAPER_IN_VECTOR_DESCRIPTION = "The vector to reshape.";
     public static final String OMSVECTORRESHAPER_P_CQL_DESCRIPTION = "The ECQL reshape function.";
     public static final String OMSVECTORRESHAPER_P_REMOVE_DESCRIPTION = "The list of fields to remove, comma separated.";
+    public static final String OMSVECTORRESHAPER_DO_STREAM_DESCRIPTION = "Reshape the features lazily, while the output is read.";
     public static final String OMSVECTORRESHAPER_OUT_VECTOR_DESCRIPTION = "The new reshaped vector.";
 
     public static final String OMSVECTORREPROJECTOR_DESCRIPTION = "Module for vector reprojection.";
@@ -114,22 +114,30 @@ class DatabaseLasDataManager extends ALasDataManager {
         if (!doOnlyEnvelope) {
             preparedGeometry = PreparedGeometryFactory.prepare(checkGeom);
         }
-        final PreparedGeometry _preparedGeometry = preparedGeometry;
         List<LasCell> lasCells = LasCellsTable.getLasCells(spatialDb, checkGeom, true, true, false, false, false);
-        lasCells.stream().forEach(cell -> {
-            double[][] positions = LasCellsTable.getCellPositions(cell);
-            short[][] cellIntensityClass = LasCellsTable.getCellIntensityClass(cell);
+        double[] positions = new double[0];
+        short[] intensities = new short[0];
+        short[] classifications = new short[0];
+        for( LasCell cell : lasCells ) {
+            int points = cell.pointsCount;
+            if (positions.length < points * 3) {
+                positions = new double[points * 3];
+                intensities = new short[points];
+                classifications = new short[points];
+            }
+            LasCellsTable.getCellPositions(cell, positions);
+            LasCellsTable.getCellIntensityClass(cell, intensities, classifications);
 
-            for( int i = 0; i < positions.length; i++ ) {
+            for( int i = 0; i < points; i++ ) {
                 LasRecord dot = new LasRecord();
-                dot.x = positions[i][0];
-                dot.y = positions[i][1];
-                dot.z = positions[i][2];
+                dot.x = positions[i * 3];
+                dot.y = positions[i * 3 + 1];
+                dot.z = positions[i * 3 + 2];
 
                 Coordinate c = new Coordinate(dot.x, dot.y);
                 if (doOnlyEnvelope && !checkEnvelope.contains(c)) {
                     continue;
-                } else if (!doOnlyEnvelope && !_preparedGeometry.contains(gf.createPoint(c))) {
+                } else if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
                     continue;
                 }
 
@@ -144,12 +152,12 @@ class DatabaseLasDataManager extends ALasDataManager {
                     }
                 }
 
-                dot.intensity = cellIntensityClass[i][0];
-                dot.classification = (byte) cellIntensityClass[i][1];
+                dot.intensity = intensities[i];
+                dot.classification = (byte) classifications[i];
 
                 pointsListForTile.add(dot);
             }
-        });
+        }
         return pointsListForTile;
     }
 
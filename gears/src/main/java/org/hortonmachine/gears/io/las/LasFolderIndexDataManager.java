@@ -20,7 +20,9 @@ package org.hortonmachine.gears.io.las;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -33,7 +35,10 @@ import org.geotools.util.WeakValueHashMap;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
 import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.LasRecordBatch;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderMapped;
 import org.hortonmachine.gears.io.las.index.LasIndexer;
+import org.hortonmachine.gears.io.las.index.LasPagedIndex;
 import org.hortonmachine.gears.io.las.index.OmsLasIndexReader;
 import org.hortonmachine.gears.io.las.index.strtree.STRtreeJGT;
 import org.hortonmachine.gears.libs.modules.HMConstants;
@@ -59,6 +64,7 @@ import org.locationtech.jts.index.strtree.ItemBoundable;
  * @author Andrea Antonello (www.hydrologis.com)
  */
 class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable {
+    private static final int BATCH_SIZE = 4096;
     private WeakValueHashMap<String, Pair> fileName2LasReaderMap;
     private WeakValueHashMap<String, STRtreeJGT> fileName2IndexMap;
     private List<String> fileName4LasReaderMapSupport;
@@ -66,6 +72,8 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
     private File lasFolderIndexFile;
     private File lasFolder;
     private STRtreeJGT mainLasFolderIndex;
+    private LasPagedIndex pagedIndex;
+    private Map<String, LasReaderMapped> fileName2MappedReaderMap = new HashMap<String, LasReaderMapped>();
     private GridCoverage2D inDem;
     private double elevThreshold;
 
@@ -122,11 +130,17 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
     /**
      * Open the main folder file and read the main index.
      *
+     * <p>If the folder has also a paged index, it is used to read the points.</p>
+     *
      * @throws Exception
      */
     @Override
     public void open() throws Exception {
         mainLasFolderIndex = OmsLasIndexReader.readIndex(lasFolderIndexFile.getAbsolutePath());
+        File pagedIndexFile = LasPagedIndex.getIndexFile(lasFolderIndexFile);
+        if (pagedIndexFile.exists()) {
+            pagedIndex = LasPagedIndex.open(pagedIndexFile);
+        }
     }
 
     /**
@@ -149,6 +163,34 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
             preparedGeometry = PreparedGeometryFactory.prepare(checkGeom);
         }
 
+        if (pagedIndex != null) {
+            // read only the point ranges of the matching chunks, checking the coordinates in batches
+            LasRecordBatch batch = new LasRecordBatch(BATCH_SIZE);
+            batch.z = null;
+            batch.intensity = null;
+            batch.classification = null;
+            batch.returnNumber = null;
+            batch.numberOfReturns = null;
+            batch.gpsTime = null;
+            final PreparedGeometry checkGeometry = preparedGeometry;
+            pagedIndex.query(env, ( fileIndex, fromPoint, toPoint, avgElev, avgIntensity ) -> {
+                LasReaderMapped reader = getMappedReader(pagedIndex.getFileName(fileIndex));
+                if (reader == null) {
+                    return;
+                }
+                for( long from = fromPoint; from < toPoint; from += BATCH_SIZE ) {
+                    int read = (int) Math.min(reader.readBatch(from, batch), toPoint - from);
+                    for( int i = 0; i < read; i++ ) {
+                        if (env.contains(batch.x[i], batch.y[i])) {
+                            LasRecord lasDot = reader.getPointAt(from + i);
+                            addIfInside(lasDot, env, checkGeometry, doOnlyEnvelope, pointsListForTile);
+                        }
+                    }
+                }
+            });
+            return pointsListForTile;
+        }
+
         List filesList = mainLasFolderIndex.query(env);
         for( Object fileName : filesList ) {
             if (fileName instanceof String) {
@@ -178,38 +220,7 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
                         long to = (long) addresses[1];
                         for( long pointNum = from; pointNum < to; pointNum++ ) {
                             LasRecord lasDot = pair.reader.getPointAt(pointNum);
-                            if (!doAccept(lasDot)) {
-                                continue;
-                            }
-                            if (inDem != null) {
-                                Coordinate c = new Coordinate(lasDot.x, lasDot.y);
-                                if (env.contains(c)) {
-                                    // check geom instead of only envelope?
-                                    if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
-                                        continue;
-                                    }
-                                    double value = CoverageUtilities.getValue(inDem, lasDot.x, lasDot.y);
-                                    if (HMConstants.isNovalue(value)) {
-                                        continue;
-                                    }
-                                    double height = lasDot.z - value;
-                                    if (height > elevThreshold) {
-                                        // lasDot.z = height;
-                                        lasDot.groundElevation = height;
-                                        pointsListForTile.add(lasDot);
-                                    }
-                                }
-                            } else {
-                                Coordinate c = new Coordinate(lasDot.x, lasDot.y);
-                                if (env.contains(c)) {
-                                    // check geom instead of only envelope?
-                                    if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
-                                        continue;
-                                    }
-                                    pointsListForTile.add(lasDot);
-                                }
-                            }
-
+                            addIfInside(lasDot, env, preparedGeometry, doOnlyEnvelope, pointsListForTile);
                         }
                     }
                 }
@@ -218,6 +229,50 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
         return pointsListForTile;
     }
 
+    private void addIfInside( LasRecord lasDot, Envelope env, PreparedGeometry preparedGeometry, boolean doOnlyEnvelope,
+            List<LasRecord> pointsList ) throws Exception {
+        if (!doAccept(lasDot)) {
+            return;
+        }
+        Coordinate c = new Coordinate(lasDot.x, lasDot.y);
+        if (!env.contains(c)) {
+            return;
+        }
+        // check geom instead of only envelope?
+        if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
+            return;
+        }
+        if (inDem != null) {
+            double value = CoverageUtilities.getValue(inDem, lasDot.x, lasDot.y);
+            if (HMConstants.isNovalue(value)) {
+                return;
+            }
+            double height = lasDot.z - value;
+            if (height > elevThreshold) {
+                // lasDot.z = height;
+                lasDot.groundElevation = height;
+                pointsList.add(lasDot);
+            }
+        } else {
+            pointsList.add(lasDot);
+        }
+    }
+
+    private LasReaderMapped getMappedReader( String name ) throws Exception {
+        LasReaderMapped reader = fileName2MappedReaderMap.get(name);
+        if (reader == null) {
+            File lasFile = new File(lasFolder, name);
+            if (!lasFile.exists()) {
+                System.err.println("Doesn't exist: " + lasFile);
+                return null;
+            }
+            reader = new LasReaderMapped(lasFile, crs);
+            reader.open();
+            fileName2MappedReaderMap.put(name, reader);
+        }
+        return reader;
+    }
+
     /**
      * Retrieve all the trees envelopes that intersect the geometry.
      *
@@ -451,6 +506,14 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
         fileName4LasReaderMapSupport.clear();
         fileName2LasReaderMap.clear();
         fileName2LasReaderMap = null;
+        for( LasReaderMapped reader : fileName2MappedReaderMap.values() ) {
+            reader.close();
+        }
+        fileName2MappedReaderMap.clear();
+        if (pagedIndex != null) {
+            pagedIndex.close();
+            pagedIndex = null;
+        }
     }
 
     private class Pair {
@@ -126,4 +126,45 @@ public abstract class ALasReader extends Las implements AutoCloseable{
      */
     public abstract void setOverrideGpsTimeType( int type );
 
+    /**
+     * Read the next points into a caller owned batch.
+     * 
+     * <p>The default implementation goes through {@link #getNextPoint()}, readers
+     * that can decode the data in place override it.</p>
+     * 
+     * @param batch the batch to fill, its columns set to <code>null</code> are skipped.
+     * @return the number of points read, 0 if no more points are available.
+     * @throws IOException
+     */
+    public int readNextBatch( LasRecordBatch batch ) throws IOException {
+        int count = 0;
+        while( count < batch.capacity && hasNextPoint() ) {
+            LasRecord dot = getNextPoint();
+            if (batch.x != null)
+                batch.x[count] = dot.x;
+            if (batch.y != null)
+                batch.y[count] = dot.y;
+            if (batch.z != null)
+                batch.z[count] = dot.z;
+            if (batch.intensity != null)
+                batch.intensity[count] = dot.intensity;
+            if (batch.classification != null)
+                batch.classification[count] = dot.classification;
+            if (batch.returnNumber != null)
+                batch.returnNumber[count] = dot.returnNumber;
+            if (batch.numberOfReturns != null)
+                batch.numberOfReturns[count] = dot.numberOfReturns;
+            if (batch.gpsTime != null)
+                batch.gpsTime[count] = dot.gpsTime;
+            if (batch.color != null) {
+                batch.color[count * 3] = dot.color[0];
+                batch.color[count * 3 + 1] = dot.color[1];
+                batch.color[count * 3 + 2] = dot.color[2];
+            }
+            count++;
+        }
+        batch.size = count;
+        return count;
+    }
+
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ import java.io.File;
 
 import org.hortonmachine.gears.io.las.core.laszip4j.LaszipReader;
 import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderBuffered;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderMapped;
 import org.hortonmachine.gears.io.las.core.v_1_0.LasWriterBuffered;
 import org.hortonmachine.gears.utils.CrsUtilities;
 import org.hortonmachine.gears.utils.files.FileUtilities;
@@ -73,6 +74,24 @@ public abstract class Las {
         }
     }
 
+    /**
+     * Get a memory-mapped las reader, which supports batch and concurrent reads.
+     * 
+     * <p>Compressed laz files are not supported and fall back to the default reader.</p>
+     * 
+     * @param lasFile the file to read.
+     * @param crs the {@link CoordinateReferenceSystem}.
+     * @return the las reader.
+     * @throws Exception if something goes wrong.
+     */
+    public static ALasReader getMappedReader( File lasFile, CoordinateReferenceSystem crs ) throws Exception {
+        if (isLaz(lasFile.getName())) {
+            return new LaszipReader(lasFile, crs);
+        } else {
+            return new LasReaderMapped(lasFile, crs);
+        }
+    }
+
     /**
      * Get a las writer.
      * 
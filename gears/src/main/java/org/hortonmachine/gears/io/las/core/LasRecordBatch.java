@@ -0,0 +1,102 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.core;
+
+/**
+ * A columnar batch of las records, filled by the readers that support batch reading.
+ * 
+ * <p>The batch is owned by the caller and can be reused for many reads, which avoids
+ * the creation of a {@link LasRecord} per point. Columns that are not needed can be
+ * set to <code>null</code> and will not be read.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LasRecordBatch {
+    /**
+     * The maximum number of records the batch can contain.
+     */
+    public final int capacity;
+
+    /**
+     * The number of records read in the last fill.
+     */
+    public int size = 0;
+
+    /**
+     * The x coordinates, with scale and offset already applied.
+     */
+    public double[] x;
+
+    /**
+     * The y coordinates, with scale and offset already applied.
+     */
+    public double[] y;
+
+    /**
+     * The z coordinates, with scale and offset already applied.
+     */
+    public double[] z;
+
+    /**
+     * The intensity values.
+     */
+    public short[] intensity;
+
+    /**
+     * The classifications.
+     */
+    public byte[] classification;
+
+    /**
+     * The return numbers.
+     */
+    public short[] returnNumber;
+
+    /**
+     * The numbers of returns of the pulse.
+     */
+    public short[] numberOfReturns;
+
+    /**
+     * The gps timestamps (0 if the point format has no time).
+     */
+    public double[] gpsTime;
+
+    /**
+     * The colors as interleaved r, g, b values (0 if the point format has no color). Not allocated by default.
+     */
+    public short[] color;
+
+    /**
+     * Create a batch with all the columns but the color allocated.
+     * 
+     * @param capacity the maximum number of records.
+     */
+    public LasRecordBatch( int capacity ) {
+        this.capacity = capacity;
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        intensity = new short[capacity];
+        classification = new byte[capacity];
+        returnNumber = new short[capacity];
+        numberOfReturns = new short[capacity];
+        gpsTime = new double[capacity];
+    }
+
+}
@@ -0,0 +1,384 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.core.v_1_0;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.hortonmachine.gears.io.las.core.ALasReader;
+import org.hortonmachine.gears.io.las.core.ILasHeader;
+import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.LasRecordBatch;
+import org.hortonmachine.gears.utils.CrsUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Memory-mapped las record reader for las spec 1.0 to 1.3 (point formats 0 to 3).
+ * 
+ * <p>The point data region is mapped in segments of whole records and decoded in place,
+ * without copying it to an intermediate buffer. Next to the record based api, the reader
+ * supports filling a caller owned {@link LasRecordBatch}.</p>
+ * 
+ * <p>Once opened, {@link #readBatch(long, LasRecordBatch)}, {@link #getPointAt(long)} and
+ * {@link #getPointAtAddress(long)} only use absolute reads on the mapped data and can be called
+ * from different threads, for example to read disjoint ranges of points in parallel.
+ * The iterator methods keep a cursor and are meant for single thread use.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LasReaderMapped extends ALasReader {
+    private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private final File lasFile;
+    private CoordinateReferenceSystem crs;
+    private RandomAccessFile raf;
+    private FileChannel fc;
+    private boolean isOpen;
+
+    private LasHeader header;
+    private ByteBuffer[] segments;
+    private long pointsPerSegment;
+    private long records;
+    private int recordLength;
+    private long offset;
+    private int pointDataFormat;
+    private double xScale;
+    private double yScale;
+    private double zScale;
+    private double xOffset;
+    private double yOffset;
+    private double zOffset;
+
+    private long readRecords = 0;
+
+    public LasReaderMapped( File lasFile, CoordinateReferenceSystem crs ) {
+        this.lasFile = lasFile;
+        if (crs != null) {
+            this.crs = crs;
+        } else {
+            try {
+                this.crs = CrsUtilities.readProjectionFile(lasFile.getAbsolutePath(), "las");
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+    }
+
+    @Override
+    public File getLasFile() {
+        return lasFile;
+    }
+
+    private void checkOpen() {
+        if (!isOpen) {
+            try {
+                open();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void open() throws Exception {
+        close();
+        raf = new RandomAccessFile(lasFile, "r");
+        fc = raf.getChannel();
+        long fileSize = fc.size();
+
+        ByteBuffer headerBb = fc.map(MapMode.READ_ONLY, 0, Math.min(fileSize, 235));
+        headerBb.order(ByteOrder.LITTLE_ENDIAN);
+        parseHeader(headerBb);
+
+        // never go past the end of the file, even if the header says otherwise
+        long availableRecords = Math.max(0, (fileSize - offset) / recordLength);
+        records = Math.min(records, availableRecords);
+
+        pointsPerSegment = MAX_SEGMENT_BYTES / recordLength;
+        int segmentsCount = (int) ((records + pointsPerSegment - 1) / pointsPerSegment);
+        segments = new ByteBuffer[segmentsCount];
+        for( int i = 0; i < segmentsCount; i++ ) {
+            long firstPoint = i * pointsPerSegment;
+            long points = Math.min(pointsPerSegment, records - firstPoint);
+            ByteBuffer segment = fc.map(MapMode.READ_ONLY, offset + firstPoint * recordLength, points * recordLength);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segments[i] = segment;
+        }
+        readRecords = 0;
+        isOpen = true;
+    }
+
+    @Override
+    public void close() throws Exception {
+        segments = null;
+        if (fc != null && fc.isOpen())
+            fc.close();
+        if (raf != null)
+            raf.close();
+        isOpen = false;
+    }
+
+    @Override
+    public void setOverrideGpsTimeType( int type ) {
+        getHeader();
+        header.gpsTimeType = type;
+    }
+
+    private void parseHeader( ByteBuffer bb ) {
+        header = new LasHeader(crs);
+        header.signature = getString(bb, 0, 4);
+        header.fileSourceId = bb.getShort(4);
+        byte globalEnchodingBitFirstHalf = bb.get(6);
+        header.gpsTimeType = (globalEnchodingBitFirstHalf & 1) != 0 ? 1 : 0;
+        header.projectIdGuidData1 = bb.getInt(8);
+        header.projectIdGuidData2 = bb.getShort(12);
+        header.projectIdGuidData3 = bb.getShort(14);
+        header.projectIdGuidData4 = getString(bb, 16, 8);
+        header.versionMajor = bb.get(24);
+        header.versionMinor = bb.get(25);
+        header.systemIdentifier = getString(bb, 26, 32);
+        header.generatingSoftware = getString(bb, 58, 32);
+        header.dayOfYear = bb.getShort(90);
+        header.year = bb.getShort(92);
+        header.headerSize = bb.getShort(94);
+        offset = bb.getInt(96) & 0xFFFFFFFFL;
+        header.offset = offset;
+        header.variableLengthRecordNum = bb.getInt(100) & 0xFFFFFFFFL;
+        header.pointDataFormat = bb.get(104);
+        pointDataFormat = header.pointDataFormat;
+        header.recordLength = bb.getShort(105);
+        recordLength = header.recordLength & 0xFFFF;
+        // unsigned, to support files with more than 2^31 points
+        records = bb.getInt(107) & 0xFFFFFFFFL;
+        header.records = records;
+
+        // skip the 20 bytes of the number of points by return
+        xScale = bb.getDouble(131);
+        header.xScale = xScale;
+        yScale = bb.getDouble(139);
+        header.yScale = yScale;
+        zScale = bb.getDouble(147);
+        header.zScale = zScale;
+        xOffset = bb.getDouble(155);
+        header.xOffset = xOffset;
+        yOffset = bb.getDouble(163);
+        header.yOffset = yOffset;
+        zOffset = bb.getDouble(171);
+        header.zOffset = zOffset;
+        header.xMax = bb.getDouble(179);
+        header.xMin = bb.getDouble(187);
+        header.yMax = bb.getDouble(195);
+        header.yMin = bb.getDouble(203);
+        header.zMax = bb.getDouble(211);
+        header.zMin = bb.getDouble(219);
+    }
+
+    private static String getString( ByteBuffer bb, int position, int size ) {
+        byte[] bytesStr = new byte[size];
+        for( int i = 0; i < size; i++ ) {
+            bytesStr[i] = bb.get(position + i);
+        }
+        return new String(bytesStr);
+    }
+
+    /**
+     * @return the number of points in the file.
+     */
+    public long getPointsCount() {
+        checkOpen();
+        return records;
+    }
+
+    private ByteBuffer segment( long pointNumber ) {
+        if (pointNumber < 0 || pointNumber >= records) {
+            throw new IndexOutOfBoundsException("Point outside of the file: " + pointNumber);
+        }
+        return segments[(int) (pointNumber / pointsPerSegment)];
+    }
+
+    private int position( long pointNumber ) {
+        return (int) (pointNumber % pointsPerSegment) * recordLength;
+    }
+
+    /**
+     * Read a range of points into a batch.
+     * 
+     * <p>This method can be called concurrently for different ranges.</p>
+     * 
+     * @param fromPoint the position of the first point to read.
+     * @param batch the batch to fill, its columns set to <code>null</code> are skipped.
+     * @return the number of points read, 0 if the position is past the last point.
+     */
+    public int readBatch( long fromPoint, LasRecordBatch batch ) {
+        checkOpen();
+        int count = (int) Math.max(0, Math.min(batch.capacity, records - fromPoint));
+        double[] xs = batch.x;
+        double[] ys = batch.y;
+        double[] zs = batch.z;
+        short[] intensities = batch.intensity;
+        byte[] classifications = batch.classification;
+        short[] returnNumbers = batch.returnNumber;
+        short[] numberOfReturns = batch.numberOfReturns;
+        double[] gpsTimes = batch.gpsTime;
+        short[] colors = batch.color;
+        boolean hasTime = pointDataFormat == 1 || pointDataFormat == 3;
+        boolean hasColor = pointDataFormat == 2 || pointDataFormat == 3;
+        int colorOffset = pointDataFormat == 3 ? 28 : 20;
+
+        long pointNumber = fromPoint;
+        int i = 0;
+        while( i < count ) {
+            // decode a run of points inside the same segment
+            ByteBuffer bb = segment(pointNumber);
+            int pos = position(pointNumber);
+            int runEnd = (int) Math.min(count, i + pointsPerSegment - pointNumber % pointsPerSegment);
+            for( ; i < runEnd; i++, pos += recordLength ) {
+                if (xs != null)
+                    xs[i] = bb.getInt(pos) * xScale + xOffset;
+                if (ys != null)
+                    ys[i] = bb.getInt(pos + 4) * yScale + yOffset;
+                if (zs != null)
+                    zs[i] = bb.getInt(pos + 8) * zScale + zOffset;
+                if (intensities != null)
+                    intensities[i] = bb.getShort(pos + 12);
+                byte b = bb.get(pos + 14);
+                if (returnNumbers != null)
+                    returnNumbers[i] = (short) (b & 0x07);
+                if (numberOfReturns != null)
+                    numberOfReturns[i] = (short) ((b >> 3) & 0x07);
+                if (classifications != null)
+                    classifications[i] = bb.get(pos + 15);
+                if (gpsTimes != null)
+                    gpsTimes[i] = hasTime ? bb.getDouble(pos + 20) : 0;
+                if (colors != null) {
+                    int c = i * 3;
+                    if (hasColor) {
+                        colors[c] = bb.getShort(pos + colorOffset);
+                        colors[c + 1] = bb.getShort(pos + colorOffset + 2);
+                        colors[c + 2] = bb.getShort(pos + colorOffset + 4);
+                    } else {
+                        colors[c] = 0;
+                        colors[c + 1] = 0;
+                        colors[c + 2] = 0;
+                    }
+                }
+            }
+            pointNumber = fromPoint + i;
+        }
+        batch.size = count;
+        return count;
+    }
+
+    /**
+     * Read the next points into a batch, moving the cursor.
+     * 
+     * @param batch the batch to fill.
+     * @return the number of points read, 0 if no more points are available.
+     */
+    @Override
+    public int readNextBatch( LasRecordBatch batch ) {
+        int read = readBatch(readRecords, batch);
+        readRecords += read;
+        return read;
+    }
+
+    private LasRecord getPoint( long pointNumber ) {
+        ByteBuffer bb = segment(pointNumber);
+        int pos = position(pointNumber);
+        final LasRecord dot = new LasRecord();
+        dot.x = bb.getInt(pos) * xScale + xOffset;
+        dot.y = bb.getInt(pos + 4) * yScale + yOffset;
+        dot.z = bb.getInt(pos + 8) * zScale + zOffset;
+        dot.intensity = bb.getShort(pos + 12);
+        byte b = bb.get(pos + 14);
+        dot.returnNumber = (short) (b & 0x07);
+        dot.numberOfReturns = (short) ((b >> 3) & 0x07);
+        dot.classification = bb.get(pos + 15);
+        // skip scan angle rank, file marker and point source id
+        if (pointDataFormat == 1) {
+            dot.gpsTime = bb.getDouble(pos + 20);
+        } else if (pointDataFormat == 2) {
+            dot.color[0] = bb.getShort(pos + 20);
+            dot.color[1] = bb.getShort(pos + 22);
+            dot.color[2] = bb.getShort(pos + 24);
+        } else if (pointDataFormat == 3) {
+            dot.gpsTime = bb.getDouble(pos + 20);
+            dot.color[0] = bb.getShort(pos + 28);
+            dot.color[1] = bb.getShort(pos + 30);
+            dot.color[2] = bb.getShort(pos + 32);
+        }
+        return dot;
+    }
+
+    @Override
+    public boolean hasNextPoint() throws IOException {
+        checkOpen();
+        return readRecords < records;
+    }
+
+    @Override
+    public LasRecord getNextPoint() throws IOException {
+        return getPoint(readRecords++);
+    }
+
+    @Override
+    public LasRecord getPointAtAddress( long address ) throws IOException {
+        checkOpen();
+        return getPoint((address - offset) / recordLength);
+    }
+
+    @Override
+    public LasRecord getPointAt( long pointNumber ) throws IOException {
+        checkOpen();
+        return getPoint(pointNumber);
+    }
+
+    @Override
+    public double[] readNextLasXYZAddress() throws IOException {
+        long pointNumber = readRecords++;
+        ByteBuffer bb = segment(pointNumber);
+        int pos = position(pointNumber);
+        double xd = bb.getInt(pos) * xScale + xOffset;
+        double yd = bb.getInt(pos + 4) * yScale + yOffset;
+        double zd = bb.getInt(pos + 8) * zScale + zOffset;
+        return new double[]{xd, yd, zd, offset + pointNumber * recordLength};
+    }
+
+    @Override
+    public void seek( long pointNumber ) throws IOException {
+        checkOpen();
+        readRecords = pointNumber;
+    }
+
+    @Override
+    public ILasHeader getHeader() {
+        checkOpen();
+        return header;
+    }
+
+    @Override
+    public void rewind() throws IOException {
+        checkOpen();
+        readRecords = 0;
+    }
+}
@@ -25,14 +25,17 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FilenameFilter;
 import java.net.URL;
-import java.nio.ByteBuffer;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -46,6 +49,8 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.hortonmachine.dbs.compat.ASpatialDb;
 import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.dbs.compat.IHMStatement;
+import org.hortonmachine.dbs.utils.SqlName;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
 import org.hortonmachine.gears.io.las.core.LasRecord;
@@ -135,6 +140,10 @@ public class DatabaseLasWriter extends HMModel {
     @In
     public boolean doAvoidIndex = false;
 
+    @Description("Flag to bulk load the data: cells are written by a single writer thread while the next files are read, and spatial indexes and levels are created in one pass at the end.")
+    @In
+    public boolean doBulkLoad = false;
+
     @Description("Optional las list names to process only those (inside las folder).")
     @In
     public List<String> inLasNames;
@@ -151,6 +160,20 @@ public class DatabaseLasWriter extends HMModel {
     public boolean doVerbose = true;
     private static final String INTERRUPTED_BY_USER = "Interrupted by user.";
 
+    private static final int CELLS_BATCH_SIZE = 100000;
+    private static final int LEVELS_BATCH_SIZE = 10000;
+    /**
+     * Number of cell batches the reader can be ahead of the writer.
+     */
+    private static final int BULK_QUEUE_SIZE = 4;
+    private static final int BULK_CACHE_SIZE_KB = 512 * 1024;
+
+    private long pointsCount;
+    private long gridNanos;
+    private long writeNanos;
+    private long indexNanos;
+    private long levelsNanos;
+
     @Execute
     public void process() throws Exception {
         checkNull(inFolder, inDatabasePath);
@@ -190,7 +213,11 @@ public class DatabaseLasWriter extends HMModel {
         }
         // try (ASpatialDb spatialiteDb = new GTSpatialiteThreadsafeDb()) {
         try (ASpatialDb spatialiteDb = edb.getSpatialDb()) {
+            long startNanos = System.nanoTime();
             boolean existed = spatialiteDb.open(inDatabasePath);
+            if (doBulkLoad && edb == EDb.SPATIALITE) {
+                setBulkPragmas(spatialiteDb, !existed);
+            }
             if (!existed) {
                 pm.beginTask("Create new spatialite database...", IHMProgressMonitor.UNKNOWN);
                 spatialiteDb.initSpatialMetadata(null);
@@ -228,8 +255,11 @@ public class DatabaseLasWriter extends HMModel {
                 pm.errorMessage("No crs has been defined. Setting it to 4326 by default.");
             }
 
-            LasSourcesTable.createTable(spatialiteDb, srid, doAvoidIndex);
-            LasCellsTable.createTable(spatialiteDb, srid, doAvoidIndex);
+            // in bulk mode the spatial indexes are created once all data are in
+            boolean newSourcesTable = !spatialiteDb.hasTable(LasSourcesTable.TABLENAME);
+            boolean newCellsTable = !spatialiteDb.hasTable(LasCellsTable.TABLENAME);
+            LasSourcesTable.createTable(spatialiteDb, srid, doAvoidIndex || doBulkLoad);
+            LasCellsTable.createTable(spatialiteDb, srid, doAvoidIndex || doBulkLoad);
 
             pm.message("Las files to be added to the index:");
             List<File> filesList;
@@ -261,44 +291,304 @@ public class DatabaseLasWriter extends HMModel {
             for( LasSource lasSource : lasSources ) {
                 existingLasSourcesNames.add(lasSource.name);
             }
-            for( File lasFile : filesList ) {
-                if (pm.isCanceled()) {
-                    return;
+            if (doBulkLoad) {
+                bulkLoad(spatialiteDb, filesList, existingLasSourcesNames, newSourcesTable, newCellsTable);
+            } else {
+                for( File lasFile : filesList ) {
+                    if (pm.isCanceled()) {
+                        return;
+                    }
+                    String lasName = FileUtilities.getNameWithoutExtention(lasFile);
+                    if (existingLasSourcesNames.contains(lasName)) {
+                        pm.errorMessage("Not inserting already existing file in database: " + lasName);
+                        continue;
+                    }
+                    ReferencedEnvelope3D envelope = readEnvelope(lasFile);
+                    Polygon polygon = GeometryUtilities.createPolygonFromEnvelope(envelope);
+                    GridCoverage2D ortoGC = readOrtophoto(envelope);
+
+                    long id = LasSourcesTable.insertLasSource(spatialiteDb, srid, pLevels, pCellsize, pFactor, polygon, lasName,
+                            envelope.getMinZ(), envelope.getMaxZ(), 0, 0);
+                    processFile(spatialiteDb, lasFile, id, ortoGC);
+                }
+            }
+            reportRates(System.nanoTime() - startNanos);
+        }
+    }
+
+    private ReferencedEnvelope3D readEnvelope( File lasFile ) throws Exception {
+        try (ALasReader reader = ALasReader.getReader(lasFile, crs)) {
+            reader.open();
+            ILasHeader header = reader.getHeader();
+            return header.getDataEnvelope();
+        }
+    }
+
+    private GridCoverage2D readOrtophoto( ReferencedEnvelope3D envelope ) throws Exception {
+        if (ortoReader == null) {
+            return null;
+        }
+        double west = envelope.getMinX();
+        double east = envelope.getMaxX();
+        double south = envelope.getMinY();
+        double north = envelope.getMaxY();
+        GeneralParameterValue[] readGeneralParameterValues = CoverageUtilities.createGridGeometryGeneralParameter(ortoXRes,
+                ortoYRes, north, south, east, west, crs);
+        return ortoReader.read(readGeneralParameterValues);
+    }
+
+    /**
+     * Tunes a spatialite database for a single writer bulk import.
+     * 
+     * <p>The page size is only applied to new databases, since it needs
+     * a vacuum to change on existing ones.</p>
+     */
+    private void setBulkPragmas( ASpatialDb db, boolean isNew ) throws Exception {
+        List<String> pragmas = new ArrayList<>();
+        if (isNew) {
+            pragmas.add("PRAGMA page_size=65536");
+        }
+        pragmas.add("PRAGMA synchronous=OFF");
+        pragmas.add("PRAGMA journal_mode=MEMORY");
+        pragmas.add("PRAGMA temp_store=MEMORY");
+        pragmas.add("PRAGMA cache_size=-" + BULK_CACHE_SIZE_KB);
+        db.execOnConnection(connection -> {
+            try (IHMStatement stmt = connection.createStatement()) {
+                for( String pragma : pragmas ) {
+                    stmt.execute(pragma);
+                }
+            }
+            return null;
+        });
+    }
+
+    private void createSpatialIndex( ASpatialDb db, SqlName tableName ) throws Exception {
+        long start = System.nanoTime();
+        pm.message("Creating spatial index on " + tableName.name + "...");
+        if (db.getType() == EDb.SPATIALITE) {
+            // the generic create spatial index syntax is not supported by spatialite
+            String sql = db.getType().getSqlTemplates().createSpatialIndex(tableName, ASpatialDb.DEFAULT_GEOM_FIELD_NAME);
+            db.execOnConnection(connection -> {
+                try (IHMStatement stmt = connection.createStatement()) {
+                    stmt.execute(sql);
+                }
+                return null;
+            });
+        } else {
+            db.createSpatialIndex(tableName, ASpatialDb.DEFAULT_GEOM_FIELD_NAME);
+        }
+        indexNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Bulk import of the las files.
+     * 
+     * <p>A reader thread reads and grids the files, while the calling thread is
+     * the single writer that empties the queue of cell batches into the database.
+     * The level summaries are accumulated in memory from the cells while they
+     * are produced, so the spatial indexes and the level tables can be created
+     * in a single pass once all the cells are in.</p>
+     */
+    private void bulkLoad( final ASpatialDb db, List<File> filesList, List<String> existingLasSourcesNames,
+            boolean newSourcesTable, boolean newCellsTable ) throws Exception {
+        final List<File> files = new ArrayList<>();
+        final List<ReferencedEnvelope3D> envelopes = new ArrayList<>();
+        final List<Long> ids = new ArrayList<>();
+        for( File lasFile : filesList ) {
+            String lasName = FileUtilities.getNameWithoutExtention(lasFile);
+            if (existingLasSourcesNames.contains(lasName)) {
+                pm.errorMessage("Not inserting already existing file in database: " + lasName);
+                continue;
+            }
+            ReferencedEnvelope3D envelope = readEnvelope(lasFile);
+            Polygon polygon = GeometryUtilities.createPolygonFromEnvelope(envelope);
+            long id = LasSourcesTable.insertLasSource(db, srid, pLevels, pCellsize, pFactor, polygon, lasName,
+                    envelope.getMinZ(), envelope.getMaxZ(), 0, 0);
+            files.add(lasFile);
+            envelopes.add(envelope);
+            ids.add(id);
+        }
+
+        final BlockingQueue<BulkTask> queue = new ArrayBlockingQueue<>(BULK_QUEUE_SIZE);
+        final LevelAccumulator[] levels = new LevelAccumulator[files.size()];
+        final Exception[] readerException = new Exception[1];
+        final AtomicBoolean writerFailed = new AtomicBoolean(false);
+        Thread readerThread = new Thread(() -> {
+            try {
+                for( int i = 0; i < files.size(); i++ ) {
+                    if (pm.isCanceled()) {
+                        break;
+                    }
+                    final long sourceID = ids.get(i);
+                    ReferencedEnvelope3D envelope = envelopes.get(i);
+                    final LevelAccumulator firstLevel = pLevels > 0
+                            ? new LevelAccumulator(sourceID, envelope.getMaxY(), envelope.getMinY(), envelope.getMaxX(),
+                                    envelope.getMinX(), pCellsize * pFactor)
+                            : null;
+                    GridCoverage2D ortoGC = readOrtophoto(envelope);
+                    gridFile(files.get(i), sourceID, ortoGC, false, new CellsHandler(){
+                        public void intensityRange( short minIntensity, short maxIntensity ) throws Exception {
+                            queue.put(d -> LasSourcesTable.updateMinMaxIntensity(d, sourceID, minIntensity, maxIntensity));
+                        }
+                        public void cells( List<LasCell> cells ) throws Exception {
+                            if (firstLevel != null) {
+                                for( LasCell cell : cells ) {
+                                    firstLevel.add(cell);
+                                }
+                            }
+                            queue.put(d -> LasCellsTable.insertLasCells(d, srid, cells));
+                        }
+                    });
+                    levels[i] = firstLevel;
+                }
+            } catch (Exception e) {
+                readerException[0] = e;
+            } finally {
+                try {
+                    if (!writerFailed.get()) {
+                        queue.put(END_OF_DATA);
+                    }
+                } catch (InterruptedException e) {
+                    // the writer has given up already
+                }
+            }
+        }, "las bulk reader");
+        readerThread.start();
+
+        try {
+            while( true ) {
+                BulkTask task = queue.take();
+                if (task == END_OF_DATA) {
+                    break;
                 }
-                String lasName = FileUtilities.getNameWithoutExtention(lasFile);
-                if (existingLasSourcesNames.contains(lasName)) {
-                    pm.errorMessage("Not inserting already existing file in database: " + lasName);
+                long start = System.nanoTime();
+                task.run(db);
+                writeNanos += System.nanoTime() - start;
+            }
+        } catch (Exception e) {
+            // free the queue, else a reader blocked on a full queue never gets to the join
+            writerFailed.set(true);
+            readerThread.interrupt();
+            queue.clear();
+            throw e;
+        } finally {
+            readerThread.join();
+        }
+        if (readerException[0] != null) {
+            throw readerException[0];
+        }
+        if (pm.isCanceled()) {
+            throw new RuntimeException(INTERRUPTED_BY_USER);
+        }
+
+        if (!doAvoidIndex) {
+            if (newSourcesTable) {
+                createSpatialIndex(db, LasSourcesTable.TABLENAME);
+            }
+            if (newCellsTable) {
+                createSpatialIndex(db, LasCellsTable.TABLENAME);
+            }
+        }
+
+        for( int level = 1; level <= pLevels; level++ ) {
+            if (pm.isCanceled()) {
+                throw new RuntimeException(INTERRUPTED_BY_USER);
+            }
+            long start = System.nanoTime();
+            SqlName levelTable = SqlName.m(LasLevelsTable.TABLENAME + level);
+            boolean newLevelTable = !db.hasTable(levelTable);
+            LasLevelsTable.createTable(db, srid, level, true);
+            pm.message("Creating level " + level + "...");
+            for( int i = 0; i < levels.length; i++ ) {
+                if (levels[i] == null) {
                     continue;
                 }
-                ReferencedEnvelope3D envelope;
-                try (ALasReader reader = ALasReader.getReader(lasFile, crs)) {
-                    reader.open();
-                    ILasHeader header = reader.getHeader();
-                    envelope = header.getDataEnvelope();
+                if (level > 1) {
+                    levels[i] = levels[i].aggregate(pCellsize * level * pFactor);
                 }
-                Polygon polygon = GeometryUtilities.createPolygonFromEnvelope(envelope);
-
-                GridCoverage2D ortoGC = null;
-                if (ortoReader != null) {
-                    double west = envelope.getMinX();
-                    double east = envelope.getMaxX();
-                    double south = envelope.getMinY();
-                    double north = envelope.getMaxY();
-                    GeneralParameterValue[] readGeneralParameterValues = CoverageUtilities
-                            .createGridGeometryGeneralParameter(ortoXRes, ortoYRes, north, south, east, west, crs);
-                    ortoGC = ortoReader.read(readGeneralParameterValues);
+                List<LasLevel> levelsList = levels[i].toLevels(level);
+                for( int from = 0; from < levelsList.size(); from += LEVELS_BATCH_SIZE ) {
+                    int to = Math.min(from + LEVELS_BATCH_SIZE, levelsList.size());
+                    LasLevelsTable.insertLasLevels(db, srid, levelsList.subList(from, to));
                 }
+            }
+            levelsNanos += System.nanoTime() - start;
+            if (newLevelTable && !doAvoidIndex) {
+                createSpatialIndex(db, levelTable);
+            }
+        }
+    }
 
-                long id = LasSourcesTable.insertLasSource(spatialiteDb, srid, pLevels, pCellsize, pFactor, polygon, lasName,
-                        envelope.getMinZ(), envelope.getMaxZ(), 0, 0);
-                processFile(spatialiteDb, lasFile, id, ortoGC);
+    private void processFile( final ASpatialDb spatialiteDb, File file, final long sourceID, GridCoverage2D ortoGC )
+            throws Exception {
+        long start = System.nanoTime();
+        long previousGridNanos = gridNanos;
+        final ExecutorService singleThreadExecutor = Executors.newSingleThreadExecutor();
+        double[] bounds = gridFile(file, sourceID, ortoGC, doVerbose, new CellsHandler(){
+            public void intensityRange( short minIntensity, short maxIntensity ) throws Exception {
+                LasSourcesTable.updateMinMaxIntensity(spatialiteDb, sourceID, minIntensity, maxIntensity);
+            }
+            public void cells( final List<LasCell> processCells ) {
+                // add data to db in a thread to fasten up things
+                singleThreadExecutor.execute(new Runnable(){
+                    public void run() {
+                        try {
+                            LasCellsTable.insertLasCells(spatialiteDb, srid, processCells);
+                            if (doVerbose)
+                                pm.worked(processCells.size());
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                });
             }
+        });
+
+        try {
+            singleThreadExecutor.shutdown();
+            singleThreadExecutor.awaitTermination(30, TimeUnit.DAYS);
+            singleThreadExecutor.shutdownNow();
+        } catch (InterruptedException ex) {
+            ex.printStackTrace();
+        }
+        writeNanos += System.nanoTime() - start - (gridNanos - previousGridNanos);
+        if (bounds == null) {
+            return;
+        }
+        if (doVerbose)
+            pm.done();
+        else
+            pm.message("Done.");
 
+        if (pLevels > 0) {
+            double north = bounds[0];
+            double south = bounds[1];
+            double east = bounds[2];
+            double west = bounds[3];
+            start = System.nanoTime();
+            for( int level = 1; level <= pLevels; level++ ) {
+                if (pm.isCanceled()) {
+                    throw new RuntimeException(INTERRUPTED_BY_USER);
+                }
+                LasLevelsTable.createTable(spatialiteDb, srid, level, doAvoidIndex);
+                if (level == 1) {
+                    insertFirstLevel(spatialiteDb, sourceID, north, south, east, west, level);
+                } else {
+                    insertLevel(spatialiteDb, sourceID, north, south, east, west, level);
+                }
+            }
+            levelsNanos += System.nanoTime() - start;
         }
     }
 
+    /**
+     * Reads a las file, grids its points into cells and passes the cells on in batches.
+     * 
+     * @return the bounds of the file as [n, s, e, w] or <code>null</code> if it had no points.
+     */
     @SuppressWarnings("unchecked")
-    private void processFile( final ASpatialDb spatialiteDb, File file, long sourceID, GridCoverage2D ortoGC ) throws Exception {
+    private double[] gridFile( File file, long sourceID, GridCoverage2D ortoGC, boolean verbose, CellsHandler handler )
+            throws Exception {
         String name = file.getName();
         pm.message("Processing file: " + name);
 
@@ -308,11 +598,14 @@ public class DatabaseLasWriter extends HMModel {
             long recordsCount = header.getRecordsCount();
             if (recordsCount == 0) {
                 pm.errorMessage("No points found in: " + name);
-                return;
+                return null;
             }
             ReferencedEnvelope3D envelope = header.getDataEnvelope();
             ReferencedEnvelope env2d = new ReferencedEnvelope(envelope);
             Envelope2D e = new Envelope2D(env2d);
+            // positions are stored as the integer values of the las grid
+            double[] xyzScale = header.getXYZScale();
+            double[] xyzOffset = header.getXYZOffset();
 
             double north = e.getMaxY();
             double south = e.getMinY();
@@ -331,9 +624,10 @@ public class DatabaseLasWriter extends HMModel {
 
             List<LasRecord>[][] dotOnMatrixXY = new ArrayList[cols][rows];
             LasCell[][] lasCellsOnMatrixXY = new LasCell[cols][rows];
-            if (doVerbose)
+            if (verbose)
                 pm.beginTask("Sorting points for " + name, (int) recordsCount);
             long readCount = 0;
+            long start = System.nanoTime();
 
             short minIntens = Short.MAX_VALUE;
             short maxIntens = -Short.MAX_VALUE;
@@ -357,27 +651,28 @@ public class DatabaseLasWriter extends HMModel {
                     dotOnMatrixXY[x][y] = new ArrayList<>();
                 }
                 dotOnMatrixXY[x][y].add(dot);
-                if (doVerbose)
+                if (verbose)
                     pm.worked(1);
                 readCount++;
             }
-            if (doVerbose)
+            if (verbose)
                 pm.done();
             if (readCount != recordsCount) {
                 throw new RuntimeException("Didn't read all the data...");
             }
+            gridNanos += System.nanoTime() - start;
+            pointsCount += readCount;
 
             if (pm.isCanceled()) {
                 throw new RuntimeException(INTERRUPTED_BY_USER);
             }
 
-            LasSourcesTable.updateMinMaxIntensity(spatialiteDb, sourceID, minIntens, maxIntens);
+            handler.intensityRange(minIntens, maxIntens);
 
-            ExecutorService singleThreadExecutor = Executors.newSingleThreadExecutor();
             List<LasCell> cellsList = new ArrayList<>();
             final Point2D.Double pos = new Point2D.Double();
             final int[] ortoValues = new int[3];
-            if (doVerbose)
+            if (verbose)
                 pm.beginTask("Write las data...", cols * rows);
             else
                 pm.message("Write las data...");
@@ -420,23 +715,20 @@ public class DatabaseLasWriter extends HMModel {
                     double avgElev = 0.0;
                     double minElev = Double.POSITIVE_INFINITY;
                     double maxElev = Double.NEGATIVE_INFINITY;
-                    byte[] position = new byte[8 * 3 * pointCount];
-                    ByteBuffer positionBuffer = ByteBuffer.wrap(position);
+                    double[] position = new double[3 * pointCount];
 
                     double avgIntensity = 0.0;
 
                     short minIntensity = 30000;
                     short maxIntensity = -1;
-                    byte[] intensClass = new byte[2 * 2 * pointCount];
-                    ByteBuffer intensClassBuffer = ByteBuffer.wrap(intensClass);
-                    byte[] returns = new byte[2 * 2 * pointCount];
-                    ByteBuffer returnsBuffer = ByteBuffer.wrap(returns);
+                    short[] intensities = new short[pointCount];
+                    short[] classifications = new short[pointCount];
+                    short[] returnNumbers = new short[pointCount];
+                    short[] numberOfReturns = new short[pointCount];
                     double minGpsTime = Double.POSITIVE_INFINITY;
                     double maxGpsTime = Double.NEGATIVE_INFINITY;
-                    byte[] gpsTimes = new byte[8 * pointCount];
-                    ByteBuffer gpsTimesBuffer = ByteBuffer.wrap(gpsTimes);
-                    byte[] colors = new byte[2 * 3 * pointCount];
-                    ByteBuffer colorsBuffer = ByteBuffer.wrap(colors);
+                    double[] gpsTimes = new double[pointCount];
+                    short[] colors = new short[3 * pointCount];
 
                     int count = 0;
 
@@ -444,42 +736,42 @@ public class DatabaseLasWriter extends HMModel {
                         avgElev += dot.z;
                         minElev = min(dot.z, minElev);
                         maxElev = max(dot.z, maxElev);
-                        positionBuffer.putDouble(dot.x);
-                        positionBuffer.putDouble(dot.y);
-                        positionBuffer.putDouble(dot.z);
+                        position[count * 3] = dot.x;
+                        position[count * 3 + 1] = dot.y;
+                        position[count * 3 + 2] = dot.z;
 
                         avgIntensity += dot.intensity;
                         minIntensity = (short) min(dot.intensity, minIntensity);
                         maxIntensity = (short) max(dot.intensity, maxIntensity);
-                        intensClassBuffer.putShort(dot.intensity);
-                        intensClassBuffer.putShort(dot.classification);
+                        intensities[count] = dot.intensity;
+                        classifications[count] = dot.classification;
 
-                        returnsBuffer.putShort(dot.returnNumber);
-                        returnsBuffer.putShort(dot.numberOfReturns);
+                        returnNumbers[count] = dot.returnNumber;
+                        numberOfReturns[count] = dot.numberOfReturns;
 
                         minGpsTime = min(dot.gpsTime, minGpsTime);
                         maxGpsTime = max(dot.gpsTime, maxGpsTime);
 
-                        gpsTimesBuffer.putDouble(dot.gpsTime);
+                        gpsTimes[count] = dot.gpsTime;
 
                         if (ortoGC != null) {
                             pos.setLocation(dot.x, dot.y);
                             try {
                                 ortoGC.evaluate(pos, ortoValues);
-                                colorsBuffer.putShort((short) ortoValues[0]);
-                                colorsBuffer.putShort((short) ortoValues[1]);
-                                colorsBuffer.putShort((short) ortoValues[2]);
+                                colors[count * 3] = (short) ortoValues[0];
+                                colors[count * 3 + 1] = (short) ortoValues[1];
+                                colors[count * 3 + 2] = (short) ortoValues[2];
                             } catch (PointOutsideCoverageException poce) {
                                 // insert white
-                                colorsBuffer.putShort((short) 255);
-                                colorsBuffer.putShort((short) 255);
-                                colorsBuffer.putShort((short) 255);
+                                colors[count * 3] = (short) 255;
+                                colors[count * 3 + 1] = (short) 255;
+                                colors[count * 3 + 2] = (short) 255;
                             }
 
                         } else if (dot.color != null) {
-                            colorsBuffer.putShort(dot.color[0]);
-                            colorsBuffer.putShort(dot.color[1]);
-                            colorsBuffer.putShort(dot.color[2]);
+                            colors[count * 3] = dot.color[0];
+                            colors[count * 3 + 1] = dot.color[1];
+                            colors[count * 3 + 2] = dot.color[2];
                         }
 
                         count++;
@@ -495,33 +787,23 @@ public class DatabaseLasWriter extends HMModel {
                     lasCell.avgElev = avgElev;
                     lasCell.minElev = minElev;
                     lasCell.maxElev = maxElev;
-                    lasCell.xyzs = position;
+                    lasCell.xyzs = LasCellCodec.encodePositions(position, pointCount, xyzScale, xyzOffset);
                     lasCell.avgIntensity = (short) Math.round(avgIntensity);
                     lasCell.minIntensity = minIntensity;
                     lasCell.maxIntensity = maxIntensity;
-                    lasCell.intensitiesClassifications = intensClass;
-                    lasCell.returns = returns;
+                    lasCell.intensitiesClassifications = LasCellCodec.encodeIntensitiesClassifications(intensities,
+                            classifications, pointCount);
+                    lasCell.returns = LasCellCodec.encodeReturns(returnNumbers, numberOfReturns, pointCount);
                     lasCell.minGpsTime = minGpsTime;
                     lasCell.maxGpsTime = maxGpsTime;
-                    lasCell.gpsTimes = gpsTimes;
-                    lasCell.colors = colors;
+                    lasCell.gpsTimes = LasCellCodec.encodeGpsTimes(gpsTimes, pointCount);
+                    lasCell.colors = LasCellCodec.encodeColors(colors, pointCount);
 
                     cellsList.add(lasCell);
                     lasCellsOnMatrixXY[c][r] = lasCell;
 
-                    if (cellsList.size() > 100000) {
-                        // add data to db in a thread to fasten up things
-                        final List<LasCell> processCells = cellsList;
-                        singleThreadExecutor.execute(new Runnable(){
-                            public void run() {
-                                try {
-                                    LasCellsTable.insertLasCells(spatialiteDb, srid, processCells);
-                                    pm.worked(processCells.size());
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
-                            }
-                        });
+                    if (cellsList.size() > CELLS_BATCH_SIZE) {
+                        handler.cells(cellsList);
                         cellsList = new ArrayList<>();
                     }
                 }
@@ -530,50 +812,10 @@ public class DatabaseLasWriter extends HMModel {
                 }
             }
             if (cellsList.size() > 0) {
-                // add data to db in a thread to fasten up things
-                final List<LasCell> processCells = cellsList;
-                singleThreadExecutor.execute(new Runnable(){
-                    public void run() {
-                        try {
-                            LasCellsTable.insertLasCells(spatialiteDb, srid, processCells);
-                            if (doVerbose)
-                                pm.worked(processCells.size());
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }
-                });
-                cellsList = new ArrayList<>();
+                handler.cells(cellsList);
             }
-
-            try {
-                singleThreadExecutor.shutdown();
-                singleThreadExecutor.awaitTermination(30, TimeUnit.DAYS);
-                singleThreadExecutor.shutdownNow();
-            } catch (InterruptedException ex) {
-                ex.printStackTrace();
-            }
-            if (doVerbose)
-                pm.done();
-            else
-                pm.message("Done.");
-
-            if (pLevels > 0) {
-                for( int level = 1; level <= pLevels; level++ ) {
-                    if (pm.isCanceled()) {
-                        throw new RuntimeException(INTERRUPTED_BY_USER);
-                    }
-                    LasLevelsTable.createTable(spatialiteDb, srid, level, doAvoidIndex);
-                    if (level == 1) {
-                        insertFirstLevel(spatialiteDb, sourceID, north, south, east, west, level);
-                    } else {
-                        insertLevel(spatialiteDb, sourceID, north, south, east, west, level);
-                    }
-                }
-            }
-
+            return new double[]{north, south, east, west};
         }
-
     }
 
     private void insertFirstLevel( final ASpatialDb spatialiteDb, long sourceID, double north, double south, double east,
@@ -731,6 +973,168 @@ public class DatabaseLasWriter extends HMModel {
             pm.message("Done.");
     }
 
+    private void reportRates( long totalNanos ) {
+        pm.message("Points inserted: " + pointsCount);
+        reportRate("read and grid", gridNanos);
+        reportRate("write cells", writeNanos);
+        reportRate("spatial indexes", indexNanos);
+        reportRate("levels", levelsNanos);
+        reportRate("total", totalNanos);
+    }
+
+    private void reportRate( String phase, long nanos ) {
+        if (nanos <= 0) {
+            return;
+        }
+        double seconds = nanos / 1E9;
+        pm.message(String.format("   %s: %.1f s (%.0f points/s)", phase, seconds, pointsCount / seconds));
+    }
+
+    /**
+     * Receiver of the results of the gridding of a las file.
+     */
+    private interface CellsHandler {
+        void intensityRange( short minIntensity, short maxIntensity ) throws Exception;
+
+        void cells( List<LasCell> cells ) throws Exception;
+    }
+
+    /**
+     * A database write queued by the bulk reader for the writer thread.
+     */
+    private interface BulkTask {
+        void run( ASpatialDb db ) throws Exception;
+    }
+
+    private static final BulkTask END_OF_DATA = db -> {
+    };
+
+    /**
+     * In memory summary of a level of a single source, used by the bulk load.
+     * 
+     * <p>Values are assigned to the tile containing their center, which for level 1
+     * is the center of the cells and for the following levels the center of the
+     * tiles of the previous level.</p>
+     */
+    private static class LevelAccumulator {
+        private final long sourceId;
+        private final double north;
+        private final double south;
+        private final double east;
+        private final double west;
+        private final double cellsize;
+        private final double[] xRanges;
+        private final double[] yRanges;
+        private final int cols;
+        private final int rows;
+
+        private final int[] counts;
+        private final double[] avgElevSums;
+        private final double[] minElevs;
+        private final double[] maxElevs;
+        private final double[] avgIntensitySums;
+        private final short[] minIntensities;
+        private final short[] maxIntensities;
+
+        LevelAccumulator( long sourceId, double north, double south, double east, double west, double cellsize ) {
+            this.sourceId = sourceId;
+            this.north = north;
+            this.south = south;
+            this.east = east;
+            this.west = west;
+            this.cellsize = cellsize;
+            xRanges = NumericsUtilities.range2Bins(west, east, cellsize, false);
+            yRanges = NumericsUtilities.range2Bins(south, north, cellsize, false);
+            cols = Math.max(xRanges.length - 1, 0);
+            rows = Math.max(yRanges.length - 1, 0);
+
+            int size = cols * rows;
+            counts = new int[size];
+            avgElevSums = new double[size];
+            minElevs = new double[size];
+            maxElevs = new double[size];
+            avgIntensitySums = new double[size];
+            minIntensities = new short[size];
+            maxIntensities = new short[size];
+            Arrays.fill(minElevs, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxElevs, Double.NEGATIVE_INFINITY);
+            Arrays.fill(minIntensities, (short) 30000);
+            Arrays.fill(maxIntensities, (short) -1);
+        }
+
+        void add( LasCell cell ) {
+            if (cell.pointsCount == 0) {
+                return;
+            }
+            Envelope env = cell.polygon.getEnvelopeInternal();
+            add((env.getMinX() + env.getMaxX()) / 2.0, (env.getMinY() + env.getMaxY()) / 2.0, cell.avgElev, cell.minElev,
+                    cell.maxElev, cell.avgIntensity, cell.minIntensity, cell.maxIntensity);
+        }
+
+        private void add( double x, double y, double avgElev, double minElev, double maxElev, double avgIntensity,
+                short minIntensity, short maxIntensity ) {
+            if (cols == 0 || rows == 0) {
+                return;
+            }
+            int col = Math.min(Math.max((int) ((x - west) / cellsize), 0), cols - 1);
+            int row = Math.min(Math.max((int) ((y - south) / cellsize), 0), rows - 1);
+            int index = col * rows + row;
+            counts[index]++;
+            avgElevSums[index] += avgElev;
+            minElevs[index] = min(minElevs[index], minElev);
+            maxElevs[index] = max(maxElevs[index], maxElev);
+            avgIntensitySums[index] += avgIntensity;
+            minIntensities[index] = (short) min(minIntensities[index], minIntensity);
+            maxIntensities[index] = (short) max(maxIntensities[index], maxIntensity);
+        }
+
+        /**
+         * Create the next level summarizing the tiles of this one.
+         */
+        LevelAccumulator aggregate( double nextCellsize ) {
+            LevelAccumulator next = new LevelAccumulator(sourceId, north, south, east, west, nextCellsize);
+            for( int col = 0; col < cols; col++ ) {
+                for( int row = 0; row < rows; row++ ) {
+                    int index = col * rows + row;
+                    int count = counts[index];
+                    if (count == 0) {
+                        continue;
+                    }
+                    next.add((xRanges[col] + xRanges[col + 1]) / 2.0, (yRanges[row] + yRanges[row + 1]) / 2.0,
+                            avgElevSums[index] / count, minElevs[index], maxElevs[index], avgIntensitySums[index] / count,
+                            minIntensities[index], maxIntensities[index]);
+                }
+            }
+            return next;
+        }
+
+        List<LasLevel> toLevels( int level ) {
+            List<LasLevel> levelsList = new ArrayList<>();
+            for( int col = 0; col < cols; col++ ) {
+                for( int row = 0; row < rows; row++ ) {
+                    int index = col * rows + row;
+                    int count = counts[index];
+                    if (count == 0) {
+                        continue;
+                    }
+                    Envelope levelEnv = new Envelope(xRanges[col], xRanges[col + 1], yRanges[row], yRanges[row + 1]);
+                    LasLevel lasLevel = new LasLevel();
+                    lasLevel.polygon = GeometryUtilities.createPolygonFromEnvelope(levelEnv);
+                    lasLevel.level = level;
+                    lasLevel.avgElev = avgElevSums[index] / count;
+                    lasLevel.minElev = minElevs[index];
+                    lasLevel.maxElev = maxElevs[index];
+                    lasLevel.avgIntensity = (short) (avgIntensitySums[index] / count);
+                    lasLevel.minIntensity = minIntensities[index];
+                    lasLevel.maxIntensity = maxIntensities[index];
+                    lasLevel.sourceId = sourceId;
+                    levelsList.add(lasLevel);
+                }
+            }
+            return levelsList;
+        }
+    }
+
     @Finalize
     public void close() throws Exception {
     }
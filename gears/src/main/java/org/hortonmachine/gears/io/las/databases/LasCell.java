@@ -22,6 +22,9 @@ import org.locationtech.jts.geom.Polygon;
 /**
  * A cell of las data.
  * 
+ * <p>The blobs are either raw or encoded through the {@link LasCellCodec}, use the 
+ * methods of the {@link LasCellsTable} to read them.</p>
+ * 
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class LasCell {
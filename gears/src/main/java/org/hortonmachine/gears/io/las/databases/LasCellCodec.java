@@ -0,0 +1,506 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.databases;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec for the blobs of the {@link LasCellsTable}.
+ *
+ * <p>The original blobs contain the raw big endian values of the points. The
+ * encoded blobs are columnar: coordinates are stored as the integer values of the
+ * las file (scale and offset being part of the blob), delta and zig-zag encoded,
+ * classifications and returns are bit-packed and the result is deflated.</p>
+ *
+ * <p>An encoded blob is used only if smaller than the raw one, so that the two can be
+ * told apart by their length. This keeps databases written before the codec readable.
+ * Encoded blobs start with the "HMC" magic and the codec version.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LasCellCodec {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'H', 'M', 'C'};
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+
+    private LasCellCodec() {
+    }
+
+    /**
+     * Encode the positions of a cell.
+     *
+     * @param xyz the interleaved x, y, z coordinates.
+     * @param count the number of points.
+     * @param scale the x, y, z scale of the las file. If <code>null</code>, the raw blob is created.
+     * @param offset the x, y, z offset of the las file.
+     * @return the blob.
+     */
+    public static byte[] encodePositions( double[] xyz, int count, double[] scale, double[] offset ) {
+        int rawLength = 24 * count;
+        if (count > 0 && scale != null && scale[0] > 0 && scale[1] > 0 && scale[2] > 0) {
+            long[] previous = new long[3];
+            VarBuffer payload = new VarBuffer(count * 6);
+            for( int dim = 0; dim < 3; dim++ ) {
+                for( int i = 0; i < count; i++ ) {
+                    double value = xyz[i * 3 + dim];
+                    long quantized = Math.round((value - offset[dim]) / scale[dim]);
+                    if (quantized * scale[dim] + offset[dim] != value) {
+                        // not on the las grid, keep it lossless
+                        payload = null;
+                        break;
+                    }
+                    payload.putZigZag(quantized - previous[dim]);
+                    previous[dim] = quantized;
+                }
+                if (payload == null) {
+                    break;
+                }
+            }
+            if (payload != null) {
+                ByteBuffer params = ByteBuffer.allocate(48);
+                for( int dim = 0; dim < 3; dim++ ) {
+                    params.putDouble(scale[dim]);
+                }
+                for( int dim = 0; dim < 3; dim++ ) {
+                    params.putDouble(offset[dim]);
+                }
+                byte[] encoded = pack(params.array(), payload);
+                if (encoded.length < rawLength) {
+                    return encoded;
+                }
+            }
+        }
+        ByteBuffer raw = ByteBuffer.allocate(rawLength);
+        for( int i = 0; i < count * 3; i++ ) {
+            raw.putDouble(xyz[i]);
+        }
+        return raw.array();
+    }
+
+    /**
+     * Decode the positions of a cell.
+     *
+     * @param blob the blob.
+     * @param count the number of points.
+     * @param xyz the array to fill with the interleaved x, y, z coordinates.
+     */
+    public static void decodePositions( byte[] blob, int count, double[] xyz ) {
+        if (blob.length == 24 * count) {
+            ByteBuffer raw = ByteBuffer.wrap(blob);
+            for( int i = 0; i < count * 3; i++ ) {
+                xyz[i] = raw.getDouble();
+            }
+            return;
+        }
+        ByteBuffer params = ByteBuffer.wrap(blob, HEADER_SIZE, 48);
+        double[] scale = {params.getDouble(), params.getDouble(), params.getDouble()};
+        double[] offset = {params.getDouble(), params.getDouble(), params.getDouble()};
+        VarBuffer payload = unpack(blob, 48);
+        for( int dim = 0; dim < 3; dim++ ) {
+            long quantized = 0;
+            for( int i = 0; i < count; i++ ) {
+                quantized += payload.getZigZag();
+                xyz[i * 3 + dim] = quantized * scale[dim] + offset[dim];
+            }
+        }
+    }
+
+    /**
+     * Encode the intensities and classifications of a cell.
+     *
+     * @param intensities the intensities.
+     * @param classifications the classifications.
+     * @param count the number of points.
+     * @return the blob.
+     */
+    public static byte[] encodeIntensitiesClassifications( short[] intensities, short[] classifications, int count ) {
+        int rawLength = 4 * count;
+        if (count > 0) {
+            VarBuffer payload = new VarBuffer(count * 2);
+            putDeltas(payload, intensities, 0, 1, count);
+            putPacked(payload, classifications, 0, 1, count);
+            byte[] encoded = pack(null, payload);
+            if (encoded.length < rawLength) {
+                return encoded;
+            }
+        }
+        ByteBuffer raw = ByteBuffer.allocate(rawLength);
+        for( int i = 0; i < count; i++ ) {
+            raw.putShort(intensities[i]);
+            raw.putShort(classifications[i]);
+        }
+        return raw.array();
+    }
+
+    /**
+     * Decode the intensities and classifications of a cell.
+     *
+     * @param blob the blob.
+     * @param count the number of points.
+     * @param intensities the array to fill with the intensities.
+     * @param classifications the array to fill with the classifications.
+     */
+    public static void decodeIntensitiesClassifications( byte[] blob, int count, short[] intensities,
+            short[] classifications ) {
+        if (blob.length == 4 * count) {
+            ByteBuffer raw = ByteBuffer.wrap(blob);
+            for( int i = 0; i < count; i++ ) {
+                intensities[i] = raw.getShort();
+                classifications[i] = raw.getShort();
+            }
+            return;
+        }
+        VarBuffer payload = unpack(blob, 0);
+        getDeltas(payload, intensities, 0, 1, count);
+        getPacked(payload, classifications, 0, 1, count);
+    }
+
+    /**
+     * Encode the returns of a cell.
+     *
+     * @param returnNumbers the return numbers.
+     * @param numberOfReturns the numbers of returns.
+     * @param count the number of points.
+     * @return the blob.
+     */
+    public static byte[] encodeReturns( short[] returnNumbers, short[] numberOfReturns, int count ) {
+        int rawLength = 4 * count;
+        if (count > 0) {
+            VarBuffer payload = new VarBuffer(count);
+            putPacked(payload, returnNumbers, 0, 1, count);
+            putPacked(payload, numberOfReturns, 0, 1, count);
+            byte[] encoded = pack(null, payload);
+            if (encoded.length < rawLength) {
+                return encoded;
+            }
+        }
+        ByteBuffer raw = ByteBuffer.allocate(rawLength);
+        for( int i = 0; i < count; i++ ) {
+            raw.putShort(returnNumbers[i]);
+            raw.putShort(numberOfReturns[i]);
+        }
+        return raw.array();
+    }
+
+    /**
+     * Decode the returns of a cell.
+     *
+     * @param blob the blob.
+     * @param count the number of points.
+     * @param returnNumbers the array to fill with the return numbers.
+     * @param numberOfReturns the array to fill with the numbers of returns.
+     */
+    public static void decodeReturns( byte[] blob, int count, short[] returnNumbers, short[] numberOfReturns ) {
+        if (blob.length == 4 * count) {
+            ByteBuffer raw = ByteBuffer.wrap(blob);
+            for( int i = 0; i < count; i++ ) {
+                returnNumbers[i] = raw.getShort();
+                numberOfReturns[i] = raw.getShort();
+            }
+            return;
+        }
+        VarBuffer payload = unpack(blob, 0);
+        getPacked(payload, returnNumbers, 0, 1, count);
+        getPacked(payload, numberOfReturns, 0, 1, count);
+    }
+
+    /**
+     * Encode the gps times of a cell.
+     *
+     * <p>The bits of the values are delta encoded, which keeps the encoding lossless.</p>
+     *
+     * @param gpsTimes the gps times.
+     * @param count the number of points.
+     * @return the blob.
+     */
+    public static byte[] encodeGpsTimes( double[] gpsTimes, int count ) {
+        int rawLength = 8 * count;
+        if (count > 0) {
+            VarBuffer payload = new VarBuffer(count * 3);
+            long previous = 0;
+            for( int i = 0; i < count; i++ ) {
+                long bits = Double.doubleToRawLongBits(gpsTimes[i]);
+                payload.putZigZag(bits - previous);
+                previous = bits;
+            }
+            byte[] encoded = pack(null, payload);
+            if (encoded.length < rawLength) {
+                return encoded;
+            }
+        }
+        ByteBuffer raw = ByteBuffer.allocate(rawLength);
+        for( int i = 0; i < count; i++ ) {
+            raw.putDouble(gpsTimes[i]);
+        }
+        return raw.array();
+    }
+
+    /**
+     * Decode the gps times of a cell.
+     *
+     * @param blob the blob.
+     * @param count the number of points.
+     * @param gpsTimes the array to fill with the gps times.
+     */
+    public static void decodeGpsTimes( byte[] blob, int count, double[] gpsTimes ) {
+        if (blob.length == 8 * count) {
+            ByteBuffer raw = ByteBuffer.wrap(blob);
+            for( int i = 0; i < count; i++ ) {
+                gpsTimes[i] = raw.getDouble();
+            }
+            return;
+        }
+        VarBuffer payload = unpack(blob, 0);
+        long bits = 0;
+        for( int i = 0; i < count; i++ ) {
+            bits += payload.getZigZag();
+            gpsTimes[i] = Double.longBitsToDouble(bits);
+        }
+    }
+
+    /**
+     * Encode the colors of a cell.
+     *
+     * @param colors the interleaved r, g, b values.
+     * @param count the number of points.
+     * @return the blob.
+     */
+    public static byte[] encodeColors( short[] colors, int count ) {
+        int rawLength = 6 * count;
+        if (count > 0) {
+            VarBuffer payload = new VarBuffer(count * 3);
+            for( int band = 0; band < 3; band++ ) {
+                putDeltas(payload, colors, band, 3, count);
+            }
+            byte[] encoded = pack(null, payload);
+            if (encoded.length < rawLength) {
+                return encoded;
+            }
+        }
+        ByteBuffer raw = ByteBuffer.allocate(rawLength);
+        for( int i = 0; i < count * 3; i++ ) {
+            raw.putShort(colors[i]);
+        }
+        return raw.array();
+    }
+
+    /**
+     * Decode the colors of a cell.
+     *
+     * @param blob the blob.
+     * @param count the number of points.
+     * @param colors the array to fill with the interleaved r, g, b values.
+     */
+    public static void decodeColors( byte[] blob, int count, short[] colors ) {
+        if (blob.length == 6 * count) {
+            ByteBuffer raw = ByteBuffer.wrap(blob);
+            for( int i = 0; i < count * 3; i++ ) {
+                colors[i] = raw.getShort();
+            }
+            return;
+        }
+        VarBuffer payload = unpack(blob, 0);
+        for( int band = 0; band < 3; band++ ) {
+            getDeltas(payload, colors, band, 3, count);
+        }
+    }
+
+    private static void putDeltas( VarBuffer payload, short[] values, int start, int stride, int count ) {
+        int previous = 0;
+        for( int i = 0; i < count; i++ ) {
+            int value = values[start + i * stride];
+            payload.putZigZag(value - previous);
+            previous = value;
+        }
+    }
+
+    private static void getDeltas( VarBuffer payload, short[] values, int start, int stride, int count ) {
+        int value = 0;
+        for( int i = 0; i < count; i++ ) {
+            value += (int) payload.getZigZag();
+            values[start + i * stride] = (short) value;
+        }
+    }
+
+    /**
+     * Pack the values as unsigned 16 bit integers using only the bits needed by the largest.
+     */
+    private static void putPacked( VarBuffer payload, short[] values, int start, int stride, int count ) {
+        int max = 0;
+        for( int i = 0; i < count; i++ ) {
+            max = Math.max(max, values[start + i * stride] & 0xFFFF);
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(max);
+        payload.put((byte) bits);
+        long accumulator = 0;
+        int accumulated = 0;
+        for( int i = 0; i < count; i++ ) {
+            accumulator |= (long) (values[start + i * stride] & 0xFFFF) << accumulated;
+            accumulated += bits;
+            while( accumulated >= 8 ) {
+                payload.put((byte) accumulator);
+                accumulator >>>= 8;
+                accumulated -= 8;
+            }
+        }
+        if (accumulated > 0) {
+            payload.put((byte) accumulator);
+        }
+    }
+
+    private static void getPacked( VarBuffer payload, short[] values, int start, int stride, int count ) {
+        int bits = payload.get();
+        int mask = (1 << bits) - 1;
+        long accumulator = 0;
+        int accumulated = 0;
+        for( int i = 0; i < count; i++ ) {
+            while( accumulated < bits ) {
+                accumulator |= (long) (payload.get() & 0xFF) << accumulated;
+                accumulated += 8;
+            }
+            values[start + i * stride] = (short) (accumulator & mask);
+            accumulator >>>= bits;
+            accumulated -= bits;
+        }
+    }
+
+    /**
+     * Create the blob: header, optional uncompressed parameters, payload length and deflated payload.
+     */
+    private static byte[] pack( byte[] params, VarBuffer payload ) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(payload.bytes, 0, payload.size);
+            deflater.finish();
+            VarBuffer blob = new VarBuffer(payload.size / 2 + 64);
+            blob.put(MAGIC[0]);
+            blob.put(MAGIC[1]);
+            blob.put(MAGIC[2]);
+            blob.put((byte) VERSION);
+            if (params != null) {
+                blob.put(params, params.length);
+            }
+            blob.putZigZag(payload.size);
+            byte[] chunk = new byte[4096];
+            while( !deflater.finished() ) {
+                int written = deflater.deflate(chunk);
+                blob.put(chunk, written);
+            }
+            return Arrays.copyOf(blob.bytes, blob.size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static VarBuffer unpack( byte[] blob, int paramsLength ) {
+        if (blob.length < HEADER_SIZE || blob[0] != MAGIC[0] || blob[1] != MAGIC[1] || blob[2] != MAGIC[2]) {
+            throw new IllegalArgumentException("The blob is neither a raw nor an encoded las cell blob.");
+        }
+        int version = blob[3];
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported las cell blob version: " + version);
+        }
+        VarBuffer header = new VarBuffer(blob, HEADER_SIZE + paramsLength);
+        int size = (int) header.getZigZag();
+        VarBuffer payload = new VarBuffer(size);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob, header.position, blob.length - header.position);
+            int read = 0;
+            while( read < size ) {
+                int inflated = inflater.inflate(payload.bytes, read, size - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalArgumentException("Truncated las cell blob.");
+                }
+                read += inflated;
+            }
+            payload.size = size;
+            return payload;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted las cell blob.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * A growable byte buffer with zig-zag variable length integers.
+     */
+    private static class VarBuffer {
+        byte[] bytes;
+        int size;
+        int position;
+
+        VarBuffer( int capacity ) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        VarBuffer( byte[] bytes, int position ) {
+            this.bytes = bytes;
+            this.size = bytes.length;
+            this.position = position;
+        }
+
+        void put( byte b ) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = b;
+        }
+
+        void put( byte[] b, int length ) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+            System.arraycopy(b, 0, bytes, size, length);
+            size += length;
+        }
+
+        void putZigZag( long value ) {
+            long v = (value << 1) ^ (value >> 63);
+            while( (v & ~0x7FL) != 0 ) {
+                put((byte) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            put((byte) v);
+        }
+
+        byte get() {
+            return bytes[position++];
+        }
+
+        long getZigZag() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while( (b & 0x80) != 0 );
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+
+}
@@ -17,7 +17,6 @@
  */
 package org.hortonmachine.gears.io.las.databases;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -270,7 +269,7 @@ public class LasCellsTable {
 
         String _sql = sql;
         IGeometryParser gp = db.getType().getGeometryParser();
-        return db.execOnConnection(conn -> {
+        return db.execOnReadConnection(conn -> {
             try (IHMStatement stmt = conn.createStatement(); IHMResultSet rs = stmt.executeQuery(_sql)) {
                 while( rs.next() ) {
                     LasCell lasCell = resultSetToCell(db, gp, doPosition, doIntensity, doReturns, doTime, doColor, rs);
@@ -330,7 +329,7 @@ public class LasCellsTable {
 
         String _sql = sql;
         IGeometryParser gp = db.getType().getGeometryParser();
-        return db.execOnConnection(conn -> {
+        return db.execOnReadConnection(conn -> {
             try (IHMStatement stmt = conn.createStatement(); IHMResultSet rs = stmt.executeQuery(_sql)) {
                 while( rs.next() ) {
                     LasCell lasCell = resultSetToCell(db, gp, doPosition, doIntensity, doReturns, doTime, doColor, rs);
@@ -387,7 +386,7 @@ public class LasCellsTable {
 
         String _sql = sql;
         IGeometryParser gp = db.getType().getGeometryParser();
-        return db.execOnConnection(conn -> {
+        return db.execOnReadConnection(conn -> {
             try (IHMStatement stmt = conn.createStatement(); IHMResultSet rs = stmt.executeQuery(_sql)) {
                 while( rs.next() ) {
                     LasCell lasCell = resultSetToCell(db, gp, doPosition, doIntensity, doReturns, doTime, doColor, rs);
@@ -441,49 +440,132 @@ public class LasCellsTable {
         return null;
     }
 
+    /**
+     * Get the positions of the points of a cell.
+     * 
+     * @param cell the cell, read with position info.
+     * @return the array of [x, y, z] for every point or <code>null</code> if the cell is empty.
+     */
     public static double[][] getCellPositions( LasCell cell ) {
         int points = cell.pointsCount;
         if (points == 0) {
             return null;
         }
-        double[][] xyzPoints = new double[points][3];
-        ByteBuffer buffer = ByteBuffer.wrap(cell.xyzs);
-
+        double[] xyz = new double[points * 3];
+        LasCellCodec.decodePositions(cell.xyzs, points, xyz);
+        double[][] xyzPoints = new double[points][];
         for( int i = 0; i < points; i++ ) {
-            xyzPoints[i][0] = buffer.getDouble();
-            xyzPoints[i][1] = buffer.getDouble();
-            xyzPoints[i][2] = buffer.getDouble();
+            xyzPoints[i] = new double[]{xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]};
         }
         return xyzPoints;
     }
 
+    /**
+     * Decode the positions of the points of a cell into an existing array.
+     * 
+     * @param cell the cell, read with position info.
+     * @param xyz the array to fill with the interleaved x, y, z coordinates, at least 3 * pointsCount long.
+     * @return the number of points.
+     */
+    public static int getCellPositions( LasCell cell, double[] xyz ) {
+        int points = cell.pointsCount;
+        if (points > 0) {
+            LasCellCodec.decodePositions(cell.xyzs, points, xyz);
+        }
+        return points;
+    }
+
+    /**
+     * Get the intensity and classification of the points of a cell.
+     * 
+     * @param cell the cell, read with intensity info.
+     * @return the array of [intensity, classification] for every point or <code>null</code> if the cell is empty.
+     */
     public static short[][] getCellIntensityClass( LasCell cell ) {
         int points = cell.pointsCount;
         if (points == 0) {
             return null;
         }
-        short[][] intensClassPoints = new short[points][2];
-        ByteBuffer buffer = ByteBuffer.wrap(cell.intensitiesClassifications);
-
+        short[] intensities = new short[points];
+        short[] classifications = new short[points];
+        LasCellCodec.decodeIntensitiesClassifications(cell.intensitiesClassifications, points, intensities, classifications);
+        short[][] intensClassPoints = new short[points][];
         for( int i = 0; i < points; i++ ) {
-            intensClassPoints[i][0] = buffer.getShort();
-            intensClassPoints[i][1] = buffer.getShort();
+            intensClassPoints[i] = new short[]{intensities[i], classifications[i]};
         }
         return intensClassPoints;
     }
 
-    public static short[][] getCellColors( LasCell cell ) {
+    /**
+     * Decode the intensity and classification of the points of a cell into existing arrays.
+     * 
+     * @param cell the cell, read with intensity info.
+     * @param intensities the array to fill with the intensities.
+     * @param classifications the array to fill with the classifications.
+     * @return the number of points.
+     */
+    public static int getCellIntensityClass( LasCell cell, short[] intensities, short[] classifications ) {
+        int points = cell.pointsCount;
+        if (points > 0) {
+            LasCellCodec.decodeIntensitiesClassifications(cell.intensitiesClassifications, points, intensities,
+                    classifications);
+        }
+        return points;
+    }
+
+    /**
+     * Get the returns of the points of a cell.
+     * 
+     * @param cell the cell, read with returns info.
+     * @return the array of [returnNumber, numberOfReturns] for every point or <code>null</code> if the cell is empty.
+     */
+    public static short[][] getCellReturns( LasCell cell ) {
         int points = cell.pointsCount;
         if (points == 0) {
             return null;
         }
-        short[][] colorPoints = new short[points][3];
-        ByteBuffer buffer = ByteBuffer.wrap(cell.colors);
+        short[] returnNumbers = new short[points];
+        short[] numberOfReturns = new short[points];
+        LasCellCodec.decodeReturns(cell.returns, points, returnNumbers, numberOfReturns);
+        short[][] returnsPoints = new short[points][];
+        for( int i = 0; i < points; i++ ) {
+            returnsPoints[i] = new short[]{returnNumbers[i], numberOfReturns[i]};
+        }
+        return returnsPoints;
+    }
 
+    /**
+     * Get the gps times of the points of a cell.
+     * 
+     * @param cell the cell, read with time info.
+     * @return the gps times or <code>null</code> if the cell is empty.
+     */
+    public static double[] getCellGpsTimes( LasCell cell ) {
+        int points = cell.pointsCount;
+        if (points == 0) {
+            return null;
+        }
+        double[] gpsTimes = new double[points];
+        LasCellCodec.decodeGpsTimes(cell.gpsTimes, points, gpsTimes);
+        return gpsTimes;
+    }
+
+    /**
+     * Get the colors of the points of a cell.
+     * 
+     * @param cell the cell, read with color info.
+     * @return the array of [r, g, b] for every point or <code>null</code> if the cell is empty.
+     */
+    public static short[][] getCellColors( LasCell cell ) {
+        int points = cell.pointsCount;
+        if (points == 0) {
+            return null;
+        }
+        short[] colors = new short[points * 3];
+        LasCellCodec.decodeColors(cell.colors, points, colors);
+        short[][] colorPoints = new short[points][];
         for( int i = 0; i < points; i++ ) {
-            colorPoints[i][0] = buffer.getShort();
-            colorPoints[i][1] = buffer.getShort();
-            colorPoints[i][2] = buffer.getShort();
+            colorPoints[i] = new short[]{colors[i * 3], colors[i * 3 + 1], colors[i * 3 + 2]};
         }
         return colorPoints;
     }
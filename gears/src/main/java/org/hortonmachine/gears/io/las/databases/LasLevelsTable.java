@@ -200,7 +200,7 @@ public class LasLevelsTable {
 
         String _sql = sql;
         IGeometryParser gp = db.getType().getGeometryParser();
-        return db.execOnConnection(conn -> {
+        return db.execOnReadConnection(conn -> {
             try (IHMStatement stmt = conn.createStatement(); IHMResultSet rs = stmt.executeQuery(_sql)) {
                 while( rs.next() ) {
                     LasLevel lasLevel = new LasLevel();
@@ -255,7 +255,7 @@ public class LasLevelsTable {
 
         String _sql = sql;
         IGeometryParser gp = db.getType().getGeometryParser();
-        return db.execOnConnection(conn -> {
+        return db.execOnReadConnection(conn -> {
             try (IHMStatement stmt = conn.createStatement(); IHMResultSet rs = stmt.executeQuery(_sql)) {
                 while( rs.next() ) {
                     LasLevel lasLevel = new LasLevel();
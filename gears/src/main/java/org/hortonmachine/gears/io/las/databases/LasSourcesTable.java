@@ -144,7 +144,7 @@ public class LasSourcesTable {
                 + "," + COLUMN_LEVELS + "," + COLUMN_MINZ + "," + COLUMN_MAXZ + "," + COLUMN_MININTENSITY + ","
                 + COLUMN_MAXINTENSITY + " FROM " + TABLENAME;
 
-        return db.execOnConnection(connection -> {
+        return db.execOnReadConnection(connection -> {
             IGeometryParser gp = db.getType().getGeometryParser();
             try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(sql)) {
                 while( rs.next() ) {
@@ -26,11 +26,13 @@ import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -44,32 +46,29 @@ import oms3.annotations.Name;
 import oms3.annotations.Status;
 import oms3.annotations.UI;
 
-import org.geotools.coverage.grid.GridCoordinates2D;
-import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.geometry.DirectPosition2D;
 import org.geotools.geometry.Envelope2D;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
-import org.geotools.referencing.CRS;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ALasWriter;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
 import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.LasRecordBatch;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderMapped;
 import org.hortonmachine.gears.io.las.index.strtree.STRtreeJGT;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.modules.utils.fileiterator.OmsFileIterator;
 import org.hortonmachine.gears.utils.CrsUtilities;
-import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.gears.utils.files.FileUtilities;
 import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+import org.hortonmachine.gears.utils.math.NumericsUtilities;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.geometry.DirectPosition;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import org.locationtech.jts.geom.Coordinate;
@@ -80,6 +79,7 @@ import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LinearRing;
 import org.locationtech.jts.geom.MultiPoint;
 import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.index.strtree.ItemBoundable;
 
 @Description("Creates indexes for Las files.")
 @Author(name = "Andrea Antonello", contact = "www.hydrologis.com")
@@ -92,6 +92,10 @@ public class LasIndexer extends HMModel {
 
     public static final String INDEX_LASFOLDER = "index.lasfolder";
 
+    private static final int BATCH_SIZE = 1 << 16;
+    private static final long MAX_POINTS = Integer.MAX_VALUE - 8;
+    private static final long MAX_COUNTS = 1 << 24;
+
     @Description("The folder containing the las files to index.")
     @UI(HMConstants.FOLDERIN_UI_HINT)
     @In
@@ -189,33 +193,37 @@ public class LasIndexer extends HMModel {
          */
         if (doOverview)
             envelopesQueue = new ConcurrentLinkedQueue<>();
-        if (pThreads > 1) {
-            ExecutorService fixedThreadPool = Executors.newFixedThreadPool(pThreads);
+        /*
+         * files are indexed in a bounded pool, which is also used by the
+         * parallel sorting of the points of every single file
+         */
+        boolean isMultiThreaded = pThreads > 1;
+        List<LasPagedIndex.IndexedFile> indexedFiles = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, pThreads));
+        try {
+            List<ForkJoinTask<LasPagedIndex.IndexedFile>> tasks = new ArrayList<>();
             for( final File file : filesList ) {
-                Runnable runner = new Runnable(){
-                    public void run() {
-                        try {
-                            processFile(file, true);
-                        } catch (Exception e) {
-                            pm.errorMessage("Problems indexing file: " + file.getName());
-                            e.printStackTrace();
-                        }
-                    }
-                };
-                fixedThreadPool.execute(runner);
+                tasks.add(pool.submit(() -> processFile(file, isMultiThreaded)));
             }
-            try {
-                fixedThreadPool.shutdown();
-                fixedThreadPool.awaitTermination(30, TimeUnit.DAYS);
-                fixedThreadPool.shutdownNow();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        } else {
-            for( final File file : filesList ) {
-                processFile(file, false);
+            for( int i = 0; i < tasks.size(); i++ ) {
+                try {
+                    LasPagedIndex.IndexedFile indexedFile = tasks.get(i).get();
+                    if (indexedFile != null) {
+                        indexedFiles.add(indexedFile);
+                    }
+                } catch (ExecutionException e) {
+                    if (!isMultiThreaded) {
+                        Throwable cause = e.getCause();
+                        throw cause instanceof Exception ? (Exception) cause : e;
+                    }
+                    pm.errorMessage("Problems indexing file: " + filesList.get(i).getName());
+                    e.getCause().printStackTrace();
+                }
             }
+        } finally {
+            pool.shutdown();
         }
+        LasPagedIndex.write(LasPagedIndex.getIndexFile(mainIndex), indexedFiles);
 
         if (doOverview) {
             File overviewFile = FileUtilities.substituteExtention(mainIndex, "shp");
@@ -238,14 +246,13 @@ public class LasIndexer extends HMModel {
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void processFile( File file, boolean isMultiThreaded ) throws Exception {
+    private LasPagedIndex.IndexedFile processFile( File file, boolean isMultiThreaded ) throws Exception {
         String name = file.getName();
         File newLasFile = getNewLasFile(file);
         File indexFile = getNetIndexFile(file);
         if (indexFile.exists() && newLasFile.exists()) {
             pm.message("Index existing already for file: " + name);
-            return;
+            return readIndexedFile(newLasFile, indexFile);
         }
         if (indexFile.exists() || newLasFile.exists()) {
             indexFile.delete();
@@ -260,15 +267,23 @@ public class LasIndexer extends HMModel {
          */
         CoordinateList pointsList = new CoordinateList();
 
-        try (ALasReader reader = ALasReader.getReader(file, crs)) {
+        List<LasPagedIndex.Chunk> chunks = new ArrayList<>();
+        double[] bounds;
+        try (LasReaderMapped reader = new LasReaderMapped(file, crs)) {
             reader.open();
             ILasHeader header = reader.getHeader();
             long recordsCount = header.getRecordsCount();
             if (recordsCount == 0) {
                 pm.errorMessage("No points found in: " + name);
-                return;
+                return null;
+            }
+            if (recordsCount > MAX_POINTS) {
+                throw new ModelsIllegalargumentException(
+                        "Files with more than " + MAX_POINTS + " points can't be indexed, split them first: " + name, this);
             }
             ReferencedEnvelope3D envelope = header.getDataEnvelope();
+            bounds = new double[]{envelope.getMinX(), envelope.getMinY(), envelope.getMinZ(), envelope.getMaxX(),
+                    envelope.getMaxY(), envelope.getMaxZ()};
             ReferencedEnvelope env2d = new ReferencedEnvelope(envelope);
             Envelope2D e = new Envelope2D(env2d);
 
@@ -295,75 +310,68 @@ public class LasIndexer extends HMModel {
             rows = (int) round(height / pCellsize);
             xRes = width / cols;
             yRes = height / rows;
+            if ((long) cols * rows > MAX_POINTS) {
+                throw new ModelsIllegalargumentException("The cell size is too small for file: " + name, this);
+            }
 
             pm.message("Splitting " + name + " into tiles of " + (float) xRes + " x " + (float) yRes + ".");
-            GridGeometry2D gridGeometry = CoverageUtilities.gridGeometryFromRegionValues(north, south, east, west, cols, rows,
-                    reader.getHeader().getCrs());
-
-            List<LasRecord>[][] dotOnMatrix = new ArrayList[cols][rows];
-            if (!isMultiThreaded) {
-                pm.beginTask("Sorting points for " + name, (int) recordsCount);
-            } else {
-                pm.message("Sorting points for " + name + "...");
-            }
-            while( reader.hasNextPoint() ) {
-                LasRecord dot = reader.getNextPoint();
-                DirectPosition wPoint = new DirectPosition2D(dot.x, dot.y);
-                GridCoordinates2D gridCoord = gridGeometry.worldToGrid(wPoint);
-                int x = gridCoord.x;
-                int y = gridCoord.y;
-                if (dotOnMatrix[x][y] == null) {
-                    dotOnMatrix[x][y] = new ArrayList<>();
-                }
-                dotOnMatrix[x][y].add(dot);
-                if (doOverview) {
-                    pointsList.add(new Coordinate(dot.x, dot.y));
-                }
-                if (!isMultiThreaded)
-                    pm.worked(1);
+
+            /*
+             * the cells are written in morton order, so that chunks
+             * that are close in the index are also close in space
+             */
+            int cellsCount = cols * rows;
+            int[] cellRanks = mortonRanks(cols, rows);
+            int[] cellStarts = new int[cellsCount + 1];
+            pm.message("Sorting points for " + name + "...");
+            PointCellMapper mapper = new PointCellMapper(reader, west, north, xRes, yRes, cols, rows, cellRanks);
+            int[] order = sortPoints(mapper, (int) recordsCount, cellStarts);
+            int[] rankCells = new int[cellsCount];
+            for( int cell = 0; cell < cellsCount; cell++ ) {
+                rankCells[cellRanks[cell]] = cell;
             }
-            if (!isMultiThreaded)
-                pm.done();
 
             /*
              * now write indexed file plus index
              */
-            try (ALasWriter writer = ALasWriter.getWriter(newLasFile, reader.getHeader().getCrs())) {
-                writer.setBounds(reader.getHeader());
+            try (ALasWriter writer = ALasWriter.getWriter(newLasFile, header.getCrs())) {
+                writer.setBounds(header);
                 writer.open();
 
                 int addedTiles = 0;
                 STRtreeJGT tree = new STRtreeJGT();
                 if (!isMultiThreaded) {
-                    pm.beginTask("Write and index new las...", cols);
+                    pm.beginTask("Write and index new las...", cellsCount);
                 } else {
                     pm.message("Write and index new las...");
                 }
-                long pointCount = 0;
-                for( int r = 0; r < rows; r++ ) {
-                    for( int c = 0; c < cols; c++ ) {
-                        List<LasRecord> dotsList = dotOnMatrix[c][r];
-                        if (dotsList == null || dotsList.size() == 0) {
-                            continue;
-                        }
-                        Coordinate coord = CoverageUtilities.coordinateFromColRow(c, r, gridGeometry);
-                        Envelope env = new Envelope(coord);
-                        env.expandBy(xRes / 2.0, yRes / 2.0);
-                        long tmpCount = pointCount;
+                for( int rank = 0; rank < cellsCount; rank++ ) {
+                    int from = cellStarts[rank];
+                    int to = cellStarts[rank + 1];
+                    if (from < to) {
+                        int c = rankCells[rank] % cols;
+                        int r = rankCells[rank] / cols;
+                        Envelope env = new Envelope(west + c * xRes, west + (c + 1) * xRes, north - (r + 1) * yRes,
+                                north - r * yRes);
+                        Envelope dataEnv = new Envelope();
                         double avgElevValue = 0.0;
                         double avgIntensityValue = 0.0;
-                        int count = 0;
-
-                        for( LasRecord dot : dotsList ) {
+                        for( int i = from; i < to; i++ ) {
+                            LasRecord dot = reader.getPointAt(order[i]);
                             writer.addPoint(dot);
-                            pointCount++;
                             avgElevValue += dot.z;
                             avgIntensityValue += dot.intensity;
-                            count++;
+                            dataEnv.expandToInclude(dot.x, dot.y);
+                            if (doOverview) {
+                                pointsList.add(new Coordinate(dot.x, dot.y));
+                            }
                         }
+                        int count = to - from;
                         avgElevValue /= count;
                         avgIntensityValue /= count;
-                        tree.insert(env, new double[]{tmpCount, pointCount, avgElevValue, avgIntensityValue});
+                        tree.insert(env, new double[]{from, to, avgElevValue, avgIntensityValue});
+                        chunks.add(new LasPagedIndex.Chunk(dataEnv.getMinX(), dataEnv.getMinY(), dataEnv.getMaxX(),
+                                dataEnv.getMaxY(), from, to, avgElevValue, avgIntensityValue));
                         addedTiles++;
                     }
                     if (!isMultiThreaded)
@@ -385,7 +393,156 @@ public class LasIndexer extends HMModel {
             polygon.setUserData(name);
             envelopesQueue.add((Polygon) polygon);
         }
+        return new LasPagedIndex.IndexedFile(newLasFile.getName(), bounds, chunks);
+    }
+
+    /**
+     * Rebuild the paged index entry of a file from its existing index.
+     */
+    @SuppressWarnings("rawtypes")
+    private LasPagedIndex.IndexedFile readIndexedFile( File newLasFile, File indexFile ) throws Exception {
+        ReferencedEnvelope3D envelope;
+        try (ALasReader reader = ALasReader.getReader(newLasFile, crs)) {
+            reader.open();
+            envelope = reader.getHeader().getDataEnvelope();
+        }
+        double[] bounds = new double[]{envelope.getMinX(), envelope.getMinY(), envelope.getMinZ(), envelope.getMaxX(),
+                envelope.getMaxY(), envelope.getMaxZ()};
+        STRtreeJGT tree = OmsLasIndexReader.readIndex(indexFile.getAbsolutePath());
+        List<LasPagedIndex.Chunk> chunks = new ArrayList<>();
+        List boundables = tree.queryBoundables(new Envelope(envelope));
+        for( Object object : boundables ) {
+            if (object instanceof ItemBoundable) {
+                ItemBoundable itemBoundable = (ItemBoundable) object;
+                double[] item = (double[]) itemBoundable.getItem();
+                Envelope env = (Envelope) itemBoundable.getBounds();
+                chunks.add(new LasPagedIndex.Chunk(env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY(), (long) item[0],
+                        (long) item[1], item[2], item[3]));
+            }
+        }
+        chunks.sort(( c1, c2 ) -> Long.compare(c1.fromPoint, c2.fromPoint));
+        return new LasPagedIndex.IndexedFile(newLasFile.getName(), bounds, chunks);
+    }
+
+    /**
+     * Calculate for every cell (row major) its position in morton order.
+     */
+    private static int[] mortonRanks( int cols, int rows ) {
+        int cellsCount = cols * rows;
+        long[] codes = new long[cellsCount];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                codes[r * cols + c] = NumericsUtilities.mortonCode(c, r);
+            }
+        }
+        long[] sortedCodes = codes.clone();
+        Arrays.sort(sortedCodes);
+        int[] ranks = new int[cellsCount];
+        for( int i = 0; i < cellsCount; i++ ) {
+            ranks[i] = Arrays.binarySearch(sortedCodes, codes[i]);
+        }
+        return ranks;
+    }
 
+    /**
+     * Sort the point indexes by cell with a parallel counting sort.
+     * 
+     * <p>The points are split in ranges, each range counts its points per cell, 
+     * the counts are turned into write positions and each range scatters its
+     * points. The result is the same for any number of threads.</p>
+     * 
+     * @param mapper the mapper of points to cells.
+     * @param pointsCount the number of points.
+     * @param cellStarts the array to fill with the start position of every cell plus the end of the last.
+     * @return the point indexes sorted by cell.
+     */
+    private static int[] sortPoints( PointCellMapper mapper, int pointsCount, int[] cellStarts ) {
+        int cellsCount = cellStarts.length - 1;
+        int threads = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool().getParallelism() : 1;
+        long rangeSize = Math.max(1, (pointsCount + threads * 4L - 1) / (threads * 4L));
+        // whole batches per range and a bounded memory for the counts
+        rangeSize = (rangeSize + BATCH_SIZE - 1) / BATCH_SIZE * BATCH_SIZE;
+        while( (pointsCount + rangeSize - 1) / rangeSize * cellsCount > MAX_COUNTS && rangeSize < pointsCount ) {
+            rangeSize *= 2;
+        }
+        int rangesCount = (int) ((pointsCount + rangeSize - 1) / rangeSize);
+        int size = (int) Math.min(rangeSize, pointsCount);
+
+        int[][] positions = new int[rangesCount][];
+        IntStream.range(0, rangesCount).parallel().forEach(k -> {
+            int[] counts = new int[cellsCount];
+            mapper.map(k * (long) size, Math.min(pointsCount, (k + 1) * (long) size), ( index, rank ) -> counts[rank]++);
+            positions[k] = counts;
+        });
+
+        int position = 0;
+        for( int rank = 0; rank < cellsCount; rank++ ) {
+            cellStarts[rank] = position;
+            for( int k = 0; k < rangesCount; k++ ) {
+                int count = positions[k][rank];
+                positions[k][rank] = position;
+                position += count;
+            }
+        }
+        cellStarts[cellsCount] = position;
+
+        int[] order = new int[pointsCount];
+        IntStream.range(0, rangesCount).parallel().forEach(k -> {
+            int[] rangePositions = positions[k];
+            mapper.map(k * (long) size, Math.min(pointsCount, (k + 1) * (long) size),
+                    ( index, rank ) -> order[rangePositions[rank]++] = index);
+        });
+        return order;
+    }
+
+    private static interface PointCellConsumer {
+        void accept( int pointIndex, int cellRank );
+    }
+
+    /**
+     * Maps ranges of points to their cells, reading the coordinates in batches.
+     */
+    private static class PointCellMapper {
+        private final LasReaderMapped reader;
+        private final double west;
+        private final double north;
+        private final double xRes;
+        private final double yRes;
+        private final int cols;
+        private final int rows;
+        private final int[] cellRanks;
+
+        PointCellMapper( LasReaderMapped reader, double west, double north, double xRes, double yRes, int cols, int rows,
+                int[] cellRanks ) {
+            this.reader = reader;
+            this.west = west;
+            this.north = north;
+            this.xRes = xRes;
+            this.yRes = yRes;
+            this.cols = cols;
+            this.rows = rows;
+            this.cellRanks = cellRanks;
+        }
+
+        void map( long fromPoint, long toPoint, PointCellConsumer consumer ) {
+            LasRecordBatch batch = new LasRecordBatch(BATCH_SIZE);
+            batch.z = null;
+            batch.intensity = null;
+            batch.classification = null;
+            batch.returnNumber = null;
+            batch.numberOfReturns = null;
+            batch.gpsTime = null;
+            for( long from = fromPoint; from < toPoint; from += BATCH_SIZE ) {
+                int read = (int) Math.min(reader.readBatch(from, batch), toPoint - from);
+                for( int i = 0; i < read; i++ ) {
+                    int c = (int) ((batch.x[i] - west) / xRes);
+                    int r = (int) ((north - batch.y[i]) / yRes);
+                    c = Math.max(0, Math.min(cols - 1, c));
+                    r = Math.max(0, Math.min(rows - 1, r));
+                    consumer.accept((int) (from + i), cellRanks[r * cols + c]);
+                }
+            }
+        }
     }
 
     private File getNetIndexFile( File file ) {
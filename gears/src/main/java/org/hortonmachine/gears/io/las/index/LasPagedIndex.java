@@ -0,0 +1,436 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * A paged, memory mapped spatial index of a folder of indexed las files.
+ *
+ * <p>The index contains, for every file, its 3d bounds and a list of chunks, each
+ * being a range of consecutive points of the file together with their 2d bounds
+ * and average elevation and intensity.</p>
+ *
+ * <p>The file layout (little endian) is:</p>
+ * <ul>
+ *  <li>a header of {@value #HEADER_SIZE} bytes with the offsets of the following sections</li>
+ *  <li>a file table of {@value #FILE_ENTRY_SIZE} bytes per file</li>
+ *  <li>the utf-8 file names</li>
+ *  <li>the chunk pages, aligned to {@value #PAGE_SIZE} bytes. Every page starts with the
+ *  bounds of its chunks, so that a query skips whole pages without reading them.</li>
+ * </ul>
+ *
+ * <p>Opening the index only maps the header and the file table, the pages of a file are
+ * mapped the first time a query touches the file.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LasPagedIndex implements AutoCloseable {
+
+    /**
+     * The extension appended to the main folder index file name.
+     */
+    public static final String EXTENSION = "lpi";
+
+    public static final int PAGE_SIZE = 4096;
+    public static final int HEADER_SIZE = 64;
+    public static final int FILE_ENTRY_SIZE = 64;
+    public static final int PAGE_HEADER_SIZE = 40;
+    public static final int CHUNK_SIZE = 56;
+    public static final int CHUNKS_PER_PAGE = (PAGE_SIZE - PAGE_HEADER_SIZE) / CHUNK_SIZE;
+
+    private static final long MAGIC = 0x31584449504C4D48L; // HMLPIDX1
+    private static final int VERSION = 1;
+
+    /**
+     * A range of points of an indexed file.
+     */
+    public static class Chunk {
+        public final double minX;
+        public final double minY;
+        public final double maxX;
+        public final double maxY;
+        public final long fromPoint;
+        public final long toPoint;
+        public final double avgElev;
+        public final double avgIntensity;
+
+        /**
+         * @param minX the min x of the points.
+         * @param minY the min y of the points.
+         * @param maxX the max x of the points.
+         * @param maxY the max y of the points.
+         * @param fromPoint the first point of the range.
+         * @param toPoint the point after the last of the range.
+         * @param avgElev the average elevation of the points.
+         * @param avgIntensity the average intensity of the points.
+         */
+        public Chunk( double minX, double minY, double maxX, double maxY, long fromPoint, long toPoint, double avgElev,
+                double avgIntensity ) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.fromPoint = fromPoint;
+            this.toPoint = toPoint;
+            this.avgElev = avgElev;
+            this.avgIntensity = avgIntensity;
+        }
+    }
+
+    /**
+     * An indexed file with its chunks, used to write the index.
+     */
+    public static class IndexedFile {
+        public final String name;
+        public final double[] bounds;
+        public final List<Chunk> chunks;
+
+        /**
+         * @param name the name of the file, relative to the index folder.
+         * @param bounds the 3d bounds of the file as [minx, miny, minz, maxx, maxy, maxz].
+         * @param chunks the chunks of the file, best if sorted by spatial proximity.
+         */
+        public IndexedFile( String name, double[] bounds, List<Chunk> chunks ) {
+            this.name = name;
+            this.bounds = bounds;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * A visitor of the chunks matching a query.
+     */
+    public static interface ChunkVisitor {
+        /**
+         * Called for every chunk that intersects the query.
+         *
+         * @param fileIndex the index of the file in the index.
+         * @param fromPoint the first point of the range.
+         * @param toPoint the point after the last of the range.
+         * @param avgElev the average elevation of the points.
+         * @param avgIntensity the average intensity of the points.
+         * @throws Exception
+         */
+        void visit( int fileIndex, long fromPoint, long toPoint, double avgElev, double avgIntensity ) throws Exception;
+    }
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int filesCount;
+    private final ByteBuffer fileTable;
+    private final String[] names;
+    private final long pagesOffset;
+    private final long pagesCount;
+    private final ByteBuffer[] filePages;
+
+    private LasPagedIndex( File file ) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        try {
+            channel = raf.getChannel();
+            ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong(0) != MAGIC) {
+                throw new IOException("Not a paged las index: " + file);
+            }
+            int version = header.getInt(8);
+            if (version != VERSION) {
+                throw new IOException("Unsupported paged las index version: " + version);
+            }
+            filesCount = header.getInt(16);
+            long fileTableOffset = header.getLong(24);
+            long namesOffset = header.getLong(32);
+            pagesOffset = header.getLong(40);
+            pagesCount = header.getLong(48);
+
+            fileTable = channel.map(MapMode.READ_ONLY, fileTableOffset, (long) filesCount * FILE_ENTRY_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer namesBuffer = channel.map(MapMode.READ_ONLY, namesOffset, pagesOffset - namesOffset);
+            names = new String[filesCount];
+            for( int i = 0; i < filesCount; i++ ) {
+                int entry = i * FILE_ENTRY_SIZE;
+                int nameOffset = fileTable.getInt(entry + 56);
+                int nameLength = fileTable.getInt(entry + 60);
+                byte[] nameBytes = new byte[nameLength];
+                namesBuffer.position(nameOffset);
+                namesBuffer.get(nameBytes);
+                names[i] = new String(nameBytes, StandardCharsets.UTF_8);
+            }
+            filePages = new ByteBuffer[filesCount];
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open an existing paged index.
+     *
+     * @param file the index file.
+     * @return the opened index.
+     * @throws IOException
+     */
+    public static LasPagedIndex open( File file ) throws IOException {
+        return new LasPagedIndex(file);
+    }
+
+    /**
+     * Get the paged index file that belongs to a main folder index file.
+     *
+     * @param lasFolderIndexFile the main folder index file.
+     * @return the paged index file.
+     */
+    public static File getIndexFile( File lasFolderIndexFile ) {
+        return new File(lasFolderIndexFile.getParentFile(), lasFolderIndexFile.getName() + "." + EXTENSION);
+    }
+
+    /**
+     * Write a paged index.
+     *
+     * @param file the file to write to, overwritten if existing.
+     * @param indexedFiles the files to index.
+     * @throws IOException
+     */
+    public static void write( File file, List<IndexedFile> indexedFiles ) throws IOException {
+        int filesCount = indexedFiles.size();
+        byte[][] nameBytes = new byte[filesCount][];
+        int namesLength = 0;
+        for( int i = 0; i < filesCount; i++ ) {
+            nameBytes[i] = indexedFiles.get(i).name.getBytes(StandardCharsets.UTF_8);
+            namesLength += nameBytes[i].length;
+        }
+        long fileTableOffset = HEADER_SIZE;
+        long namesOffset = fileTableOffset + (long) filesCount * FILE_ENTRY_SIZE;
+        long pagesOffset = align(namesOffset + namesLength);
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to overwrite: " + file);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(0, MAGIC);
+            header.putInt(8, VERSION);
+            header.putInt(12, PAGE_SIZE);
+            header.putInt(16, filesCount);
+            header.putLong(24, fileTableOffset);
+            header.putLong(32, namesOffset);
+            header.putLong(40, pagesOffset);
+            writeFully(channel, header, 0);
+
+            ByteBuffer entry = ByteBuffer.allocate(FILE_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long pageIndex = 0;
+            int nameOffset = 0;
+            for( int i = 0; i < filesCount; i++ ) {
+                IndexedFile indexedFile = indexedFiles.get(i);
+                List<Chunk> chunks = indexedFile.chunks;
+                int pagesCount = (chunks.size() + CHUNKS_PER_PAGE - 1) / CHUNKS_PER_PAGE;
+
+                entry.clear();
+                for( int j = 0; j < 6; j++ ) {
+                    entry.putDouble(j * 8, indexedFile.bounds[j]);
+                }
+                entry.putLong(48, pageIndex);
+                entry.putInt(56, nameOffset);
+                entry.putInt(60, nameBytes[i].length);
+                writeFully(channel, entry, fileTableOffset + (long) i * FILE_ENTRY_SIZE);
+                writeFully(channel, ByteBuffer.wrap(nameBytes[i]), namesOffset + nameOffset);
+                nameOffset += nameBytes[i].length;
+
+                for( int p = 0; p < pagesCount; p++ ) {
+                    int from = p * CHUNKS_PER_PAGE;
+                    int to = Math.min(chunks.size(), from + CHUNKS_PER_PAGE);
+                    Envelope pageEnvelope = new Envelope();
+                    Arrays.fill(page.array(), (byte) 0);
+                    for( int c = from; c < to; c++ ) {
+                        Chunk chunk = chunks.get(c);
+                        pageEnvelope.expandToInclude(chunk.minX, chunk.minY);
+                        pageEnvelope.expandToInclude(chunk.maxX, chunk.maxY);
+                        int pos = PAGE_HEADER_SIZE + (c - from) * CHUNK_SIZE;
+                        page.putDouble(pos, chunk.minX);
+                        page.putDouble(pos + 8, chunk.minY);
+                        page.putDouble(pos + 16, chunk.maxX);
+                        page.putDouble(pos + 24, chunk.maxY);
+                        page.putLong(pos + 32, chunk.fromPoint);
+                        page.putLong(pos + 40, chunk.toPoint);
+                        page.putFloat(pos + 48, (float) chunk.avgElev);
+                        page.putFloat(pos + 52, (float) chunk.avgIntensity);
+                    }
+                    page.putDouble(0, pageEnvelope.getMinX());
+                    page.putDouble(8, pageEnvelope.getMinY());
+                    page.putDouble(16, pageEnvelope.getMaxX());
+                    page.putDouble(24, pageEnvelope.getMaxY());
+                    page.putInt(32, to - from);
+                    page.clear();
+                    writeFully(channel, page, pagesOffset + pageIndex * PAGE_SIZE);
+                    pageIndex++;
+                }
+            }
+            header.putLong(48, pageIndex);
+            writeFully(channel, header, 0);
+            if (channel.size() < pagesOffset) {
+                // pad the names up to the first page, so that the mapped regions are all inside the file
+                writeFully(channel, ByteBuffer.allocate(1), pagesOffset - 1);
+            }
+        }
+    }
+
+    private static long align( long position ) {
+        return (position + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    private static void writeFully( FileChannel channel, ByteBuffer buffer, long position ) throws IOException {
+        buffer.rewind();
+        while( buffer.hasRemaining() ) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * @return the number of indexed files.
+     */
+    public int getFilesCount() {
+        return filesCount;
+    }
+
+    /**
+     * Get the name of an indexed file.
+     *
+     * @param fileIndex the index of the file.
+     * @return the file name, relative to the index folder.
+     */
+    public String getFileName( int fileIndex ) {
+        return names[fileIndex];
+    }
+
+    /**
+     * Get the bounds of an indexed file.
+     *
+     * @param fileIndex the index of the file.
+     * @return the 3d bounds as [minx, miny, minz, maxx, maxy, maxz].
+     */
+    public double[] getFileBounds( int fileIndex ) {
+        double[] bounds = new double[6];
+        int entry = fileIndex * FILE_ENTRY_SIZE;
+        for( int j = 0; j < 6; j++ ) {
+            bounds[j] = fileTable.getDouble(entry + j * 8);
+        }
+        return bounds;
+    }
+
+    /**
+     * Visit all the chunks that intersect an envelope.
+     *
+     * <p>Only the pages of the files and the pages whose bounds intersect the envelope are read.</p>
+     *
+     * @param env the envelope to check.
+     * @param visitor the visitor of the matching chunks.
+     * @throws Exception
+     */
+    public void query( Envelope env, ChunkVisitor visitor ) throws Exception {
+        for( int i = 0; i < filesCount; i++ ) {
+            int entry = i * FILE_ENTRY_SIZE;
+            if (!intersects(env, fileTable.getDouble(entry), fileTable.getDouble(entry + 8), fileTable.getDouble(entry + 24),
+                    fileTable.getDouble(entry + 32))) {
+                continue;
+            }
+            ByteBuffer pages = getPages(i);
+            int pagesCount = pages.capacity() / PAGE_SIZE;
+            for( int p = 0; p < pagesCount; p++ ) {
+                int pageStart = p * PAGE_SIZE;
+                if (!intersects(env, pages.getDouble(pageStart), pages.getDouble(pageStart + 8),
+                        pages.getDouble(pageStart + 16), pages.getDouble(pageStart + 24))) {
+                    continue;
+                }
+                int chunksCount = pages.getInt(pageStart + 32);
+                for( int c = 0; c < chunksCount; c++ ) {
+                    int pos = pageStart + PAGE_HEADER_SIZE + c * CHUNK_SIZE;
+                    if (intersects(env, pages.getDouble(pos), pages.getDouble(pos + 8), pages.getDouble(pos + 16),
+                            pages.getDouble(pos + 24))) {
+                        visitor.visit(i, pages.getLong(pos + 32), pages.getLong(pos + 40), pages.getFloat(pos + 48),
+                                pages.getFloat(pos + 52));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get all the chunks of a file, in index order.
+     *
+     * @param fileIndex the index of the file.
+     * @return the list of chunks.
+     * @throws IOException
+     */
+    public List<Chunk> getChunks( int fileIndex ) throws IOException {
+        ByteBuffer pages = getPages(fileIndex);
+        int pagesCount = pages.capacity() / PAGE_SIZE;
+        List<Chunk> chunks = new ArrayList<>();
+        for( int p = 0; p < pagesCount; p++ ) {
+            int pageStart = p * PAGE_SIZE;
+            int chunksCount = pages.getInt(pageStart + 32);
+            for( int c = 0; c < chunksCount; c++ ) {
+                int pos = pageStart + PAGE_HEADER_SIZE + c * CHUNK_SIZE;
+                chunks.add(new Chunk(pages.getDouble(pos), pages.getDouble(pos + 8), pages.getDouble(pos + 16),
+                        pages.getDouble(pos + 24), pages.getLong(pos + 32), pages.getLong(pos + 40), pages.getFloat(pos + 48),
+                        pages.getFloat(pos + 52)));
+            }
+        }
+        return chunks;
+    }
+
+    private synchronized ByteBuffer getPages( int fileIndex ) throws IOException {
+        ByteBuffer pages = filePages[fileIndex];
+        if (pages == null) {
+            long firstPage = fileTable.getLong(fileIndex * FILE_ENTRY_SIZE + 48);
+            long endPage;
+            if (fileIndex < filesCount - 1) {
+                endPage = fileTable.getLong((fileIndex + 1) * FILE_ENTRY_SIZE + 48);
+            } else {
+                endPage = pagesCount;
+            }
+            MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, pagesOffset + firstPage * PAGE_SIZE,
+                    (endPage - firstPage) * PAGE_SIZE);
+            pages = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            filePages[fileIndex] = pages;
+        }
+        return pages;
+    }
+
+    private static boolean intersects( Envelope env, double minX, double minY, double maxX, double maxY ) {
+        return !(minX > env.getMaxX() || maxX < env.getMinX() || minY > env.getMaxY() || maxY < env.getMinY());
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+}
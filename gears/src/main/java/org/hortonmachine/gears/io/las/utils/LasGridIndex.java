@@ -0,0 +1,179 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.utils;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * A uniform grid index for the planar neighbour search in point clouds.
+ *
+ * <p>The points are bucketed by cell through a counting sort on primitive arrays, so that
+ * no object is created per point. Radius queries visit only the cells overlapping the
+ * search circle. The index is immutable and can be queried from parallel threads.</p>
+ *
+ * <p>The queries pass to the callers the indexes of the points in the original arrays.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LasGridIndex {
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+    /**
+     * The start of each cell in the sorted arrays, cell i goes from cellStart[i] to cellStart[i+1].
+     */
+    private final int[] cellStart;
+    /**
+     * The original indexes of the points, in cell order.
+     */
+    private final int[] sortedIndexes;
+    private final double[] sortedX;
+    private final double[] sortedY;
+
+    /**
+     * Create the index.
+     *
+     * @param x the x coordinates of the points.
+     * @param y the y coordinates of the points.
+     * @param cellSize the size of the grid cells, ideally the most used search radius.
+     *          The cells are enlarged if the grid would be much sparser than the points.
+     */
+    public LasGridIndex( double[] x, double[] y, double cellSize ) {
+        int n = x.length;
+        double tmpMinX = Double.POSITIVE_INFINITY;
+        double tmpMinY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for( int i = 0; i < n; i++ ) {
+            tmpMinX = Math.min(tmpMinX, x[i]);
+            tmpMinY = Math.min(tmpMinY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        if (n == 0) {
+            tmpMinX = tmpMinY = maxX = maxY = 0;
+        }
+        minX = tmpMinX;
+        minY = tmpMinY;
+
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("The cell size has to be positive: " + cellSize);
+        }
+        // keep at most about 4 cells per point
+        long maxCells = Math.max(1L, 4L * n);
+        while( ((long) ((maxX - minX) / cellSize) + 1) * ((long) ((maxY - minY) / cellSize) + 1) > maxCells ) {
+            cellSize *= 2;
+        }
+        this.cellSize = cellSize;
+        cols = (int) ((maxX - minX) / cellSize) + 1;
+        rows = (int) ((maxY - minY) / cellSize) + 1;
+
+        int[] cellOf = new int[n];
+        cellStart = new int[cols * rows + 1];
+        for( int i = 0; i < n; i++ ) {
+            int cell = cellRow(y[i]) * cols + cellCol(x[i]);
+            cellOf[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        for( int i = 0; i < cols * rows; i++ ) {
+            cellStart[i + 1] += cellStart[i];
+        }
+        int[] fill = new int[cols * rows];
+        System.arraycopy(cellStart, 0, fill, 0, cols * rows);
+        sortedIndexes = new int[n];
+        sortedX = new double[n];
+        sortedY = new double[n];
+        for( int i = 0; i < n; i++ ) {
+            int position = fill[cellOf[i]]++;
+            sortedIndexes[position] = i;
+            sortedX[position] = x[i];
+            sortedY[position] = y[i];
+        }
+    }
+
+    /**
+     * Visit the points within a planar distance from a position.
+     *
+     * @param x the x of the center.
+     * @param y the y of the center.
+     * @param radius the search radius, points at exactly this distance are included.
+     * @param consumer the consumer of the indexes of the found points.
+     */
+    public void forEachWithin( double x, double y, double radius, IntConsumer consumer ) {
+        anyWithin(x, y, radius, i -> {
+            consumer.accept(i);
+            return false;
+        });
+    }
+
+    /**
+     * Check if any point within a planar distance from a position satisfies a condition.
+     *
+     * <p>The search stops at the first point for which the condition is true.</p>
+     *
+     * @param x the x of the center.
+     * @param y the y of the center.
+     * @param radius the search radius, points at exactly this distance are included.
+     * @param predicate the condition on the indexes of the found points.
+     * @return <code>true</code> if the condition is true for some point.
+     */
+    public boolean anyWithin( double x, double y, double radius, IntPredicate predicate ) {
+        if (radius < 0 || sortedIndexes.length == 0) {
+            return false;
+        }
+        int fromCol = Math.max(0, cellCol(x - radius));
+        int toCol = Math.min(cols - 1, cellCol(x + radius));
+        int fromRow = Math.max(0, cellRow(y - radius));
+        int toRow = Math.min(rows - 1, cellRow(y + radius));
+        double radius2 = radius * radius;
+        for( int row = fromRow; row <= toRow; row++ ) {
+            for( int col = fromCol; col <= toCol; col++ ) {
+                int cell = row * cols + col;
+                for( int k = cellStart[cell]; k < cellStart[cell + 1]; k++ ) {
+                    double dx = sortedX[k] - x;
+                    double dy = sortedY[k] - y;
+                    if (dx * dx + dy * dy <= radius2 && predicate.test(sortedIndexes[k])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the size of the grid cells.
+     */
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    private int cellCol( double x ) {
+        double col = Math.floor((x - minX) / cellSize);
+        return (int) Math.max(-1, Math.min(cols, col));
+    }
+
+    private int cellRow( double y ) {
+        double row = Math.floor((y - minY) / cellSize);
+        return (int) Math.max(-1, Math.min(rows, row));
+    }
+}
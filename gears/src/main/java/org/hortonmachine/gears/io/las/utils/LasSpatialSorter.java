@@ -0,0 +1,418 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.LasRecordBatch;
+import org.hortonmachine.gears.utils.math.NumericsUtilities;
+
+/**
+ * External memory sorter of point clouds into spatially coherent tiles.
+ *
+ * <p>The bounds are split into a regular grid of tiles. Every point gets a key made of
+ * its tile index followed by the morton code of its position inside the tile, so that
+ * sorting by key groups the points by tile and keeps neighbour points close to each other.</p>
+ *
+ * <p>The points are collected in chunks of primitive arrays. Full chunks are sorted and
+ * spilled to temporary run files, which are then merged with a k-way merge. If all the
+ * points fit in a single chunk, nothing is written to disk.</p>
+ *
+ * <p>The tiles are numbered by column first, starting from the west, and by row inside
+ * the column, starting from the south.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LasSpatialSorter implements AutoCloseable {
+
+    /**
+     * Consumer of the sorted points.
+     */
+    public static interface ISortedPointConsumer {
+        /**
+         * Consume a point.
+         *
+         * @param tile the index of the tile of the point.
+         * @param record the point. The record instance is reused, it must not be kept.
+         * @throws Exception
+         */
+        void accept( int tile, LasRecord record ) throws Exception;
+    }
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+    private final double tileWidth;
+    private final double tileHeight;
+    private final int tileCols;
+    private final int tileRows;
+    private final File tmpFolder;
+
+    private final int positionBits;
+    private final int mortonBits;
+    private final double mortonCells;
+
+    private final LasRecordBatch chunk;
+    private final long[] chunkKeys;
+    private final List<File> runFiles = new ArrayList<>();
+    private long pointsNum = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param minX the west bound.
+     * @param minY the south bound.
+     * @param maxX the east bound.
+     * @param maxY the north bound.
+     * @param tileCols the number of tile columns.
+     * @param tileRows the number of tile rows.
+     * @param chunkSize the number of points sorted in memory before spilling to disk.
+     * @param tmpFolder the folder for the temporary run files, if <code>null</code> the system
+     *          temporary folder is used.
+     */
+    public LasSpatialSorter( double minX, double minY, double maxX, double maxY, int tileCols, int tileRows, int chunkSize,
+            File tmpFolder ) {
+        if (tileCols < 1 || tileRows < 1) {
+            throw new IllegalArgumentException("The number of tile rows and cols has to be positive.");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size has to be positive: " + chunkSize);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.tileCols = tileCols;
+        this.tileRows = tileRows;
+        this.tmpFolder = tmpFolder;
+        tileWidth = (maxX - minX) / tileCols;
+        tileHeight = (maxY - minY) / tileRows;
+
+        // the sort key is tile | morton | position in chunk, in 63 bits
+        int tileBits = bitsFor(tileCols * (long) tileRows);
+        positionBits = bitsFor(chunkSize);
+        mortonBits = Math.min(16, (63 - tileBits - positionBits) / 2);
+        if (mortonBits < 1) {
+            throw new IllegalArgumentException("Too many tiles or too big chunks for the sort keys.");
+        }
+        mortonCells = 1 << mortonBits;
+
+        chunk = new LasRecordBatch(chunkSize);
+        chunk.color = new short[chunkSize * 3];
+        chunkKeys = new long[chunkSize];
+    }
+
+    /**
+     * Get the tile of a position, positions out of the bounds go to the nearest tile.
+     *
+     * @param x the x coordinate.
+     * @param y the y coordinate.
+     * @return the tile index.
+     */
+    public int getTile( double x, double y ) {
+        return tileCol(x) * tileRows + tileRow(y);
+    }
+
+    /**
+     * Get the bounds of a tile.
+     *
+     * <p>These are the bounds used to assign the points to the tiles, a point is in the
+     * tile if it is on the west or south bound or inside it.</p>
+     *
+     * @param tile the tile index.
+     * @return the bounds as [west, east, south, north].
+     */
+    public double[] getTileBounds( int tile ) {
+        int col = tile / tileRows;
+        int row = tile % tileRows;
+        return new double[]{colBound(col), colBound(col + 1), rowBound(row), rowBound(row + 1)};
+    }
+
+    /**
+     * Get the sort key of a position.
+     *
+     * @param x the x coordinate.
+     * @param y the y coordinate.
+     * @return the key, made of the tile index and the morton code inside the tile.
+     */
+    public long getKey( double x, double y ) {
+        int col = tileCol(x);
+        int row = tileRow(y);
+        double fx = tileWidth > 0 ? (x - minX - col * tileWidth) / tileWidth : 0;
+        double fy = tileHeight > 0 ? (y - minY - row * tileHeight) / tileHeight : 0;
+        int cellX = (int) Math.max(0, Math.min(mortonCells - 1, Math.floor(fx * mortonCells)));
+        int cellY = (int) Math.max(0, Math.min(mortonCells - 1, Math.floor(fy * mortonCells)));
+        long tile = col * (long) tileRows + row;
+        return (tile << (2 * mortonBits)) | NumericsUtilities.mortonCode(cellX, cellY);
+    }
+
+    /**
+     * Add a batch of points.
+     *
+     * @param batch the points to add, the columns set to <code>null</code> are stored as 0.
+     * @throws IOException
+     */
+    public void add( LasRecordBatch batch ) throws IOException {
+        for( int i = 0; i < batch.size; i++ ) {
+            if (chunk.size == chunk.capacity) {
+                spill();
+            }
+            int k = chunk.size++;
+            chunk.x[k] = batch.x[i];
+            chunk.y[k] = batch.y[i];
+            chunk.z[k] = batch.z != null ? batch.z[i] : 0;
+            chunk.intensity[k] = batch.intensity != null ? batch.intensity[i] : 0;
+            chunk.classification[k] = batch.classification != null ? batch.classification[i] : 0;
+            chunk.returnNumber[k] = batch.returnNumber != null ? batch.returnNumber[i] : 0;
+            chunk.numberOfReturns[k] = batch.numberOfReturns != null ? batch.numberOfReturns[i] : 0;
+            chunk.gpsTime[k] = batch.gpsTime != null ? batch.gpsTime[i] : 0;
+            for( int c = 0; c < 3; c++ ) {
+                chunk.color[k * 3 + c] = batch.color != null ? batch.color[i * 3 + c] : 0;
+            }
+            pointsNum++;
+        }
+    }
+
+    /**
+     * @return the number of points added.
+     */
+    public long getPointsNum() {
+        return pointsNum;
+    }
+
+    /**
+     * @return the number of run files spilled to disk.
+     */
+    public int getRunsNum() {
+        return runFiles.size();
+    }
+
+    /**
+     * Pass all the added points to a consumer, sorted by tile and by morton order inside the tile.
+     *
+     * <p>Points with the same key keep the order in which they were added.</p>
+     *
+     * @param consumer the consumer of the sorted points.
+     * @throws Exception
+     */
+    public void merge( ISortedPointConsumer consumer ) throws Exception {
+        int tileShift = 2 * mortonBits;
+        if (runFiles.isEmpty()) {
+            sortChunk();
+            LasRecord record = new LasRecord();
+            for( int i = 0; i < chunk.size; i++ ) {
+                int k = (int) (chunkKeys[i] & ((1L << positionBits) - 1));
+                fillRecord(k, record);
+                consumer.accept((int) ((chunkKeys[i] >>> positionBits) >>> tileShift), record);
+            }
+            return;
+        }
+
+        if (chunk.size > 0) {
+            spill();
+        }
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(runFiles.size(), ( r1, r2 ) -> {
+            int compare = Long.compare(r1.key, r2.key);
+            return compare != 0 ? compare : Integer.compare(r1.index, r2.index);
+        });
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            for( int i = 0; i < runFiles.size(); i++ ) {
+                RunReader reader = new RunReader(runFiles.get(i), i);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            while( !queue.isEmpty() ) {
+                RunReader reader = queue.poll();
+                consumer.accept((int) (reader.key >>> tileShift), reader.record);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for( RunReader reader : readers ) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Delete the temporary run files.
+     */
+    @Override
+    public void close() {
+        for( File runFile : runFiles ) {
+            runFile.delete();
+        }
+        runFiles.clear();
+    }
+
+    /**
+     * Sort the chunk and write it to a new run file.
+     */
+    private void spill() throws IOException {
+        sortChunk();
+        File runFile = File.createTempFile("lassort_", ".run", tmpFolder);
+        runFiles.add(runFile);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(runFile), IO_BUFFER_SIZE))) {
+            for( int i = 0; i < chunk.size; i++ ) {
+                int k = (int) (chunkKeys[i] & ((1L << positionBits) - 1));
+                out.writeLong(chunkKeys[i] >>> positionBits);
+                out.writeDouble(chunk.x[k]);
+                out.writeDouble(chunk.y[k]);
+                out.writeDouble(chunk.z[k]);
+                out.writeShort(chunk.intensity[k]);
+                out.writeShort(chunk.returnNumber[k]);
+                out.writeShort(chunk.numberOfReturns[k]);
+                out.writeByte(chunk.classification[k]);
+                out.writeDouble(chunk.gpsTime[k]);
+                out.writeShort(chunk.color[k * 3]);
+                out.writeShort(chunk.color[k * 3 + 1]);
+                out.writeShort(chunk.color[k * 3 + 2]);
+            }
+        }
+        chunk.size = 0;
+    }
+
+    /**
+     * Sort the chunk keys, which carry the position of the point in the chunk in the lowest bits.
+     */
+    private void sortChunk() {
+        for( int i = 0; i < chunk.size; i++ ) {
+            chunkKeys[i] = (getKey(chunk.x[i], chunk.y[i]) << positionBits) | i;
+        }
+        Arrays.parallelSort(chunkKeys, 0, chunk.size);
+    }
+
+    private void fillRecord( int k, LasRecord record ) {
+        record.x = chunk.x[k];
+        record.y = chunk.y[k];
+        record.z = chunk.z[k];
+        record.intensity = chunk.intensity[k];
+        record.returnNumber = chunk.returnNumber[k];
+        record.numberOfReturns = chunk.numberOfReturns[k];
+        record.classification = chunk.classification[k];
+        record.gpsTime = chunk.gpsTime[k];
+        record.color[0] = chunk.color[k * 3];
+        record.color[1] = chunk.color[k * 3 + 1];
+        record.color[2] = chunk.color[k * 3 + 2];
+    }
+
+    private int tileCol( double x ) {
+        if (!(tileWidth > 0)) {
+            return 0;
+        }
+        int col = (int) Math.max(0, Math.min(tileCols - 1, Math.floor((x - minX) / tileWidth)));
+        // the division can round across a bound, the bounds have the last word
+        if (col > 0 && x < colBound(col)) {
+            col--;
+        } else if (col < tileCols - 1 && x >= colBound(col + 1)) {
+            col++;
+        }
+        return col;
+    }
+
+    private int tileRow( double y ) {
+        if (!(tileHeight > 0)) {
+            return 0;
+        }
+        int row = (int) Math.max(0, Math.min(tileRows - 1, Math.floor((y - minY) / tileHeight)));
+        if (row > 0 && y < rowBound(row)) {
+            row--;
+        } else if (row < tileRows - 1 && y >= rowBound(row + 1)) {
+            row++;
+        }
+        return row;
+    }
+
+    private double colBound( int col ) {
+        return col == tileCols ? maxX : minX + col * tileWidth;
+    }
+
+    private double rowBound( int row ) {
+        return row == tileRows ? maxY : minY + row * tileHeight;
+    }
+
+    private static int bitsFor( long values ) {
+        return 64 - Long.numberOfLeadingZeros(Math.max(1, values - 1));
+    }
+
+    /**
+     * Sequential reader of a run file.
+     */
+    private static class RunReader implements AutoCloseable {
+        final int index;
+        final DataInputStream in;
+        final LasRecord record = new LasRecord();
+        long key;
+
+        RunReader( File runFile, int index ) throws IOException {
+            this.index = index;
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), IO_BUFFER_SIZE));
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @return <code>false</code> if the run is finished.
+         */
+        boolean next() throws IOException {
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            record.x = in.readDouble();
+            record.y = in.readDouble();
+            record.z = in.readDouble();
+            record.intensity = in.readShort();
+            record.returnNumber = in.readShort();
+            record.numberOfReturns = in.readShort();
+            record.classification = in.readByte();
+            record.gpsTime = in.readDouble();
+            record.color[0] = in.readShort();
+            record.color[1] = in.readShort();
+            record.color[2] = in.readShort();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
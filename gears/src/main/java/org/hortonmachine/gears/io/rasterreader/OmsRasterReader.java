@@ -66,6 +66,7 @@ import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.locationtech.jts.geom.Envelope;
 import org.opengis.geometry.DirectPosition;
 import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import oms3.annotations.Author;
@@ -164,6 +165,12 @@ public class OmsRasterReader extends HMModel {
      */
     public boolean doEnvelope = false;
 
+    /**
+     * Flag to read the data lazily, tile by tile, when they are requested (for example by a
+     * {@link RasterBlockReader}) instead of loading them all at once.
+     */
+    public boolean doDeferred = false;
+
     /**
      * The original envelope of the coverage.
      */
@@ -217,6 +224,11 @@ public class OmsRasterReader extends HMModel {
                     }
                     originalEnvelope = rasterReader.getOriginalEnvelope();
                     if (!doEnvelope) {
+                        if (doDeferred && generalParameter == null) {
+                            ParameterValue<Boolean> useJaiRead = AbstractGridFormat.USE_JAI_IMAGEREAD.createValue();
+                            useJaiRead.setValue(true);
+                            generalParameter = new GeneralParameterValue[]{useJaiRead};
+                        }
                         outRaster = rasterReader.read(generalParameter);
                         resample();
 //                        checkNovalues();
@@ -0,0 +1,98 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.rasterreader;
+
+/**
+ * A block of whole raster rows.
+ * 
+ * <p>The values are stored row by row, the block contains {@link #getRows()} rows
+ * starting from the raster row {@link #getStartRow()}.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class RasterBlock {
+
+    private final int cols;
+    private final double[] values;
+    private int startRow;
+    private int rows;
+
+    /**
+     * Create a block with the given maximum number of rows.
+     * 
+     * @param cols the columns of the raster.
+     * @param maxRows the maximum number of rows the block can contain.
+     */
+    public RasterBlock( int cols, int maxRows ) {
+        this.cols = cols;
+        this.values = new double[cols * maxRows];
+    }
+
+    void set( int startRow, int rows ) {
+        this.startRow = startRow;
+        this.rows = rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * @return the raster row of the first row of the block.
+     */
+    public int getStartRow() {
+        return startRow;
+    }
+
+    /**
+     * @return the number of valid rows in the block.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the backing array of the block. Only the first <code>cols * rows</code> values are valid.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * Get a value of the block.
+     * 
+     * @param col the column.
+     * @param row the row relative to the block start.
+     * @return the value.
+     */
+    public double getValue( int col, int row ) {
+        return values[row * cols + col];
+    }
+
+    /**
+     * Set a value of the block.
+     * 
+     * @param col the column.
+     * @param row the row relative to the block start.
+     * @param value the value to set.
+     */
+    public void setValue( int col, int row, double value ) {
+        values[row * cols + col] = value;
+    }
+
+}
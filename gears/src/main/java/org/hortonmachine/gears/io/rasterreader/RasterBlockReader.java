@@ -0,0 +1,155 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.rasterreader;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Iterator over a raster by blocks of rows.
+ * 
+ * <p>Only the tiles or strips of the image needed by the current block are pulled, so if the
+ * coverage is read with deferred loading (see {@link #open(String, int)}) the memory used depends
+ * on the block size and not on the raster size.</p>
+ * 
+ * <p>The same {@link RasterBlock} instance is reused, each call to {@link #next()} overwrites
+ * the values of the previous block.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class RasterBlockReader implements Iterator<RasterBlock>, AutoCloseable {
+
+    public static final int DEFAULT_BLOCK_ROWS = 256;
+
+    private final GridCoverage2D coverage;
+    private final RenderedImage image;
+    private final RegionMap regionMap;
+    private final double novalue;
+    private final int cols;
+    private final int rows;
+    private final int blockRows;
+    private final boolean ownsCoverage;
+    private final RasterBlock block;
+    private int nextRow = 0;
+
+    /**
+     * Create a block reader on an existing coverage.
+     * 
+     * @param coverage the coverage to read.
+     * @param blockRows the number of rows per block.
+     */
+    public RasterBlockReader( GridCoverage2D coverage, int blockRows ) {
+        this(coverage, blockRows, false);
+    }
+
+    private RasterBlockReader( GridCoverage2D coverage, int blockRows, boolean ownsCoverage ) {
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("The number of rows per block needs to be positive.");
+        }
+        this.coverage = coverage;
+        this.ownsCoverage = ownsCoverage;
+        image = coverage.getRenderedImage();
+        regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(coverage);
+        novalue = HMConstants.getNovalue(coverage);
+        cols = image.getWidth();
+        rows = image.getHeight();
+        this.blockRows = Math.min(blockRows, rows);
+        block = new RasterBlock(cols, this.blockRows);
+    }
+
+    /**
+     * Open a raster file for block reading, loading its data only on demand.
+     * 
+     * @param path the path to the raster file.
+     * @param blockRows the number of rows per block.
+     * @return the block reader.
+     * @throws Exception
+     */
+    public static RasterBlockReader open( String path, int blockRows ) throws Exception {
+        OmsRasterReader reader = new OmsRasterReader();
+        reader.file = path;
+        reader.doDeferred = true;
+        reader.process();
+        return new RasterBlockReader(reader.outRaster, blockRows, true);
+    }
+
+    public GridCoverage2D getCoverage() {
+        return coverage;
+    }
+
+    public RegionMap getRegionMap() {
+        return regionMap;
+    }
+
+    public CoordinateReferenceSystem getCrs() {
+        return coverage.getCoordinateReferenceSystem();
+    }
+
+    public double getNovalue() {
+        return novalue;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getBlockRows() {
+        return blockRows;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextRow < rows;
+    }
+
+    @Override
+    public RasterBlock next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int n = Math.min(blockRows, rows - nextRow);
+        int x = image.getMinX();
+        int y = image.getMinY() + nextRow;
+        Raster data = image.getData(new Rectangle(x, y, cols, n));
+        data.getSamples(x, y, cols, n, 0, block.getValues());
+        block.set(nextRow, n);
+        nextRow += n;
+        return block;
+    }
+
+    @Override
+    public void close() {
+        if (ownsCoverage) {
+            coverage.dispose(true);
+        }
+    }
+
+}
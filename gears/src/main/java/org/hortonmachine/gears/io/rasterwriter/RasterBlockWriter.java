@@ -0,0 +1,221 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.rasterwriter;
+
+import static org.hortonmachine.gears.libs.modules.HMConstants.ESRIGRID;
+
+import java.awt.image.DataBuffer;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.io.rasterreader.RasterBlock;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.CrsUtilities;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.MappedTiledImage;
+import org.hortonmachine.gears.utils.coverage.MappedTiledRaster;
+import org.hortonmachine.gears.utils.math.NumericsUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Incremental writer of raster row blocks.
+ * 
+ * <p>ASCII grids with square cells are streamed directly to the file, so the blocks have to be
+ * written in row order. For any other format the blocks are collected in a {@link MappedTiledRaster}
+ * and written through the {@link OmsRasterWriter} on {@link #close()}, which pulls the tiles
+ * from disk as needed. In both cases the heap used does not depend on the raster size.</p>
+ * 
+ * <p>If the writing fails, {@link #abort()} discards what was written so far, instead of
+ * completing the raster as {@link #close()} does.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class RasterBlockWriter implements AutoCloseable {
+
+    private final String path;
+    private final RegionMap regionMap;
+    private final CoordinateReferenceSystem crs;
+    private final double novalue;
+    private final int cols;
+    private final int rows;
+
+    private BufferedWriter ascWriter;
+    private double ascNovalue;
+    private MappedTiledRaster mappedRaster;
+    private int nextRow = 0;
+
+    /**
+     * Create a new block writer.
+     * 
+     * @param path the path of the raster file to write.
+     * @param regionMap the region of the raster.
+     * @param crs the {@link CoordinateReferenceSystem} of the raster.
+     * @param novalue the novalue of the written blocks.
+     * @throws IOException
+     */
+    public RasterBlockWriter( String path, RegionMap regionMap, CoordinateReferenceSystem crs, double novalue )
+            throws IOException {
+        this.path = path;
+        this.regionMap = regionMap;
+        this.crs = crs;
+        this.novalue = novalue;
+        cols = regionMap.getCols();
+        rows = regionMap.getRows();
+
+        boolean isAsc = path.toLowerCase().endsWith(ESRIGRID);
+        if (isAsc && NumericsUtilities.dEq(regionMap.getXres(), regionMap.getYres())) {
+            ascNovalue = Double.isNaN(novalue) ? -9999.0 : novalue;
+            ascWriter = new BufferedWriter(new FileWriter(path), 1 << 16);
+            ascWriter.write("NCOLS " + cols + "\n");
+            ascWriter.write("NROWS " + rows + "\n");
+            ascWriter.write("XLLCORNER " + regionMap.getWest() + "\n");
+            ascWriter.write("YLLCORNER " + regionMap.getSouth() + "\n");
+            ascWriter.write("CELLSIZE " + regionMap.getXres() + "\n");
+            ascWriter.write("NODATA_VALUE " + format(ascNovalue) + "\n");
+        } else {
+            File folder = new File(path).getAbsoluteFile().getParentFile();
+            mappedRaster = new MappedTiledRaster(cols, rows, DataBuffer.TYPE_DOUBLE, MappedTiledRaster.DEFAULT_TILE_SIZE,
+                    novalue, folder);
+        }
+    }
+
+    /**
+     * Write a block.
+     * 
+     * @param block the block to write.
+     * @throws IOException
+     */
+    public void write( RasterBlock block ) throws IOException {
+        write(block.getStartRow(), block.getRows(), block.getValues());
+    }
+
+    /**
+     * Write a block of rows.
+     * 
+     * @param startRow the raster row of the first row of the block.
+     * @param blockRows the number of rows in the block.
+     * @param values the values of the block, row by row.
+     * @throws IOException
+     */
+    public void write( int startRow, int blockRows, double[] values ) throws IOException {
+        if (startRow < 0 || startRow + blockRows > rows) {
+            throw new IOException("The block rows are outside of the raster: " + startRow + "-" + (startRow + blockRows));
+        }
+        if (ascWriter != null) {
+            if (startRow != nextRow) {
+                throw new IOException("ASCII grid blocks need to be written in row order, expected row: " + nextRow);
+            }
+            for( int r = 0; r < blockRows; r++ ) {
+                writeAscRow(values, r * cols);
+            }
+        } else {
+            for( int r = 0; r < blockRows; r++ ) {
+                int offset = r * cols;
+                for( int c = 0; c < cols; c++ ) {
+                    mappedRaster.setSample(c, startRow + r, 0, values[offset + c]);
+                }
+            }
+        }
+        nextRow = startRow + blockRows;
+    }
+
+    private void writeAscRow( double[] values, int offset ) throws IOException {
+        for( int c = 0; c < cols; c++ ) {
+            double value = values[offset + c];
+            if (HMConstants.isNovalue(value, novalue)) {
+                value = ascNovalue;
+            }
+            if (c > 0) {
+                ascWriter.write(' ');
+            }
+            ascWriter.write(format(value));
+        }
+        ascWriter.write('\n');
+    }
+
+    private static String format( double value ) {
+        if (value == Math.rint(value) && Math.abs(value) < 1E15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Discard the raster, deleting what was written so far.
+     * 
+     * <p>To be called when the writing failed, a following {@link #close()} does nothing.</p>
+     * 
+     * @throws IOException
+     */
+    public void abort() throws IOException {
+        if (ascWriter != null) {
+            try {
+                ascWriter.close();
+            } finally {
+                ascWriter = null;
+                new File(path).delete();
+            }
+        } else if (mappedRaster != null) {
+            try {
+                mappedRaster.close();
+            } finally {
+                mappedRaster = null;
+            }
+        }
+    }
+
+    /**
+     * Complete the raster, rows never written are set to novalue.
+     */
+    @Override
+    public void close() throws Exception {
+        if (ascWriter != null) {
+            // rows never written are novalue
+            double[] empty = null;
+            while( nextRow < rows ) {
+                if (empty == null) {
+                    empty = new double[cols];
+                    Arrays.fill(empty, ascNovalue);
+                }
+                writeAscRow(empty, 0);
+                nextRow++;
+            }
+            ascWriter.close();
+            ascWriter = null;
+            if (crs != null) {
+                CrsUtilities.writeProjectionFile(path, ESRIGRID, crs);
+            }
+        } else if (mappedRaster != null) {
+            try {
+                String name = new File(path).getName();
+                GridCoverage2D coverage = CoverageUtilities.buildCoverageWithNovalue(name, new MappedTiledImage(mappedRaster),
+                        regionMap, crs, novalue);
+                OmsRasterWriter.writeRaster(path, coverage);
+            } finally {
+                mappedRaster.close();
+                mappedRaster = null;
+            }
+        }
+    }
+
+}
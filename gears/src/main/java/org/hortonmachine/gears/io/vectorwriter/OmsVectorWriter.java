@@ -33,17 +33,10 @@ import java.io.IOException;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.FeatureCollection;
-import org.hortonmachine.dbs.compat.EDb;
-import org.hortonmachine.dbs.geopackage.GeopackageCommonDb;
-import org.hortonmachine.dbs.utils.SqlName;
-import org.hortonmachine.gears.io.shapefile.OmsShapefileFeatureWriter;
-import org.hortonmachine.gears.libs.exceptions.ModelsIOException;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
-import org.hortonmachine.gears.spatialite.SpatialDbsImportUtils;
-import org.hortonmachine.gears.utils.CrsUtilities;
-import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.hortonmachine.gears.utils.features.FeatureSink;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -107,50 +100,20 @@ public class OmsVectorWriter extends HMModel {
         checkNull(file);
 
         File vectorFile = new File(file);
-        if (inVector.size() == 0) {
+        // isEmpty doesn't need to iterate lazy collections
+        if (inVector.isEmpty()) {
             pm.message("Warning, not writing an empty vector to file: " + vectorFile.getName());
             return;
         }
+        String path = file;
         String name = vectorFile.getName();
-        if (name.toLowerCase().endsWith(HMConstants.SHP) || (pType != null && pType.equals(HMConstants.SHP))) {
-            if (vectorFile.exists() && !doOverwrite) {
-                throw new ModelsIOException("Overwriting is disabled. First delete the data.", this);
-            }
-            OmsShapefileFeatureWriter.writeShapefile(vectorFile.getAbsolutePath(), inVector, pm);
-        } else if (name.toLowerCase().contains("." + HMConstants.GPKG)) {
-            if (!name.contains(HMConstants.DB_TABLE_PATH_SEPARATOR)) {
-                throw new ModelsIllegalargumentException(
-                        "The table name needs to be specified in the geopackage path after the #.", this);
-            }
-            String[] split = file.split(HMConstants.DB_TABLE_PATH_SEPARATOR);
-            if (split.length == 1 || split[1].trim().length() == 0) {
-                throw new ModelsIllegalargumentException(
-                        "The geopackage contains several tables, the table neame needs to be specified in the path after the #.",
-                        this);
-            }
-            SqlName table = SqlName.m(split[1]);
-            String dbPath = split[0];
-
-            try (GeopackageCommonDb db = (GeopackageCommonDb) EDb.GEOPACKAGE.getSpatialDb()) {
-                boolean existed = db.open(dbPath);
-                db.initSpatialMetadata(null);
-
-                CoordinateReferenceSystem crs = inVector.getBounds().getCoordinateReferenceSystem();
-                int srid = CrsUtilities.getSrid(crs);
-                db.addCRS("EPSG", srid, crs.toWKT());
-
-                if (db.hasTable(table) && !doOverwrite) {
-                    throw new ModelsIOException("Overwriting is disabled. First delete the data.", this);
-                }
-
-                if (!db.hasTable(table) || !existed) {
-                    SpatialDbsImportUtils.createTableFromSchema(db, inVector.getSchema(), table, null, false);
-                }
-                SpatialDbsImportUtils.importFeatureCollection(db, inVector, table, -1, false, pm);
-            }
-        } else {
-            throw new IOException("Format is currently not supported for file: " + name);
+        if (!name.toLowerCase().endsWith(HMConstants.SHP) && pType != null && pType.equals(HMConstants.SHP)) {
+            path = file + "." + HMConstants.SHP;
+        } else if (name.toLowerCase().contains("." + HMConstants.GPKG) && !name.contains(HMConstants.DB_TABLE_PATH_SEPARATOR)) {
+            throw new ModelsIllegalargumentException(
+                    "The table name needs to be specified in the geopackage path after the #.", this);
         }
+        FeatureSink.write(inVector, path, doOverwrite, pm);
     }
 
     /**
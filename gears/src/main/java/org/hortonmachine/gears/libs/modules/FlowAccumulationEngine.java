@@ -0,0 +1,534 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules;
+
+import static org.hortonmachine.gears.libs.modules.PriorityFloodEngine.DCOL;
+import static org.hortonmachine.gears.libs.modules.PriorityFloodEngine.DROW;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+import javax.media.jai.iterator.RandomIter;
+
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+
+/**
+ * An accumulation engine that works in topological order on primitive arrays.
+ *
+ * <p>The in-degree of every cell, i.e. the number of cells draining into it, is
+ * computed once. The accumulation then starts from the cells with no donors and
+ * a cell is processed as soon as its last donor is done (Kahn's algorithm), so that
+ * every cell is visited exactly once. The sources are split among the workers and a
+ * confluence is continued by the worker that completes it, which lets independent
+ * basins and branches run in parallel without locks.</p>
+ *
+ * <p>Cells that are part of a loop, or drain into one, never reach an in-degree of
+ * zero: they are left over at the end of the run and can be queried through
+ * {@link #getUnresolvedCount()} and {@link #getLoops()}.</p>
+ *
+ * <p>The flowdirections are kept in a byte grid indexed by <code>row * cols + col</code>,
+ * holding the exiting flow values 1 to 8 as in {@link Direction}, 0 for cells that don't
+ * drain into another cell of the grid (outlets, cells heading outside or into novalues)
+ * and -1 for invalid cells.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class FlowAccumulationEngine {
+
+    private static final int SOURCES_CHUNK = 1024;
+
+    private final int cols;
+    private final int rows;
+    private final byte[] flow;
+
+    private IHMProgressMonitor pm = new DummyProgressMonitor();
+
+    private AccumulationGraph lastGraph;
+    private AtomicIntegerArray inDegree;
+    private int unresolvedCount = 0;
+
+    /**
+     * Create the engine reading the flowdirections from a raster iterator.
+     *
+     * @param flowIter the flowdirections iterator.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @param novalue the novalue of the raster.
+     */
+    public FlowAccumulationEngine( RandomIter flowIter, int cols, int rows, double novalue ) {
+        this(cols, rows);
+        IntStream.range(0, rows).parallel().forEach(r -> {
+            int offset = r * cols;
+            for( int c = 0; c < cols; c++ ) {
+                setFlow(offset + c, flowIter.getSampleDouble(c, r, 0), novalue);
+            }
+        });
+        resolveReceivers();
+    }
+
+    /**
+     * Create the engine on an existing flowdirections grid.
+     *
+     * @param flowGrid the row major flowdirections grid.
+     * @param cols the cols of the grid.
+     * @param rows the rows of the grid.
+     * @param novalue the novalue of the grid.
+     */
+    public FlowAccumulationEngine( int[] flowGrid, int cols, int rows, int novalue ) {
+        this(cols, rows);
+        if (flowGrid.length != flow.length) {
+            throw new IllegalArgumentException("The grid size doesn't match the given cols and rows.");
+        }
+        for( int i = 0; i < flowGrid.length; i++ ) {
+            setFlow(i, flowGrid[i], novalue);
+        }
+        resolveReceivers();
+    }
+
+    private FlowAccumulationEngine( int cols, int rows ) {
+        this.cols = cols;
+        this.rows = rows;
+        flow = new byte[cols * rows];
+    }
+
+    private void setFlow( int index, double value, double novalue ) {
+        if (HMConstants.isNovalue(value, novalue)) {
+            flow[index] = -1;
+        } else {
+            int f = (int) value;
+            flow[index] = f >= 1 && f <= 8 ? (byte) f : 0;
+        }
+    }
+
+    /**
+     * Mark as not draining the cells that flow outside of the grid or into invalid cells.
+     */
+    private void resolveReceivers() {
+        IntStream.range(0, rows).parallel().forEach(r -> {
+            int offset = r * cols;
+            for( int c = 0; c < cols; c++ ) {
+                int f = flow[offset + c];
+                if (f > 0 && receiverOf(c, r, f) < 0) {
+                    flow[offset + c] = 0;
+                }
+            }
+        });
+    }
+
+    public void setProgressMonitor( IHMProgressMonitor pm ) {
+        this.pm = pm;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int index( int col, int row ) {
+        return row * cols + col;
+    }
+
+    /**
+     * @param index the cell index.
+     * @return <code>true</code> if the cell has a valid flowdirection.
+     */
+    public boolean isValid( int index ) {
+        return flow[index] >= 0;
+    }
+
+    /**
+     * Exclude a cell from the accumulation, as if its flowdirection was novalue.
+     *
+     * <p>Cells draining into the excluded cell become outlets.</p>
+     *
+     * @param index the cell index.
+     */
+    public void invalidate( int index ) {
+        if (flow[index] < 0) {
+            return;
+        }
+        int col = index % cols;
+        int row = index / cols;
+        for( int d = 0; d < 8; d++ ) {
+            int n = neighbour(col, row, d);
+            if (n >= 0 && flow[n] > 0 && receiver(n) == index) {
+                flow[n] = 0;
+            }
+        }
+        flow[index] = -1;
+    }
+
+    /**
+     * @param index the cell index.
+     * @return the index of the cell the given cell drains into or -1.
+     */
+    public int receiver( int index ) {
+        int f = flow[index];
+        if (f <= 0) {
+            return -1;
+        }
+        return receiverOf(index % cols, index / cols, f);
+    }
+
+    /**
+     * @param index the cell index.
+     * @return the exiting flow value of the cell, 1 to 8, 0 if it doesn't drain
+     *          into another cell of the grid, -1 if invalid.
+     */
+    public int getFlow( int index ) {
+        return flow[index];
+    }
+
+    /**
+     * Check if a cell is at the border of the grid or of the valid data.
+     *
+     * @param index the cell index.
+     * @return <code>true</code> if one of the neighbours is outside or invalid.
+     */
+    public boolean touchesBound( int index ) {
+        int col = index % cols;
+        int row = index / cols;
+        for( int d = 0; d < 8; d++ ) {
+            int n = neighbour(col, row, d);
+            if (n < 0 || flow[n] < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Accumulate values downstream following the flowdirections.
+     *
+     * <p>The result of every valid cell is its own weight plus the result of all the cells
+     * draining into it.</p>
+     *
+     * @param weights the weight of every cell or <code>null</code> to count the cells (i.e. the tca).
+     * @return the accumulated grid, with NaN for invalid cells and for cells affected by loops.
+     * @throws Exception
+     */
+    public double[] accumulate( double[] weights ) throws Exception {
+        double[] result = new double[flow.length];
+        Arrays.fill(result, Double.NaN);
+        run(new AccumulationGraph(){
+            @Override
+            public boolean isValid( int index ) {
+                return flow[index] >= 0;
+            }
+
+            @Override
+            public int getReceivers( int index, int[] receivers ) {
+                int r = receiver(index);
+                if (r < 0) {
+                    return 0;
+                }
+                receivers[0] = r;
+                return 1;
+            }
+
+            @Override
+            public void process( int index ) {
+                int col = index % cols;
+                int row = index / cols;
+                double value = weights == null ? 1.0 : weights[index];
+                for( int d = 0; d < 8; d++ ) {
+                    int n = neighbour(col, row, d);
+                    if (n >= 0 && flow[n] > 0 && receiver(n) == index) {
+                        value += result[n];
+                    }
+                }
+                result[index] = value;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Propagate values upstream, from the given seeds to all the cells draining into them.
+     *
+     * <p>Every seed is processed with its basin by a single worker, seeds are processed in parallel.</p>
+     *
+     * @param seeds the indexes of the cells to start from.
+     * @param seedValues the values of the seeds.
+     * @param calculator the calculator of the value of a donor from the value of its receiver.
+     * @return the propagated grid, with NaN for the cells not draining into any seed.
+     * @throws Exception
+     */
+    public double[] propagateUpstream( int[] seeds, double[] seedValues, UpstreamCalculator calculator ) throws Exception {
+        double[] result = new double[flow.length];
+        Arrays.fill(result, Double.NaN);
+        pm.beginTask("Propagating upstream...", seeds.length);
+        IntStream.range(0, seeds.length).parallel().forEach(s -> {
+            if (pm.isCanceled()) {
+                return;
+            }
+            IntStack stack = new IntStack(64);
+            result[seeds[s]] = seedValues[s];
+            stack.push(seeds[s]);
+            while( !stack.isEmpty() ) {
+                int index = stack.pop();
+                int col = index % cols;
+                int row = index / cols;
+                for( int d = 0; d < 8; d++ ) {
+                    int n = neighbour(col, row, d);
+                    if (n >= 0 && flow[n] > 0 && receiver(n) == index && Double.isNaN(result[n])) {
+                        result[n] = calculator.calculate(n, flow[n], index, result[index]);
+                        stack.push(n);
+                    }
+                }
+            }
+            pm.worked(1);
+        });
+        pm.done();
+        return result;
+    }
+
+    /**
+     * Run a topologically ordered accumulation on a generic drainage graph.
+     *
+     * <p>{@link AccumulationGraph#process(int)} is called exactly once for every valid cell
+     * that is not affected by loops, after it has been called for all of its donors.</p>
+     *
+     * @param graph the graph to run on.
+     * @return the number of valid cells left over because of loops.
+     * @throws Exception
+     */
+    public int run( AccumulationGraph graph ) throws Exception {
+        int size = flow.length;
+        AtomicIntegerArray degree = new AtomicIntegerArray(size);
+
+        pm.beginTask("Calculating in-degree...", rows);
+        IntStream.range(0, rows).parallel().forEach(r -> {
+            int[] receivers = new int[8];
+            int offset = r * cols;
+            for( int c = 0; c < cols; c++ ) {
+                int index = offset + c;
+                if (!graph.isValid(index)) {
+                    continue;
+                }
+                int count = graph.getReceivers(index, receivers);
+                for( int i = 0; i < count; i++ ) {
+                    degree.incrementAndGet(receivers[i]);
+                }
+            }
+            pm.worked(1);
+        });
+        pm.done();
+
+        int[] sources = IntStream.range(0, size).parallel().filter(i -> graph.isValid(i) && degree.get(i) == 0).toArray();
+        int chunks = (sources.length + SOURCES_CHUNK - 1) / SOURCES_CHUNK;
+
+        pm.beginTask("Accumulating...", chunks);
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            if (pm.isCanceled()) {
+                return;
+            }
+            int[] receivers = new int[8];
+            IntStack stack = new IntStack(64);
+            int to = Math.min(sources.length, (chunk + 1) * SOURCES_CHUNK);
+            for( int s = chunk * SOURCES_CHUNK; s < to; s++ ) {
+                stack.push(sources[s]);
+                while( !stack.isEmpty() ) {
+                    int index = stack.pop();
+                    graph.process(index);
+                    int count = graph.getReceivers(index, receivers);
+                    for( int i = 0; i < count; i++ ) {
+                        // the worker completing a receiver continues with it
+                        if (degree.decrementAndGet(receivers[i]) == 0) {
+                            stack.push(receivers[i]);
+                        }
+                    }
+                }
+            }
+            pm.worked(1);
+        });
+        pm.done();
+
+        int unresolved = 0;
+        for( int i = 0; i < size; i++ ) {
+            if (degree.get(i) > 0) {
+                unresolved++;
+            }
+        }
+        lastGraph = graph;
+        inDegree = degree;
+        unresolvedCount = unresolved;
+        return unresolved;
+    }
+
+    /**
+     * @return the number of cells left over by the last run because of loops.
+     */
+    public int getUnresolvedCount() {
+        return unresolvedCount;
+    }
+
+    /**
+     * @param index the cell index.
+     * @return <code>true</code> if the cell was left over by the last run because of loops.
+     */
+    public boolean isUnresolved( int index ) {
+        return inDegree != null && inDegree.get(index) > 0;
+    }
+
+    /**
+     * Extract the loops found by the last run.
+     *
+     * <p>The left over cells are followed downstream until a cell is met twice, the cells
+     * in between being a loop. Where a cell has more receivers, the first left over one is followed.</p>
+     *
+     * @return the list of loops, each given as the ordered indexes of its cells.
+     */
+    public List<int[]> getLoops() {
+        List<int[]> loops = new ArrayList<>();
+        if (unresolvedCount == 0) {
+            return loops;
+        }
+        int size = flow.length;
+        int[] stamp = new int[size];
+        int[] receivers = new int[8];
+        IntStack path = new IntStack(64);
+        for( int i = 0; i < size; i++ ) {
+            if (stamp[i] != 0 || inDegree.get(i) <= 0) {
+                continue;
+            }
+            int current = i;
+            int pathStamp = i + 1;
+            path.clear();
+            while( current >= 0 && stamp[current] == 0 ) {
+                stamp[current] = pathStamp;
+                path.push(current);
+                int next = -1;
+                int count = lastGraph.getReceivers(current, receivers);
+                for( int k = 0; k < count; k++ ) {
+                    if (inDegree.get(receivers[k]) > 0) {
+                        next = receivers[k];
+                        break;
+                    }
+                }
+                current = next;
+            }
+            if (current >= 0 && stamp[current] == pathStamp) {
+                // closed on the current path, extract the loop
+                int start = path.indexOf(current);
+                loops.add(path.toArray(start));
+            }
+        }
+        return loops;
+    }
+
+    private int neighbour( int col, int row, int direction ) {
+        int c = col + DCOL[direction];
+        int r = row + DROW[direction];
+        if (c < 0 || r < 0 || c >= cols || r >= rows) {
+            return -1;
+        }
+        return r * cols + c;
+    }
+
+    private int receiverOf( int col, int row, int flowValue ) {
+        int n = neighbour(col, row, flowValue - 1);
+        if (n < 0 || flow[n] < 0) {
+            return -1;
+        }
+        return n;
+    }
+
+    /**
+     * The drainage relations between cells used by {@link FlowAccumulationEngine#run(AccumulationGraph)}.
+     */
+    public interface AccumulationGraph {
+        /**
+         * @param index the cell index.
+         * @return <code>true</code> if the cell takes part in the accumulation.
+         */
+        boolean isValid( int index );
+
+        /**
+         * Get the cells a cell drains into.
+         *
+         * @param index the cell index.
+         * @param receivers the array to fill with the receivers indexes, of size 8.
+         * @return the number of receivers.
+         */
+        int getReceivers( int index, int[] receivers );
+
+        /**
+         * Process a cell, all of its donors being already processed.
+         *
+         * @param index the cell index.
+         */
+        void process( int index );
+    }
+
+    /**
+     * Calculates the value of a donor from the value of the cell it drains into.
+     */
+    @FunctionalInterface
+    public interface UpstreamCalculator {
+        double calculate( int index, int flow, int receiverIndex, double receiverValue );
+    }
+
+    private static class IntStack {
+        private int[] values;
+        private int size = 0;
+
+        IntStack( int capacity ) {
+            values = new int[capacity];
+        }
+
+        void push( int value ) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int pop() {
+            return values[--size];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int indexOf( int value ) {
+            for( int i = 0; i < size; i++ ) {
+                if (values[i] == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int[] toArray( int from ) {
+            return Arrays.copyOfRange(values, from, size);
+        }
+    }
+}
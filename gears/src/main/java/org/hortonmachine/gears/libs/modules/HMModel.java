@@ -27,15 +27,19 @@ import java.util.logging.Logger;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.hortonmachine.gears.io.rasterreader.OmsRasterReader;
+import org.hortonmachine.gears.io.rasterreader.RasterBlockReader;
 import org.hortonmachine.gears.io.rasterwriter.OmsRasterWriter;
+import org.hortonmachine.gears.io.rasterwriter.RasterBlockWriter;
 import org.hortonmachine.gears.io.vectorreader.OmsVectorReader;
 import org.hortonmachine.gears.io.vectorwriter.OmsVectorWriter;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.exceptions.ModelsUserCancelException;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.libs.monitor.LogProgressMonitor;
+import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.locationtech.jts.geom.GeometryFactory;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import oms3.annotations.Description;
 import oms3.annotations.In;
@@ -286,6 +290,21 @@ public class HMModel {
         return geodata;
     }
 
+    /**
+     * Open a raster for streaming reading by blocks of rows.
+     * 
+     * <p>The data are read from the source only when the blocks are requested.</p>
+     * 
+     * @param source the definition for the raster source.
+     * @return the {@link RasterBlockReader}, to be closed after use.
+     * @throws Exception
+     */
+    public RasterBlockReader getRasterBlockReader( String source ) throws Exception {
+        if (source == null || source.trim().length() == 0)
+            return null;
+        return RasterBlockReader.open(source, RasterBlockReader.DEFAULT_BLOCK_ROWS);
+    }
+
     /**
      * Fast default reading of vector from definition. 
      * 
@@ -327,6 +346,21 @@ public class HMModel {
         writer.process();
     }
 
+    /**
+     * Open a raster for incremental writing by blocks of rows.
+     * 
+     * @param source the source to which to write to.
+     * @param regionMap the region of the raster to write.
+     * @param crs the {@link CoordinateReferenceSystem} of the raster to write.
+     * @param novalue the novalue of the raster to write.
+     * @return the {@link RasterBlockWriter}, to be closed to complete the writing or aborted to discard it.
+     * @throws Exception
+     */
+    public RasterBlockWriter getRasterBlockWriter( String source, RegionMap regionMap, CoordinateReferenceSystem crs,
+            double novalue ) throws Exception {
+        return new RasterBlockWriter(source, regionMap, crs, novalue);
+    }
+
     /**
      * Fast default writing of vector to source. 
      * 
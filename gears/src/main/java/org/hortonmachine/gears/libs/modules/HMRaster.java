@@ -18,8 +18,11 @@ package org.hortonmachine.gears.libs.modules;
  */
 
 import java.awt.Point;
+import java.awt.image.DataBuffer;
 import java.awt.image.WritableRaster;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.IntStream;
@@ -36,6 +39,8 @@ import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.MappedTiledImage;
+import org.hortonmachine.gears.utils.coverage.MappedTiledRaster;
 import org.hortonmachine.gears.utils.math.NumericsUtilities;
 import org.locationtech.jts.geom.Coordinate;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -44,6 +49,10 @@ import org.opengis.referencing.operation.MathTransform;
 /**
  * A generic HM single band raster object.
  * 
+ * <p>Writable rasters are kept in memory or, if built with {@link HMRasterWritableBuilder#setDoMapped(boolean)},
+ * in a memory-mapped tiled temporary file, which allows to process rasters larger than the available memory
+ * through the same API.</p>
+ * 
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class HMRaster implements AutoCloseable {
@@ -60,6 +69,9 @@ public class HMRaster implements AutoCloseable {
     private boolean isWritable = false;
     private GridGeometry2D gridGeometry;
     private WritableRaster writableRaster;
+    private MappedTiledRaster mappedRaster;
+    private boolean mappedRasterShared = false;
+    private GridCoverage2D mappedCoverage;
     private CoordinateReferenceSystem crs;
     private double xRes;
     private double yRes;
@@ -166,6 +178,13 @@ public class HMRaster implements AutoCloseable {
         return iter;
     }
 
+    /**
+     * @return <code>true</code> if the raster data are kept in a memory-mapped file.
+     */
+    public boolean isMapped() {
+        return mappedRaster != null;
+    }
+
     /**
      * @return the start row of this raster.
      */
@@ -459,6 +478,10 @@ public class HMRaster implements AutoCloseable {
     /**
      * Build a geotools gridCoverage.
      * 
+     * <p>The coverage of a mapped raster reads the data from the mapped file and takes
+     * ownership of it: the file is released when the coverage is disposed through
+     * {@link GridCoverage2D#dispose(boolean)}, not when this raster is closed.</p>
+     * 
      * @param name an optional name to give the coverage.
      * @return the gridCoverage.
      * @throws IOException
@@ -470,6 +493,15 @@ public class HMRaster implements AutoCloseable {
         if (!isWritable) {
             throw new IOException("The current HMRaster is not writable.");
         }
+        if (mappedRaster != null) {
+            // the coverage reads the tiles from the mapped file on demand and releases it on dispose
+            if (mappedCoverage == null) {
+                mappedRasterShared = true;
+                mappedCoverage = CoverageUtilities.buildCoverageWithNovalue(name, new MappedTiledImage(mappedRaster), regionMap,
+                        crs, novalue);
+            }
+            return mappedCoverage;
+        }
         return CoverageUtilities.buildCoverageWithNovalue(name, writableRaster, regionMap, crs, novalue);
     }
 
@@ -478,6 +510,9 @@ public class HMRaster implements AutoCloseable {
         if (iter != null) {
             iter.done();
         }
+        if (mappedRaster != null && !mappedRasterShared) {
+            mappedRaster.close();
+        }
     }
 
     /**
@@ -708,6 +743,14 @@ public class HMRaster implements AutoCloseable {
 
         private boolean doShort = false;
 
+        private boolean doFloat = false;
+
+        private boolean doMapped = false;
+
+        private int tileSize = MappedTiledRaster.DEFAULT_TILE_SIZE;
+
+        private File mappedFolder = null;
+
         private RegionMap region;
 
         private CoordinateReferenceSystem crs;
@@ -752,6 +795,40 @@ public class HMRaster implements AutoCloseable {
             return this;
         }
 
+        public HMRasterWritableBuilder setDoFloat( boolean doFloat ) {
+            this.doFloat = doFloat;
+            return this;
+        }
+
+        /**
+         * Keep the data in a memory-mapped temporary file instead of the heap.
+         * 
+         * @param doMapped if <code>true</code>, the raster is backed by a tiled memory-mapped file.
+         * @return the builder.
+         */
+        public HMRasterWritableBuilder setDoMapped( boolean doMapped ) {
+            this.doMapped = doMapped;
+            return this;
+        }
+
+        /**
+         * @param tileSize the size of the side of the tiles of a mapped raster, a power of 2.
+         * @return the builder.
+         */
+        public HMRasterWritableBuilder setTileSize( int tileSize ) {
+            this.tileSize = tileSize;
+            return this;
+        }
+
+        /**
+         * @param mappedFolder the folder in which to create the file of a mapped raster.
+         * @return the builder.
+         */
+        public HMRasterWritableBuilder setMappedFolder( File mappedFolder ) {
+            this.mappedFolder = mappedFolder;
+            return this;
+        }
+
         public HMRasterWritableBuilder setRegion( RegionMap region ) {
             this.region = region;
             return this;
@@ -803,17 +880,7 @@ public class HMRaster implements AutoCloseable {
                 hmRaster.intNovalue = noValue != null ? noValue.intValue() : (int) template.getNovalue();
                 hmRaster.shortNovalue = noValue != null ? noValue.shortValue() : (short) template.getNovalue();
 
-                if (doInteger) {
-                    hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Integer.class,
-                            null, initialIntValue != null ? initialIntValue : hmRaster.intNovalue);
-                } else if (doShort) {
-                    hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Short.class,
-                            null, initialShortValue != null ? initialShortValue : hmRaster.shortNovalue);
-                } else {
-                    hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Double.class,
-                            null, initialValue != null ? initialValue : hmRaster.novalue);
-                }
-                hmRaster.iter = CoverageUtilities.getWritableRandomIterator(hmRaster.writableRaster);
+                createData(hmRaster);
 
                 if (copyValues) {
 //                    RandomIter inIter = CoverageUtilities.getRandomIterator(template);
@@ -853,17 +920,7 @@ public class HMRaster implements AutoCloseable {
                 hmRaster.intNovalue = noValue != null ? noValue.intValue() : HMConstants.intNovalue;
                 hmRaster.shortNovalue = noValue != null ? noValue.shortValue() : HMConstants.shortNovalue;
 
-                if (doInteger) {
-                    hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Integer.class,
-                            null, initialIntValue != null ? initialIntValue : hmRaster.intNovalue);
-                } else if (doShort) {
-                    hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Short.class,
-                            null, initialShortValue != null ? initialShortValue : hmRaster.shortNovalue);
-                } else {
-                    hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Double.class,
-                            null, initialValue != null ? initialValue : hmRaster.novalue);
-                }
-                hmRaster.iter = CoverageUtilities.getWritableRandomIterator(hmRaster.writableRaster);
+                createData(hmRaster);
 
                 if (dataMatrix != null) {
                     for( int r = 0; r < hmRaster.rows; r++ ) {
@@ -875,6 +932,48 @@ public class HMRaster implements AutoCloseable {
                 return hmRaster;
             }
         }
+
+        private void createData( HMRaster hmRaster ) {
+            if (doMapped) {
+                int dataType;
+                double value;
+                if (doInteger) {
+                    dataType = DataBuffer.TYPE_INT;
+                    value = initialIntValue != null ? initialIntValue : hmRaster.intNovalue;
+                } else if (doShort) {
+                    dataType = DataBuffer.TYPE_SHORT;
+                    value = initialShortValue != null ? initialShortValue : hmRaster.shortNovalue;
+                } else if (doFloat) {
+                    dataType = DataBuffer.TYPE_FLOAT;
+                    value = initialValue != null ? initialValue : hmRaster.novalue;
+                } else {
+                    dataType = DataBuffer.TYPE_DOUBLE;
+                    value = initialValue != null ? initialValue : hmRaster.novalue;
+                }
+                try {
+                    hmRaster.mappedRaster = new MappedTiledRaster(hmRaster.cols, hmRaster.rows, dataType, tileSize, value,
+                            mappedFolder);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                hmRaster.iter = hmRaster.mappedRaster;
+                return;
+            }
+            if (doInteger) {
+                hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Integer.class,
+                        null, initialIntValue != null ? initialIntValue : hmRaster.intNovalue);
+            } else if (doShort) {
+                hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Short.class,
+                        null, initialShortValue != null ? initialShortValue : hmRaster.shortNovalue);
+            } else if (doFloat) {
+                hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Float.class,
+                        null, initialValue != null ? initialValue.floatValue() : (float) hmRaster.novalue);
+            } else {
+                hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Double.class,
+                        null, initialValue != null ? initialValue : hmRaster.novalue);
+            }
+            hmRaster.iter = CoverageUtilities.getWritableRandomIterator(hmRaster.writableRaster);
+        }
     }
 
 
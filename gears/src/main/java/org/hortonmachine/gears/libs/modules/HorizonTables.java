@@ -0,0 +1,228 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules;
+
+import java.util.stream.IntStream;
+
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.utils.math.NumericsUtilities;
+
+/**
+ * Horizon angles of a dem, one raster per azimuth sector.
+ *
+ * <p>Once computed, the test for a cell being in the shadow of the terrain is a lookup,
+ * for any sun position. The tables can be shared by the insolation, skyview and hillshade
+ * modules working on the same dem.</p>
+ *
+ * <p>Azimuths are clockwise from north and directions are in raster space, so north
+ * is toward decreasing rows. Angles are stored as hundredths of degree in shorts,
+ * the tables take <code>2 * sectors * cols * rows</code> bytes.</p>
+ *
+ * <p>The tables keep the grid and the number of sectors they were computed with, modules
+ * given tables from outside check them through {@link #matches(int, int, double, int)}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class HorizonTables {
+
+    private static final double SCALE = 100.0;
+
+    private final int cols;
+    private final int rows;
+    private final double res;
+    private final int sectors;
+    private final double sectorWidth;
+    private final short[][] horizons;
+
+    private HorizonTables( int cols, int rows, double res, int sectors ) {
+        this.cols = cols;
+        this.rows = rows;
+        this.res = res;
+        this.sectors = sectors;
+        this.sectorWidth = 2 * Math.PI / sectors;
+        this.horizons = new short[sectors][];
+    }
+
+    /**
+     * Compute the horizon tables of a dem.
+     *
+     * <p>For every cell the dem is traced toward the center azimuth of each sector. The
+     * trace stops when even the highest cell of the dem could no longer raise the horizon.</p>
+     *
+     * @param elevation the elevation values, row major.
+     * @param cols the columns.
+     * @param rows the rows.
+     * @param res the resolution.
+     * @param novalue the novalue of the elevation.
+     * @param sectors the number of azimuth sectors.
+     * @param pm the progress monitor.
+     * @return the tables.
+     */
+    public static HorizonTables compute( double[] elevation, int cols, int rows, double res, double novalue, int sectors,
+            IHMProgressMonitor pm ) {
+        HorizonTables tables = new HorizonTables(cols, rows, res, sectors);
+
+        double maxElevation = Double.NEGATIVE_INFINITY;
+        for( double z : elevation ) {
+            if (!HMConstants.isNovalue(z, novalue) && z > maxElevation) {
+                maxElevation = z;
+            }
+        }
+        final double zMax = maxElevation;
+
+        pm.beginTask("Calculating horizon tables...", sectors);
+        for( int sector = 0; sector < sectors; sector++ ) {
+            double azimuth = sector * tables.sectorWidth;
+            // steps of one cell along the major axis, as in the shadow tracing of ModelsEngine
+            double dCol = Math.sin(azimuth);
+            double dRow = -Math.cos(azimuth);
+            double m = Math.max(Math.abs(dCol), Math.abs(dRow));
+            double stepCol = dCol / m;
+            double stepRow = dRow / m;
+            double stepLength = res * Math.sqrt(stepCol * stepCol + stepRow * stepRow);
+
+            short[] horizon = new short[cols * rows];
+            IntStream.range(0, rows).parallel().forEach(row -> {
+                for( int col = 0; col < cols; col++ ) {
+                    int index = row * cols + col;
+                    double z = elevation[index];
+                    if (HMConstants.isNovalue(z, novalue)) {
+                        horizon[index] = Short.MIN_VALUE;
+                        continue;
+                    }
+                    double maxTan = Double.NEGATIVE_INFINITY;
+                    int n = 1;
+                    while( true ) {
+                        int c = (int) Math.round(col + stepCol * n);
+                        int r = (int) Math.round(row + stepRow * n);
+                        if (c < 0 || c >= cols || r < 0 || r >= rows) {
+                            break;
+                        }
+                        double distance = stepLength * n;
+                        if ((zMax - z) / distance <= maxTan) {
+                            // nothing further can be higher
+                            break;
+                        }
+                        double otherZ = elevation[r * cols + c];
+                        if (!HMConstants.isNovalue(otherZ, novalue)) {
+                            double tan = (otherZ - z) / distance;
+                            if (tan > maxTan) {
+                                maxTan = tan;
+                            }
+                        }
+                        n++;
+                    }
+                    double angle = maxTan == Double.NEGATIVE_INFINITY ? -90.0 : Math.toDegrees(Math.atan(maxTan));
+                    horizon[index] = (short) Math.round(angle * SCALE);
+                }
+            });
+            tables.horizons[sector] = horizon;
+            pm.worked(1);
+        }
+        pm.done();
+        return tables;
+    }
+
+    /**
+     * @param azimuth the azimuth in radians.
+     * @return the sector whose center is nearest to the azimuth.
+     */
+    public int getSector( double azimuth ) {
+        int sector = (int) Math.floor(azimuth / sectorWidth + 0.5) % sectors;
+        return sector < 0 ? sector + sectors : sector;
+    }
+
+    /**
+     * @param sector the sector.
+     * @param col the column.
+     * @param row the row.
+     * @return the horizon angle in radians, NaN for novalues.
+     */
+    public double getHorizonAngle( int sector, int col, int row ) {
+        short value = horizons[sector][row * cols + col];
+        if (value == Short.MIN_VALUE) {
+            return Double.NaN;
+        }
+        return Math.toRadians(value / SCALE);
+    }
+
+    /**
+     * @param sunVector the vector toward the sun in raster space (x toward east, y toward south, z up).
+     * @return the sector of the sun azimuth.
+     */
+    public int getSunSector( double[] sunVector ) {
+        double azimuth = Math.atan2(sunVector[0], -sunVector[1]);
+        if (azimuth < 0) {
+            azimuth += 2 * Math.PI;
+        }
+        return getSector(azimuth);
+    }
+
+    /**
+     * @param sunVector the vector toward the sun in raster space.
+     * @return the elevation of the sun in radians.
+     */
+    public static double getSunElevation( double[] sunVector ) {
+        double horizontal = Math.sqrt(sunVector[0] * sunVector[0] + sunVector[1] * sunVector[1]);
+        return Math.atan2(sunVector[2], horizontal);
+    }
+
+    /**
+     * Check if a cell is in the shadow of the terrain.
+     *
+     * @param sector the sector of the sun, see {@link #getSunSector(double[])}.
+     * @param col the column.
+     * @param row the row.
+     * @param sunElevation the elevation of the sun in radians.
+     * @return <code>true</code> if the sun is below the horizon of the cell.
+     */
+    public boolean isShadowed( int sector, int col, int row, double sunElevation ) {
+        short value = horizons[sector][row * cols + col];
+        return value != Short.MIN_VALUE && Math.toDegrees(sunElevation) * SCALE < value;
+    }
+
+    /**
+     * Check if the tables can be used for a dem.
+     *
+     * @param cols the columns of the dem.
+     * @param rows the rows of the dem.
+     * @param res the resolution of the dem.
+     * @param sectors the number of sectors asked for, if <code>0</code> any number is fine.
+     * @return <code>true</code> if the tables were computed on the same grid and number of sectors.
+     */
+    public boolean matches( int cols, int rows, double res, int sectors ) {
+        return this.cols == cols && this.rows == rows && NumericsUtilities.dEq(this.res, res)
+                && (sectors <= 0 || this.sectors == sectors);
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public double getResolution() {
+        return res;
+    }
+
+    public int getSectors() {
+        return sectors;
+    }
+}
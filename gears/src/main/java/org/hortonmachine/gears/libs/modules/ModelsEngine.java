@@ -34,6 +34,7 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.media.jai.iterator.RandomIter;
@@ -1174,7 +1175,6 @@ public class ModelsEngine {
      */
     public static WritableRaster sumDownstream( RandomIter flowIter, RandomIter mapToSumIter, int width, int height,
             Double upperThreshold, Double lowerThreshold, IHMProgressMonitor pm ) {
-        final int[] point = new int[2];
         WritableRaster summedMapWR = CoverageUtilities.createWritableRaster(width, height, null, null, null);
         WritableRandomIter summedMapIter = RandomIterFactory.createWritable(summedMapWR, null);
 
@@ -1187,54 +1187,42 @@ public class ModelsEngine {
             lThres = lowerThreshold;
         }
 
-        pm.beginTask("Calculating downstream sum...", height);
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(flowIter, width, height, doubleNovalue);
+        engine.setProgressMonitor(pm);
+        double[] weights = new double[width * height];
         for( int r = 0; r < height; r++ ) {
             for( int c = 0; c < width; c++ ) {
+                int index = engine.index(c, r);
                 double mapToSumValue = mapToSumIter.getSampleDouble(c, r, 0);
-                if (!isNovalue(flowIter.getSampleDouble(c, r, 0)) && //
-                        mapToSumValue < uThres && //
-                        mapToSumValue > lThres //
-                ) {
-                    point[0] = c;
-                    point[1] = r;
-                    while( flowIter.getSampleDouble(point[0], point[1], 0) < 9 && //
-                            !isNovalue(flowIter.getSampleDouble(point[0], point[1], 0))
-                            && (checkRange(mapToSumIter.getSampleDouble(point[0], point[1], 0), uThres, lThres)) ) {
-
-                        double sumValue = summedMapIter.getSampleDouble(point[0], point[1], 0)
-                                + mapToSumIter.getSampleDouble(c, r, 0);
-
-                        summedMapIter.setSample(point[0], point[1], 0, sumValue);
-
-                        // FlowNode flowNode = new FlowNode(flowIter, width, height, point[0],
-                        // point[1]);
-                        // FlowNode downStreamNode = flowNode.goDownstream();
-                        // if (downStreamNode != null) {
-                        // if (!downStreamNode.isMarkedAsOutlet()) {
-                        // point[0] = downStreamNode.col;
-                        // point[1] = downStreamNode.row;
-                        // }
-                        // } else {
-                        // return null;
-                        // }
-                        if (!go_downstream(point, flowIter.getSampleDouble(point[0], point[1], 0)))
-                            return null;
-                    }
-
-                    if (!isNovalue(flowIter.getSampleDouble(point[0], point[1], 0))) {
-                        double summedMapValue = summedMapIter.getSampleDouble(point[0], point[1], 0);
-                        if (!isNovalue(summedMapValue)) {
-                            double sumValue = summedMapValue + mapToSumIter.getSampleDouble(c, r, 0);
-                            summedMapIter.setSample(point[0], point[1], 0, sumValue);
-                        }
-                    }
+                if (checkRange(mapToSumValue, uThres, lThres)) {
+                    weights[index] = mapToSumValue;
                 } else {
-                    summedMapIter.setSample(c, r, 0, doubleNovalue);
+                    // values out of range neither contribute nor propagate
+                    engine.invalidate(index);
                 }
             }
-            pm.worked(1);
         }
-        pm.done();
+
+        double[] summed;
+        try {
+            summed = engine.accumulate(weights);
+        } catch (Exception e) {
+            pm.errorMessage(e.getLocalizedMessage());
+            return null;
+        }
+        if (engine.getUnresolvedCount() > 0) {
+            pm.errorMessage(MessageFormat.format(
+                    "The downstream sum found {0} cells in or downstream of loops, there might be an error in your flowdirections.",
+                    engine.getUnresolvedCount()));
+        }
+
+        for( int r = 0; r < height; r++ ) {
+            for( int c = 0; c < width; c++ ) {
+                double value = summed[engine.index(c, r)];
+                summedMapIter.setSample(c, r, 0, Double.isNaN(value) ? doubleNovalue : value);
+            }
+        }
+        summedMapIter.done();
 
         return summedMapWR;
     }
@@ -1398,6 +1386,65 @@ public class ModelsEngine {
         return tmpWR;
     }
 
+    /**
+     * Evaluate the shadow map on arrays, as {@link #calculateFactor(int, int, double[], double[], double[], WritableRaster, double)}
+     * does on rasters, without allocating a new map for every sun position.
+     *
+     * @param h
+     *            the height of the raster.
+     * @param w
+     *            the width of the raster.
+     * @param sunVector
+     * @param inverseSunVector
+     * @param normalSunVector
+     * @param dem
+     *            the elevation map, row major.
+     * @param dx
+     *            the resolution of the elevation map.
+     * @param shadow
+     *            the row major array to fill, 1 for lit cells and 0 for the shadowed ones.
+     */
+    public static void calculateFactor( int h, int w, double[] sunVector, double[] inverseSunVector, double[] normalSunVector,
+            double[] dem, double dx, byte[] shadow ) {
+        Arrays.fill(shadow, 0, h * w, (byte) 1);
+        int f_i = 1e6 * sunVector[0] <= 0 ? 0 : w - 1;
+        int f_j = 1e6 * sunVector[1] <= 0 ? 0 : h - 1;
+        for( int i = 0; i < w; i++ ) {
+            shadow(i, f_j, w, h, shadow, dem, dx, normalSunVector, inverseSunVector);
+        }
+        for( int k = 0; k < h; k++ ) {
+            shadow(f_i, k, w, h, shadow, dem, dx, normalSunVector, inverseSunVector);
+        }
+    }
+
+    private static void shadow( int i, int j, int nCols, int nRows, byte[] shadow, double[] dem, double res,
+            double[] normalSunVector, double[] inverseSunVector ) {
+        int n = 0;
+        double zcompare = -Double.MAX_VALUE;
+        double dx = (inverseSunVector[0] * n);
+        double dy = (inverseSunVector[1] * n);
+        int idx = (int) Math.round(i + dx);
+        int jdy = (int) Math.round(j + dy);
+        while( idx >= 0 && idx <= nCols - 1 && jdy >= 0 && jdy <= nRows - 1 ) {
+            int index = jdy * nCols + idx;
+            // same operations order of the scalar product in the raster version
+            double zprojection = 0;
+            zprojection = zprojection + (dx * res) * normalSunVector[0];
+            zprojection = zprojection + (dy * res) * normalSunVector[1];
+            zprojection = zprojection + dem[index] * normalSunVector[2];
+            if ((zprojection < zcompare)) {
+                shadow[index] = 0;
+            } else {
+                zcompare = zprojection;
+            }
+            n = n + 1;
+            dy = (inverseSunVector[1] * n);
+            dx = (inverseSunVector[0] * n);
+            idx = (int) Math.round(i + dx);
+            jdy = (int) Math.round(j + dy);
+        }
+    }
+
     /**
      * Verify if the current station (i) is already into the arrays.
      *
@@ -0,0 +1,443 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules;
+
+import java.util.BitSet;
+
+import javax.media.jai.iterator.RandomIter;
+
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.utils.LongMinHeap;
+
+/**
+ * A priority-flood core working on primitive arrays.
+ *
+ * <p>The elevation is kept in a float grid indexed by <code>row * cols + col</code>
+ * and the flood front in a {@link LongMinHeap} of keys packing elevation and cell
+ * index, so that no object is created per processed cell.</p>
+ *
+ * <p>Neighbours are indexed as in {@link Direction#getOrderedDirs()}, i.e. starting
+ * from east and going counterclockwise, and are always visited orthogonal ones first.</p>
+ *
+ * <p>See: Barnes, Lehman, Mulla, "Priority-flood: An optimal depression-filling and
+ * watershed-labeling algorithm for digital elevation models", Computers & Geosciences, 2014.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class PriorityFloodEngine {
+
+    /**
+     * Column offsets of the neighbours, in {@link Direction#getOrderedDirs()} order.
+     */
+    public static final int[] DCOL = {1, 1, 0, -1, -1, -1, 0, 1};
+    /**
+     * Row offsets of the neighbours, in {@link Direction#getOrderedDirs()} order.
+     */
+    public static final int[] DROW = {0, -1, -1, -1, 0, 1, 1, 1};
+    /**
+     * Exiting flow value towards the neighbours, in {@link Direction#getOrderedDirs()} order.
+     */
+    public static final int[] FLOW = {1, 2, 3, 4, 5, 6, 7, 8};
+    /**
+     * Exiting flow value of a neighbour that flows into the center cell.
+     */
+    public static final int[] ENTERING_FLOW = {5, 6, 7, 8, 1, 2, 3, 4};
+
+    private static final int[] VISIT_ORDER = {0, 2, 4, 6, 1, 3, 5, 7};
+
+    private final int cols;
+    private final int rows;
+    private final double xRes;
+    private final double yRes;
+    private final float[] elev;
+    private final double[] distances = new double[8];
+
+    private IHMProgressMonitor pm;
+
+    /**
+     * Create the engine reading the elevation from a raster iterator.
+     *
+     * @param elevIter the elevation iterator.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @param xRes the x resolution.
+     * @param yRes the y resolution.
+     * @param novalue the novalue of the raster.
+     */
+    public PriorityFloodEngine( RandomIter elevIter, int cols, int rows, double xRes, double yRes, double novalue ) {
+        this(new float[cols * rows], cols, rows, xRes, yRes);
+        for( int r = 0; r < rows; r++ ) {
+            int offset = r * cols;
+            for( int c = 0; c < cols; c++ ) {
+                double value = elevIter.getSampleDouble(c, r, 0);
+                elev[offset + c] = HMConstants.isNovalue(value, novalue) ? Float.NaN : (float) value;
+            }
+        }
+    }
+
+    /**
+     * Create the engine on an existing elevation grid.
+     *
+     * @param elev the row major elevation grid, with NaN as novalue. It is modified by
+     *          {@link #fillDepressions(float, BitSet)}.
+     * @param cols the cols of the grid.
+     * @param rows the rows of the grid.
+     * @param xRes the x resolution.
+     * @param yRes the y resolution.
+     */
+    public PriorityFloodEngine( float[] elev, int cols, int rows, double xRes, double yRes ) {
+        if ((long) cols * rows != elev.length) {
+            throw new IllegalArgumentException("The grid size doesn't match the given cols and rows.");
+        }
+        this.elev = elev;
+        this.cols = cols;
+        this.rows = rows;
+        this.xRes = xRes;
+        this.yRes = yRes;
+        double diagonal = Math.sqrt(xRes * xRes + yRes * yRes);
+        for( int i = 0; i < 8; i++ ) {
+            distances[i] = DCOL[i] != 0 && DROW[i] != 0 ? diagonal : (DCOL[i] != 0 ? xRes : yRes);
+        }
+    }
+
+    public void setProgressMonitor( IHMProgressMonitor pm ) {
+        this.pm = pm;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public double getXRes() {
+        return xRes;
+    }
+
+    public double getYRes() {
+        return yRes;
+    }
+
+    /**
+     * @return the elevation grid.
+     */
+    public float[] getElevation() {
+        return elev;
+    }
+
+    public float getElevation( int index ) {
+        return elev[index];
+    }
+
+    public boolean isValid( int index ) {
+        return !Float.isNaN(elev[index]);
+    }
+
+    public int index( int col, int row ) {
+        return row * cols + col;
+    }
+
+    /**
+     * Get the index of a neighbour cell.
+     *
+     * @param index the index of the center cell.
+     * @param direction the neighbour position, as in {@link Direction#getOrderedDirs()}.
+     * @return the index of the neighbour or -1 if it is outside of the grid.
+     */
+    public int neighbour( int index, int direction ) {
+        int col = index % cols + DCOL[direction];
+        int row = index / cols + DROW[direction];
+        if (col < 0 || col >= cols || row < 0 || row >= rows) {
+            return -1;
+        }
+        return row * cols + col;
+    }
+
+    /**
+     * @param direction the neighbour position, as in {@link Direction#getOrderedDirs()}.
+     * @return the distance to the neighbour.
+     */
+    public double getDistance( int direction ) {
+        return distances[direction];
+    }
+
+    /**
+     * Slope from a cell to its neighbour, positive if the neighbour is lower.
+     */
+    public double getSlope( int index, int neighbourIndex, int direction ) {
+        return (elev[index] - elev[neighbourIndex]) / distances[direction];
+    }
+
+    /**
+     * Checks if a valid cell touches the grid bounds.
+     */
+    public boolean touchesBound( int index ) {
+        int col = index % cols;
+        int row = index / cols;
+        return col == 0 || row == 0 || col == cols - 1 || row == rows - 1;
+    }
+
+    /**
+     * Checks if a cell has an invalid neighbour inside the grid.
+     */
+    public boolean touchesNovalue( int index ) {
+        for( int d = 0; d < 8; d++ ) {
+            int n = neighbour(index, d);
+            if (n != -1 && Float.isNaN(elev[n])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the D8 flow of a cell following the steepest descent, as done by {@link GridNode#getFlow()}.
+     *
+     * @param index the cell index.
+     * @return the exiting flow value or {@link HMConstants#intNovalue} if the cell has no lower neighbour.
+     */
+    public int getSteepestDescentFlow( int index ) {
+        double maxSlope = Double.NEGATIVE_INFINITY;
+        int flow = HMConstants.intNovalue;
+        for( int d = 0; d < 8; d++ ) {
+            int n = neighbour(index, d);
+            if (n == -1 || Float.isNaN(elev[n])) {
+                continue;
+            }
+            double slope = getSlope(index, n, d);
+            if (slope > 0 && slope > maxSlope) {
+                maxSlope = slope;
+                flow = FLOW[d];
+            }
+        }
+        return flow;
+    }
+
+    /**
+     * Fill all depressions of the grid, leaving a small gradient on filled areas so that
+     * every valid cell can drain to a cell on the border of the grid or of a novalue area.
+     *
+     * <p>This is the Priority-Flood+Epsilon variant: cells that would be filled are raised
+     * to the elevation of the cell they are reached from plus epsilon (at least the next
+     * representable float).</p>
+     *
+     * @param epsilon the minimum elevation step to add on filled cells.
+     * @param raised if not <code>null</code>, the indexes of the modified cells are set in it.
+     * @return the number of modified cells.
+     */
+    public int fillDepressions( float epsilon, BitSet raised ) {
+        BitSet closed = new BitSet(elev.length);
+        LongMinHeap open = new LongMinHeap(2 * (cols + rows));
+        IntFifo pit = new IntFifo(1024);
+        seedBorder(closed, open, true, null);
+
+        int raisedCount = 0;
+        int processed = 0;
+        int total = elev.length;
+        beginTask("Filling depressions...", total);
+        while( !open.isEmpty() || !pit.isEmpty() ) {
+            int current;
+            if (!pit.isEmpty()) {
+                current = pit.poll();
+            } else {
+                current = LongMinHeap.index(open.poll());
+            }
+            float currentElev = elev[current];
+            float fillElev = Math.max(Math.nextUp(currentElev), currentElev + epsilon);
+            for( int d : VISIT_ORDER ) {
+                int n = neighbour(current, d);
+                if (n == -1 || closed.get(n) || Float.isNaN(elev[n])) {
+                    continue;
+                }
+                closed.set(n);
+                if (elev[n] <= currentElev) {
+                    elev[n] = fillElev;
+                    if (raised != null) {
+                        raised.set(n);
+                    }
+                    raisedCount++;
+                    pit.add(n);
+                } else {
+                    open.add(LongMinHeap.key(elev[n], n));
+                }
+            }
+            if (++processed % cols == 0) {
+                worked(cols);
+                if (isCanceled()) {
+                    break;
+                }
+            }
+        }
+        done();
+        return raisedCount;
+    }
+
+    /**
+     * Run a priority flood from the cells on the border of the grid.
+     *
+     * <p>Cells are polled lowest first and every still unprocessed valid neighbour is
+     * offered to the visitor. If the visitor accepts it, the neighbour is considered
+     * as draining into the current cell and enters the flood front.</p>
+     *
+     * @param visitor the visitor deciding on the neighbours.
+     * @param seedNovalueBorder if <code>true</code>, also the cells touching novalue
+     *          cells are used as flood sources.
+     */
+    public void flood( FloodVisitor visitor, boolean seedNovalueBorder ) {
+        BitSet closed = new BitSet(elev.length);
+        LongMinHeap open = new LongMinHeap(2 * (cols + rows));
+        seedBorder(closed, open, seedNovalueBorder, visitor);
+
+        int processed = 0;
+        beginTask("Flooding...", elev.length);
+        while( !open.isEmpty() ) {
+            int current = LongMinHeap.index(open.poll());
+            visitor.polled(current);
+            for( int d : VISIT_ORDER ) {
+                int n = neighbour(current, d);
+                if (n == -1 || closed.get(n) || Float.isNaN(elev[n])) {
+                    continue;
+                }
+                if (visitor.accept(current, n, d)) {
+                    closed.set(n);
+                    open.add(LongMinHeap.key(elev[n], n));
+                }
+            }
+            if (++processed % cols == 0) {
+                worked(cols);
+                if (isCanceled()) {
+                    break;
+                }
+            }
+        }
+        done();
+    }
+
+    private void seedBorder( BitSet closed, LongMinHeap open, boolean seedNovalueBorder, FloodVisitor visitor ) {
+        for( int r = 0; r < rows; r++ ) {
+            boolean borderRow = r == 0 || r == rows - 1;
+            for( int c = 0; c < cols; c++ ) {
+                int index = r * cols + c;
+                if (Float.isNaN(elev[index])) {
+                    continue;
+                }
+                boolean isSeed = borderRow || c == 0 || c == cols - 1;
+                if (!isSeed && seedNovalueBorder) {
+                    isSeed = touchesNovalue(index);
+                }
+                if (isSeed) {
+                    closed.set(index);
+                    open.add(LongMinHeap.key(elev[index], index));
+                    if (visitor != null) {
+                        visitor.seed(index);
+                    }
+                }
+            }
+        }
+    }
+
+    private void beginTask( String name, int work ) {
+        if (pm != null)
+            pm.beginTask(name, work);
+    }
+
+    private void worked( int work ) {
+        if (pm != null)
+            pm.worked(work);
+    }
+
+    private void done() {
+        if (pm != null)
+            pm.done();
+    }
+
+    private boolean isCanceled() {
+        return pm != null && pm.isCanceled();
+    }
+
+    /**
+     * The decisions taken during a {@link PriorityFloodEngine#flood(FloodVisitor, boolean)}.
+     */
+    public interface FloodVisitor {
+        /**
+         * Called for every flood source before the flood starts.
+         *
+         * @param index the index of the source cell.
+         */
+        default void seed( int index ) {
+        }
+
+        /**
+         * Called when a cell is taken from the flood front, lowest first.
+         *
+         * @param index the index of the cell.
+         */
+        default void polled( int index ) {
+        }
+
+        /**
+         * Decide on an unprocessed neighbour of the current cell.
+         *
+         * @param current the index of the current cell.
+         * @param neighbour the index of the neighbour cell.
+         * @param direction the position of the neighbour, as in {@link Direction#getOrderedDirs()}.
+         * @return <code>true</code> if the neighbour drains into the current cell and
+         *          has to enter the flood front.
+         */
+        boolean accept( int current, int neighbour, int direction );
+    }
+
+    /**
+     * Growable ring buffer of ints.
+     */
+    private static class IntFifo {
+        private int[] values;
+        private int head = 0;
+        private int size = 0;
+
+        IntFifo( int capacity ) {
+            values = new int[capacity];
+        }
+
+        void add( int value ) {
+            if (size == values.length) {
+                int[] newValues = new int[values.length * 2];
+                for( int i = 0; i < size; i++ ) {
+                    newValues[i] = values[(head + i) % values.length];
+                }
+                values = newValues;
+                head = 0;
+            }
+            values[(head + size) % values.length] = value;
+            size++;
+        }
+
+        int poll() {
+            int value = values[head];
+            head = (head + 1) % values.length;
+            size--;
+            return value;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
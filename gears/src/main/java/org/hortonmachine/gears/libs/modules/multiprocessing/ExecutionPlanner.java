@@ -83,6 +83,20 @@ public abstract class ExecutionPlanner {
     public static ExecutionPlanner createDefaultPlanner() {
         return defaultPlannerFactory.get();
     }
+
+    /**
+     * Set this to change the planner used by the grid modules that process
+     * regions in parallel by tiles.
+     */
+    public static Supplier<ExecutionPlanner> defaultTiledPlannerFactory = () -> new TiledExecutionPlanner();
+
+    /**
+     * Creates a new planner for the parallel processing of grid regions. By default
+     * this is a {@link TiledExecutionPlanner}.
+     */
+    public static ExecutionPlanner createDefaultTiledPlanner() {
+        return defaultTiledPlannerFactory.get();
+    }
     
     
     // instance *******************************************
@@ -29,10 +29,12 @@ public abstract class GridMultiProcessing extends MultiProcessing {
     }
     /**
      * Loops through all rows and cols of the given grid.
+     * 
+     * <p>With a parallel planner the calculator is called from several threads, the
+     * iterators it uses have to be taken from a {@link PerThreadRandomIter}.</p>
      */
     protected void processGrid( int cols, int rows, boolean ignoreBorder, Calculator calculator ) throws Exception {
         ExecutionPlanner planner = createDefaultPlanner();
-        planner.setNumberOfTasks(rows * cols);
 
         int startC = 0;
         int startR = 0;
@@ -44,6 +46,16 @@ public abstract class GridMultiProcessing extends MultiProcessing {
             endC = cols - 1;
             endR = rows - 1;
         }
+        if (planner instanceof TiledExecutionPlanner) {
+            ((TiledExecutionPlanner) planner).processRegion(startC, startR, endC, endR, ( c, r ) -> {
+                if (!pm.isCanceled()) {
+                    calculator.calculate(c, r);
+                }
+            });
+            return;
+        }
+
+        planner.setNumberOfTasks(rows * cols);
         for( int r = startR; r < endR; r++ ) {
             for( int c = startC; c < endC; c++ ) {
                 int _c = c, _r = r;
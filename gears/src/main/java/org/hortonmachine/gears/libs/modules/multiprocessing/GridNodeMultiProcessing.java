@@ -52,6 +52,9 @@ public abstract class GridNodeMultiProcessing extends MultiProcessing {
     /**
      * Loops through all rows and cols of the given grid and calls the given
      * calculator for each {@link GridNode}.
+     * 
+     * <p>The nodes read the grid through an iterator of the thread that created them,
+     * so they must not be handed to other threads.</p>
      */
     protected void processGridNodes( GridCoverage2D inElev, Calculator<GridNode> calculator ) throws Exception {
         RegionMap regionMap = regionMap(inElev);
@@ -60,26 +63,36 @@ public abstract class GridNodeMultiProcessing extends MultiProcessing {
         double xRes = regionMap.getXres();
         double yRes = regionMap.getYres();
         
-        RandomIter elevationIter = CoverageUtilities.getRandomIterator(inElev);
-        
         double novalue = HMConstants.getNovalue(inElev);
 
-        ExecutionPlanner planner = createDefaultPlanner();
-        planner.setNumberOfTasks(rows * cols);
-
-        // Cycling into the valid region.
-        for( int r = 0; r < rows; r++ ) {
-            for( int c = 0; c < cols; c++ ) {
-                int _c = c, _r = r;
-                planner.submit(() -> {
+        // the workers of a parallel planner each need their own iterator
+        try (PerThreadRandomIter<RandomIter> elevationIters = PerThreadRandomIter.create(inElev.getRenderedImage())) {
+            ExecutionPlanner planner = createDefaultPlanner();
+            if (planner instanceof TiledExecutionPlanner) {
+                ((TiledExecutionPlanner) planner).processRegion(0, 0, cols, rows, ( c, r ) -> {
                     if (!pm.isCanceled()) {
-                        GridNode node = new GridNode(elevationIter, cols, rows, xRes, yRes, _c, _r, novalue);
+                        GridNode node = new GridNode(elevationIters.get(), cols, rows, xRes, yRes, c, r, novalue);
                         calculator.calculate(node);
                     }
                 });
+                return;
+            }
+            planner.setNumberOfTasks(rows * cols);
+
+            // Cycling into the valid region.
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    int _c = c, _r = r;
+                    planner.submit(() -> {
+                        if (!pm.isCanceled()) {
+                            GridNode node = new GridNode(elevationIters.get(), cols, rows, xRes, yRes, _c, _r, novalue);
+                            calculator.calculate(node);
+                        }
+                    });
+                }
             }
+            planner.join();
         }
-        planner.join();
     }
 
     @FunctionalInterface
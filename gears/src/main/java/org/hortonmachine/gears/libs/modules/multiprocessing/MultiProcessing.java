@@ -36,5 +36,14 @@ public abstract class MultiProcessing
     protected ExecutionPlanner createDefaultPlanner() {
         return ExecutionPlanner.createDefaultPlanner();
     }
+
+    /**
+     * Returns {@link ExecutionPlanner#createDefaultTiledPlanner()}. Algorithms that
+     * are safe to run in parallel over the cells of a grid can return this from
+     * {@link #createDefaultPlanner()}.
+     */
+    protected ExecutionPlanner createDefaultTiledPlanner() {
+        return ExecutionPlanner.createDefaultTiledPlanner();
+    }
     
 }
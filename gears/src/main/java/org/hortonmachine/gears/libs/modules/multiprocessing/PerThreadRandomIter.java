@@ -0,0 +1,94 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules.multiprocessing;
+
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+import javax.media.jai.iterator.WritableRandomIter;
+
+/**
+ * Hands out one {@link RandomIter} per thread.
+ *
+ * <p>The JAI iterators keep the tile they last accessed, so a single iterator over
+ * a tiled image can't be shared by the workers of a parallel {@link ExecutionPlanner}.
+ * Each worker asks for its iterator through {@link #get()} and closing this releases
+ * all the iterators created.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @param <T> the type of iterator.
+ */
+public class PerThreadRandomIter<T extends RandomIter> implements AutoCloseable {
+
+    private final List<T> created = new ArrayList<>();
+    private final ThreadLocal<T> local;
+
+    public PerThreadRandomIter( Supplier<T> iterFactory ) {
+        local = ThreadLocal.withInitial(() -> {
+            T iter = iterFactory.get();
+            synchronized (created) {
+                created.add(iter);
+            }
+            return iter;
+        });
+    }
+
+    /**
+     * Create iterators over an image.
+     *
+     * @param image the image to iterate.
+     * @return the per thread iterators.
+     */
+    public static PerThreadRandomIter<RandomIter> create( RenderedImage image ) {
+        return new PerThreadRandomIter<>(() -> RandomIterFactory.create(image, null));
+    }
+
+    /**
+     * Create writable iterators over a raster.
+     *
+     * @param raster the raster to iterate.
+     * @return the per thread iterators.
+     */
+    public static PerThreadRandomIter<WritableRandomIter> createWritable( WritableRaster raster ) {
+        return new PerThreadRandomIter<>(() -> RandomIterFactory.createWritable(raster, null));
+    }
+
+    /**
+     * @return the iterator of the calling thread.
+     */
+    public T get() {
+        return local.get();
+    }
+
+    @Override
+    public void close() {
+        synchronized (created) {
+            for( T iter : created ) {
+                iter.done();
+            }
+            created.clear();
+        }
+        local.remove();
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules.multiprocessing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An {@link ExecutionPlanner} that processes grid regions by tiles on a {@link ForkJoinPool}.
+ *
+ * <p>Instead of receiving one task per cell, the region to process is split into
+ * tiles of {@link #getTileCols()} x {@link #getTileRows()} cells. Each tile is
+ * processed row by row by a single worker, so that the cells of a 3x3 kernel
+ * stay in cache, and idle workers steal the tiles left over by busy ones.</p>
+ *
+ * <p>Single {@link MultiProcessingTask}s can still be submitted, in which case
+ * they are chunked and run on the same pool.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TiledExecutionPlanner extends ExecutionPlanner {
+
+    /**
+     * The default number of columns of a tile.
+     */
+    public static final int DEFAULT_TILE_COLS = 256;
+
+    /**
+     * The default number of rows of a tile.
+     */
+    public static final int DEFAULT_TILE_ROWS = 32;
+
+    /**
+     * The chunk size used for tasks submitted through {@link #submit(MultiProcessingTask)}.
+     */
+    public static final int TASK_CHUNK_SIZE = 4096;
+
+    /**
+     * The default pool shared by all tiled planners.
+     */
+    public static final ForkJoinPool defaultPool;
+
+    static {
+        int procNum = Runtime.getRuntime().availableProcessors();
+        defaultPool = new ForkJoinPool(procNum, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("tile-worker-" + t.getPoolIndex());
+            return t;
+        }, null, false);
+    }
+
+    private final int tileCols;
+    private final int tileRows;
+    private final ForkJoinPool pool;
+
+    private final AtomicReference<Exception> exc = new AtomicReference<>();
+
+    private List<MultiProcessingTask> accu = new ArrayList<>();
+    private List<ForkJoinTask< ? >> submitted = new ArrayList<>();
+
+    public TiledExecutionPlanner() {
+        this(DEFAULT_TILE_COLS, DEFAULT_TILE_ROWS, defaultPool);
+    }
+
+    public TiledExecutionPlanner( int tileCols, int tileRows ) {
+        this(tileCols, tileRows, defaultPool);
+    }
+
+    public TiledExecutionPlanner( int tileCols, int tileRows, ForkJoinPool pool ) {
+        if (tileCols < 1 || tileRows < 1) {
+            throw new IllegalArgumentException("The tile size needs to be at least 1x1.");
+        }
+        this.tileCols = tileCols;
+        this.tileRows = tileRows;
+        this.pool = pool;
+    }
+
+    public int getTileCols() {
+        return tileCols;
+    }
+
+    public int getTileRows() {
+        return tileRows;
+    }
+
+    /**
+     * Process all the cells of a region, tile by tile.
+     *
+     * <p>The calculator is called once for each cell, from several threads,
+     * but every tile is owned by a single thread.</p>
+     *
+     * @param startCol the first column to process.
+     * @param startRow the first row to process.
+     * @param endCol the column after the last to process (exclusive).
+     * @param endRow the row after the last to process (exclusive).
+     * @param calculator the calculator to call on each cell.
+     * @throws Exception the first exception thrown by the calculator.
+     */
+    public void processRegion( int startCol, int startRow, int endCol, int endRow, CellCalculator calculator )
+            throws Exception {
+        if (endCol <= startCol || endRow <= startRow) {
+            return;
+        }
+        int tilesX = (endCol - startCol + tileCols - 1) / tileCols;
+        int tilesY = (endRow - startRow + tileRows - 1) / tileRows;
+        TileRangeAction action = new TileRangeAction(0, tilesX * tilesY, tilesX, startCol, startRow, endCol, endRow,
+                calculator);
+        pool.invoke(action);
+        Exception e = exc.getAndSet(null);
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    @Override
+    public void submit( MultiProcessingTask task ) {
+        accu.add(task);
+        if (accu.size() >= TASK_CHUNK_SIZE) {
+            submitChunk(accu);
+            accu = new ArrayList<>();
+        }
+    }
+
+    private void submitChunk( List<MultiProcessingTask> chunk ) {
+        submitted.add(pool.submit(() -> {
+            for( MultiProcessingTask task : chunk ) {
+                if (exc.get() != null) {
+                    return;
+                }
+                try {
+                    task.calculate();
+                } catch (Exception e) {
+                    exc.compareAndSet(null, e);
+                }
+            }
+        }));
+    }
+
+    @Override
+    public void join() throws Exception {
+        if (!accu.isEmpty()) {
+            submitChunk(accu);
+            accu = new ArrayList<>();
+        }
+        for( ForkJoinTask< ? > task : submitted ) {
+            task.join();
+        }
+        submitted = new ArrayList<>();
+        Exception e = exc.getAndSet(null);
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * Splits a range of tile indexes in halves until a single tile is left.
+     */
+    private class TileRangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromTile;
+        private final int toTile;
+        private final int tilesX;
+        private final int startCol;
+        private final int startRow;
+        private final int endCol;
+        private final int endRow;
+        private final CellCalculator calculator;
+
+        TileRangeAction( int fromTile, int toTile, int tilesX, int startCol, int startRow, int endCol, int endRow,
+                CellCalculator calculator ) {
+            this.fromTile = fromTile;
+            this.toTile = toTile;
+            this.tilesX = tilesX;
+            this.startCol = startCol;
+            this.startRow = startRow;
+            this.endCol = endCol;
+            this.endRow = endRow;
+            this.calculator = calculator;
+        }
+
+        @Override
+        protected void compute() {
+            if (toTile - fromTile > 1) {
+                int mid = (fromTile + toTile) >>> 1;
+                invokeAll(new TileRangeAction(fromTile, mid, tilesX, startCol, startRow, endCol, endRow, calculator),
+                        new TileRangeAction(mid, toTile, tilesX, startCol, startRow, endCol, endRow, calculator));
+                return;
+            }
+            if (exc.get() != null) {
+                return;
+            }
+            int tileX = fromTile % tilesX;
+            int tileY = fromTile / tilesX;
+            int c0 = startCol + tileX * tileCols;
+            int r0 = startRow + tileY * tileRows;
+            int c1 = Math.min(c0 + tileCols, endCol);
+            int r1 = Math.min(r0 + tileRows, endRow);
+            try {
+                for( int r = r0; r < r1; r++ ) {
+                    for( int c = c0; c < c1; c++ ) {
+                        calculator.calculate(c, r);
+                    }
+                }
+            } catch (Exception e) {
+                exc.compareAndSet(null, e);
+            }
+        }
+    }
+
+    /**
+     * The work to do on a single cell of a region.
+     */
+    @FunctionalInterface
+    public interface CellCalculator {
+        void calculate( int col, int row ) throws Exception;
+    }
+
+}
@@ -40,15 +40,20 @@ import javax.media.jai.ParameterBlockJAI;
 import javax.media.jai.ROIShape;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.io.rasterreader.RasterBlock;
+import org.hortonmachine.gears.io.rasterreader.RasterBlockReader;
+import org.hortonmachine.gears.io.rasterwriter.RasterBlockWriter;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 
 import it.geosolutions.jaiext.JAIExt;
 import it.geosolutions.jaiext.range.Range;
 import it.geosolutions.jaiext.range.RangeFactory;
+import it.geosolutions.jaiext.rlookup.LookupItem;
 import it.geosolutions.jaiext.rlookup.RangeLookupTable;
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -104,6 +109,23 @@ public class OmsRangeLookup extends HMModel {
 
         RenderedImage inRI = inRaster.getRenderedImage();
 
+        RangeLookupTable<Double, Double> table = buildTable();
+
+        ROIShape roi = new ROIShape(new Rectangle(0, 0, inRI.getWidth(), inRI.getHeight()));
+
+        ParameterBlockJAI pb = new ParameterBlockJAI("RLookup");
+        pb.setSource("source0", inRI);
+        pb.setParameter("table", table);
+        pb.setParameter("roi", roi);
+        pb.setParameter("default", (Double) novalue);
+        RenderedImage lookupImg = JAI.create("RLookup", pb);
+
+        RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inRaster);
+        outRaster = CoverageUtilities.buildCoverageWithNovalue("rangelookup", lookupImg, regionMap,
+                inRaster.getCoordinateReferenceSystem(), novalue);
+    }
+
+    private RangeLookupTable<Double, Double> buildTable() {
         RangeLookupTable.Builder<Double, Double> builder = new RangeLookupTable.Builder<Double, Double>();
 
         String[] rangesSplit = pRanges.trim().split(",");
@@ -153,19 +175,49 @@ public class OmsRangeLookup extends HMModel {
         }
         // List<org.jaitools.numeric.Range> ranges;
         // new RangeLookupProcess().execute(inRaster, 0, ranges, null);
-        RangeLookupTable<Double, Double> table = builder.build();
-
-        ROIShape roi = new ROIShape(new Rectangle(0, 0, inRI.getWidth(), inRI.getHeight()));
-
-        ParameterBlockJAI pb = new ParameterBlockJAI("RLookup");
-        pb.setSource("source0", inRI);
-        pb.setParameter("table", table);
-        pb.setParameter("roi", roi);
-        pb.setParameter("default", (Double) novalue);
-        RenderedImage lookupImg = JAI.create("RLookup", pb);
+        return builder.build();
+    }
 
-        RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inRaster);
-        outRaster = CoverageUtilities.buildCoverageWithNovalue("rangelookup", lookupImg, regionMap,
-                inRaster.getCoordinateReferenceSystem(), novalue);
+    /**
+     * Classify a raster file by ranges block by block, writing the result incrementally.
+     * 
+     * @param inPath the path of the raster to classify.
+     * @param ranges the ranges, as in {@link #pRanges}.
+     * @param classes the classes, as in {@link #pClasses}.
+     * @param outPath the path of the output raster.
+     * @param pm the progress monitor.
+     * @throws Exception
+     */
+    public static void lookup( String inPath, String ranges, String classes, String outPath, IHMProgressMonitor pm )
+            throws Exception {
+        OmsRangeLookup rangeLookup = new OmsRangeLookup();
+        rangeLookup.pm = pm;
+        rangeLookup.pRanges = ranges;
+        rangeLookup.pClasses = classes;
+        RangeLookupTable<Double, Double> table = rangeLookup.buildTable();
+
+        try (RasterBlockReader reader = RasterBlockReader.open(inPath, RasterBlockReader.DEFAULT_BLOCK_ROWS);
+                RasterBlockWriter writer = new RasterBlockWriter(outPath, reader.getRegionMap(), reader.getCrs(),
+                        reader.getNovalue())) {
+            double novalue = reader.getNovalue();
+            try {
+                pm.beginTask("Classifying data...", reader.getRows());
+                while( reader.hasNext() ) {
+                    RasterBlock block = reader.next();
+                    double[] values = block.getValues();
+                    int cells = block.getRows() * block.getCols();
+                    for( int i = 0; i < cells; i++ ) {
+                        LookupItem<Double, Double> item = table.getLookupItem(values[i]);
+                        values[i] = item != null ? item.getValue() : novalue;
+                    }
+                    writer.write(block);
+                    pm.worked(block.getRows());
+                }
+                pm.done();
+            } catch (Exception e) {
+                writer.abort();
+                throw e;
+            }
+        }
     }
 }
@@ -31,13 +31,14 @@ import static org.hortonmachine.gears.modules.r.rasterdiff.OmsRasterDiff.OMSRAST
 
 import java.awt.image.WritableRaster;
 
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
-
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.io.rasterreader.RasterBlock;
+import org.hortonmachine.gears.io.rasterreader.RasterBlockReader;
+import org.hortonmachine.gears.io.rasterwriter.RasterBlockWriter;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 
@@ -102,57 +103,99 @@ public class OmsRasterDiff extends HMModel {
     public void process() throws Exception {
         checkNull(inRaster1, inRaster2);
 
-        double thres = 0.0;
-        if (pThreshold != null) {
-            thres = pThreshold;
-        }
-
         RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inRaster1);
         int cols = regionMap.getCols();
         int rows = regionMap.getRows();
 
-        RandomIter r1Iter = CoverageUtilities.getRandomIterator(inRaster1);
-        RandomIter r2Iter = CoverageUtilities.getRandomIterator(inRaster2);
-
         double r1Nv = HMConstants.getNovalue(inRaster1);
-        double r2Nv = HMConstants.getNovalue(inRaster2);
         WritableRaster outWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, r1Nv);
-        WritableRandomIter outIter = RandomIterFactory.createWritable(outWR, null);
-
-        pm.beginTask("Subtracting raster...", cols);
-        for( int r = 0; r < rows; r++ ) {
-            for( int c = 0; c < cols; c++ ) {
-                double r1 = r1Iter.getSampleDouble(c, r, 0);
-                double r2 = r2Iter.getSampleDouble(c, r, 0);
-                double diff;
-                if (isNovalue(r1, r1Nv) && isNovalue(r2, r2Nv)) {
-                    continue;
-                } else if (isNovalue(r1, r1Nv)) {
-                    diff = r2;
-                } else if (isNovalue(r2, r2Nv)) {
-                    diff = r1;
-                } else {
-                    diff = r1 - r2;
-                }
-                if (!doNegatives && diff < 0) {
-                    diff = 0.0;
-//                    diff = doubleNovalue;
-                }
-                if (pThreshold != null && diff < thres) {
-                    diff = r1Nv;
-                }
-                outIter.setSample(c, r, 0, diff);
+
+        try (RasterBlockReader r1Reader = new RasterBlockReader(inRaster1, RasterBlockReader.DEFAULT_BLOCK_ROWS);
+                RasterBlockReader r2Reader = new RasterBlockReader(inRaster2, RasterBlockReader.DEFAULT_BLOCK_ROWS)) {
+            double[] out = new double[cols * r1Reader.getBlockRows()];
+            pm.beginTask("Subtracting raster...", rows);
+            while( r1Reader.hasNext() ) {
+                RasterBlock b1 = r1Reader.next();
+                RasterBlock b2 = r2Reader.next();
+                diff(b1, r1Nv, b2, r2Reader.getNovalue(), out);
+                outWR.setSamples(0, b1.getStartRow(), cols, b1.getRows(), 0, out);
+                pm.worked(b1.getRows());
             }
-            pm.worked(1);
+            pm.done();
         }
-        pm.done();
-
-        r1Iter.done();
-        r2Iter.done();
-        outIter.done();
 
         outRaster = CoverageUtilities.buildCoverageWithNovalue("corrected", outWR, regionMap,
                 inRaster1.getCoordinateReferenceSystem(), r1Nv);
     }
 
+    private void diff( RasterBlock b1, double r1Nv, RasterBlock b2, double r2Nv, double[] out ) {
+        double[] values1 = b1.getValues();
+        double[] values2 = b2.getValues();
+        int cells = b1.getRows() * b1.getCols();
+        for( int i = 0; i < cells; i++ ) {
+            double r1 = values1[i];
+            double r2 = values2[i];
+            double diff;
+            if (isNovalue(r1, r1Nv) && isNovalue(r2, r2Nv)) {
+                out[i] = r1Nv;
+                continue;
+            } else if (isNovalue(r1, r1Nv)) {
+                diff = r2;
+            } else if (isNovalue(r2, r2Nv)) {
+                diff = r1;
+            } else {
+                diff = r1 - r2;
+            }
+            if (!doNegatives && diff < 0) {
+                diff = 0.0;
+            }
+            if (pThreshold != null && diff < pThreshold) {
+                diff = r1Nv;
+            }
+            out[i] = diff;
+        }
+    }
+
+    /**
+     * Subtract two raster files block by block, writing the result incrementally.
+     * 
+     * @param inPath1 the path of the input raster.
+     * @param inPath2 the path of the raster to subtract.
+     * @param threshold the optional threshold under which to set novalue.
+     * @param doNegatives if <code>false</code>, negative values are set to 0.
+     * @param outPath the path of the output raster.
+     * @param pm the progress monitor.
+     * @throws Exception
+     */
+    public static void diff( String inPath1, String inPath2, Double threshold, boolean doNegatives, String outPath,
+            IHMProgressMonitor pm ) throws Exception {
+        OmsRasterDiff rasterDiff = new OmsRasterDiff();
+        rasterDiff.pThreshold = threshold;
+        rasterDiff.doNegatives = doNegatives;
+        try (RasterBlockReader r1Reader = RasterBlockReader.open(inPath1, RasterBlockReader.DEFAULT_BLOCK_ROWS);
+                RasterBlockReader r2Reader = RasterBlockReader.open(inPath2, RasterBlockReader.DEFAULT_BLOCK_ROWS)) {
+            if (r1Reader.getCols() != r2Reader.getCols() || r1Reader.getRows() != r2Reader.getRows()) {
+                throw new ModelsIllegalargumentException("The rasters need to have the same grid.", rasterDiff, pm);
+            }
+            double r1Nv = r1Reader.getNovalue();
+            try (RasterBlockWriter writer = new RasterBlockWriter(outPath, r1Reader.getRegionMap(), r1Reader.getCrs(), r1Nv)) {
+                try {
+                    double[] out = new double[r1Reader.getCols() * r1Reader.getBlockRows()];
+                    pm.beginTask("Subtracting raster...", r1Reader.getRows());
+                    while( r1Reader.hasNext() ) {
+                        RasterBlock b1 = r1Reader.next();
+                        RasterBlock b2 = r2Reader.next();
+                        rasterDiff.diff(b1, r1Nv, b2, r2Reader.getNovalue(), out);
+                        writer.write(b1.getStartRow(), b1.getRows(), out);
+                        pm.worked(b1.getRows());
+                    }
+                    pm.done();
+                } catch (Exception e) {
+                    writer.abort();
+                    throw e;
+                }
+            }
+        }
+    }
+
 }
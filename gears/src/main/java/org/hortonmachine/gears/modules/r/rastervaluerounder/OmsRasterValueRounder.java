@@ -35,9 +35,6 @@ import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 import java.awt.image.WritableRaster;
 import java.text.DecimalFormat;
 
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.WritableRandomIter;
-
 import oms3.annotations.Author;
 import oms3.annotations.Description;
 import oms3.annotations.Documentation;
@@ -51,7 +48,11 @@ import oms3.annotations.Out;
 import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.io.rasterreader.RasterBlock;
+import org.hortonmachine.gears.io.rasterreader.RasterBlockReader;
+import org.hortonmachine.gears.io.rasterwriter.RasterBlockWriter;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 
@@ -94,31 +95,66 @@ public class OmsRasterValueRounder extends HMModel {
         int cols = regionMap.getCols();
 
         WritableRaster outWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, null);
-        RandomIter inRasterIter = CoverageUtilities.getRandomIterator(inRaster);
-        WritableRandomIter outIter = CoverageUtilities.getWritableRandomIterator(outWR);
-
-        pm.beginTask("Rounding data...", rows);
-        for( int r = 0; r < rows; r++ ) {
-            if (isCanceled(pm)) {
-                return;
-            }
-            for( int c = 0; c < cols; c++ ) {
-                double value = inRasterIter.getSampleDouble(c, r, 0);
-                if (!isNovalue(value)) {
-                    String formatted = formatter.format(value);
-                    value = Double.parseDouble(formatted);
-                    outIter.setSample(c, r, 0, value);
-                } else {
-                    outIter.setSample(c, r, 0, doubleNovalue);
+        try (RasterBlockReader reader = new RasterBlockReader(inRaster, RasterBlockReader.DEFAULT_BLOCK_ROWS)) {
+            pm.beginTask("Rounding data...", rows);
+            while( reader.hasNext() ) {
+                if (isCanceled(pm)) {
+                    return;
                 }
+                RasterBlock block = reader.next();
+                round(block);
+                outWR.setSamples(0, block.getStartRow(), cols, block.getRows(), 0, block.getValues());
+                pm.worked(block.getRows());
             }
-            pm.worked(1);
+            pm.done();
         }
-        pm.done();
-
-        outIter.done();
 
         outRaster = CoverageUtilities.buildCoverage("rounded", outWR, regionMap, inRaster.getCoordinateReferenceSystem());
     }
 
+    private void round( RasterBlock block ) {
+        double[] values = block.getValues();
+        int cells = block.getRows() * block.getCols();
+        for( int i = 0; i < cells; i++ ) {
+            double value = values[i];
+            if (!isNovalue(value)) {
+                String formatted = formatter.format(value);
+                values[i] = Double.parseDouble(formatted);
+            } else {
+                values[i] = doubleNovalue;
+            }
+        }
+    }
+
+    /**
+     * Round the values of a raster file block by block, writing the result incrementally.
+     * 
+     * @param inPath the path of the raster to round.
+     * @param pattern the rounding pattern.
+     * @param outPath the path of the output raster.
+     * @param pm the progress monitor.
+     * @throws Exception
+     */
+    public static void round( String inPath, String pattern, String outPath, IHMProgressMonitor pm ) throws Exception {
+        OmsRasterValueRounder rounder = new OmsRasterValueRounder();
+        rounder.formatter = new DecimalFormat(pattern);
+        try (RasterBlockReader reader = RasterBlockReader.open(inPath, RasterBlockReader.DEFAULT_BLOCK_ROWS);
+                RasterBlockWriter writer = new RasterBlockWriter(outPath, reader.getRegionMap(), reader.getCrs(),
+                        doubleNovalue)) {
+            try {
+                pm.beginTask("Rounding data...", reader.getRows());
+                while( reader.hasNext() ) {
+                    RasterBlock block = reader.next();
+                    rounder.round(block);
+                    writer.write(block);
+                    pm.worked(block.getRows());
+                }
+                pm.done();
+            } catch (Exception e) {
+                writer.abort();
+                throw e;
+            }
+        }
+    }
+
 }
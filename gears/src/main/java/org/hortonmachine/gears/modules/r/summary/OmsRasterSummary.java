@@ -29,25 +29,16 @@ import static org.hortonmachine.gears.modules.r.summary.OmsRasterSummary.OMSRAST
 import static org.hortonmachine.gears.modules.r.summary.OmsRasterSummary.OMSRASTERSUMMARY_STATUS;
 
 import java.awt.image.RenderedImage;
-import java.awt.image.WritableRaster;
-import java.util.List;
-
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.data.simple.SimpleFeatureCollection;
+import org.hortonmachine.gears.io.rasterreader.RasterBlock;
+import org.hortonmachine.gears.io.rasterreader.RasterBlockReader;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.libs.modules.Variables;
-import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
-import org.hortonmachine.gears.utils.features.FeatureUtilities;
 import org.hortonmachine.gears.utils.math.CoupledFieldsMoments;
-import org.opengis.feature.simple.SimpleFeature;
-
-import org.locationtech.jts.geom.Polygon;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -153,51 +144,37 @@ public class OmsRasterSummary extends HMModel {
             pm.message("");
         }
 
-        // TODO use the geotools bridge instead of jaitools:
-        // http://svn.osgeo.org/geotools/trunk/modules/library/coverage/src/test/java/org/geotools/coverage/processing/operation/ZonalStasTest.java
-
         RenderedImage inRI = inRaster.getRenderedImage();
-        Polygon regionPolygon = CoverageUtilities.getRegionPolygon(inRaster);
-        SimpleFeatureCollection regionFC = FeatureUtilities.featureCollectionFromGeometry(inRaster.getCoordinateReferenceSystem(),
-                regionPolygon);
-
-        OmsZonalStats zs = new OmsZonalStats();
-        zs.pm = new DummyProgressMonitor();
-        zs.inRaster = inRaster;
-        zs.inVector = regionFC;
-        zs.pPercentageThres = 0;
-        zs.process();
-        SimpleFeatureCollection outVector = zs.outVector;
-        List<SimpleFeature> testList = FeatureUtilities.featureCollectionToList(outVector);
-        SimpleFeature feature = testList.get(0);
 
         if (stats == null) {
             stats = new String[]{Variables.MIN, Variables.MAX, Variables.AVG, Variables.SDEV, Variables.VAR, Variables.SUM};
         }
 
+        double[] minMaxAvgSdevSum;
+        try (RasterBlockReader reader = new RasterBlockReader(inRaster, RasterBlockReader.DEFAULT_BLOCK_ROWS)) {
+            minMaxAvgSdevSum = summarize(reader);
+        }
+
         for( String statName : stats ) {
-            Object attribute = feature.getAttribute(statName);
-            if (attribute != null) {
-                switch( statName ) {
-                case Variables.MIN:
-                    outMin = (Double) attribute;
-                    break;
-                case Variables.MAX:
-                    outMax = (Double) attribute;
-                    break;
-                case Variables.AVG:
-                    outMean = (Double) attribute;
-                    break;
-                case Variables.SDEV:
-                    outSdev = (Double) attribute;
-                    break;
-                case Variables.SUM:
-                    outSum = (Double) attribute;
-                    break;
-
-                default:
-                    break;
-                }
+            switch( statName ) {
+            case Variables.MIN:
+                outMin = minMaxAvgSdevSum[0];
+                break;
+            case Variables.MAX:
+                outMax = minMaxAvgSdevSum[1];
+                break;
+            case Variables.AVG:
+                outMean = minMaxAvgSdevSum[2];
+                break;
+            case Variables.SDEV:
+                outSdev = minMaxAvgSdevSum[3];
+                break;
+            case Variables.SUM:
+                outSum = minMaxAvgSdevSum[4];
+                break;
+
+            default:
+                break;
             }
         }
 
@@ -232,6 +209,61 @@ public class OmsRasterSummary extends HMModel {
 
     }
 
+    /**
+     * Calculate the base statistics of a raster in a single pass over its row blocks.
+     * 
+     * @param reader the block reader of the raster.
+     * @return the array of min, max, mean, standard deviation and sum of the valid cells.
+     */
+    public static double[] summarize( RasterBlockReader reader ) {
+        double novalue = reader.getNovalue();
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        // the variance is accumulated on values shifted by the first one to avoid cancellation
+        double shift = 0;
+        double shiftedSum = 0;
+        double shiftedSquaresSum = 0;
+        long count = 0;
+        while( reader.hasNext() ) {
+            RasterBlock block = reader.next();
+            double[] values = block.getValues();
+            int cells = block.getRows() * block.getCols();
+            for( int i = 0; i < cells; i++ ) {
+                double value = values[i];
+                if (HMConstants.isNovalue(value, novalue)) {
+                    continue;
+                }
+                if (count == 0) {
+                    shift = value;
+                }
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+                double shifted = value - shift;
+                shiftedSum += shifted;
+                shiftedSquaresSum += shifted * shifted;
+                count++;
+            }
+        }
+        double mean = sum / count;
+        double variance = Math.max(0.0, (shiftedSquaresSum - shiftedSum * shiftedSum / count) / count);
+        return new double[]{min, max, mean, Math.sqrt(variance), sum};
+    }
+
+    /**
+     * Calculate the base statistics of a raster file, reading it by blocks.
+     * 
+     * @param path the path to the raster file.
+     * @return the array of min, max, mean, standard deviation and sum of the valid cells.
+     * @throws Exception
+     */
+    public static double[] summarize( String path ) throws Exception {
+        try (RasterBlockReader reader = RasterBlockReader.open(path, RasterBlockReader.DEFAULT_BLOCK_ROWS)) {
+            return summarize(reader);
+        }
+    }
+
     public static double[] getMinMax( GridCoverage2D raster ) throws Exception {
         OmsRasterSummary summary = new OmsRasterSummary();
         summary.inRaster = raster;
@@ -265,25 +297,25 @@ public class OmsRasterSummary extends HMModel {
         int cols = regionMap.getCols();
         int rows = regionMap.getRows();
 
-        double nv = HMConstants.getNovalue(coverage);
-
-        WritableRaster outWR = CoverageUtilities.renderedImage2WritableRaster(coverage.getRenderedImage(), false);
-        WritableRandomIter iter = RandomIterFactory.createWritable(outWR, null);
-
         int nvCount = 0;
         int all = cols * rows;
         int zeroesCount = 0;
-        for( int y = 0; y < rows; y++ ) {
-            for( int x = 0; x < cols; x++ ) {
-                double value = iter.getSampleDouble(x, y, 0);
-                if (HMConstants.isNovalue(value, nv)) {
-                    nvCount++;
-                } else if (value == 0) {
-                    zeroesCount++;
+        try (RasterBlockReader reader = new RasterBlockReader(coverage, RasterBlockReader.DEFAULT_BLOCK_ROWS)) {
+            double nv = reader.getNovalue();
+            while( reader.hasNext() ) {
+                RasterBlock block = reader.next();
+                double[] values = block.getValues();
+                int cells = block.getRows() * block.getCols();
+                for( int i = 0; i < cells; i++ ) {
+                    double value = values[i];
+                    if (HMConstants.isNovalue(value, nv)) {
+                        nvCount++;
+                    } else if (value == 0) {
+                        zeroesCount++;
+                    }
                 }
             }
         }
-        iter.done();
 
         return new int[]{all, nvCount, zeroesCount};
     }
@@ -255,6 +255,42 @@ public class MBTilesHelper implements AutoCloseable {
             batchStatement.executeBatch();
         }
     }
+
+    /**
+     * Add an already encoded tile to the current batch.
+     *
+     * <p>Not synchronized, meant to be used by a single writer thread together
+     * with {@link #commitBatch()}.</p>
+     *
+     * @param x the tile x.
+     * @param y the tile y.
+     * @param z the zoomlevel.
+     * @param tileBytes the encoded image.
+     * @throws SQLException
+     */
+    public void addEncodedTileBatch( int x, int y, int z, byte[] tileBytes ) throws SQLException {
+        addedTiles++;
+        if (batchStatement == null) {
+            batchStatement = connection.prepareStatement(insertTileSql);
+        }
+        batchStatement.setInt(1, z);
+        batchStatement.setInt(2, x);
+        batchStatement.setInt(3, y);
+        batchStatement.setBytes(4, tileBytes);
+        batchStatement.addBatch();
+    }
+
+    /**
+     * Execute the pending batch and commit the transaction.
+     *
+     * @throws SQLException
+     */
+    public void commitBatch() throws SQLException {
+        if (batchStatement != null)
+            batchStatement.executeBatch();
+        connection.commit();
+    }
+
     public void triggerLastBatch() {
         try {
             if (batchStatement != null)
@@ -46,7 +46,11 @@ import static org.hortonmachine.gears.modules.r.tmsgenerator.MBTilesHelper.TILES
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -57,7 +61,6 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.hortonmachine.gears.io.vectorreader.OmsVectorReader;
-import org.hortonmachine.gears.libs.exceptions.ModelsIOException;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.exceptions.ModelsUserCancelException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
@@ -183,6 +186,14 @@ public class OmsTmsGenerator extends HMModel {
     @In
     public boolean doMbtiles = false;
 
+    @Description("The side of the metatiles rendered at once, in tiles (a power of 2, 1 renders single tiles).")
+    @In
+    public int pMetatile = 8;
+
+    @Description("Build the lower zoom levels by downsampling the tiles of the higher level instead of rendering them.")
+    @In
+    public boolean doDownsample = true;
+
     @Description(OMSTMSGENERATOR_IN_PATH_DESCRIPTION)
     @In
     public String inPath;
@@ -190,6 +201,8 @@ public class OmsTmsGenerator extends HMModel {
     private static final String EPSG_MERCATOR = "EPSG:3857";
     private static final String EPSG_LATLONG = "EPSG:4326";
 
+    private static final int TRANSACTION_SIZE = 1000;
+
     private PreparedGeometry zoomLimitGeometry;
 
     private MBTilesHelper mbtilesHelper;
@@ -198,6 +211,14 @@ public class OmsTmsGenerator extends HMModel {
 
     private volatile boolean cancelModule = false;
 
+    private CoordinateReferenceSystem mercatorCrs;
+    private ReferencedEnvelope mercatorBounds;
+    private ImageGenerator imgGen;
+    private GlobalMercator mercator;
+    private TileImages tileImages;
+    private String tileFormat;
+    private TilesWriter writer;
+
     @Execute
     public void process() throws Exception {
         try {
@@ -258,13 +279,13 @@ public class OmsTmsGenerator extends HMModel {
                 throw new ModelsIllegalargumentException("No projection info available. check your inputs.", this, pm);
             }
 
-            final CoordinateReferenceSystem mercatorCrs = CrsUtilities.getCrsFromEpsg(EPSG_MERCATOR, null);
+            mercatorCrs = CrsUtilities.getCrsFromEpsg(EPSG_MERCATOR, null);
 
             ReferencedEnvelope dataBounds = new ReferencedEnvelope(pWest, pEast, pSouth, pNorth, dataCrs);
             MathTransform data2MercatorTransform = CRS.findMathTransform(dataCrs, mercatorCrs);
 
             Envelope mercatorEnvelope = JTS.transform(dataBounds, data2MercatorTransform);
-            ReferencedEnvelope mercatorBounds = new ReferencedEnvelope(mercatorEnvelope, mercatorCrs);
+            mercatorBounds = new ReferencedEnvelope(mercatorEnvelope, mercatorCrs);
 
             checkCancel();
             if (inZoomLimitVector != null) {
@@ -279,7 +300,7 @@ public class OmsTmsGenerator extends HMModel {
             File inFolder = new File(inPath);
             final File baseFolder = new File(inFolder, pName);
 
-            final ImageGenerator imgGen = new ImageGenerator(pm, mercatorCrs);
+            imgGen = new ImageGenerator(pm, mercatorCrs);
             if (inWMS != null) {
                 imgGen.setWMS(inWMS);
             }
@@ -309,139 +330,40 @@ public class OmsTmsGenerator extends HMModel {
                 }
             imgGen.setLayers();
 
-            double w = mercatorBounds.getMinX();
-            double s = mercatorBounds.getMinY();
-            double e = mercatorBounds.getMaxX();
-            double n = mercatorBounds.getMaxY();
-
-            final GlobalMercator mercator = new GlobalMercator();
-
-            for( int z = pMinzoom; z <= pMaxzoom; z++ ) {
-                checkCancel();
-
-                // get ul and lr tile number
-                int[] llTileNumber = mercator.MetersToTile(w, s, z);
-                int[] urTileNumber = mercator.MetersToTile(e, n, z);
-
-                int startXTile = llTileNumber[0];
-                int startYTile = llTileNumber[1];
-                int endXTile = urTileNumber[0];
-                int endYTile = urTileNumber[1];
-
-                int tileNum = 0;
-
-                final ReferencedEnvelope levelBounds = new ReferencedEnvelope(mercatorCrs);
-
-                ExecutorService fixedThreadPool = Executors.newFixedThreadPool(threads);
-
-                pm.beginTask("Generating tiles at zoom level: " + z, (endXTile - startXTile + 1) * (endYTile - startYTile + 1));
-                for( int i = startXTile; i <= endXTile; i++ ) {
+            mercator = new GlobalMercator();
+            tileImages = new TileImages(pCheckcolor);
+            tileFormat = ext;
+            int metaTiles = Math.max(1, Integer.highestOneBit(pMetatile));
+            int maxLocalLevels = Integer.numberOfTrailingZeros(metaTiles);
+
+            try (TilesWriter tilesWriter = mbtilesHelper != null
+                    ? new TilesWriter(mbtilesHelper, TRANSACTION_SIZE)
+                    : new TilesWriter(baseFolder, ext)) {
+                writer = tilesWriter;
+                Map<Long, int[]> childTiles = null;
+                int z = pMaxzoom;
+                while( z >= pMinzoom ) {
                     checkCancel();
-                    for( int j = startYTile; j <= endYTile; j++ ) {
-                        checkCancel();
-                        double[] bounds = mercator.TileBounds(i, j, z);
-                        double west = bounds[0];
-                        double south = bounds[1];
-                        double east = bounds[2];
-                        double north = bounds[3];
-
-                        final ReferencedEnvelope tmpBounds = new ReferencedEnvelope(west, east, south, north, mercatorCrs);
-                        levelBounds.expandToInclude(tmpBounds);
-
-                        // if there is a zoom level geometry limitation, apply it
-                        if (zoomLimitGeometry != null && z > pZoomLimit) {
-                            double safeExtend = tmpBounds.getWidth() > tmpBounds.getHeight()
-                                    ? tmpBounds.getWidth()
-                                    : tmpBounds.getHeight();
-                            final ReferencedEnvelope tmp = new ReferencedEnvelope(tmpBounds);
-                            tmp.expandBy(safeExtend);
-                            Polygon polygon = FeatureUtilities.envelopeToPolygon(tmp);
-                            if (!zoomLimitGeometry.intersects(polygon)) {
-                                pm.worked(1);
-                                continue;
-                            }
-                        }
-
-                        if (mbtilesHelper != null) {
-                            final int x = i;
-                            final int y = j;
-                            final int zz = z;
-                            final String fformat = format;
-                            tileNum++;
-                            Runnable runner = new Runnable(){
-                                public void run() {
-                                    if (!cancelModule) {
-                                        try {
-                                            checkCancel();
-                                            BufferedImage image = imgGen.getImageWithCheck(tmpBounds, TILESIZE, TILESIZE, 0.0,
-                                                    pCheckcolor);
-                                            if (image != null) {
-                                                mbtilesHelper.addTile(x, y, zz, image, fformat);
-                                            }
-                                        } catch (Exception e) {
-                                            pm.errorMessage(e.getMessage());
-                                            cancelModule = true;
-                                        }
-                                    }
-                                    pm.worked(1);
-                                }
-                            };
-                            fixedThreadPool.execute(runner);
-
-                        } else {
-                            File imageFolder = new File(baseFolder, z + "/" + i);
-                            if (!imageFolder.exists()) {
-                                if (!imageFolder.mkdirs()) {
-                                    throw new ModelsIOException("Unable to create folder:" + imageFolder, this);
-                                }
-                            }
-
-                            File ignoreMediaFile = new File(imageFolder, ".nomedia");
-                            ignoreMediaFile.createNewFile();
-
-                            final File imageFile = new File(imageFolder, j + "." + ext);
-                            if (imageFile.exists()) {
-                                pm.worked(1);
-                                continue;
-                            }
-                            tileNum++;
-                            final String imagePath = imageFile.getAbsolutePath();
-                            final ReferencedEnvelope finalBounds = tmpBounds;
-                            Runnable runner = new Runnable(){
-                                public void run() {
-                                    if (!cancelModule) {
-                                        try {
-                                            if (pImagetype == 1) {
-                                                imgGen.dumpJpgImage(imagePath, finalBounds, TILESIZE, TILESIZE, 0.0, pCheckcolor);
-                                            } else {
-                                                imgGen.dumpPngImage(imagePath, finalBounds, TILESIZE, TILESIZE, 0.0, pCheckcolor);
-                                            }
-                                            pm.worked(1);
-                                        } catch (Exception ex) {
-                                            pm.errorMessage(ex.getMessage());
-                                            cancelModule = true;
-                                        }
-                                    }
-                                }
-                            };
-                            fixedThreadPool.execute(runner);
+                    if (isDownsampled(z)) {
+                        boolean keep = isDownsampled(z - 1);
+                        childTiles = downsampleLevel(childTiles, z, keep, threads);
+                        z--;
+                    } else {
+                        // the lower levels that fit in a metatile are built inside the rendering job
+                        int localLevels = 0;
+                        while( localLevels < maxLocalLevels && isDownsampled(z - localLevels - 1) ) {
+                            localLevels++;
                         }
+                        int lowestZ = z - localLevels;
+                        boolean keep = isDownsampled(lowestZ - 1);
+                        childTiles = renderLevel(z, localLevels, keep, metaTiles, threads);
+                        z = lowestZ - 1;
                     }
                 }
-                try {
-                    fixedThreadPool.shutdown();
-                    while( !fixedThreadPool.isTerminated() ) {
-                        Thread.sleep(100);
-                    }
-                } catch (InterruptedException exx) {
-                    exx.printStackTrace();
-                }
-                pm.done();
-
-                pm.message("Zoom level: " + z + " has " + tileNum + " tiles.");
-                // pm.message("Boundary covered at Zoom level: " + z + ": " + levelBounds);
-                // pm.message("Total boundary wanted: " + mercatorBounds);
+            }
 
+            for( int z = pMinzoom; z <= pMaxzoom; z++ ) {
+                pm.message("Zoom level: " + z + " has " + writer.getTilesCount(z) + " tiles.");
             }
 
             if (mbtilesHelper != null) {
@@ -468,4 +390,232 @@ public class OmsTmsGenerator extends HMModel {
             pm.errorMessage(ModelsUserCancelException.DEFAULTMESSAGE);
         }
     }
+
+    /**
+     * @return <code>true</code> if the zoom level is built from the tiles of the higher level.
+     */
+    private boolean isDownsampled( int z ) {
+        if (!doDownsample || z < pMinzoom || z >= pMaxzoom) {
+            return false;
+        }
+        // the higher level is limited by the zoom limit geometry, this one isn't
+        return zoomLimitGeometry == null || z > pZoomLimit || z + 1 <= pZoomLimit;
+    }
+
+    /**
+     * Render a zoom level by metatiles, each one split in tiles and downsampled for the
+     * following levels.
+     * 
+     * @param z the zoom level to render.
+     * @param localLevels the number of lower levels to build inside the metatile.
+     * @param keep if <code>true</code>, the tiles of the lowest level are returned.
+     * @param metaTiles the side of the metatiles, in tiles.
+     * @param threads the threads to use.
+     * @return the pixels of the tiles of the lowest level, or <code>null</code>.
+     */
+    private Map<Long, int[]> renderLevel( int z, int localLevels, boolean keep, int metaTiles, int threads ) throws Exception {
+        int[] llTileNumber = mercator.MetersToTile(mercatorBounds.getMinX(), mercatorBounds.getMinY(), z);
+        int[] urTileNumber = mercator.MetersToTile(mercatorBounds.getMaxX(), mercatorBounds.getMaxY(), z);
+        int[] tilesRange = {llTileNumber[0], llTileNumber[1], urTileNumber[0], urTileNumber[1]};
+
+        int startXMeta = tilesRange[0] / metaTiles;
+        int startYMeta = tilesRange[1] / metaTiles;
+        int endXMeta = tilesRange[2] / metaTiles;
+        int endYMeta = tilesRange[3] / metaTiles;
+
+        Map<Long, int[]> keptTiles = keep ? new ConcurrentHashMap<>() : null;
+
+        String levels = localLevels > 0 ? "s: " + z + "-" + (z - localLevels) : ": " + z;
+        pm.beginTask("Generating tiles at zoom level" + levels, (endXMeta - startXMeta + 1) * (endYMeta - startYMeta + 1));
+        ExecutorService fixedThreadPool = Executors.newFixedThreadPool(threads);
+        for( int i = startXMeta; i <= endXMeta; i++ ) {
+            checkCancel();
+            for( int j = startYMeta; j <= endYMeta; j++ ) {
+                final int metaX = i;
+                final int metaY = j;
+                fixedThreadPool.execute(() -> {
+                    if (!cancelModule) {
+                        try {
+                            renderMetaTile(z, metaX, metaY, metaTiles, tilesRange, localLevels, keptTiles);
+                        } catch (Exception e) {
+                            pm.errorMessage(e.getMessage());
+                            cancelModule = true;
+                        }
+                    }
+                    pm.worked(1);
+                });
+            }
+        }
+        awaitTermination(fixedThreadPool);
+        pm.done();
+        return keptTiles;
+    }
+
+    private void renderMetaTile( int z, int metaX, int metaY, int metaTiles, int[] tilesRange, int localLevels,
+            Map<Long, int[]> keptTiles ) throws Exception {
+        int baseX = metaX * metaTiles;
+        int baseY = metaY * metaTiles;
+        int startX = Math.max(baseX, tilesRange[0]);
+        int startY = Math.max(baseY, tilesRange[1]);
+        int endX = Math.min(baseX + metaTiles - 1, tilesRange[2]);
+        int endY = Math.min(baseY + metaTiles - 1, tilesRange[3]);
+
+        boolean[] wanted = new boolean[metaTiles * metaTiles];
+        boolean anyWanted = false;
+        for( int y = startY; y <= endY; y++ ) {
+            for( int x = startX; x <= endX; x++ ) {
+                boolean isWanted = isInZoomLimit(x, y, z);
+                wanted[(x - baseX) + (y - baseY) * metaTiles] = isWanted;
+                anyWanted |= isWanted;
+            }
+        }
+        if (!anyWanted) {
+            return;
+        }
+
+        // tms rows grow to the north, image rows to the south
+        double[] llBounds = mercator.TileBounds(startX, startY, z);
+        double[] urBounds = mercator.TileBounds(endX, endY, z);
+        ReferencedEnvelope metaBounds = new ReferencedEnvelope(llBounds[0], urBounds[2], llBounds[1], urBounds[3], mercatorCrs);
+        BufferedImage metaImage = imgGen.drawImageWithNewMapContent(metaBounds, (endX - startX + 1) * TILESIZE,
+                (endY - startY + 1) * TILESIZE, 0.0);
+
+        int[][] levelTiles = new int[metaTiles * metaTiles][];
+        for( int y = startY; y <= endY; y++ ) {
+            for( int x = startX; x <= endX; x++ ) {
+                int index = (x - baseX) + (y - baseY) * metaTiles;
+                if (wanted[index]) {
+                    int[] pixels = metaImage.getRGB((x - startX) * TILESIZE, (endY - y) * TILESIZE, TILESIZE, TILESIZE, null, 0,
+                            TILESIZE);
+                    levelTiles[index] = addTile(x, y, z, pixels, localLevels == 0 ? keptTiles : null);
+                }
+            }
+        }
+
+        int size = metaTiles;
+        for( int level = 1; level <= localLevels; level++ ) {
+            int childSize = size;
+            size = size / 2;
+            int[][] parentTiles = new int[size * size][];
+            for( int py = 0; py < size; py++ ) {
+                for( int px = 0; px < size; px++ ) {
+                    int[] nw = levelTiles[2 * px + (2 * py + 1) * childSize];
+                    int[] ne = levelTiles[2 * px + 1 + (2 * py + 1) * childSize];
+                    int[] sw = levelTiles[2 * px + 2 * py * childSize];
+                    int[] se = levelTiles[2 * px + 1 + 2 * py * childSize];
+                    if (nw == null && ne == null && sw == null && se == null) {
+                        continue;
+                    }
+                    parentTiles[px + py * size] = addTile((baseX >> level) + px, (baseY >> level) + py, z - level,
+                            TileImages.downsample(nw, ne, sw, se), level == localLevels ? keptTiles : null);
+                }
+            }
+            levelTiles = parentTiles;
+        }
+    }
+
+    /**
+     * Build a zoom level from the tiles of the higher one.
+     * 
+     * @param childTiles the pixels of the tiles of level z + 1.
+     * @param z the zoom level to build.
+     * @param keep if <code>true</code>, the tiles of the level are returned.
+     * @param threads the threads to use.
+     * @return the pixels of the tiles of the level, or <code>null</code>.
+     */
+    private Map<Long, int[]> downsampleLevel( Map<Long, int[]> childTiles, int z, boolean keep, int threads ) throws Exception {
+        Set<Long> parentKeys = new HashSet<>();
+        for( long childKey : childTiles.keySet() ) {
+            parentKeys.add(tileKey(tileX(childKey) / 2, tileY(childKey) / 2));
+        }
+
+        Map<Long, int[]> keptTiles = keep ? new ConcurrentHashMap<>() : null;
+
+        pm.beginTask("Downsampling tiles at zoom level: " + z, parentKeys.size());
+        ExecutorService fixedThreadPool = Executors.newFixedThreadPool(threads);
+        for( long parentKey : parentKeys ) {
+            checkCancel();
+            fixedThreadPool.execute(() -> {
+                if (!cancelModule) {
+                    try {
+                        int x = tileX(parentKey);
+                        int y = tileY(parentKey);
+                        // the kept pixels avoid the decoding and the losses of jpeg tiles
+                        int[] nw = childTiles.get(tileKey(2 * x, 2 * y + 1));
+                        int[] ne = childTiles.get(tileKey(2 * x + 1, 2 * y + 1));
+                        int[] sw = childTiles.get(tileKey(2 * x, 2 * y));
+                        int[] se = childTiles.get(tileKey(2 * x + 1, 2 * y));
+                        addTile(x, y, z, TileImages.downsample(nw, ne, sw, se), keptTiles);
+                    } catch (Exception e) {
+                        pm.errorMessage(e.getMessage());
+                        cancelModule = true;
+                    }
+                }
+                pm.worked(1);
+            });
+        }
+        awaitTermination(fixedThreadPool);
+        pm.done();
+        return keptTiles;
+    }
+
+    /**
+     * Hand a tile to the writer, unless it is empty.
+     * 
+     * @return the pixels to use for the downsampling, <code>null</code> if the tile is transparent.
+     */
+    private int[] addTile( int x, int y, int z, int[] pixels, Map<Long, int[]> keptTiles ) throws Exception {
+        switch( tileImages.classify(pixels) ) {
+        case TileImages.EMPTY:
+            return null;
+        case TileImages.CHECKCOLOR:
+            if (keptTiles != null) {
+                keptTiles.put(tileKey(x, y), tileImages.getCheckTile());
+            }
+            return tileImages.getCheckTile();
+        default:
+            byte[] tileBytes = TileImages.encode(pixels, tileFormat);
+            writer.put(x, y, z, tileBytes);
+            if (keptTiles != null) {
+                keptTiles.put(tileKey(x, y), pixels);
+            }
+            return pixels;
+        }
+    }
+
+    private boolean isInZoomLimit( int x, int y, int z ) {
+        // if there is a zoom level geometry limitation, apply it
+        if (zoomLimitGeometry != null && z > pZoomLimit) {
+            double[] bounds = mercator.TileBounds(x, y, z);
+            Envelope tileBounds = new Envelope(bounds[0], bounds[2], bounds[1], bounds[3]);
+            double safeExtend = tileBounds.getWidth() > tileBounds.getHeight() ? tileBounds.getWidth() : tileBounds.getHeight();
+            tileBounds.expandBy(safeExtend);
+            Polygon polygon = FeatureUtilities.envelopeToPolygon(tileBounds);
+            return zoomLimitGeometry.intersects(polygon);
+        }
+        return true;
+    }
+
+    private void awaitTermination( ExecutorService fixedThreadPool ) {
+        try {
+            fixedThreadPool.shutdown();
+            while( !fixedThreadPool.isTerminated() ) {
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException exx) {
+            exx.printStackTrace();
+        }
+    }
+
+    private static long tileKey( int x, int y ) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private static int tileX( long key ) {
+        return (int) (key >> 32);
+    }
+
+    private static int tileY( long key ) {
+        return (int) key;
+    }
 }
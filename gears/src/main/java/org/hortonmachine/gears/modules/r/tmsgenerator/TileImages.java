@@ -0,0 +1,190 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.r.tmsgenerator;
+
+import static org.hortonmachine.gears.modules.r.tmsgenerator.MBTilesHelper.TILESIZE;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Pixel level helpers for the tiles of a pyramid.
+ *
+ * <p>Tiles are handled as packed ARGB int arrays of {@link MBTilesHelper#TILESIZE}
+ * squared pixels, row by row starting from the north.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TileImages {
+
+    public static final int PIXELS = TILESIZE * TILESIZE;
+
+    /**
+     * The tile has only transparent pixels.
+     */
+    public static final int EMPTY = 0;
+    /**
+     * The tile has only pixels of the check color.
+     */
+    public static final int CHECKCOLOR = 1;
+    /**
+     * The tile has some content.
+     */
+    public static final int CONTENT = 2;
+
+    private final int[] checkTile;
+
+    /**
+     * @param checkRgb an optional rgb triplet. If not <code>null</code>, tiles
+     *          composed only of that color are considered empty.
+     */
+    public TileImages( int[] checkRgb ) {
+        if (checkRgb != null) {
+            checkTile = new int[PIXELS];
+            Arrays.fill(checkTile, 0xFF000000 | (checkRgb[0] & 0xFF) << 16 | (checkRgb[1] & 0xFF) << 8 | (checkRgb[2] & 0xFF));
+        } else {
+            checkTile = null;
+        }
+    }
+
+    /**
+     * Classify the content of a tile.
+     *
+     * <p>The pixels are compared with the first one, stopping at the first
+     * difference, which for tiles with content comes early.</p>
+     *
+     * @param pixels the tile pixels.
+     * @return one of {@link #EMPTY}, {@link #CHECKCOLOR}, {@link #CONTENT}.
+     */
+    public int classify( int[] pixels ) {
+        int first = pixels[0];
+        for( int i = 1; i < pixels.length; i++ ) {
+            if (pixels[i] != first) {
+                return CONTENT;
+            }
+        }
+        if (first == 0) {
+            return EMPTY;
+        }
+        if (checkTile != null && first == checkTile[0]) {
+            return CHECKCOLOR;
+        }
+        return CONTENT;
+    }
+
+    /**
+     * @return the shared tile filled with the check color or <code>null</code>. Must not be modified.
+     */
+    public int[] getCheckTile() {
+        return checkTile;
+    }
+
+    /**
+     * Build the parent tile from its four children, averaging every 2x2 block of pixels.
+     *
+     * <p>Missing children are considered transparent.</p>
+     *
+     * @param nw the north west child or <code>null</code>.
+     * @param ne the north east child or <code>null</code>.
+     * @param sw the south west child or <code>null</code>.
+     * @param se the south east child or <code>null</code>.
+     * @return the pixels of the parent tile.
+     */
+    public static int[] downsample( int[] nw, int[] ne, int[] sw, int[] se ) {
+        int[] parent = new int[PIXELS];
+        int half = TILESIZE / 2;
+        downsampleInto(nw, parent, 0, 0);
+        downsampleInto(ne, parent, half, 0);
+        downsampleInto(sw, parent, 0, half);
+        downsampleInto(se, parent, half, half);
+        return parent;
+    }
+
+    private static void downsampleInto( int[] child, int[] parent, int colOffset, int rowOffset ) {
+        if (child == null) {
+            return;
+        }
+        int half = TILESIZE / 2;
+        for( int row = 0; row < half; row++ ) {
+            int childIndex = 2 * row * TILESIZE;
+            int parentIndex = (rowOffset + row) * TILESIZE + colOffset;
+            for( int col = 0; col < half; col++ ) {
+                parent[parentIndex + col] = average(child[childIndex], child[childIndex + 1], child[childIndex + TILESIZE],
+                        child[childIndex + TILESIZE + 1]);
+                childIndex += 2;
+            }
+        }
+    }
+
+    private static int average( int p1, int p2, int p3, int p4 ) {
+        if (p1 == p2 && p1 == p3 && p1 == p4) {
+            return p1;
+        }
+        int a1 = p1 >>> 24;
+        int a2 = p2 >>> 24;
+        int a3 = p3 >>> 24;
+        int a4 = p4 >>> 24;
+        int alphaSum = a1 + a2 + a3 + a4;
+        if (alphaSum == 0) {
+            return 0;
+        }
+        // colors are weighted by alpha, so that transparent pixels don't darken the result
+        int r = ((p1 >> 16 & 0xFF) * a1 + (p2 >> 16 & 0xFF) * a2 + (p3 >> 16 & 0xFF) * a3 + (p4 >> 16 & 0xFF) * a4
+                + alphaSum / 2) / alphaSum;
+        int g = ((p1 >> 8 & 0xFF) * a1 + (p2 >> 8 & 0xFF) * a2 + (p3 >> 8 & 0xFF) * a3 + (p4 >> 8 & 0xFF) * a4 + alphaSum / 2)
+                / alphaSum;
+        int b = ((p1 & 0xFF) * a1 + (p2 & 0xFF) * a2 + (p3 & 0xFF) * a3 + (p4 & 0xFF) * a4 + alphaSum / 2) / alphaSum;
+        int a = (alphaSum + 2) / 4;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Encode the pixels of a tile.
+     *
+     * @param pixels the pixels.
+     * @param format the image format (png, jpg).
+     * @return the encoded image.
+     * @throws IOException
+     */
+    public static byte[] encode( int[] pixels, String format ) throws IOException {
+        // jpg has no alpha channel
+        int type = format.equals("png") ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage image = new BufferedImage(TILESIZE, TILESIZE, type);
+        image.setRGB(0, 0, TILESIZE, TILESIZE, pixels, 0, TILESIZE);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(image, format, baos);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decode an encoded tile.
+     *
+     * @param bytes the encoded image.
+     * @return the pixels.
+     * @throws IOException
+     */
+    public static int[] decode( byte[] bytes ) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+        return image.getRGB(0, 0, TILESIZE, TILESIZE, null, 0, TILESIZE);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.r.tmsgenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single thread that writes encoded tiles to an mbtiles database or to a tms folder.
+ *
+ * <p>The rendering threads hand over the tiles through a bounded queue, so that they
+ * never wait on the database lock. Mbtiles inserts are committed in large transactions.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TilesWriter implements AutoCloseable {
+
+    private static final int QUEUE_SIZE = 1024;
+    private static final Tile END = new Tile(0, 0, 0, null);
+
+    private final MBTilesHelper mbtilesHelper;
+    private final File baseFolder;
+    private final String ext;
+    private final int transactionSize;
+
+    private final BlockingQueue<Tile> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final ConcurrentHashMap<Integer, AtomicInteger> zoom2Count = new ConcurrentHashMap<>();
+    private final Thread writerThread;
+    private volatile Exception error;
+
+    private static class Tile {
+        final int x;
+        final int y;
+        final int z;
+        final byte[] bytes;
+
+        Tile( int x, int y, int z, byte[] bytes ) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Writer to an mbtiles database.
+     *
+     * @param mbtilesHelper the open database, with tables created.
+     * @param transactionSize the number of tiles inserted per transaction.
+     */
+    public TilesWriter( MBTilesHelper mbtilesHelper, int transactionSize ) {
+        this(mbtilesHelper, null, null, transactionSize);
+    }
+
+    /**
+     * Writer to a tms folder structure (z/x/y.ext). Existing tiles are not overwritten.
+     *
+     * @param baseFolder the base folder.
+     * @param ext the image extension.
+     */
+    public TilesWriter( File baseFolder, String ext ) {
+        this(null, baseFolder, ext, 1);
+    }
+
+    private TilesWriter( MBTilesHelper mbtilesHelper, File baseFolder, String ext, int transactionSize ) {
+        this.mbtilesHelper = mbtilesHelper;
+        this.baseFolder = baseFolder;
+        this.ext = ext;
+        this.transactionSize = transactionSize;
+        writerThread = new Thread(this::writeLoop, "TilesWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queue a tile for writing. Blocks if the writer is behind.
+     *
+     * @param x the tile x (tms).
+     * @param y the tile y (tms).
+     * @param z the zoomlevel.
+     * @param bytes the encoded image.
+     * @throws Exception if the writer failed.
+     */
+    public void put( int x, int y, int z, byte[] bytes ) throws Exception {
+        checkError();
+        queue.put(new Tile(x, y, z, bytes));
+    }
+
+    /**
+     * @param zoom the zoomlevel.
+     * @return the number of tiles written for the zoomlevel.
+     */
+    public int getTilesCount( int zoom ) {
+        AtomicInteger count = zoom2Count.get(zoom);
+        return count == null ? 0 : count.get();
+    }
+
+    private void writeLoop() {
+        int pending = 0;
+        while( true ) {
+            Tile tile;
+            try {
+                tile = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (tile == END) {
+                break;
+            }
+            if (error != null) {
+                // keep draining, so that the producers are not blocked
+                continue;
+            }
+            try {
+                if (mbtilesHelper != null) {
+                    mbtilesHelper.addEncodedTileBatch(tile.x, tile.y, tile.z, tile.bytes);
+                    if (++pending == transactionSize) {
+                        mbtilesHelper.commitBatch();
+                        pending = 0;
+                    }
+                } else if (!writeFile(tile)) {
+                    continue;
+                }
+                zoom2Count.computeIfAbsent(tile.z, z -> new AtomicInteger()).incrementAndGet();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+        if (error == null && mbtilesHelper != null && pending > 0) {
+            try {
+                mbtilesHelper.commitBatch();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    private boolean writeFile( Tile tile ) throws IOException {
+        File imageFolder = new File(baseFolder, tile.z + "/" + tile.x);
+        if (!imageFolder.exists()) {
+            if (!imageFolder.mkdirs()) {
+                throw new IOException("Unable to create folder:" + imageFolder);
+            }
+            new File(imageFolder, ".nomedia").createNewFile();
+        }
+        File imageFile = new File(imageFolder, tile.y + "." + ext);
+        if (imageFile.exists()) {
+            return false;
+        }
+        Files.write(imageFile.toPath(), tile.bytes);
+        return true;
+    }
+
+    private void checkError() throws Exception {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Write the remaining tiles and stop the writer thread.
+     *
+     * @throws Exception if the writer failed.
+     */
+    @Override
+    public void close() throws Exception {
+        if (writerThread.isAlive()) {
+            queue.put(END);
+            writerThread.join();
+        }
+        checkError();
+    }
+}
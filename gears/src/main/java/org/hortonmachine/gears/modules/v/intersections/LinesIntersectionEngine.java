@@ -0,0 +1,217 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.v.intersections;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.quadtree.Quadtree;
+
+/**
+ * Finder of intersecting geometries based on a spatial index.
+ *
+ * <p>Geometries are indexed by envelope, so that the exact intersection check
+ * is only done on the pairs whose envelopes overlap, which brings the all
+ * against all comparison close to O(n log n). The index can be updated, for
+ * modules that change the geometries while they correct them.</p>
+ *
+ * <p>The pairs check is spread over a bounded pool of threads, the results are
+ * still handed over in the order of the geometries on the calling thread.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LinesIntersectionEngine {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private final Quadtree tree = new Quadtree();
+    private final Geometry[] geometries;
+    private final Envelope[] envelopes;
+    private int threads = 1;
+
+    /**
+     * Function applied to every pair of intersecting geometries.
+     */
+    public interface PairFunction<T> {
+        /**
+         * @param geometry the prepared first geometry of the pair.
+         * @param otherGeometry the second geometry of the pair, which intersects the first.
+         * @return the result for the pair or <code>null</code> if there is none.
+         */
+        T apply( PreparedGeometry geometry, Geometry otherGeometry );
+    }
+
+    /**
+     * @param geometries the geometries to index. <code>null</code> or empty geometries are ignored.
+     */
+    public LinesIntersectionEngine( List< ? extends Geometry> geometries ) {
+        int size = geometries.size();
+        this.geometries = new Geometry[size];
+        this.envelopes = new Envelope[size];
+        for( int i = 0; i < size; i++ ) {
+            update(i, geometries.get(i));
+        }
+    }
+
+    /**
+     * @param threads the maximum number of threads to use for the pairs check.
+     */
+    public void setThreads( int threads ) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getSize() {
+        return geometries.length;
+    }
+
+    public Geometry getGeometry( int index ) {
+        return geometries[index];
+    }
+
+    /**
+     * Substitute a geometry in the index.
+     *
+     * @param index the index of the geometry to substitute.
+     * @param geometry the new geometry or <code>null</code> to remove it.
+     */
+    public void update( int index, Geometry geometry ) {
+        if (envelopes[index] != null) {
+            tree.remove(envelopes[index], index);
+            envelopes[index] = null;
+        }
+        if (geometry == null || geometry.isEmpty()) {
+            geometries[index] = null;
+            return;
+        }
+        geometries[index] = geometry;
+        envelopes[index] = geometry.getEnvelopeInternal();
+        tree.insert(envelopes[index], index);
+    }
+
+    /**
+     * Get the indexes of the geometries that intersect a given geometry.
+     *
+     * @param geometry the geometry to check.
+     * @return the sorted indexes of the intersecting geometries.
+     */
+    public List<Integer> intersecting( Geometry geometry ) {
+        return intersecting(PreparedGeometryFactory.prepare(geometry), -1);
+    }
+
+    /**
+     * @param geometry the geometry to check.
+     * @return <code>true</code> if any of the indexed geometries intersects the given one.
+     */
+    public boolean intersectsAny( Geometry geometry ) {
+        PreparedGeometry prepared = null;
+        Envelope envelope = geometry.getEnvelopeInternal();
+        for( Object item : tree.query(envelope) ) {
+            int index = (Integer) item;
+            if (!envelopes[index].intersects(envelope)) {
+                continue;
+            }
+            if (prepared == null) {
+                prepared = PreparedGeometryFactory.prepare(geometry);
+            }
+            if (prepared.intersects(geometries[index])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Apply a function to all the pairs of intersecting geometries.
+     *
+     * <p>Every pair is visited once, with the geometry of lower index first.</p>
+     *
+     * @param function the function to apply, run in the threads pool.
+     * @param consumer the consumer of the non null results, run in the calling thread.
+     * @param pm the monitor, which gets one work unit per geometry.
+     * @throws Exception
+     */
+    public <T> void intersectingPairs( PairFunction<T> function, Consumer<T> consumer, IHMProgressMonitor pm )
+            throws Exception {
+        int size = geometries.length;
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            for( int from = 0; from < size; from += CHUNK_SIZE ) {
+                int to = Math.min(from + CHUNK_SIZE, size);
+                List<List<T>> results;
+                if (pool != null) {
+                    int start = from;
+                    results = pool.submit(() -> IntStream.range(start, to).parallel()
+                            .mapToObj(i -> pairsOf(i, function)).collect(Collectors.toList())).get();
+                } else {
+                    results = IntStream.range(from, to).mapToObj(i -> pairsOf(i, function)).collect(Collectors.toList());
+                }
+                for( List<T> pairResults : results ) {
+                    pairResults.forEach(consumer);
+                    pm.worked(1);
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private <T> List<T> pairsOf( int index, PairFunction<T> function ) {
+        Geometry geometry = geometries[index];
+        if (geometry == null) {
+            return Collections.emptyList();
+        }
+        PreparedGeometry prepared = PreparedGeometryFactory.prepare(geometry);
+        List<T> results = new ArrayList<>();
+        for( int otherIndex : intersecting(prepared, index) ) {
+            T result = function.apply(prepared, geometries[otherIndex]);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @param minIndex only indexes greater than this are considered.
+     */
+    private List<Integer> intersecting( PreparedGeometry prepared, int minIndex ) {
+        Envelope envelope = prepared.getGeometry().getEnvelopeInternal();
+        List<Integer> indexes = new ArrayList<>();
+        for( Object item : tree.query(envelope) ) {
+            int index = (Integer) item;
+            if (index > minIndex && envelopes[index].intersects(envelope) && prepared.intersects(geometries[index])) {
+                indexes.add(index);
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+}
@@ -27,10 +27,7 @@ import static org.hortonmachine.gears.modules.v.intersections.OmsIntersectionFin
 import static org.hortonmachine.gears.modules.v.intersections.OmsIntersectionFinder.OMSINTERSECTIONFINDER_NAME;
 import static org.hortonmachine.gears.modules.v.intersections.OmsIntersectionFinder.OMSINTERSECTIONFINDER_STATUS;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.stream.IntStream;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.DefaultFeatureCollection;
@@ -46,7 +43,6 @@ import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.prep.PreparedGeometry;
-import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
@@ -129,7 +125,7 @@ public class OmsIntersectionFinder extends HMModel {
 
     }
 
-    private void intersectLines() {
+    private void intersectLines() throws Exception {
         SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
         b.setName("pointintersections");
         b.setCRS(inMap.getSchema().getCoordinateReferenceSystem());
@@ -142,91 +138,77 @@ public class OmsIntersectionFinder extends HMModel {
         b.add("the_geom", LineString.class);
         SimpleFeatureType linesType = b.buildFeatureType();
 
-        int size = inMap.size();
-
         List<Geometry> geometriesList = FeatureUtilities.featureCollectionToGeometriesList(inMap, true, null);
 
-        pm.beginTask("Checking intersections...", size);
-        for( int i = 0; i < size; i++ ) {
-            LineString line = (LineString) geometriesList.get(i);
-            PreparedGeometry preparedLine = PreparedGeometryFactory.prepare(line);
-
-            List<SimpleFeature> pointsList = Collections.synchronizedList(new ArrayList<>(1000));
-            List<SimpleFeature> linesList = Collections.synchronizedList(new ArrayList<>(1000));
+        LinesIntersectionEngine engine = new LinesIntersectionEngine(geometriesList);
+        if (doParallel) {
+            engine.setThreads(getDefaultThreadsNum());
+        }
 
-            IntStream stream = IntStream.range(i + 1, size);
-            if (doParallel) {
-                stream = stream.parallel();
-            }
-            stream.parallel().forEach(j -> {
-                LineString otherLine = (LineString) geometriesList.get(j);
-
-                if (preparedLine.intersects(otherLine)) {
-                    if (doIgnoreTouches && preparedLine.touches(otherLine)) {
-                        return;
-                    }
-                    Geometry intersection = line.intersection(otherLine);
-                    int numGeometries = intersection.getNumGeometries();
-                    if (numGeometries < 3) {
-                        Point start1 = line.getStartPoint();
-                        Point end1 = line.getEndPoint();
-                        Point start2 = otherLine.getStartPoint();
-                        Point end2 = otherLine.getEndPoint();
-                        if (numGeometries == 1) {
-                            // single intersection, control if it is not just two connected lines
-                            if (start1.distance(end2) < NumericsUtilities.D_TOLERANCE
-                                    || start1.distance(start2) < NumericsUtilities.D_TOLERANCE
-                                    || end1.distance(start2) < NumericsUtilities.D_TOLERANCE
-                                    || end1.distance(end2) < NumericsUtilities.D_TOLERANCE) {
-                                // it is the same point
-                                return;
-                            }
-                        } else if (numGeometries == 2) {
-                            // could still be connected lines
-                            if ((start1.distance(end2) < NumericsUtilities.D_TOLERANCE
-                                    && start2.distance(end1) < NumericsUtilities.D_TOLERANCE)
-                                    || (start1.distance(start2) < NumericsUtilities.D_TOLERANCE
-                                            && end1.distance(end2) < NumericsUtilities.D_TOLERANCE)) {
-                                // it is the same point
-                                return;
-                            }
-                        }
-                    }
-
-                    for( int k = 0; k < numGeometries; k++ ) {
-                        Geometry geometryN = intersection.getGeometryN(k);
-
-                        if (geometryN instanceof Point) {
-                            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(pointType);
-                            Point p = (Point) geometryN;
-                            Object[] values = new Object[]{p};
-                            builder.addAll(values);
-                            SimpleFeature feature = builder.buildFeature(null);
-                            pointsList.add(feature);
-                            // ((DefaultFeatureCollection) outPointsMap).add(feature);
-                        } else if (geometryN instanceof LineString) {
-                            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(linesType);
-                            LineString l = (LineString) geometryN;
-                            Object[] values = new Object[]{l};
-                            builder.addAll(values);
-                            SimpleFeature feature = builder.buildFeature(null);
-                            linesList.add(feature);
-                            // ((DefaultFeatureCollection) outLinesMap).add(feature);
-                        }
-
-                    }
+        SimpleFeatureBuilder pointBuilder = new SimpleFeatureBuilder(pointType);
+        SimpleFeatureBuilder lineBuilder = new SimpleFeatureBuilder(linesType);
+
+        pm.beginTask("Checking intersections...", engine.getSize());
+        engine.intersectingPairs(this::intersectPair, intersection -> {
+            int numGeometries = intersection.getNumGeometries();
+            for( int k = 0; k < numGeometries; k++ ) {
+                Geometry geometryN = intersection.getGeometryN(k);
+
+                if (geometryN instanceof Point) {
+                    Object[] values = new Object[]{geometryN};
+                    pointBuilder.addAll(values);
+                    SimpleFeature feature = pointBuilder.buildFeature(null);
+                    ((DefaultFeatureCollection) outPointsMap).add(feature);
+                } else if (geometryN instanceof LineString) {
+                    Object[] values = new Object[]{geometryN};
+                    lineBuilder.addAll(values);
+                    SimpleFeature feature = lineBuilder.buildFeature(null);
+                    ((DefaultFeatureCollection) outLinesMap).add(feature);
                 }
-
-            });
-
-            if (!pointsList.isEmpty()) {
-                ((DefaultFeatureCollection) outPointsMap).addAll(pointsList);
             }
-            if (!linesList.isEmpty()) {
-                ((DefaultFeatureCollection) outLinesMap).addAll(linesList);
+        }, pm);
+        pm.done();
+    }
+
+    /**
+     * Intersect two lines that are known to intersect.
+     * 
+     * @return the intersection or <code>null</code> if it is just a touch to ignore or the
+     *          connection of the lines.
+     */
+    private Geometry intersectPair( PreparedGeometry preparedLine, Geometry otherGeometry ) {
+        LineString line = (LineString) preparedLine.getGeometry();
+        LineString otherLine = (LineString) otherGeometry;
+        if (doIgnoreTouches && preparedLine.touches(otherLine)) {
+            return null;
+        }
+        Geometry intersection = line.intersection(otherLine);
+        int numGeometries = intersection.getNumGeometries();
+        if (numGeometries < 3) {
+            Point start1 = line.getStartPoint();
+            Point end1 = line.getEndPoint();
+            Point start2 = otherLine.getStartPoint();
+            Point end2 = otherLine.getEndPoint();
+            if (numGeometries == 1) {
+                // single intersection, control if it is not just two connected lines
+                if (start1.distance(end2) < NumericsUtilities.D_TOLERANCE
+                        || start1.distance(start2) < NumericsUtilities.D_TOLERANCE
+                        || end1.distance(start2) < NumericsUtilities.D_TOLERANCE
+                        || end1.distance(end2) < NumericsUtilities.D_TOLERANCE) {
+                    // it is the same point
+                    return null;
+                }
+            } else if (numGeometries == 2) {
+                // could still be connected lines
+                if ((start1.distance(end2) < NumericsUtilities.D_TOLERANCE
+                        && start2.distance(end1) < NumericsUtilities.D_TOLERANCE)
+                        || (start1.distance(start2) < NumericsUtilities.D_TOLERANCE
+                                && end1.distance(end2) < NumericsUtilities.D_TOLERANCE)) {
+                    // it is the same point
+                    return null;
+                }
             }
-            pm.worked(1);
         }
-        pm.done();
+        return intersection;
     }
 }
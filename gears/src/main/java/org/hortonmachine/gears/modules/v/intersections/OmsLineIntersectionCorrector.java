@@ -75,8 +75,6 @@ import org.locationtech.jts.geom.LineSegment;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.MultiLineString;
 import org.locationtech.jts.geom.Polygon;
-import org.locationtech.jts.geom.prep.PreparedGeometry;
-import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.locationtech.jts.operation.linemerge.LineSequencer;
 import org.locationtech.jts.operation.overlay.snap.GeometrySnapper;
 import org.locationtech.jts.operation.union.CascadedPolygonUnion;
@@ -166,23 +164,18 @@ public class OmsLineIntersectionCorrector extends HMModel {
         FeatureIterator<SimpleFeature> inFeatureIterator = linesFeatures.features();
         int size = linesFeatures.size();
 
+        LinesIntersectionEngine pointsEngine = new LinesIntersectionEngine(pointsEnvelopes);
+
         // Geometry first = null;
         List<FeatureElevationComparer> badFeatures = new ArrayList<FeatureElevationComparer>(pSize);
         pm.beginTask("Extract intersecting lines...", size);
         while( inFeatureIterator.hasNext() ) {
             SimpleFeature feature = inFeatureIterator.next();
             Geometry geometry = (Geometry) feature.getDefaultGeometry();
-            PreparedGeometry preparedGeometry = PreparedGeometryFactory.prepare(geometry);
-
-            boolean touched = false;
-            for( LineString envelope : pointsEnvelopes ) {
-                if (preparedGeometry.intersects(envelope)) {
-                    badFeatures.add(new FeatureElevationComparer(feature, fSort, pBuffer, 0.0));
-                    touched = true;
-                    break;
-                }
-            }
-            if (!touched) {
+
+            if (pointsEngine.intersectsAny(geometry)) {
+                badFeatures.add(new FeatureElevationComparer(feature, fSort, pBuffer, 0.0));
+            } else {
                 ((DefaultFeatureCollection) untouchedFeatures).add(feature);
             }
             pm.worked(1);
@@ -195,11 +188,17 @@ public class OmsLineIntersectionCorrector extends HMModel {
             Collections.reverse(badFeatures);
         }
 
-        int id = 0;
         size = badFeatures.size();
+        List<Geometry> badGeometries = new ArrayList<Geometry>(size);
+        for( FeatureElevationComparer featureElevationComparer : badFeatures ) {
+            badGeometries.add(featureElevationComparer.getGeometry());
+        }
+        LinesIntersectionEngine linesEngine = new LinesIntersectionEngine(badGeometries);
+
         pm.message("Found intersecting lines: " + size);
         pm.beginTask("Correcting intersections...", size);
-        for( FeatureElevationComparer featureElevationComparer : badFeatures ) {
+        for( int id = 0; id < size; id++ ) {
+            FeatureElevationComparer featureElevationComparer = badFeatures.get(id);
             if (featureElevationComparer.toRemove()) {
                 continue;
             }
@@ -216,7 +215,8 @@ public class OmsLineIntersectionCorrector extends HMModel {
             LineString[] lsArray = (LineString[]) geomList.toArray(new LineString[numGeometries]);
 
             try {
-                boolean splitCoordinates = correctLineIntersections(featureElevationComparer, badFeatures, lsArray, id);
+                boolean splitCoordinates = correctLineIntersections(featureElevationComparer, badFeatures, linesEngine,
+                        lsArray, id);
                 if (splitCoordinates) {
                     geomList.clear();
                     for( LineString lineString : lsArray ) {
@@ -251,13 +251,15 @@ public class OmsLineIntersectionCorrector extends HMModel {
 
                     }
                     lsArray = (LineString[]) geomList.toArray(new LineString[numGeometries]);
-                    correctLineIntersections(featureElevationComparer, badFeatures, lsArray, id);
+                    correctLineIntersections(featureElevationComparer, badFeatures, linesEngine, lsArray, id);
                 }
-                id++;
             } catch (Exception e) {
                 e.printStackTrace();
                 featureElevationComparer.setDirty(true);
                 continue;
+            } finally {
+                // keep the index in sync with the substituted geometry
+                linesEngine.update(id, featureElevationComparer.getGeometry());
             }
 
             pm.worked(1);
@@ -296,15 +298,17 @@ public class OmsLineIntersectionCorrector extends HMModel {
      * 
      * @param currentFeatureElevationComparer the current checked line wrapper.
      * @param comparerList the list of lines that may intersect with the current checked line.
+     * @param linesEngine the index of the geometries of the comparerList.
      * @param lsArray the geometries of the current checked line.
-     * @param id the index of the current checked line in the compareList. Used 
+     * @param currentLineIndex the index of the current checked line in the compareList. Used 
      *          to avoid the intersection of the line with itself.  
      * @return false if correction went smooth, true if there were problems and
      *           the rotation of the geometry's first point is requested for a second try.
      * @throws Exception
      */
     private boolean correctLineIntersections( FeatureElevationComparer currentFeatureElevationComparer,
-            List<FeatureElevationComparer> comparerList, LineString[] lsArray, int currentLineIndex ) throws Exception {
+            List<FeatureElevationComparer> comparerList, LinesIntersectionEngine linesEngine, LineString[] lsArray,
+            int currentLineIndex ) throws Exception {
 
         ArrayList<LineString> newLines = new ArrayList<LineString>(lsArray.length);
         for( final LineString line : lsArray ) {
@@ -320,27 +324,17 @@ public class OmsLineIntersectionCorrector extends HMModel {
 
             List<Polygon> intersectingPolygons = new ArrayList<Polygon>();
 
-            PreparedGeometry preparedLine = PreparedGeometryFactory.prepare(line);
-
-            int index = 0;
-            for( FeatureElevationComparer featureComparer : comparerList ) {
-                if (featureComparer.toRemove()) {
+            for( int index : linesEngine.intersecting(line) ) {
+                FeatureElevationComparer featureComparer = comparerList.get(index);
+                if (index == currentLineIndex || featureComparer.toRemove()) {
                     continue;
                 }
-                if (index == currentLineIndex) {
-                    index++;
-                    continue;
-                }
-                index++;
 
-                Geometry geom = featureComparer.getGeometry();
-                if (preparedLine.intersects(geom)) {
-                    Geometry bufferPolygon = featureComparer.getBufferPolygon();
-                    int numGeometries = bufferPolygon.getNumGeometries();
-                    for( int i = 0; i < numGeometries; i++ ) {
-                        Geometry geometryN = bufferPolygon.getGeometryN(i);
-                        intersectingPolygons.add((Polygon) geometryN);
-                    }
+                Geometry bufferPolygon = featureComparer.getBufferPolygon();
+                int numGeometries = bufferPolygon.getNumGeometries();
+                for( int i = 0; i < numGeometries; i++ ) {
+                    Geometry geometryN = bufferPolygon.getGeometryN(i);
+                    intersectingPolygons.add((Polygon) geometryN);
                 }
             }
 
@@ -29,8 +29,10 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORCLIPPER_LICENS
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORCLIPPER_NAME;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORCLIPPER_OUT_MAP_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORCLIPPER_P_MAX_THREADS_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORCLIPPER_DO_STREAM_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORCLIPPER_STATUS;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
@@ -41,10 +43,14 @@ import java.util.concurrent.TimeUnit;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.utils.features.FeaturePipeline;
 import org.hortonmachine.gears.utils.features.FeatureUtilities;
+import org.hortonmachine.gears.utils.features.IFeatureTransform;
+import org.hortonmachine.gears.utils.features.StreamingFeatureCollection;
 import org.hortonmachine.gears.utils.geometry.EGeometryType;
 import org.opengis.feature.simple.SimpleFeature;
 
@@ -87,6 +93,10 @@ public class OmsVectorClipper extends HMModel {
     @In
     public int pMaxThreads = 1;
 
+    @Description(OMSVECTORCLIPPER_DO_STREAM_DESCRIPTION)
+    @In
+    public boolean doStream = false;
+
     @Description(OMSVECTORCLIPPER_OUT_MAP_DESCRIPTION)
     @Out
     public SimpleFeatureCollection outMap = null;
@@ -99,6 +109,12 @@ public class OmsVectorClipper extends HMModel {
             throw new ModelsIllegalargumentException("The clipping geometry needs to be polygon.", this, pm);
         }
 
+        if (doStream) {
+            List<Geometry> clipperGeoms = FeatureUtilities.featureCollectionToGeometriesList(inClipper, false, null);
+            outMap = new StreamingFeatureCollection(inMap, clipTransform(clipperGeoms));
+            return;
+        }
+
         pm.beginTask("Indexing geometries...", IHMProgressMonitor.UNKNOWN);
         STRtree geomsTree = new STRtree(2000);
         SimpleFeatureIterator featuresToClip = inMap.features();
@@ -174,4 +190,35 @@ public class OmsVectorClipper extends HMModel {
         ((DefaultFeatureCollection) outMap).addAll(newFeatures);
     }
 
+    /**
+     * Create a transform that clips features, to be used in a {@link FeaturePipeline}.
+     * 
+     * <p>Every feature is intersected with each of the clipping geometries it intersects,
+     * so it can produce more than one clipped feature.</p>
+     * 
+     * @param clipperGeoms the polygon geometries to clip with.
+     * @return the clipping transform.
+     */
+    public static IFeatureTransform clipTransform( List<Geometry> clipperGeoms ) {
+        STRtree clipperTree = new STRtree();
+        for( Geometry clipperGeom : clipperGeoms ) {
+            clipperTree.insert(clipperGeom.getEnvelopeInternal(), PreparedGeometryFactory.prepare(clipperGeom));
+        }
+        clipperTree.build();
+        return feature -> {
+            Geometry geometry = (Geometry) feature.getDefaultGeometry();
+            List< ? > candidates = clipperTree.query(geometry.getEnvelopeInternal());
+            List<SimpleFeature> clipped = new ArrayList<>(candidates.size());
+            for( Object candidate : candidates ) {
+                PreparedGeometry cGeom = (PreparedGeometry) candidate;
+                if (cGeom.intersects(geometry)) {
+                    SimpleFeature clippedFeature = SimpleFeatureBuilder.copy(feature);
+                    clippedFeature.setDefaultGeometry(cGeom.getGeometry().intersection(geometry));
+                    clipped.add(clippedFeature);
+                }
+            }
+            return clipped;
+        };
+    }
+
 }
@@ -56,21 +56,20 @@ import oms3.annotations.Name;
 import oms3.annotations.Out;
 import oms3.annotations.Status;
 
+import org.geotools.data.DataUtilities;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.utils.features.FeatureGeometrySubstitutor;
 import org.hortonmachine.gears.utils.features.FeatureUtilities;
 import org.hortonmachine.gears.utils.geometry.EGeometryType;
-import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
 import org.opengis.feature.simple.SimpleFeature;
 
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryCollection;
-import org.locationtech.jts.geom.prep.PreparedGeometry;
-import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 
 @Description(OmsVectorIntersector.DESCRIPTION)
 @Author(name = OMSHYDRO_AUTHORNAMES, contact = OMSHYDRO_AUTHORCONTACTS)
@@ -93,6 +92,10 @@ public class OmsVectorIntersector extends HMModel {
     @In
     public boolean doKeepFirstAttributes = true;
 
+    @Description(DO_PARALLEL)
+    @In
+    public boolean doParallel = true;
+
     @Description(OMSVECTOROVERLAYOPERATORS_outMap_DESCRIPTION)
     @Out
     public SimpleFeatureCollection outMap = null;
@@ -102,6 +105,7 @@ public class OmsVectorIntersector extends HMModel {
     public static final String DESCRIPTION = "Vector layer intersector with maintaining of attributes.";
     public static final String KEYWORDS = "vector, intersect, attributes";
     public static final String KEEP_FIRST_ATTRIBUTES = "If enabled attributes of map 1 are kept, else of map 2.";
+    public static final String DO_PARALLEL = "Process in parallel.";
     // END VARS DOC
 
     @Execute
@@ -116,36 +120,41 @@ public class OmsVectorIntersector extends HMModel {
             inMap2 = inMapTmp;
         }
 
-        List<Geometry> geometries = FeatureUtilities.featureCollectionToGeometriesList(inMap2, false, null);
-        GeometryCollection geometryCollection = new GeometryCollection(geometries.toArray(new Geometry[geometries.size()]), gf);
-        Geometry intersectionGeometry = geometryCollection.buffer(0);
-        PreparedGeometry preparedIntersectionGeometry = PreparedGeometryFactory.prepare(intersectionGeometry);
-
-        List<SimpleFeature> mainFeatures = FeatureUtilities.featureCollectionToList(inMap1);
-        if (mainFeatures.size() == 0) {
+        if (inMap1.isEmpty()) {
             throw new ModelsIllegalargumentException("No features found in the layer.", this);
         }
 
-        EGeometryType geometryType = EGeometryType.forGeometry((Geometry) mainFeatures.get(0).getDefaultGeometry());
+        pm.beginTask("Indexing the intersecting layer...", IHMProgressMonitor.UNKNOWN);
+        List<Geometry> geometries = FeatureUtilities.featureCollectionToGeometriesList(inMap2, false, null);
+        OverlayEngine engine = new OverlayEngine(geometries);
+        engine.setDoParallel(doParallel);
+        pm.done();
+
+        Geometry firstGeometry;
+        try (SimpleFeatureIterator featureIterator = inMap1.features()) {
+            firstGeometry = (Geometry) featureIterator.next().getDefaultGeometry();
+        }
+        EGeometryType geometryType = EGeometryType.forGeometry(firstGeometry);
         Class< ? > multiClazz = geometryType.getMultiClazz();
         EGeometryType newGeometryType = EGeometryType.forClass(multiClazz);
         FeatureGeometrySubstitutor sub = new FeatureGeometrySubstitutor(inMap1.getSchema(), multiClazz);
 
-        pm.beginTask("Performing intersection...", mainFeatures.size());
-        for( SimpleFeature feature : mainFeatures ) {
-            Geometry geometry = (Geometry) feature.getDefaultGeometry();
-            if (preparedIntersectionGeometry.intersects(geometry)) {
-                Geometry intersection = geometry.intersection(intersectionGeometry);
-
-                EGeometryType intersectionGeometryType = EGeometryType.forGeometry(intersection);
-                if (intersectionGeometryType.isCompatibleWith(newGeometryType)) {
-                    SimpleFeature newFeature = sub.substituteGeometry(feature, intersection);
-                    ((DefaultFeatureCollection) outMap).add(newFeature);
-                } else {
-                    pm.errorMessage("Could not add intersection result geometry to layer due to incompatibility: " + intersection);
-                }
-            }
-            pm.worked(1);
+        pm.beginTask("Performing intersection...", inMap1.size());
+        try (SimpleFeatureIterator featureIterator = inMap1.features()) {
+            engine.intersection(DataUtilities.iterator(featureIterator), feature -> (Geometry) feature.getDefaultGeometry(),
+                    ( feature, intersection ) -> {
+                        if (intersection != null) {
+                            EGeometryType intersectionGeometryType = EGeometryType.forGeometry(intersection);
+                            if (intersectionGeometryType.isCompatibleWith(newGeometryType)) {
+                                SimpleFeature newFeature = sub.substituteGeometry(feature, intersection);
+                                ((DefaultFeatureCollection) outMap).add(newFeature);
+                            } else {
+                                pm.errorMessage("Could not add intersection result geometry to layer due to incompatibility: "
+                                        + intersection);
+                            }
+                        }
+                        pm.worked(1);
+                    });
         }
         pm.done();
 
@@ -32,7 +32,10 @@ import static org.hortonmachine.gears.modules.v.vectoroverlayoperators.OmsVector
 import static org.hortonmachine.gears.modules.v.vectoroverlayoperators.OmsVectorOverlayOperators.OMSVECTOROVERLAYOPERATORS_NAME;
 import static org.hortonmachine.gears.modules.v.vectoroverlayoperators.OmsVectorOverlayOperators.OMSVECTOROVERLAYOPERATORS_STATUS;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -55,6 +58,7 @@ import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.exceptions.ModelsRuntimeException;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.modules.v.vectoroverlayoperators.OverlayEngine.OverlayConsumer;
 import org.hortonmachine.gears.utils.features.FeatureUtilities;
 import org.hortonmachine.gears.utils.geometry.EGeometryType;
 import org.opengis.feature.simple.SimpleFeature;
@@ -63,15 +67,12 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryCollection;
-import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.geom.PrecisionModel;
 import org.locationtech.jts.operation.linemerge.LineMerger;
 import org.locationtech.jts.precision.GeometryPrecisionReducer;
-import org.locationtech.jts.precision.SimpleGeometryPrecisionReducer;
 
 @Description(OMSVECTOROVERLAYOPERATORS_DESCRIPTION)
 @Documentation(OMSVECTOROVERLAYOPERATORS_DOCUMENTATION)
@@ -101,11 +102,18 @@ public class OmsVectorOverlayOperators extends HMModel {
     @In
     public boolean doAllowHoles = true;
 
+    @Description(doParallel_DESCRIPTION)
+    @In
+    public boolean doParallel = true;
+
     @Description(OMSVECTOROVERLAYOPERATORS_outMap_DESCRIPTION)
     @Out
     public SimpleFeatureCollection outMap = null;
 
     public Integer precisionScale = null;
+
+    private CoordinateReferenceSystem crs;
+    private SimpleFeatureBuilder builder;
     
     // VARS DOCS START
     public static final String OMSVECTOROVERLAYOPERATORS_DESCRIPTION = "A module that performs overlay operations on a pure geometric layer. The resulting feature layer does not consider original attributes tables.";
@@ -122,6 +130,7 @@ public class OmsVectorOverlayOperators extends HMModel {
     public static final String OMSVECTOROVERLAYOPERATORS_pType_DESCRIPTION = "The overlay type to perform.";
     public static final String OMSVECTOROVERLAYOPERATORS_outMap_DESCRIPTION = "The resulting vector map.";
     private static final String doAllowHoles_DESCRIPTION = "Allow holes in the result.";
+    private static final String doParallel_DESCRIPTION = "Process in parallel.";
     // VARS DOCS STOP
 
     @Execute
@@ -132,112 +141,153 @@ public class OmsVectorOverlayOperators extends HMModel {
             checkNull(inMap1, inMap2);
         }
 
-        CoordinateReferenceSystem crs = inMap1.getSchema().getCoordinateReferenceSystem();
+        crs = inMap1.getSchema().getCoordinateReferenceSystem();
+        builder = null;
 
         outMap = new DefaultFeatureCollection();
 
-        SimpleFeatureBuilder builder = null;
-
         pm.message("Preparing geometry layers...");
 
-        List<Geometry> geoms1 = FeatureUtilities.featureCollectionToGeometriesList(inMap1, true, null);
+        List<Geometry> geoms1 = reduce(FeatureUtilities.featureCollectionToGeometriesList(inMap1, true, null));
         boolean isLines = EGeometryType.isLine(geoms1.get(0));
 
-        Geometry g1 = gf.createGeometryCollection(geoms1.toArray(new Geometry[geoms1.size()]));
-        if (precisionScale != null) {
-            PrecisionModel precisionModel = new PrecisionModel(precisionScale);
-            g1 = GeometryPrecisionReducer.reduce(g1, precisionModel);
+        List<Geometry> geoms2 = null;
+        if (inMap2 != null) {
+            geoms2 = reduce(FeatureUtilities.featureCollectionToGeometriesList(inMap2, true, null));
         }
 
-        // g1 = g1.buffer(0);
+        Geometry result;
+        switch( pType ) {
+        case INTERSECTION:
+            result = dissolve(overlay(geoms1, geoms2, true, "Performing intersection..."));
+            break;
+        case DIFFERENCE:
+            result = dissolve(overlay(geoms1, geoms2, false, "Performing difference..."));
+            break;
+        case SYMDIFFERENCE:
+            List<Geometry> differences = overlay(geoms1, geoms2, false, "Performing difference of the first layer...");
+            differences.addAll(overlay(geoms2, geoms1, false, "Performing difference of the second layer..."));
+            result = dissolve(differences);
+            break;
+        case UNION:
+            pm.beginTask("Performing union...", IHMProgressMonitor.UNKNOWN);
+            if (inMap2 != null) {
+                List<Geometry> allGeoms = new ArrayList<>(geoms1);
+                allGeoms.addAll(geoms2);
+                result = OverlayEngine.union(allGeoms);
+            } else if (isLines) {
+                // if it is lines, the geometry union is done via linemerger
+                LineMerger lineMerger = new LineMerger();
+                lineMerger.add(geoms1);
+                var res = lineMerger.getMergedLineStrings();
+                result = gf.createMultiLineString((LineString[]) res.toArray(new LineString[res.size()]));
+            } else {
+                // if it is polygons, the geometry union is done via union
+                result = OverlayEngine.union(geoms1);
+            }
+            pm.done();
+            break;
+        default:
+            throw new ModelsIllegalargumentException("The overlay type is not supported: " + pType, this, pm);
+        }
 
-        Geometry g2 = null;
-        if (inMap2 != null) {
-            List<Geometry> geoms2 = FeatureUtilities.featureCollectionToGeometriesList(inMap2, true, null);
-            g2 = new GeometryCollection(geoms2.toArray(new Geometry[geoms2.size()]), gf);
-            if (precisionScale != null) {
-                PrecisionModel precisionModel = new PrecisionModel(precisionScale);
-                g2 = GeometryPrecisionReducer.reduce(g2, precisionModel);
+        pm.message("Preparing final layer...");
+        if (result != null) {
+            int numGeometries = result.getNumGeometries();
+            for( int i = 0; i < numGeometries; i++ ) {
+                addResult(result.getGeometryN(i), i);
             }
         }
+    }
 
-        pm.beginTask("Performing overlay operation...", IHMProgressMonitor.UNKNOWN);
-        Geometry resultingGeometryCollection = null;
-        switch (pType) {
-            case INTERSECTION:
-                resultingGeometryCollection = g1.intersection(g2);
-                break;
-            case UNION:
-                if (inMap2 != null) {
-                    resultingGeometryCollection = g1.union(g2);
-                } else {
-                    // if it is lines, the geometry union is done via linemerger
-                    if (isLines) {
-                        LineMerger lineMerger = new LineMerger();
-                        lineMerger.add(g1);
-                        var res = lineMerger.getMergedLineStrings();
-                        resultingGeometryCollection = gf.createMultiLineString((LineString[]) res.toArray(new LineString[res.size()]));
-                    } else {
-                        // if it is polygons, the geometry union is done via union
-                        resultingGeometryCollection = g1.union();
-                    }
-                }
-                break;
-            case DIFFERENCE:
-                resultingGeometryCollection = g1.difference(g2);
-                break;
-            case SYMDIFFERENCE:
-                resultingGeometryCollection = g1.symDifference(g2);
-                break;
-            default:
-                throw new ModelsIllegalargumentException("The overlay type is not supported: " + pType, this, pm);
+    private List<Geometry> reduce( List<Geometry> geometries ) {
+        if (precisionScale == null) {
+            return geometries;
+        }
+        PrecisionModel precisionModel = new PrecisionModel(precisionScale);
+        List<Geometry> reduced = new ArrayList<>(geometries.size());
+        for( Geometry geometry : geometries ) {
+            reduced.add(GeometryPrecisionReducer.reduce(geometry, precisionModel));
+        }
+        return reduced;
+    }
+
+    /**
+     * Overlay every geometry of a layer with the indexed other layer, one geometry at a time.
+     * 
+     * @return the non empty results, in input order.
+     */
+    private List<Geometry> overlay( List<Geometry> geometries, List<Geometry> overlayGeometries, boolean doIntersection,
+            String taskName ) throws Exception {
+        OverlayEngine engine = new OverlayEngine(overlayGeometries);
+        engine.setDoParallel(doParallel);
+        List<Geometry> results = new ArrayList<>();
+        pm.beginTask(taskName, geometries.size());
+        OverlayConsumer<Integer> consumer = ( index, result ) -> {
+            if (result != null && !result.isEmpty()) {
+                results.add(result);
+            }
+            pm.worked(1);
+        };
+        Iterator<Integer> indexes = IntStream.range(0, geometries.size()).iterator();
+        if (doIntersection) {
+            engine.intersection(indexes, geometries::get, consumer);
+        } else {
+            engine.difference(indexes, geometries::get, consumer);
         }
         pm.done();
+        return results;
+    }
 
-        pm.message("Preparing final layer...");
-        int numGeometries = resultingGeometryCollection.getNumGeometries();
-        for( int i = 0; i < numGeometries; i++ ) {
-            Geometry geometryN = resultingGeometryCollection.getGeometryN(i);
-            int numGeometries2 = geometryN.getNumGeometries();
-            for( int j = 0; j < numGeometries2; j++ ) {
-                Geometry geometryN2 = geometryN.getGeometryN(j);
-
-                if (builder == null) {
-                    SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
-                    b.setName("overlay");
-                    b.setCRS(crs);
-                    if (geometryN2 instanceof Polygon) {
-                        b.add("the_geom", Polygon.class);
-                    } else if (geometryN2 instanceof LineString) {
-                        b.add("the_geom", LineString.class);
-                    } else if (geometryN2 instanceof Point) {
-                        b.add("the_geom", Point.class);
-                    } else {
-                        throw new ModelsRuntimeException("An unexpected geometry type has been created: "
-                                + geometryN2.getGeometryType(), this);
-                    }
-                    b.add("id", Integer.class);
-                    SimpleFeatureType type = b.buildFeatureType();
-                    builder = new SimpleFeatureBuilder(type);
-                }
-                
-                if (geometryN2 instanceof Polygon && !doAllowHoles) {
-                    // remove holes
-                    Polygon polygon = (Polygon) geometryN2;
-                    LineString exteriorRing = polygon.getExteriorRing();
-                    
-                    Coordinate[] coordinates = exteriorRing.getCoordinates();
-                    
-                    geometryN2 = gf.createPolygon(coordinates);
+    /**
+     * Merge the per geometry results into the single result of the overlay of the whole layers.
+     */
+    private Geometry dissolve( List<Geometry> results ) {
+        pm.beginTask("Dissolving results...", IHMProgressMonitor.UNKNOWN);
+        Geometry union = OverlayEngine.union(results);
+        pm.done();
+        return union;
+    }
+
+    private void addResult( Geometry geometry, int id ) {
+        int numGeometries = geometry.getNumGeometries();
+        for( int j = 0; j < numGeometries; j++ ) {
+            Geometry geometryN = geometry.getGeometryN(j);
+
+            if (builder == null) {
+                SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+                b.setName("overlay");
+                b.setCRS(crs);
+                if (geometryN instanceof Polygon) {
+                    b.add("the_geom", Polygon.class);
+                } else if (geometryN instanceof LineString) {
+                    b.add("the_geom", LineString.class);
+                } else if (geometryN instanceof Point) {
+                    b.add("the_geom", Point.class);
+                } else {
+                    throw new ModelsRuntimeException("An unexpected geometry type has been created: " + geometryN.getGeometryType(),
+                            this);
                 }
+                b.add("id", Integer.class);
+                SimpleFeatureType type = b.buildFeatureType();
+                builder = new SimpleFeatureBuilder(type);
+            }
+
+            if (geometryN instanceof Polygon && !doAllowHoles) {
+                // remove holes
+                Polygon polygon = (Polygon) geometryN;
+                LineString exteriorRing = polygon.getExteriorRing();
 
-                Object[] values = new Object[]{geometryN2, i};
-                builder.addAll(values);
-                SimpleFeature feature = builder.buildFeature(null);
-                ((DefaultFeatureCollection) outMap).add(feature);
+                Coordinate[] coordinates = exteriorRing.getCoordinates();
+
+                geometryN = gf.createPolygon(coordinates);
             }
-        }
 
+            Object[] values = new Object[]{geometryN, id};
+            builder.addAll(values);
+            SimpleFeature feature = builder.buildFeature(null);
+            ((DefaultFeatureCollection) outMap).add(feature);
+        }
     }
 
 }
@@ -0,0 +1,225 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.v.vectoroverlayoperators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.operation.union.UnaryUnionOp;
+
+/**
+ * Overlay of geometries against an indexed layer.
+ * 
+ * <p>The overlay layer is kept in an {@link STRtree} of {@link PreparedGeometry}s, so that
+ * every geometry is only compared with the few overlay geometries its envelope hits,
+ * instead of with a single geometry made of the whole layer.</p>
+ * 
+ * <p>Input geometries are consumed from an iterator in chunks, each chunk is processed
+ * in parallel and its results are passed on in input order on the calling thread, so
+ * that neither input nor output need to be kept in memory as a whole.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class OverlayEngine {
+
+    private static final int CHUNK_SIZE = 10000;
+    private static final int NODE_CAPACITY = 10;
+
+    private final STRtree tree = new STRtree(NODE_CAPACITY);
+    private final int size;
+    private boolean doParallel = true;
+
+    /**
+     * Receiver of the overlay results.
+     */
+    public interface OverlayConsumer<T> {
+        /**
+         * @param item the processed item.
+         * @param result the overlay result for the item or <code>null</code> if it is empty.
+         * @throws Exception
+         */
+        void accept( T item, Geometry result ) throws Exception;
+    }
+
+    /**
+     * @param overlayGeometries the geometries to overlay with.
+     */
+    public OverlayEngine( Collection<Geometry> overlayGeometries ) {
+        int count = 0;
+        for( Geometry geometry : overlayGeometries ) {
+            if (geometry == null || geometry.isEmpty()) {
+                continue;
+            }
+            tree.insert(geometry.getEnvelopeInternal(), PreparedGeometryFactory.prepare(geometry));
+            count++;
+        }
+        // build now, the tree is then only read by the workers
+        tree.build();
+        size = count;
+    }
+
+    public void setDoParallel( boolean doParallel ) {
+        this.doParallel = doParallel;
+    }
+
+    /**
+     * @return the number of indexed overlay geometries.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Intersects a geometry with the overlay layer.
+     * 
+     * @param geometry the geometry to intersect.
+     * @return the part of the geometry covered by the overlay layer or <code>null</code> if there is none.
+     */
+    public Geometry intersection( Geometry geometry ) {
+        if (geometry == null || geometry.isEmpty()) {
+            return null;
+        }
+        List<Geometry> pieces = new ArrayList<>();
+        for( PreparedGeometry candidate : query(geometry) ) {
+            if (candidate.intersects(geometry)) {
+                if (candidate.covers(geometry)) {
+                    return geometry;
+                }
+                Geometry piece = geometry.intersection(candidate.getGeometry());
+                if (!piece.isEmpty()) {
+                    pieces.add(piece);
+                }
+            }
+        }
+        if (pieces.isEmpty()) {
+            return null;
+        }
+        if (pieces.size() == 1) {
+            return pieces.get(0);
+        }
+        // overlay geometries can overlap each other
+        return UnaryUnionOp.union(pieces);
+    }
+
+    /**
+     * Subtracts the overlay layer from a geometry.
+     * 
+     * @param geometry the geometry to subtract from.
+     * @return the part of the geometry not covered by the overlay layer or <code>null</code> if there is none.
+     */
+    public Geometry difference( Geometry geometry ) {
+        if (geometry == null || geometry.isEmpty()) {
+            return null;
+        }
+        List<Geometry> hits = new ArrayList<>();
+        for( PreparedGeometry candidate : query(geometry) ) {
+            if (candidate.intersects(geometry)) {
+                if (candidate.covers(geometry)) {
+                    return null;
+                }
+                hits.add(candidate.getGeometry());
+            }
+        }
+        if (hits.isEmpty()) {
+            return geometry;
+        }
+        Geometry overlay = hits.size() == 1 ? hits.get(0) : UnaryUnionOp.union(hits);
+        Geometry difference = geometry.difference(overlay);
+        if (difference.isEmpty()) {
+            return null;
+        }
+        return difference;
+    }
+
+    /**
+     * Intersects all items with the overlay layer.
+     * 
+     * @param items the items to process.
+     * @param geometryGetter the function that extracts the geometry from an item.
+     * @param consumer the receiver of the results, called for every item in input order.
+     * @throws Exception
+     */
+    public <T> void intersection( Iterator<T> items, Function<T, Geometry> geometryGetter, OverlayConsumer<T> consumer )
+            throws Exception {
+        process(items, geometryGetter, true, consumer);
+    }
+
+    /**
+     * Subtracts the overlay layer from all items.
+     * 
+     * @param items the items to process.
+     * @param geometryGetter the function that extracts the geometry from an item.
+     * @param consumer the receiver of the results, called for every item in input order.
+     * @throws Exception
+     */
+    public <T> void difference( Iterator<T> items, Function<T, Geometry> geometryGetter, OverlayConsumer<T> consumer )
+            throws Exception {
+        process(items, geometryGetter, false, consumer);
+    }
+
+    /**
+     * Dissolves a set of geometries.
+     * 
+     * <p>The union is cascaded over a spatial index of the geometries, so only nearby
+     * geometries are merged together at each step.</p>
+     * 
+     * @param geometries the geometries to dissolve.
+     * @return the union or <code>null</code> if there were no geometries.
+     */
+    public static Geometry union( Collection<Geometry> geometries ) {
+        return UnaryUnionOp.union(geometries);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<PreparedGeometry> query( Geometry geometry ) {
+        return tree.query(geometry.getEnvelopeInternal());
+    }
+
+    private <T> void process( Iterator<T> items, Function<T, Geometry> geometryGetter, boolean doIntersection,
+            OverlayConsumer<T> consumer ) throws Exception {
+        List<T> chunk = new ArrayList<>(CHUNK_SIZE);
+        while( items.hasNext() ) {
+            chunk.add(items.next());
+            if (chunk.size() < CHUNK_SIZE && items.hasNext()) {
+                continue;
+            }
+            Geometry[] results = new Geometry[chunk.size()];
+            IntStream stream = IntStream.range(0, chunk.size());
+            if (doParallel) {
+                stream = stream.parallel();
+            }
+            stream.forEach(i -> {
+                Geometry geometry = geometryGetter.apply(chunk.get(i));
+                results[i] = doIntersection ? intersection(geometry) : difference(geometry);
+            });
+            for( int i = 0; i < results.length; i++ ) {
+                consumer.accept(chunk.get(i), results[i]);
+            }
+            chunk.clear();
+        }
+    }
+
+}
@@ -29,9 +29,11 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORRESHAPER_NAME;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORRESHAPER_OUT_VECTOR_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORRESHAPER_P_CQL_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORRESHAPER_P_REMOVE_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORRESHAPER_DO_STREAM_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORRESHAPER_STATUS;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map.Entry;
@@ -62,6 +64,8 @@ import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.exceptions.ModelsRuntimeException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.utils.features.IFeatureTransform;
+import org.hortonmachine.gears.utils.features.StreamingFeatureCollection;
 import org.opengis.feature.Feature;
 import org.opengis.feature.FeatureVisitor;
 import org.opengis.feature.simple.SimpleFeature;
@@ -98,6 +102,10 @@ public class OmsVectorReshaper extends HMModel {
     @In
     public String pRemove = null;
 
+    @Description(OMSVECTORRESHAPER_DO_STREAM_DESCRIPTION)
+    @In
+    public boolean doStream = false;
+
     @Description(OMSVECTORRESHAPER_OUT_VECTOR_DESCRIPTION)
     @Out
     public SimpleFeatureCollection outVector;
@@ -162,6 +170,22 @@ public class OmsVectorReshaper extends HMModel {
         final List<Expression> expressions = createExpressionList(expressionString);
         SimpleFeatureType newFeatureType = createFeatureType(expressionString, originalFeatureType, names, expressions);
 
+        if (doStream) {
+            outVector = new StreamingFeatureCollection(inVector, new IFeatureTransform(){
+                public SimpleFeatureType getSchema( SimpleFeatureType inputSchema ) {
+                    return newFeatureType;
+                }
+                public List<SimpleFeature> transform( SimpleFeature feature ) {
+                    SimpleFeatureBuilder build = new SimpleFeatureBuilder(newFeatureType);
+                    for( int i = 0; i < expressions.size(); i++ ) {
+                        build.add(expressions.get(i).evaluate(feature));
+                    }
+                    return Collections.singletonList(build.buildFeature(feature.getID()));
+                }
+            });
+            return;
+        }
+
         outVector = new DefaultFeatureCollection();
 
         final SimpleFeatureBuilder build = new SimpleFeatureBuilder(newFeatureType);
@@ -260,10 +260,31 @@ public class SpatialDbsImportUtils {
      */
     public static boolean importFeatureCollection( ASpatialDb db, SimpleFeatureCollection featureCollection, SqlName tableName,
             int limit, boolean useFromTextForGeom, IHMProgressMonitor pm ) throws Exception {
+        return importFeatureCollection(db, featureCollection, tableName, limit, useFromTextForGeom, featureCollection.size(), pm);
+    }
+
+    /**
+     * Import a featureCollection into a table, iterating it only once.
+     * 
+     * <p>This is the variant to use for lazy collections, for which the size is
+     * known only after a full iteration.</p>
+     * 
+     * @param db the database to use.
+     * @param featureCollection the featureCollection to import.
+     * @param tableName the name of the table to import to.
+     * @param limit if > 0, a limit to the imported features is applied.
+     * @param useFromTextForGeom if true, the wkt form is used to insert geometries.
+     * @param featureCount the number of features, used for progress messages, or -1 if unknown.
+     * @param pm the progress monitor.
+     * @return <code>false</code>, is an error occurred. 
+     * @throws Exception
+     */
+    public static boolean importFeatureCollection( ASpatialDb db, SimpleFeatureCollection featureCollection, SqlName tableName,
+            int limit, boolean useFromTextForGeom, int featureCount, IHMProgressMonitor pm ) throws Exception {
         SimpleFeatureType schema = featureCollection.getSchema();
         List<AttributeDescriptor> attributeDescriptors = schema.getAttributeDescriptors();
 
-        int featureCount = featureCollection.size();
+        String ofCount = featureCount < 0 ? "" : " of " + featureCount;
 
         List<String[]> tableInfo = db.getTableColumns(tableName);
         List<String> tableColumns = new ArrayList<>();
@@ -399,7 +420,7 @@ public class SpatialDbsImportUtils {
                         count++;
                         batchCount++;
                         if (batchCount % DbsUtilities.DEFAULT_BULK_INSERT_CHUNK_SIZE == 0) {
-                            pm.beginTask("Batch import " + batchCount + " features. ( " + count + " of " + featureCount + " )",
+                            pm.beginTask("Batch import " + batchCount + " features. ( " + count + ofCount + " )",
                                     IHMProgressMonitor.UNKNOWN);
                             pStmt.executeBatch();
                             pm.done();
@@ -410,7 +431,7 @@ public class SpatialDbsImportUtils {
                         }
                     }
                     if (batchCount > 0) {
-                        pm.beginTask("Batch import " + batchCount + " features. ( " + count + " of " + featureCount + " )",
+                        pm.beginTask("Batch import " + batchCount + " features. ( " + count + ofCount + " )",
                                 IHMProgressMonitor.UNKNOWN);
                         pStmt.executeBatch();
                         pm.done();
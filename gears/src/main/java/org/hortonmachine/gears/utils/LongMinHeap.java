@@ -0,0 +1,148 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils;
+
+/**
+ * A binary min heap of primitive long keys.
+ *
+ * <p>Keys are usually built with {@link #key(float, int)}, which packs a value
+ * to order by in the upper 32 bits and an int index (for example the index of a
+ * grid cell) in the lower 32 bits, so that no object is created per entry.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LongMinHeap {
+
+    private long[] keys;
+    private int size = 0;
+
+    /**
+     * Create the heap with an initial capacity.
+     *
+     * @param initialCapacity the initial capacity, the heap grows as needed.
+     */
+    public LongMinHeap( int initialCapacity ) {
+        keys = new long[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Pack a float value and an int index into an ordered key.
+     *
+     * <p>Keys are ordered by value first and by index for equal values.</p>
+     *
+     * @param value the value to order by. Must not be NaN.
+     * @param index the index to carry along.
+     * @return the key.
+     */
+    public static long key( float value, int index ) {
+        int bits = Float.floatToIntBits(value);
+        // flip the magnitude bits of negative values to make the ints sort as the floats
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return ((long) bits << 32) | (index & 0xffffffffL);
+    }
+
+    /**
+     * @param key a key created with {@link #key(float, int)}.
+     * @return the index packed in the key.
+     */
+    public static int index( long key ) {
+        return (int) key;
+    }
+
+    /**
+     * @param key a key created with {@link #key(float, int)}.
+     * @return the value packed in the key.
+     */
+    public static float value( long key ) {
+        int bits = (int) (key >> 32);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return Float.intBitsToFloat(bits);
+    }
+
+    public void add( long key ) {
+        if (size == keys.length) {
+            long[] newKeys = new long[keys.length + (keys.length >> 1)];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            keys = newKeys;
+        }
+        int i = size++;
+        while( i > 0 ) {
+            int parent = (i - 1) >>> 1;
+            long p = keys[parent];
+            if (p <= key) {
+                break;
+            }
+            keys[i] = p;
+            i = parent;
+        }
+        keys[i] = key;
+    }
+
+    /**
+     * @return the smallest key, without removing it.
+     */
+    public long peek() {
+        if (size == 0) {
+            throw new IllegalStateException("The heap is empty.");
+        }
+        return keys[0];
+    }
+
+    /**
+     * Remove and return the smallest key.
+     *
+     * @return the smallest key.
+     */
+    public long poll() {
+        if (size == 0) {
+            throw new IllegalStateException("The heap is empty.");
+        }
+        long result = keys[0];
+        long last = keys[--size];
+        int i = 0;
+        int half = size >>> 1;
+        while( i < half ) {
+            int child = 2 * i + 1;
+            long c = keys[child];
+            int right = child + 1;
+            if (right < size && keys[right] < c) {
+                child = right;
+                c = keys[right];
+            }
+            if (last <= c) {
+                break;
+            }
+            keys[i] = c;
+            i = child;
+        }
+        keys[i] = last;
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
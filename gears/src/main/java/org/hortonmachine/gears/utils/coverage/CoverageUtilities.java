@@ -1041,8 +1041,8 @@ public class CoverageUtilities {
         double north = envelopeParams.north;
         Envelope2D writeEnvelope = new Envelope2D(crs, west, south, east - west, north - south);
 
-        final GridSampleDimension[] bands = RenderedSampleDimension.create(name, renderedImage.getData(), null, null, null, null,
-                null);
+        // the sample dimensions only need the sample model, avoid to copy the whole image through getData()
+        final GridSampleDimension[] bands = RenderedSampleDimension.create(name, renderedImage, null, null, null, null, null);
 
         GridCoverageFactory factory = CoverageFactoryFinder.getGridCoverageFactory(null);
 
@@ -0,0 +1,116 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.coverage;
+
+import java.awt.Point;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+
+/**
+ * A lazy tiled image on top of a {@link MappedTiledRaster}.
+ *
+ * <p>The image tiles match the tiles of the mapped raster and are read from the
+ * file only when requested, so that a coverage can be built on a raster larger
+ * than the available memory.</p>
+ *
+ * <p>The image owns the mapped raster: disposing the image, for example through
+ * the dispose of the coverage built on it, closes the raster and deletes its file.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MappedTiledImage extends PlanarImage {
+
+    private final MappedTiledRaster data;
+
+    public MappedTiledImage( MappedTiledRaster data ) {
+        super(createLayout(data), null, null);
+        this.data = data;
+    }
+
+    private static ImageLayout createLayout( MappedTiledRaster data ) {
+        int tileSize = data.getTileSize();
+        SampleModel sampleModel = new ComponentSampleModel(data.getDataType(), tileSize, tileSize, 1, tileSize,
+                new int[]{0});
+        return new ImageLayout(0, 0, data.getCols(), data.getRows(), 0, 0, tileSize, tileSize, sampleModel,
+                PlanarImage.createColorModel(sampleModel));
+    }
+
+    @Override
+    public Raster getTile( int tileX, int tileY ) {
+        if (tileX < 0 || tileY < 0 || tileX >= data.getTilesX() || tileY >= data.getTilesY()) {
+            return null;
+        }
+        int tileSize = data.getTileSize();
+        int cells = tileSize * tileSize;
+        DataBuffer dataBuffer;
+        switch( data.getDataType() ) {
+        case DataBuffer.TYPE_DOUBLE: {
+            double[] array = new double[cells];
+            data.readTile(tileX, tileY, array);
+            dataBuffer = new DataBufferDouble(array, cells);
+            break;
+        }
+        case DataBuffer.TYPE_FLOAT: {
+            float[] array = new float[cells];
+            data.readTile(tileX, tileY, array);
+            dataBuffer = new DataBufferFloat(array, cells);
+            break;
+        }
+        case DataBuffer.TYPE_INT: {
+            int[] array = new int[cells];
+            data.readTile(tileX, tileY, array);
+            dataBuffer = new DataBufferInt(array, cells);
+            break;
+        }
+        default: {
+            short[] array = new short[cells];
+            data.readTile(tileX, tileY, array);
+            dataBuffer = new DataBufferShort(array, cells);
+            break;
+        }
+        }
+        return RasterFactory.createWritableRaster(getSampleModel(), dataBuffer,
+                new Point(tileXToX(tileX), tileYToY(tileY)));
+    }
+
+    /**
+     * Close the mapped raster, after which the tiles are no longer available.
+     */
+    @Override
+    public synchronized void dispose() {
+        try {
+            data.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        super.dispose();
+    }
+
+}
@@ -0,0 +1,435 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.coverage;
+
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.media.jai.iterator.WritableRandomIter;
+
+/**
+ * A single band raster kept off-heap in a memory-mapped temporary file.
+ *
+ * <p>The raster is split into square tiles of fixed size and every tile is stored
+ * contiguously in the file, so that neighbouring cells are on the same pages and
+ * the operating system can swap in and out only the parts in use. This allows to
+ * work on rasters larger than the available memory.</p>
+ *
+ * <p>The file is mapped in segments of whole tiles, each segment being mapped on first
+ * access. Tiles are filled with the initial value only when first touched.</p>
+ *
+ * <p>The raster is accessed through the {@link WritableRandomIter} interface and can be
+ * wrapped as a lazy image through {@link MappedTiledImage}.</p>
+ *
+ * <p>The backing file lives until {@link #close()} is called, which has to happen once the
+ * raster is no longer needed.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MappedTiledRaster implements WritableRandomIter, AutoCloseable {
+
+    /**
+     * The default size of the side of a tile.
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final int cols;
+    private final int rows;
+    private final int dataType;
+    private final int tileShift;
+    private final int tileMask;
+    private final int tileSize;
+    private final int tilesX;
+    private final int tilesY;
+    private final int typeShift;
+    private final long tileBytes;
+    private final int tilesPerSegment;
+    private final double initialValue;
+    private final boolean needsInit;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final AtomicReferenceArray<ByteBuffer> segments;
+    private final AtomicIntegerArray initializedTiles;
+    private boolean closed = false;
+
+    /**
+     * Create a new mapped raster.
+     *
+     * @param cols the columns of the raster.
+     * @param rows the rows of the raster.
+     * @param dataType the {@link DataBuffer} type, one of <code>TYPE_DOUBLE</code>, <code>TYPE_FLOAT</code>,
+     *          <code>TYPE_INT</code> or <code>TYPE_SHORT</code>.
+     * @param tileSize the size of the side of the tiles, a power of 2.
+     * @param initialValue the value every cell starts with.
+     * @param folder the folder in which to create the temporary file or <code>null</code> for the default.
+     * @throws IOException
+     */
+    public MappedTiledRaster( int cols, int rows, int dataType, int tileSize, double initialValue, File folder )
+            throws IOException {
+        if (tileSize < 1 || Integer.bitCount(tileSize) != 1) {
+            throw new IllegalArgumentException("The tile size needs to be a power of 2.");
+        }
+        switch( dataType ) {
+        case DataBuffer.TYPE_DOUBLE:
+            typeShift = 3;
+            break;
+        case DataBuffer.TYPE_FLOAT:
+        case DataBuffer.TYPE_INT:
+            typeShift = 2;
+            break;
+        case DataBuffer.TYPE_SHORT:
+            typeShift = 1;
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported data type: " + dataType);
+        }
+        this.cols = cols;
+        this.rows = rows;
+        this.dataType = dataType;
+        this.tileSize = tileSize;
+        this.tileShift = Integer.numberOfTrailingZeros(tileSize);
+        this.tileMask = tileSize - 1;
+        this.initialValue = initialValue;
+        tilesX = (cols + tileSize - 1) / tileSize;
+        tilesY = (rows + tileSize - 1) / tileSize;
+        tileBytes = ((long) tileSize * tileSize) << typeShift;
+        tilesPerSegment = (int) Math.max(1, MAX_SEGMENT_BYTES / tileBytes);
+        int tilesCount = tilesX * tilesY;
+        segments = new AtomicReferenceArray<>((tilesCount + tilesPerSegment - 1) / tilesPerSegment);
+
+        // a new file is all zeros, any other initial value is written lazily
+        needsInit = Double.doubleToRawLongBits(initialValue) != 0L;
+        initializedTiles = needsInit ? new AtomicIntegerArray(tilesCount) : null;
+
+        file = File.createTempFile("hmraster_", ".tiles", folder);
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(tilesCount * tileBytes);
+        channel = raf.getChannel();
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getDataType() {
+        return dataType;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    /**
+     * @return the file backing the raster.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    private ByteBuffer segment( int segmentIndex ) {
+        ByteBuffer segment = segments.get(segmentIndex);
+        if (segment == null) {
+            segment = mapSegment(segmentIndex);
+        }
+        return segment;
+    }
+
+    private synchronized ByteBuffer mapSegment( int segmentIndex ) {
+        ByteBuffer segment = segments.get(segmentIndex);
+        if (segment == null) {
+            if (closed) {
+                throw new IllegalStateException("The mapped raster has been closed.");
+            }
+            long position = segmentIndex * tilesPerSegment * tileBytes;
+            long size = Math.min(tilesPerSegment * tileBytes, (long) tilesX * tilesY * tileBytes - position);
+            try {
+                MappedByteBuffer mapped = channel.map(MapMode.READ_WRITE, position, size);
+                segment = mapped.order(ByteOrder.nativeOrder());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            segments.set(segmentIndex, segment);
+        }
+        return segment;
+    }
+
+    private int tileIndex( int col, int row ) {
+        if (col < 0 || row < 0 || col >= cols || row >= rows) {
+            throw new ArrayIndexOutOfBoundsException("Position outside of the raster: " + col + "/" + row);
+        }
+        return (row >> tileShift) * tilesX + (col >> tileShift);
+    }
+
+    private int offsetInSegment( int tile, int col, int row ) {
+        int inTile = ((row & tileMask) << tileShift) + (col & tileMask);
+        return (int) ((tile % tilesPerSegment) * tileBytes) + (inTile << typeShift);
+    }
+
+    private ByteBuffer tileSegment( int tile ) {
+        ByteBuffer segment = segment(tile / tilesPerSegment);
+        if (needsInit && initializedTiles.get(tile) == 0) {
+            initTile(tile, segment);
+        }
+        return segment;
+    }
+
+    private synchronized void initTile( int tile, ByteBuffer segment ) {
+        if (initializedTiles.get(tile) != 0) {
+            return;
+        }
+        int start = (int) ((tile % tilesPerSegment) * tileBytes);
+        int cells = tileSize * tileSize;
+        for( int i = 0; i < cells; i++ ) {
+            put(segment, start + (i << typeShift), initialValue);
+        }
+        initializedTiles.set(tile, 1);
+    }
+
+    private double get( ByteBuffer segment, int offset ) {
+        switch( dataType ) {
+        case DataBuffer.TYPE_DOUBLE:
+            return segment.getDouble(offset);
+        case DataBuffer.TYPE_FLOAT:
+            return segment.getFloat(offset);
+        case DataBuffer.TYPE_INT:
+            return segment.getInt(offset);
+        default:
+            return segment.getShort(offset);
+        }
+    }
+
+    private void put( ByteBuffer segment, int offset, double value ) {
+        switch( dataType ) {
+        case DataBuffer.TYPE_DOUBLE:
+            segment.putDouble(offset, value);
+            break;
+        case DataBuffer.TYPE_FLOAT:
+            segment.putFloat(offset, (float) value);
+            break;
+        case DataBuffer.TYPE_INT:
+            segment.putInt(offset, (int) value);
+            break;
+        default:
+            segment.putShort(offset, (short) (int) value);
+            break;
+        }
+    }
+
+    @Override
+    public double getSampleDouble( int x, int y, int b ) {
+        int tile = tileIndex(x, y);
+        ByteBuffer segment = tileSegment(tile);
+        return get(segment, offsetInSegment(tile, x, y));
+    }
+
+    @Override
+    public float getSampleFloat( int x, int y, int b ) {
+        return (float) getSampleDouble(x, y, b);
+    }
+
+    @Override
+    public int getSample( int x, int y, int b ) {
+        int tile = tileIndex(x, y);
+        ByteBuffer segment = tileSegment(tile);
+        int offset = offsetInSegment(tile, x, y);
+        switch( dataType ) {
+        case DataBuffer.TYPE_INT:
+            return segment.getInt(offset);
+        case DataBuffer.TYPE_SHORT:
+            return segment.getShort(offset);
+        default:
+            return (int) get(segment, offset);
+        }
+    }
+
+    @Override
+    public void setSample( int x, int y, int b, double s ) {
+        int tile = tileIndex(x, y);
+        ByteBuffer segment = tileSegment(tile);
+        put(segment, offsetInSegment(tile, x, y), s);
+    }
+
+    @Override
+    public void setSample( int x, int y, int b, float s ) {
+        setSample(x, y, b, (double) s);
+    }
+
+    @Override
+    public void setSample( int x, int y, int b, int s ) {
+        int tile = tileIndex(x, y);
+        ByteBuffer segment = tileSegment(tile);
+        int offset = offsetInSegment(tile, x, y);
+        switch( dataType ) {
+        case DataBuffer.TYPE_INT:
+            segment.putInt(offset, s);
+            break;
+        case DataBuffer.TYPE_SHORT:
+            segment.putShort(offset, (short) s);
+            break;
+        default:
+            put(segment, offset, s);
+            break;
+        }
+    }
+
+    @Override
+    public int[] getPixel( int x, int y, int[] iArray ) {
+        if (iArray == null) {
+            iArray = new int[1];
+        }
+        iArray[0] = getSample(x, y, 0);
+        return iArray;
+    }
+
+    @Override
+    public float[] getPixel( int x, int y, float[] fArray ) {
+        if (fArray == null) {
+            fArray = new float[1];
+        }
+        fArray[0] = getSampleFloat(x, y, 0);
+        return fArray;
+    }
+
+    @Override
+    public double[] getPixel( int x, int y, double[] dArray ) {
+        if (dArray == null) {
+            dArray = new double[1];
+        }
+        dArray[0] = getSampleDouble(x, y, 0);
+        return dArray;
+    }
+
+    @Override
+    public void setPixel( int x, int y, int[] iArray ) {
+        setSample(x, y, 0, iArray[0]);
+    }
+
+    @Override
+    public void setPixel( int x, int y, float[] fArray ) {
+        setSample(x, y, 0, fArray[0]);
+    }
+
+    @Override
+    public void setPixel( int x, int y, double[] dArray ) {
+        setSample(x, y, 0, dArray[0]);
+    }
+
+    /**
+     * Copy the data of a whole tile into an array.
+     *
+     * <p>The tile is returned row by row, with a width and height of {@link #getTileSize()},
+     * also for the tiles at the border of the raster.</p>
+     *
+     * @param tileX the tile column.
+     * @param tileY the tile row.
+     * @param array the array to fill, a <code>double[]</code>, <code>float[]</code>,
+     *          <code>int[]</code> or <code>short[]</code> depending on the data type.
+     */
+    public void readTile( int tileX, int tileY, Object array ) {
+        int tile = tileY * tilesX + tileX;
+        int cells = tileSize * tileSize;
+        if (needsInit && initializedTiles.get(tile) == 0) {
+            // never written, no need to touch the file
+            switch( dataType ) {
+            case DataBuffer.TYPE_DOUBLE:
+                Arrays.fill((double[]) array, 0, cells, initialValue);
+                break;
+            case DataBuffer.TYPE_FLOAT:
+                Arrays.fill((float[]) array, 0, cells, (float) initialValue);
+                break;
+            case DataBuffer.TYPE_INT:
+                Arrays.fill((int[]) array, 0, cells, (int) initialValue);
+                break;
+            default:
+                Arrays.fill((short[]) array, 0, cells, (short) (int) initialValue);
+                break;
+            }
+            return;
+        }
+        ByteBuffer view = segment(tile / tilesPerSegment).duplicate().order(ByteOrder.nativeOrder());
+        view.position((int) ((tile % tilesPerSegment) * tileBytes));
+        switch( dataType ) {
+        case DataBuffer.TYPE_DOUBLE:
+            view.asDoubleBuffer().get((double[]) array, 0, cells);
+            break;
+        case DataBuffer.TYPE_FLOAT:
+            view.asFloatBuffer().get((float[]) array, 0, cells);
+            break;
+        case DataBuffer.TYPE_INT:
+            view.asIntBuffer().get((int[]) array, 0, cells);
+            break;
+        default:
+            view.asShortBuffer().get((short[]) array, 0, cells);
+            break;
+        }
+    }
+
+    @Override
+    public void done() {
+        // the data stay available until the raster is closed
+    }
+
+    /**
+     * Release the mapping and delete the backing file.
+     *
+     * <p>If the file can't be deleted yet, since on some systems it stays locked until the
+     * mapping is garbage collected, it is deleted at exit.</p>
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for( int i = 0; i < segments.length(); i++ ) {
+            segments.set(i, null);
+        }
+        channel.close();
+        raf.close();
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
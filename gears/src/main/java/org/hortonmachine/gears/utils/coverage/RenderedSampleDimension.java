@@ -188,6 +188,33 @@ final class RenderedSampleDimension extends GridSampleDimension {
         return dst;
     }
 
+    /**
+     * Creates a set of sample dimensions for the given image, without reading its data.
+     *
+     * @param name The name for data (e.g. "Elevation").
+     * @param image The image.
+     * @param min The minimal value for each bands, or {@code null}.
+     * @param max The maximal value for each bands, or {@code null}.
+     * @param units The units of sample values, or {@code null} if unknow.
+     * @param colors The colors to use for values from {@code min} to {@code max} for each bands, or
+     *     {@code null} for a default color palette.
+     * @param hints An optional set of rendering hints, or {@code null} if none.
+     * @return The sample dimension for the given image.
+     */
+    static GridSampleDimension[] create(
+            final CharSequence name,
+            final RenderedImage image,
+            final double[] min,
+            final double[] max,
+            final Unit<?> units,
+            final Color[][] colors,
+            final RenderingHints hints) {
+        final SampleModel model = image.getSampleModel();
+        final GridSampleDimension[] dst = new GridSampleDimension[model.getNumBands()];
+        create(name, null, model, min, max, units, colors, dst, hints);
+        return dst;
+    }
+
     /**
      * Creates a set of sample dimensions for the data backing the given iterator.
      *
@@ -0,0 +1,226 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.coverage;
+
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Scanline rasterizer of triangulated surfaces.
+ *
+ * <p>Every triangle is scan converted once: the cells whose center falls inside it
+ * (borders included) get the elevation of the triangle plane, i.e. the barycentric
+ * interpolation of its vertices. Where triangles overlap the highest elevation is kept.</p>
+ *
+ * <p>The rows are split in bands. Triangles are binned to the bands they cover and the
+ * bands are processed in parallel, each one owning its rows, so that no locking is needed.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TinRasterizer {
+    /**
+     * Tolerance in cell units for centers lying on the triangle borders.
+     */
+    private static final double EPS = 1E-9;
+
+    private final double west;
+    private final double north;
+    private final double xres;
+    private final double yres;
+    private final int cols;
+    private final int rows;
+
+    /**
+     * Constructor.
+     *
+     * @param west the west bound of the raster.
+     * @param north the north bound of the raster.
+     * @param xres the x resolution.
+     * @param yres the y resolution.
+     * @param cols the columns.
+     * @param rows the rows.
+     */
+    public TinRasterizer( double west, double north, double xres, double yres, int cols, int rows ) {
+        this.west = west;
+        this.north = north;
+        this.xres = xres;
+        this.yres = yres;
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    /**
+     * Rasterize triangles into a raster.
+     *
+     * <p>Cells not covered by any triangle are left untouched.</p>
+     *
+     * @param triangles the triangles, the first three coordinates of each are used.
+     * @param outWR the raster to write to, of the size given in the constructor.
+     * @param pm the progress monitor.
+     */
+    public void rasterize( List<Coordinate[]> triangles, WritableRaster outWR, IHMProgressMonitor pm ) {
+        int bandsNum = Math.min(rows, 4 * Runtime.getRuntime().availableProcessors());
+        if (bandsNum < 1 || triangles.isEmpty()) {
+            return;
+        }
+        int bandRows = (int) Math.ceil(rows / (double) bandsNum);
+        bandsNum = (int) Math.ceil(rows / (double) bandRows);
+
+        /*
+         * bin the triangles to the row bands, in a single array
+         */
+        int trianglesNum = triangles.size();
+        int[] firstBand = new int[trianglesNum];
+        int[] lastBand = new int[trianglesNum];
+        int[] bandOffsets = new int[bandsNum + 1];
+        for( int i = 0; i < trianglesNum; i++ ) {
+            Coordinate[] triangle = triangles.get(i);
+            double minY = Math.min(Math.min(toRow(triangle[0].y), toRow(triangle[1].y)), toRow(triangle[2].y));
+            double maxY = Math.max(Math.max(toRow(triangle[0].y), toRow(triangle[1].y)), toRow(triangle[2].y));
+            int minRow = Math.max(0, (int) Math.ceil(minY - EPS));
+            int maxRow = Math.min(rows - 1, (int) Math.floor(maxY + EPS));
+            if (minRow > maxRow) {
+                firstBand[i] = -1;
+                continue;
+            }
+            firstBand[i] = minRow / bandRows;
+            lastBand[i] = maxRow / bandRows;
+            for( int band = firstBand[i]; band <= lastBand[i]; band++ ) {
+                bandOffsets[band + 1]++;
+            }
+        }
+        for( int band = 0; band < bandsNum; band++ ) {
+            bandOffsets[band + 1] += bandOffsets[band];
+        }
+        int[] bandTriangles = new int[bandOffsets[bandsNum]];
+        int[] fill = Arrays.copyOf(bandOffsets, bandsNum);
+        for( int i = 0; i < trianglesNum; i++ ) {
+            if (firstBand[i] == -1) {
+                continue;
+            }
+            for( int band = firstBand[i]; band <= lastBand[i]; band++ ) {
+                bandTriangles[fill[band]++] = i;
+            }
+        }
+
+        final int fBandRows = bandRows;
+        pm.beginTask("Rasterizing triangles...", bandsNum);
+        IntStream.range(0, bandsNum).parallel().forEach(band -> {
+            int startRow = band * fBandRows;
+            int endRow = Math.min(rows, startRow + fBandRows);
+            double[] values = new double[(endRow - startRow) * cols];
+            Arrays.fill(values, Double.NaN);
+            for( int k = bandOffsets[band]; k < bandOffsets[band + 1]; k++ ) {
+                scanTriangle(triangles.get(bandTriangles[k]), startRow, endRow, values);
+            }
+            for( int row = startRow; row < endRow; row++ ) {
+                int offset = (row - startRow) * cols;
+                for( int col = 0; col < cols; col++ ) {
+                    double value = values[offset + col];
+                    if (!Double.isNaN(value)) {
+                        outWR.setSample(col, row, 0, value);
+                    }
+                }
+            }
+            pm.worked(1);
+        });
+        pm.done();
+    }
+
+    /**
+     * Scan convert a triangle in the rows from startRow (included) to endRow (excluded).
+     */
+    private void scanTriangle( Coordinate[] triangle, int startRow, int endRow, double[] values ) {
+        double x0 = toCol(triangle[0].x);
+        double y0 = toRow(triangle[0].y);
+        double x1 = toCol(triangle[1].x);
+        double y1 = toRow(triangle[1].y);
+        double x2 = toCol(triangle[2].x);
+        double y2 = toRow(triangle[2].y);
+        double det = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+        if (det == 0.0) {
+            return;
+        }
+        double z0 = triangle[0].z;
+        double dz1 = triangle[1].z - z0;
+        double dz2 = triangle[2].z - z0;
+        // gradient of the barycentric interpolation in cell units
+        double dzdx = (dz1 * (y2 - y0) - dz2 * (y1 - y0)) / det;
+        double dzdy = ((x1 - x0) * dz2 - (x2 - x0) * dz1) / det;
+
+        double[] xs = {x0, x1, x2};
+        double[] ys = {y0, y1, y2};
+        int minRow = Math.max(startRow, (int) Math.ceil(Math.min(Math.min(y0, y1), y2) - EPS));
+        int maxRow = Math.min(endRow - 1, (int) Math.floor(Math.max(Math.max(y0, y1), y2) + EPS));
+        for( int row = minRow; row <= maxRow; row++ ) {
+            double minX = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            for( int i = 0; i < 3; i++ ) {
+                int j = (i + 1) % 3;
+                double ya = ys[i];
+                double yb = ys[j];
+                if (row < Math.min(ya, yb) - EPS || row > Math.max(ya, yb) + EPS) {
+                    continue;
+                }
+                if (ya == yb) {
+                    minX = Math.min(minX, Math.min(xs[i], xs[j]));
+                    maxX = Math.max(maxX, Math.max(xs[i], xs[j]));
+                    continue;
+                }
+                double t = (row - ya) / (yb - ya);
+                t = Math.max(0.0, Math.min(1.0, t));
+                double x = xs[i] + t * (xs[j] - xs[i]);
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+            }
+            int minCol = Math.max(0, (int) Math.ceil(minX - EPS));
+            int maxCol = Math.min(cols - 1, (int) Math.floor(maxX + EPS));
+            if (minCol > maxCol) {
+                continue;
+            }
+            int offset = (row - startRow) * cols;
+            double z = z0 + dzdx * (minCol - x0) + dzdy * (row - y0);
+            for( int col = minCol; col <= maxCol; col++ ) {
+                double value = values[offset + col];
+                if (Double.isNaN(value) || z > value) {
+                    values[offset + col] = z;
+                }
+                z += dzdx;
+            }
+        }
+    }
+
+    /**
+     * @return the easting in column units, with cell centers on integers.
+     */
+    private double toCol( double x ) {
+        return (x - west) / xres - 0.5;
+    }
+
+    /**
+     * @return the northing in row units, with cell centers on integers.
+     */
+    private double toRow( double y ) {
+        return (north - y) / yres - 0.5;
+    }
+}
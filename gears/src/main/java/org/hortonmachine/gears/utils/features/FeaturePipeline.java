@@ -0,0 +1,150 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.features;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.function.Predicate;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.store.ReprojectingFeatureCollection;
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.dbs.utils.SqlName;
+import org.hortonmachine.gears.io.vectorreader.OmsVectorReader;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.libs.monitor.LogProgressMonitor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * A chain of lazy feature operations, from a source to a {@link FeatureSink}.
+ *
+ * <p>Every step wraps the previous collection without reading it, the features are
+ * pulled through the whole chain only once, by the final write. For example:</p>
+ *
+ * <pre>
+ * FeaturePipeline.read("roads.shp")//
+ *         .reproject(crs)//
+ *         .transform(OmsVectorClipper.clipTransform(clipperGeoms))//
+ *         .write("roads.gpkg#roads", pm);
+ * </pre>
+ *
+ * <p>Modules can opt in by exposing their per feature logic as an {@link IFeatureTransform}
+ * or by producing a {@link StreamingFeatureCollection} as output.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class FeaturePipeline {
+
+    private SimpleFeatureCollection features;
+
+    private FeaturePipeline( SimpleFeatureCollection features ) {
+        this.features = features;
+    }
+
+    /**
+     * Start a pipeline from a vector file.
+     *
+     * <p>Geopackage tables, given as <code>path#table</code>, are read lazily through a
+     * {@link SpatialDbFeatureCollection}, other formats are read by the {@link OmsVectorReader}.</p>
+     *
+     * @param path the vector file path, as supported by {@link OmsVectorReader}.
+     * @return the pipeline.
+     * @throws Exception
+     */
+    public static FeaturePipeline read( String path ) throws Exception {
+        String name = new File(path).getName().toLowerCase();
+        if (name.contains("." + HMConstants.GPKG)) {
+            String[] split = path.split(HMConstants.DB_TABLE_PATH_SEPARATOR);
+            if (split.length == 1 || split[1].trim().length() == 0) {
+                throw new ModelsIllegalargumentException("The table name needs to be specified in the geopackage path after the #.",
+                        FeaturePipeline.class.getSimpleName());
+            }
+            return new FeaturePipeline(new SpatialDbFeatureCollection(EDb.GEOPACKAGE, split[0], SqlName.m(split[1])));
+        }
+        return new FeaturePipeline(OmsVectorReader.readVector(path));
+    }
+
+    /**
+     * Start a pipeline from a feature collection.
+     *
+     * @param features the source features.
+     * @return the pipeline.
+     */
+    public static FeaturePipeline from( SimpleFeatureCollection features ) {
+        return new FeaturePipeline(features);
+    }
+
+    /**
+     * Reproject the features.
+     *
+     * @param targetCrs the crs to reproject to.
+     * @return the pipeline.
+     */
+    public FeaturePipeline reproject( CoordinateReferenceSystem targetCrs ) {
+        features = new ReprojectingFeatureCollection(features, targetCrs);
+        return this;
+    }
+
+    /**
+     * Keep only the features that match a condition.
+     *
+     * @param condition the condition to match.
+     * @return the pipeline.
+     * @throws Exception
+     */
+    public FeaturePipeline filter( Predicate<SimpleFeature> condition ) throws Exception {
+        return transform(feature -> condition.test(feature) ? Collections.singletonList(feature) : Collections.emptyList());
+    }
+
+    /**
+     * Apply a transform to every feature.
+     *
+     * @param transform the transform to apply.
+     * @return the pipeline.
+     * @throws Exception
+     */
+    public FeaturePipeline transform( IFeatureTransform transform ) throws Exception {
+        features = new StreamingFeatureCollection(features, transform);
+        return this;
+    }
+
+    /**
+     * @return the lazy collection of the pipeline, to be used as input for modules.
+     */
+    public SimpleFeatureCollection getFeatures() {
+        return features;
+    }
+
+    /**
+     * Run the pipeline, writing the features to file.
+     *
+     * @param path the file to write to, as supported by {@link FeatureSink}.
+     * @param pm the progress monitor.
+     * @throws Exception
+     */
+    public void write( String path, IHMProgressMonitor pm ) throws Exception {
+        if (pm == null) {
+            pm = new LogProgressMonitor();
+        }
+        FeatureSink.write(features, path, true, pm);
+    }
+
+}
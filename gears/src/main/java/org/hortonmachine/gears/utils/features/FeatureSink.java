@@ -0,0 +1,178 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.features;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.FileDataStoreFactorySpi;
+import org.geotools.data.FileDataStoreFinder;
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.hortonmachine.dbs.compat.ASpatialDb;
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.dbs.geopackage.GeopackageCommonDb;
+import org.hortonmachine.dbs.utils.SqlName;
+import org.hortonmachine.gears.libs.exceptions.ModelsIOException;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.spatialite.SpatialDbsImportUtils;
+import org.hortonmachine.gears.utils.CrsUtilities;
+import org.hortonmachine.gears.utils.PreferencesHandler;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Writer of features to file that iterates the features only once.
+ *
+ * <p>Features are written one by one while they are pulled from the collection, so
+ * that lazy collections as the {@link StreamingFeatureCollection} are written in
+ * constant memory.</p>
+ *
+ * <p>Supported are shapefiles and tables of geopackage and spatialite databases, the
+ * latter given as <code>path#table</code>.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class FeatureSink {
+
+    private FeatureSink() {
+    }
+
+    /**
+     * Write features to file.
+     *
+     * @param features the features to write.
+     * @param path the file to write to.
+     * @param doOverwrite if <code>false</code>, an exception is thrown if the data exist.
+     * @param pm the progress monitor.
+     * @throws Exception
+     */
+    public static void write( SimpleFeatureCollection features, String path, boolean doOverwrite, IHMProgressMonitor pm )
+            throws Exception {
+        String name = new File(path).getName().toLowerCase();
+        if (name.endsWith("." + HMConstants.SHP)) {
+            writeShapefile(features, path, doOverwrite, pm);
+        } else if (name.contains("." + HMConstants.GPKG)) {
+            writeTable(EDb.GEOPACKAGE, features, path, doOverwrite, pm);
+        } else if (name.contains("." + EDb.SPATIALITE.getExtension())) {
+            writeTable(EDb.SPATIALITE, features, path, doOverwrite, pm);
+        } else {
+            throw new IOException("Format is currently not supported for file: " + name);
+        }
+    }
+
+    private static void writeShapefile( SimpleFeatureCollection features, String path, boolean doOverwrite,
+            IHMProgressMonitor pm ) throws Exception {
+        File shapeFile = new File(path);
+        if (shapeFile.exists() && !doOverwrite) {
+            throw new ModelsIOException("Overwriting is disabled. First delete the data.", FeatureSink.class.getSimpleName());
+        }
+
+        FileDataStoreFactorySpi factory = FileDataStoreFinder.getDataStoreFactory(HMConstants.SHP);
+        Map<String, Serializable> map = new HashMap<>();
+        map.put("url", shapeFile.toURI().toURL());
+        String shpDoIndex = PreferencesHandler.getShpDoIndex();
+        if (shpDoIndex != null) {
+            map.put("create spatial index", Boolean.valueOf(shpDoIndex));
+        }
+        String shpCharset = PreferencesHandler.getShpCharset();
+        if (shpCharset != null) {
+            map.put("charset", shpCharset);
+        }
+
+        DataStore dataStore = factory.createNewDataStore(map);
+        try {
+            dataStore.createSchema(features.getSchema());
+            String typeName = dataStore.getTypeNames()[0];
+
+            pm.beginTask("Writing shapefile: " + shapeFile.getName(), IHMProgressMonitor.UNKNOWN);
+            try (Transaction transaction = new DefaultTransaction("create")) {
+                try (FeatureWriter<SimpleFeatureType, SimpleFeature> writer = dataStore.getFeatureWriterAppend(typeName,
+                        transaction); SimpleFeatureIterator iterator = features.features()) {
+                    while( iterator.hasNext() ) {
+                        SimpleFeature feature = iterator.next();
+                        SimpleFeature toWrite = writer.next();
+                        // the shapefile schema has the geometry first, so copy by name
+                        for( AttributeDescriptor descriptor : toWrite.getFeatureType().getAttributeDescriptors() ) {
+                            if (!(descriptor instanceof GeometryDescriptor)) {
+                                String name = descriptor.getLocalName();
+                                toWrite.setAttribute(name, feature.getAttribute(name));
+                            }
+                        }
+                        toWrite.setDefaultGeometry(feature.getDefaultGeometry());
+                        writer.write();
+                    }
+                    transaction.commit();
+                } catch (Exception e) {
+                    transaction.rollback();
+                    throw new IOException(e.getLocalizedMessage(), e);
+                }
+            } finally {
+                pm.done();
+            }
+        } finally {
+            dataStore.dispose();
+        }
+    }
+
+    private static void writeTable( EDb dbType, SimpleFeatureCollection features, String path, boolean doOverwrite,
+            IHMProgressMonitor pm ) throws Exception {
+        String[] split = path.split(HMConstants.DB_TABLE_PATH_SEPARATOR);
+        if (split.length == 1 || split[1].trim().length() == 0) {
+            throw new ModelsIllegalargumentException("The table name needs to be specified in the database path after the #.",
+                    FeatureSink.class.getSimpleName());
+        }
+        SqlName table = SqlName.m(split[1]);
+        String dbPath = split[0];
+
+        try (ASpatialDb db = dbType.getSpatialDb()) {
+            boolean existed = db.open(dbPath);
+            SimpleFeatureType schema = features.getSchema();
+            if (db instanceof GeopackageCommonDb) {
+                db.initSpatialMetadata(null);
+                // the schema crs, the bounds would need a full iteration
+                CoordinateReferenceSystem crs = schema.getCoordinateReferenceSystem();
+                int srid = CrsUtilities.getSrid(crs);
+                ((GeopackageCommonDb) db).addCRS("EPSG", srid, crs.toWKT());
+            } else if (!existed) {
+                db.initSpatialMetadata(null);
+            }
+
+            if (db.hasTable(table) && !doOverwrite) {
+                throw new ModelsIOException("Overwriting is disabled. First delete the data.", FeatureSink.class.getSimpleName());
+            }
+            if (!db.hasTable(table) || !existed) {
+                SpatialDbsImportUtils.createTableFromSchema(db, schema, table, null, false);
+            }
+            SpatialDbsImportUtils.importFeatureCollection(db, features, table, -1, false, -1, pm);
+        }
+    }
+
+}
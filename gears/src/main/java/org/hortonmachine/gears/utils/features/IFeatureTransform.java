@@ -0,0 +1,54 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.features;
+
+import java.util.List;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * A per feature transformation, applied while features are streamed through a {@link FeaturePipeline}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public interface IFeatureTransform {
+
+    /**
+     * Get the schema of the transformed features.
+     *
+     * <p>This is called once, before any feature is transformed.</p>
+     *
+     * @param inputSchema the schema of the features to transform.
+     * @return the schema of the transformed features.
+     * @throws Exception
+     */
+    default SimpleFeatureType getSchema( SimpleFeatureType inputSchema ) throws Exception {
+        return inputSchema;
+    }
+
+    /**
+     * Transform a feature.
+     *
+     * @param feature the feature to transform.
+     * @return the resulting features, which can be empty if the feature is dropped.
+     * @throws Exception
+     */
+    List<SimpleFeature> transform( SimpleFeature feature ) throws Exception;
+
+}
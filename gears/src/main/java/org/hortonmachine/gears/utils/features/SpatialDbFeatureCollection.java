@@ -0,0 +1,197 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.features;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.BaseSimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.hortonmachine.dbs.compat.ASpatialDb;
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.dbs.compat.GeometryColumn;
+import org.hortonmachine.dbs.compat.HMCursor;
+import org.hortonmachine.dbs.datatypes.EDataType;
+import org.hortonmachine.dbs.datatypes.EGeometryType;
+import org.hortonmachine.dbs.utils.SqlName;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.exceptions.ModelsRuntimeException;
+import org.hortonmachine.gears.utils.CrsUtilities;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * A lazy feature collection over a table of a spatial database.
+ *
+ * <p>Every iteration opens the database and reads the records through a {@link HMCursor},
+ * so only the current feature is in memory.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class SpatialDbFeatureCollection extends BaseSimpleFeatureCollection {
+
+    private static final int FETCH_SIZE = 1000;
+
+    private final EDb dbType;
+    private final String dbPath;
+    private final SqlName tableName;
+
+    /**
+     * @param dbType the database type.
+     * @param dbPath the database path.
+     * @param tableName the table to read.
+     * @throws Exception
+     */
+    public SpatialDbFeatureCollection( EDb dbType, String dbPath, SqlName tableName ) throws Exception {
+        super(readSchema(dbType, dbPath, tableName));
+        this.dbType = dbType;
+        this.dbPath = dbPath;
+        this.tableName = tableName;
+    }
+
+    private static ASpatialDb openDb( EDb dbType, String dbPath ) throws Exception {
+        ASpatialDb db = dbType.getSpatialDb();
+        db.open(dbPath);
+        if (dbType == EDb.GEOPACKAGE) {
+            db.initSpatialMetadata(null);
+        }
+        return db;
+    }
+
+    private static SimpleFeatureType readSchema( EDb dbType, String dbPath, SqlName tableName ) throws Exception {
+        try (ASpatialDb db = openDb(dbType, dbPath)) {
+            GeometryColumn geometryColumn = db.getGeometryColumnsForTable(tableName);
+            if (geometryColumn == null) {
+                throw new ModelsIllegalargumentException("Not a geometric layer: " + tableName.name,
+                        SpatialDbFeatureCollection.class.getSimpleName());
+            }
+
+            SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+            b.setName(tableName.name);
+            b.setCRS(CrsUtilities.getCrsFromEpsg("EPSG:" + geometryColumn.srid));
+            List<String[]> tableColumns = db.getTableColumns(tableName);
+            for( String[] columnInfo : tableColumns ) {
+                String name = columnInfo[0];
+                if (name.equalsIgnoreCase(geometryColumn.geometryColumnName)) {
+                    EGeometryType geometryType = geometryColumn.geometryType;
+                    Class< ? > geometryClass = geometryType != null ? geometryType.getClazz() : null;
+                    b.add(name, geometryClass != null ? geometryClass : Geometry.class);
+                    continue;
+                }
+                Class< ? > fieldClass;
+                switch( EDataType.getType4Name(columnInfo[1]) ) {
+                case DOUBLE:
+                    fieldClass = Double.class;
+                    break;
+                case FLOAT:
+                    fieldClass = Float.class;
+                    break;
+                case INTEGER:
+                case BOOLEAN:
+                    fieldClass = Integer.class;
+                    break;
+                case LONG:
+                    fieldClass = Long.class;
+                    break;
+                default:
+                    fieldClass = String.class;
+                    break;
+                }
+                b.add(name, fieldClass);
+            }
+            return b.buildFeatureType();
+        }
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        try {
+            return new CursorIterator();
+        } catch (Exception e) {
+            throw new ModelsRuntimeException("Unable to read table " + tableName.name + ": " + e.getMessage(), this);
+        }
+    }
+
+    private class CursorIterator implements SimpleFeatureIterator {
+        private final ASpatialDb db;
+        private final HMCursor cursor;
+        private final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+        private SimpleFeature nextFeature;
+
+        CursorIterator() throws Exception {
+            db = openDb(dbType, dbPath);
+            try {
+                cursor = db.getTableCursorIn(tableName, null, -1, null, FETCH_SIZE);
+            } catch (Exception e) {
+                db.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextFeature != null) {
+                return true;
+            }
+            try {
+                if (!cursor.next()) {
+                    return false;
+                }
+                Object[] values = cursor.getRecord();
+                int geometryIndex = cursor.getGeometryIndex();
+                if (geometryIndex != -1) {
+                    values[geometryIndex] = cursor.getGeometry();
+                }
+                builder.addAll(values);
+                nextFeature = builder.buildFeature(null);
+                return true;
+            } catch (Exception e) {
+                throw new ModelsRuntimeException("Unable to read table " + tableName.name + ": " + e.getMessage(),
+                        SpatialDbFeatureCollection.this);
+            }
+        }
+
+        @Override
+        public SimpleFeature next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SimpleFeature feature = nextFeature;
+            nextFeature = null;
+            return feature;
+        }
+
+        @Override
+        public void close() {
+            try {
+                try {
+                    cursor.close();
+                } finally {
+                    db.close();
+                }
+            } catch (Exception e) {
+                throw new ModelsRuntimeException("Unable to close table " + tableName.name + ": " + e.getMessage(),
+                        SpatialDbFeatureCollection.this);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.features;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.BaseSimpleFeatureCollection;
+import org.hortonmachine.gears.libs.exceptions.ModelsRuntimeException;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * A lazy feature collection that applies a {@link IFeatureTransform} to the features of
+ * a source collection while they are iterated.
+ *
+ * <p>Nothing is kept in memory, every iteration pulls the features from the source again.
+ * Note that size and bounds are also computed by iterating, so consumers that are able
+ * to should avoid them.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class StreamingFeatureCollection extends BaseSimpleFeatureCollection {
+
+    private final SimpleFeatureCollection source;
+    private final IFeatureTransform transform;
+
+    /**
+     * @param source the collection to pull the features from.
+     * @param transform the transform to apply.
+     * @throws Exception
+     */
+    public StreamingFeatureCollection( SimpleFeatureCollection source, IFeatureTransform transform ) throws Exception {
+        super(transform.getSchema(source.getSchema()));
+        this.source = source;
+        this.transform = transform;
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        return new TransformingIterator(source.features());
+    }
+
+    private class TransformingIterator implements SimpleFeatureIterator {
+        private final SimpleFeatureIterator sourceIterator;
+        private final Deque<SimpleFeature> pending = new ArrayDeque<>();
+
+        TransformingIterator( SimpleFeatureIterator sourceIterator ) {
+            this.sourceIterator = sourceIterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while( pending.isEmpty() && sourceIterator.hasNext() ) {
+                SimpleFeature feature = sourceIterator.next();
+                try {
+                    pending.addAll(transform.transform(feature));
+                } catch (Exception e) {
+                    throw new ModelsRuntimeException("Unable to transform feature " + feature.getID() + ": " + e.getMessage(),
+                            StreamingFeatureCollection.this);
+                }
+            }
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public SimpleFeature next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pending.poll();
+        }
+
+        @Override
+        public void close() {
+            pending.clear();
+            sourceIterator.close();
+        }
+    }
+
+}
@@ -21,7 +21,6 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.util.List;
 
 import javax.imageio.ImageIO;
 
@@ -60,33 +59,28 @@ public class TileUtilities {
         SqlName tName = SqlName.m(tableName);
         if (otherZoomLevel > zoom) {
             // for higher zoomlevel, we need to retrieve the tiles and patch them together
-            List<int[]> tilesAtHigherZoom = MercatorUtils.getTilesAtHigherZoom(x, y, zoom, otherZoomLevel, tileSize);
             int delta = otherZoomLevel - zoom;
             int splits = (int) Math.pow(2, delta);
             int size = splits * tileSize;
             BufferedImage finalImage = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
             Graphics2D g2d = (Graphics2D) finalImage.getGraphics();
-//            g2d.setColor(transparent);
-//            g2d.fillRect(0, 0, size, size);
-            int runningX = 0;
-            int runningY = 0;
+            // all the sub tiles in one query
+            int minX = x * splits;
+            int minY = y * splits;
+            byte[][] tiles = gpkgDb.getTiles(tName, otherZoomLevel, minX, minX + splits - 1, minY, minY + splits - 1);
             boolean hasOne = false;
-            for( int[] zxy2 : tilesAtHigherZoom ) {
-                byte[] tile2 = gpkgDb.getTile(tName, zxy2[1], zxy2[2], zxy2[0]);
+            for( int i = 0; i < tiles.length; i++ ) {
+                byte[] tile2 = tiles[i];
                 if (tile2 != null) {
                     hasOne = true;
                     ByteArrayInputStream bais = new ByteArrayInputStream(tile2);
                     BufferedImage img = ImageIO.read(bais);
-                    int imageX = runningX * tileSize;
-                    int imageY = runningY * tileSize;
+                    int imageX = (i % splits) * tileSize;
+                    int imageY = (i / splits) * tileSize;
                     g2d.drawImage(img, imageX, imageY, null);
                 }
-                runningX++;
-                if (runningX == splits) {
-                    runningX = 0;
-                    runningY++;
-                }
             }
+            g2d.dispose();
 
             if (hasOne) {
                 // if we arrive here, the image was fully covered
@@ -453,4 +453,27 @@ public class NumericsUtilities {
         return popular;
     }
 
+    /**
+     * Calculates the morton (z-order) code of a pair of non negative integers.
+     * 
+     * <p>Sorting by the code keeps cells that are close in space close in the order.</p>
+     * 
+     * @param x the first value (ex. the column).
+     * @param y the second value (ex. the row).
+     * @return the code with the bits of x at even and the ones of y at odd positions.
+     */
+    public static long mortonCode( int x, int y ) {
+        return spreadBits(x) | (spreadBits(y) << 1);
+    }
+
+    private static long spreadBits( int value ) {
+        long v = value & 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
 }
@@ -0,0 +1,78 @@
+package org.hortonmachine.gears;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.hortonmachine.gears.libs.modules.FlowAccumulationEngine;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.HMTestCase;
+
+/**
+ * Test {@link FlowAccumulationEngine}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestFlowAccumulationEngine extends HMTestCase {
+
+    private static final int N = HMConstants.intNovalue;
+
+    private static final int[] FLOW = {//
+            1, 1, 1, 10, //
+            2, 2, 2, 3, //
+            N, 3, 3, 3 //
+    };
+
+    public void testAccumulate() throws Exception {
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(FLOW, 4, 3, N);
+        double[] tca = engine.accumulate(null);
+        double[] expected = {//
+                1, 3, 6, 11, //
+                1, 2, 2, 2, //
+                Double.NaN, 1, 1, 1 //
+        };
+        for( int i = 0; i < expected.length; i++ ) {
+            assertEquals(expected[i], tca[i], 0.0);
+        }
+        assertEquals(0, engine.getUnresolvedCount());
+
+        // excluded cells neither contribute nor propagate
+        engine.invalidate(engine.index(2, 0));
+        double[] weights = new double[FLOW.length];
+        Arrays.fill(weights, 2.0);
+        double[] summed = engine.accumulate(weights);
+        assertTrue(Double.isNaN(summed[engine.index(2, 0)]));
+        assertEquals(6.0, summed[engine.index(1, 0)], 0.0);
+        assertEquals(10.0, summed[engine.index(3, 0)], 0.0);
+    }
+
+    public void testLoops() throws Exception {
+        int[] flow = {1, 5, 5, 10};
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(flow, 4, 1, N);
+        double[] tca = engine.accumulate(null);
+        assertEquals(2, engine.getUnresolvedCount());
+        assertTrue(Double.isNaN(tca[0]));
+        assertTrue(Double.isNaN(tca[1]));
+        assertEquals(1.0, tca[2], 0.0);
+        assertEquals(1.0, tca[3], 0.0);
+
+        List<int[]> loops = engine.getLoops();
+        assertEquals(1, loops.size());
+        assertEquals(2, loops.get(0).length);
+    }
+
+    public void testPropagateUpstream() throws Exception {
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(FLOW, 4, 3, N);
+        int outlet = engine.index(3, 0);
+        assertEquals(0, engine.getFlow(outlet));
+        assertTrue(engine.touchesBound(outlet));
+
+        double[] steps = engine.propagateUpstream(new int[]{outlet}, new double[]{0},
+                ( index, flow, receiverIndex, value ) -> value + 1);
+        assertEquals(0.0, steps[outlet], 0.0);
+        assertEquals(3.0, steps[engine.index(0, 0)], 0.0);
+        assertEquals(3.0, steps[engine.index(1, 2)], 0.0);
+        assertEquals(2.0, steps[engine.index(3, 2)], 0.0);
+        assertTrue(Double.isNaN(steps[engine.index(0, 2)]));
+    }
+
+}
@@ -0,0 +1,119 @@
+package org.hortonmachine.gears;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.hortonmachine.gears.io.las.databases.LasCellCodec;
+import org.hortonmachine.gears.utils.HMTestCase;
+
+/**
+ * Test {@link LasCellCodec}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestLasCellCodec extends HMTestCase {
+
+    private static final int COUNT = 300;
+
+    public void testPositions() throws Exception {
+        double[] scale = {0.01, 0.01, 0.001};
+        double[] offset = {600000, 5100000, 0};
+        Random random = new Random(1);
+        double[] xyz = new double[COUNT * 3];
+        for( int i = 0; i < COUNT; i++ ) {
+            xyz[i * 3] = random.nextInt(500) * scale[0] + offset[0];
+            xyz[i * 3 + 1] = random.nextInt(500) * scale[1] + offset[1];
+            xyz[i * 3 + 2] = (200000 + random.nextInt(5000)) * scale[2] + offset[2];
+        }
+        byte[] blob = LasCellCodec.encodePositions(xyz, COUNT, scale, offset);
+        assertTrue(blob.length < COUNT * 24 / 3);
+        double[] decoded = new double[COUNT * 3];
+        LasCellCodec.decodePositions(blob, COUNT, decoded);
+        for( int i = 0; i < decoded.length; i++ ) {
+            assertEquals(xyz[i], decoded[i], 0.0);
+        }
+
+        // values not on the las grid are kept raw
+        xyz[4] += 0.000001;
+        blob = LasCellCodec.encodePositions(xyz, COUNT, scale, offset);
+        assertEquals(COUNT * 24, blob.length);
+        LasCellCodec.decodePositions(blob, COUNT, decoded);
+        assertEquals(xyz[4], decoded[4], 0.0);
+    }
+
+    public void testAttributes() throws Exception {
+        Random random = new Random(2);
+        short[] intensities = new short[COUNT];
+        short[] classifications = new short[COUNT];
+        short[] returnNumbers = new short[COUNT];
+        short[] numberOfReturns = new short[COUNT];
+        double[] gpsTimes = new double[COUNT];
+        short[] colors = new short[COUNT * 3];
+        for( int i = 0; i < COUNT; i++ ) {
+            intensities[i] = (short) (random.nextInt(300) - (i == 0 ? 32768 : 0));
+            classifications[i] = (short) (random.nextBoolean() ? 2 : 5);
+            numberOfReturns[i] = (short) (1 + random.nextInt(4));
+            returnNumbers[i] = (short) (1 + random.nextInt(numberOfReturns[i]));
+            gpsTimes[i] = 345678.123 + i * 0.00001;
+            colors[i * 3] = (short) random.nextInt(65535);
+            colors[i * 3 + 1] = 120;
+            colors[i * 3 + 2] = 130;
+        }
+
+        short[] s1 = new short[COUNT];
+        short[] s2 = new short[COUNT];
+        byte[] blob = LasCellCodec.encodeIntensitiesClassifications(intensities, classifications, COUNT);
+        assertTrue(blob.length < COUNT * 4);
+        LasCellCodec.decodeIntensitiesClassifications(blob, COUNT, s1, s2);
+        assertArrayEquals(intensities, s1);
+        assertArrayEquals(classifications, s2);
+
+        blob = LasCellCodec.encodeReturns(returnNumbers, numberOfReturns, COUNT);
+        assertTrue(blob.length < COUNT);
+        LasCellCodec.decodeReturns(blob, COUNT, s1, s2);
+        assertArrayEquals(returnNumbers, s1);
+        assertArrayEquals(numberOfReturns, s2);
+
+        blob = LasCellCodec.encodeGpsTimes(gpsTimes, COUNT);
+        assertTrue(blob.length < COUNT * 8 / 2);
+        double[] times = new double[COUNT];
+        LasCellCodec.decodeGpsTimes(blob, COUNT, times);
+        for( int i = 0; i < COUNT; i++ ) {
+            assertEquals(gpsTimes[i], times[i], 0.0);
+        }
+
+        blob = LasCellCodec.encodeColors(colors, COUNT);
+        short[] rgb = new short[COUNT * 3];
+        LasCellCodec.decodeColors(blob, COUNT, rgb);
+        assertArrayEquals(colors, rgb);
+    }
+
+    public void testLegacyBlobs() throws Exception {
+        // blobs written before the codec are raw big endian values
+        ByteBuffer buffer = ByteBuffer.allocate(2 * 24);
+        buffer.putDouble(1.5).putDouble(2.5).putDouble(3.5).putDouble(4.5).putDouble(5.5).putDouble(6.5);
+        double[] xyz = new double[6];
+        LasCellCodec.decodePositions(buffer.array(), 2, xyz);
+        assertEquals(6.5, xyz[5], 0.0);
+
+        buffer = ByteBuffer.allocate(2 * 4);
+        buffer.putShort((short) 10).putShort((short) 2).putShort((short) 20).putShort((short) 5);
+        short[] intensities = new short[2];
+        short[] classifications = new short[2];
+        LasCellCodec.decodeIntensitiesClassifications(buffer.array(), 2, intensities, classifications);
+        assertEquals(20, intensities[1]);
+        assertEquals(5, classifications[1]);
+
+        // a single point is never worth encoding
+        byte[] blob = LasCellCodec.encodeGpsTimes(new double[]{12.0}, 1);
+        assertEquals(8, blob.length);
+    }
+
+    private void assertArrayEquals( short[] expected, short[] actual ) {
+        assertEquals(expected.length, actual.length);
+        for( int i = 0; i < expected.length; i++ ) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+
+}
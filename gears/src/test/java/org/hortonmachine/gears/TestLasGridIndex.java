@@ -0,0 +1,78 @@
+package org.hortonmachine.gears;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.hortonmachine.gears.io.las.utils.LasGridIndex;
+import org.hortonmachine.gears.utils.HMTestCase;
+
+/**
+ * Test {@link LasGridIndex}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestLasGridIndex extends HMTestCase {
+
+    public void testRadiusQueries() throws Exception {
+        Random random = new Random(7);
+        int n = 2000;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for( int i = 0; i < n; i++ ) {
+            x[i] = 650000 + random.nextDouble() * 100;
+            y[i] = 5100000 + random.nextDouble() * 60;
+        }
+        LasGridIndex index = new LasGridIndex(x, y, 2.5);
+
+        double[] radiuses = {0.0, 1.0, 2.5, 7.3};
+        for( int q = 0; q < 50; q++ ) {
+            double cx = 649990 + random.nextDouble() * 120;
+            double cy = 5099990 + random.nextDouble() * 80;
+            for( double radius : radiuses ) {
+                List<Integer> expected = new ArrayList<>();
+                for( int i = 0; i < n; i++ ) {
+                    double dx = x[i] - cx;
+                    double dy = y[i] - cy;
+                    if (dx * dx + dy * dy <= radius * radius) {
+                        expected.add(i);
+                    }
+                }
+                List<Integer> found = new ArrayList<>();
+                index.forEachWithin(cx, cy, radius, i -> found.add(i));
+                Collections.sort(found);
+                assertEquals(expected, found);
+            }
+        }
+
+        // a point finds itself at radius 0
+        assertTrue(index.anyWithin(x[10], y[10], 0.0, i -> i == 10));
+        // negative radiuses find nothing
+        assertFalse(index.anyWithin(x[10], y[10], -1.0, i -> true));
+    }
+
+    public void testEarlyExitAndSparseGrid() throws Exception {
+        // two far away clusters, the cell size is enlarged to keep the grid small
+        double[] x = {0, 0.5, 1, 100000, 100000.5};
+        double[] y = {0, 0.5, 1, 100000, 100000.5};
+        LasGridIndex index = new LasGridIndex(x, y, 0.1);
+        assertTrue(index.getCellSize() > 0.1);
+
+        int[] visited = {0};
+        boolean found = index.anyWithin(0, 0, 2, i -> {
+            visited[0]++;
+            return true;
+        });
+        assertTrue(found);
+        assertEquals(1, visited[0]);
+
+        List<Integer> far = new ArrayList<>();
+        index.forEachWithin(100000, 100000, 1, i -> far.add(i));
+        Collections.sort(far);
+        assertEquals(2, far.size());
+        assertEquals(3, far.get(0).intValue());
+        assertEquals(4, far.get(1).intValue());
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.hortonmachine.gears;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.hortonmachine.gears.io.las.core.LasRecordBatch;
+import org.hortonmachine.gears.io.las.utils.LasSpatialSorter;
+import org.hortonmachine.gears.utils.HMTestCase;
+
+/**
+ * Test {@link LasSpatialSorter}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestLasSpatialSorter extends HMTestCase {
+
+    private LasRecordBatch createBatch( int n ) {
+        Random random = new Random(11);
+        LasRecordBatch batch = new LasRecordBatch(n);
+        batch.color = new short[n * 3];
+        for( int i = 0; i < n; i++ ) {
+            batch.x[i] = 650000 + random.nextDouble() * 300;
+            batch.y[i] = 5100000 + random.nextDouble() * 200;
+            batch.z[i] = i;
+            batch.intensity[i] = (short) (i % 1000);
+            batch.classification[i] = (byte) (i % 10);
+            batch.returnNumber[i] = 1;
+            batch.numberOfReturns[i] = 2;
+            batch.gpsTime[i] = i * 0.5;
+            batch.color[i * 3] = (short) (i % 255);
+        }
+        // a few duplicated positions
+        for( int i = 0; i < 20; i++ ) {
+            batch.x[n - 1 - i] = batch.x[i];
+            batch.y[n - 1 - i] = batch.y[i];
+        }
+        batch.size = n;
+        return batch;
+    }
+
+    private List<int[]> sort( LasRecordBatch batch, int chunkSize, File tmpFolder, int expectedRuns ) throws Exception {
+        List<int[]> result = new ArrayList<>();
+        try (LasSpatialSorter sorter = new LasSpatialSorter(650000, 5100000, 650300, 5100200, 3, 2, chunkSize, tmpFolder)) {
+            sorter.add(batch);
+            assertEquals(batch.size, sorter.getPointsNum());
+            assertEquals(expectedRuns, sorter.getRunsNum());
+
+            long[] previousKey = {-1};
+            sorter.merge(( tile, record ) -> {
+                int i = (int) record.z;
+                assertEquals(sorter.getTile(record.x, record.y), tile);
+                long key = sorter.getKey(record.x, record.y);
+                assertTrue(key >= previousKey[0]);
+                previousKey[0] = key;
+                assertEquals(batch.x[i], record.x, 0.0);
+                assertEquals(batch.y[i], record.y, 0.0);
+                assertEquals(batch.intensity[i], record.intensity);
+                assertEquals(batch.classification[i], record.classification);
+                assertEquals(batch.gpsTime[i], record.gpsTime, 0.0);
+                assertEquals(batch.color[i * 3], record.color[0]);
+                result.add(new int[]{tile, i});
+            });
+        }
+        return result;
+    }
+
+    public void testInMemoryAndSpilledSortsMatch() throws Exception {
+        int n = 5000;
+        LasRecordBatch batch = createBatch(n);
+        File tmpFolder = Files.createTempDirectory("lassorter").toFile();
+        try {
+            List<int[]> inMemory = sort(batch, n, tmpFolder, 0);
+            List<int[]> spilled = sort(batch, 333, tmpFolder, 15);
+            assertEquals(0, tmpFolder.listFiles().length);
+
+            assertEquals(n, inMemory.size());
+            assertEquals(n, spilled.size());
+            boolean[] seen = new boolean[n];
+            int previousTile = 0;
+            for( int i = 0; i < n; i++ ) {
+                int[] memoryItem = inMemory.get(i);
+                int[] spilledItem = spilled.get(i);
+                assertEquals(memoryItem[0], spilledItem[0]);
+                assertEquals(memoryItem[1], spilledItem[1]);
+                assertTrue(memoryItem[0] >= previousTile);
+                previousTile = memoryItem[0];
+                assertFalse(seen[memoryItem[1]]);
+                seen[memoryItem[1]] = true;
+            }
+            assertEquals(5, previousTile);
+        } finally {
+            tmpFolder.delete();
+        }
+    }
+
+    public void testTiles() throws Exception {
+        LasSpatialSorter sorter = new LasSpatialSorter(0, 0, 30, 20, 3, 2, 10, null);
+        // cols first from the west, rows from the south
+        assertEquals(0, sorter.getTile(1, 1));
+        assertEquals(1, sorter.getTile(1, 11));
+        assertEquals(2, sorter.getTile(11, 1));
+        assertEquals(5, sorter.getTile(29, 19));
+        // the upper bounds and the outside go to the nearest tile
+        assertEquals(5, sorter.getTile(30, 20));
+        assertEquals(0, sorter.getTile(-5, -5));
+        // morton order inside the tile
+        assertTrue(sorter.getKey(1, 1) < sorter.getKey(6, 1));
+        assertTrue(sorter.getKey(6, 1) < sorter.getKey(1, 6));
+        assertTrue(sorter.getKey(1, 6) < sorter.getKey(6, 6));
+        assertTrue(sorter.getKey(9.9, 9.9) < sorter.getKey(0, 10));
+        sorter.close();
+    }
+
+    public void testTileBounds() throws Exception {
+        // widths that are not exact in binary
+        try (LasSpatialSorter sorter = new LasSpatialSorter(0.1, 0.3, 0.7, 1.0, 3, 7, 10, null)) {
+            double[] bounds = sorter.getTileBounds(0);
+            assertEquals(0.1, bounds[0], 0.0);
+            assertEquals(0.3, bounds[2], 0.0);
+            bounds = sorter.getTileBounds(20);
+            assertEquals(0.7, bounds[1], 0.0);
+            assertEquals(1.0, bounds[3], 0.0);
+
+            for( int tile = 0; tile < 21; tile++ ) {
+                bounds = sorter.getTileBounds(tile);
+                // the west-south corner belongs to the tile
+                assertEquals(tile, sorter.getTile(bounds[0], bounds[2]));
+                // the points just before the east and north bounds too
+                assertEquals(tile, sorter.getTile(Math.nextDown(bounds[1]), Math.nextDown(bounds[3])));
+                if (tile < 20) {
+                    double[] next = sorter.getTileBounds(tile + 1);
+                    if (tile % 7 < 6) {
+                        assertEquals(bounds[3], next[2], 0.0);
+                    } else {
+                        assertEquals(bounds[1], next[0], 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.hortonmachine.gears;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.File;
+
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.coverage.MappedTiledImage;
+import org.hortonmachine.gears.utils.coverage.MappedTiledRaster;
+
+/**
+ * Test {@link MappedTiledRaster}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestMappedTiledRaster extends HMTestCase {
+
+    public void testReadWrite() throws Exception {
+        int cols = 37;
+        int rows = 21;
+        File file;
+        try (MappedTiledRaster raster = new MappedTiledRaster(cols, rows, DataBuffer.TYPE_DOUBLE, 8, -9999.0, null)) {
+            file = raster.getFile();
+            assertTrue(file.exists());
+            assertEquals(5, raster.getTilesX());
+            assertEquals(3, raster.getTilesY());
+
+            // untouched cells have the initial value
+            assertEquals(-9999.0, raster.getSampleDouble(36, 20, 0), 0.0);
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    if ((c + r) % 3 == 0) {
+                        raster.setSample(c, r, 0, c * 100.0 + r);
+                    }
+                }
+            }
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    double expected = (c + r) % 3 == 0 ? c * 100.0 + r : -9999.0;
+                    assertEquals(expected, raster.getSampleDouble(c, r, 0), 0.0);
+                }
+            }
+
+            double[] tile = new double[64];
+            raster.readTile(4, 2, tile);
+            assertEquals(raster.getSampleDouble(32, 16, 0), tile[0], 0.0);
+            assertEquals(raster.getSampleDouble(33, 17, 0), tile[9], 0.0);
+        }
+        assertFalse(file.exists());
+    }
+
+    public void testTypes() throws Exception {
+        try (MappedTiledRaster raster = new MappedTiledRaster(10, 10, DataBuffer.TYPE_INT, 4, 0, null)) {
+            raster.setSample(9, 9, 0, 12345);
+            assertEquals(12345, raster.getSample(9, 9, 0));
+            assertEquals(0, raster.getSample(0, 0, 0));
+        }
+        try (MappedTiledRaster raster = new MappedTiledRaster(10, 10, DataBuffer.TYPE_FLOAT, 4, Double.NaN, null)) {
+            assertTrue(Float.isNaN(raster.getSampleFloat(3, 7, 0)));
+            raster.setSample(3, 7, 0, 1.5f);
+            assertEquals(1.5, raster.getSampleDouble(3, 7, 0), 0.0);
+        }
+        try (MappedTiledRaster raster = new MappedTiledRaster(10, 10, DataBuffer.TYPE_SHORT, 4, -9999, null)) {
+            assertEquals(-9999, raster.getSample(5, 5, 0));
+            raster.setSample(5, 5, 0, 42);
+            assertEquals(42, raster.getSample(5, 5, 0));
+        }
+    }
+
+    public void testImageDisposeReleasesRaster() throws Exception {
+        MappedTiledRaster raster = new MappedTiledRaster(10, 10, DataBuffer.TYPE_DOUBLE, 4, 0, null);
+        File file = raster.getFile();
+        raster.setSample(6, 5, 0, 3.0);
+
+        MappedTiledImage image = new MappedTiledImage(raster);
+        Raster tile = image.getTile(1, 1);
+        assertEquals(3.0, tile.getSampleDouble(6, 5, 0), 0.0);
+        assertTrue(file.exists());
+
+        image.dispose();
+        assertFalse(file.exists());
+        try {
+            raster.getSampleDouble(6, 5, 0);
+            fail();
+        } catch (IllegalStateException e) {
+            // the data are no longer available
+        }
+    }
+
+}
@@ -137,4 +137,15 @@ public class TestNumericUtilities extends HMTestCase {
         mostPopular = NumericsUtilities.getMostPopular(a, 5);
         assertEquals(2, mostPopular);
     }
+
+    public void testMortonCode() throws Exception {
+        assertEquals(0L, NumericsUtilities.mortonCode(0, 0));
+        assertEquals(1L, NumericsUtilities.mortonCode(1, 0));
+        assertEquals(2L, NumericsUtilities.mortonCode(0, 1));
+        assertEquals(3L, NumericsUtilities.mortonCode(1, 1));
+        assertEquals(4L, NumericsUtilities.mortonCode(2, 0));
+        assertEquals(15L, NumericsUtilities.mortonCode(3, 3));
+        assertEquals(0x1555555555555555L, NumericsUtilities.mortonCode(Integer.MAX_VALUE, 0));
+        assertEquals(0x2AAAAAAAAAAAAAAAL, NumericsUtilities.mortonCode(0, Integer.MAX_VALUE));
+    }
 }
@@ -0,0 +1,99 @@
+package org.hortonmachine.gears;
+
+import java.util.BitSet;
+
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.modules.PriorityFloodEngine;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.LongMinHeap;
+
+/**
+ * Test {@link PriorityFloodEngine} and {@link LongMinHeap}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestPriorityFloodEngine extends HMTestCase {
+
+    public void testHeapOrder() throws Exception {
+        float[] values = {3f, -1f, 0f, -0.5f, 1000f, 3f, -2000f, 0.001f};
+        LongMinHeap heap = new LongMinHeap(2);
+        for( int i = 0; i < values.length; i++ ) {
+            heap.add(LongMinHeap.key(values[i], i));
+        }
+        float previous = Float.NEGATIVE_INFINITY;
+        int previousIndex = -1;
+        while( !heap.isEmpty() ) {
+            long key = heap.poll();
+            float value = LongMinHeap.value(key);
+            int index = LongMinHeap.index(key);
+            assertEquals(values[index], value, 0f);
+            assertTrue(value >= previous);
+            if (value == previous) {
+                assertTrue(index > previousIndex);
+            }
+            previous = value;
+            previousIndex = index;
+        }
+    }
+
+    public void testFillDepressions() throws Exception {
+        float N = Float.NaN;
+        float[] elev = {//
+                10, 10, 10, 10, 10, 10, //
+                10, 5, 5, 6, 7, 10, //
+                10, 5, 2, 6, 7, 8, //
+                10, 5, 5, 6, 7, 10, //
+                10, 10, 10, 10, N, 10 //
+        };
+        int cols = 6;
+        int rows = 5;
+        PriorityFloodEngine engine = new PriorityFloodEngine(elev, cols, rows, 1, 1);
+        BitSet raised = new BitSet();
+        int count = engine.fillDepressions(0f, raised);
+        assertTrue(count > 0);
+        assertTrue(raised.get(engine.index(2, 2)));
+        assertFalse(raised.get(engine.index(4, 2)));
+
+        // every valid internal cell needs to drain
+        for( int r = 1; r < rows - 1; r++ ) {
+            for( int c = 1; c < cols - 1; c++ ) {
+                int index = engine.index(c, r);
+                if (!engine.isValid(index) || engine.touchesNovalue(index)) {
+                    continue;
+                }
+                assertTrue(c + "/" + r, engine.getSteepestDescentFlow(index) != HMConstants.intNovalue);
+            }
+        }
+        // the pit is raised above the spill level
+        assertTrue(elev[engine.index(2, 2)] > 6f);
+    }
+
+    public void testFlood() throws Exception {
+        float[] elev = {//
+                9, 9, 9, 9, //
+                9, 3, 4, 9, //
+                9, 2, 5, 9, //
+                9, 1, 9, 9 //
+        };
+        PriorityFloodEngine engine = new PriorityFloodEngine(elev, 4, 4, 1, 1);
+        int[] receivers = new int[elev.length];
+        java.util.Arrays.fill(receivers, -1);
+        int[] polled = new int[1];
+        engine.flood(new PriorityFloodEngine.FloodVisitor(){
+            @Override
+            public void polled( int index ) {
+                polled[0]++;
+            }
+
+            @Override
+            public boolean accept( int current, int neighbour, int direction ) {
+                receivers[neighbour] = current;
+                return true;
+            }
+        }, false);
+        assertEquals(elev.length, polled[0]);
+        // the outlet is the lowest border cell, the inner cells drain down the valley
+        assertEquals(engine.index(1, 3), receivers[engine.index(1, 2)]);
+        assertEquals(engine.index(1, 2), receivers[engine.index(1, 1)]);
+    }
+}
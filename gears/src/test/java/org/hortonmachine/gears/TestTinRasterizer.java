@@ -0,0 +1,94 @@
+package org.hortonmachine.gears;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.coverage.TinRasterizer;
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Test {@link TinRasterizer}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestTinRasterizer extends HMTestCase {
+
+    private static final double NOVALUE = -9999.0;
+
+    private WritableRaster createRaster( int cols, int rows ) {
+        WritableRaster raster = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_DOUBLE, cols, rows, 1), null);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                raster.setSample(c, r, 0, NOVALUE);
+            }
+        }
+        return raster;
+    }
+
+    public void testPlane() throws Exception {
+        int cols = 50;
+        int rows = 37;
+        // unit cells, west 0 and north = rows
+        TinRasterizer rasterizer = new TinRasterizer(0, rows, 1, 1, cols, rows);
+
+        // z = x + 2y on a square of two triangles, bigger than the raster
+        Coordinate sw = new Coordinate(-5, -5, -15);
+        Coordinate se = new Coordinate(60, -5, 50);
+        Coordinate ne = new Coordinate(60, 45, 150);
+        Coordinate nw = new Coordinate(-5, 45, 85);
+        List<Coordinate[]> triangles = new ArrayList<>();
+        triangles.add(new Coordinate[]{sw, se, ne});
+        triangles.add(new Coordinate[]{sw, ne, nw});
+
+        WritableRaster raster = createRaster(cols, rows);
+        rasterizer.rasterize(triangles, raster, new DummyProgressMonitor());
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double x = c + 0.5;
+                double y = rows - r - 0.5;
+                assertEquals(x + 2 * y, raster.getSampleDouble(c, r, 0), 1E-9);
+            }
+        }
+    }
+
+    public void testCoverageAndOverlaps() throws Exception {
+        int cols = 10;
+        int rows = 10;
+        TinRasterizer rasterizer = new TinRasterizer(0, 10, 1, 1, cols, rows);
+
+        List<Coordinate[]> triangles = new ArrayList<>();
+        // flat triangle with a vertical side on the centers of column 2 and an horizontal one on the centers of row 7
+        triangles.add(new Coordinate[]{new Coordinate(2.5, 2.5, 1), new Coordinate(6.5, 2.5, 1), new Coordinate(2.5, 6.5, 1)});
+        // a higher triangle overlapping one cell
+        triangles.add(new Coordinate[]{new Coordinate(2.5, 2.5, 5), new Coordinate(3.0, 2.5, 5), new Coordinate(2.5, 3.0, 5)});
+        // a degenerate triangle is ignored
+        triangles.add(new Coordinate[]{new Coordinate(0, 0, 9), new Coordinate(5, 5, 9), new Coordinate(8, 8, 9)});
+
+        WritableRaster raster = createRaster(cols, rows);
+        rasterizer.rasterize(triangles, raster, new DummyProgressMonitor());
+
+        int count = 0;
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double value = raster.getSampleDouble(c, r, 0);
+                if (value != NOVALUE) {
+                    count++;
+                }
+            }
+        }
+        // 5 + 4 + 3 + 2 + 1 cell centers, borders included
+        assertEquals(15, count);
+        assertEquals(5.0, raster.getSampleDouble(2, 7, 0), 0.0);
+        assertEquals(1.0, raster.getSampleDouble(6, 7, 0), 0.0);
+        assertEquals(1.0, raster.getSampleDouble(2, 3, 0), 0.0);
+        assertEquals(NOVALUE, raster.getSampleDouble(3, 3, 0), 0.0);
+        assertEquals(NOVALUE, raster.getSampleDouble(1, 7, 0), 0.0);
+    }
+
+}
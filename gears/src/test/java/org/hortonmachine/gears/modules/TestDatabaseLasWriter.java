@@ -0,0 +1,222 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.hortonmachine.dbs.compat.ASpatialDb;
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.gears.io.las.databases.DatabaseLasWriter;
+import org.hortonmachine.gears.io.las.databases.LasCell;
+import org.hortonmachine.gears.io.las.databases.LasCellsTable;
+import org.hortonmachine.gears.io.las.databases.LasLevel;
+import org.hortonmachine.gears.io.las.databases.LasLevelsTable;
+import org.hortonmachine.gears.io.las.databases.LasSource;
+import org.hortonmachine.gears.io.las.databases.LasSourcesTable;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Test {@link DatabaseLasWriter}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestDatabaseLasWriter extends HMTestCase {
+
+    private static final String LAS_NAME = "1.2-with-color";
+    private static final int LEVELS = 2;
+
+    private File tmpFolder;
+
+    protected void setUp() throws Exception {
+        tmpFolder = Files.createTempDirectory("hm-laswriter").toFile();
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtilities.deleteFileOrDir(tmpFolder);
+    }
+
+    public void testBulkLoadMatchesNormalLoad() throws Exception {
+        File lasFolder = copyLas(new File(tmpFolder, "las"), LAS_NAME);
+        String normalDbPath = new File(tmpFolder, "normal" + EDb.H2GIS.getExtensionOnCreation()).getAbsolutePath();
+        String bulkDbPath = new File(tmpFolder, "bulk" + EDb.H2GIS.getExtensionOnCreation()).getAbsolutePath();
+        createWriter(lasFolder, normalDbPath, false).process();
+        createWriter(lasFolder, bulkDbPath, true).process();
+
+        try (ASpatialDb normalDb = EDb.H2GIS.getSpatialDb(); ASpatialDb bulkDb = EDb.H2GIS.getSpatialDb()) {
+            normalDb.open(normalDbPath);
+            bulkDb.open(bulkDbPath);
+
+            List<LasSource> normalSources = LasSourcesTable.getLasSources(normalDb);
+            List<LasSource> bulkSources = LasSourcesTable.getLasSources(bulkDb);
+            assertEquals(1, normalSources.size());
+            assertEquals(1, bulkSources.size());
+            LasSource normalSource = normalSources.get(0);
+            LasSource bulkSource = bulkSources.get(0);
+            assertEquals(normalSource.minIntens, bulkSource.minIntens, DELTA);
+            assertEquals(normalSource.maxIntens, bulkSource.maxIntens, DELTA);
+
+            // the cells are gridded the same way in both modes
+            List<LasCell> normalCells = LasCellsTable.getLasCellsBySource(normalDb, normalSource.id, true, true, true, true,
+                    true);
+            List<LasCell> bulkCells = LasCellsTable.getLasCellsBySource(bulkDb, bulkSource.id, true, true, true, true, true);
+            assertEquals(normalCells.size(), bulkCells.size());
+            assertTrue(normalCells.size() > 1);
+            Comparator<LasCell> cellsOrder = Comparator.comparing(c -> c.polygon.getEnvelopeInternal());
+            normalCells.sort(cellsOrder);
+            bulkCells.sort(cellsOrder);
+            int pointsCount = 0;
+            for( int i = 0; i < normalCells.size(); i++ ) {
+                LasCell normalCell = normalCells.get(i);
+                LasCell bulkCell = bulkCells.get(i);
+                assertTrue(normalCell.polygon.equalsExact(bulkCell.polygon));
+                assertEquals(normalCell.pointsCount, bulkCell.pointsCount);
+                assertEquals(normalCell.avgElev, bulkCell.avgElev, DELTA);
+                assertEquals(normalCell.minElev, bulkCell.minElev, DELTA);
+                assertEquals(normalCell.maxElev, bulkCell.maxElev, DELTA);
+                assertEquals(normalCell.avgIntensity, bulkCell.avgIntensity);
+                assertEquals(normalCell.minIntensity, bulkCell.minIntensity);
+                assertEquals(normalCell.maxIntensity, bulkCell.maxIntensity);
+                assertEquals(normalCell.minGpsTime, bulkCell.minGpsTime, DELTA);
+                assertEquals(normalCell.maxGpsTime, bulkCell.maxGpsTime, DELTA);
+                assertTrue(Arrays.equals(normalCell.xyzs, bulkCell.xyzs));
+                assertTrue(Arrays.equals(normalCell.intensitiesClassifications, bulkCell.intensitiesClassifications));
+                assertTrue(Arrays.equals(normalCell.returns, bulkCell.returns));
+                assertTrue(Arrays.equals(normalCell.gpsTimes, bulkCell.gpsTimes));
+                assertTrue(Arrays.equals(normalCell.colors, bulkCell.colors));
+                pointsCount += bulkCell.pointsCount;
+            }
+            assertEquals(1065, pointsCount);
+
+            for( int level = 1; level <= LEVELS; level++ ) {
+                assertTrue(LasLevelsTable.hasLevel(normalDb, level));
+                assertTrue(LasLevelsTable.hasLevel(bulkDb, level));
+                List<LasLevel> normalLevels = LasLevelsTable.getLasLevels(normalDb, level, (Envelope) null);
+                List<LasLevel> bulkLevels = LasLevelsTable.getLasLevels(bulkDb, level, (Envelope) null);
+                assertTrue(bulkLevels.size() > 0);
+
+                /*
+                 * The normal load summarizes in a tile everything that touches it, while
+                 * the bulk load only what has its center in it. The tiles are the same, the
+                 * bulk ones hold a subset of the values of the normal ones.
+                 */
+                double normalMin = Double.POSITIVE_INFINITY;
+                double normalMax = Double.NEGATIVE_INFINITY;
+                for( LasLevel normalLevel : normalLevels ) {
+                    normalMin = Math.min(normalMin, normalLevel.minElev);
+                    normalMax = Math.max(normalMax, normalLevel.maxElev);
+                }
+                double bulkMin = Double.POSITIVE_INFINITY;
+                double bulkMax = Double.NEGATIVE_INFINITY;
+                for( LasLevel bulkLevel : bulkLevels ) {
+                    bulkMin = Math.min(bulkMin, bulkLevel.minElev);
+                    bulkMax = Math.max(bulkMax, bulkLevel.maxElev);
+                    LasLevel normalLevel = findLevel(normalLevels, bulkLevel);
+                    assertNotNull(normalLevel);
+                    assertTrue(normalLevel.minElev <= bulkLevel.minElev);
+                    assertTrue(normalLevel.maxElev >= bulkLevel.maxElev);
+                    assertTrue(bulkLevel.avgElev >= bulkLevel.minElev && bulkLevel.avgElev <= bulkLevel.maxElev);
+                }
+                assertEquals(normalMin, bulkMin, DELTA);
+                assertEquals(normalMax, bulkMax, DELTA);
+            }
+            assertFalse(LasLevelsTable.hasLevel(bulkDb, LEVELS + 1));
+        }
+    }
+
+    public void testBulkLoadReturnsOnWriteErrors() throws Exception {
+        // enough files to fill the queue of the reader before the writer fails
+        File lasFolder = new File(tmpFolder, "las");
+        List<String> lasNames = new ArrayList<>();
+        for( int i = 0; i < 10; i++ ) {
+            String name = LAS_NAME + "_" + i;
+            copyLas(lasFolder, LAS_NAME, name);
+            lasNames.add(name + ".las");
+        }
+        String dbPath = new File(tmpFolder, "broken" + EDb.H2GIS.getExtensionOnCreation()).getAbsolutePath();
+        try (ASpatialDb db = EDb.H2GIS.getSpatialDb()) {
+            db.open(dbPath);
+            db.initSpatialMetadata(null);
+            // a cells table the inserts will fail on
+            db.createTable(LasCellsTable.TABLENAME, "id INTEGER PRIMARY KEY");
+        }
+
+        DatabaseLasWriter writer = createWriter(lasFolder, dbPath, true);
+        writer.inLasNames = lasNames;
+        Exception[] error = new Exception[1];
+        Thread processThread = new Thread(() -> {
+            try {
+                writer.process();
+            } catch (Exception e) {
+                error[0] = e;
+            }
+        });
+        processThread.start();
+        processThread.join(60000);
+        assertFalse("The bulk load did not return", processThread.isAlive());
+        assertNotNull(error[0]);
+    }
+
+    private DatabaseLasWriter createWriter( File lasFolder, String dbPath, boolean doBulkLoad ) {
+        DatabaseLasWriter writer = new DatabaseLasWriter();
+        writer.pm = pm;
+        writer.inFolder = lasFolder.getAbsolutePath();
+        writer.inDatabasePath = dbPath;
+        writer.pDbType = EDb.H2GIS.name();
+        writer.pCellsize = 100;
+        writer.pFactor = 2;
+        writer.pLevels = LEVELS;
+        writer.doBulkLoad = doBulkLoad;
+        return writer;
+    }
+
+    private LasLevel findLevel( List<LasLevel> levels, LasLevel level ) {
+        Envelope envelope = level.polygon.getEnvelopeInternal();
+        for( LasLevel other : levels ) {
+            Envelope otherEnvelope = other.polygon.getEnvelopeInternal();
+            if (Math.abs(otherEnvelope.getMinX() - envelope.getMinX()) < DELTA
+                    && Math.abs(otherEnvelope.getMinY() - envelope.getMinY()) < DELTA
+                    && Math.abs(otherEnvelope.getMaxX() - envelope.getMaxX()) < DELTA
+                    && Math.abs(otherEnvelope.getMaxY() - envelope.getMaxY()) < DELTA) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    private File copyLas( File folder, String name ) throws Exception {
+        return copyLas(folder, name, name);
+    }
+
+    private File copyLas( File folder, String name, String newName ) throws Exception {
+        folder.mkdirs();
+        for( String ext : new String[]{".las", ".prj"} ) {
+            URL url = this.getClass().getClassLoader().getResource("las/" + name + ext);
+            Files.copy(new File(url.toURI()).toPath(), new File(folder, newName + ext).toPath());
+        }
+        return folder;
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.hortonmachine.gears.io.vectorreader.OmsVectorReader;
+import org.hortonmachine.gears.modules.v.vectorclipper.OmsVectorClipper;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.HMTestMaps;
+import org.hortonmachine.gears.utils.features.FeaturePipeline;
+import org.hortonmachine.gears.utils.features.FeatureUtilities;
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.io.WKTReader;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Test {@link FeaturePipeline}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestFeaturePipeline extends HMTestCase {
+
+    public void testReadClipWrite() throws Exception {
+        SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+        b.setName("lines");
+        b.setCRS(HMTestMaps.getCrs());
+        b.add("the_geom", LineString.class);
+        b.add("id", Integer.class);
+        SimpleFeatureType type = b.buildFeatureType();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+
+        DefaultFeatureCollection lines = new DefaultFeatureCollection();
+        for( int i = 0; i < 100; i++ ) {
+            LineString line = GeometryUtilities.gf()
+                    .createLineString(new Coordinate[]{new Coordinate(i, 0), new Coordinate(i, 10)});
+            builder.addAll(new Object[]{line, i});
+            lines.add(builder.buildFeature(null));
+        }
+
+        File tmpFile = File.createTempFile("hm_pipeline_", ".shp");
+        tmpFile.delete();
+        FeaturePipeline.from(lines).write(tmpFile.getAbsolutePath(), null);
+
+        // only the first 50 lines are clipped, to half their length
+        Geometry clipper = new WKTReader().read("POLYGON ((-1 -1, 49.5 -1, 49.5 5, -1 5, -1 -1))");
+        File clippedFile = File.createTempFile("hm_pipeline_clipped_", ".shp");
+        clippedFile.delete();
+        FeaturePipeline.read(tmpFile.getAbsolutePath())//
+                .filter(f -> ((Number) f.getAttribute("id")).intValue() % 2 == 0)//
+                .transform(OmsVectorClipper.clipTransform(Arrays.asList(clipper)))//
+                .write(clippedFile.getAbsolutePath(), null);
+
+        SimpleFeatureCollection clipped = OmsVectorReader.readVector(clippedFile.getAbsolutePath());
+        List<SimpleFeature> clippedList = FeatureUtilities.featureCollectionToList(clipped);
+        assertEquals(25, clippedList.size());
+        for( SimpleFeature feature : clippedList ) {
+            assertEquals(5.0, ((Geometry) feature.getDefaultGeometry()).getLength(), DELTA);
+        }
+    }
+
+    public void testWriteGeometryNotFirst() throws Exception {
+        SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+        b.setName("points");
+        b.setCRS(HMTestMaps.getCrs());
+        b.add("id", Integer.class);
+        b.add("name", String.class);
+        b.add("geom", Point.class);
+        b.add("value", Double.class);
+        SimpleFeatureType type = b.buildFeatureType();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+
+        DefaultFeatureCollection points = new DefaultFeatureCollection();
+        for( int i = 0; i < 10; i++ ) {
+            Point point = GeometryUtilities.gf().createPoint(new Coordinate(i, 2 * i));
+            builder.addAll(new Object[]{i, "point" + i, point, i * 0.5});
+            points.add(builder.buildFeature(null));
+        }
+
+        File tmpFile = File.createTempFile("hm_pipeline_points_", ".shp");
+        tmpFile.delete();
+        FeaturePipeline.from(points).write(tmpFile.getAbsolutePath(), null);
+
+        SimpleFeatureCollection written = OmsVectorReader.readVector(tmpFile.getAbsolutePath());
+        List<SimpleFeature> writtenList = FeatureUtilities.featureCollectionToList(written);
+        assertEquals(10, writtenList.size());
+        for( SimpleFeature feature : writtenList ) {
+            int id = ((Number) feature.getAttribute("id")).intValue();
+            assertEquals("point" + id, feature.getAttribute("name"));
+            assertEquals(id * 0.5, ((Number) feature.getAttribute("value")).doubleValue(), DELTA);
+            Point point = (Point) feature.getDefaultGeometry();
+            assertEquals(id, point.getX(), DELTA);
+            assertEquals(2.0 * id, point.getY(), DELTA);
+        }
+    }
+
+}
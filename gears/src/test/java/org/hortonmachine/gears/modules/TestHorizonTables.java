@@ -0,0 +1,104 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import org.hortonmachine.gears.libs.modules.HorizonTables;
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.hortonmachine.gears.utils.HMTestCase;
+
+/**
+ * Test for {@link HorizonTables}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestHorizonTables extends HMTestCase {
+
+    private static final int SIZE = 11;
+    private static final double NOVALUE = -9999.0;
+    private static final double DELTA = 0.001;
+
+    private HorizonTables wallTables() {
+        double[] elevation = new double[SIZE * SIZE];
+        // a 10 meters high north-south wall on the eastern border
+        for( int row = 0; row < SIZE; row++ ) {
+            elevation[row * SIZE + SIZE - 1] = 10;
+        }
+        elevation[5 * SIZE] = NOVALUE;
+        return HorizonTables.compute(elevation, SIZE, SIZE, 1.0, NOVALUE, 8, new DummyProgressMonitor());
+    }
+
+    public void testHorizons() throws Exception {
+        HorizonTables tables = wallTables();
+        assertEquals(8, tables.getSectors());
+
+        int east = tables.getSector(Math.PI / 2);
+        int west = tables.getSector(3 * Math.PI / 2);
+        assertEquals(2, east);
+        assertEquals(6, west);
+        assertEquals(0, tables.getSector(2 * Math.PI - 0.1));
+
+        // looking east from 5 cells away
+        assertEquals(Math.atan(10 / 5.0), tables.getHorizonAngle(east, 5, 5), DELTA);
+        assertEquals(Math.atan(10 / 1.0), tables.getHorizonAngle(east, 9, 5), DELTA);
+        // looking west the plane is flat
+        assertEquals(0.0, tables.getHorizonAngle(west, 5, 5), DELTA);
+        // the wall has nothing in front of it
+        assertEquals(-Math.PI / 2, tables.getHorizonAngle(east, SIZE - 1, 5), DELTA);
+        assertTrue(Double.isNaN(tables.getHorizonAngle(east, 0, 5)));
+    }
+
+    public void testShadows() throws Exception {
+        HorizonTables tables = wallTables();
+
+        // a sun low in the east, 30 degrees high
+        double elevation = Math.toRadians(30);
+        double[] sunVector = {Math.cos(elevation), 0, Math.sin(elevation)};
+        int sector = tables.getSunSector(sunVector);
+        assertEquals(2, sector);
+        assertEquals(elevation, HorizonTables.getSunElevation(sunVector), DELTA);
+
+        // the wall shades the cells closer than 10 / tan(30) = 17 cells
+        assertTrue(tables.isShadowed(sector, 5, 5, elevation));
+        assertTrue(tables.isShadowed(sector, 0, 3, elevation));
+        assertFalse(tables.isShadowed(sector, SIZE - 1, 5, elevation));
+        assertFalse(tables.isShadowed(sector, 0, 5, elevation));
+
+        // a sun from the west, in raster space y grows toward south
+        sunVector = new double[]{-Math.cos(elevation), 0, Math.sin(elevation)};
+        sector = tables.getSunSector(sunVector);
+        assertEquals(6, sector);
+        assertFalse(tables.isShadowed(sector, 5, 5, elevation));
+
+        // a sun from the north
+        assertEquals(0, tables.getSunSector(new double[]{0, -1, 1}));
+    }
+
+    public void testMatches() throws Exception {
+        HorizonTables tables = wallTables();
+        assertEquals(1.0, tables.getResolution(), DELTA);
+        assertTrue(tables.matches(SIZE, SIZE, 1.0, 8));
+        // no number of sectors asked for
+        assertTrue(tables.matches(SIZE, SIZE, 1.0, 0));
+
+        assertFalse(tables.matches(SIZE + 1, SIZE, 1.0, 8));
+        assertFalse(tables.matches(SIZE, SIZE - 1, 1.0, 8));
+        assertFalse(tables.matches(SIZE, SIZE, 2.0, 8));
+        assertFalse(tables.matches(SIZE, SIZE, 1.0, 16));
+    }
+
+}
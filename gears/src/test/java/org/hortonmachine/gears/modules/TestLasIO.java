@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.stream.LongStream;
 
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
@@ -29,8 +30,10 @@ import org.hortonmachine.gears.io.las.core.ALasWriter;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
 import org.hortonmachine.gears.io.las.core.Las;
 import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.LasRecordBatch;
 import org.hortonmachine.gears.io.las.core.laszip4j.LaszipReader;
 import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderBuffered;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderMapped;
 import org.hortonmachine.gears.io.las.utils.LasUtils;
 import org.hortonmachine.gears.utils.HMTestCase;
 public class TestLasIO extends HMTestCase {
@@ -186,6 +189,57 @@ public class TestLasIO extends HMTestCase {
 
     }
 
+    public void testMappedLasReader() throws Exception {
+        File lasFile = fileFromName("las/1.2-with-color.las");
+        try (ALasReader bufferedReader = new LasReaderBuffered(lasFile, null);
+                LasReaderMapped mappedReader = new LasReaderMapped(lasFile, null)) {
+            bufferedReader.open();
+            mappedReader.open();
+            assertEquals(1065, mappedReader.getPointsCount());
+
+            LasRecordBatch batch = new LasRecordBatch(100);
+            batch.color = new short[300];
+            long index = 0;
+            while( mappedReader.readNextBatch(batch) > 0 ) {
+                for( int i = 0; i < batch.size; i++ ) {
+                    LasRecord dot = bufferedReader.getNextPoint();
+                    assertEquals(dot.x, batch.x[i], 0.0);
+                    assertEquals(dot.y, batch.y[i], 0.0);
+                    assertEquals(dot.z, batch.z[i], 0.0);
+                    assertEquals(dot.intensity, batch.intensity[i]);
+                    assertEquals(dot.classification, batch.classification[i]);
+                    assertEquals(dot.returnNumber, batch.returnNumber[i]);
+                    assertEquals(dot.numberOfReturns, batch.numberOfReturns[i]);
+                    assertEquals(dot.gpsTime, batch.gpsTime[i], 0.0);
+                    assertEquals(dot.color[0], batch.color[i * 3]);
+                    assertEquals(dot.color[1], batch.color[i * 3 + 1]);
+                    assertEquals(dot.color[2], batch.color[i * 3 + 2]);
+
+                    LasRecord mappedDot = mappedReader.getPointAt(index++);
+                    assertEquals(dot.z, mappedDot.z, 0.0);
+                }
+            }
+            assertEquals(1065, index);
+
+            // disjoint ranges read in parallel
+            double sequentialSum = 0;
+            mappedReader.rewind();
+            while( mappedReader.hasNextPoint() ) {
+                sequentialSum += mappedReader.getNextPoint().z;
+            }
+            double parallelSum = LongStream.range(0, 11).parallel().mapToDouble(chunk -> {
+                LasRecordBatch chunkBatch = new LasRecordBatch(100);
+                int read = mappedReader.readBatch(chunk * 100, chunkBatch);
+                double sum = 0;
+                for( int i = 0; i < read; i++ ) {
+                    sum += chunkBatch.z[i];
+                }
+                return sum;
+            }).sum();
+            assertEquals(sequentialSum, parallelSum, 0.000001);
+        }
+    }
+
     private void checkFileContent( File lasFile ) throws URISyntaxException, Exception, IOException {
         try (LasReaderBuffered lasReaderBuffered = new LasReaderBuffered(lasFile, null);
                 LaszipReader lasReaderEachPoint = new LaszipReader(lasFile, null);) {
@@ -0,0 +1,92 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hortonmachine.gears.io.las.index.LasPagedIndex;
+import org.hortonmachine.gears.io.las.index.LasPagedIndex.Chunk;
+import org.hortonmachine.gears.io.las.index.LasPagedIndex.IndexedFile;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Test {@link LasPagedIndex}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestLasPagedIndex extends HMTestCase {
+
+    public void testWriteAndQuery() throws Exception {
+        // a file with more chunks than fit in a page and a small one
+        List<Chunk> chunks1 = new ArrayList<>();
+        int cells = 20;
+        long point = 0;
+        for( int r = 0; r < cells; r++ ) {
+            for( int c = 0; c < cells; c++ ) {
+                chunks1.add(new Chunk(c, r, c + 0.9, r + 0.9, point, point + 10, r, c));
+                point += 10;
+            }
+        }
+        List<Chunk> chunks2 = new ArrayList<>();
+        chunks2.add(new Chunk(100, 100, 101, 101, 0, 5, 1, 2));
+
+        List<IndexedFile> files = new ArrayList<>();
+        files.add(new IndexedFile("first_indexed.las", new double[]{0, 0, 0, cells, cells, cells}, chunks1));
+        files.add(new IndexedFile("second_indexed.las", new double[]{100, 100, 1, 101, 101, 1}, chunks2));
+
+        File indexFile = File.createTempFile("hm_test_", "." + LasPagedIndex.EXTENSION);
+        try {
+            LasPagedIndex.write(indexFile, files);
+            try (LasPagedIndex index = LasPagedIndex.open(indexFile)) {
+                assertEquals(2, index.getFilesCount());
+                assertEquals("first_indexed.las", index.getFileName(0));
+                assertEquals("second_indexed.las", index.getFileName(1));
+                assertEquals(101.0, index.getFileBounds(1)[3], DELTA);
+
+                List<long[]> found = new ArrayList<>();
+                index.query(new Envelope(2.5, 3.5, 4.5, 4.8), ( fileIndex, fromPoint, toPoint, avgElev, avgIntensity ) -> {
+                    found.add(new long[]{fileIndex, fromPoint, toPoint});
+                    assertEquals(4.0, avgElev, DELTA);
+                    assertEquals(fromPoint / 10 % cells, avgIntensity, DELTA);
+                });
+                assertEquals(2, found.size());
+                assertEquals(0, found.get(0)[0]);
+                assertEquals((4 * cells + 2) * 10, found.get(0)[1]);
+                assertEquals((4 * cells + 3) * 10, found.get(1)[1]);
+
+                found.clear();
+                index.query(new Envelope(99, 200, 99, 200), ( fileIndex, fromPoint, toPoint, avgElev, avgIntensity ) -> {
+                    found.add(new long[]{fileIndex, fromPoint, toPoint});
+                });
+                assertEquals(1, found.size());
+                assertEquals(1, found.get(0)[0]);
+                assertEquals(5, found.get(0)[2]);
+
+                List<Chunk> readChunks = index.getChunks(0);
+                assertEquals(chunks1.size(), readChunks.size());
+                assertEquals(chunks1.get(cells * cells - 1).toPoint, readChunks.get(cells * cells - 1).toPoint);
+            }
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.hortonmachine.gears.modules.v.intersections.LinesIntersectionEngine;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.io.WKTReader;
+
+/**
+ * Test {@link LinesIntersectionEngine}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestLinesIntersectionEngine extends HMTestCase {
+
+    public void testPairsMatchBruteForce() throws Exception {
+        GeometryFactory gf = new GeometryFactory();
+        Random random = new Random(42);
+        List<LineString> lines = new ArrayList<>();
+        for( int i = 0; i < 2500; i++ ) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            Coordinate[] coordinates = new Coordinate[4];
+            for( int j = 0; j < coordinates.length; j++ ) {
+                coordinates[j] = new Coordinate(x, y);
+                x += random.nextDouble() * 40 - 20;
+                y += random.nextDouble() * 40 - 20;
+            }
+            lines.add(gf.createLineString(coordinates));
+        }
+
+        List<String> expected = new ArrayList<>();
+        for( int i = 0; i < lines.size(); i++ ) {
+            for( int j = i + 1; j < lines.size(); j++ ) {
+                if (lines.get(i).intersects(lines.get(j))) {
+                    expected.add(i + "-" + j);
+                }
+            }
+        }
+        assertTrue(expected.size() > 0);
+
+        for( int threads : new int[]{1, 4} ) {
+            LinesIntersectionEngine engine = new LinesIntersectionEngine(lines);
+            engine.setThreads(threads);
+            List<String> pairs = new ArrayList<>();
+            engine.intersectingPairs(( prepared, other ) -> lines.indexOf(prepared.getGeometry()) + "-" + lines.indexOf(other),
+                    pairs::add, new DummyProgressMonitor());
+            assertEquals(expected, pairs);
+        }
+    }
+
+    public void testUpdate() throws Exception {
+        WKTReader reader = new WKTReader();
+        List<Geometry> lines = Arrays.asList(//
+                reader.read("LINESTRING (0 0, 10 10)"), //
+                reader.read("LINESTRING (0 10, 10 0)"), //
+                reader.read("LINESTRING (20 0, 20 10)"));
+        LinesIntersectionEngine engine = new LinesIntersectionEngine(lines);
+
+        Geometry check = reader.read("LINESTRING (0 5, 25 5)");
+        assertEquals(Arrays.asList(0, 1, 2), engine.intersecting(check));
+
+        engine.update(1, null);
+        engine.update(2, reader.read("LINESTRING (30 0, 30 10)"));
+        assertEquals(Arrays.asList(0), engine.intersecting(check));
+        assertTrue(engine.intersectsAny(check));
+        assertFalse(engine.intersectsAny(reader.read("LINESTRING (100 100, 110 110)")));
+    }
+
+}
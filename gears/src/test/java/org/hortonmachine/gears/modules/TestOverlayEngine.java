@@ -0,0 +1,101 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hortonmachine.gears.modules.v.vectoroverlayoperators.OverlayEngine;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+
+/**
+ * Test {@link OverlayEngine}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestOverlayEngine extends HMTestCase {
+
+    private List<Geometry> overlay;
+
+    protected void setUp() throws Exception {
+        WKTReader reader = new WKTReader();
+        overlay = new ArrayList<>();
+        overlay.add(reader.read("POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))"));
+        overlay.add(reader.read("POLYGON ((10 0, 20 0, 20 10, 10 10, 10 0))"));
+        overlay.add(reader.read("POLYGON ((100 100, 110 100, 110 110, 100 110, 100 100))"));
+    }
+
+    public void testSingleGeometries() throws Exception {
+        WKTReader reader = new WKTReader();
+        OverlayEngine engine = new OverlayEngine(overlay);
+        assertEquals(3, engine.getSize());
+
+        // crosses the first two squares
+        Geometry crossing = reader.read("POLYGON ((5 5, 15 5, 15 15, 5 15, 5 5))");
+        assertEquals(50.0, engine.intersection(crossing).getArea(), DELTA);
+        assertEquals(50.0, engine.difference(crossing).getArea(), DELTA);
+
+        // inside the first square
+        Geometry inside = reader.read("POLYGON ((1 1, 2 1, 2 2, 1 2, 1 1))");
+        assertTrue(engine.intersection(inside).equalsExact(inside));
+        assertNull(engine.difference(inside));
+
+        // far from everything
+        Geometry outside = reader.read("POLYGON ((50 50, 51 50, 51 51, 50 51, 50 50))");
+        assertNull(engine.intersection(outside));
+        assertTrue(engine.difference(outside).equalsExact(outside));
+    }
+
+    public void testStreamKeepsOrder() throws Exception {
+        WKTReader reader = new WKTReader();
+        List<Geometry> geometries = new ArrayList<>();
+        for( int i = 0; i < 25000; i++ ) {
+            double x = i % 30;
+            geometries.add(reader.read("POLYGON ((" + x + " 0, " + (x + 1) + " 0, " + (x + 1) + " 2, " + x + " 2, " + x + " 0))"));
+        }
+
+        for( boolean doParallel : new boolean[]{true, false} ) {
+            OverlayEngine engine = new OverlayEngine(overlay);
+            engine.setDoParallel(doParallel);
+
+            List<Geometry> seen = new ArrayList<>();
+            double[] areas = new double[2];
+            engine.intersection(geometries.iterator(), g -> g, ( item, result ) -> {
+                seen.add(item);
+                if (result != null) {
+                    areas[0] += result.getArea();
+                }
+            });
+            engine.difference(geometries.iterator(), g -> g, ( item, result ) -> {
+                if (result != null) {
+                    areas[1] += result.getArea();
+                }
+            });
+
+            assertEquals(geometries, seen);
+            double totalArea = 2.0 * geometries.size();
+            // 20 of every 30 squares are covered by the overlay
+            double expectedIntersection = 2.0 * 20 * (geometries.size() / 30) + 2.0 * Math.min(20, geometries.size() % 30);
+            assertEquals(expectedIntersection, areas[0], DELTA);
+            assertEquals(totalArea - expectedIntersection, areas[1], DELTA);
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.io.File;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.io.rasterreader.OmsRasterReader;
+import org.hortonmachine.gears.io.rasterreader.RasterBlock;
+import org.hortonmachine.gears.io.rasterreader.RasterBlockReader;
+import org.hortonmachine.gears.io.rasterwriter.RasterBlockWriter;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.modules.r.summary.OmsRasterSummary;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.HMTestMaps;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Test for {@link RasterBlockReader} and {@link RasterBlockWriter}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestRasterBlocks extends HMTestCase {
+
+    public void testReadWriteBlocks() throws Exception {
+        double[][] mapData = HMTestMaps.mapData;
+        RegionMap envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D inCoverage = CoverageUtilities.buildCoverage("elev", mapData, envelopeParams, crs, true);
+
+        File tmpFile = File.createTempFile("hm_blocks_", ".asc");
+        try (RasterBlockReader reader = new RasterBlockReader(inCoverage, 3);
+                RasterBlockWriter writer = new RasterBlockWriter(tmpFile.getAbsolutePath(), reader.getRegionMap(),
+                        reader.getCrs(), reader.getNovalue())) {
+            int blocks = 0;
+            int expectedRow = 0;
+            while( reader.hasNext() ) {
+                RasterBlock block = reader.next();
+                assertEquals(expectedRow, block.getStartRow());
+                for( int r = 0; r < block.getRows(); r++ ) {
+                    for( int c = 0; c < block.getCols(); c++ ) {
+                        double expected = mapData[block.getStartRow() + r][c];
+                        double value = block.getValue(c, r);
+                        if (HMConstants.isNovalue(expected)) {
+                            assertTrue(HMConstants.isNovalue(value));
+                        } else {
+                            assertEquals(expected, value, 0.0);
+                        }
+                    }
+                }
+                writer.write(block);
+                expectedRow += block.getRows();
+                blocks++;
+            }
+            assertEquals(3, blocks);
+            assertEquals(mapData.length, expectedRow);
+        }
+
+        GridCoverage2D readCoverage = OmsRasterReader.readRaster(tmpFile.getAbsolutePath());
+        checkMatrixEqual(readCoverage.getRenderedImage(), mapData, 0.0);
+
+        double[] stats = OmsRasterSummary.summarize(tmpFile.getAbsolutePath());
+        double[] minMaxAvgSum = OmsRasterSummary.getMinMaxAvgSum(inCoverage);
+        assertEquals(minMaxAvgSum[0], stats[0], DELTA);
+        assertEquals(minMaxAvgSum[1], stats[1], DELTA);
+        assertEquals(minMaxAvgSum[2], stats[2], DELTA);
+        assertEquals(minMaxAvgSum[3], stats[4], DELTA);
+
+        tmpFile.delete();
+        new File(tmpFile.getAbsolutePath().replaceFirst("\\.asc$", ".prj")).delete();
+    }
+
+    public void testAbortDeletesPartialRaster() throws Exception {
+        double[][] mapData = HMTestMaps.mapData;
+        RegionMap envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D inCoverage = CoverageUtilities.buildCoverage("elev", mapData, envelopeParams, crs, true);
+
+        File tmpFile = File.createTempFile("hm_blocks_", ".asc");
+        File prjFile = new File(tmpFile.getAbsolutePath().replaceFirst("\\.asc$", ".prj"));
+        try (RasterBlockReader reader = new RasterBlockReader(inCoverage, 3);
+                RasterBlockWriter writer = new RasterBlockWriter(tmpFile.getAbsolutePath(), reader.getRegionMap(),
+                        reader.getCrs(), reader.getNovalue())) {
+            writer.write(reader.next());
+            writer.abort();
+        }
+
+        // neither padded nor completed with the projection
+        assertFalse(tmpFile.exists());
+        assertFalse(prjFile.exists());
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import static org.hortonmachine.gears.modules.r.tmsgenerator.MBTilesHelper.TILESIZE;
+
+import java.util.Arrays;
+
+import org.hortonmachine.gears.modules.r.tmsgenerator.TileImages;
+import org.hortonmachine.gears.utils.HMTestCase;
+
+/**
+ * Test for {@link TileImages}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestTileImages extends HMTestCase {
+
+    private static final int RED = 0xFFFF0000;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    public void testClassify() throws Exception {
+        TileImages tileImages = new TileImages(new int[]{255, 255, 255});
+
+        int[] pixels = new int[TileImages.PIXELS];
+        assertEquals(TileImages.EMPTY, tileImages.classify(pixels));
+
+        Arrays.fill(pixels, WHITE);
+        assertEquals(TileImages.CHECKCOLOR, tileImages.classify(pixels));
+
+        pixels[1000] = RED;
+        assertEquals(TileImages.CONTENT, tileImages.classify(pixels));
+
+        Arrays.fill(pixels, RED);
+        assertEquals(TileImages.CONTENT, tileImages.classify(pixels));
+
+        // a difference in the last pixel only
+        Arrays.fill(pixels, 0);
+        pixels[TileImages.PIXELS - 1] = WHITE;
+        assertEquals(TileImages.CONTENT, tileImages.classify(pixels));
+
+        Arrays.fill(pixels, WHITE);
+        assertEquals(TileImages.CONTENT, new TileImages(null).classify(pixels));
+    }
+
+    public void testDownsample() throws Exception {
+        int[] red = new int[TileImages.PIXELS];
+        Arrays.fill(red, RED);
+        int[] stripes = new int[TileImages.PIXELS];
+        for( int i = 0; i < stripes.length; i += 2 ) {
+            stripes[i] = 0xFF000000;
+            stripes[i + 1] = WHITE;
+        }
+
+        int[] parent = TileImages.downsample(red, null, null, stripes);
+        // north west is red
+        assertEquals(RED, parent[0]);
+        // north east is transparent
+        assertEquals(0, parent[TILESIZE - 1]);
+        // south east is the average of black and white
+        int pixel = parent[TileImages.PIXELS - 1];
+        assertEquals(0xFF, pixel >>> 24);
+        assertEquals(128, pixel >> 16 & 0xFF);
+
+        // transparent pixels don't change the color
+        int[] half = new int[TileImages.PIXELS];
+        for( int i = 0; i < half.length; i += 2 ) {
+            half[i] = RED;
+        }
+        parent = TileImages.downsample(half, half, half, half);
+        assertEquals(0x80FF0000, parent[0]);
+    }
+
+    public void testEncoding() throws Exception {
+        int[] pixels = new int[TileImages.PIXELS];
+        for( int i = 0; i < pixels.length; i++ ) {
+            pixels[i] = 0xFF000000 | i;
+        }
+        int[] decoded = TileImages.decode(TileImages.encode(pixels, "png"));
+        assertTrue(Arrays.equals(pixels, decoded));
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import static org.hortonmachine.gears.libs.modules.Variables.DIFFERENCE;
+import static org.hortonmachine.gears.libs.modules.Variables.INTERSECTION;
+import static org.hortonmachine.gears.libs.modules.Variables.SYMDIFFERENCE;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.hortonmachine.gears.modules.v.vectoroverlayoperators.OmsVectorOverlayOperators;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.features.FeatureUtilities;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Test {@link OmsVectorOverlayOperators}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestVectorOverlayOperators extends HMTestCase {
+
+    private SimpleFeatureCollection map1;
+    private SimpleFeatureCollection map2;
+
+    protected void setUp() throws Exception {
+        WKTReader reader = new WKTReader();
+        map1 = FeatureUtilities.featureCollectionFromGeometry(DefaultGeographicCRS.WGS84,
+                reader.read("POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))"),
+                reader.read("POLYGON ((10 0, 20 0, 20 10, 10 10, 10 0))"));
+        map2 = FeatureUtilities.featureCollectionFromGeometry(DefaultGeographicCRS.WGS84,
+                reader.read("POLYGON ((5 5, 15 5, 15 15, 5 15, 5 5))"));
+    }
+
+    public void testResultsAreDissolved() throws Exception {
+        // both squares of the first map are intersected, the results are merged
+        List<SimpleFeature> features = overlay(INTERSECTION);
+        assertEquals(1, features.size());
+        assertEquals(50.0, area(features), DELTA);
+
+        features = overlay(DIFFERENCE);
+        assertEquals(1, features.size());
+        assertEquals(150.0, area(features), DELTA);
+    }
+
+    public void testSymDifferenceIds() throws Exception {
+        List<SimpleFeature> features = overlay(SYMDIFFERENCE);
+        assertEquals(2, features.size());
+        assertEquals(200.0, area(features), DELTA);
+
+        Set<Object> ids = new HashSet<>();
+        for( SimpleFeature feature : features ) {
+            assertTrue(ids.add(feature.getAttribute("id")));
+        }
+    }
+
+    private List<SimpleFeature> overlay( String type ) throws Exception {
+        OmsVectorOverlayOperators overlay = new OmsVectorOverlayOperators();
+        overlay.pm = pm;
+        overlay.inMap1 = map1;
+        overlay.inMap2 = map2;
+        overlay.pType = type;
+        overlay.process();
+        return FeatureUtilities.featureCollectionToList(overlay.outMap);
+    }
+
+    private double area( List<SimpleFeature> features ) {
+        double area = 0;
+        for( SimpleFeature feature : features ) {
+            area += ((Geometry) feature.getDefaultGeometry()).getArea();
+        }
+        return area;
+    }
+
+}
@@ -156,6 +156,7 @@ public class HortonMessages {
     public static final String OMSSKYVIEW_AUTHORCONTACTS = "http://www.ing.unitn.it/dica/hp/?user=rigon";
     public static final String OMSSKYVIEW_inElev_DESCRIPTION = "The map of the elevation.";
     public static final String OMSSKYVIEW_outSky_DESCRIPTION = "The map of skyview factor.";
+    public static final String OMSSKYVIEW_pSectors_DESCRIPTION = "The number of azimuth sectors of the horizon tables used instead of the shadow tracing (default is 0, no tables).";
 
     public static final String OMSSHALSTAB_DESCRIPTION = "A version of the OmsShalstab stability model.";
     public static final String OMSSHALSTAB_DOCUMENTATION = "OmsShalstab.html";
@@ -312,6 +313,7 @@ public class HortonMessages {
     public static final String OMSHILLSHADE_pAzimuth_DESCRIPTION = "The value of the azimuth (default is 360).";
     public static final String OMSHILLSHADE_pElev_DESCRIPTION = "The sun elevation (default is 90).";
     public static final String OMSHILLSHADE_outHill_DESCRIPTION = "The map of hillshade.";
+    public static final String OMSHILLSHADE_pSectors_DESCRIPTION = "The number of azimuth sectors of the horizon tables used instead of the shadow tracing (default is 0, no tables).";
 
     public static final String OMSEPANETPROJECTFILESGENERATOR_DESCRIPTION = "Generates the base shapefiles for an epanet run.";
     public static final String OMSEPANETPROJECTFILESGENERATOR_DOCUMENTATION = "";
@@ -447,6 +449,7 @@ public class HortonMessages {
     public static final String OMSINSOLATION_tStartDate_DESCRIPTION = "The first day of the simulation.";
     public static final String OMSINSOLATION_tEndDate_DESCRIPTION = "The last day of the simulation.";
     public static final String OMSINSOLATION_outIns_DESCRIPTION = "The map of total insolation.";
+    public static final String OMSINSOLATION_pSectors_DESCRIPTION = "The number of azimuth sectors of the horizon tables used instead of the shadow tracing (default is 0, no tables).";
 
     public static final String OMSMELTONNUMBER_DESCRIPTION = "Melton number calculator";
     public static final String OMSMELTONNUMBER_DOCUMENTATION = "";
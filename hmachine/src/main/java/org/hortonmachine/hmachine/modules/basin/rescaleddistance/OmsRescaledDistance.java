@@ -30,7 +30,7 @@ import static org.hortonmachine.hmachine.modules.basin.rescaleddistance.OmsResca
 
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
-import java.util.List;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.media.jai.iterator.RandomIter;
@@ -40,7 +40,7 @@ import javax.media.jai.iterator.WritableRandomIter;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.Direction;
-import org.hortonmachine.gears.libs.modules.FlowNode;
+import org.hortonmachine.gears.libs.modules.FlowAccumulationEngine;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
 import org.hortonmachine.gears.utils.RegionMap;
@@ -130,12 +130,16 @@ public class OmsRescaledDistance extends GridMultiProcessing {
             elevIter = RandomIterFactory.create(elevRI, null);
         }
 
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(flowIter, cols, rows, novalue);
+        engine.setProgressMonitor(pm);
+        flowIter.done();
+
         WritableRaster rescaledWR = CoverageUtilities.createWritableRaster(cols, rows, Float.class, null, floatNovalue);
         WritableRandomIter rescaledIter = RandomIterFactory.createWritable(rescaledWR, null);
 
         try {
             pm.beginTask("Find outlets...", rows * cols); //$NON-NLS-1$
-            ConcurrentLinkedQueue<FlowNode> exitsList = new ConcurrentLinkedQueue<>();
+            ConcurrentLinkedQueue<Integer> exitsList = new ConcurrentLinkedQueue<>();
             processGrid(cols, rows, ( c, r ) -> {
                 if (pm.isCanceled())
                     return;
@@ -144,9 +148,9 @@ public class OmsRescaledDistance extends GridMultiProcessing {
                     // we make sure that we pick only outlets that are on the net
                     return;
                 }
-                FlowNode flowNode = new FlowNode(flowIter, cols, rows, c, r, novalue);
-                if (flowNode.isHeadingOutside()) {
-                    exitsList.add(flowNode);
+                int index = engine.index(c, r);
+                if (engine.getFlow(index) == 0 && engine.touchesBound(index)) {
+                    exitsList.add(index);
                 }
                 pm.worked(1);
             });
@@ -156,14 +160,22 @@ public class OmsRescaledDistance extends GridMultiProcessing {
                 throw new ModelsIllegalargumentException("No exits found in the map of flowdirections.", this);
             }
 
-            pm.beginTask("Calculate rescaled distance...", exitsList.size());
-            exitsList.parallelStream().forEach(exitNode -> {
-                if (pm.isCanceled())
-                    return;
-                calculateRescaledDistance(exitNode, (float) xRes, rescaledIter, elevIter, netIter);
-                pm.worked(1);
-            });
-            pm.done();
+            int[] exits = exitsList.stream().mapToInt(Integer::intValue).toArray();
+            double[] exitValues = new double[exits.length];
+            Arrays.fill(exitValues, (float) xRes);
+
+            double[] rescaled = engine.propagateUpstream(exits, exitValues,
+                    ( index, flow, receiverIndex, distance ) -> calculateRescaledDistance(index, flow, receiverIndex, distance,
+                            engine.getCols(), netIter));
+
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    double value = rescaled[engine.index(c, r)];
+                    if (!Double.isNaN(value)) {
+                        rescaledIter.setSample(c, r, 0, (float) value);
+                    }
+                }
+            }
         } finally {
             rescaledIter.done();
             netIter.done();
@@ -175,29 +187,24 @@ public class OmsRescaledDistance extends GridMultiProcessing {
                 inFlow.getCoordinateReferenceSystem());
     }
 
-    private void calculateRescaledDistance( FlowNode runningNode, float distance, WritableRandomIter rescaledIter,
-            RandomIter elevIter, RandomIter netIter ) {
-        runningNode.setFloatValueInMap(rescaledIter, distance);
-        if (runningNode.getEnteringNodes().size() > 0) {
-            List<FlowNode> enteringNodes = runningNode.getEnteringNodes();
-            for( FlowNode enteringNode : enteringNodes ) {
-                double tmpDistance = Direction.forFlow((int) enteringNode.flow).getDistance(xRes, yRes);
-                if (elevIter != null) {
-                    double fromElev = enteringNode.getValueFromMap(elevIter);
-                    double toElev = runningNode.getValueFromMap(elevIter);
-                    tmpDistance = NumericsUtilities.pythagoras(tmpDistance, abs(toElev - fromElev));
-                }
-
-                int netValue = enteringNode.getIntValueFromMap(netIter);
-                double newDistance = 0.0;
-                if (isNovalue(netValue)) {
-                    newDistance = distance + tmpDistance * pRatio;
-                } else {
-                    newDistance = distance + tmpDistance;
-                }
-                calculateRescaledDistance(enteringNode, (float) newDistance, rescaledIter, elevIter, netIter);
-            }
+    private double calculateRescaledDistance( int index, int flow, int receiverIndex, double distance, int cols,
+            RandomIter netIter ) {
+        int col = index % cols;
+        int row = index / cols;
+        double tmpDistance = Direction.forFlow(flow).getDistance(xRes, yRes);
+        if (elevIter != null) {
+            double fromElev = elevIter.getSampleDouble(col, row, 0);
+            double toElev = elevIter.getSampleDouble(receiverIndex % cols, receiverIndex / cols, 0);
+            tmpDistance = NumericsUtilities.pythagoras(tmpDistance, abs(toElev - fromElev));
         }
 
+        int netValue = netIter.getSample(col, row, 0);
+        double newDistance = 0.0;
+        if (isNovalue(netValue)) {
+            newDistance = distance + tmpDistance * pRatio;
+        } else {
+            newDistance = distance + tmpDistance;
+        }
+        return (float) newDistance;
     }
 }
@@ -32,11 +32,12 @@ import static org.hortonmachine.hmachine.modules.geomorphology.ab.OmsAb.OMSAB_ST
 import java.awt.image.WritableRaster;
 
 import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
 import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
+import org.hortonmachine.gears.libs.modules.multiprocessing.PerThreadRandomIter;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
@@ -94,6 +95,11 @@ public class OmsAb extends GridMultiProcessing {
 
     private HortonMessageHandler msg = HortonMessageHandler.getInstance();
 
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createDefaultTiledPlanner();
+    }
+
     @Execute
     public void process() throws Exception {
         if (!concatOr(outAb == null, doReset)) {
@@ -105,20 +111,22 @@ public class OmsAb extends GridMultiProcessing {
         int nRows = regionMap.getRows();
         double xRes = regionMap.getXres();
 
-        RandomIter tcaIter = CoverageUtilities.getRandomIterator(inTca);
-        RandomIter planIter = CoverageUtilities.getRandomIterator(inPlan);
-
         WritableRaster alungWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, null);
-        WritableRandomIter alungIter = RandomIterFactory.createWritable(alungWR, null);
         WritableRaster bWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, null);
-        WritableRandomIter bIter = RandomIterFactory.createWritable(bWR, null);
 
-        try {
+        try (PerThreadRandomIter<RandomIter> tcaIters = PerThreadRandomIter.create(inTca.getRenderedImage());
+                PerThreadRandomIter<RandomIter> planIters = PerThreadRandomIter.create(inPlan.getRenderedImage());
+                PerThreadRandomIter<WritableRandomIter> alungIters = PerThreadRandomIter.createWritable(alungWR);
+                PerThreadRandomIter<WritableRandomIter> bIters = PerThreadRandomIter.createWritable(bWR)) {
             pm.beginTask(msg.message("ab.calculating"), nRows * nCols);
             processGrid(nCols, nRows, ( c, r ) -> {
                 if (pm.isCanceled()) {
                     return;
                 }
+                RandomIter tcaIter = tcaIters.get();
+                RandomIter planIter = planIters.get();
+                WritableRandomIter alungIter = alungIters.get();
+                WritableRandomIter bIter = bIters.get();
 
                 double planSample = planIter.getSampleDouble(c, r, 0);
                 if (!isNovalue(planSample) && planSample != 0.0) {
@@ -149,11 +157,6 @@ public class OmsAb extends GridMultiProcessing {
                 pm.worked(1);
             });
             pm.done();
-        } finally {
-            tcaIter.done();
-            planIter.done();
-            alungIter.done();
-            bIter.done();
         }
         outAb = CoverageUtilities.buildCoverage("alung", alungWR, regionMap, inTca.getCoordinateReferenceSystem());
         outB = CoverageUtilities.buildCoverage("b", bWR, regionMap, inTca.getCoordinateReferenceSystem());
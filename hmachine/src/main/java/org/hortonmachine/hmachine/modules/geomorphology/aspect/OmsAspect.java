@@ -32,13 +32,14 @@ import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 
 import java.awt.image.WritableRaster;
 
-import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.GridNode;
 import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
 import org.hortonmachine.gears.libs.modules.multiprocessing.GridNodeMultiProcessing;
+import org.hortonmachine.gears.libs.modules.multiprocessing.PerThreadRandomIter;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.gears.utils.math.NumericsUtilities;
@@ -99,6 +100,11 @@ public class OmsAspect extends GridNodeMultiProcessing {
 
     private double radtodeg = NumericsUtilities.RADTODEG;
 
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createDefaultTiledPlanner();
+    }
+
     @Execute
     public void process() throws Exception {
         if (!concatOr(outAspect == null, doReset)) {
@@ -119,8 +125,7 @@ public class OmsAspect extends GridNodeMultiProcessing {
         } else {
             aspectWR = CoverageUtilities.createWritableRaster(cols, rows, Float.class, null, null);
         }
-        WritableRandomIter aspectIter = RandomIterFactory.createWritable(aspectWR, null);
-        try {
+        try (PerThreadRandomIter<WritableRandomIter> aspectIters = PerThreadRandomIter.createWritable(aspectWR)) {
             pm.beginTask(msg.message("aspect.calculating"), rows * cols);
             processGridNodes(inElev, gridNode -> {
                 if (pm.isCanceled()) {
@@ -129,6 +134,7 @@ public class OmsAspect extends GridNodeMultiProcessing {
                 double aspect = calculateAspect(gridNode, radtodeg, doRound);
                 int col = gridNode.col;
                 int row = gridNode.row;
+                WritableRandomIter aspectIter = aspectIters.get();
                 if (col == 0 || row == 0 || col == cols - 1 || row == rows - 1) {
                     aspectIter.setSample(col, row, 0, HMConstants.shortNovalue);
                 } else {
@@ -141,8 +147,6 @@ public class OmsAspect extends GridNodeMultiProcessing {
                 pm.worked(1);
             });
             pm.done();
-        } finally {
-            aspectIter.done();
         }
         outAspect = CoverageUtilities.buildCoverage("aspect", aspectWR, regionMap, inElev.getCoordinateReferenceSystem());
     }
@@ -157,17 +161,30 @@ public class OmsAspect extends GridNodeMultiProcessing {
      * @return the value of aspect.
      */
     public static double calculateAspect( GridNode node, double radtodeg, boolean doRound ) {
+        return calculateAspect(node.elevation, node.getNorthElev(), node.getSouthElev(), node.getWestElev(),
+                node.getEastElev(), node.xRes, node.yRes, radtodeg, doRound);
+    }
+
+    /**
+     * Calculates the aspect from the values of a cell and its orthogonal neighbours.
+     * 
+     * @param centralValue the value of the cell.
+     * @param nValue the value of the north cell, novalue if missing.
+     * @param sValue the value of the south cell, novalue if missing.
+     * @param wValue the value of the west cell, novalue if missing.
+     * @param eValue the value of the east cell, novalue if missing.
+     * @param xRes the x resolution.
+     * @param yRes the y resolution.
+     * @param radtodeg radiants to degrees conversion factor.
+     * @param doRound if <code>true</code>, values are round to integer.
+     * @return the value of aspect.
+     */
+    public static double calculateAspect( double centralValue, double nValue, double sValue, double wValue,
+            double eValue, double xRes, double yRes, double radtodeg, boolean doRound ) {
         double aspect = doubleNovalue;
         // the value of the x and y derivative
         double aData = 0.0;
         double bData = 0.0;
-        double xRes = node.xRes;
-        double yRes = node.yRes;
-        double centralValue = node.elevation;
-        double nValue = node.getNorthElev();
-        double sValue = node.getSouthElev();
-        double wValue = node.getWestElev();
-        double eValue = node.getEastElev();
 
         if (!isNovalue(centralValue)) {
             boolean sIsNovalue = isNovalue(sValue);
@@ -37,7 +37,9 @@ import javax.media.jai.iterator.RandomIter;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.GridNode;
 import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
 import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
+import org.hortonmachine.gears.libs.modules.multiprocessing.PerThreadRandomIter;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
@@ -96,6 +98,11 @@ public class OmsCurvatures extends GridMultiProcessing {
 
     private HortonMessageHandler msg = HortonMessageHandler.getInstance();
 
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createDefaultTiledPlanner();
+    }
+
     @Execute
     public void process() throws Exception {
         if (!concatOr(outProf == null, doReset)) {
@@ -109,13 +116,13 @@ public class OmsCurvatures extends GridMultiProcessing {
         double yRes = regionMap.getYres();
 
         double novalue = HMConstants.getNovalue(inElev);
-        RandomIter elevationIter = CoverageUtilities.getRandomIterator(inElev);
+        PerThreadRandomIter<RandomIter> elevationIters = PerThreadRandomIter.create(inElev.getRenderedImage());
 
         WritableRaster profWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, novalue);
         WritableRaster planWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, novalue);
         WritableRaster tangWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, novalue);
 
-        final double[] planTangProf = new double[3];
+        final ThreadLocal<double[]> planTangProfLocal = ThreadLocal.withInitial(() -> new double[3]);
 
 
         try {
@@ -127,8 +134,9 @@ public class OmsCurvatures extends GridMultiProcessing {
                 if (pm.isCanceled()) {
                     return;
                 }
-                GridNode node = new GridNode(elevationIter, nCols, nRows, xRes, yRes, c, r, novalue);
+                GridNode node = new GridNode(elevationIters.get(), nCols, nRows, xRes, yRes, c, r, novalue);
                 if (node.isValid() && !node.touchesNovalue() && !node.touchesBound()) {
+                    double[] planTangProf = planTangProfLocal.get();
                     calculateCurvatures2(node, planTangProf);
                     planWR.setSample(c, r, 0, planTangProf[0]);
                     tangWR.setSample(c, r, 0, planTangProf[1]);
@@ -138,7 +146,7 @@ public class OmsCurvatures extends GridMultiProcessing {
             });
             pm.done();
         } finally {
-            elevationIter.done();
+            elevationIters.close();
         }
         if (pm.isCanceled()) {
             return;
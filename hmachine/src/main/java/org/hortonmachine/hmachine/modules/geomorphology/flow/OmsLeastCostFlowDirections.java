@@ -18,14 +18,6 @@
 package org.hortonmachine.hmachine.modules.geomorphology.flow;
 
 import static java.lang.Math.abs;
-import static org.hortonmachine.gears.libs.modules.Direction.E;
-import static org.hortonmachine.gears.libs.modules.Direction.EN;
-import static org.hortonmachine.gears.libs.modules.Direction.N;
-import static org.hortonmachine.gears.libs.modules.Direction.NW;
-import static org.hortonmachine.gears.libs.modules.Direction.S;
-import static org.hortonmachine.gears.libs.modules.Direction.SE;
-import static org.hortonmachine.gears.libs.modules.Direction.W;
-import static org.hortonmachine.gears.libs.modules.Direction.WS;
 import static org.hortonmachine.gears.libs.modules.HMConstants.doubleNovalue;
 import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSLEASTCOSTFLOWDIRECTIONS_AUTHORCONTACTS;
@@ -47,8 +39,6 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSLEASTCOSTFLOWDIR
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSLEASTCOSTFLOWDIRECTIONS_outTca_DESCRIPTION;
 
 import java.awt.image.WritableRaster;
-import java.util.List;
-import java.util.TreeSet;
 
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.WritableRandomIter;
@@ -67,15 +57,13 @@ import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.Direction;
-import org.hortonmachine.gears.libs.modules.GridNode;
-import org.hortonmachine.gears.libs.modules.GridNodeElevationToLeastComparator;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
-import org.hortonmachine.gears.utils.BitMatrix;
+import org.hortonmachine.gears.libs.modules.PriorityFloodEngine;
+import org.hortonmachine.gears.libs.modules.PriorityFloodEngine.FloodVisitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.modules.geomorphology.aspect.OmsAspect;
-import org.hortonmachine.hmachine.modules.geomorphology.slope.OmsSlope;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 @Description(OMSLEASTCOSTFLOWDIRECTIONS_DESCRIPTION)
@@ -119,20 +107,24 @@ public class OmsLeastCostFlowDirections extends HMModel {
     @Out
     public GridCoverage2D outSlope = null;
 
-    private BitMatrix assignedFlowsMap;
-
     private WritableRandomIter flowIter;
 
-    private TreeSet<GridNode> orderedNodes;
-
     private WritableRandomIter tcaIter;
     private WritableRandomIter slopeIter;
     private WritableRandomIter aspectIter;
 
+    private RandomIter elevationIter;
+
+    private PriorityFloodEngine engine;
+
     private int cols;
 
     private int rows;
 
+    private double xRes;
+
+    private double yRes;
+
     private boolean doExcludeBorder = true;
 
     @Execute
@@ -144,10 +136,10 @@ public class OmsLeastCostFlowDirections extends HMModel {
         RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inElev);
         cols = regionMap.getCols();
         rows = regionMap.getRows();
-        double xRes = regionMap.getXres();
-        double yRes = regionMap.getYres();
+        xRes = regionMap.getXres();
+        yRes = regionMap.getYres();
 
-        RandomIter elevationIter = CoverageUtilities.getRandomIterator(inElev);
+        elevationIter = CoverageUtilities.getRandomIterator(inElev);
 
         WritableRaster flowWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, doubleNovalue);
         flowIter = CoverageUtilities.getWritableRandomIterator(flowWR);
@@ -170,96 +162,52 @@ public class OmsLeastCostFlowDirections extends HMModel {
             aspectIter = CoverageUtilities.getWritableRandomIterator(aspectWR);
         }
 
-        orderedNodes = new TreeSet<GridNode>(new GridNodeElevationToLeastComparator());
-        assignedFlowsMap = new BitMatrix(cols, rows);
-
         double novalue = HMConstants.getNovalue(inElev);
 
-        pm.beginTask("Check for potential outlets...", rows);
-        int nonValidCellsNum = 0;
-        for( int r = 0; r < rows; r++ ) {
-            if (pm.isCanceled()) {
-                return;
-            }
-            for( int c = 0; c < cols; c++ ) {
-                GridNode node = new GridNode(elevationIter, cols, rows, xRes, yRes, c, r, novalue);
-                if (!node.isValid()) {
-                    nonValidCellsNum++;
-                    assignedFlowsMap.mark(c, r);
-                    continue;
-                }
-                if (node.touchesBound()) {
-                    orderedNodes.add(node);
-                    if (doExcludeBorder) {
-                        assignedFlowsMap.mark(c, r);
-                    } else {
-                        flowIter.setSample(c, r, 0, Direction.getOutletValue());
-                    }
+        pm.message("Reading elevation...");
+        engine = new PriorityFloodEngine(elevationIter, cols, rows, xRes, yRes, novalue);
+        engine.setProgressMonitor(pm);
+
+        /*
+         * the order in which cells are taken from the flood front is a 
+         * topological order from the outlets upstream, keep it for tca
+         */
+        int[] floodOrder = doTca ? new int[cols * rows] : null;
+        int[] floodCount = new int[1];
+
+        engine.flood(new FloodVisitor(){
+            @Override
+            public void seed( int index ) {
+                if (!doExcludeBorder) {
+                    flowIter.setSample(index % cols, index / cols, 0, Direction.getOutletValue());
                 }
             }
-            pm.worked(1);
-        }
-        pm.done();
 
-        pm.beginTask("Extract flowdirections...", (rows * cols - nonValidCellsNum));
-        GridNode lowestNode = null;
-        while( (lowestNode = orderedNodes.pollFirst()) != null ) {
-            /*
-             * set the current cell as marked. If it is an alone one,
-             * it will stay put as an outlet (if we do not mark it, it 
-             * might get overwritten. Else il will be redundantly set 
-             * later again.
-             */
-            assignedFlowsMap.mark(lowestNode.col, lowestNode.row);
-
-            List<GridNode> surroundingNodes = lowestNode.getSurroundingNodes();
-
-            /*
-             * vertical and horiz cells, if they exist, are 
-             * set to flow inside the current cell and added to the 
-             * list of cells to process.
-             */
-            GridNode e = surroundingNodes.get(0);
-            if (nodeOk(e)) {
-                // flow in current and get added to the list of nodes to process by elevation
-                // order
-                setNodeValues(e, E.getEnteringFlow());
-            }
-            GridNode n = surroundingNodes.get(2);
-            if (nodeOk(n)) {
-                setNodeValues(n, N.getEnteringFlow());
-            }
-            GridNode w = surroundingNodes.get(4);
-            if (nodeOk(w)) {
-                setNodeValues(w, W.getEnteringFlow());
-            }
-            GridNode s = surroundingNodes.get(6);
-            if (nodeOk(s)) {
-                setNodeValues(s, S.getEnteringFlow());
+            @Override
+            public void polled( int index ) {
+                if (floodOrder != null) {
+                    floodOrder[floodCount[0]++] = index;
+                }
             }
 
-            /*
-             * diagonal cells are processed only if they are valid and 
-             * they are not steeper than their attached vertical and horiz cells.
-             */
-            GridNode en = surroundingNodes.get(1);
-            if (nodeOk(en) && assignFlowDirection(lowestNode, en, e, n)) {
-                setNodeValues(en, EN.getEnteringFlow());
-            }
-            GridNode nw = surroundingNodes.get(3);
-            if (nodeOk(nw) && assignFlowDirection(lowestNode, nw, n, w)) {
-                setNodeValues(nw, NW.getEnteringFlow());
-            }
-            GridNode ws = surroundingNodes.get(5);
-            if (nodeOk(ws) && assignFlowDirection(lowestNode, ws, w, s)) {
-                setNodeValues(ws, WS.getEnteringFlow());
-            }
-            GridNode se = surroundingNodes.get(7);
-            if (nodeOk(se) && assignFlowDirection(lowestNode, se, s, e)) {
-                setNodeValues(se, SE.getEnteringFlow());
+            @Override
+            public boolean accept( int current, int neighbour, int direction ) {
+                /*
+                 * vertical and horiz cells flow into the current cell. Diagonal 
+                 * cells do only if they are not steeper than their attached 
+                 * vertical and horiz cells.
+                 */
+                if (direction % 2 == 1 && !assignFlowDirection(current, neighbour, direction)) {
+                    return false;
+                }
+                setNodeValues(neighbour, current, direction);
+                return true;
             }
+        }, false);
+
+        if (doTca) {
+            accumulateTca(floodOrder, floodCount[0]);
         }
-        pm.done();
 
         CoordinateReferenceSystem crs = inElev.getCoordinateReferenceSystem();
         outFlow = CoverageUtilities.buildCoverageWithNovalue("flowdirections", flowWR, regionMap, crs, doubleNovalue);
@@ -271,17 +219,16 @@ public class OmsLeastCostFlowDirections extends HMModel {
             outAspect = CoverageUtilities.buildCoverageWithNovalue("aspect", aspectWR, regionMap, crs, doubleNovalue);
     }
 
-    private void setNodeValues( GridNode node, int enteringFlow ) {
-        int col = node.col;
-        int row = node.row;
+    private void setNodeValues( int index, int receiverIndex, int direction ) {
+        int col = index % cols;
+        int row = index / cols;
+        int enteringFlow = PriorityFloodEngine.ENTERING_FLOW[direction];
         flowIter.setSample(col, row, 0, enteringFlow);
-        pm.worked(1);
-
-        orderedNodes.add(node);
-        assignedFlowsMap.mark(col, row);
 
+        double elevation = elevationIter.getSampleDouble(col, row, 0);
         if (doSlope) {
-            double slope = OmsSlope.calculateSlope(node, enteringFlow);
+            double receiverElevation = elevationIter.getSampleDouble(receiverIndex % cols, receiverIndex / cols, 0);
+            double slope = (elevation - receiverElevation) / engine.getDistance(direction);
             if (slope <= 0.0) {
                 // put smallest possible slope
                 slope = Double.MIN_VALUE;
@@ -289,37 +236,50 @@ public class OmsLeastCostFlowDirections extends HMModel {
             slopeIter.setSample(col, row, 0, slope);
         }
         if (doAspect) {
-            double aspect = OmsAspect.calculateAspect(node, 1.0, false);
+            double aspect = OmsAspect.calculateAspect(elevation, getElevation(col, row - 1), getElevation(col, row + 1),
+                    getElevation(col - 1, row), getElevation(col + 1, row), xRes, yRes, 1.0, false);
             aspectIter.setSample(col, row, 0, aspect);
         }
+    }
 
-        /*
-         * once a flow value is set, if tca is meant to be calculated,
-         * the flow has to be followed downstream adding the contributing cell.
-         */
-        if (doTca) {
-            int runningCol = col;
-            int runningRow = row;
-            while( isInRaster(runningCol, runningRow) ) {
-                double tmpFlow = flowIter.getSampleDouble(runningCol, runningRow, 0);
-                if (!isNovalue(tmpFlow)) {
-                    double tmpTca = tcaIter.getSampleDouble(runningCol, runningRow, 0);
-                    if (isNovalue(tmpTca)) {
-                        tmpTca = 0.0;
-                    }
-                    tcaIter.setSample(runningCol, runningRow, 0, tmpTca + 1.0);
-                    Direction flowDir = Direction.forFlow((int) tmpFlow);
-                    if (flowDir != null) {
-                        runningCol = runningCol + flowDir.col;
-                        runningRow = runningRow + flowDir.row;
-                    } else {
-                        break;
-                    }
-                } else {
-                    break;
+    /**
+     * Once the flow is set, the contributing cells are summed up downstream, 
+     * going through the cells in reverse flood order.
+     */
+    private void accumulateTca( int[] floodOrder, int count ) {
+        pm.beginTask("Calculating tca...", count);
+        for( int i = count - 1; i >= 0; i-- ) {
+            int index = floodOrder[i];
+            int col = index % cols;
+            int row = index / cols;
+            double flow = flowIter.getSampleDouble(col, row, 0);
+            if (isNovalue(flow)) {
+                continue;
+            }
+            double tca = tcaIter.getSampleDouble(col, row, 0);
+            tca = isNovalue(tca) ? 1.0 : tca + 1.0;
+            tcaIter.setSample(col, row, 0, tca);
+
+            Direction flowDir = Direction.forFlow((int) flow);
+            if (flowDir != null) {
+                int downCol = col + flowDir.col;
+                int downRow = row + flowDir.row;
+                if (isInRaster(downCol, downRow) && !isNovalue(flowIter.getSampleDouble(downCol, downRow, 0))) {
+                    double downTca = tcaIter.getSampleDouble(downCol, downRow, 0);
+                    downTca = isNovalue(downTca) ? tca : downTca + tca;
+                    tcaIter.setSample(downCol, downRow, 0, downTca);
                 }
             }
+            pm.worked(1);
+        }
+        pm.done();
+    }
+
+    private double getElevation( int col, int row ) {
+        if (!isInRaster(col, row)) {
+            return doubleNovalue;
         }
+        return elevationIter.getSampleDouble(col, row, 0);
     }
 
     private boolean isInRaster( int col, int row ) {
@@ -330,25 +290,27 @@ public class OmsLeastCostFlowDirections extends HMModel {
     }
 
     /**
-     * Checks if the path from the current to the first node is steeper than to the others.
+     * Checks if the path from the current to the diagonal node is steeper than 
+     * from the diagonal to the attached vertical and horizontal nodes.
      * 
-     * @param current the current node.
-     * @param diagonal the diagonal node to check.
-     * @param node1 the first other node to check.
-     * @param node2 the second other node to check.
-     * @return <code>true</code> if the path to the first node is steeper in module than 
+     * @param current the index of the current node.
+     * @param diagonal the index of the diagonal node to check.
+     * @param direction the position of the diagonal node.
+     * @return <code>true</code> if the path to the diagonal node is steeper in module than 
      *         that to the others.
      */
-    private boolean assignFlowDirection( GridNode current, GridNode diagonal, GridNode node1, GridNode node2 ) {
-        double diagonalSlope = abs(current.getSlopeTo(diagonal));
-        if (node1 != null) {
-            double tmpSlope = abs(diagonal.getSlopeTo(node1));
+    private boolean assignFlowDirection( int current, int diagonal, int direction ) {
+        double diagonalSlope = abs(engine.getSlope(current, diagonal, direction));
+        int node1 = engine.neighbour(current, direction - 1);
+        if (node1 != -1 && engine.isValid(node1)) {
+            double tmpSlope = abs(getOrthogonalSlope(diagonal, node1));
             if (diagonalSlope < tmpSlope) {
                 return false;
             }
         }
-        if (node2 != null) {
-            double tmpSlope = abs(diagonal.getSlopeTo(node2));
+        int node2 = engine.neighbour(current, (direction + 1) % 8);
+        if (node2 != -1 && engine.isValid(node2)) {
+            double tmpSlope = abs(getOrthogonalSlope(diagonal, node2));
             if (diagonalSlope < tmpSlope) {
                 return false;
             }
@@ -356,17 +318,9 @@ public class OmsLeastCostFlowDirections extends HMModel {
         return true;
     }
 
-    /**
-     * Checks if the node is ok.
-     * 
-     * <p>A node is ok if:</p>
-     * <ul>
-     *  <li>if the node is valid (!= null in surrounding)</li>
-     *  <li>if the node has not been processed already (!.isMarked)</li>
-     * </ul> 
-     */
-    private boolean nodeOk( GridNode node ) {
-        return node != null && !assignedFlowsMap.isMarked(node.col, node.row);
+    private double getOrthogonalSlope( int from, int to ) {
+        double distance = from % cols == to % cols ? yRes : xRes;
+        return (engine.getElevation(from) - engine.getElevation(to)) / distance;
     }
 
 }
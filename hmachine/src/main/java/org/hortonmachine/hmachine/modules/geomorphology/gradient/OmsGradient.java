@@ -32,11 +32,12 @@ import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 
 import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
 import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
+import org.hortonmachine.gears.libs.modules.multiprocessing.PerThreadRandomIter;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
@@ -104,6 +105,11 @@ public class OmsGradient extends GridMultiProcessing {
 
     private double yRes;
 
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createDefaultTiledPlanner();
+    }
+
     @Execute
     public void process() throws Exception {
         if (!concatOr(outSlope == null, doReset)) {
@@ -118,21 +124,16 @@ public class OmsGradient extends GridMultiProcessing {
         yRes = regionMap.getYres();
 
         RenderedImage elevationRI = inElev.getRenderedImage();
-        RandomIter elevationIter = RandomIterFactory.create(elevationRI, null);
-
-        WritableRaster gradientWR;
-        try {
-            gradientWR = null;
+        try (PerThreadRandomIter<RandomIter> elevationIters = PerThreadRandomIter.create(elevationRI)) {
+            WritableRaster gradientWR = null;
             if (pMode.equals(HORN)) {
-                gradientWR = gradientHorn(elevationIter);
+                gradientWR = gradientHorn(elevationIters);
             } else if (pMode.equals(EVANS)) {
-                gradientWR = gradientEvans(elevationIter);
+                gradientWR = gradientEvans(elevationIters);
             } else {
-                gradientWR = gradientDiff(elevationIter);
+                gradientWR = gradientDiff(elevationIters);
             }
             outSlope = CoverageUtilities.buildCoverage("gradient", gradientWR, regionMap, inElev.getCoordinateReferenceSystem());
-        } finally {
-            elevationIter.done();
         }
     }
 
@@ -160,7 +161,7 @@ public class OmsGradient extends GridMultiProcessing {
     * This numeration is used to extract the appropriate elevation value (es elev1 an so on)
      * @throws Exception 
     */
-    private WritableRaster gradientHorn( RandomIter elevationIter ) throws Exception {
+    private WritableRaster gradientHorn( PerThreadRandomIter<RandomIter> elevationIters ) throws Exception {
         WritableRaster gradientWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, doubleNovalue);
         pm.beginTask(msg.message("gradient.working") + " (" + HORN + ")", nRows * nCols);
         processGrid(nCols, nRows, true, ( c, r ) -> {
@@ -168,7 +169,7 @@ public class OmsGradient extends GridMultiProcessing {
                 return;
             }
             // extract the value to use for the algoritm. It is the finite difference approach.
-            double value = doGradientHornOnCell(elevationIter, c, r, xRes, yRes, doDegrees);
+            double value = doGradientHornOnCell(elevationIters.get(), c, r, xRes, yRes, doDegrees);
             gradientWR.setSample(c, r, 0, value);
             pm.worked(1);
         });
@@ -187,14 +188,14 @@ public class OmsGradient extends GridMultiProcessing {
      * @throws Exception 
      * 
     */
-    private WritableRaster gradientDiff( RandomIter elevationIter ) throws Exception {
+    private WritableRaster gradientDiff( PerThreadRandomIter<RandomIter> elevationIters ) throws Exception {
         WritableRaster gradientWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, doubleNovalue);
         pm.beginTask(msg.message("gradient.working") + " (" + FINITE_DIFFERENCES + ")", nRows * nCols);
         processGrid(nCols, nRows, true, ( c, r ) -> {
             if (pm.isCanceled()) {
                 return;
             }
-            double value = doGradientDiffOnCell(elevationIter, c, r, xRes, yRes, doDegrees);
+            double value = doGradientDiffOnCell(elevationIters.get(), c, r, xRes, yRes, doDegrees);
             gradientWR.setSample(c, r, 0, value);
             pm.worked(1);
         });
@@ -224,14 +225,14 @@ public class OmsGradient extends GridMultiProcessing {
      * </p>
      * @throws Exception 
      */
-    private WritableRaster gradientEvans( RandomIter elevationIter ) throws Exception {
+    private WritableRaster gradientEvans( PerThreadRandomIter<RandomIter> elevationIters ) throws Exception {
         WritableRaster gradientWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, doubleNovalue);
         pm.beginTask(msg.message("gradient.working") + " (" + EVANS + ")", nRows * nCols);
         processGrid(nCols, nRows, true, ( c, r ) -> {
             if (pm.isCanceled()) {
                 return;
             }
-            double value = doGradientEvansOnCell(elevationIter, c, r, xRes, yRes, doDegrees);
+            double value = doGradientEvansOnCell(elevationIters.get(), c, r, xRes, yRes, doDegrees);
             gradientWR.setSample(c, r, 0, value);
             pm.worked(1);
         });
@@ -16,18 +16,19 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSMULTITCA_inPit_D
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSMULTITCA_outMultiTca_DESCRIPTION;
 
 import java.awt.image.WritableRaster;
+import java.text.MessageFormat;
 
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.FlowAccumulationEngine;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
-import org.hortonmachine.gears.libs.modules.ModelsSupporter;
+import org.hortonmachine.gears.libs.modules.PriorityFloodEngine;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
-import org.hortonmachine.gears.utils.sorting.QuickSortAlgorithm;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -66,13 +67,11 @@ public class OmsMultiTca extends HMModel {
     @Out
     public GridCoverage2D outMultiTca = null;
 
-    // the flow direction.
-    private int[][] dir = ModelsSupporter.DIR_WITHFLOW_EXITING;
-    // the incoming flow direction.
-    private int[][] dirIn = ModelsSupporter.DIR_WITHFLOW_ENTERING;
+    private static final byte DIVERGENT = 1;
+    private static final byte CONVERGENT = 2;
 
     @Execute
-    public void process() {
+    public void process() throws Exception {
         if (!concatOr(outMultiTca == null, doReset)) {
             return;
         }
@@ -80,208 +79,171 @@ public class OmsMultiTca extends HMModel {
         RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inFlow);
         int cols = regionMap.cols;
         int rows = regionMap.rows;
-        // pm.message();
-
-        @SuppressWarnings("unused")
-        int ipos, jpos, i, j, ncicli = 0;
-        double sum, delta, pos;
-
-        // create new matrix
-        double[] elevationArray = new double[cols * rows];
-        double[] indexOfElevation = new double[cols * rows];
-
-        // pm.message();
 
         RandomIter flowIter = CoverageUtilities.getRandomIterator(inFlow);
         RandomIter pitIter = CoverageUtilities.getRandomIterator(inPit);
         RandomIter cp9Iter = CoverageUtilities.getRandomIterator(inCp9);
-        WritableRaster alreadyDonePixelWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, 0.0);
-        WritableRandomIter alreadyDoneIter = RandomIterFactory.createWritable(alreadyDonePixelWR, null);
-        WritableRaster multiTcaWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, 1.0);
-        WritableRandomIter multiTcaIter = RandomIterFactory.createWritable(multiTcaWR, null);
 
-        /*
-         * store the value of elevation in an array
-         */
-        for( int t = 0; t < rows; t++ ) {
-            for( int s = 0; s < cols; s++ ) {
-                elevationArray[((t) * cols) + s] = pitIter.getSampleDouble(s, t, 0);
-                indexOfElevation[((t) * cols) + s] = ((t) * cols) + s + 1;
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(flowIter, cols, rows, HMConstants.doubleNovalue);
+        engine.setProgressMonitor(pm);
+
+        double[] pit = new double[cols * rows];
+        byte[] type = new byte[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int index = engine.index(c, r);
+                pit[index] = pitIter.getSampleDouble(c, r, 0);
+                double cp9 = cp9Iter.getSampleDouble(c, r, 0);
+                if (pit[index] > 0) {
+                    if (cp9 == 10 || cp9 == 20 || cp9 == 30 || cp9 == 40 || cp9 == 50 || cp9 == 60) {
+                        type[index] = DIVERGENT;
+                    } else if (cp9 == 70 || cp9 == 80 || cp9 == 90) {
+                        type[index] = CONVERGENT;
+                    }
+                }
+                if (isNovalue(cp9)) {
+                    engine.invalidate(index);
+                }
             }
         }
 
-        /*
-         * sorted the array of elevation.
-         */
-        // pm.message();
-        try {
-            QuickSortAlgorithm sortAlgorithm = new QuickSortAlgorithm(pm);
-            sortAlgorithm.sort(elevationArray, indexOfElevation);
-        } catch (Exception e) {
-            e.printStackTrace();
+        double[] multiTca = new double[cols * rows];
+        double[] deltaSum = new double[cols * rows];
+        int unresolved = engine.run(new MultiFlowGraph(engine, cols, rows, pit, type, multiTca, deltaSum));
+        if (unresolved > 0) {
+            pm.errorMessage(MessageFormat.format(
+                    "{0} cells are in or downstream of loops of the flat areas, there might be an error in your flowdirections.",
+                    unresolved));
         }
 
-        /*
-         * start to working with the highest value of elevation.
-         */
-        for( int l = cols * rows - 1; l >= 0; l-- ) {
-            ncicli = cols * rows - l;
-            if (elevationArray[l] <= 0) {
-                break;
-            } else {
-
-                pos = indexOfElevation[l];
-                // extract the index of the matrix from the arrays index.
-                i = (int) (pos - 1) % cols;
-                j = (int) (pos - 1) / cols;
-
-                if (alreadyDoneIter.getSampleDouble(i, j, 0) == 0.0) {
-
-                    alreadyDoneIter.setSample(i, j, 0, 1.0);
-                    if (cp9Iter.getSampleDouble(i, j, 0) == 10 || cp9Iter.getSampleDouble(i, j, 0) == 20
-                            || cp9Iter.getSampleDouble(i, j, 0) == 30 || cp9Iter.getSampleDouble(i, j, 0) == 40
-                            || cp9Iter.getSampleDouble(i, j, 0) == 50 || cp9Iter.getSampleDouble(i, j, 0) == 60) {
-                        sum = 0;
-                        for( int k = 1; k <= 8; k++ ) {
-                            ipos = i + dir[k][0];
-                            jpos = j + dir[k][1];
-                            delta = pitIter.getSampleDouble(i, j, 0) - pitIter.getSampleDouble(ipos, jpos, 0);
-                            if (delta == 0) {
-                                if (alreadyDoneIter.getSampleDouble(ipos, jpos, 0) == 0.0
-                                        && flowIter.getSampleDouble(ipos, jpos, 0) == dirIn[k][2]) {
-                                    resolveFlat(ipos, jpos, cols, rows, pitIter, multiTcaIter, alreadyDoneIter, flowIter, cp9Iter);
-                                }
-                            }
-                            if (delta > 0.0 && pitIter.getSampleDouble(ipos, jpos, 0) > 0.0) {
-                                sum += delta;
-                            }
-                        }
-                        for( int k = 1; k <= 8; k++ ) {
-                            ipos = i + dir[k][0];
-                            jpos = j + dir[k][1];
-                            delta = pitIter.getSampleDouble(i, j, 0) - pitIter.getSampleDouble(ipos, jpos, 0);
-                            if (delta > 0.0 && pitIter.getSampleDouble(ipos, jpos, 0) > 0.0) {
-                                multiTcaIter.setSample(ipos, jpos, 0,
-                                        multiTcaIter.getSampleDouble(ipos, jpos, 0) + multiTcaIter.getSampleDouble(i, j, 0)
-                                                * (delta / sum));
-                            } else if (delta == 0.0 && flowIter.getSampleDouble(i, j, 0) == dirIn[k][2]) {
-                                multiTcaIter.setSample(ipos, jpos, 0,
-                                        multiTcaIter.getSampleDouble(ipos, jpos, 0) + multiTcaIter.getSampleDouble(i, j, 0));
-                            }
-                        }
-
-                    } else if (cp9Iter.getSampleDouble(i, j, 0) == 70 || cp9Iter.getSampleDouble(i, j, 0) == 80
-                            || cp9Iter.getSampleDouble(i, j, 0) == 90) {
-                        for( int k = 1; k <= 8; k++ ) {
-                            ipos = i + dir[k][0];
-                            jpos = j + dir[k][1];
-                            double delta2 = pitIter.getSampleDouble(i, j, 0) - pitIter.getSampleDouble(ipos, jpos, 0);
-                            if (delta2 == 0) {
-                                if (alreadyDoneIter.getSampleDouble(ipos, jpos, 0) == 0.0
-                                        && flowIter.getSampleDouble(ipos, jpos, 0) == dirIn[k][2]) {
-
-                                    resolveFlat(ipos, jpos, cols, rows, pitIter, multiTcaIter, alreadyDoneIter, flowIter, cp9Iter);
-                                }
-                            }
-                        }
-                        for( int k = 1; k <= 8; k++ ) {
-                            ipos = i + dir[k][0];
-                            jpos = j + dir[k][1];
-                            if (flowIter.getSampleDouble(i, j, 0) != 10 && flowIter.getSampleDouble(i, j, 0) == dir[k][2]) {
-
-                                multiTcaIter.setSample(ipos, jpos, 0,
-                                        multiTcaIter.getSampleDouble(ipos, jpos, 0) + multiTcaIter.getSampleDouble(i, j, 0));
-                                break;
-                            }
-                        }
-                    }
-
+        WritableRaster multiTcaWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, HMConstants.doubleNovalue);
+        WritableRandomIter multiTcaIter = RandomIterFactory.createWritable(multiTcaWR, null);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int index = engine.index(c, r);
+                if (engine.isValid(index) && !engine.isUnresolved(index)) {
+                    multiTcaIter.setSample(c, r, 0, multiTca[index]);
                 }
-
-            }
-        }
-        for( int t = 0; t < rows; t++ ) {
-            for( int s = 0; s < cols; s++ ) {
-                if (isNovalue(cp9Iter.getSampleDouble(s, t, 0)) || isNovalue(flowIter.getSampleDouble(s, t, 0)))
-                    multiTcaIter.setSample(s, t, 0, HMConstants.doubleNovalue);
             }
         }
+        multiTcaIter.done();
+        flowIter.done();
+        pitIter.done();
+        cp9Iter.done();
 
         outMultiTca = CoverageUtilities.buildCoverage("multiTca", multiTcaWR, regionMap, inFlow.getCoordinateReferenceSystem());
-
     }
-    private int resolveFlat( int ipos, int jpos, int cols, int rows, RandomIter pitRandomIter,
-            WritableRandomIter multitcaRandomIter, WritableRandomIter segnaRandomIter, RandomIter flowRandomIter,
-            RandomIter cp3RandomIter ) {
-        double delta2 = 0;
-        double sum2 = 0;
-        int count = 0;
 
-        segnaRandomIter.setSample(ipos, jpos, 0, 1.0);
-        if (cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 10 || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 20
-                || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 30 || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 40
-                || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 50 || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 60) {
-            for( int k = 1; k <= 8; k++ ) {
-                int ipos2 = ipos + dir[k][0];
-                int jpos2 = jpos + dir[k][1];
-                delta2 = pitRandomIter.getSampleDouble(ipos, jpos, 0) - pitRandomIter.getSampleDouble(ipos2, jpos2, 0);
-                if (delta2 == 0) {
-                    if (segnaRandomIter.getSampleDouble(ipos2, jpos2, 0) == 0.0
-                            && flowRandomIter.getSampleDouble(ipos2, jpos2, 0) == dirIn[k][2]) {
-                        resolveFlat(ipos2, jpos2, cols, rows, pitRandomIter, multitcaRandomIter, segnaRandomIter, flowRandomIter,
-                                cp3RandomIter);
+    /**
+     * The multiple flow drainage graph.
+     *
+     * <p>Cells on divergent and planar sites (cp9 10 to 60) drain into all of the lower
+     * neighbours, proportionally to the elevation drop, and follow the flowdirection
+     * on flat areas. Cells on convergent sites (cp9 70 to 90) follow the flowdirection.</p>
+     */
+    private static class MultiFlowGraph implements FlowAccumulationEngine.AccumulationGraph {
+        private final FlowAccumulationEngine engine;
+        private final int cols;
+        private final int rows;
+        private final double[] pit;
+        private final byte[] type;
+        private final double[] multiTca;
+        private final double[] deltaSum;
+
+        MultiFlowGraph( FlowAccumulationEngine engine, int cols, int rows, double[] pit, byte[] type, double[] multiTca,
+                double[] deltaSum ) {
+            this.engine = engine;
+            this.cols = cols;
+            this.rows = rows;
+            this.pit = pit;
+            this.type = type;
+            this.multiTca = multiTca;
+            this.deltaSum = deltaSum;
+        }
+
+        @Override
+        public boolean isValid( int index ) {
+            return true;
+        }
+
+        @Override
+        public int getReceivers( int index, int[] receivers ) {
+            int count = 0;
+            if (type[index] == DIVERGENT) {
+                int col = index % cols;
+                int row = index / cols;
+                int receiver = engine.receiver(index);
+                for( int d = 0; d < 8; d++ ) {
+                    int n = neighbour(col, row, d);
+                    if (n < 0) {
+                        continue;
+                    }
+                    double delta = pit[index] - pit[n];
+                    if ((delta > 0.0 && pit[n] > 0.0) || (delta == 0.0 && n == receiver)) {
+                        receivers[count++] = n;
                     }
                 }
-                if (delta2 > 0.0 && pitRandomIter.getSampleDouble(ipos2, jpos2, 0) > 0.0) {
-                    sum2 += delta2;
+            } else if (type[index] == CONVERGENT) {
+                int receiver = engine.receiver(index);
+                if (receiver >= 0) {
+                    receivers[count++] = receiver;
                 }
             }
-            for( int k = 1; k <= 8; k++ ) {
-                int ipos2 = ipos + dir[k][0];
-                int jpos2 = jpos + dir[k][1];
-                delta2 = pitRandomIter.getSampleDouble(ipos, jpos, 0) - pitRandomIter.getSampleDouble(ipos2, jpos2, 0);
-                if (delta2 > 0.0 && pitRandomIter.getSampleDouble(ipos2, jpos2, 0) > 0.0) {
-                    multitcaRandomIter.setSample(ipos2, jpos2, 0, multitcaRandomIter.getSampleDouble(ipos2, jpos2, 0)
-                            + multitcaRandomIter.getSampleDouble(ipos, jpos, 0) * (delta2 / sum2));
-                } else if (delta2 == 0.0 && flowRandomIter.getSampleDouble(ipos, jpos, 0) == dir[k][2]) {
-                    multitcaRandomIter.setSample(ipos2, jpos2, 0, multitcaRandomIter.getSampleDouble(ipos2, jpos2, 0)
-                            + multitcaRandomIter.getSampleDouble(ipos, jpos, 0));
+            return count;
+        }
+
+        @Override
+        public void process( int index ) {
+            int col = index % cols;
+            int row = index / cols;
+            double value = 1.0;
+            for( int d = 0; d < 8; d++ ) {
+                int n = neighbour(col, row, d);
+                if (n >= 0) {
+                    value += multiTca[n] * fraction(n, index);
                 }
             }
-        } else if (cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 70 || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 80
-                || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 90) {
-
-            for( int k = 1; k <= 8; k++ ) {
-
-                int ipos2 = ipos + dir[k][0];
-                int jpos2 = jpos + dir[k][1];
-
-                delta2 = pitRandomIter.getSampleDouble(ipos, jpos, 0) - pitRandomIter.getSampleDouble(ipos2, jpos2, 0);
-                if (delta2 == 0) {
-                    if (segnaRandomIter.getSampleDouble(ipos2, jpos2, 0) == 0.0
-                            && flowRandomIter.getSampleDouble(ipos2, jpos2, 0) == dirIn[k][2]) {
-                        resolveFlat(ipos2, jpos2, cols, rows, pitRandomIter, multitcaRandomIter, segnaRandomIter, flowRandomIter,
-                                cp3RandomIter);
+            multiTca[index] = value;
+
+            if (type[index] == DIVERGENT) {
+                double sum = 0.0;
+                for( int d = 0; d < 8; d++ ) {
+                    int n = neighbour(col, row, d);
+                    if (n >= 0) {
+                        double delta = pit[index] - pit[n];
+                        if (delta > 0.0 && pit[n] > 0.0) {
+                            sum += delta;
+                        }
                     }
                 }
-
+                deltaSum[index] = sum;
             }
+        }
 
-            for( int k = 1; k <= 8; k++ ) {
-
-                int ipos2 = ipos + dir[k][0];
-                int jpos2 = jpos + dir[k][1];
-
-                if (flowRandomIter.getSampleDouble(ipos, jpos, 0) != 10
-                        && flowRandomIter.getSampleDouble(ipos, jpos, 0) == dir[k][2]) {
-
-                    multitcaRandomIter.setSample(ipos2, jpos2, 0, multitcaRandomIter.getSampleDouble(ipos2, jpos2, 0)
-                            + multitcaRandomIter.getSampleDouble(ipos, jpos, 0));
-                    break;
+        /**
+         * @return the fraction of the donor that drains into the receiver.
+         */
+        private double fraction( int donor, int receiver ) {
+            if (type[donor] == DIVERGENT) {
+                double delta = pit[donor] - pit[receiver];
+                if (delta > 0.0 && pit[receiver] > 0.0) {
+                    return delta / deltaSum[donor];
+                } else if (delta == 0.0 && engine.receiver(donor) == receiver) {
+                    return 1.0;
                 }
+            } else if (type[donor] == CONVERGENT && engine.receiver(donor) == receiver) {
+                return 1.0;
             }
+            return 0.0;
         }
 
-        return count;
+        private int neighbour( int col, int row, int direction ) {
+            int c = col + PriorityFloodEngine.DCOL[direction];
+            int r = row + PriorityFloodEngine.DROW[direction];
+            if (c < 0 || r < 0 || c >= cols || r >= rows) {
+                return -1;
+            }
+            return r * cols + c;
+        }
     }
 }
@@ -18,7 +18,6 @@
 package org.hortonmachine.hmachine.modules.geomorphology.tca;
 
 import static org.hortonmachine.gears.libs.modules.HMConstants.doubleNovalue;
-import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.*;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_AUTHORNAMES;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_DESCRIPTION;
@@ -36,9 +35,7 @@ import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.TreeSet;
 
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
@@ -51,7 +48,7 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.hortonmachine.gears.libs.modules.FlowNode;
+import org.hortonmachine.gears.libs.modules.FlowAccumulationEngine;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.utils.RegionMap;
@@ -126,134 +123,63 @@ public class OmsTca extends HMModel {
         int novalue = HMConstants.getIntNovalue(inFlow);
 
         RenderedImage flowRI = inFlow.getRenderedImage();
-        WritableRaster tcaWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, doubleNovalue);
-
         RandomIter flowIter = RandomIterFactory.create(flowRI, null);
-        WritableRandomIter tcaIter = RandomIterFactory.createWritable(tcaWR, null);
-
-        boolean loopError = false;
-
-        TreeSet<CheckPoint> passedPoints = null;
-        pm.beginTask("Calculating tca...", rows); //$NON-NLS-1$
-        for( int r = 0; r < rows; r++ ) {
-            for( int c = 0; c < cols; c++ ) {
-                FlowNode flowNode = new FlowNode(flowIter, cols, rows, c, r, novalue);
-                if (flowNode.isSource()) {
-                    double previousTcaValue = 0.0;
-
-                    if (doLoopCheck)
-                        passedPoints = new TreeSet<>();
-                    int index = 0;
-                    while( flowNode != null && flowNode.isValid() ) {
-                        int col = flowNode.col;
-                        int row = flowNode.row;
-
-                        if (doLoopCheck && !passedPoints.add(new CheckPoint(col, row, index++))) {
-                            // create a shapefile with the loop performed
-                            GridGeometry2D gridGeometry = inFlow.getGridGeometry();
-                            Iterator<CheckPoint> iterator = passedPoints.iterator();
-                            GeometryFactory gf = GeometryUtilities.gf();
-                            List<Coordinate> coordinates = new ArrayList<Coordinate>();
-                            while( iterator.hasNext() ) {
-                                CheckPoint checkPoint = (CheckPoint) iterator.next();
-                                DirectPosition world = gridGeometry
-                                        .gridToWorld(new GridCoordinates2D(checkPoint.col, checkPoint.row));
-                                double[] coord = world.getCoordinate();
-                                coordinates.add(new Coordinate(coord[0], coord[1]));
-                            }
-                            if (coordinates.size() == 1) {
-                                Coordinate first = coordinates.get(0);
-                                Coordinate dummy = new Coordinate(first.x + 0.000_000_1, first.y + 0.000_000_1);
-                                coordinates.add(dummy);
-                            }
-                            LineString lineString = gf.createLineString(coordinates.toArray(new Coordinate[0]));
-                            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(loopFT);
-                            Object[] values = new Object[]{lineString};
-                            builder.addAll(values);
-                            SimpleFeature feature = builder.buildFeature(null);
-                            ((DefaultFeatureCollection) outLoop).add(feature);
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(flowIter, cols, rows, novalue);
+        flowIter.done();
+        engine.setProgressMonitor(pm);
 
-                            pm.errorMessage(MessageFormat.format(
-                                    "The downstream sum passed twice through the same position, there might be an error in your flowdirections. col = {0} row = {1}",
-                                    col, row));
-                            loopError = true;
-                            break;
-                        }
+        double[] tca = engine.accumulate(null);
 
-                        double tmpTca = tcaIter.getSampleDouble(col, row, 0);
-                        double newTcaValue;
-                        /*
-                         * cumulate only if first time passing, else just propagate
-                         */
-                        if (isNovalue(tmpTca)) {
-                            tmpTca = 1.0;
-                            newTcaValue = tmpTca + previousTcaValue;
-                            previousTcaValue = newTcaValue;
-                        } else {
-                            newTcaValue = tmpTca + previousTcaValue;
-                        }
-                        tcaIter.setSample(col, row, 0, newTcaValue);
-                        flowNode = flowNode.goDownstream();
+        if (engine.getUnresolvedCount() > 0) {
+            List<int[]> loops = engine.getLoops();
+            for( int[] loop : loops ) {
+                pm.errorMessage(MessageFormat.format(
+                        "The downstream sum passed twice through the same position, there might be an error in your flowdirections. col = {0} row = {1}",
+                        loop[0] % cols, loop[0] / cols));
+            }
+            if (doLoopCheck) {
+                // create a featurecollection with the loops found
+                GridGeometry2D gridGeometry = inFlow.getGridGeometry();
+                GeometryFactory gf = GeometryUtilities.gf();
+                for( int[] loop : loops ) {
+                    List<Coordinate> coordinates = new ArrayList<Coordinate>();
+                    for( int index : loop ) {
+                        DirectPosition world = gridGeometry.gridToWorld(new GridCoordinates2D(index % cols, index / cols));
+                        double[] coord = world.getCoordinate();
+                        coordinates.add(new Coordinate(coord[0], coord[1]));
                     }
-                    if (loopError) {
-                        break;
+                    if (coordinates.size() == 1) {
+                        Coordinate first = coordinates.get(0);
+                        Coordinate dummy = new Coordinate(first.x + 0.000_000_1, first.y + 0.000_000_1);
+                        coordinates.add(dummy);
                     }
+                    LineString lineString = gf.createLineString(coordinates.toArray(new Coordinate[0]));
+                    SimpleFeatureBuilder builder = new SimpleFeatureBuilder(loopFT);
+                    Object[] values = new Object[]{lineString};
+                    builder.addAll(values);
+                    SimpleFeature feature = builder.buildFeature(null);
+                    ((DefaultFeatureCollection) outLoop).add(feature);
                 }
+                outTca = CoverageUtilities.buildDummyCoverage();
+                return;
             }
-            if (loopError) {
-                break;
-            }
-            pm.worked(1);
-        }
-        pm.done();
-        flowIter.done();
-        tcaIter.done();
-        if (loopError) {
-            outTca = CoverageUtilities.buildDummyCoverage();
-        } else {
-            outLoop = null;
-            outTca = CoverageUtilities.buildCoverageWithNovalue("tca", tcaWR, regionMap, inFlow.getCoordinateReferenceSystem(),
-                    doubleNovalue);
         }
-    }
-
-    /**
-     * Class to check if the downstream trip gets into a loop.
-     * 
-     * @author Andrea Antonello (www.hydrologis.com)
-     */
-    public class CheckPoint implements Comparable<CheckPoint> {
-        public int col;
-        public int row;
-        public int index;
-
-        public CheckPoint( int col, int row, int index ) {
-            this.col = col;
-            this.row = row;
-            this.index = index;
-        }
-
-        public int compareTo( CheckPoint o ) {
-            /*
-             * if row and col are equal, return 0, which will anyways trigger and exception
-             */
-            if (col == o.col && row == o.row) {
-                return 0;
-            }
 
-            /*
-             * in the case of non equal row/col, we need to make the normal sort
-             */
-            if (index < o.index) {
-                return -1;
-            } else if (index > o.index) {
-                return 1;
-            } else {
-                return 0;
+        WritableRaster tcaWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, doubleNovalue);
+        WritableRandomIter tcaIter = RandomIterFactory.createWritable(tcaWR, null);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double value = tca[engine.index(c, r)];
+                if (!Double.isNaN(value)) {
+                    tcaIter.setSample(c, r, 0, value);
+                }
             }
-
         }
+        tcaIter.done();
 
+        outLoop = null;
+        outTca = CoverageUtilities.buildCoverageWithNovalue("tca", tcaWR, regionMap, inFlow.getCoordinateReferenceSystem(),
+                doubleNovalue);
     }
 
 }
\ No newline at end of file
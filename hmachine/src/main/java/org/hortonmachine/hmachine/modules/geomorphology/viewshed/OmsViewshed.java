@@ -20,10 +20,13 @@ package org.hortonmachine.hmachine.modules.geomorphology.viewshed;
 import static org.hortonmachine.gears.libs.modules.HMConstants.GEOMORPHOLOGY;
 
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
 
 import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridGeometry2D;
@@ -79,6 +82,11 @@ public class OmsViewshed extends HMModel {
     @In
     public double pHeight = 2.0;
 
+    @Description(DESCR_pMaxRadius)
+    @Unit("m")
+    @In
+    public double pMaxRadius = -1;
+
     @Description(DESCR_outViewshed)
     @Out
     public GridCoverage2D outViewshed = null;
@@ -90,6 +98,7 @@ public class OmsViewshed extends HMModel {
 
     public static final String DOC = "Calculate a viewshed raster, with values based on the visibility by the supplied view points.";
     public static final String DESCR_outViewshed = "Output viewshed raster.";
+    public static final String DESCR_pMaxRadius = "Optional maximum visibility distance from the view points (no limit if <= 0).";
     public static final String DESCR_pHeight = "Default height above the elevation model to use if no station's height field is available.";
     public static final String DESCR_pField = "Name of the field containing the station's height above the elevation model";
     public static final String DESCR_inViewPoints = "Input viewpoints collection.";
@@ -116,449 +125,129 @@ public class OmsViewshed extends HMModel {
 
         double novalue = HMConstants.getNovalue(inRaster);
 
+        double[] elevation = new double[cols * rows];
         RandomIter inIter = CoverageUtilities.getRandomIterator(inRaster);
-
-        WritableRaster outViewshedWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, novalue);
-        WritableRandomIter outViewshedIter = CoverageUtilities.getWritableRandomIterator(outViewshedWR);
-        WritableRaster tmpViewshedWR = null;
-        WritableRandomIter tmpViewshedIter = null;
-        if (singleViewpointProcessListener != null) {
-            tmpViewshedWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, novalue);
-            tmpViewshedIter = CoverageUtilities.getWritableRandomIterator(tmpViewshedWR);
-        }
-
-        WritableRaster viewAngleWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, novalue);
-        WritableRandomIter viewAngleIter = CoverageUtilities.getWritableRandomIterator(viewAngleWR);
-        WritableRaster maxViewAngleWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, novalue);
-        WritableRandomIter maxViewAngleIter = CoverageUtilities.getWritableRandomIterator(maxViewAngleWR);
-
-        List<SimpleFeature> viewPoints = FeatureUtilities.featureCollectionToList(inViewPoints);
-
-        GridGeometry2D gg = inRaster.getGridGeometry();
         try {
-            boolean isFirst = true;
-            pm.beginTask("Processing viewpoints...", viewPoints.size());
-            for( SimpleFeature feature : viewPoints ) {
-                Geometry geom = (Geometry) feature.getDefaultGeometry();
-                Coordinate viewPoint3D = geom.getCoordinate();
-                int[] stationColRow = CoverageUtilities.colRowFromCoordinate(viewPoint3D, gg, null);
-                int stationCol = stationColRow[0];
-                int stationRow = stationColRow[1];
-                if (stationCol - 1 < 0 || stationCol + 1 >= cols || stationRow - 1 < 0 || stationRow + 1 >= rows) {
-                    pm.errorMessage("Ignoring viewpoint on border.");
-                    continue;
-                }
-
-                double tmpZ = pHeight;
-                if (pField != null) {
-                    Object fieldObj = feature.getAttribute(pField);
-                    if (fieldObj instanceof Number) {
-                        Number elevNum = (Number) fieldObj;
-                        tmpZ = elevNum.doubleValue();
-                    } else if (isFirst) {
-                        pm.errorMessage(
-                                "Using default height value " + pHeight + ", since field: " + pField + " does not exist.");
-                    }
-                }
-                viewPoint3D.z = tmpZ;
-
-                if (singleViewpointProcessListener != null) {
-                    if (!isFirst) {
-                        // in this case clear the raster to hold one viewpoint result at a time
-                        for( int row = 0; row < rows; row++ ) {
-                            for( int col = 0; col < cols; col++ ) {
-                                tmpViewshedIter.setSample(col, row, 0, novalue);
-                            }
-                        }
-                    }
-                    calculateViewshed(viewPoint3D, stationColRow, cols, rows, novalue, inIter, tmpViewshedIter, viewAngleIter,
-                            maxViewAngleIter, gg);
-                    singleViewpointProcessListener.processViewPoint(viewPoint3D, tmpViewshedWR);
-                    for( int r = 0; r < rows; r++ ) {
-                        for( int c = 0; c < cols; c++ ) {
-                            double tmpValue = tmpViewshedIter.getSampleDouble(c, r, 0);
-                            double finalValue = outViewshedIter.getSampleDouble(c, r, 0);
-                            if (HMConstants.isNovalue(tmpValue, novalue)) {
-                                tmpValue = 0;
-                            }
-                            if (HMConstants.isNovalue(finalValue, novalue)) {
-                                finalValue = 0;
-                            }
-                            outViewshedIter.setSample(c, r, 0, tmpValue + finalValue);
-                        }
-                    }
-                } else {
-                    calculateViewshed(viewPoint3D, stationColRow, cols, rows, novalue, inIter, outViewshedIter, viewAngleIter,
-                            maxViewAngleIter, gg);
+            for( int row = 0; row < rows; row++ ) {
+                for( int col = 0; col < cols; col++ ) {
+                    elevation[row * cols + col] = inIter.getSampleDouble(col, row, 0);
                 }
-
-                isFirst = false;
             }
-            pm.done();
-
         } finally {
             inIter.done();
-            viewAngleIter.done();
-            maxViewAngleIter.done();
-            if (tmpViewshedIter != null)
-                tmpViewshedIter.done();
-            outViewshedIter.done();
         }
 
-        outViewshed = CoverageUtilities.buildCoverageWithNovalue(KEYWORDS, outViewshedWR, regionMap,
-                inRaster.getCoordinateReferenceSystem(), novalue);
-//        dumpRaster(CoverageUtilities.buildCoverageWithNovalue("viewangle", viewAngleWR, regionMap,
-//                inRaster.getCoordinateReferenceSystem(), novalue), "/home/hydrologis/data/DTM_calvello/viewangle.asc");
-//        dumpRaster(
-//                CoverageUtilities.buildCoverageWithNovalue("maxviewangle", maxViewAngleWR, regionMap,
-//                        inRaster.getCoordinateReferenceSystem(), novalue),
-//                "/home/hydrologis/data/DTM_calvello/viewangle_max.asc");
-    }
-
-    private void calculateViewshed( Coordinate viewPoint3D, int[] stationColRow, int cols, int rows, double novalue,
-            RandomIter inIter, WritableRandomIter outViewshedIter, WritableRandomIter viewAngleIter,
-            WritableRandomIter maxViewAngleIter, GridGeometry2D gg ) {
-        double value = CoverageUtilities.getValue(inRaster, viewPoint3D.x, viewPoint3D.y);
-        if (!HMConstants.isNovalue(value, novalue)) {
-            pm.message("Working on viewpoint: " + viewPoint3D);
-            double stationX = viewPoint3D.x;
-            double stationY = viewPoint3D.y;
-            double stationZ = value + viewPoint3D.z;
+        List<SimpleFeature> viewPoints = FeatureUtilities.featureCollectionToList(inViewPoints);
 
+        GridGeometry2D gg = inRaster.getGridGeometry();
+        List<Coordinate> stations = new ArrayList<>();
+        List<Double> stationsElevation = new ArrayList<>();
+        boolean isFirst = true;
+        for( SimpleFeature feature : viewPoints ) {
+            Geometry geom = (Geometry) feature.getDefaultGeometry();
+            Coordinate viewPoint3D = geom.getCoordinate();
+            int[] stationColRow = CoverageUtilities.colRowFromCoordinate(viewPoint3D, gg, null);
             int stationCol = stationColRow[0];
             int stationRow = stationColRow[1];
-
-            for( int row = 0; row < rows; row++ ) {
-                for( int col = 0; col < cols; col++ ) {
-                    double z = inIter.getSampleDouble(col, row, 0);
-                    if (!HMConstants.isNovalue(z, novalue)) {
-                        Coordinate worldC = CoverageUtilities.coordinateFromColRow(col, row, gg);
-                        double x = worldC.x;
-                        double y = worldC.y;
-                        double dZ = z - stationZ;
-                        double dist = Math.sqrt((x - stationX) * (x - stationX) + (y - stationY) * (y - stationY));
-                        if (dist != 0.0) {
-                            double viewAngleValue = dZ / dist * 1000;
-                            viewAngleIter.setSample(col, row, 0, viewAngleValue);
-                        }
-                    } else {
-                        viewAngleIter.setSample(col, row, 0, novalue);
-                    }
-                }
+            if (stationCol - 1 < 0 || stationCol + 1 >= cols || stationRow - 1 < 0 || stationRow + 1 >= rows) {
+                pm.errorMessage("Ignoring viewpoint on border.");
+                continue;
             }
 
-            // perform the simple scan lines.
-            for( int row = stationRow - 1; row <= stationRow + 1; row++ ) {
-                for( int col = stationCol - 1; col <= stationCol + 1; col++ ) {
-                    maxViewAngleIter.setSample(col, row, 0, viewAngleIter.getSampleDouble(col, row, 0));
+            double tmpZ = pHeight;
+            if (pField != null) {
+                Object fieldObj = feature.getAttribute(pField);
+                if (fieldObj instanceof Number) {
+                    Number elevNum = (Number) fieldObj;
+                    tmpZ = elevNum.doubleValue();
+                } else if (isFirst) {
+                    pm.errorMessage("Using default height value " + pHeight + ", since field: " + pField + " does not exist.");
                 }
             }
+            viewPoint3D.z = tmpZ;
+            isFirst = false;
 
-            double maxVA = viewAngleIter.getSampleDouble(stationCol, stationRow - 1, 0);
-            for( int row = stationRow - 2; row >= 0; row-- ) {
-                double z = viewAngleIter.getSampleDouble(stationCol, row, 0);
-                if (!HMConstants.isNovalue(z, novalue)) {
-                    if (z > maxVA) {
-                        maxVA = z;
-                    }
-                    maxViewAngleIter.setSample(stationCol, row, 0, maxVA);
-                }
-            }
-
-            maxVA = viewAngleIter.getSampleDouble(stationCol, stationRow + 1, 0);
-            for( int row = stationRow + 2; row < rows; row++ ) {
-                double z = viewAngleIter.getSampleDouble(stationCol, row, 0);
-                if (!HMConstants.isNovalue(z, novalue)) {
-                    if (z > maxVA) {
-                        maxVA = z;
-                    }
-                    maxViewAngleIter.setSample(stationCol, row, 0, maxVA);
-                }
-            }
-
-            maxVA = viewAngleIter.getSampleDouble(stationCol + 1, stationRow, 0);
-            for( int col = stationCol + 2; col < cols - 1; col++ ) {
-                double z = viewAngleIter.getSampleDouble(col, stationRow, 0);
-                if (!HMConstants.isNovalue(z, novalue)) {
-                    if (z > maxVA) {
-                        maxVA = z;
-                    }
-                    maxViewAngleIter.setSample(col, stationRow, 0, maxVA);
-                }
-            }
-
-            maxVA = viewAngleIter.getSampleDouble(stationCol - 1, stationRow, 0);
-            for( int col = stationCol - 2; col >= 0; col-- ) {
-                double z = viewAngleIter.getSampleDouble(col, stationRow, 0);
-                if (!HMConstants.isNovalue(z, novalue)) {
-                    if (z > maxVA) {
-                        maxVA = z;
-                    }
-                    maxViewAngleIter.setSample(col, stationRow, 0, maxVA);
-                }
-            }
-
-            // solve the first triangular facet
-            int vertCount = 0;
-            for( int row = stationRow - 2; row >= 0; row-- ) {
-                vertCount++;
-                int horizCount = 0;
-                for( int col = stationCol + 1; col <= stationCol + vertCount; col++ ) {
-                    if (col >= 0 && col < cols) {
-                        double va = viewAngleIter.getSampleDouble(col, row, 0);
-                        if (!HMConstants.isNovalue(va, novalue)) {
-                            horizCount++;
-                            double tva;
-                            if (horizCount != vertCount) {
-                                double t1 = maxViewAngleIter.getSampleDouble(col - 1, row + 1, 0);
-                                double t2 = maxViewAngleIter.getSampleDouble(col, row + 1, 0);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngleIter.getSampleDouble(col - 1, row + 1, 0);
-                            }
-                            if (tva > va) {
-                                maxViewAngleIter.setSample(col, row, 0, tva);
-                            } else {
-                                maxViewAngleIter.setSample(col, row, 0, va);
-                            }
-                        }
-                    } else {
-                        break;
-                    }
-                }
-            }
-
-            // solve the second triangular facet
-            vertCount = 1;
-            for( int row = stationRow - 2; row >= 0; row-- ) {
-                vertCount++;
-                int horizCount = 0;
-                for( int col = stationCol - 1; col >= stationCol - vertCount; col-- ) {
-                    if (col >= 0 && col < cols) {
-                        double va = viewAngleIter.getSampleDouble(col, row, 0);
-                        if (!HMConstants.isNovalue(va, novalue)) {
-                            horizCount++;
-                            double tva;
-                            if (horizCount != vertCount) {
-                                double t1 = maxViewAngleIter.getSampleDouble(col + 1, row + 1, 0);
-                                double t2 = maxViewAngleIter.getSampleDouble(col, row + 1, 0);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngleIter.getSampleDouble(col + 1, row + 1, 0);
-                            }
-                            if (tva > va) {
-                                maxViewAngleIter.setSample(col, row, 0, tva);
-                            } else {
-                                maxViewAngleIter.setSample(col, row, 0, va);
-                            }
-                        }
-                    } else {
-                        break;
-                    }
-                }
-            }
-
-            // solve the third triangular facet
-            vertCount = 1;
-            for( int row = stationRow + 2; row < rows; row++ ) {
-                vertCount++;
-                int horizCount = 0;
-                for( int col = stationCol - 1; col >= stationCol - vertCount; col-- ) {
-                    if (col >= 0 && col < cols) {
-                        double va = viewAngleIter.getSampleDouble(col, row, 0);
-                        if (!HMConstants.isNovalue(va, novalue)) {
-                            horizCount++;
-                            double tva;
-                            if (horizCount != vertCount) {
-                                double t1 = maxViewAngleIter.getSampleDouble(col + 1, row - 1, 0);
-                                double t2 = maxViewAngleIter.getSampleDouble(col, row - 1, 0);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngleIter.getSampleDouble(col + 1, row - 1, 0);
-                            }
-                            if (tva > va) {
-                                maxViewAngleIter.setSample(col, row, 0, tva);
-                            } else {
-                                maxViewAngleIter.setSample(col, row, 0, va);
-                            }
-                        }
-                    } else {
-                        break;
-                    }
-                }
+            double value = elevation[stationRow * cols + stationCol];
+            if (HMConstants.isNovalue(value, novalue)) {
+                pm.errorMessage("Ignoring viewpoint " + viewPoint3D + " since no elevation value available.");
+                continue;
             }
+            stations.add(viewPoint3D);
+            stationsElevation.add(value);
+        }
 
-            // solve the fourth triangular facet
-            vertCount = 1;
-            for( int row = stationRow + 2; row < rows; row++ ) {
-                vertCount++;
-                int horizCount = 0;
-                for( int col = stationCol + 1; col <= stationCol + vertCount; col++ ) {
-                    if (col >= 0 && col < cols) {
-                        double va = viewAngleIter.getSampleDouble(col, row, 0);
-                        if (!HMConstants.isNovalue(va, novalue)) {
-                            horizCount++;
-                            double tva;
-                            if (horizCount != vertCount) {
-                                double t1 = maxViewAngleIter.getSampleDouble(col - 1, row - 1, 0);
-                                double t2 = maxViewAngleIter.getSampleDouble(col, row - 1, 0);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngleIter.getSampleDouble(col - 1, row - 1, 0);
-                            }
-                            if (tva > va) {
-                                maxViewAngleIter.setSample(col, row, 0, tva);
-                            } else {
-                                maxViewAngleIter.setSample(col, row, 0, va);
-                            }
-                        }
-                    } else {
-                        break;
-                    }
-                }
+        // the kernels share the elevation and keep their own scratch buffers
+        ThreadLocal<ViewshedKernel> kernels = ThreadLocal.withInitial(() -> new ViewshedKernel(elevation, cols, rows,
+                regionMap.getXres(), regionMap.getYres(), regionMap.getWest(), regionMap.getNorth(), novalue));
+        ThreadLocal<ViewpointRaster> viewpointRasters = ThreadLocal
+                .withInitial(() -> new ViewpointRaster(CoverageUtilities.createWritableRaster(cols, rows, null, null, novalue), novalue));
+        AtomicIntegerArray visibleCounts = new AtomicIntegerArray(cols * rows);
+
+        pm.beginTask("Processing viewpoints...", stations.size());
+        IntStream.range(0, stations.size()).parallel().forEach(i -> {
+            Coordinate viewPoint3D = stations.get(i);
+            double stationZ = stationsElevation.get(i) + viewPoint3D.z;
+            ViewshedKernel kernel = kernels.get();
+            if (singleViewpointProcessListener == null) {
+                kernel.compute(viewPoint3D.x, viewPoint3D.y, stationZ, pMaxRadius,
+                        ( col, row ) -> visibleCounts.incrementAndGet(row * cols + col));
+            } else {
+                ViewpointRaster viewpointRaster = viewpointRasters.get();
+                kernel.compute(viewPoint3D.x, viewPoint3D.y, stationZ, pMaxRadius, ( col, row ) -> {
+                    visibleCounts.incrementAndGet(row * cols + col);
+                    viewpointRaster.setVisible(col, row);
+                });
+                synchronized (singleViewpointProcessListener) {
+                    singleViewpointProcessListener.processViewPoint(viewPoint3D, viewpointRaster.raster);
+                }
+                viewpointRaster.reset();
             }
+            pm.worked(1);
+        });
+        pm.done();
 
-            // solve the fifth triangular facet
-            vertCount = 1;
-            for( int col = stationCol + 2; col < cols; col++ ) {
-                vertCount++;
-                int horizCount = 0;
-                for( int row = stationRow - 1; row >= stationRow - vertCount; row-- ) {
-                    if (row >= 0 && row < rows) {
-                        double va = viewAngleIter.getSampleDouble(col, row, 0);
-                        if (!HMConstants.isNovalue(va, novalue)) {
-                            horizCount++;
-                            double tva;
-                            if (horizCount != vertCount) {
-                                double t1 = maxViewAngleIter.getSampleDouble(col - 1, row + 1, 0);
-                                double t2 = maxViewAngleIter.getSampleDouble(col - 1, row, 0);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngleIter.getSampleDouble(col - 1, row + 1, 0);
-                            }
-                            if (tva > va) {
-                                maxViewAngleIter.setSample(col, row, 0, tva);
-                            } else {
-                                maxViewAngleIter.setSample(col, row, 0, va);
-                            }
-                        }
-                    } else {
-                        break;
-                    }
-                }
+        WritableRaster outViewshedWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, novalue);
+        // with the single viewpoint listener the non visible cells have always been 0
+        double notVisible = singleViewpointProcessListener != null ? 0.0 : novalue;
+        for( int row = 0; row < rows; row++ ) {
+            for( int col = 0; col < cols; col++ ) {
+                int count = visibleCounts.get(row * cols + col);
+                outViewshedWR.setSample(col, row, 0, count > 0 ? count : notVisible);
             }
+        }
 
-            // solve the sixth triangular facet
-            vertCount = 1;
-            for( int col = stationCol + 2; col < cols; col++ ) {
-                vertCount++;
-                int horizCount = 0;
-                for( int row = stationRow + 1; row <= stationRow + vertCount; row++ ) {
-                    if (row >= 0 && row < rows) {
-                        double va = viewAngleIter.getSampleDouble(col, row, 0);
-                        if (!HMConstants.isNovalue(va, novalue)) {
-                            horizCount++;
-                            double tva;
-                            if (horizCount != vertCount) {
-                                double t1 = maxViewAngleIter.getSampleDouble(col - 1, row - 1, 0);
-                                double t2 = maxViewAngleIter.getSampleDouble(col - 1, row, 0);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngleIter.getSampleDouble(col - 1, row - 1, 0);
-                            }
-                            if (tva > va) {
-                                maxViewAngleIter.setSample(col, row, 0, tva);
-                            } else {
-                                maxViewAngleIter.setSample(col, row, 0, va);
-                            }
-                        }
-                    } else {
-                        break;
-                    }
-                }
-            }
+        outViewshed = CoverageUtilities.buildCoverageWithNovalue(KEYWORDS, outViewshedWR, regionMap,
+                inRaster.getCoordinateReferenceSystem(), novalue);
+    }
 
-            // solve the seventh triangular facet
-            vertCount = 1;
-            for( int col = stationCol - 2; col >= 0; col-- ) {
-                vertCount++;
-                int horizCount = 0;
-                for( int row = stationRow + 1; row <= stationRow + vertCount; row++ ) {
-                    if (row >= 0 && row < rows) {
-                        double va = viewAngleIter.getSampleDouble(col, row, 0);
-                        if (!HMConstants.isNovalue(va, novalue)) {
-                            horizCount++;
-                            double tva;
-                            if (horizCount != vertCount) {
-                                double t1 = maxViewAngleIter.getSampleDouble(col + 1, row - 1, 0);
-                                double t2 = maxViewAngleIter.getSampleDouble(col + 1, row, 0);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngleIter.getSampleDouble(col + 1, row - 1, 0);
-                            }
-                            if (tva > va) {
-                                maxViewAngleIter.setSample(col, row, 0, tva);
-                            } else {
-                                maxViewAngleIter.setSample(col, row, 0, va);
-                            }
-                        }
-                    } else {
-                        break;
-                    }
-                }
-            }
+    /**
+     * A per thread viewshed raster of a single viewpoint, cleared through the cells set.
+     */
+    private static class ViewpointRaster {
+        final WritableRaster raster;
+        private final double novalue;
+        private int[] visibleCells = new int[1024];
+        private int visibleCount = 0;
+
+        ViewpointRaster( WritableRaster raster, double novalue ) {
+            this.raster = raster;
+            this.novalue = novalue;
+        }
 
-            // solve the eight triangular facet
-            vertCount = 1;
-            for( int col = stationCol - 2; col >= 0; col-- ) {
-                vertCount++;
-                int horizCount = 0;
-                for( int row = stationRow - 1; row >= stationRow - vertCount; row-- ) {
-                    if (row >= 0 && row < rows) {
-                        double va = viewAngleIter.getSampleDouble(col, row, 0);
-                        if (!HMConstants.isNovalue(va, novalue)) {
-                            horizCount++;
-                            double tva;
-                            if (horizCount != vertCount) {
-                                double t1 = maxViewAngleIter.getSampleDouble(col + 1, row + 1, 0);
-                                double t2 = maxViewAngleIter.getSampleDouble(col + 1, row, 0);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngleIter.getSampleDouble(col + 1, row + 1, 0);
-                            }
-                            if (tva > va) {
-                                maxViewAngleIter.setSample(col, row, 0, tva);
-                            } else {
-                                maxViewAngleIter.setSample(col, row, 0, va);
-                            }
-                        }
-                    } else {
-                        break;
-                    }
-                }
+        void setVisible( int col, int row ) {
+            raster.setSample(col, row, 0, 1.0);
+            if (visibleCount + 2 > visibleCells.length) {
+                visibleCells = Arrays.copyOf(visibleCells, visibleCells.length * 2);
             }
+            visibleCells[visibleCount++] = col;
+            visibleCells[visibleCount++] = row;
+        }
 
-            for( int row = 0; row < rows; row++ ) {
-                for( int col = 0; col < cols; col++ ) {
-                    double viewAngle = viewAngleIter.getSampleDouble(col, row, 0);
-                    double maxViewAngle = maxViewAngleIter.getSampleDouble(col, row, 0);
-
-                    if (maxViewAngle <= viewAngle && !HMConstants.isNovalue(viewAngle, novalue)) {
-                        double viewshed = outViewshedIter.getSampleDouble(col, row, 0);
-                        if (HMConstants.isNovalue(viewshed, novalue)) {
-                            viewshed = 0;
-                        }
-                        outViewshedIter.setSample(col, row, 0, viewshed + 1);
-//                            } else if (HMConstants.isNovalue(viewAngle, novalue)) {
-//                                outViewshedIter.setSample(col, row, 0, novalue);
-                    }
-                }
+        void reset() {
+            for( int i = 0; i < visibleCount; i += 2 ) {
+                raster.setSample(visibleCells[i], visibleCells[i + 1], 0, novalue);
             }
-
-            pm.worked(1);
-        } else {
-            pm.errorMessage("Ignoring viewpoint " + viewPoint3D + " since no elevation value available.");
-            pm.worked(1);
+            visibleCount = 0;
         }
     }
 
@@ -0,0 +1,291 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.modules.geomorphology.viewshed;
+
+import org.hortonmachine.gears.libs.modules.HMConstants;
+
+/**
+ * A sweep line of sight kernel for the viewshed of a single station.
+ *
+ * <p>The raster is swept in rings of growing distance from the station, split in eight
+ * octants (XDraw). The horizon angle of every cell is interpolated from the two cells
+ * of the previous ring crossed by the line of sight, so every cell is visited once.
+ * An optional maximum radius crops the swept window.</p>
+ *
+ * <p>The elevation array is shared and read only, the kernel keeps scratch buffers, so
+ * a kernel instance must be used by one thread at the time.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ViewshedKernel {
+
+    /**
+     * Consumer of the cells visible from a station.
+     */
+    public static interface VisibleCellConsumer {
+        void visible( int col, int row );
+    }
+
+    // major axis is col, sign of major, sign of minor
+    private static final int[][] OCTANTS = {//
+            {1, 1, 1}, {1, 1, -1}, {1, -1, 1}, {1, -1, -1}, //
+            {0, 1, 1}, {0, 1, -1}, {0, -1, 1}, {0, -1, -1}};
+
+    private final double[] elevation;
+    private final int cols;
+    private final int rows;
+    private final double xRes;
+    private final double yRes;
+    private final double west;
+    private final double north;
+    private final double novalue;
+
+    private double[] horizon = new double[0];
+
+    /**
+     * @param elevation the elevation values, row major.
+     * @param cols the columns of the raster.
+     * @param rows the rows of the raster.
+     * @param xRes the x resolution.
+     * @param yRes the y resolution.
+     * @param west the western bound.
+     * @param north the northern bound.
+     * @param novalue the novalue of the elevation.
+     */
+    public ViewshedKernel( double[] elevation, int cols, int rows, double xRes, double yRes, double west, double north,
+            double novalue ) {
+        this.elevation = elevation;
+        this.cols = cols;
+        this.rows = rows;
+        this.xRes = xRes;
+        this.yRes = yRes;
+        this.west = west;
+        this.north = north;
+        this.novalue = novalue;
+    }
+
+    /**
+     * Calculate the cells visible from a station.
+     *
+     * @param stationX the station easting.
+     * @param stationY the station northing.
+     * @param stationZ the station elevation, including its height above the ground.
+     * @param maxRadius the maximum visibility distance, a value <= 0 for no limit.
+     * @param consumer the consumer of the visible cells, the station cell included.
+     */
+    public void compute( double stationX, double stationY, double stationZ, double maxRadius, VisibleCellConsumer consumer ) {
+        int stationCol = (int) Math.floor((stationX - west) / xRes);
+        int stationRow = (int) Math.floor((north - stationY) / yRes);
+        if (stationCol < 0 || stationCol >= cols || stationRow < 0 || stationRow >= rows) {
+            return;
+        }
+
+        int minCol = 0;
+        int maxCol = cols - 1;
+        int minRow = 0;
+        int maxRow = rows - 1;
+        double maxRadius2 = Double.POSITIVE_INFINITY;
+        if (maxRadius > 0) {
+            int colRadius = (int) Math.ceil(maxRadius / xRes);
+            int rowRadius = (int) Math.ceil(maxRadius / yRes);
+            minCol = Math.max(minCol, stationCol - colRadius);
+            maxCol = Math.min(maxCol, stationCol + colRadius);
+            minRow = Math.max(minRow, stationRow - rowRadius);
+            maxRow = Math.min(maxRow, stationRow + rowRadius);
+            maxRadius2 = maxRadius * maxRadius;
+        }
+        Window w = new Window(minCol, maxCol, minRow, maxRow, stationCol, stationRow, stationX, stationY, stationZ, maxRadius2);
+        int size = w.width * (maxRow - minRow + 1);
+        if (horizon.length < size) {
+            horizon = new double[size];
+        }
+
+        consumer.visible(stationCol, stationRow);
+        w.setHorizon(stationCol, stationRow, Double.NEGATIVE_INFINITY);
+
+        // the ring around the station sees everything
+        for( int row = stationRow - 1; row <= stationRow + 1; row++ ) {
+            for( int col = stationCol - 1; col <= stationCol + 1; col++ ) {
+                if (w.contains(col, row) && (col != stationCol || row != stationRow)) {
+                    double angle = w.viewAngle(col, row);
+                    w.setHorizon(col, row, Double.isNaN(angle) ? Double.NEGATIVE_INFINITY : angle);
+                    if (!Double.isNaN(angle) && w.inRadius(col, row)) {
+                        consumer.visible(col, row);
+                    }
+                }
+            }
+        }
+
+        // the axes, shared by two octants
+        sweepLine(w, 1, 0, consumer);
+        sweepLine(w, -1, 0, consumer);
+        sweepLine(w, 0, 1, consumer);
+        sweepLine(w, 0, -1, consumer);
+
+        int maxDistance = Math.max(Math.max(stationCol - minCol, maxCol - stationCol),
+                Math.max(stationRow - minRow, maxRow - stationRow));
+        for( int[] octant : OCTANTS ) {
+            boolean majorIsCol = octant[0] == 1;
+            int majorSign = octant[1];
+            int minorSign = octant[2];
+            // the diagonals are shared too, they are left to the octants of the column major
+            int diagonalOffset = majorIsCol ? 0 : 1;
+            for( int k = 2; k <= maxDistance; k++ ) {
+                boolean anyInside = false;
+                for( int m = 1; m <= k - diagonalOffset; m++ ) {
+                    int dCol = majorIsCol ? majorSign * k : minorSign * m;
+                    int dRow = majorIsCol ? minorSign * m : majorSign * k;
+                    int col = stationCol + dCol;
+                    int row = stationRow + dRow;
+                    if (!w.contains(col, row)) {
+                        // the major coordinate is fixed in the ring, so the rest is outside too
+                        break;
+                    }
+                    anyInside = true;
+
+                    // the line of sight crosses the previous ring between the straight and diagonal neighbours
+                    double straight;
+                    double diagonal;
+                    if (majorIsCol) {
+                        straight = w.getHorizon(col - majorSign, row);
+                        diagonal = w.getHorizon(col - majorSign, row - minorSign);
+                    } else {
+                        straight = w.getHorizon(col, row - majorSign);
+                        diagonal = w.getHorizon(col - minorSign, row - majorSign);
+                    }
+                    double cellHorizon;
+                    if (m == k) {
+                        cellHorizon = diagonal;
+                    } else {
+                        cellHorizon = interpolate(straight, diagonal, (double) m / k);
+                    }
+                    visit(w, col, row, cellHorizon, consumer);
+                }
+                if (!anyInside) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void sweepLine( Window w, int colStep, int rowStep, VisibleCellConsumer consumer ) {
+        int col = w.stationCol + 2 * colStep;
+        int row = w.stationRow + 2 * rowStep;
+        while( w.contains(col, row) ) {
+            visit(w, col, row, w.getHorizon(col - colStep, row - rowStep), consumer);
+            col += colStep;
+            row += rowStep;
+        }
+    }
+
+    private void visit( Window w, int col, int row, double cellHorizon, VisibleCellConsumer consumer ) {
+        double angle = w.viewAngle(col, row);
+        if (Double.isNaN(angle)) {
+            // the horizon passes through novalues
+            w.setHorizon(col, row, cellHorizon);
+            return;
+        }
+        if (angle >= cellHorizon) {
+            w.setHorizon(col, row, angle);
+            if (w.inRadius(col, row)) {
+                consumer.visible(col, row);
+            }
+        } else {
+            w.setHorizon(col, row, cellHorizon);
+        }
+    }
+
+    private static double interpolate( double straight, double diagonal, double weight ) {
+        if (straight == Double.NEGATIVE_INFINITY) {
+            return diagonal;
+        }
+        if (diagonal == Double.NEGATIVE_INFINITY) {
+            return straight;
+        }
+        return straight + weight * (diagonal - straight);
+    }
+
+    /**
+     * The cropped area swept for a station.
+     */
+    private class Window {
+        final int minCol;
+        final int maxCol;
+        final int minRow;
+        final int maxRow;
+        final int width;
+        final int stationCol;
+        final int stationRow;
+        final double stationX;
+        final double stationY;
+        final double stationZ;
+        final double maxRadius2;
+
+        Window( int minCol, int maxCol, int minRow, int maxRow, int stationCol, int stationRow, double stationX,
+                double stationY, double stationZ, double maxRadius2 ) {
+            this.minCol = minCol;
+            this.maxCol = maxCol;
+            this.minRow = minRow;
+            this.maxRow = maxRow;
+            this.width = maxCol - minCol + 1;
+            this.stationCol = stationCol;
+            this.stationRow = stationRow;
+            this.stationX = stationX;
+            this.stationY = stationY;
+            this.stationZ = stationZ;
+            this.maxRadius2 = maxRadius2;
+        }
+
+        boolean contains( int col, int row ) {
+            return col >= minCol && col <= maxCol && row >= minRow && row <= maxRow;
+        }
+
+        double getHorizon( int col, int row ) {
+            return horizon[(row - minRow) * width + col - minCol];
+        }
+
+        void setHorizon( int col, int row, double value ) {
+            horizon[(row - minRow) * width + col - minCol] = value;
+        }
+
+        double distance2( int col, int row ) {
+            double dx = west + (col + 0.5) * xRes - stationX;
+            double dy = north - (row + 0.5) * yRes - stationY;
+            return dx * dx + dy * dy;
+        }
+
+        boolean inRadius( int col, int row ) {
+            return distance2(col, row) <= maxRadius2;
+        }
+
+        /**
+         * @return the slope of the line of sight to the cell, NaN for novalues.
+         */
+        double viewAngle( int col, int row ) {
+            double z = elevation[row * cols + col];
+            if (HMConstants.isNovalue(z, novalue)) {
+                return Double.NaN;
+            }
+            double distance = Math.sqrt(distance2(col, row));
+            if (distance == 0.0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return (z - stationZ) / distance * 1000;
+        }
+    }
+}
@@ -34,6 +34,7 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_outHil
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pAzimuth_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pMinDiffuse_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pSectors_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
@@ -45,8 +46,10 @@ import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.HorizonTables;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
@@ -87,6 +90,16 @@ public class OmsHillshade extends HMModel {
     @In
     public double pElev = 90;
 
+    @Description(OMSHILLSHADE_pSectors_DESCRIPTION)
+    @In
+    public int pSectors = 0;
+
+    /**
+     * Optional {@link HorizonTables} of {@link #inElev}, used to look up the shadows cast by
+     * the terrain. Computed if missing and {@link #pSectors} is set.
+     */
+    public HorizonTables horizonTables = null;
+
     @Description(OMSHILLSHADE_outHill_DESCRIPTION)
     @Out
     public GridCoverage2D outHill;
@@ -176,7 +189,31 @@ public class OmsHillshade extends HMModel {
         double[] inverseSunVector = calcInverseSunVector(sunVector);
         int rows = pitWR.getHeight();
         int cols = pitWR.getWidth();
-        WritableRaster sOmbraWR = calculateFactor(rows, cols, sunVector, inverseSunVector, normalSunVector, pitWR, dx);
+        if (horizonTables != null && !horizonTables.matches(cols, rows, dx, pSectors)) {
+            throw new ModelsIllegalargumentException(
+                    "The horizon tables do not match the grid of the elevation or the number of sectors.", this, pm);
+        }
+        if (horizonTables == null && pSectors > 0) {
+            double[] dem = new double[rows * cols];
+            pitWR.getSamples(0, 0, cols, rows, 0, dem);
+            horizonTables = HorizonTables.compute(dem, cols, rows, dx, -9999.0, pSectors, pm);
+        }
+        WritableRaster sOmbraWR;
+        if (horizonTables == null) {
+            sOmbraWR = calculateFactor(rows, cols, sunVector, inverseSunVector, normalSunVector, pitWR, dx);
+        } else {
+            // the shadows are lookups in the horizon tables
+            sOmbraWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, 1.0);
+            int sector = horizonTables.getSunSector(sunVector);
+            double sunElevation = HorizonTables.getSunElevation(sunVector);
+            for( int j = 0; j < rows; j++ ) {
+                for( int i = 0; i < cols; i++ ) {
+                    if (horizonTables.isShadowed(sector, i, j, sunElevation)) {
+                        sOmbraWR.setSample(i, j, 0, 0);
+                    }
+                }
+            }
+        }
         pm.beginTask(msg.message("hillshade.calculating"), rows * cols);
         for( int j = 1; j < rows - 1; j++ ) {
             for( int i = 1; i < cols - 1; i++ ) {
@@ -20,7 +20,6 @@ package org.hortonmachine.hmachine.modules.hydrogeomorphology.insolation;
 import static org.hortonmachine.gears.libs.modules.ModelsEngine.calcInverseSunVector;
 import static org.hortonmachine.gears.libs.modules.ModelsEngine.calcNormalSunVector;
 import static org.hortonmachine.gears.libs.modules.ModelsEngine.calculateFactor;
-import static org.hortonmachine.gears.libs.modules.ModelsEngine.scalarProduct;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_AUTHORCONTACTS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_AUTHORNAMES;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_DESCRIPTION;
@@ -31,12 +30,16 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_inElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_outIns_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_pSectors_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_tEndDate_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_tStartDate_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import javax.media.jai.RasterFactory;
 import javax.media.jai.iterator.RandomIter;
@@ -45,8 +48,10 @@ import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.HorizonTables;
 import org.hortonmachine.gears.utils.CrsUtilities;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
@@ -92,6 +97,17 @@ public class OmsInsolation extends HMModel {
     @In
     public String tEndDate = null;
 
+    @Description(OMSINSOLATION_pSectors_DESCRIPTION)
+    @In
+    public int pSectors = 0;
+
+    /**
+     * Optional {@link HorizonTables} of {@link #inElev}, so that the shadows of every sun
+     * position of the period are lookups instead of traces. Computed if missing and
+     * {@link #pSectors} is set.
+     */
+    public HorizonTables horizonTables = null;
+
     @Description(OMSINSOLATION_outIns_DESCRIPTION)
     @Out
     public GridCoverage2D outIns;
@@ -116,10 +132,6 @@ public class OmsInsolation extends HMModel {
 
     private double lambda;
 
-    private double delta;
-
-    private double omega;
-
     private HortonMessageHandler msg = HortonMessageHandler.getInstance();
 
     @Execute
@@ -154,7 +166,6 @@ public class OmsInsolation extends HMModel {
         int startDay = currentDatetime.getDayOfYear();
         currentDatetime = formatter.parseDateTime(tEndDate);
         int endDay = currentDatetime.getDayOfYear();
-        CoverageUtilities.getRegionParamsFromGridCoverage(inElev);
         RenderedImage pitTmpRI = inElev.getRenderedImage();
         int width = pitTmpRI.getWidth();
         int height = pitTmpRI.getHeight();
@@ -167,13 +178,102 @@ public class OmsInsolation extends HMModel {
 
         WritableRaster gradientWR = normalVector(pitWR, dx);
 
-        pm.beginTask(msg.message("insolation.calculating"), endDay - startDay);
+        /*
+         * the maps as arrays, with the terms of the transmittances that depend
+         * only on the elevation
+         */
+        int cellsNum = width * height;
+        double[] dem = new double[cellsNum];
+        double[] gradient = new double[3 * cellsNum];
+        double[] pressure = new double[cellsNum];
+        double[] wPrec = new double[cellsNum];
+        double[] pixel = new double[3];
+        for( int j = 0; j < height; j++ ) {
+            for( int i = 0; i < width; i++ ) {
+                int index = j * width + i;
+                double z = pitWR.getSampleDouble(i, j, 0);
+                dem[index] = z;
+                gradientWR.getPixel(i, j, pixel);
+                System.arraycopy(pixel, 0, gradient, 3 * index, 3);
+                pressure[index] = ATM * Math.exp(-0.0001184 * z);
+                double temp = 273 + pLapse * (z - 4000);
+                double vap_psat = Math.exp(26.23 - 5416.0 / temp);
+                wPrec[index] = 0.493 * pRH * vap_psat / temp;
+            }
+        }
+        gradientWR = null;
 
-        for( int i = startDay; i <= endDay; i++ ) {
-            calcInsolation(lambda, pitWR, gradientWR, insolationWR, i, dx);
-            pm.worked(i - startDay);
+        if (horizonTables != null && !horizonTables.matches(width, height, dx, pSectors)) {
+            throw new ModelsIllegalargumentException(
+                    "The horizon tables do not match the grid of the elevation or the number of sectors.", this, pm);
+        }
+        if (horizonTables == null && pSectors > 0) {
+            horizonTables = HorizonTables.compute(dem, width, height, dx, -9999.0, pSectors, pm);
         }
+        HorizonTables tables = horizonTables;
+
+        // the sun positions of all the days, as declination and hour angle
+        List<double[]> steps = new ArrayList<>();
+        for( int day = startDay; day <= endDay; day++ ) {
+            double dayangb = (360 / 365.25) * (day - 79.436);
+            dayangb = Math.toRadians(dayangb);
+            double delta = getDeclination(dayangb);
+            double ss = Math.acos(-Math.tan(delta) * Math.tan(lambda));
+            double hour = -ss + (Math.PI / 48.0);
+            while( hour <= ss - (Math.PI / 48) ) {
+                steps.add(new double[]{delta, hour});
+                hour = hour + Math.PI / 24.0;
+            }
+        }
+
+        /*
+         * every thread accumulates a share of the sun positions in its own
+         * array, reusing a single shadow buffer
+         */
+        int threads = Math.max(1, Math.min(getDefaultThreadsNum(), steps.size()));
+        double[][] partials = new double[threads][];
+        pm.beginTask(msg.message("insolation.calculating"), steps.size());
+        IntStream.range(0, threads).parallel().forEach(t -> {
+            double[] insolation = new double[cellsNum];
+            byte[] shadow = tables == null ? new byte[cellsNum] : null;
+            for( int s = t; s < steps.size(); s += threads ) {
+                double[] step = steps.get(s);
+                double[] sunVector = calcSunVector(lambda, step[0], step[1]);
+                double zenith = calcZenith(sunVector[2]);
+                double mr = 1 / (sunVector[2] + 0.15 * Math.pow((93.885 - zenith), (-1.253)));
+                if (tables == null) {
+                    double[] inverseSunVector = calcInverseSunVector(sunVector);
+                    double[] normalSunVector = calcNormalSunVector(sunVector);
+                    calculateFactor(height, width, sunVector, inverseSunVector, normalSunVector, dem, dx, shadow);
+                    for( int index = 0; index < cellsNum; index++ ) {
+                        calcRadiation(index, shadow[index], sunVector, mr, gradient, pressure, wPrec, insolation);
+                    }
+                } else {
+                    int sector = tables.getSunSector(sunVector);
+                    double sunElevation = HorizonTables.getSunElevation(sunVector);
+                    for( int j = 0; j < height; j++ ) {
+                        for( int i = 0; i < width; i++ ) {
+                            double sOmbra = tables.isShadowed(sector, i, j, sunElevation) ? 0.0 : 1.0;
+                            calcRadiation(j * width + i, sOmbra, sunVector, mr, gradient, pressure, wPrec, insolation);
+                        }
+                    }
+                }
+                pm.worked(1);
+            }
+            partials[t] = insolation;
+        });
         pm.done();
+
+        for( int j = 0; j < height; j++ ) {
+            for( int i = 0; i < width; i++ ) {
+                int index = j * width + i;
+                double sum = 0;
+                for( double[] partial : partials ) {
+                    sum += partial[index];
+                }
+                insolationIterator.setSample(i, j, 0, sum);
+            }
+        }
         for( int y = 2; y < height - 2; y++ ) {
             for( int x = 2; x < width - 2; x++ ) {
                 if (HMConstants.isNovalue(pitWR.getSampleDouble(x, y, 0))) {
@@ -186,54 +286,6 @@ public class OmsInsolation extends HMModel {
         outIns = CoverageUtilities.buildCoverage("insolation", insolationWR, attribute, inElev.getCoordinateReferenceSystem());
     }
 
-    /**
-     * Evaluate the radiation.
-     * 
-     * @param lambda
-     *            the latitude.
-     * @param demWR
-     *            the raster of elevation
-     * @param gradientWR
-     *            the raster of the gradient value of the dem.
-     * @param insolationWR
-     *            the wr where to store the result.
-     * @param the
-     *            day in the year.
-     * @paradx the resolutiono of the dem.
-     */
-    private void calcInsolation( double lambda, WritableRaster demWR, WritableRaster gradientWR, WritableRaster insolationWR,
-            int day, double dx ) {
-        // calculating the day angle
-        // double dayang = 2 * Math.PI * (day - 1) / 365.0;
-        double dayangb = (360 / 365.25) * (day - 79.436);
-        dayangb = Math.toRadians(dayangb);
-        // Evaluate the declination of the sun.
-        delta = getDeclination(dayangb);
-        // Evaluate the radiation in this day.
-        double ss = Math.acos(-Math.tan(delta) * Math.tan(lambda));
-        double hour = -ss + (Math.PI / 48.0);
-        while( hour <= ss - (Math.PI / 48) ) {
-            omega = hour;
-            // calculating the vector related to the sun
-            double sunVector[] = calcSunVector();
-            double zenith = calcZenith(sunVector[2]);
-            double[] inverseSunVector = calcInverseSunVector(sunVector);
-            double[] normalSunVector = calcNormalSunVector(sunVector);
-
-            int height = demWR.getHeight();
-            int width = demWR.getWidth();
-            WritableRaster sOmbraWR = calculateFactor(height, width, sunVector, inverseSunVector, normalSunVector, demWR, dx);
-            double mr = 1 / (sunVector[2] + 0.15 * Math.pow((93.885 - zenith), (-1.253)));
-            for( int j = 0; j < height; j++ ) {
-                for( int i = 0; i < width; i++ ) {
-                    // evaluate the radiation.
-                    calcRadiation(i, j, demWR, sOmbraWR, insolationWR, sunVector, gradientWR, mr);
-                }
-            }
-            hour = hour + Math.PI / 24.0;
-        }
-    }
-
     /*
      * Evaluate the declination.
      */
@@ -245,36 +297,47 @@ public class OmsInsolation extends HMModel {
 
     /*
      * evaluate several component of the radiation and then multiply by the
-     * sOmbra factor.
+     * sOmbra factor. Shadowed cells and cells facing away from the sun add
+     * nothing, so the transmittances are skipped for them.
      */
-    private void calcRadiation( int i, int j, WritableRaster demWR, WritableRaster sOmbraWR, WritableRaster insolationWR,
-            double[] sunVector, WritableRaster gradientWR, double mr ) {
-        double z = demWR.getSampleDouble(i, j, 0);
-        double pressure = ATM * Math.exp(-0.0001184 * z);
-        double ma = mr * pressure / ATM;
-        double temp = 273 + pLapse * (z - 4000);
-        double vap_psat = Math.exp(26.23 - 5416.0 / temp);
-        double wPrec = 0.493 * pRH * vap_psat / temp;
+    private static void calcRadiation( int index, double sOmbra, double[] sunVector, double mr, double[] gradient,
+            double[] pressure, double[] wPrec, double[] insolation ) {
+        if (sOmbra == 0) {
+            return;
+        }
+        int g = 3 * index;
+        double cosinc = 0;
+        cosinc = cosinc + sunVector[0] * gradient[g];
+        cosinc = cosinc + sunVector[1] * gradient[g + 1];
+        cosinc = cosinc + sunVector[2] * gradient[g + 2];
+        if (cosinc <= 0) {
+            return;
+        }
+
+        double ma = mr * pressure[index] / ATM;
         double taur = Math.exp((-.09030 * Math.pow(ma, 0.84)) * (1.0 + ma - Math.pow(ma, 1.01)));
         double d = pCmO3 * mr;
         double tauo = 1 - (0.1611 * d * Math.pow(1.0 + 139.48 * d, -0.3035) - 0.002715 * d)
                 / (1.0 + 0.044 * d + 0.0003 * Math.pow(d, 2));
         double taug = Math.exp(-0.0127 * Math.pow(ma, 0.26));
-        double tauw = 1 - 2.4959 * (wPrec * mr) / (1.0 + 79.034 * (wPrec * mr) * 0.6828 + 6.385 * (wPrec * mr));
+        double w = wPrec[index] * mr;
+        double tauw = 1 - 2.4959 * w / (1.0 + 79.034 * w * 0.6828 + 6.385 * w);
         double taua = Math.pow((0.97 - 1.265 * Math.pow(pVisibility, (-0.66))), Math.pow(ma, 0.9));
 
         double In = 0.9751 * SOLARCTE * taur * tauo * taug * tauw * taua;
 
-        double cosinc = scalarProduct(sunVector, gradientWR.getPixel(i, j, new double[3]));
-
-        if (cosinc < 0) {
-            cosinc = 0;
-        }
-        double tmp = insolationWR.getSampleDouble(i, j, 0);
-        insolationWR.setSample(i, j, 0, In * cosinc * sOmbraWR.getSampleDouble(i, j, 0) / 1000 + tmp);
+        insolation[index] = In * cosinc * sOmbra / 1000 + insolation[index];
     }
 
-    protected double[] calcSunVector() {
+    /**
+     * Calculate the vector toward the sun.
+     *
+     * @param lambda the latitude.
+     * @param delta the declination of the sun.
+     * @param omega the hour angle.
+     * @return the sun vector.
+     */
+    protected static double[] calcSunVector( double lambda, double delta, double omega ) {
         double sunVector[] = new double[3];
         sunVector[0] = -Math.sin(omega) * Math.cos(delta);
         sunVector[1] = Math.sin(lambda) * Math.cos(omega) * Math.cos(delta) - Math.cos(lambda) * Math.sin(delta);
@@ -322,7 +385,7 @@ public class OmsInsolation extends HMModel {
         return tmpNormalVectorWR;
 
     }
-    private double calcZenith( double sunVector2 ) {
+    private static double calcZenith( double sunVector2 ) {
         return Math.acos(sunVector2);
     }
 }
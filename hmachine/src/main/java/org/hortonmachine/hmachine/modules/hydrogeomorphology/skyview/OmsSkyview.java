@@ -34,17 +34,21 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_inElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_outSky_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_pSectors_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import javax.media.jai.RasterFactory;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.HorizonTables;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
@@ -73,6 +77,16 @@ public class OmsSkyview extends HMModel {
     @In
     public GridCoverage2D inElev = null;
 
+    @Description(OMSSKYVIEW_pSectors_DESCRIPTION)
+    @In
+    public int pSectors = 0;
+
+    /**
+     * Optional {@link HorizonTables} of {@link #inElev}, the sky view factor is then integrated
+     * over their sectors. Computed if missing and {@link #pSectors} is set.
+     */
+    public HorizonTables horizonTables = null;
+
     @Description(OMSSKYVIEW_outSky_DESCRIPTION)
     @Out
     public GridCoverage2D outSky;
@@ -234,6 +248,19 @@ public class OmsSkyview extends HMModel {
 
         normalVectorWR = normalVector(pitWR, res);
 
+        if (horizonTables != null && !horizonTables.matches(cols, rows, res, pSectors)) {
+            throw new ModelsIllegalargumentException(
+                    "The horizon tables do not match the grid of the elevation or the number of sectors.", this, pm);
+        }
+        if (horizonTables == null && pSectors > 0) {
+            double[] dem = new double[rows * cols];
+            pitWR.getSamples(minX, minY, cols, rows, 0, dem);
+            horizonTables = HorizonTables.compute(dem, cols, rows, res, -9999.0, pSectors, pm);
+        }
+        if (horizonTables != null) {
+            return skyviewfactor(pitWR, horizonTables);
+        }
+
         WritableRaster skyviewFactorWR = CoverageUtilities.createWritableRaster(cols, rows, null, pitWR.getSampleModel(), 0.0);
         pm.beginTask(msg.message("skyview.calculating"), 35);
         List<Integer> anglesList = new ArrayList<>();
@@ -274,6 +301,57 @@ public class OmsSkyview extends HMModel {
         return skyviewFactorWR;
     }
 
+    /**
+     * Calculate the skyview factor from the horizon tables.
+     * 
+     * <p>In every sector the sky is visible above the highest of the horizon,
+     * the plane of the cell and the flat horizon, as the shadow tracing finds it
+     * in one degree steps. The sectors cover the whole circle with equal weights.</p>
+     * 
+     * @param pitWR the dem.
+     * @param tables the horizon tables of the dem.
+     * @return the map of sky view factor.
+     */
+    private WritableRaster skyviewfactor( WritableRaster pitWR, HorizonTables tables ) {
+        WritableRaster skyviewFactorWR = CoverageUtilities.createWritableRaster(cols, rows, null, pitWR.getSampleModel(), 0.0);
+        int sectors = tables.getSectors();
+        double[] sinAzimuth = new double[sectors];
+        double[] cosAzimuth = new double[sectors];
+        for( int s = 0; s < sectors; s++ ) {
+            double azimuth = s * 2 * Math.PI / sectors;
+            sinAzimuth[s] = sin(azimuth);
+            cosAzimuth[s] = cos(azimuth);
+        }
+        pm.beginTask(msg.message("skyview.calculating"), rows);
+        IntStream.range(0, rows).parallel().forEach(y -> {
+            double[] normal = new double[3];
+            double[] row = new double[cols];
+            for( int x = 0; x < cols; x++ ) {
+                normalVectorWR.getPixel(minX + x, minY + y, normal);
+                double sum = 0;
+                for( int s = 0; s < sectors; s++ ) {
+                    // the elevation of the sun grazing the plane of the cell
+                    double planeAngle = Math.atan2(-(normal[0] * sinAzimuth[s] - normal[1] * cosAzimuth[s]), normal[2]);
+                    double angle = Math.max(planeAngle, 0);
+                    double horizon = tables.getHorizonAngle(s, x, y);
+                    if (!Double.isNaN(horizon)) {
+                        angle = Math.max(angle, horizon);
+                    }
+                    double degrees = Math.min(Math.ceil(Math.toDegrees(angle)), maxSlope);
+                    double value = Math.toRadians(degrees);
+                    sum = sum + Math.cos(value) * Math.cos(value);
+                }
+                row[x] = sum / sectors;
+            }
+            synchronized (skyviewFactorWR) {
+                skyviewFactorWR.setSamples(minX, minY + y, cols, 1, 0, row);
+            }
+            pm.worked(1);
+        });
+        pm.done();
+        return skyviewFactorWR;
+    }
+
     /**
      * Calculate the angle.
      * 
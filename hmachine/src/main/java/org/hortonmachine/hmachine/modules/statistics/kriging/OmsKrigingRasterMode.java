@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
@@ -39,11 +40,10 @@ import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.libs.monitor.LogProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
-import org.hortonmachine.gears.utils.math.matrixes.ColumnVector;
 import org.hortonmachine.gears.utils.math.regressions.PolyTrendLine;
 import org.hortonmachine.gears.utils.math.regressions.RegressionLine;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
-import org.hortonmachine.hmachine.modules.statistics.kriging.utils.SimpleLinearSystemSolverFactory;
+import org.hortonmachine.hmachine.modules.statistics.kriging.utils.KrigingSystemsCache;
 import org.hortonmachine.hmachine.modules.statistics.kriging.utils.StationsSelection;
 import org.hortonmachine.hmachine.modules.statistics.kriging.variogram.theoretical.ITheoreticalVariogram;
 import org.hortonmachine.hmachine.modules.statistics.kriging.variogram.theoretical.TheoreticalVariogram;
@@ -155,16 +155,23 @@ public class OmsKrigingRasterMode extends HMModel {
 
     private static final double TOLL = 1.0d * 10E-8;
 
-    private HortonMessageHandler msg = HortonMessageHandler.getInstance();
+    /**
+     * The maximum number of factorized systems kept, one for each distinct set of stations.
+     */
+    private static final int MAX_CACHED_SYSTEMS = 1000;
 
-    /** The id of the cosidered station */
-    int id;
+    private HortonMessageHandler msg = HortonMessageHandler.getInstance();
 
     private WritableRaster outWR;
 
     public GridGeometry2D inInterpolationGrid;
     WritableRaster demWR;
 
+    private volatile boolean errorOccurred = false;
+    private volatile String errorMessage;
+    private volatile boolean noValueFound = false;
+    private volatile boolean equalValuesFound = false;
+
     /**
      * Executing ordinary kriging.
      * <p>
@@ -173,6 +180,11 @@ public class OmsKrigingRasterMode extends HMModel {
      * <li>For each point to interpolated, evalutate the know term vector (b)
      * and solve the system (a x)=b where x is the weight.
      * </p>
+     * <p>
+     * The points are interpolated in parallel. The matrix of the covariance
+     * depends only on the stations, so it is factorized once for every
+     * distinct set of stations and reused by the points that share it.
+     * </p>
      *
      * @throws Exception the exception
      */
@@ -186,29 +198,16 @@ public class OmsKrigingRasterMode extends HMModel {
 
         demWR = mapsTransform(inGridCoverage2D);
 
-        LinkedHashMap<Integer, Coordinate> pointsToInterpolateId2Coordinates = null;
-
-        pointsToInterpolateId2Coordinates = getCoordinate(inInterpolationGrid);
-
-        Set<Integer> pointsToInterpolateIdSet = pointsToInterpolateId2Coordinates.keySet();
-        Iterator<Integer> idIterator = pointsToInterpolateIdSet.iterator();
-
-        int j = 0;
-
-        double[] result = new double[pointsToInterpolateId2Coordinates.size()];
-        int[] idArray = new int[pointsToInterpolateId2Coordinates.size()];
+        LinkedHashMap<Integer, Coordinate> pointsToInterpolateId2Coordinates = getCoordinate(inInterpolationGrid);
+        int pointsNum = pointsToInterpolateId2Coordinates.size();
+        Coordinate[] points = pointsToInterpolateId2Coordinates.values().toArray(new Coordinate[pointsNum]);
 
+        // the elevation of the points to interpolate
+        double[] pointsZ = new double[pointsNum];
         final DirectPosition gridPoint = new DirectPosition2D();
         MathTransform transf = inInterpolationGrid.getCRSToGrid2D();
-
-        while( idIterator.hasNext() ) {
-
-            double sum = 0.;
-            id = idIterator.next();
-            idArray[j] = id;
-
-            Coordinate coordinate = (Coordinate) pointsToInterpolateId2Coordinates.get(id);
-
+        for( int j = 0; j < pointsNum; j++ ) {
+            Coordinate coordinate = points[j];
             DirectPosition point = new DirectPosition2D(inInterpolationGrid.getCoordinateReferenceSystem(), coordinate.x,
                     coordinate.y);
             transf.transform(point, gridPoint);
@@ -216,176 +215,135 @@ public class OmsKrigingRasterMode extends HMModel {
             double[] gridCoord = gridPoint.getCoordinate();
             int x = (int) gridCoord[0];
             int y = (int) gridCoord[1];
+            pointsZ[j] = demWR.getSample(x, y, 0);
+        }
 
-            /**
-             * StationsSelection is an external class that allows the 
-             * selection of the stations involved in the study.
-             * It is possible to define if to include stations with zero values,
-             * station in a define neighborhood or within a max distance from 
-             * the considered point.
-             */
-
-            StationsSelection stations = new StationsSelection();
-
-            stations.idx = coordinate.x;
-            stations.idy = coordinate.y;
-            stations.inStations = inStations;
-            stations.inData = inData;
-            stations.doIncludezero = doIncludezero;
-            stations.maxdist = maxdist;
-            stations.inNumCloserStations = inNumCloserStations;
-            stations.fStationsid = fStationsid;
-            stations.fStationsZ = fStationsZ;
-
-            stations.execute();
-
-            double[] xStations = stations.xStationInitialSet;
-            double[] yStations = stations.yStationInitialSet;
-            double[] zStations = stations.zStationInitialSet;
-            double[] hStations = stations.hStationInitialSet;
-            boolean areAllEquals = stations.areAllEquals;
-            int n1 = xStations.length - 1;
-
-            xStations[n1] = coordinate.x;
-            yStations[n1] = coordinate.y;
-            zStations[n1] = demWR.getSample(x, y, 0);
-
-            double[] hresiduals = hStations;
-
-            if (doDetrended == true) {
-                if (zStations[n1] < 0) {
-                    doDetrended = false;
-                } else {
-                    doDetrended = true;
-                }
+        /**
+         * StationsSelection is an external class that allows the 
+         * selection of the stations involved in the study.
+         * It is possible to define if to include stations with zero values,
+         * station in a define neighborhood or within a max distance from 
+         * the considered point. The stations are read once and then
+         * selected for every point.
+         */
+        StationsSelection stations = new StationsSelection();
+        stations.inStations = inStations;
+        stations.inData = inData;
+        stations.doIncludezero = doIncludezero;
+        stations.maxdist = maxdist;
+        stations.inNumCloserStations = inNumCloserStations;
+        stations.fStationsid = fStationsid;
+        stations.fStationsZ = fStationsZ;
+        stations.loadStations();
+
+        KrigingSystemsCache systemsCache = new KrigingSystemsCache(linearSystemSolverType, MAX_CACHED_SYSTEMS);
+
+        double[] result = new double[pointsNum];
+        pm.beginTask(msg.message("kriging.working"), pointsNum);
+        IntStream.range(0, pointsNum).parallel().forEach(j -> {
+            if (errorOccurred) {
+                return;
             }
-
-            if (doDetrended) {
-                
-                
-                RegressionLine t = new PolyTrendLine(regressionOrder);
-                t.setValues(zStations, hStations);
-
-                double[] regressionParameters = t.getRegressionParameters();
-                trend_intercept = regressionParameters[0];
-                trend_coefficient = regressionParameters[1];
-                hresiduals = t.getResiduals();
-                
-
-//                Regression r = new Regression();
-//
-//                r = new Regression(zStations, hStations);
-//                r.polynomial(regressionOrder);
-//
-//                /*If there is a trend for meteorological
-//                 * variables and elevation and it is statistically significant 
-//                 * then the residuals from this linear trend
-//                 * are computed for each meteorological stations.
-//                 */
-//                // if (Math.abs(r.getXYcorrCoeff()) > thresholdCorrelation) {
-//
-//                trend_intercept = r.getBestEstimates()[0];
-//                trend_coefficient = r.getBestEstimates()[1];
-//                hresiduals = r.getResiduals();
-//
-//                // } else {
-//                // System.out.println("The trend is not significant");
-//                // doDetrended=false;
-//                // hresiduals=hStations;
-//
-//                // }
-
+            Coordinate coordinate = points[j];
+            try {
+                StationsSelection pointStations = stations.select(coordinate.x, coordinate.y);
+                result[j] = interpolate(pointStations, coordinate, pointsZ[j], systemsCache);
+            } catch (Exception e) {
+                errorOccurred = true;
+                errorMessage = e.getLocalizedMessage();
             }
+            pm.worked(1);
+        });
+        pm.done();
 
-            if (n1 != 0) {
-
-                if (!areAllEquals && n1 > 1) {
-                    pm.beginTask(msg.message("kriging.working"), pointsToInterpolateId2Coordinates.size());
-
-                    double h0 = 0.0;
-
-                    /*
-                     * calculating the covariance matrix.
-                     */
-                    double[][] covarianceMatrix = covMatrixCalculating(xStations, yStations, zStations, n1);
-
-                    double[] knownTerm = knownTermsCalculation(xStations, yStations, zStations, n1);
-
-                    /*
-                     * solve the linear system, where the result is the weight (moltiplicativeFactor).
-                     */
-                    ColumnVector solution = SimpleLinearSystemSolverFactory.solve(knownTerm, covarianceMatrix,
-                            linearSystemSolverType);
-
-                    double[] moltiplicativeFactor = solution.copyValues1D();
-
-                    for( int k = 0; k < n1; k++ ) {
-                        h0 = h0 + moltiplicativeFactor[k] * hresiduals[k];
-
-                        // sum is computed to check that
-                        // the sum of all the weights is 1
-                        sum = sum + moltiplicativeFactor[k];
-
-                    }
-
-                    double trend = (doDetrended) ? zStations[n1] * trend_coefficient + trend_intercept : 0;
-
-                    h0 = h0 + trend;
-                    // System.out.println(doDetrended);
-                    // System.out.println("prova");
-
-                    if (zStations[n1] < 0) {
-                        result[j] = HMConstants.doubleNovalue;
-                    } else {
-                        result[j] = h0;
-                    }
-
-                    j++;
-
-                    if (Math.abs(sum - 1) >= TOLL) {
-                        throw new ModelsRuntimeException("Error in the coffeicients calculation",
-                                this.getClass().getSimpleName());
-                    }
-                    pm.worked(1);
-                } else if (n1 == 1 || areAllEquals) {
-
-                    double tmp = hresiduals[0];
-                    pm.message(msg.message("kriging.setequalsvalue"));
-                    pm.beginTask(msg.message("kriging.working"), pointsToInterpolateId2Coordinates.size());
+        if (errorOccurred) {
+            throw new ModelsRuntimeException(errorMessage, this);
+        }
+        if (noValueFound) {
+            pm.errorMessage("No value for this time step");
+        }
+        if (equalValuesFound) {
+            pm.message(msg.message("kriging.setequalsvalue"));
+        }
 
-                    if (zStations[n1] < 0) {
-                        result[j] = HMConstants.doubleNovalue;
-                    } else {
-                        result[j] = tmp;
-                    }
+        storeResult(result, pointsToInterpolateId2Coordinates);
+    }
 
-                    j++;
-                    n1 = 0;
-                    pm.worked(1);
+    /**
+     * Interpolate a point.
+     *
+     * @param stations the stations selected for the point.
+     * @param coordinate the point.
+     * @param pointZ the elevation of the point.
+     * @param systemsCache the cache of the factorized systems.
+     * @return the interpolated value.
+     * @throws Exception the exception
+     */
+    private double interpolate( StationsSelection stations, Coordinate coordinate, double pointZ,
+            KrigingSystemsCache systemsCache ) throws Exception {
+        double[] xStations = stations.xStationInitialSet;
+        double[] yStations = stations.yStationInitialSet;
+        double[] zStations = stations.zStationInitialSet;
+        double[] hStations = stations.hStationInitialSet;
+        boolean areAllEquals = stations.areAllEquals;
+        int n1 = xStations.length - 1;
+
+        xStations[n1] = coordinate.x;
+        yStations[n1] = coordinate.y;
+        zStations[n1] = pointZ;
+
+        if (n1 == 0) {
+            noValueFound = true;
+            double[] value = inData.values().iterator().next();
+            return zStations[n1] < 0 ? HMConstants.doubleNovalue : value[0];
+        }
+        if (zStations[n1] < 0) {
+            return HMConstants.doubleNovalue;
+        }
 
-                }
+        double[] hresiduals = hStations;
+        double trendIntercept = trend_intercept;
+        double trendCoefficient = trend_coefficient;
+        if (doDetrended) {
+            RegressionLine t = new PolyTrendLine(regressionOrder);
+            t.setValues(zStations, hStations);
+
+            double[] regressionParameters = t.getRegressionParameters();
+            trendIntercept = regressionParameters[0];
+            trendCoefficient = regressionParameters[1];
+            hresiduals = t.getResiduals();
+        }
 
-                pm.done();
+        if (n1 == 1 || areAllEquals) {
+            equalValuesFound = true;
+            return hresiduals[0];
+        }
 
-            } else {
+        double[] knownTerm = knownTermsCalculation(xStations, yStations, zStations, n1);
 
-                pm.errorMessage("No value for this time step");
-                j = 0;
-                double[] value = inData.values().iterator().next();
+        /*
+         * solve the linear system, where the result is the weight (moltiplicativeFactor).
+         */
+        double[] moltiplicativeFactor = systemsCache.solve(xStations, yStations, zStations, n1,
+                () -> covMatrixCalculating(xStations, yStations, zStations, n1), knownTerm);
 
-                if (zStations[n1] < 0) {
-                    result[j] = HMConstants.doubleNovalue;
-                } else {
-                    result[j] = value[0];
-                }
+        double h0 = 0.0;
+        double sum = 0.;
+        for( int k = 0; k < n1; k++ ) {
+            h0 = h0 + moltiplicativeFactor[k] * hresiduals[k];
 
-                j++;
+            // sum is computed to check that
+            // the sum of all the weights is 1
+            sum = sum + moltiplicativeFactor[k];
+        }
 
-            }
+        double trend = (doDetrended) ? zStations[n1] * trendCoefficient + trendIntercept : 0;
+        h0 = h0 + trend;
 
+        if (Math.abs(sum - 1) >= TOLL) {
+            throw new ModelsRuntimeException("Error in the coffeicients calculation", this.getClass().getSimpleName());
         }
-
-        storeResult(result, pointsToInterpolateId2Coordinates);
+        return h0;
     }
 
     /**
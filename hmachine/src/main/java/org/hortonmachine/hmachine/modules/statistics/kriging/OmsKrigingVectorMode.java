@@ -35,6 +35,7 @@ import org.hortonmachine.gears.utils.math.regressions.PolyTrendLine;
 import org.hortonmachine.gears.utils.math.regressions.RegressionLine;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 import org.hortonmachine.hmachine.modules.statistics.kriging.nextgen.TargetPointAssociation;
+import org.hortonmachine.hmachine.modules.statistics.kriging.utils.KrigingSystemsCache;
 import org.hortonmachine.hmachine.modules.statistics.kriging.utils.SimpleLinearSystemSolverFactory;
 import org.hortonmachine.hmachine.modules.statistics.kriging.utils.StationsSelection;
 import org.hortonmachine.hmachine.modules.statistics.kriging.variogram.theoretical.ITheoreticalVariogram;
@@ -127,6 +128,12 @@ public class OmsKrigingVectorMode extends HMModel {
     @Out
     public Double outInterpolatedValue = null;
 
+    /**
+     * Optional cache of the factorized systems, shared by the runs that
+     * interpolate different targets with the same variogram.
+     */
+    public KrigingSystemsCache systemsCache = null;
+
     private static final double TOLL = 1.0d * 10E-8;
 
     private HortonMessageHandler msg = HortonMessageHandler.getInstance();
@@ -218,17 +225,21 @@ public class OmsKrigingVectorMode extends HMModel {
             /*
              * calculating the covariance matrix.
              */
-            double[][] covarianceMatrix = covMatrixCalculating(xStations, yStations, zStations, n1);
-
             double[] knownTerm = knownTermsCalculation(xStations, yStations, zStations, n1);
 
             /*
              * solve the linear system, where the result is the weight (moltiplicativeFactor).
              */
-            ColumnVector solution = SimpleLinearSystemSolverFactory.solve(knownTerm, covarianceMatrix,
-                    linearSystemSolverType);
-
-            double[] moltiplicativeFactor = solution.copyValues1D();
+            double[] moltiplicativeFactor;
+            if (systemsCache != null) {
+                moltiplicativeFactor = systemsCache.solve(xStations, yStations, zStations, n1,
+                        () -> covMatrixCalculating(xStations, yStations, zStations, n1), knownTerm);
+            } else {
+                double[][] covarianceMatrix = covMatrixCalculating(xStations, yStations, zStations, n1);
+                ColumnVector solution = SimpleLinearSystemSolverFactory.solve(knownTerm, covarianceMatrix,
+                        linearSystemSolverType);
+                moltiplicativeFactor = solution.copyValues1D();
+            }
 
             for( int k = 0; k < n1 ; k++ ) {
                 h0 = h0 + moltiplicativeFactor[k] * hresiduals[k];
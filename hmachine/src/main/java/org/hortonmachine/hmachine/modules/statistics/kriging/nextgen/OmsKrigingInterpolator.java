@@ -36,6 +36,7 @@ import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.utils.math.interpolation.LinearArrayInterpolator;
 import org.hortonmachine.gears.utils.math.interpolation.LinearListInterpolator;
 import org.hortonmachine.hmachine.modules.statistics.kriging.OmsKrigingVectorMode;
+import org.hortonmachine.hmachine.modules.statistics.kriging.utils.KrigingSystemsCache;
 import org.hortonmachine.hmachine.modules.statistics.kriging.variogram.theoretical.ITheoreticalVariogram;
 import org.locationtech.jts.geom.Coordinate;
 
@@ -105,10 +106,19 @@ public class OmsKrigingInterpolator extends HMModel {
 //    public static final String OMSKRIGING_inInterpolationGrid_DESCRIPTION = "The collection of the points in which the data needs to be interpolated.";
 //    public static final String OMSKRIGING_pSemivariogramType_DESCRIPTION = "The type of theoretical semivariogram: 0 = Gaussian; 1 = Exponential.";
 
+    private static final int MAX_CACHED_SYSTEMS = 100;
+
     @Execute
     public void process() throws Exception {
         outTargetIds2ValueMap = new HashMap<>();
-        
+
+        /*
+         * targets with the same stations share the variogram and the factorized
+         * kriging system. The targets are processed in sequence, since the
+         * normalization changes the measurements in place.
+         */
+        HashMap<List<Integer>, VariogramFit> stationIds2VariogramFit = new HashMap<>();
+
         for( Entry<Integer, TargetPointAssociation> targetId2AssociationEntry : inTargetPointId2AssociationMap.entrySet() ) {
             Integer targetId = targetId2AssociationEntry.getKey();
             TargetPointAssociation association = targetId2AssociationEntry.getValue();
@@ -129,51 +139,17 @@ public class OmsKrigingInterpolator extends HMModel {
             case INTERPOLATION_KRIGING:
                 if (pMode.equals(KRIGING_EXPERIMENTAL_VARIOGRAM)) {
                     HashMap<Integer, Coordinate> validStationIds2CoordinateMap = new HashMap<>();
-                    HashMap<Integer, double[]> validStationIds2ValueMap = new HashMap<>();
                     for( Integer tmpStationId : association.stationIds ) {
                         validStationIds2CoordinateMap.put(tmpStationId, inStationIds2CoordinateMap.get(tmpStationId));
-
-                        double[] finalValues;
-                        double[] valueArray = inStationIds2ValueMap.get(tmpStationId);
-                        if (inPreviousStationIds2ValueMaps != null) {
-                            List<Double> allValues = new ArrayList<>();
-                            allValues.add(valueArray[0]);
-                            for( int i = 0; i < inPreviousStationIds2ValueMaps.size(); i++ ) {
-                                if (i > 0) { // because in 0 the current timestep values are kept
-                                    double[] tmpValue = inPreviousStationIds2ValueMaps.get(i).get(tmpStationId);
-                                    if (tmpValue != null) {
-                                        allValues.add(tmpValue[0]);
-                                    }
-                                }
-                            }
-                            finalValues = new double[allValues.size()];
-                            for( int i = 0; i < finalValues.length; i++ ) {
-                                finalValues[i] = allValues.get(i);
-                            }
-                        } else {
-                            finalValues = valueArray;
-                        }
-                        validStationIds2ValueMap.put(tmpStationId, finalValues);
+                    }
+                    List<Integer> stationIds = new ArrayList<>(association.stationIds);
+                    Collections.sort(stationIds);
+                    VariogramFit variogramFit = stationIds2VariogramFit.get(stationIds);
+                    if (variogramFit == null) {
+                        variogramFit = fitVariogram(association, validStationIds2CoordinateMap);
+                        stationIds2VariogramFit.put(stationIds, variogramFit);
                     }
 
-                    NormalizationStore store = normalizeData(validStationIds2ValueMap);
-
-                    OmsExperimentalVariogram expVariogram = new OmsExperimentalVariogram();
-                    expVariogram.inStationIds2CoordinateMap = validStationIds2CoordinateMap;
-                    expVariogram.inStationIds2ValueMap = validStationIds2ValueMap;
-                    expVariogram.pBins = pBins;
-                    expVariogram.process();
-                    HashMap<Integer, double[]> outExperimentalVariogram = expVariogram.outExperimentalVariogram;
-
-                    OmsTheoreticalVariogram theoVariogram = new OmsTheoreticalVariogram();
-                    theoVariogram.inExperimentalVariogramMap = outExperimentalVariogram;
-                    theoVariogram.pTheoreticalVariogramType = pTheoreticalVariogramType;
-                    theoVariogram.process();
-//                    HashMap<Integer, double[]> outTheoreticalVariogram = theoVariogram.outTheoreticalVariogram;
-                    double outSill = theoVariogram.outSill;
-                    double outRange = theoVariogram.outRange;
-                    double outNugget = theoVariogram.outNugget;
-                    
                     OmsKrigingVectorMode krigingVector = new OmsKrigingVectorMode();
                     krigingVector.inStationIds2CoordinateMap = validStationIds2CoordinateMap;
                     krigingVector.pSemivariogramType = pTheoreticalVariogramType;
@@ -183,9 +159,10 @@ public class OmsKrigingInterpolator extends HMModel {
 //                    krigingVector.inTargetPointsIds2CoordinateMap = inTargetPointsIds2CoordinateMap;
 //                    krigingVector.inTargetPointId2AssociationMap = inTargetPointId2AssociationMap;
                     krigingVector.doIncludezero = true;
-                    krigingVector.range = outRange;
-                    krigingVector.sill = outSill;
-                    krigingVector.nugget = outNugget;
+                    krigingVector.range = variogramFit.range;
+                    krigingVector.sill = variogramFit.sill;
+                    krigingVector.nugget = variogramFit.nugget;
+                    krigingVector.systemsCache = variogramFit.systemsCache;
                     krigingVector.doDetrended = false;
 //                    krigingVector.trend_intercept =;
 //                    krigingVector.trend_coefficient = ;
@@ -218,6 +195,58 @@ public class OmsKrigingInterpolator extends HMModel {
 //        inverseNormalizeData(store, krigingOutData);
     }
 
+    /**
+     * Fit the variogram of the stations of a target.
+     */
+    private VariogramFit fitVariogram( TargetPointAssociation association,
+            HashMap<Integer, Coordinate> validStationIds2CoordinateMap ) throws Exception {
+        HashMap<Integer, double[]> validStationIds2ValueMap = new HashMap<>();
+        for( Integer tmpStationId : association.stationIds ) {
+            double[] finalValues;
+            double[] valueArray = inStationIds2ValueMap.get(tmpStationId);
+            if (inPreviousStationIds2ValueMaps != null) {
+                List<Double> allValues = new ArrayList<>();
+                allValues.add(valueArray[0]);
+                for( int i = 0; i < inPreviousStationIds2ValueMaps.size(); i++ ) {
+                    if (i > 0) { // because in 0 the current timestep values are kept
+                        double[] tmpValue = inPreviousStationIds2ValueMaps.get(i).get(tmpStationId);
+                        if (tmpValue != null) {
+                            allValues.add(tmpValue[0]);
+                        }
+                    }
+                }
+                finalValues = new double[allValues.size()];
+                for( int i = 0; i < finalValues.length; i++ ) {
+                    finalValues[i] = allValues.get(i);
+                }
+            } else {
+                finalValues = valueArray;
+            }
+            validStationIds2ValueMap.put(tmpStationId, finalValues);
+        }
+
+        NormalizationStore store = normalizeData(validStationIds2ValueMap);
+
+        OmsExperimentalVariogram expVariogram = new OmsExperimentalVariogram();
+        expVariogram.inStationIds2CoordinateMap = validStationIds2CoordinateMap;
+        expVariogram.inStationIds2ValueMap = validStationIds2ValueMap;
+        expVariogram.pBins = pBins;
+        expVariogram.process();
+        HashMap<Integer, double[]> outExperimentalVariogram = expVariogram.outExperimentalVariogram;
+
+        OmsTheoreticalVariogram theoVariogram = new OmsTheoreticalVariogram();
+        theoVariogram.inExperimentalVariogramMap = outExperimentalVariogram;
+        theoVariogram.pTheoreticalVariogramType = pTheoreticalVariogramType;
+        theoVariogram.process();
+//            HashMap<Integer, double[]> outTheoreticalVariogram = theoVariogram.outTheoreticalVariogram;
+        VariogramFit variogramFit = new VariogramFit();
+        variogramFit.sill = theoVariogram.outSill;
+        variogramFit.range = theoVariogram.outRange;
+        variogramFit.nugget = theoVariogram.outNugget;
+        variogramFit.systemsCache = new KrigingSystemsCache("default", MAX_CACHED_SYSTEMS);
+        return variogramFit;
+    }
+
     private void inverseNormalizeData( NormalizationStore store, HashMap<Integer, double[]> targetIds2ValueMap ) {
         Set<Integer> targetIdsSet = targetIds2ValueMap.keySet();
         List<Double> orderedInterpolatedValues = new ArrayList<Double>();
@@ -430,6 +459,13 @@ public class OmsKrigingInterpolator extends HMModel {
         return interpolatedValue;
     }
     
+    private static class VariogramFit {
+        private double sill;
+        private double range;
+        private double nugget;
+        private KrigingSystemsCache systemsCache;
+    }
+
     private static class NormalizationStore {
         private List<Double> uniqueOrderedValues;
         private List<Double> cdfWeibullValues = new ArrayList<Double>();
@@ -0,0 +1,126 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.modules.statistics.kriging.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.utils.math.matrixes.ColumnVector;
+import org.hortonmachine.gears.utils.math.matrixes.LinearSystem;
+import org.hortonmachine.gears.utils.math.matrixes.MatrixException;
+
+/**
+ * Cache of the factorized kriging systems, by set of stations.
+ *
+ * <p>The covariance matrix of ordinary kriging depends only on the stations
+ * used, so targets that share their neighbourhood reuse the same factorization
+ * and only the known terms are solved per target.</p>
+ *
+ * <p>The cache is thread safe. It is valid for a single variogram and it is
+ * cleared when it grows beyond its maximum size.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class KrigingSystemsCache {
+
+    private final ConcurrentHashMap<StationsKey, LinearSystem> systems = new ConcurrentHashMap<>();
+    private final String solverType;
+    private final int maxSize;
+
+    /**
+     * @param solverType the type of linear system solver.
+     * @param maxSize the maximum number of systems kept.
+     */
+    public KrigingSystemsCache( String solverType, int maxSize ) {
+        this.solverType = solverType;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Solve the kriging system of a set of stations.
+     *
+     * @param x the x coordinates of the stations.
+     * @param y the y coordinates of the stations.
+     * @param z the z coordinates of the stations.
+     * @param n the number of stations to use, from the start of the arrays.
+     * @param matrixBuilder the builder of the covariance matrix, used only for new sets of stations.
+     * @param knownTerm the known terms of the target.
+     * @return the weights.
+     * @throws MatrixException if the system is singular.
+     */
+    public double[] solve( double[] x, double[] y, double[] z, int n, Supplier<double[][]> matrixBuilder, double[] knownTerm )
+            throws MatrixException {
+        StationsKey key = new StationsKey(x, y, z, n);
+        LinearSystem system = systems.get(key);
+        if (system == null) {
+            system = SimpleLinearSystemSolverFactory.createFactorizedSystem(matrixBuilder.get(), solverType);
+            if (system == null) {
+                throw new ModelsIllegalargumentException("Unsupported linear system solver type: " + solverType, this);
+            }
+            if (systems.size() >= maxSize) {
+                systems.clear();
+            }
+            LinearSystem previous = systems.putIfAbsent(key, system);
+            if (previous != null) {
+                system = previous;
+            }
+        }
+        return system.solve(new ColumnVector(knownTerm), true).copyValues1D();
+    }
+
+    /**
+     * @return the number of cached systems.
+     */
+    public int size() {
+        return systems.size();
+    }
+
+    private static class StationsKey {
+        private final double[] coordinates;
+        private final int hash;
+
+        StationsKey( double[] x, double[] y, double[] z, int n ) {
+            coordinates = new double[3 * n];
+            for( int i = 0; i < n; i++ ) {
+                coordinates[3 * i] = x[i];
+                coordinates[3 * i + 1] = y[i];
+                coordinates[3 * i + 2] = z[i];
+            }
+            hash = Arrays.hashCode(coordinates);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StationsKey)) {
+                return false;
+            }
+            StationsKey other = (StationsKey) obj;
+            return hash == other.hash && Arrays.equals(coordinates, other.coordinates);
+        }
+    }
+}
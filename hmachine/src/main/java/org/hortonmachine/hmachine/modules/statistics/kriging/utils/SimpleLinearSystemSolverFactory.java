@@ -15,4 +15,29 @@ public class SimpleLinearSystemSolverFactory {
 
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Create a system that is already factorized, so that it can be solved for
+     * many known terms, also by different threads.
+     *
+     * @param covarianceMatrix the matrix of the system.
+     * @param type the type of solver.
+     * @return the factorized system or <code>null</code> for unknown types.
+     * @throws MatrixException if the matrix is singular.
+     */
+    public static LinearSystem createFactorizedSystem( double[][] covarianceMatrix, String type ) throws MatrixException {
+
+        if (type.equals("default")) {
+            return new FactorizedLinearSystem(covarianceMatrix);
+        }
+
+        return null;
+    }
+
+    private static class FactorizedLinearSystem extends LinearSystem {
+        FactorizedLinearSystem( double[][] values ) throws MatrixException {
+            super(values);
+            decompose();
+        }
+    }
+}
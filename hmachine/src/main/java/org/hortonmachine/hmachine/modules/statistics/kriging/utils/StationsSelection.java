@@ -79,12 +79,51 @@ public class StationsSelection {
      */
     public int idOut = -1;
 
+    /** The stations read by {@link #loadStations()}, shared by the selections. */
+    private double[] xLoaded;
+    private double[] yLoaded;
+    private double[] zLoaded;
+    private double[] hLoaded;
+    private int[] idLoaded;
+    private boolean loadedAllEquals;
+    private int loadedN1;
+
     /**
      * Execute.
      *
      * @throws Exception the exception
      */
     public void execute() throws Exception {
+        loadStations();
+        selectInto(this);
+    }
+
+    /**
+     * Select the stations for a point.
+     * 
+     * <p>Once {@link #loadStations()} has been called, this can be used by
+     * many threads at the same time.</p>
+     *
+     * @param x the x of the point.
+     * @param y the y of the point.
+     * @return a new selection, with its own station arrays.
+     */
+    public StationsSelection select( double x, double y ) {
+        StationsSelection selection = new StationsSelection();
+        selection.idx = x;
+        selection.idy = y;
+        selectInto(selection);
+        return selection;
+    }
+
+    /**
+     * Read the stations with valid measurements.
+     *
+     * @throws Exception the exception
+     */
+    public void loadStations() throws Exception {
+        boolean areAllEquals = true;
+        int n1 = 0;
 
         // create the arraylist containing the station with the measurements
         List<Double> xStationList = new ArrayList<Double>();
@@ -161,11 +200,11 @@ public class StationsSelection {
          * plus 1 (the station where it is going to interpolate)
          */
 
-        xStationInitialSet = new double[nStaz + 1];
-        yStationInitialSet = new double[nStaz + 1];
-        zStationInitialSet = new double[nStaz + 1];
-        hStationInitialSet = new double[nStaz + 1];
-        idStationInitialSet = new int[nStaz + 1];
+        double[] xStationInitialSet = new double[nStaz + 1];
+        double[] yStationInitialSet = new double[nStaz + 1];
+        double[] zStationInitialSet = new double[nStaz + 1];
+        double[] hStationInitialSet = new double[nStaz + 1];
+        int[] idStationInitialSet = new int[nStaz + 1];
 
         if (nStaz != 0) {
             xStationInitialSet[0] = xStationList.get(0);
@@ -205,6 +244,26 @@ public class StationsSelection {
             }
         }
 
+        xLoaded = xStationInitialSet;
+        yLoaded = yStationInitialSet;
+        zLoaded = zStationInitialSet;
+        hLoaded = hStationInitialSet;
+        idLoaded = idStationInitialSet;
+        loadedAllEquals = areAllEquals;
+        loadedN1 = n1;
+    }
+
+    private void selectInto( StationsSelection selection ) {
+        // the arrays are copied, since the last position is filled with the point to interpolate
+        double[] xStationInitialSet = xLoaded.clone();
+        double[] yStationInitialSet = yLoaded.clone();
+        double[] zStationInitialSet = zLoaded.clone();
+        double[] hStationInitialSet = hLoaded.clone();
+        int[] idStationInitialSet = idLoaded.clone();
+        int nStaz = xStationInitialSet.length - 1;
+        double idx = selection.idx;
+        double idy = selection.idy;
+
         /* in case of kriging with neighbor computes the distances between the
          * point where is going to interpolate and the other stations and it
          * sorts them
@@ -228,11 +287,11 @@ public class StationsSelection {
                 pos[jj] = jj;
             }
 
-            // sorts the distances
-            QuickSortAlgorithm t = new QuickSortAlgorithm(pm);
+            // sorts the distances, the new selections have no monitor to share
+            QuickSortAlgorithm t = new QuickSortAlgorithm(selection.pm);
             t.sort(distanceVector, pos);
 
-            inNumCloserStations = (inNumCloserStations > nStaz) ? nStaz : inNumCloserStations;
+            int inNumCloserStations = (this.inNumCloserStations > nStaz) ? nStaz : this.inNumCloserStations;
 
             /*
              * The dimension of the new vector of the station is then defined
@@ -240,7 +299,8 @@ public class StationsSelection {
              * by the users
              */
 
-            modelSelection = SimpleModelFactory.createModel(distanceVector, inNumCloserStations, maxdist);
+            Model modelSelection = SimpleModelFactory.createModel(distanceVector, inNumCloserStations, maxdist);
+            selection.modelSelection = modelSelection;
             int dim = modelSelection.numberOfStations();
 
             double[] xStationWithNeighbour = new double[dim + 1];
@@ -266,6 +326,13 @@ public class StationsSelection {
 
         }
 
+        selection.xStationInitialSet = xStationInitialSet;
+        selection.yStationInitialSet = yStationInitialSet;
+        selection.zStationInitialSet = zStationInitialSet;
+        selection.hStationInitialSet = hStationInitialSet;
+        selection.idStationInitialSet = idStationInitialSet;
+        selection.areAllEquals = loadedAllEquals;
+        selection.n1 = loadedN1;
     }
 
 }
@@ -22,6 +22,8 @@ import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 import java.awt.image.RenderedImage;
 import java.util.HashMap;
 
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.RectIter;
 import javax.media.jai.iterator.RectIterFactory;
 
@@ -29,6 +31,7 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.io.rasterreader.OmsRasterReader;
 import org.hortonmachine.gears.io.rasterwriter.OmsRasterWriter;
 import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.gears.utils.time.EggClock;
 import org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsDePitter;
@@ -73,57 +76,114 @@ public class TestDePitter extends HMTestCase {
 //        egg.printTimePassedInMinutes(System.out);
 //
 //    }
-//     public void testPitfiller() throws Exception {
-//     double[][] elevationData = new double[][]{//
-//     {800, 900, 1000, 1000, 1200, 1250, 1300, 1350, 1450, 1500}, //
-//     {600, ND, 750, 850, 860, 900, 1000, 1200, 1250, 1500}, //
-//     {500, 550, 700, 750, 800, 850, 900, 1000, 1100, 1500}, //
-//     {400, 410, 650, 700, 750, 800, 850, 490, 450, 1500}, //
-//     {450, 550, 430, 500, 600, 700, 800, 500, 450, 1500}, //
-//     {500, 600, 700, 750, 760, 770, 850, 1000, 1150, 1500}, //
-//     {600, 700, 750, 800, 780, 790, 1000, 1100, 1250, 1500}, //
-//     {800, 910, 980, 1001, 1150, 1200, 1250, 1300, 1450, 1500} //
-//     };
-//     RegionMap envelopeParams = HMTestMaps.getEnvelopeparams();
-//     CoordinateReferenceSystem crs = HMTestMaps.getCrs();
-//     GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation",
-//     elevationData, envelopeParams, crs, true);
-//    
-//     OmsDePitter pitfiller = new OmsDePitter();
-//     pitfiller.inElev = elevationCoverage;
-//     pitfiller.pm = pm;
-//     pitfiller.process();
-//    
-//     GridCoverage2D pitfillerCoverage = pitfiller.outPit;
-//     // printImage(pitfillerCoverage.getRenderedImage());
-//     double[][] outNewPitData = new double[][]{ //
-//     {800, 900, 1000, 1000, 1200, 1250, 1300, 1350, 1450, 1500}, //
-//     {600, ND, 750, 850, 860, 900, 1000, 1200, 1250, 1500}, //
-//     {500, 550, 700, 750, 800, 850, 900, 1000, 1100, 1500}, //
-//     {400, 410, 650, 700, 750, 800, 850, 800.000002, 800.000004, 1500}, //
-//     {450, 550, 430, 500, 600, 700, 800, 800.000002, 800.000004, 1500}, //
-//     {500, 600, 700, 750, 760, 770, 850, 1000, 1150, 1500}, //
-//     {600, 700, 750, 800, 780, 790, 1000, 1100, 1250, 1500}, //
-//     {800, 910, 980, 1001, 1150, 1200, 1250, 1300, 1450, 1500} //
-//     };
-//     checkMatrixEqual(pitfillerCoverage.getRenderedImage(), outNewPitData, 0);
-//    
-//     int[][] newIntFlowData = new int[][]{ //
-//     {NI, NI, NI, NI, NI, NI, NI, NI, NI, NI}, //
-//     {NI, NI, NI, 6, 6, 6, 6, 6, 6, NI}, //
-//     {NI, NI, NI, 6, 6, 6, 6, 7, 7, NI}, //
-//     {NI, 5, 5, 7, 6, 6, 6, 6, 5, NI}, //
-//     {NI, 3, 4, 5, 5, 5, 5, 5, 5, NI}, //
-//     {NI, 2, 3, 3, 4, 4, 4, 3, 3, NI}, //
-//     {NI, 4, 4, 4, 4, 4, 5, 4, 4, NI}, //
-//     {NI, NI, NI, NI, NI, NI, NI, NI, NI, NI} //
-//     };
-//    
-//     GridCoverage2D flowCoverage = pitfiller.outFlow;
-//     // printImage(flowCoverage.getRenderedImage());
-//     checkMatrixEqual(flowCoverage.getRenderedImage(), newIntFlowData);
-//    
-//     }
+    /**
+     * Regression against the outputs of the iterative pit filling implementation.
+     * 
+     * <p>Flowdirections have to be the same, filled elevations can differ only by the
+     * epsilon used to let the filled areas drain, since the old fixed 2E-6 step is
+     * below the float precision at these elevations.</p>
+     */
+    public void testDePitter() throws Exception {
+        RegionMap envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", HMTestMaps.mapData, envelopeParams, crs,
+                true);
+
+        OmsDePitter pitfiller = new OmsDePitter();
+        pitfiller.inElev = elevationCoverage;
+        pitfiller.pm = pm;
+        pitfiller.process();
+
+        GridCoverage2D pitfillerCoverage = pitfiller.outPit;
+        checkMatrixEqual(pitfillerCoverage.getRenderedImage(), HMTestMaps.outNewPitData, 1E-3);
+        checkRaised(pitfillerCoverage.getRenderedImage(), HMTestMaps.mapData);
+
+        GridCoverage2D flowCoverage = pitfiller.outFlow;
+        checkMatrixEqual(flowCoverage.getRenderedImage(), HMTestMaps.newFlowData, 0);
+    }
+
+    /**
+     * Regression on a depression with a flat bottom, draining through a single outlet.
+     * 
+     * <p>The old implementation also raised by 2E-6 some rim cells that were already 
+     * draining, the priority flood leaves them untouched.</p>
+     */
+    public void testDePitterFlat() throws Exception {
+        double[][] elevationData = new double[][]{ //
+                {900, 900, 900, 900, 900, 900, 900, 900}, //
+                {900, 800, 800, 800, 800, 800, 800, 900}, //
+                {900, 800, 700, 700, 700, 700, 800, 900}, //
+                {900, 800, 700, 700, 700, 700, 800, 900}, //
+                {900, 800, 700, 700, 700, 700, 800, 900}, //
+                {900, 800, 800, 800, 800, 750, 800, 900}, //
+                {900, 900, 900, 900, 900, 760, 900, 900}, //
+                {900, 900, 900, 900, 900, 600, 900, 900} //
+        };
+        RegionMap envelopeParams = new RegionMap();
+        envelopeParams.north = 240.0;
+        envelopeParams.south = 0.0;
+        envelopeParams.west = 0.0;
+        envelopeParams.east = 240.0;
+        envelopeParams.xres = 30.0;
+        envelopeParams.yres = 30.0;
+        envelopeParams.rows = 8;
+        envelopeParams.cols = 8;
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", elevationData, envelopeParams, crs, true);
+
+        OmsDePitter pitfiller = new OmsDePitter();
+        pitfiller.inElev = elevationCoverage;
+        pitfiller.pm = pm;
+        pitfiller.process();
+
+        // old outputs
+        double[][] pitData = new double[][]{ //
+                {900, 900, 900, 900, 900, 900, 900, 900}, //
+                {900, 800.000002, 800.000002, 800.000002, 800.000002, 800.000002, 800.000002, 900}, //
+                {900, 800.000002, 760.000008, 760.000008, 760.000008, 760.000008, 800.000002, 900}, //
+                {900, 800.000002, 760.000008, 760.000006, 760.000006, 760.000006, 800.000002, 900}, //
+                {900, 800.000002, 760.000008, 760.000006, 760.000004, 760.000004, 800.000002, 900}, //
+                {900, 800.000002, 800.000002, 800.000002, 800, 760.000002, 800, 900}, //
+                {900, 900.000002, 900.000002, 900, 900, 760, 900, 900}, //
+                {900, 900, 900, 900, 900, 600, 900, 900} //
+        };
+        double[][] flowData = new double[][]{ //
+                {NI, NI, NI, NI, NI, NI, NI, NI}, //
+                {NI, 8, 7, 7, 7, 7, 6, NI}, //
+                {NI, 1, 8, 7, 7, 7, 5, NI}, //
+                {NI, 1, 1, 8, 7, 7, 5, NI}, //
+                {NI, 1, 1, 1, 8, 7, 5, NI}, //
+                {NI, 2, 3, 3, 1, 7, 5, NI}, //
+                {NI, 3, 3, 3, 8, 7, 6, NI}, //
+                {NI, NI, NI, NI, NI, NI, NI, NI} //
+        };
+
+        GridCoverage2D pitfillerCoverage = pitfiller.outPit;
+        checkMatrixEqual(pitfillerCoverage.getRenderedImage(), pitData, 1E-3);
+        checkRaised(pitfillerCoverage.getRenderedImage(), elevationData);
+
+        GridCoverage2D flowCoverage = pitfiller.outFlow;
+        checkMatrixEqual(flowCoverage.getRenderedImage(), flowData, 0);
+    }
+
+    /**
+     * Check that cells are only raised, never lowered.
+     */
+    private void checkRaised( RenderedImage image, double[][] elevationData ) {
+        RandomIter iter = RandomIterFactory.create(image, null);
+        for( int r = 0; r < elevationData.length; r++ ) {
+            for( int c = 0; c < elevationData[0].length; c++ ) {
+                double original = elevationData[r][c];
+                double value = iter.getSampleDouble(c, r, 0);
+                if (isNovalue(original)) {
+                    assertTrue(isNovalue(value));
+                } else {
+                    assertTrue(c + " " + r, value >= original);
+                }
+            }
+        }
+        iter.done();
+    }
 
     protected void checkMatrixEqualLimit( RenderedImage image, double[][] matrix, double delta ) {
         RectIter rectIter = RectIterFactory.create(image, null);
@@ -0,0 +1,111 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.models.hm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.hortonmachine.hmachine.modules.statistics.kriging.utils.KrigingSystemsCache;
+import org.hortonmachine.hmachine.modules.statistics.kriging.utils.SimpleLinearSystemSolverFactory;
+import org.hortonmachine.hmachine.utils.HMTestCase;
+
+/**
+ * Test the {@link KrigingSystemsCache}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestKrigingSystemsCache extends HMTestCase {
+
+    private static final double[] X = {0, 10, 0, 10};
+    private static final double[] Y = {0, 0, 10, 10};
+    private static final double[] Z = {0, 0, 0, 0};
+
+    private static double[][] matrix( int n ) {
+        // linear variogram with the lagrange multiplier row
+        double[][] matrix = new double[n + 1][n + 1];
+        for( int i = 0; i < n; i++ ) {
+            for( int j = 0; j < n; j++ ) {
+                matrix[i][j] = Math.hypot(X[i] - X[j], Y[i] - Y[j]);
+            }
+            matrix[i][n] = 1.0;
+            matrix[n][i] = 1.0;
+        }
+        return matrix;
+    }
+
+    private static double[] knownTerm( int n, double x, double y ) {
+        double[] knownTerm = new double[n + 1];
+        for( int i = 0; i < n; i++ ) {
+            knownTerm[i] = Math.hypot(X[i] - x, Y[i] - y);
+        }
+        knownTerm[n] = 1.0;
+        return knownTerm;
+    }
+
+    public void testCachedSolutions() throws Exception {
+        KrigingSystemsCache cache = new KrigingSystemsCache("default", 10);
+        AtomicInteger builds = new AtomicInteger();
+
+        for( int k = 0; k < 5; k++ ) {
+            double x = 2.0 * k;
+            double y = 3.0;
+            double[] knownTerm = knownTerm(4, x, y);
+            double[] weights = cache.solve(X, Y, Z, 4, () -> {
+                builds.incrementAndGet();
+                return matrix(4);
+            }, knownTerm);
+            double[] expected = SimpleLinearSystemSolverFactory.solve(knownTerm, matrix(4), "default").copyValues1D();
+            assertEquals(expected.length, weights.length);
+            double sum = 0;
+            for( int i = 0; i < expected.length; i++ ) {
+                assertEquals(expected[i], weights[i], 1E-12);
+                if (i < 4) {
+                    sum += weights[i];
+                }
+            }
+            assertEquals(1.0, sum, 1E-9);
+        }
+        assertEquals(1, builds.get());
+        assertEquals(1, cache.size());
+
+        // a different set of stations gets its own system
+        cache.solve(X, Y, Z, 3, () -> matrix(3), knownTerm(3, 1, 1));
+        assertEquals(2, cache.size());
+    }
+
+    public void testParallelSolutions() throws Exception {
+        KrigingSystemsCache cache = new KrigingSystemsCache("default", 10);
+        double[] expected = SimpleLinearSystemSolverFactory.solve(knownTerm(4, 5, 5), matrix(4), "default").copyValues1D();
+        boolean allEqual = IntStream.range(0, 100).parallel().allMatch(i -> {
+            try {
+                double[] weights = cache.solve(X, Y, Z, 4, () -> matrix(4), knownTerm(4, 5, 5));
+                for( int k = 0; k < expected.length; k++ ) {
+                    if (Math.abs(expected[k] - weights[k]) > 1E-12) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        });
+        assertTrue(allEqual);
+        assertEquals(1, cache.size());
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.models.hm;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.modules.Variables;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.InThreadExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.TiledExecutionPlanner;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.hmachine.modules.geomorphology.aspect.OmsAspect;
+import org.hortonmachine.hmachine.modules.geomorphology.curvatures.OmsCurvatures;
+import org.hortonmachine.hmachine.modules.geomorphology.gradient.OmsGradient;
+import org.hortonmachine.hmachine.utils.HMTestCase;
+import org.hortonmachine.hmachine.utils.HMTestMaps;
+
+/**
+ * Test that the grid modules give the same result on a tiled input
+ * with the tiled planner as in the calling thread.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestTiledGridProcessing extends HMTestCase {
+
+    private static final int COLS = 300;
+    private static final int ROWS = 200;
+    private static final int IMAGE_TILE_SIZE = 16;
+
+    private GridCoverage2D elevation;
+
+    protected void setUp() throws Exception {
+        Random random = new Random(42);
+        WritableRaster elevRaster = CoverageUtilities.createWritableRaster(COLS, ROWS, null, null, null);
+        for( int r = 0; r < ROWS; r++ ) {
+            for( int c = 0; c < COLS; c++ ) {
+                double value = 1000 + 50 * Math.sin(c / 17.0) * Math.cos(r / 11.0) + random.nextDouble();
+                if (random.nextInt(100) == 0) {
+                    value = HMConstants.doubleNovalue;
+                }
+                elevRaster.setSample(c, r, 0, value);
+            }
+        }
+
+        // an input image made of many tiles, so that the workers move between them
+        SampleModel sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_DOUBLE, IMAGE_TILE_SIZE,
+                IMAGE_TILE_SIZE, 1);
+        TiledImage tiledImage = new TiledImage(0, 0, COLS, ROWS, 0, 0, sampleModel,
+                PlanarImage.createColorModel(sampleModel));
+        tiledImage.setData(elevRaster);
+        assertTrue(tiledImage.getNumXTiles() > 1 && tiledImage.getNumYTiles() > 1);
+
+        RegionMap regionMap = CoverageUtilities.makeRegionParamsMap(ROWS * 10.0, 0, 0, COLS * 10.0, 10, 10, COLS, ROWS);
+        elevation = CoverageUtilities.buildCoverage("elev", tiledImage, regionMap, HMTestMaps.getCrs());
+    }
+
+    public void testGradient() throws Exception {
+        for( String mode : new String[]{Variables.FINITE_DIFFERENCES, Variables.HORN, Variables.EVANS} ) {
+            GridCoverage2D inThread = runWith(InThreadExecutionPlanner::new, () -> gradient(mode));
+            GridCoverage2D tiled = runWith(() -> new TiledExecutionPlanner(8, 4), () -> gradient(mode));
+            checkImageEqual(inThread.getRenderedImage(), tiled.getRenderedImage());
+        }
+    }
+
+    public void testAspect() throws Exception {
+        GridCoverage2D inThread = runWith(InThreadExecutionPlanner::new, () -> aspect());
+        GridCoverage2D tiled = runWith(() -> new TiledExecutionPlanner(8, 4), () -> aspect());
+        checkImageEqual(inThread.getRenderedImage(), tiled.getRenderedImage());
+    }
+
+    public void testCurvatures() throws Exception {
+        OmsCurvatures inThread = runWith(InThreadExecutionPlanner::new, () -> curvatures());
+        OmsCurvatures tiled = runWith(() -> new TiledExecutionPlanner(8, 4), () -> curvatures());
+        checkImageEqual(inThread.outPlan.getRenderedImage(), tiled.outPlan.getRenderedImage());
+        checkImageEqual(inThread.outTang.getRenderedImage(), tiled.outTang.getRenderedImage());
+        checkImageEqual(inThread.outProf.getRenderedImage(), tiled.outProf.getRenderedImage());
+    }
+
+    private GridCoverage2D gradient( String mode ) throws Exception {
+        OmsGradient gradient = new OmsGradient();
+        gradient.inElev = elevation;
+        gradient.pMode = mode;
+        gradient.pm = pm;
+        gradient.process();
+        return gradient.outSlope;
+    }
+
+    private GridCoverage2D aspect() throws Exception {
+        OmsAspect aspect = new OmsAspect();
+        aspect.inElev = elevation;
+        aspect.pm = pm;
+        aspect.process();
+        return aspect.outAspect;
+    }
+
+    private OmsCurvatures curvatures() throws Exception {
+        OmsCurvatures curvatures = new OmsCurvatures();
+        curvatures.inElev = elevation;
+        curvatures.pm = pm;
+        curvatures.process();
+        return curvatures;
+    }
+
+    private <T> T runWith( Supplier<ExecutionPlanner> plannerFactory, ModuleRun<T> run ) throws Exception {
+        Supplier<ExecutionPlanner> previous = ExecutionPlanner.defaultTiledPlannerFactory;
+        ExecutionPlanner.defaultTiledPlannerFactory = plannerFactory;
+        try {
+            return run.run();
+        } finally {
+            ExecutionPlanner.defaultTiledPlannerFactory = previous;
+        }
+    }
+
+    private void checkImageEqual( RenderedImage expected, RenderedImage image ) {
+        RandomIter expectedIter = RandomIterFactory.create(expected, null);
+        RandomIter iter = RandomIterFactory.create(image, null);
+        for( int r = 0; r < ROWS; r++ ) {
+            for( int c = 0; c < COLS; c++ ) {
+                double expectedValue = expectedIter.getSampleDouble(c, r, 0);
+                double value = iter.getSampleDouble(c, r, 0);
+                if (Double.isNaN(expectedValue)) {
+                    assertTrue("col " + c + " row " + r, Double.isNaN(value));
+                } else {
+                    assertEquals("col " + c + " row " + r, expectedValue, value, 0.0);
+                }
+            }
+        }
+        expectedIter.done();
+        iter.done();
+    }
+
+    @FunctionalInterface
+    private interface ModuleRun<T> {
+        T run() throws Exception;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.models.hm;
+
+import org.hortonmachine.hmachine.modules.geomorphology.viewshed.ViewshedKernel;
+import org.hortonmachine.hmachine.utils.HMTestCase;
+
+/**
+ * Test the {@link ViewshedKernel}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestViewshed extends HMTestCase {
+
+    private static final int SIZE = 21;
+    private static final double NOVALUE = -9999.0;
+
+    private boolean[] visibility( ViewshedKernel kernel, double stationZ, double maxRadius ) {
+        boolean[] visible = new boolean[SIZE * SIZE];
+        // station in the center of cell 10, 10
+        kernel.compute(10.5, SIZE - 10.5, stationZ, maxRadius, ( col, row ) -> visible[row * SIZE + col] = true);
+        return visible;
+    }
+
+    public void testFlatPlane() throws Exception {
+        double[] elevation = new double[SIZE * SIZE];
+        ViewshedKernel kernel = new ViewshedKernel(elevation, SIZE, SIZE, 1, 1, 0, SIZE, NOVALUE);
+
+        boolean[] visible = visibility(kernel, 2.0, -1);
+        for( boolean v : visible ) {
+            assertTrue(v);
+        }
+
+        visible = visibility(kernel, 2.0, 5.0);
+        assertTrue(visible[10 * SIZE + 15]);
+        assertFalse(visible[10 * SIZE + 16]);
+        // the diagonal is longer than the radius
+        assertFalse(visible[14 * SIZE + 14]);
+        assertTrue(visible[13 * SIZE + 13]);
+    }
+
+    public void testWall() throws Exception {
+        double[] elevation = new double[SIZE * SIZE];
+        // a north-south wall east of the station
+        for( int row = 0; row < SIZE; row++ ) {
+            elevation[row * SIZE + 13] = 50;
+        }
+        // a novalue west of the station
+        elevation[10 * SIZE + 5] = NOVALUE;
+        ViewshedKernel kernel = new ViewshedKernel(elevation, SIZE, SIZE, 1, 1, 0, SIZE, NOVALUE);
+
+        boolean[] visible = visibility(kernel, 2.0, -1);
+        // the wall is visible, the cells behind it are not
+        assertTrue(visible[10 * SIZE + 13]);
+        for( int col = 14; col < SIZE; col++ ) {
+            assertFalse(visible[10 * SIZE + col]);
+            assertFalse(visible[12 * SIZE + col]);
+        }
+        // the west is open
+        assertTrue(visible[10 * SIZE]);
+        assertTrue(visible[3 * SIZE + 2]);
+        assertFalse(visible[10 * SIZE + 5]);
+
+        // from high above the wall the plane behind it is visible again far away
+        visible = visibility(kernel, 1000.0, -1);
+        assertTrue(visible[10 * SIZE + 20]);
+    }
+
+    public void testCellsVisitedOnce() throws Exception {
+        double[] elevation = new double[SIZE * SIZE];
+        ViewshedKernel kernel = new ViewshedKernel(elevation, SIZE, SIZE, 1, 1, 0, SIZE, NOVALUE);
+
+        // stations in the center and near the borders, to have cropped octants too
+        double[][] stations = {{10.5, SIZE - 10.5}, {2.5, SIZE - 17.5}, {19.5, SIZE - 0.5}};
+        for( double[] station : stations ) {
+            int[] counts = new int[SIZE * SIZE];
+            kernel.compute(station[0], station[1], 2.0, -1, ( col, row ) -> counts[row * SIZE + col]++);
+            for( int count : counts ) {
+                assertEquals(1, count);
+            }
+        }
+    }
+
+}
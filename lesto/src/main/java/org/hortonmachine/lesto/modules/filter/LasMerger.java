@@ -22,13 +22,15 @@ import static java.lang.Math.min;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ALasWriter;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
-import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.LasRecordBatch;
+import org.hortonmachine.gears.io.las.utils.LasSpatialSorter;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -44,7 +46,7 @@ import oms3.annotations.Name;
 import oms3.annotations.Status;
 import oms3.annotations.UI;
 
-@Description("A module that merges las files to a single one.")
+@Description("A module that merges las files to a single one, with the points in spatially coherent order.")
 @Author(name = "Andrea Antonello", contact = "www.hydrologis.com")
 @Keywords("las, merge")
 @Label(HMConstants.LESTO + "/filter")
@@ -62,6 +64,12 @@ public class LasMerger extends HMModel {
     @In
     public String outLas;
 
+    @Description("The number of points sorted in memory before spilling to temporary files.")
+    @In
+    public int pChunkSize = 2000000;
+
+    private static final int BATCH_SIZE = 100000;
+
     @Execute
     public void process() throws Exception {
         checkNull(inFolder, outLas);
@@ -82,45 +90,74 @@ public class LasMerger extends HMModel {
 
         // create readers and calculate bounds
         List<ALasReader> readers = new ArrayList<ALasReader>();
-        double xMin = Double.POSITIVE_INFINITY;
-        double yMin = Double.POSITIVE_INFINITY;
-        double zMin = Double.POSITIVE_INFINITY;
-        double xMax = Double.NEGATIVE_INFINITY;
-        double yMax = Double.NEGATIVE_INFINITY;
-        double zMax = Double.NEGATIVE_INFINITY;
-        int count = 0;
-        for( File lasFile : lasList ) {
-            ALasReader reader = ALasReader.getReader(lasFile, crs);
-            reader.open();
-            ILasHeader header = reader.getHeader();
-            long recordsNum = header.getRecordsCount();
-            count = (int) (count + recordsNum);
-            ReferencedEnvelope3D envelope = header.getDataEnvelope();
-            xMin = min(xMin, envelope.getMinX());
-            yMin = min(yMin, envelope.getMinY());
-            zMin = min(zMin, envelope.getMinZ());
-            xMax = max(xMax, envelope.getMaxX());
-            yMax = max(yMax, envelope.getMaxY());
-            zMax = max(zMax, envelope.getMaxZ());
-            readers.add(reader);
-        }
+        try {
+            double xMin = Double.POSITIVE_INFINITY;
+            double yMin = Double.POSITIVE_INFINITY;
+            double zMin = Double.POSITIVE_INFINITY;
+            double xMax = Double.NEGATIVE_INFINITY;
+            double yMax = Double.NEGATIVE_INFINITY;
+            double zMax = Double.NEGATIVE_INFINITY;
+            int count = 0;
+            for( File lasFile : lasList ) {
+                ALasReader reader = ALasReader.getReader(lasFile, crs);
+                readers.add(reader);
+                reader.open();
+                ILasHeader header = reader.getHeader();
+                long recordsNum = header.getRecordsCount();
+                count = (int) (count + recordsNum);
+                ReferencedEnvelope3D envelope = header.getDataEnvelope();
+                xMin = min(xMin, envelope.getMinX());
+                yMin = min(yMin, envelope.getMinY());
+                zMin = min(zMin, envelope.getMinZ());
+                xMax = max(xMax, envelope.getMaxX());
+                yMax = max(yMax, envelope.getMaxY());
+                zMax = max(zMax, envelope.getMaxZ());
+            }
 
-        File outFile = new File(outLas);
-        ALasWriter writer = ALasWriter.getWriter(outFile, crs);
-        writer.setBounds(xMin, xMax, yMin, yMax, zMin, zMax);
-        writer.open();
+            File outFile = new File(outLas);
+            try (LasSpatialSorter sorter = new LasSpatialSorter(xMin, yMin, xMax, yMax, 1, 1, pChunkSize,
+                    outFile.getParentFile())) {
+                pm.beginTask("Sorting...", count);
+                LasRecordBatch batch = new LasRecordBatch(BATCH_SIZE);
+                batch.color = new short[BATCH_SIZE * 3];
+                for( Iterator<ALasReader> readersIter = readers.iterator(); readersIter.hasNext(); ) {
+                    ALasReader reader = readersIter.next();
+                    while( reader.readNextBatch(batch) > 0 ) {
+                        sorter.add(batch);
+                        pm.worked(batch.size);
+                    }
+                    readersIter.remove();
+                    reader.close();
+                }
+                pm.done();
 
-        pm.beginTask("Merging...", count);
-        for( ALasReader reader : readers ) {
-            while( reader.hasNextPoint() ) {
-                LasRecord readNextLasDot = reader.getNextPoint();
-                writer.addPoint(readNextLasDot);
-                pm.worked(1);
+                ALasWriter writer = ALasWriter.getWriter(outFile, crs);
+                writer.setBounds(xMin, xMax, yMin, yMax, zMin, zMax);
+                try {
+                    writer.open();
+                    pm.beginTask("Merging...", count);
+                    sorter.merge(( tile, dot ) -> {
+                        writer.addPoint(dot);
+                        pm.worked(1);
+                    });
+                    pm.done();
+                } catch (Exception e) {
+                    // do not leave a truncated file behind
+                    try {
+                        writer.close();
+                    } catch (Exception closeException) {
+                        e.addSuppressed(closeException);
+                    }
+                    outFile.delete();
+                    throw e;
+                }
+                writer.close();
+            }
+        } finally {
+            for( ALasReader reader : readers ) {
+                reader.close();
             }
-            reader.close();
         }
-        writer.close();
-        pm.done();
     }
 
 }
@@ -17,22 +17,16 @@
  */
 package org.hortonmachine.lesto.modules.filter;
 import java.io.File;
-import java.util.HashMap;
-import java.util.List;
 
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ALasWriter;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
-import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.LasRecordBatch;
+import org.hortonmachine.gears.io.las.utils.LasSpatialSorter;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.utils.files.FileUtilities;
-import org.hortonmachine.gears.utils.math.NumericsUtilities;
-
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Envelope;
-import org.locationtech.jts.index.strtree.STRtree;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -45,7 +39,7 @@ import oms3.annotations.Name;
 import oms3.annotations.Status;
 import oms3.annotations.UI;
 
-@Description("A module that splits a las file into smaller pieces.")
+@Description("A module that splits a las file into smaller pieces, with the points of each piece in spatially coherent order.")
 @Author(name = "Andrea Antonello", contact = "www.hydrologis.com")
 @Keywords("las, split")
 @Label(HMConstants.LESTO + "/filter")
@@ -66,7 +60,12 @@ public class LasSplitter extends HMModel {
     @In
     public int pCols;
 
-    @SuppressWarnings("unchecked")
+    @Description("The number of points sorted in memory before spilling to temporary files.")
+    @In
+    public int pChunkSize = 2000000;
+
+    private static final int BATCH_SIZE = 100000;
+
     @Execute
     public void process() throws Exception {
         checkNull(inFile);
@@ -81,56 +80,72 @@ public class LasSplitter extends HMModel {
             double[] xyzOffset = header.getXYZOffset();
             ReferencedEnvelope3D env = header.getDataEnvelope();
 
-            double[] xRange = NumericsUtilities.range2Bins(env.getMinX(), env.getMaxX(), pCols);
-            double[] yRange = NumericsUtilities.range2Bins(env.getMinY(), env.getMaxY(), pRows);
-
-            STRtree envelopeTree = new STRtree();
-            HashMap<Envelope, ALasWriter> env2LaswriterMap = new HashMap<>();
-            int fileCount = 1;
-            for( int x = 0; x < xRange.length - 1; x++ ) {
-                double minX = xRange[x];
-                double maxX = xRange[x + 1];
-                for( int y = 0; y < yRange.length - 1; y++ ) {
-                    double minY = yRange[y];
-                    double maxY = yRange[y + 1];
-
-                    Envelope envelope = new Envelope(new Coordinate(minX, minY), new Coordinate(maxX, maxY));
-
-                    File outLasPiece = new File(inLas.getParentFile(), lasName + "_" + fileCount + ".las");
-                    ALasWriter writer = ALasWriter.getWriter(outLasPiece, env.getCoordinateReferenceSystem());
-                    writer.setOffset(xyzOffset[0], xyzOffset[1], xyzOffset[2]);
-                    writer.setScales(xyzScale[0], xyzScale[1], xyzScale[2]);
-                    writer.setBounds(minX, maxX, minY, maxY, env.getMinZ(), env.getMaxZ());
-                    writer.open();
-
-                    envelopeTree.insert(envelope, writer);
-                    env2LaswriterMap.put(envelope, writer);
-
-                    fileCount++;
+            try (LasSpatialSorter sorter = new LasSpatialSorter(env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY(),
+                    pCols, pRows, pChunkSize, inLas.getParentFile())) {
+                /*
+                 * single read pass, sorting and spilling chunks
+                 */
+                pm.beginTask("Sorting points...", (int) recordsNum);
+                LasRecordBatch batch = new LasRecordBatch(BATCH_SIZE);
+                batch.color = new short[BATCH_SIZE * 3];
+                while( reader.readNextBatch(batch) > 0 ) {
+                    sorter.add(batch);
+                    pm.worked(batch.size);
                 }
-            }
-
-            pm.beginTask("Split file...", (int) recordsNum);
-            while( reader.hasNextPoint() ) {
-                LasRecord dot = reader.getNextPoint();
-                Coordinate coord = new Coordinate(dot.x, dot.y);
-
-                List<ALasWriter> result = envelopeTree.query(new Envelope(coord));
-                int size = result.size();
-                if (size == 0) {
-                    continue;
+                pm.done();
+
+                /*
+                 * the merged points come tile after tile, so only one writer is open at a time
+                 */
+                ALasWriter[] currentWriter = {null};
+                int[] currentTile = {-1};
+                pm.beginTask("Split file...", (int) recordsNum);
+                try {
+                    sorter.merge(( tile, dot ) -> {
+                        if (tile != currentTile[0]) {
+                            if (currentWriter[0] != null) {
+                                ALasWriter previousWriter = currentWriter[0];
+                                currentWriter[0] = null;
+                                previousWriter.close();
+                            }
+                            // tiles without points still get their empty file
+                            for( int t = currentTile[0] + 1; t < tile; t++ ) {
+                                openWriter(inLas, lasName, t, sorter, env, xyzScale, xyzOffset).close();
+                            }
+                            currentWriter[0] = openWriter(inLas, lasName, tile, sorter, env, xyzScale, xyzOffset);
+                            currentTile[0] = tile;
+                        }
+                        currentWriter[0].addPoint(dot);
+                        pm.worked(1);
+                    });
+                } finally {
+                    if (currentWriter[0] != null) {
+                        currentWriter[0].close();
+                    }
+                }
+                pm.done();
+                for( int t = currentTile[0] + 1; t < pCols * pRows; t++ ) {
+                    openWriter(inLas, lasName, t, sorter, env, xyzScale, xyzOffset).close();
                 }
-
-                ALasWriter aLasWriter = result.get(0);
-                aLasWriter.addPoint(dot);
-                pm.worked(1);
-            }
-            pm.done();
-
-            for( ALasWriter writer : env2LaswriterMap.values() ) {
-                writer.close();
             }
         }
     }
 
+    /**
+     * Open the writer of a tile, tiles are numbered by column and then by row.
+     * 
+     * <p>The header bounds are the ones the sorter assigned the points with.</p>
+     */
+    private ALasWriter openWriter( File inLas, String lasName, int tile, LasSpatialSorter sorter, ReferencedEnvelope3D env,
+            double[] xyzScale, double[] xyzOffset ) throws Exception {
+        double[] bounds = sorter.getTileBounds(tile);
+        File outLasPiece = new File(inLas.getParentFile(), lasName + "_" + (tile + 1) + ".las");
+        ALasWriter writer = ALasWriter.getWriter(outLasPiece, env.getCoordinateReferenceSystem());
+        writer.setOffset(xyzOffset[0], xyzOffset[1], xyzOffset[2]);
+        writer.setScales(xyzScale[0], xyzScale[1], xyzScale[2]);
+        writer.setBounds(bounds[0], bounds[1], bounds[2], bounds[3], env.getMinZ(), env.getMaxZ());
+        writer.open();
+        return writer;
+    }
+
 }
@@ -38,9 +38,7 @@ import oms3.annotations.Name;
 import oms3.annotations.Status;
 import oms3.annotations.UI;
 
-import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
@@ -54,21 +52,16 @@ import org.hortonmachine.gears.libs.modules.ThreadedRunnable;
 import org.hortonmachine.gears.modules.v.grids.OmsGridsGenerator;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.TinRasterizer;
 import org.hortonmachine.gears.utils.features.FeatureUtilities;
-import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
 import org.hortonmachine.lesto.modules.raster.adaptivetinfilter.TinHandler;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.geometry.DirectPosition;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
-import org.locationtech.jts.algorithm.locate.SimplePointInAreaLocator;
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.Location;
 import org.locationtech.jts.geom.Point;
-import org.locationtech.jts.index.strtree.STRtree;
 
 @Description("Tool for DEM generation from laser scanner data using adaptive tin models .")
 @Author(name = "Andrea Antonello, Silvia Franceschi", contact = "www.hydrologis.com")
@@ -207,8 +200,6 @@ public class AdaptiveTinFilter extends HMModel {
                 int addedPoints = tinAfter - tinBefore;
                 pm.message("Points added to the next iteration: " + addedPoints);
 
-                tinHandler.resetTin();
-
                 if (addedPoints == 0) {
                     break;
                 }
@@ -216,8 +207,6 @@ public class AdaptiveTinFilter extends HMModel {
             } while( iteration <= pIterations );
         }
 
-        tinHandler.getTriangles();
-
         /*
          * as a final cleanup do a filter on distance from triangles to remove
          * non picked ground points
@@ -239,81 +228,18 @@ public class AdaptiveTinFilter extends HMModel {
             }
 
         }
-        double[] minMaxElev0 = tinHandler.getMinMaxElev();
-        doRaster(tinHandler, regionMap, minMaxElev0, 0);
+        doRaster(tinHandler, regionMap);
 
     }
 
-    private void doRaster( TinHandler tinHandler, RegionMap regionMap, final double[] minMaxElev, int iteration )
-            throws Exception {
+    private void doRaster( TinHandler tinHandler, RegionMap regionMap ) throws Exception {
         final WritableRaster[] rasterHandler = new WritableRaster[1];
         GridCoverage2D outDemGC = CoverageUtilities.createCoverageFromTemplate(inTemplateGC, doubleNovalue, rasterHandler);
 
-        final STRtree tinTree = tinHandler.generateTinIndex(null);
-        final GridGeometry2D gridGeometry = inTemplateGC.getGridGeometry();
-        // pm.beginTask("Generating dem...", regionMap.getCols() *
-        // regionMap.getRows());
-        ThreadedRunnable tRun = new ThreadedRunnable(getDefaultThreadsNum(), null);
-        for( int r = 0; r < regionMap.getRows(); r++ ) {
-            for( int c = 0; c < regionMap.getCols(); c++ ) {
-                final int col = c;
-                final int row = r;
-                tRun.executeRunnable(new Runnable(){
-                    public void run() {
-                        try {
-                            DirectPosition directPosition = gridGeometry.gridToWorld(new GridCoordinates2D(col, row));
-                            double[] coord = directPosition.getCoordinate();
-                            Coordinate coordinate = new Coordinate(coord[0], coord[1]);
-                            Envelope e = new Envelope(coordinate);
-                            e.expandBy(TinHandler.POINTENVELOPE_EXPAND);
-                            List nearTinGeoms = tinTree.query(e);
-                            if (nearTinGeoms.size() == 0) {
-                                // pm.worked(1);
-                                return;
-                            }
-                            Geometry tinGeom = null;
-                            for( int i = 0; i < nearTinGeoms.size(); i++ ) {
-                                tinGeom = (Geometry) nearTinGeoms.get(i);
-                                SimplePointInAreaLocator pointLoc = new SimplePointInAreaLocator(tinGeom);
-                                // check if the point is inside the projection
-                                // of the triangle
-                                if (pointLoc.locate(coordinate) == Location.INTERIOR) {
-                                    break;
-                                }
-                            }
-                            if (tinGeom == null) {
-                                pm.errorMessage("Didn't find a matching triangle...");
-                                return;
-                            }
-
-                            Coordinate[] tinCoords = tinGeom.getCoordinates();
-
-                            Coordinate c1 = new Coordinate(coordinate.x, coordinate.y, 1E6);
-                            Coordinate c2 = new Coordinate(coordinate.x, coordinate.y, -1E6);
-
-                            Coordinate intersection = GeometryUtilities.getLineWithPlaneIntersection(c1, c2, tinCoords[0],
-                                    tinCoords[1], tinCoords[2]);
-                            // set elevation
-
-                            if (intersection != null) {
-                                double z = intersection.z;
-                                if (z >= minMaxElev[0] && z <= minMaxElev[1]) {
-                                    synchronized (rasterHandler) {
-                                        rasterHandler[0].setSample(col, row, 0, z);
-                                    }
-                                }
-                            }
-                            // pm.worked(1);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }
-                });
-
-            }
-        }
-        tRun.waitAndClose();
-        pm.done();
+        // every triangle is scan converted once, interpolating its vertices on the cell centers
+        TinRasterizer rasterizer = new TinRasterizer(regionMap.getWest(), regionMap.getNorth(), regionMap.getXres(),
+                regionMap.getYres(), regionMap.getCols(), regionMap.getRows());
+        rasterizer.rasterize(tinHandler.getTrianglesCoordinates(), rasterHandler[0], pm);
 
         dumpRaster(outDemGC, outDem);
     }
@@ -18,7 +18,6 @@
 package org.hortonmachine.lesto.modules.raster;
 
 import static java.lang.Math.abs;
-import static java.lang.Math.max;
 import static java.lang.Math.round;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSHYDRO_AUTHORCONTACTS;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSHYDRO_AUTHORNAMES;
@@ -41,28 +40,20 @@ import oms3.annotations.Name;
 import oms3.annotations.Status;
 import oms3.annotations.UI;
 
-import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.hortonmachine.gears.io.las.ALasDataManager;
 import org.hortonmachine.gears.io.las.core.LasRecord;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
-import org.hortonmachine.gears.libs.modules.ThreadedRunnable;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
-import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
-import org.hortonmachine.gears.utils.math.NumericsUtilities;
-import org.opengis.geometry.DirectPosition;
+import org.hortonmachine.gears.utils.coverage.TinRasterizer;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.TransformException;
 
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
-import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.triangulate.DelaunayTriangulationBuilder;
 
 @Description("Module that creates a DSM from the triangulation of point clouds.")
@@ -127,7 +118,7 @@ public class LasTriangulation2Dsm extends HMModel {
 
         int numTriangles = triangles.getNumGeometries();
         pm.beginTask("Extracting triangles based on threshold...", numTriangles);
-        ArrayList<Geometry> trianglesList = new ArrayList<Geometry>();
+        ArrayList<Coordinate[]> trianglesList = new ArrayList<Coordinate[]>();
         for( int i = 0; i < numTriangles; i++ ) {
             pm.worked(1);
             Geometry geometryN = triangles.getGeometryN(i);
@@ -144,7 +135,7 @@ public class LasTriangulation2Dsm extends HMModel {
             if (diff3 > pElevThres) {
                 continue;
             }
-            trianglesList.add(geometryN);
+            trianglesList.add(coordinates);
         }
         pm.done();
 
@@ -154,15 +145,6 @@ public class LasTriangulation2Dsm extends HMModel {
         pm.message("New triangles: " + newNumTriangles);
         pm.message("Removed triangles: " + removedNum);
 
-        pm.beginTask("Create triangles index...", newNumTriangles);
-        final STRtree tree = new STRtree(trianglesList.size());
-        for( Geometry triangle : trianglesList ) {
-            Envelope env = triangle.getEnvelopeInternal();
-            tree.insert(env, triangle);
-            pm.worked(1);
-        }
-        pm.done();
-
         RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inDtmGC);
         double north = regionMap.getNorth();
         double south = regionMap.getSouth();
@@ -182,71 +164,13 @@ public class LasTriangulation2Dsm extends HMModel {
         final WritableRaster newWR = CoverageUtilities.createWritableRaster(newCols, newRows, null, null,
                 HMConstants.doubleNovalue);
 
-        ThreadedRunnable< ? > runner = new ThreadedRunnable(getDefaultThreadsNum(), null);
-        pm.beginTask("Setting raster points...", newCols);
-        for( int c = 0; c < newCols; c++ ) {
-            final int fCol = c;
-            runner.executeRunnable(new Runnable(){
-                public void run() {
-                    try {
-                        makeRow(tree, newRows, newGridGeometry2D, newWR, fCol);
-                    } catch (TransformException e) {
-                        e.printStackTrace();
-                    }
-                    pm.worked(1);
-                }
-            });
-        }
-        runner.waitAndClose();
-        pm.done();
+        // every triangle is scan converted once, where triangles overlap the highest is kept
+        TinRasterizer rasterizer = new TinRasterizer(newRegionMap.getWest(), newRegionMap.getNorth(), newRegionMap.getXres(),
+                newRegionMap.getYres(), newCols, newRows);
+        rasterizer.rasterize(trianglesList, newWR, pm);
 
         GridCoverage2D outRasterGC = CoverageUtilities.buildCoverage("outraster", newWR, newRegionMap, crs);
         dumpRaster(outRasterGC, outRaster);
     }
 
-    private void makeRow( STRtree tree, int newRows, GridGeometry2D newGridGeometry2D, WritableRaster newWR, int c )
-            throws TransformException {
-        for( int r = 0; r < newRows; r++ ) {
-            DirectPosition worldPosition = newGridGeometry2D.gridToWorld(new GridCoordinates2D(c, r));
-            double[] wpCoords = worldPosition.getCoordinate();
-            Coordinate coordinate = new Coordinate(wpCoords[0], wpCoords[1]);
-            Point point = gf.createPoint(coordinate);
-            Envelope e = new Envelope(coordinate);
-            List interceptedTriangles = tree.query(e);
-            if (interceptedTriangles.size() == 0) {
-                continue;
-            }
-            double newElev = -9999.0;
-            for( Object object : interceptedTriangles ) {
-                if (object instanceof Geometry) {
-                    Geometry triangle = (Geometry) object;
-                    if (!triangle.intersects(point)) {
-                        continue;
-                    }
-                    Coordinate[] triangleCoords = triangle.getCoordinates();
-                    Coordinate c1 = new Coordinate(coordinate.x, coordinate.y, 1E4);
-                    Coordinate c2 = new Coordinate(coordinate.x, coordinate.y, -1E4);
-                    Coordinate intersection = GeometryUtilities.getLineWithPlaneIntersection(c1, c2, triangleCoords[0],
-                            triangleCoords[1], triangleCoords[2]);
-                    double maxZ = max(triangleCoords[0].z, triangleCoords[1].z);
-                    maxZ = max(maxZ, triangleCoords[2].z);
-                    if (intersection.z > maxZ) {
-                        boolean equals = NumericsUtilities.dEq(intersection.z, maxZ, 0.0001);
-                        if (!equals) {
-                            pm.errorMessage(triangle.toText());
-                            pm.errorMessage(gf.createPoint(intersection).toText());
-                            throw new RuntimeException("Intersection can't be  > than the triangle.");
-                        }
-                    }
-                    if (intersection.z > newElev) {
-                        newElev = intersection.z;
-                    }
-                }
-            }
-            synchronized (newWR) {
-                newWR.setSample(c, r, 0, newElev);
-            }
-        }
-    }
-
 }
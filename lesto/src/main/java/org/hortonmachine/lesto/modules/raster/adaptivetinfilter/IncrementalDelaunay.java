@@ -0,0 +1,530 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.lesto.modules.raster.adaptivetinfilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * An incremental 2D delaunay triangulation with point buckets.
+ *
+ * <p>Points are inserted one at a time: the containing triangle is found by walking
+ * from the last inserted one, it is split and the delaunay condition is restored
+ * through edge flips. The triangulation starts from a super triangle, whose
+ * vertices are handled symbolically in the flip test, so that the real triangles
+ * always cover the convex hull of the inserted points.</p>
+ *
+ * <p>Every triangle has a bucket of not inserted coordinates lying inside it. The buckets
+ * follow the triangles through splits and flips, so that no spatial index is needed
+ * to find the points inside a triangle.</p>
+ *
+ * <p>Triangles are never deleted, the index of a triangle stays valid across insertions
+ * even if its shape changes. The class is not thread safe, but buckets of different
+ * triangles can be read and replaced in parallel as long as no point is inserted.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class IncrementalDelaunay {
+    private static final int SUPER_VERTICES = 3;
+    private static final double SUPER_TRIANGLE_SCALE = 1000.0;
+
+    private final List<Coordinate> vertices = new ArrayList<Coordinate>();
+    /**
+     * The vertices of the triangles, counterclockwise, 3 per triangle.
+     */
+    private int[] triangleVertices;
+    /**
+     * The neighbours of the triangles, the i-th is across the edge opposite to the i-th vertex.
+     */
+    private int[] triangleNeighbours;
+    private List<List<Coordinate>> buckets = new ArrayList<List<Coordinate>>();
+    private int trianglesNum = 0;
+    private int lastTriangle = 0;
+
+    /**
+     * The triangles whose edge opposite to the last inserted vertex has to be checked.
+     */
+    private int[] stack = new int[64];
+    private int stackSize = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param envelope the envelope that contains all the points that will be inserted.
+     */
+    public IncrementalDelaunay( Envelope envelope ) {
+        double size = Math.max(Math.max(envelope.getWidth(), envelope.getHeight()), 1.0) * SUPER_TRIANGLE_SCALE;
+        double cx = envelope.centre().x;
+        double cy = envelope.centre().y;
+        vertices.add(new Coordinate(cx - 2 * size, cy - size));
+        vertices.add(new Coordinate(cx + 2 * size, cy - size));
+        vertices.add(new Coordinate(cx, cy + 2 * size));
+
+        triangleVertices = new int[3 * 64];
+        triangleNeighbours = new int[3 * 64];
+        newTriangle();
+        setTriangle(0, 0, 1, 2, -1, -1, -1);
+    }
+
+    /**
+     * Insert a point in the triangulation.
+     *
+     * <p>The not inserted coordinates in the buckets of the modified triangles are
+     * redistributed to the new triangles.</p>
+     *
+     * @param coordinate the coordinate to insert.
+     * @return the index of the new vertex or -1 if the coordinate is already a vertex.
+     */
+    public int insert( Coordinate coordinate ) {
+        int t = locate(coordinate, lastTriangle);
+        int base = 3 * t;
+        int onEdge = -1;
+        for( int i = 0; i < 3; i++ ) {
+            Coordinate a = vertices.get(triangleVertices[base + (i + 1) % 3]);
+            Coordinate b = vertices.get(triangleVertices[base + (i + 2) % 3]);
+            if (orient(a, b, coordinate) == 0.0) {
+                if (onEdge != -1) {
+                    // on two edges, it is a vertex
+                    return -1;
+                }
+                onEdge = i;
+            }
+        }
+
+        int p = vertices.size();
+        vertices.add(coordinate);
+        if (onEdge == -1 || triangleNeighbours[base + onEdge] == -1) {
+            splitTriangle(t, p);
+        } else {
+            splitEdge(t, onEdge, p);
+        }
+        return p - SUPER_VERTICES;
+    }
+
+    /**
+     * Find the triangle that contains a coordinate.
+     *
+     * @param coordinate the coordinate.
+     * @param startTriangle the triangle to start the walk from, ideally near to the coordinate.
+     * @return the index of the triangle.
+     */
+    public int locate( Coordinate coordinate, int startTriangle ) {
+        int t = startTriangle;
+        int steps = 0;
+        int maxSteps = 4 * trianglesNum + 4;
+        while( steps++ < maxSteps ) {
+            int base = 3 * t;
+            int next = -2;
+            // start from a rotating edge, the visibility walk can't cycle on a delaunay triangulation
+            int offset = steps % 3;
+            for( int k = 0; k < 3; k++ ) {
+                int i = (k + offset) % 3;
+                Coordinate a = vertices.get(triangleVertices[base + (i + 1) % 3]);
+                Coordinate b = vertices.get(triangleVertices[base + (i + 2) % 3]);
+                if (orient(a, b, coordinate) < 0.0) {
+                    next = triangleNeighbours[base + i];
+                    break;
+                }
+            }
+            if (next == -2) {
+                return t;
+            }
+            if (next == -1) {
+                break;
+            }
+            t = next;
+        }
+        // fall back on a full scan
+        for( int i = 0; i < trianglesNum; i++ ) {
+            if (contains(i, coordinate)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("The coordinate is outside of the triangulation: " + coordinate);
+    }
+
+    /**
+     * @return the number of triangles, including the ones connected to the super triangle.
+     */
+    public int getTrianglesNum() {
+        return trianglesNum;
+    }
+
+    /**
+     * @param triangle the triangle index.
+     * @return <code>true</code> if the triangle has only inserted vertices.
+     */
+    public boolean isReal( int triangle ) {
+        int base = 3 * triangle;
+        return triangleVertices[base] >= SUPER_VERTICES && triangleVertices[base + 1] >= SUPER_VERTICES
+                && triangleVertices[base + 2] >= SUPER_VERTICES;
+    }
+
+    /**
+     * @return the indexes of the triangles that have only inserted vertices.
+     */
+    public int[] getRealTriangles() {
+        int[] real = new int[trianglesNum];
+        int count = 0;
+        for( int i = 0; i < trianglesNum; i++ ) {
+            if (isReal(i)) {
+                real[count++] = i;
+            }
+        }
+        return Arrays.copyOf(real, count);
+    }
+
+    /**
+     * @param triangle the triangle index.
+     * @return the three vertices of the triangle, counterclockwise.
+     */
+    public Coordinate[] getTriangleCoordinates( int triangle ) {
+        int base = 3 * triangle;
+        return new Coordinate[]{vertices.get(triangleVertices[base]), vertices.get(triangleVertices[base + 1]),
+                vertices.get(triangleVertices[base + 2])};
+    }
+
+    /**
+     * @param triangle the triangle index.
+     * @param gf the geometry factory.
+     * @return the triangle as closed polygon.
+     */
+    public Polygon getTrianglePolygon( int triangle, GeometryFactory gf ) {
+        Coordinate[] c = getTriangleCoordinates(triangle);
+        return gf.createPolygon(new Coordinate[]{c[0], c[1], c[2], c[0]});
+    }
+
+    /**
+     * @return the inserted vertices.
+     */
+    public List<Coordinate> getVertices() {
+        return new ArrayList<Coordinate>(vertices.subList(SUPER_VERTICES, vertices.size()));
+    }
+
+    /**
+     * @param triangle the triangle index.
+     * @return the bucket of not inserted coordinates of the triangle.
+     */
+    public List<Coordinate> getBucket( int triangle ) {
+        return buckets.get(triangle);
+    }
+
+    /**
+     * Replace the bucket of a triangle.
+     *
+     * @param triangle the triangle index.
+     * @param coordinates the new coordinates of the bucket, they have to lie in the triangle.
+     */
+    public void setBucket( int triangle, List<Coordinate> coordinates ) {
+        buckets.set(triangle, coordinates);
+    }
+
+    /**
+     * Empty all the buckets.
+     */
+    public void clearBuckets() {
+        for( int i = 0; i < trianglesNum; i++ ) {
+            buckets.set(i, new ArrayList<Coordinate>());
+        }
+    }
+
+    /**
+     * @return the number of coordinates in all the buckets.
+     */
+    public int getBucketedNum() {
+        int count = 0;
+        for( int i = 0; i < trianglesNum; i++ ) {
+            count += buckets.get(i).size();
+        }
+        return count;
+    }
+
+    /**
+     * @return the coordinates of all the buckets.
+     */
+    public List<Coordinate> getBucketedCoordinates() {
+        List<Coordinate> all = new ArrayList<Coordinate>(getBucketedNum());
+        for( int i = 0; i < trianglesNum; i++ ) {
+            all.addAll(buckets.get(i));
+        }
+        return all;
+    }
+
+    private void splitTriangle( int t, int p ) {
+        int base = 3 * t;
+        int a = triangleVertices[base];
+        int b = triangleVertices[base + 1];
+        int c = triangleVertices[base + 2];
+        int na = triangleNeighbours[base];
+        int nb = triangleNeighbours[base + 1];
+        int nc = triangleNeighbours[base + 2];
+        List<Coordinate> bucket = buckets.get(t);
+
+        int t0 = t;
+        int t1 = newTriangle();
+        int t2 = newTriangle();
+        setTriangle(t0, a, b, p, t1, t2, nc);
+        setTriangle(t1, b, c, p, t2, t0, na);
+        setTriangle(t2, c, a, p, t0, t1, nb);
+        replaceNeighbour(na, t, t1);
+        replaceNeighbour(nb, t, t2);
+
+        distribute(bucket, t0, t1, t2, -1);
+        lastTriangle = t0;
+
+        push(t0);
+        push(t1);
+        push(t2);
+        legalize(p);
+    }
+
+    private void splitEdge( int t, int edge, int p ) {
+        int base = 3 * t;
+        int c = triangleVertices[base + edge];
+        int a = triangleVertices[base + (edge + 1) % 3];
+        int b = triangleVertices[base + (edge + 2) % 3];
+        int x1 = triangleNeighbours[base + (edge + 2) % 3];
+        int x2 = triangleNeighbours[base + (edge + 1) % 3];
+
+        int u = triangleNeighbours[base + edge];
+        int uBase = 3 * u;
+        int uEdge = neighbourIndex(u, t);
+        int d = triangleVertices[uBase + uEdge];
+        // u is (d, b, a) counterclockwise
+        int y1 = triangleNeighbours[uBase + (uEdge + 1) % 3];
+        int y2 = triangleNeighbours[uBase + (uEdge + 2) % 3];
+
+        List<Coordinate> bucket = new ArrayList<Coordinate>(buckets.get(t));
+        bucket.addAll(buckets.get(u));
+
+        int t1 = t;
+        int u1 = u;
+        int t2 = newTriangle();
+        int u2 = newTriangle();
+        setTriangle(t1, c, a, p, u2, t2, x1);
+        setTriangle(t2, c, p, b, u1, x2, t1);
+        setTriangle(u1, d, b, p, t2, u2, y2);
+        setTriangle(u2, d, p, a, t1, y1, u1);
+        replaceNeighbour(x2, t, t2);
+        replaceNeighbour(y1, u, u2);
+
+        distribute(bucket, t1, t2, u1, u2);
+        lastTriangle = t1;
+
+        push(t1);
+        push(t2);
+        push(u1);
+        push(u2);
+        legalize(p);
+    }
+
+    /**
+     * Restore the delaunay condition on the edges opposite to the new vertex
+     * of the triangles in the stack.
+     */
+    private void legalize( int p ) {
+        while( stackSize > 0 ) {
+            int t = stack[--stackSize];
+            int base = 3 * t;
+            int i = vertexIndex(t, p);
+            int u = triangleNeighbours[base + i];
+            if (u == -1) {
+                continue;
+            }
+            int e1 = triangleVertices[base + (i + 1) % 3];
+            int e2 = triangleVertices[base + (i + 2) % 3];
+            int uBase = 3 * u;
+            int j = neighbourIndex(u, t);
+            int q = triangleVertices[uBase + j];
+            if (!isIllegal(e1, e2, p, q)) {
+                continue;
+            }
+
+            // flip: t = (p, e1, e2) and u = (q, e2, e1) become (p, e1, q) and (p, q, e2)
+            // u traverses the shared edge from e2 to e1, so (e1, q) is opposite to e2 and (q, e2) to e1
+            int a = triangleNeighbours[base + (i + 2) % 3];
+            int b = triangleNeighbours[base + (i + 1) % 3];
+            int c = triangleNeighbours[uBase + (j + 1) % 3];
+            int d = triangleNeighbours[uBase + (j + 2) % 3];
+
+            List<Coordinate> bucket = new ArrayList<Coordinate>(buckets.get(t));
+            bucket.addAll(buckets.get(u));
+
+            setTriangle(t, p, e1, q, c, u, a);
+            setTriangle(u, p, q, e2, d, b, t);
+            replaceNeighbour(c, u, t);
+            replaceNeighbour(b, t, u);
+
+            distribute(bucket, t, u, -1, -1);
+
+            push(t);
+            push(u);
+        }
+    }
+
+    /**
+     * Check if the edge e1-e2 shared by the triangles with opposite vertices p and q has to be flipped.
+     *
+     * <p>Super triangle vertices are considered outside of any circle. As in the symbolic
+     * treatment of de Berg et al., when a super vertex is involved the edge is legal if
+     * the lowest rank of the opposite vertices is lower than the lowest rank of the edge
+     * vertices, super vertices having the lowest ranks.</p>
+     */
+    private boolean isIllegal( int e1, int e2, int p, int q ) {
+        Coordinate ce1 = vertices.get(e1);
+        Coordinate ce2 = vertices.get(e2);
+        Coordinate cp = vertices.get(p);
+        Coordinate cq = vertices.get(q);
+        // the flip is possible only on a strictly convex quadrilateral
+        if (orient(cp, ce1, cq) <= 0.0 || orient(cp, cq, ce2) <= 0.0) {
+            return false;
+        }
+        if (e1 >= SUPER_VERTICES && e2 >= SUPER_VERTICES && p >= SUPER_VERTICES && q >= SUPER_VERTICES) {
+            return inCircle(cp, ce1, ce2, cq) > 0.0;
+        }
+        return Math.min(p, q) > Math.min(e1, e2);
+    }
+
+    /**
+     * Assign the coordinates of a bucket to the triangles that contain them.
+     */
+    private void distribute( List<Coordinate> bucket, int t1, int t2, int t3, int t4 ) {
+        List<Coordinate> b1 = new ArrayList<Coordinate>();
+        List<Coordinate> b2 = new ArrayList<Coordinate>();
+        List<Coordinate> b3 = t3 != -1 ? new ArrayList<Coordinate>() : null;
+        List<Coordinate> b4 = t4 != -1 ? new ArrayList<Coordinate>() : null;
+        for( Coordinate c : bucket ) {
+            if (contains(t1, c)) {
+                b1.add(c);
+            } else if (contains(t2, c)) {
+                b2.add(c);
+            } else if (b3 != null && contains(t3, c)) {
+                b3.add(c);
+            } else if (b4 != null && contains(t4, c)) {
+                b4.add(c);
+            } else {
+                // only possible through roundoff, keep the coordinate in the first triangle
+                b1.add(c);
+            }
+        }
+        buckets.set(t1, b1);
+        buckets.set(t2, b2);
+        if (b3 != null) {
+            buckets.set(t3, b3);
+        }
+        if (b4 != null) {
+            buckets.set(t4, b4);
+        }
+    }
+
+    private boolean contains( int t, Coordinate c ) {
+        int base = 3 * t;
+        Coordinate a = vertices.get(triangleVertices[base]);
+        Coordinate b = vertices.get(triangleVertices[base + 1]);
+        Coordinate d = vertices.get(triangleVertices[base + 2]);
+        return orient(a, b, c) >= 0.0 && orient(b, d, c) >= 0.0 && orient(d, a, c) >= 0.0;
+    }
+
+    private void push( int t ) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+        }
+        stack[stackSize++] = t;
+    }
+
+    private int newTriangle() {
+        if (3 * (trianglesNum + 1) > triangleVertices.length) {
+            triangleVertices = Arrays.copyOf(triangleVertices, 2 * triangleVertices.length);
+            triangleNeighbours = Arrays.copyOf(triangleNeighbours, 2 * triangleNeighbours.length);
+        }
+        buckets.add(new ArrayList<Coordinate>());
+        return trianglesNum++;
+    }
+
+    private void setTriangle( int t, int v0, int v1, int v2, int n0, int n1, int n2 ) {
+        int base = 3 * t;
+        triangleVertices[base] = v0;
+        triangleVertices[base + 1] = v1;
+        triangleVertices[base + 2] = v2;
+        triangleNeighbours[base] = n0;
+        triangleNeighbours[base + 1] = n1;
+        triangleNeighbours[base + 2] = n2;
+    }
+
+    private void replaceNeighbour( int t, int oldNeighbour, int newNeighbour ) {
+        if (t == -1) {
+            return;
+        }
+        int base = 3 * t;
+        for( int i = 0; i < 3; i++ ) {
+            if (triangleNeighbours[base + i] == oldNeighbour) {
+                triangleNeighbours[base + i] = newNeighbour;
+                return;
+            }
+        }
+    }
+
+    private int neighbourIndex( int t, int neighbour ) {
+        int base = 3 * t;
+        for( int i = 0; i < 3; i++ ) {
+            if (triangleNeighbours[base + i] == neighbour) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Inconsistent triangulation.");
+    }
+
+    private int vertexIndex( int t, int vertex ) {
+        int base = 3 * t;
+        for( int i = 0; i < 3; i++ ) {
+            if (triangleVertices[base + i] == vertex) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Inconsistent triangulation.");
+    }
+
+    /**
+     * @return twice the signed area of the triangle a-b-c, positive if counterclockwise.
+     */
+    private static double orient( Coordinate a, Coordinate b, Coordinate c ) {
+        return (b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x);
+    }
+
+    /**
+     * @return positive if d is inside the circle through the counterclockwise triangle a-b-c.
+     */
+    private static double inCircle( Coordinate a, Coordinate b, Coordinate c, Coordinate d ) {
+        double adx = a.x - d.x;
+        double ady = a.y - d.y;
+        double bdx = b.x - d.x;
+        double bdy = b.y - d.y;
+        double cdx = c.x - d.x;
+        double cdy = c.y - d.y;
+        double ad = adx * adx + ady * ady;
+        double bd = bdx * bdx + bdy * bdy;
+        double cd = cdx * cdx + cdy * cdy;
+        return adx * (bdy * cd - bd * cdy) - ady * (bdx * cd - bd * cdx) + ad * (bdx * cdy - bdy * cdx);
+    }
+}
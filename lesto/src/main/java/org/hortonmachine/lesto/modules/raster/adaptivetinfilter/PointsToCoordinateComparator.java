@@ -26,6 +26,9 @@ import org.locationtech.jts.geom.Coordinate;
 /**
  * A comparator for 3d distance from a given coordinate.
  * 
+ * <p>Coordinates at the same distance are ordered by position, so that
+ * sorted sets only drop coordinates with the same x and y.</p>
+ * 
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class PointsToCoordinateComparator implements Comparator<Coordinate> {
@@ -45,7 +48,7 @@ public class PointsToCoordinateComparator implements Comparator<Coordinate> {
         } else if (d1 > d2) {
             return 1;
         } else {
-            return 0;
+            return o1.compareTo(o2);
         }
     }
 
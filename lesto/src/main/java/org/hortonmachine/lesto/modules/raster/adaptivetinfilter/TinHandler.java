@@ -6,12 +6,12 @@
  * it under the terms of the GNU General Public License as published by
  * the Free Software Foundation, either version 3 of the License, or
  * (at your option) any later version.
- *
+ * 
  * This program is distributed in the hope that it will be useful,
  * but WITHOUT ANY WARRANTY; without even the implied warranty of
  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
  * GNU General Public License for more details.
- *
+ * 
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
@@ -23,12 +23,13 @@ import static org.hortonmachine.gears.utils.geometry.GeometryUtilities.getLineWi
 import static org.hortonmachine.gears.utils.geometry.GeometryUtilities.getTriangleCentroid;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.DefaultFeatureCollection;
@@ -43,20 +44,20 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
-import org.locationtech.jts.algorithm.locate.SimplePointInAreaLocator;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.Location;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.index.strtree.STRtree;
-import org.locationtech.jts.triangulate.DelaunayTriangulationBuilder;
 
 /**
  * A helper class for tin handling.
  * 
+ * <p>The tin is densified incrementally through an {@link IncrementalDelaunay}, whose
+ * triangle buckets hold the non ground points.</p>
+ * 
  * @author Andrea Antonello (www.hydrologis.com)
  */
 @SuppressWarnings("nls")
@@ -64,17 +65,18 @@ public class TinHandler {
     public static final double POINTENVELOPE_EXPAND = 0.1;
 
     /**
-     * The list of coordinates that will be used at the next tin generation.
+     * The list of coordinates that are part of the tin, i.e. the current ground points.
      */
     private List<Coordinate> tinCoordinateList = new ArrayList<Coordinate>();
 
     /**
-     * The list of coordinates that are left out as non ground points at each filtering.
+     * The incremental tin. The coordinates that are left out as non ground points
+     * at each filtering are kept in the buckets of the triangles that contain them.
      */
-    private List<Coordinate> leftOverCoordinateList = new ArrayList<Coordinate>();
+    private IncrementalDelaunay tin;
 
     /**
-     * The geometries of the last calculated tin.
+     * The geometries of the current tin, created on demand.
      */
     private Geometry[] tinGeometries = null;
 
@@ -96,8 +98,6 @@ public class TinHandler {
 
     private double calculatedDistanceThreshold;
 
-    private final ReadWriteLock monitor = new ReentrantReadWriteLock();
-
     private final Double maxEdgeLength;
     private double maxEdgeLengthThreshold;
 
@@ -105,7 +105,7 @@ public class TinHandler {
 
     /**
      * Constructor.
-     *  
+     * 
      * @param pm the monitor.
      * @param crs the crs to use for feature creation.
      * @param distanceThreshold the fixed maximum distance threshold to use.
@@ -126,26 +126,28 @@ public class TinHandler {
      * Sets the initial coordinates to start with.
      * 
      * <p>Generates the tin on the first set of coordinates and adds the 
-     * coordinates to the {@link #tinCoordinateList} for future use.</p>
+     * coordinates to the {@link #tinCoordinateList} for future use. All the
+     * later densifications are inserted in this same tin.</p>
      * 
      * <p><b>Note that it is mandatory to call this method to initialize.</b></p>
      * 
      * @param coordinateList the initial list of coordinates.
      */
     public void setStartCoordinates( List<Coordinate> coordinateList ) {
-        generateTin(coordinateList);
-        for( int i = 0; i < tinGeometries.length; i++ ) {
-            Coordinate[] coordinates = tinGeometries[i].getCoordinates();
-            if (!tinCoordinateList.contains(coordinates[0])) {
-                tinCoordinateList.add(coordinates[0]);
-            }
-            if (!tinCoordinateList.contains(coordinates[1])) {
-                tinCoordinateList.add(coordinates[1]);
-            }
-            if (!tinCoordinateList.contains(coordinates[2])) {
-                tinCoordinateList.add(coordinates[2]);
+        Envelope envelope = new Envelope();
+        for( Coordinate coordinate : coordinateList ) {
+            envelope.expandToInclude(coordinate);
+        }
+        pm.beginTask("Generate tin...", coordinateList.size());
+        tin = new IncrementalDelaunay(envelope);
+        for( Coordinate coordinate : coordinateList ) {
+            if (tin.insert(coordinate) >= 0) {
+                tinCoordinateList.add(coordinate);
             }
+            pm.worked(1);
         }
+        pm.done();
+        tinGeometries = null;
         didInitialize = true;
     }
 
@@ -159,6 +161,21 @@ public class TinHandler {
         return tinGeometries;
     }
 
+    /**
+     * Get the vertices of the triangles of the current active tin.
+     * 
+     * @return the list of triangle vertices.
+     */
+    public List<Coordinate[]> getTrianglesCoordinates() {
+        checkTinGeometries();
+        int[] triangles = tin.getRealTriangles();
+        List<Coordinate[]> trianglesCoordinates = new ArrayList<Coordinate[]>(triangles.length);
+        for( int triangle : triangles ) {
+            trianglesCoordinates.add(tin.getTriangleCoordinates(triangle));
+        }
+        return trianglesCoordinates;
+    }
+
     /**
      * Returns the current size of the {@link #tinCoordinateList} representing teh current ground points.
      * 
@@ -174,9 +191,7 @@ public class TinHandler {
      * @return the size of the non ground points list.
      */
     public int getCurrentNonGroundPointsNum() {
-        synchronized (leftOverCoordinateList) {
-            return leftOverCoordinateList.size();
-        }
+        return tin.getBucketedNum();
     }
 
     /**
@@ -187,41 +202,44 @@ public class TinHandler {
      * @param lasHandler the las data handler of all data.
      * @throws Exception
      */
+    @SuppressWarnings("unchecked")
     public void filterOnAllData( final ALasDataManager lasHandler ) throws Exception {
         final ConcurrentSkipListSet<Double> angleSet = new ConcurrentSkipListSet<Double>();
         final ConcurrentSkipListSet<Double> distanceSet = new ConcurrentSkipListSet<Double>();
 
+        final int[] triangles = tin.getRealTriangles();
         if (isFirstStatsCalculation) {
-            pm.beginTask("Calculating initial statistics...", tinGeometries.length);
+            pm.beginTask("Calculating initial statistics...", triangles.length);
         } else {
-            pm.beginTask("Filtering all data on seeds tin...", tinGeometries.length);
+            pm.beginTask("Filtering all data on seeds tin...", triangles.length);
         }
         try {
-            final List<Coordinate> newTotalLeftOverCoordinateList = new ArrayList<Coordinate>();
+            final Coordinate[] groundCoordinates = new Coordinate[triangles.length];
+            final List<Coordinate>[] leftOverCoordinates = new List[triangles.length];
             if (threadsNum > 1) {
                 // multithreaded
                 ThreadedRunnable tRun = new ThreadedRunnable(threadsNum, null);
-                for( final Geometry tinGeom : tinGeometries ) {
+                for( int i = 0; i < triangles.length; i++ ) {
+                    final int index = i;
                     tRun.executeRunnable(new Runnable(){
                         public void run() {
-                            List<Coordinate> leftOverList = runFilterOnAllData(lasHandler, angleSet, distanceSet, tinGeom);
-                            synchronized (newTotalLeftOverCoordinateList) {
-                                newTotalLeftOverCoordinateList.addAll(leftOverList);
-                            }
+                            runFilterOnAllData(lasHandler, angleSet, distanceSet, triangles, index, groundCoordinates,
+                                    leftOverCoordinates);
                         }
                     });
                 }
                 tRun.waitAndClose();
             } else {
-                for( final Geometry tinGeom : tinGeometries ) {
-                    List<Coordinate> leftOverList = runFilterOnAllData(lasHandler, angleSet, distanceSet, tinGeom);
-                    newTotalLeftOverCoordinateList.addAll(leftOverList);
+                for( int i = 0; i < triangles.length; i++ ) {
+                    runFilterOnAllData(lasHandler, angleSet, distanceSet, triangles, i, groundCoordinates, leftOverCoordinates);
                 }
             }
             pm.done();
 
-            leftOverCoordinateList.clear();
-            leftOverCoordinateList.addAll(newTotalLeftOverCoordinateList);
+            if (!isFirstStatsCalculation) {
+                tin.clearBuckets();
+                densifyTin(triangles, groundCoordinates, leftOverCoordinates);
+            }
 
             /*
              * now recalculate the thresholds
@@ -255,13 +273,16 @@ public class TinHandler {
         }
     }
 
-    private List<Coordinate> runFilterOnAllData( final ALasDataManager lasHandler, final ConcurrentSkipListSet<Double> angleSet,
-            final ConcurrentSkipListSet<Double> distanceSet, final Geometry tinGeom ) {
-        final List<Coordinate> newTotalLeftOverCoordinateList = new ArrayList<Coordinate>();
+    private void runFilterOnAllData( final ALasDataManager lasHandler, final ConcurrentSkipListSet<Double> angleSet,
+            final ConcurrentSkipListSet<Double> distanceSet, int[] triangles, int index, Coordinate[] groundCoordinates,
+            List<Coordinate>[] leftOverCoordinates ) {
+        final List<Coordinate> newLeftOverCoordinateList = new ArrayList<Coordinate>();
+        leftOverCoordinates[index] = newLeftOverCoordinateList;
         try {
-            Coordinate[] tinCoords = tinGeom.getCoordinates();
+            Coordinate[] tinCoords = tin.getTriangleCoordinates(triangles[index]);
             Coordinate triangleCentroid = getTriangleCentroid(tinCoords[0], tinCoords[1], tinCoords[2]);
 
+            Geometry tinGeom = tin.getTrianglePolygon(triangles[index], gf);
             List<LasRecord> pointsInGeom = lasHandler.getPointsInGeometry(tinGeom, false);
             /*
              * now sort the points in the triangle in distance order
@@ -278,11 +299,9 @@ public class TinHandler {
             }
 
             // find first possible ground coordinate
-            boolean foundOne = false;
             for( Coordinate c : centroidNearestSet ) {
-                if (foundOne && !isFirstStatsCalculation) {
-                    if (!newTotalLeftOverCoordinateList.contains(c))
-                        newTotalLeftOverCoordinateList.add(c);
+                if (groundCoordinates[index] != null && !isFirstStatsCalculation) {
+                    newLeftOverCoordinateList.add(c);
                 } else {
                     /*
                      * find the nearest node and distance
@@ -295,8 +314,7 @@ public class TinHandler {
                          * for the next round only on the kept data.
                          */
                         if (nearestDistance > calculatedDistanceThreshold) {
-                            if (!newTotalLeftOverCoordinateList.contains(c))
-                                newTotalLeftOverCoordinateList.add(c);
+                            newLeftOverCoordinateList.add(c);
                             continue;
                         }
                     }
@@ -311,19 +329,13 @@ public class TinHandler {
                     }
                     if (!isFirstStatsCalculation) {
                         if (angle > calculatedAngleThreshold) {
-                            if (!newTotalLeftOverCoordinateList.contains(c))
-                                newTotalLeftOverCoordinateList.add(c);
+                            newLeftOverCoordinateList.add(c);
                             continue;
                         } else {
                             // add it to the next tin
-                            synchronized (tinCoordinateList) {
-                                if (!tinCoordinateList.contains(c)) {
-                                    tinCoordinateList.add(c);
-                                    foundOne = true;
-                                    angleSet.add(angle);
-                                    distanceSet.add(nearestDistance);
-                                }
-                            }
+                            groundCoordinates[index] = c;
+                            angleSet.add(angle);
+                            distanceSet.add(nearestDistance);
                         }
                     } else {
                         angleSet.add(angle);
@@ -335,58 +347,42 @@ public class TinHandler {
             e.printStackTrace();
         }
         pm.worked(1);
-        return newTotalLeftOverCoordinateList;
     }
 
+    @SuppressWarnings("unchecked")
     public void filterOnLeftOverData() {
         if (isFirstStatsCalculation) {
             throw new IllegalArgumentException("The first round needs to be filtered on all data.");
         }
-        pm.beginTask("Creating points indexes...", leftOverCoordinateList.size());
-        final STRtree leftOverCoordinatesTree = new STRtree(leftOverCoordinateList.size());
-        for( Coordinate c : leftOverCoordinateList ) {
-            leftOverCoordinatesTree.insert(new Envelope(c), c);
-        }
-        pm.done();
-
         if (maxEdgeLength != null) {
             maxEdgeLengthThreshold = maxEdgeLength;
         }
 
-        Geometry[] triangles = getTriangles();
+        final int[] triangles = tin.getRealTriangles();
         final ConcurrentSkipListSet<Double> angleSet = new ConcurrentSkipListSet<Double>();
         final ConcurrentSkipListSet<Double> distanceSet = new ConcurrentSkipListSet<Double>();
-        final List<Coordinate> newTotalLeftOverCoordinateList = new ArrayList<Coordinate>();
+        final Coordinate[] groundCoordinates = new Coordinate[triangles.length];
+        final List<Coordinate>[] leftOverCoordinates = new List[triangles.length];
         pm.beginTask("Filtering leftover coordinates on previous tin...", triangles.length);
         if (threadsNum > 1) {
             ThreadedRunnable tRun = new ThreadedRunnable(threadsNum, null);
             for( int i = 0; i < triangles.length; i++ ) {
-                final Geometry triangle = triangles[i];
+                final int index = i;
                 tRun.executeRunnable(new Runnable(){
                     public void run() {
-                        if (maxEdgeLength != null && triangle.getLength() < maxEdgeLengthThreshold * 3.0) {
-                            return;
-                        }
-                        List<Coordinate> leftOverList = runfilterOnLeftOverData(leftOverCoordinatesTree, angleSet, distanceSet,
-                                triangle);
-                        synchronized (newTotalLeftOverCoordinateList) {
-                            newTotalLeftOverCoordinateList.addAll(leftOverList);
-                        }
+                        runfilterOnLeftOverData(angleSet, distanceSet, triangles, index, groundCoordinates, leftOverCoordinates);
                     }
                 });
             }
             tRun.waitAndClose();
         } else {
             for( int i = 0; i < triangles.length; i++ ) {
-                Geometry triangle = triangles[i];
-                List<Coordinate> leftOverList = runfilterOnLeftOverData(leftOverCoordinatesTree, angleSet, distanceSet, triangle);
-                newTotalLeftOverCoordinateList.addAll(leftOverList);
+                runfilterOnLeftOverData(angleSet, distanceSet, triangles, i, groundCoordinates, leftOverCoordinates);
             }
         }
         pm.done();
 
-        leftOverCoordinateList.clear();
-        leftOverCoordinateList.addAll(newTotalLeftOverCoordinateList);
+        densifyTin(triangles, groundCoordinates, leftOverCoordinates);
 
         /*
          * now recalculate the thresholds
@@ -418,46 +414,37 @@ public class TinHandler {
 
     }
 
-    @SuppressWarnings("rawtypes")
-    private List<Coordinate> runfilterOnLeftOverData( final STRtree leftOverCoordsTree,
-            final ConcurrentSkipListSet<Double> angleSet, final ConcurrentSkipListSet<Double> distanceSet, final Geometry triangle ) {
+    private void runfilterOnLeftOverData( final ConcurrentSkipListSet<Double> angleSet,
+            final ConcurrentSkipListSet<Double> distanceSet, int[] triangles, int index, Coordinate[] groundCoordinates,
+            List<Coordinate>[] leftOverCoordinates ) {
+        // the bucket of the triangle holds exactly the left coords inside it
+        List<Coordinate> bucket = tin.getBucket(triangles[index]);
+        Coordinate[] tinCoords = tin.getTriangleCoordinates(triangles[index]);
+        if (maxEdgeLength != null) {
+            double perimeter = tinCoords[0].distance(tinCoords[1]) + tinCoords[1].distance(tinCoords[2])
+                    + tinCoords[2].distance(tinCoords[0]);
+            if (perimeter < maxEdgeLengthThreshold * 3.0) {
+                leftOverCoordinates[index] = bucket;
+                pm.worked(1);
+                return;
+            }
+        }
 
         List<Coordinate> newLeftOverCoordinateList = new ArrayList<Coordinate>();
-        Coordinate[] tinCoords = triangle.getCoordinates();
+        leftOverCoordinates[index] = newLeftOverCoordinateList;
         Coordinate triangleCentroid = getTriangleCentroid(tinCoords[0], tinCoords[1], tinCoords[2]);
 
-        // get left coords around triangle
-        List triangleCoordinates = null;
-        monitor.readLock().lock();
-        try {
-            triangleCoordinates = leftOverCoordsTree.query(triangle.getEnvelopeInternal());
-        } finally {
-            monitor.readLock().unlock();
-        }
-
         /*
          * now sort the points in the triangle in distance order
          * from the triangle centroid, nearest first
          */
         TreeSet<Coordinate> centroidNearestSet = new TreeSet<Coordinate>(new PointsToCoordinateComparator(triangleCentroid));
-        for( Object coordinateObj : triangleCoordinates ) {
-            Coordinate c = (Coordinate) coordinateObj;
-            if (c.equals(tinCoords[0]) || c.equals(tinCoords[1]) || c.equals(tinCoords[2])) {
-                // the seed point was reread
-                continue;
-            }
-            int loc = SimplePointInAreaLocator.locate(c, triangle);
-            if (loc == Location.INTERIOR) {
-                centroidNearestSet.add(c);
-            }
-        }
+        centroidNearestSet.addAll(bucket);
 
         // find first possible ground coordinate
-        boolean foundOne = false;
         for( Coordinate c : centroidNearestSet ) {
-            if (foundOne && !isFirstStatsCalculation) {
-                if (!newLeftOverCoordinateList.contains(c))
-                    newLeftOverCoordinateList.add(c);
+            if (groundCoordinates[index] != null) {
+                newLeftOverCoordinateList.add(c);
             } else {
                 /*
                  * find the nearest node and distance
@@ -469,8 +456,7 @@ public class TinHandler {
                  * for the next round only on the kept data.
                  */
                 if (nearestDistance > calculatedDistanceThreshold) {
-                    if (!newLeftOverCoordinateList.contains(c))
-                        newLeftOverCoordinateList.add(c);
+                    newLeftOverCoordinateList.add(c);
                     continue;
                 }
                 /*
@@ -483,48 +469,89 @@ public class TinHandler {
                     angle = 0.0;
                 }
                 if (angle > calculatedAngleThreshold && angle > angleThreshold) { // TODO
-                    if (!newLeftOverCoordinateList.contains(c))
-                        newLeftOverCoordinateList.add(c);
+                    newLeftOverCoordinateList.add(c);
                     continue;
                 } else {
                     // add it to the next tin
-                    synchronized (tinCoordinateList) {
-                        if (!tinCoordinateList.contains(c)) {
-                            tinCoordinateList.add(c);
-                            foundOne = true;
-                            angleSet.add(angle);
-                            distanceSet.add(nearestDistance);
-                        }
-                    }
+                    groundCoordinates[index] = c;
+                    angleSet.add(angle);
+                    distanceSet.add(nearestDistance);
                 }
             }
         }
 
         pm.worked(1);
-        return newLeftOverCoordinateList;
     }
 
-    public void finalCleanup( final double pFinalCleanupDist ) {
-        if (isFirstStatsCalculation) {
-            throw new IllegalArgumentException("The first round needs to be filtered on all data.");
+    /**
+     * Insert the new ground points in the tin.
+     * 
+     * <p>The left over coordinates are first put in the buckets of the triangles they were
+     * filtered on, the insertions then move them to the new triangles that contain them.</p>
+     * 
+     * @param triangles the filtered triangles.
+     * @param groundCoordinates the new ground coordinate of each triangle, if any.
+     * @param leftOverCoordinates the non ground coordinates of each triangle.
+     */
+    private void densifyTin( int[] triangles, Coordinate[] groundCoordinates, List<Coordinate>[] leftOverCoordinates ) {
+        /*
+         * coordinates on a shared edge can be read by two triangles,
+         * keep them only once and only if they are not ground
+         */
+        Set<Coordinate> edgeCoordinates = new HashSet<Coordinate>();
+        for( Coordinate groundCoordinate : groundCoordinates ) {
+            if (groundCoordinate != null) {
+                edgeCoordinates.add(groundCoordinate);
+            }
         }
-        pm.beginTask("Creating points indexes...", leftOverCoordinateList.size());
-        final STRtree leftOverCoordinatesTree = new STRtree(leftOverCoordinateList.size());
-        for( Coordinate c : leftOverCoordinateList ) {
-            leftOverCoordinatesTree.insert(new Envelope(c), c);
+        for( int i = 0; i < triangles.length; i++ ) {
+            List<Coordinate> leftOverList = leftOverCoordinates[i];
+            Coordinate[] tinCoords = tin.getTriangleCoordinates(triangles[i]);
+            Iterator<Coordinate> iterator = leftOverList.iterator();
+            while( iterator.hasNext() ) {
+                Coordinate c = iterator.next();
+                if (isOnEdge(c, tinCoords) && !edgeCoordinates.add(c)) {
+                    iterator.remove();
+                }
+            }
+            tin.setBucket(triangles[i], leftOverList);
+        }
+
+        pm.beginTask("Inserting new ground points in the tin...", triangles.length);
+        for( Coordinate groundCoordinate : groundCoordinates ) {
+            if (groundCoordinate != null && tin.insert(groundCoordinate) >= 0) {
+                tinCoordinateList.add(groundCoordinate);
+            }
+            pm.worked(1);
         }
         pm.done();
+        tinGeometries = null;
+    }
 
+    private static boolean isOnEdge( Coordinate c, Coordinate[] tinCoords ) {
+        for( int i = 0; i < 3; i++ ) {
+            Coordinate a = tinCoords[i];
+            Coordinate b = tinCoords[(i + 1) % 3];
+            if ((b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x) == 0.0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void finalCleanup( final double pFinalCleanupDist ) {
+        if (isFirstStatsCalculation) {
+            throw new IllegalArgumentException("The first round needs to be filtered on all data.");
+        }
         final AtomicInteger removedCount = new AtomicInteger();
-        Geometry[] triangles = getTriangles();
-        final List<Coordinate> newLeftOverCoordinateList = new ArrayList<Coordinate>();
+        final int[] triangles = tin.getRealTriangles();
         pm.beginTask("Final cleanup through triangle to point distance filter...", triangles.length);
         ThreadedRunnable tRun = new ThreadedRunnable(threadsNum, null);
         for( int i = 0; i < triangles.length; i++ ) {
-            final Geometry triangle = triangles[i];
+            final int triangle = triangles[i];
             tRun.executeRunnable(new Runnable(){
                 public void run() {
-                    runFinalFilter(leftOverCoordinatesTree, newLeftOverCoordinateList, triangle, pFinalCleanupDist, removedCount);
+                    runFinalFilter(triangle, pFinalCleanupDist, removedCount);
                 }
             });
         }
@@ -532,69 +559,46 @@ public class TinHandler {
         pm.done();
 
         pm.message("Final points removed from non ground: " + removedCount.get());
-        pm.message("Final points left as non ground: " + newLeftOverCoordinateList.size());
-        leftOverCoordinateList.clear();
-        leftOverCoordinateList.addAll(newLeftOverCoordinateList);
+        pm.message("Final points left as non ground: " + tin.getBucketedNum());
     }
 
-    private void runFinalFilter( final STRtree leftOverCoordsTree, List<Coordinate> newLeftOverCoordinateList,
-            final Geometry triangle, double pFinalCleanupDist, AtomicInteger removedCount ) {
-
-        Coordinate[] tinCoords = triangle.getCoordinates();
-
-        // get left coords around triangle
-        List triangleCoordinates = null;
-        monitor.readLock().lock();
-        try {
-            triangleCoordinates = leftOverCoordsTree.query(triangle.getEnvelopeInternal());
-        } finally {
-            monitor.readLock().unlock();
-        }
-
-        /*
-         * now sort the points in the triangle in distance order
-         * from the triangle centroid, nearest first
-         */
-        int count = 0;
-        for( Object coordinateObj : triangleCoordinates ) {
-            Coordinate c = (Coordinate) coordinateObj;
-            int loc = SimplePointInAreaLocator.locate(c, triangle);
-            if (loc == Location.INTERIOR) {
-                Coordinate c1 = new Coordinate(c.x, c.y, 1E6);
-                Coordinate c2 = new Coordinate(c.x, c.y, -1E6);
-                Coordinate intersection = getLineWithPlaneIntersection(c1, c2, tinCoords[0], tinCoords[1], tinCoords[2]);
-                double distance = distance3d(intersection, c, null);
-                if (distance > pFinalCleanupDist) {
-                    count++;
-                    synchronized (newLeftOverCoordinateList) {
-                        newLeftOverCoordinateList.add(c);
-                    }
-                }
+    private void runFinalFilter( int triangle, double pFinalCleanupDist, AtomicInteger removedCount ) {
+        Coordinate[] tinCoords = tin.getTriangleCoordinates(triangle);
+        List<Coordinate> bucket = tin.getBucket(triangle);
+
+        List<Coordinate> newLeftOverCoordinateList = new ArrayList<Coordinate>(bucket.size());
+        for( Coordinate c : bucket ) {
+            Coordinate c1 = new Coordinate(c.x, c.y, 1E6);
+            Coordinate c2 = new Coordinate(c.x, c.y, -1E6);
+            Coordinate intersection = getLineWithPlaneIntersection(c1, c2, tinCoords[0], tinCoords[1], tinCoords[2]);
+            double distance = distance3d(intersection, c, null);
+            if (distance > pFinalCleanupDist) {
+                newLeftOverCoordinateList.add(c);
             }
         }
-        removedCount.addAndGet(count);
+        removedCount.addAndGet(bucket.size() - newLeftOverCoordinateList.size());
+        tin.setBucket(triangle, newLeftOverCoordinateList);
         pm.worked(1);
     }
 
+    /**
+     * Drops the geometries of the tin, they will be recreated on demand.
+     * 
+     * <p>The tin itself is kept and densified incrementally.</p>
+     */
     public void resetTin() {
         tinGeometries = null;
     }
 
     /**
-     * Generate a tin from a given coords list. The internal tin geoms array is set from the result.
-     * 
-     * @param coordinateList the coords to use for the tin generation.
+     * Create the geometries of the current tin.
      */
-    private void generateTin( List<Coordinate> coordinateList ) {
-        pm.beginTask("Generate tin...", -1);
-        DelaunayTriangulationBuilder b = new DelaunayTriangulationBuilder();
-        b.setSites(coordinateList);
-        Geometry tinTriangles = b.getTriangles(gf);
-        tinGeometries = new Geometry[tinTriangles.getNumGeometries()];
-        for( int i = 0; i < tinTriangles.getNumGeometries(); i++ ) {
-            tinGeometries[i] = tinTriangles.getGeometryN(i);
+    private void generateTinGeometries() {
+        int[] triangles = tin.getRealTriangles();
+        tinGeometries = new Geometry[triangles.length];
+        for( int i = 0; i < triangles.length; i++ ) {
+            tinGeometries[i] = tin.getTrianglePolygon(triangles[i], gf);
         }
-        pm.done();
     }
 
     /**
@@ -602,6 +606,7 @@ public class TinHandler {
      */
     public STRtree generateTinIndex( Double maxEdgeLength ) {
         double maxEdge = maxEdgeLength != null ? maxEdgeLength : 0.0;
+        Geometry[] tinGeometries = getTriangles();
         pm.beginTask("Creating tin indexes...", tinGeometries.length);
         final STRtree tinTree = new STRtree(tinGeometries.length);
         for( Geometry geometry : tinGeometries ) {
@@ -628,14 +633,14 @@ public class TinHandler {
     }
 
     /**
-     * Checks if the tin is done. If not, it generates it with the available {@link #tinCoordinateList}.  
+     * Checks if the tin geometries are done. If not, it generates them from the current tin.
      */
     private void checkTinGeometries() {
         if (!didInitialize) {
             throw new IllegalArgumentException("Not initialized properly. Did you call setStartCoordinates?");
         }
         if (tinGeometries == null) {
-            generateTin(tinCoordinateList);
+            generateTinGeometries();
         }
     }
 
@@ -747,7 +752,7 @@ public class TinHandler {
         b.add("elev", Double.class);
         SimpleFeatureType type = b.buildFeatureType();
         SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
-        for( Coordinate c : leftOverCoordinateList ) {
+        for( Coordinate c : tin.getBucketedCoordinates() ) {
             Object[] values = new Object[]{gf.createPoint(c), c.z};
             builder.addAll(values);
             SimpleFeature feature = builder.buildFeature(null);
@@ -27,10 +27,8 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSHYDRO_LICENSE;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import javax.media.jai.iterator.RandomIter;
 
@@ -52,9 +50,9 @@ import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.geometry.DirectPosition2D;
 import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.utils.LasGridIndex;
 import org.hortonmachine.gears.io.las.utils.LasUtils;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
-import org.hortonmachine.gears.libs.modules.GridNode;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
@@ -63,6 +61,7 @@ import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.gears.utils.features.FeatureUtilities;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.TransformException;
 
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
@@ -181,93 +180,65 @@ public class OmsPointCloudMaximaFinder extends HMModel {
     public static void doProcess( final List<LasRecord> pointsInTile, final double pMaxRadius, final boolean doDynamicRadius,
             final DsmDtmDiffHelper helper, final DefaultFeatureCollection outTopsFC, final SimpleFeatureBuilder lasBuilder,
             final AtomicInteger index, final IHMProgressMonitor pm ) throws Exception {
-        /*
-         * we use the intensity value to mark local maxima
-         * - 1 = maxima
-         * - 0 = non maxima
-         */
         final GeometryFactory gf = new GeometryFactory();
-        pm.beginTask("Mark local maxima...", pointsInTile.size());
-        ExecutorService fixedThreadPool = Executors.newFixedThreadPool(getDefaultThreadsNum());
-        for( final LasRecord currentDot : pointsInTile ) {
-            Runnable runner = new Runnable(){
-                public void run() {
-                    try {
-                        // check if it is a local maxima
-                        boolean isLocalMaxima = true;
-                        for( LasRecord tmpDot : pointsInTile ) {
-                            double distance = LasUtils.distance(currentDot, tmpDot);
-                            double maxRadius = pMaxRadius;
-                            if (doDynamicRadius) {
-                                // use Popescu lowered to 70% (Popescu & Kini 2004 for mixed pines
-                                // and
-                                // deciduous trees)
-                                maxRadius = (2.51503 + 0.00901 * pow(currentDot.groundElevation, 2.0)) / 2.0 * 0.7;
-                                if (maxRadius > pMaxRadius) {
-                                    maxRadius = pMaxRadius;
-                                }
-                            }
-                            if (distance > maxRadius) {
-                                continue;
-                            }
-                            if (tmpDot.groundElevation > currentDot.groundElevation) {
-                                // not local maxima
-                                isLocalMaxima = false;
-                                break;
-                            }
-                        }
-                        // mark it
-                        if (isLocalMaxima) {
-                            if (helper != null) {
-                                // check if it is some border or noise
-                                GridCoordinates2D gridCoord = helper.gridGeometry
-                                        .worldToGrid(new DirectPosition2D(currentDot.x, currentDot.y));
-                                GridNode node = new GridNode(helper.dsmDtmDiffIter, helper.cols, helper.rows, helper.xres,
-                                        helper.yres, gridCoord.x, gridCoord.y, helper.novalue);
-                                double topElevation = node.elevation;
-                                if (!node.isValid() || node.touchesBound()) {
-                                    isLocalMaxima = false;
-                                } else {
-                                    List<GridNode> validSurroundingNodes = node.getValidSurroundingNodes();
-                                    for( GridNode tmpNode : validSurroundingNodes ) {
-                                        double tmpElevation = tmpNode.elevation;
-                                        if (abs(topElevation - tmpElevation) > helper.pElevDiffThres) {
-                                            isLocalMaxima = false;
-                                        }
-                                    }
-                                }
-                            }
-                            if (isLocalMaxima) {
-                                synchronized (lasBuilder) {
-                                    final Point point = gf.createPoint(new Coordinate(currentDot.x, currentDot.y));
-                                    double groundElevation = currentDot.groundElevation;
-                                    // round to meter with 1 decimal
-                                    groundElevation = ((int) round(groundElevation * 10)) / 10.0;
-                                    final Object[] values = new Object[]{point, index.getAndIncrement(), groundElevation,
-                                            currentDot.intensity, currentDot.classification, currentDot.returnNumber,
-                                            currentDot.numberOfReturns};
-                                    lasBuilder.addAll(values);
-                                    final SimpleFeature feature = lasBuilder.buildFeature(null);
-                                    outTopsFC.add(feature);
-                                }
-                            }
+
+        int size = pointsInTile.size();
+        final double[] xs = new double[size];
+        final double[] ys = new double[size];
+        final double[] elevations = new double[size];
+        for( int i = 0; i < size; i++ ) {
+            LasRecord dot = pointsInTile.get(i);
+            xs[i] = dot.x;
+            ys[i] = dot.y;
+            elevations[i] = dot.groundElevation;
+        }
+        // the radius is never larger than pMaxRadius, so neighbours are at most in the adjacent cells
+        final LasGridIndex pointsIndex = new LasGridIndex(xs, ys, pMaxRadius > 0 ? pMaxRadius : 1.0);
+
+        pm.beginTask("Mark local maxima...", size);
+        IntStream.range(0, size).parallel().forEach(i -> {
+            try {
+                LasRecord currentDot = pointsInTile.get(i);
+                double maxRadius = pMaxRadius;
+                if (doDynamicRadius) {
+                    // use Popescu lowered to 70% (Popescu & Kini 2004 for mixed pines
+                    // and
+                    // deciduous trees)
+                    maxRadius = (2.51503 + 0.00901 * pow(elevations[i], 2.0)) / 2.0 * 0.7;
+                    if (maxRadius > pMaxRadius) {
+                        maxRadius = pMaxRadius;
+                    }
+                }
+                // check if it is a local maxima
+                final double elevation = elevations[i];
+                boolean isLocalMaxima = !pointsIndex.anyWithin(xs[i], ys[i], maxRadius, j -> elevations[j] > elevation);
+                // mark it
+                if (isLocalMaxima) {
+                    if (helper != null) {
+                        // check if it is some border or noise
+                        isLocalMaxima = helper.isValidTop(currentDot.x, currentDot.y);
+                    }
+                    if (isLocalMaxima) {
+                        synchronized (lasBuilder) {
+                            final Point point = gf.createPoint(new Coordinate(currentDot.x, currentDot.y));
+                            double groundElevation = currentDot.groundElevation;
+                            // round to meter with 1 decimal
+                            groundElevation = ((int) round(groundElevation * 10)) / 10.0;
+                            final Object[] values = new Object[]{point, index.getAndIncrement(), groundElevation,
+                                    currentDot.intensity, currentDot.classification, currentDot.returnNumber,
+                                    currentDot.numberOfReturns};
+                            lasBuilder.addAll(values);
+                            final SimpleFeature feature = lasBuilder.buildFeature(null);
+                            outTopsFC.add(feature);
                         }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } finally {
-                        pm.worked(1);
                     }
                 }
-            };
-            fixedThreadPool.execute(runner);
-        }
-        try {
-            fixedThreadPool.shutdown();
-            fixedThreadPool.awaitTermination(30, TimeUnit.DAYS);
-            fixedThreadPool.shutdownNow();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                pm.worked(1);
+            }
+        });
         pm.done();
 
     }
@@ -282,6 +253,41 @@ public class OmsPointCloudMaximaFinder extends HMModel {
         double yres;
         RandomIter dsmDtmDiffIter;
         double novalue;
+
+        /**
+         * Check that a top is not on a border or on noise, i.e. that its cell and all the
+         * surrounding ones are valid and within the permitted elevation difference.
+         *
+         * @param x the x of the top.
+         * @param y the y of the top.
+         * @return <code>true</code> if the top is valid.
+         * @throws TransformException
+         */
+        boolean isValidTop( double x, double y ) throws TransformException {
+            GridCoordinates2D gridCoord = gridGeometry.worldToGrid(new DirectPosition2D(x, y));
+            int col = gridCoord.x;
+            int row = gridCoord.y;
+            if (col < 0 || col >= cols || row < 0 || row >= rows) {
+                return false;
+            }
+            double topElevation = dsmDtmDiffIter.getSampleDouble(col, row, 0);
+            if (HMConstants.isNovalue(topElevation, novalue)) {
+                return false;
+            }
+            for( int c = col - 1; c <= col + 1; c++ ) {
+                for( int r = row - 1; r <= row + 1; r++ ) {
+                    if (c < 0 || c >= cols || r < 0 || r >= rows) {
+                        // touches the bounds
+                        return false;
+                    }
+                    double tmpElevation = dsmDtmDiffIter.getSampleDouble(c, r, 0);
+                    if (!HMConstants.isNovalue(tmpElevation, novalue) && abs(topElevation - tmpElevation) > pElevDiffThres) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
     }
 
 }
@@ -26,6 +26,7 @@ import java.awt.image.WritableRaster;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -36,6 +37,7 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.utils.LasGridIndex;
 import org.hortonmachine.gears.io.rasterwriter.OmsRasterWriter;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
@@ -122,12 +124,14 @@ public class OmsPointCloudMaximaFinderStream extends HMModel {
 
         WritableRaster outWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, HMConstants.doubleNovalue);
 
+        List<LasRecord> aoiDots = new ArrayList<>();
         pm.beginTask("Distribute maximum values on grid...", inLas.size());
         for( LasRecord dot : inLas ) {
             DirectPosition wPoint = new DirectPosition2D(dot.x, dot.y);
             if (!aoi.contains(wPoint)) {
                 continue;
             }
+            aoiDots.add(dot);
 
             GridCoordinates2D gridCoord = gridGeometry.worldToGrid(wPoint);
             int x = gridCoord.x;
@@ -146,40 +150,53 @@ public class OmsPointCloudMaximaFinderStream extends HMModel {
         }
         pm.done();
 
-        int rowPerRadius = (int) Math.ceil(pMaxRadius / pBaseGridResolution);
-
-        pm.beginTask("Grow maxima regions...", rows);
-        for( int r = 0; r < rows; r++ ) {
-            for( int c = 0; c < cols; c++ ) {
-                double centerValue = outWR.getSampleDouble(c, r, 0);
-                if (HMConstants.isNovalue(centerValue)) {
-                    continue;
-                }
-                // moving window
-                for( int wc = c - rowPerRadius; wc <= c + rowPerRadius; wc++ ) {
-                    for( int wr = r - rowPerRadius; wr <= r + rowPerRadius; wr++ ) {
-                        if (wr == r && wc == c) {
-                            continue;
-                        }
-                        if (wr < 0 || wr >= rows) {
-                            continue;
-                        }
-                        if (wc < 0 || wc >= cols) {
-                            continue;
-                        }
-                        double wValue = outWR.getSampleDouble(wc, wr, 0);
-                        if (HMConstants.isNovalue(wValue)) {
-                            continue;
-                        }
-
-                        double newValue = Math.max(centerValue, wValue);
-                        outWR.setSample(wc, wr, 0, newValue);
+        if (pMaxRadius > 0) {
+            int size = aoiDots.size();
+            double[] xs = new double[size];
+            double[] ys = new double[size];
+            double[] zs = new double[size];
+            for( int i = 0; i < size; i++ ) {
+                LasRecord dot = aoiDots.get(i);
+                xs[i] = dot.x;
+                ys[i] = dot.y;
+                zs[i] = dot.z;
+            }
+            LasGridIndex pointsIndex = new LasGridIndex(xs, ys, Math.max(pMaxRadius, pBaseGridResolution));
+
+            /*
+             * every cell with points gets the maximum of the points within the radius
+             * from its center, the grown values don't feed the next cells
+             */
+            double xres = (east - west) / cols;
+            double yres = (north - south) / rows;
+            double[] grown = new double[cols * rows];
+            pm.beginTask("Grow maxima regions...", rows);
+            IntStream.range(0, rows).parallel().forEach(r -> {
+                double y = north - (r + 0.5) * yres;
+                for( int c = 0; c < cols; c++ ) {
+                    double centerValue = outWR.getSampleDouble(c, r, 0);
+                    if (HMConstants.isNovalue(centerValue)) {
+                        grown[r * cols + c] = centerValue;
+                        continue;
                     }
+                    double x = west + (c + 0.5) * xres;
+                    double[] max = {centerValue};
+                    pointsIndex.forEachWithin(x, y, pMaxRadius, i -> {
+                        if (zs[i] > max[0]) {
+                            max[0] = zs[i];
+                        }
+                    });
+                    grown[r * cols + c] = max[0];
+                }
+                pm.worked(1);
+            });
+            pm.done();
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    outWR.setSample(c, r, 0, grown[r * cols + c]);
                 }
             }
-            pm.worked(1);
         }
-        pm.done();
 
         RegionMap regionMap = CoverageUtilities.gridGeometry2RegionParamsMap(gridGeometry);
         outCoverage = CoverageUtilities.buildCoverage("tops", outWR, regionMap, crs);
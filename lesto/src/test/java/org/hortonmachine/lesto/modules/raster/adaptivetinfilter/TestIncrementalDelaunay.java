@@ -0,0 +1,266 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.lesto.modules.raster.adaptivetinfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Triangle;
+import org.locationtech.jts.triangulate.DelaunayTriangulationBuilder;
+
+/**
+ * Test for {@link IncrementalDelaunay}, against the JTS triangulation.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestIncrementalDelaunay {
+
+    private static final double SIZE = 1000.0;
+    private static final double EPSILON = 1E-6;
+
+    private final GeometryFactory gf = new GeometryFactory();
+
+    @Test
+    public void testRandomPoints() throws Exception {
+        Random random = new Random(42);
+        List<Coordinate> points = new ArrayList<>();
+        for( int i = 0; i < 500; i++ ) {
+            points.add(new Coordinate(random.nextDouble() * SIZE, random.nextDouble() * SIZE));
+        }
+        IncrementalDelaunay delaunay = triangulate(points);
+
+        // any triangulation of n points with h on the convex hull has 2n - 2 - h triangles
+        Geometry hull = gf.createMultiPointFromCoords(points.toArray(new Coordinate[0])).convexHull();
+        int hullNum = hull.getNumPoints() - 1;
+        assertEquals(2 * points.size() - 2 - hullNum, delaunay.getRealTriangles().length);
+
+        // in general position the triangulation is unique
+        Set<String> triangles = new HashSet<>();
+        Set<String> innerTriangles = new HashSet<>();
+        for( int t : delaunay.getRealTriangles() ) {
+            Coordinate[] c = delaunay.getTriangleCoordinates(t);
+            triangles.add(key(c));
+            if (isCircumcircleInside(c, hull.getEnvelopeInternal())) {
+                innerTriangles.add(key(c));
+            }
+        }
+        /*
+         * JTS builds on a finite frame and can lose thin triangles along the convex hull,
+         * those that have the circumcircle inside the points have to be the same.
+         */
+        Geometry jtsTriangles = jtsTriangles(points);
+        Set<String> jtsInnerTriangles = new HashSet<>();
+        for( int i = 0; i < jtsTriangles.getNumGeometries(); i++ ) {
+            Coordinate[] c = jtsTriangles.getGeometryN(i).getCoordinates();
+            String key = key(new Coordinate[]{c[0], c[1], c[2]});
+            assertTrue(triangles.contains(key));
+            if (isCircumcircleInside(c, hull.getEnvelopeInternal())) {
+                jtsInnerTriangles.add(key);
+            }
+        }
+        assertTrue(innerTriangles.size() > triangles.size() / 2);
+        assertEquals(jtsInnerTriangles, innerTriangles);
+        checkEmptyCircumcircles(delaunay);
+    }
+
+    @Test
+    public void testCocircularPoints() throws Exception {
+        // the cells of a lattice have four points on the same circle
+        List<Coordinate> points = new ArrayList<>();
+        for( int row = 0; row < 10; row++ ) {
+            for( int col = 0; col < 10; col++ ) {
+                points.add(new Coordinate(col * 10.0, row * 10.0));
+            }
+        }
+        IncrementalDelaunay delaunay = triangulate(points);
+        assertEquals(2 * 9 * 9, delaunay.getRealTriangles().length);
+        assertEquals(jtsTriangles(points).getNumGeometries(), delaunay.getRealTriangles().length);
+        checkEmptyCircumcircles(delaunay);
+    }
+
+    @Test
+    public void testCollinearPoints() throws Exception {
+        List<Coordinate> points = new ArrayList<>();
+        for( int i = 0; i < 10; i++ ) {
+            points.add(new Coordinate(i * 10.0, i * 5.0));
+        }
+        IncrementalDelaunay delaunay = triangulate(points);
+        assertEquals(0, delaunay.getRealTriangles().length);
+
+        // a point off the line makes a fan of triangles
+        points.add(new Coordinate(0, 50));
+        delaunay.insert(points.get(points.size() - 1));
+        assertEquals(9, delaunay.getRealTriangles().length);
+        assertEquals(jtsTriangles(points).getNumGeometries(), delaunay.getRealTriangles().length);
+        checkEmptyCircumcircles(delaunay);
+    }
+
+    @Test
+    public void testOnEdgeAndDuplicateInserts() throws Exception {
+        IncrementalDelaunay delaunay = new IncrementalDelaunay(new Envelope(0, 2, 0, 2));
+        delaunay.insert(new Coordinate(0, 0));
+        delaunay.insert(new Coordinate(2, 0));
+        delaunay.insert(new Coordinate(2, 2));
+        delaunay.insert(new Coordinate(0, 2));
+        assertEquals(2, delaunay.getRealTriangles().length);
+
+        // on the inner diagonal, or on one of the inner edges if the other diagonal was chosen
+        assertEquals(4, delaunay.insert(new Coordinate(1, 1)));
+        assertEquals(4, delaunay.getRealTriangles().length);
+        // on a border of the hull
+        assertEquals(5, delaunay.insert(new Coordinate(1, 0)));
+        assertEquals(5, delaunay.getRealTriangles().length);
+        checkEmptyCircumcircles(delaunay);
+
+        // duplicates are not inserted
+        int trianglesNum = delaunay.getTrianglesNum();
+        assertEquals(-1, delaunay.insert(new Coordinate(1, 1)));
+        assertEquals(-1, delaunay.insert(new Coordinate(2, 0)));
+        assertEquals(trianglesNum, delaunay.getTrianglesNum());
+        assertEquals(6, delaunay.getVertices().size());
+        assertEquals(5, delaunay.getRealTriangles().length);
+    }
+
+    @Test
+    public void testBucketsFollowTheTriangles() throws Exception {
+        Random random = new Random(7);
+        IncrementalDelaunay delaunay = new IncrementalDelaunay(new Envelope(0, SIZE, 0, SIZE));
+        delaunay.insert(new Coordinate(0, 0));
+        delaunay.insert(new Coordinate(SIZE, 0));
+        delaunay.insert(new Coordinate(SIZE, SIZE));
+        delaunay.insert(new Coordinate(0, SIZE));
+
+        int bucketedNum = 2000;
+        for( int i = 0; i < bucketedNum; i++ ) {
+            Coordinate c = new Coordinate(random.nextDouble() * SIZE, random.nextDouble() * SIZE);
+            delaunay.getBucket(delaunay.locate(c, 0)).add(c);
+        }
+        checkBuckets(delaunay);
+
+        for( int i = 0; i < 300; i++ ) {
+            Coordinate c;
+            if (i % 3 == 0) {
+                // on the lines of a lattice, to split edges as well
+                c = new Coordinate(random.nextInt(11) * SIZE / 10, random.nextDouble() * SIZE);
+            } else {
+                c = new Coordinate(random.nextDouble() * SIZE, random.nextDouble() * SIZE);
+            }
+            delaunay.insert(c);
+            if (i % 50 == 0) {
+                checkBuckets(delaunay);
+            }
+        }
+        checkBuckets(delaunay);
+        assertEquals(bucketedNum, delaunay.getBucketedNum());
+        checkEmptyCircumcircles(delaunay);
+    }
+
+    private IncrementalDelaunay triangulate( List<Coordinate> points ) {
+        Envelope envelope = new Envelope();
+        for( Coordinate c : points ) {
+            envelope.expandToInclude(c);
+        }
+        IncrementalDelaunay delaunay = new IncrementalDelaunay(envelope);
+        for( Coordinate c : points ) {
+            delaunay.insert(c);
+        }
+        return delaunay;
+    }
+
+    private Geometry jtsTriangles( List<Coordinate> points ) {
+        DelaunayTriangulationBuilder builder = new DelaunayTriangulationBuilder();
+        builder.setSites(points);
+        return builder.getTriangles(gf);
+    }
+
+    /**
+     * No vertex lies strictly inside the circumcircle of a triangle.
+     */
+    private void checkEmptyCircumcircles( IncrementalDelaunay delaunay ) {
+        List<Coordinate> vertices = delaunay.getVertices();
+        for( int t : delaunay.getRealTriangles() ) {
+            Coordinate[] c = delaunay.getTriangleCoordinates(t);
+            assertTrue(orient(c[0], c[1], c[2]) > 0);
+            double ux = (c[0].x + c[1].x + c[2].x) / 3;
+            double uy = (c[0].y + c[1].y + c[2].y) / 3;
+            for( Coordinate v : vertices ) {
+                double inCircle = inCircle(c[0], c[1], c[2], v);
+                // scale the determinant, that grows with the fourth power of the distances
+                double scale = Math.pow(Math.max(Math.hypot(v.x - ux, v.y - uy), 1.0), 4);
+                assertTrue("Vertex " + v + " in the circumcircle of triangle " + t, inCircle / scale <= EPSILON);
+            }
+        }
+    }
+
+    /**
+     * Every bucketed coordinate lies in its triangle.
+     */
+    private void checkBuckets( IncrementalDelaunay delaunay ) {
+        for( int t = 0; t < delaunay.getTrianglesNum(); t++ ) {
+            Coordinate[] c = delaunay.getTriangleCoordinates(t);
+            for( Coordinate p : delaunay.getBucket(t) ) {
+                assertTrue(orient(c[0], c[1], p) >= -EPSILON);
+                assertTrue(orient(c[1], c[2], p) >= -EPSILON);
+                assertTrue(orient(c[2], c[0], p) >= -EPSILON);
+            }
+        }
+    }
+
+    private static boolean isCircumcircleInside( Coordinate[] c, Envelope envelope ) {
+        Coordinate center = Triangle.circumcentre(c[0], c[1], c[2]);
+        double radius = center.distance(c[0]);
+        return center.x - radius >= envelope.getMinX() && center.x + radius <= envelope.getMaxX()
+                && center.y - radius >= envelope.getMinY() && center.y + radius <= envelope.getMaxY();
+    }
+
+    private static String key( Coordinate[] triangle ) {
+        List<String> vertices = new ArrayList<>();
+        for( Coordinate c : triangle ) {
+            vertices.add(c.x + " " + c.y);
+        }
+        vertices.sort(null);
+        return String.join(";", vertices);
+    }
+
+    private static double orient( Coordinate a, Coordinate b, Coordinate c ) {
+        return (b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x);
+    }
+
+    private static double inCircle( Coordinate a, Coordinate b, Coordinate c, Coordinate d ) {
+        double adx = a.x - d.x;
+        double ady = a.y - d.y;
+        double bdx = b.x - d.x;
+        double bdy = b.y - d.y;
+        double cdx = c.x - d.x;
+        double cdy = c.y - d.y;
+        return (adx * adx + ady * ady) * (bdx * cdy - cdx * bdy) - (bdx * bdx + bdy * bdy) * (adx * cdy - cdx * ady)
+                + (cdx * cdx + cdy * cdy) * (adx * bdy - bdx * ady);
+    }
+
+}
@@ -30,6 +30,7 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_outHil
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pAzimuth_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pMinDiffuse_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pSectors_DESCRIPTION;
 
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
@@ -72,6 +73,10 @@ public class Hillshade extends HMModel {
     @In
     public double pElev = 90;
 
+    @Description(OMSHILLSHADE_pSectors_DESCRIPTION)
+    @In
+    public int pSectors = 0;
+
     @Description(OMSHILLSHADE_outHill_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -84,6 +89,7 @@ public class Hillshade extends HMModel {
         hillshade.pMinDiffuse = pMinDiffuse;
         hillshade.pAzimuth = pAzimuth;
         hillshade.pElev = pElev;
+        hillshade.pSectors = pSectors;
         hillshade.pm = pm;
         hillshade.doProcess = doProcess;
         hillshade.doReset = doReset;
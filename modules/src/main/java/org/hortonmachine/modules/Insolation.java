@@ -27,6 +27,7 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_inElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_outIns_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_pSectors_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_tEndDate_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_tStartDate_DESCRIPTION;
 
@@ -67,6 +68,10 @@ public class Insolation extends HMModel {
     @In
     public String tEndDate = null;
 
+    @Description(OMSINSOLATION_pSectors_DESCRIPTION)
+    @In
+    public int pSectors = 0;
+
     @Description(OMSINSOLATION_outIns_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -78,6 +83,7 @@ public class Insolation extends HMModel {
         insolation.inElev = getRaster(inElev);
         insolation.tStartDate = tStartDate;
         insolation.tEndDate = tEndDate;
+        insolation.pSectors = pSectors;
         insolation.pm = pm;
         insolation.doProcess = doProcess;
         insolation.doReset = doReset;
@@ -27,6 +27,7 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_inElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_outSky_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_pSectors_DESCRIPTION;
 
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
@@ -57,6 +58,10 @@ public class Skyview extends HMModel {
     @In
     public String inElev = null;
 
+    @Description(OMSSKYVIEW_pSectors_DESCRIPTION)
+    @In
+    public int pSectors = 0;
+
     @Description(OMSSKYVIEW_outSky_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -66,6 +71,7 @@ public class Skyview extends HMModel {
     public void process() throws Exception {
         OmsSkyview skyview = new OmsSkyview();
         skyview.inElev = getRaster(inElev);
+        skyview.pSectors = pSectors;
         skyview.pm = pm;
         skyview.doProcess = doProcess;
         skyview.doReset = doReset;
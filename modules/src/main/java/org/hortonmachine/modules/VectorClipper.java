@@ -28,6 +28,7 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORCLIPPER_LICENS
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORCLIPPER_NAME;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORCLIPPER_OUT_MAP_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORCLIPPER_P_MAX_THREADS_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORCLIPPER_DO_STREAM_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORCLIPPER_STATUS;
 
 import org.hortonmachine.gears.libs.modules.HMConstants;
@@ -68,6 +69,10 @@ public class VectorClipper extends HMModel {
     @In
     public int pMaxThreads = getDefaultThreadsNum();
 
+    @Description(OMSVECTORCLIPPER_DO_STREAM_DESCRIPTION)
+    @In
+    public boolean doStream = false;
+
     @Description(OMSVECTORCLIPPER_OUT_MAP_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -79,6 +84,7 @@ public class VectorClipper extends HMModel {
         vectorclipper.inMap = getVector(inMap);
         vectorclipper.inClipper = getVector(inClipper);
         vectorclipper.pMaxThreads = pMaxThreads;
+        vectorclipper.doStream = doStream;
         vectorclipper.pm = pm;
         vectorclipper.doProcess = doProcess;
         vectorclipper.doReset = doReset;
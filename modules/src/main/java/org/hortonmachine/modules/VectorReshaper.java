@@ -28,6 +28,7 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORRESHAPER_NAME;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORRESHAPER_OUT_VECTOR_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORRESHAPER_P_CQL_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORRESHAPER_P_REMOVE_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORRESHAPER_DO_STREAM_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSVECTORRESHAPER_STATUS;
 
 import org.hortonmachine.gears.libs.modules.HMConstants;
@@ -68,6 +69,10 @@ public class VectorReshaper extends HMModel {
     @In
     public String pRemove = null;
 
+    @Description(OMSVECTORRESHAPER_DO_STREAM_DESCRIPTION)
+    @In
+    public boolean doStream = false;
+
     @Description(OMSVECTORRESHAPER_OUT_VECTOR_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -79,6 +84,7 @@ public class VectorReshaper extends HMModel {
         vectorreshaper.inVector = getVector(inVector);
         vectorreshaper.pCql = pCql;
         vectorreshaper.pRemove = pRemove;
+        vectorreshaper.doStream = doStream;
         vectorreshaper.pm = pm;
         vectorreshaper.doProcess = doProcess;
         vectorreshaper.doReset = doReset;
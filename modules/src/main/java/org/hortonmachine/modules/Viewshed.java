@@ -64,6 +64,11 @@ public class Viewshed extends HMModel {
     @In
     public double pHeight = 2.0;
 
+    @Description(DESCR_pMaxRadius)
+    @Unit("m")
+    @In
+    public double pMaxRadius = -1;
+
     @Description(DESCR_outViewshed)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -77,6 +82,7 @@ public class Viewshed extends HMModel {
         vs.inViewPoints = getVector(inViewPoints);
         vs.pField = pField;
         vs.pHeight = pHeight;
+        vs.pMaxRadius = pMaxRadius;
         vs.process();
         dumpRaster(vs.outViewshed, outViewshed);
     }